@@ -0,0 +1,341 @@
+package ca.uhn.example.base;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.RuntimePrimitiveDatatypeDefinition;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import org.hl7.fhir.instance.model.api.IBase;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A precompiled serialization plan for one FHIR element or resource type.
+ * <p>
+ * Every child of the type gets an integer field ID (its position in the
+ * definition), and the accessors, mutators and element definitions needed to
+ * read and write it are looked up once, when the plan is built. The plan is
+ * identified by a schema ID derived from its {@link Descriptor}, so data written
+ * with a different layout is detected instead of being misread. Such data is
+ * read through a {@link Translation}, which maps the fields of the layout it was
+ * written with onto the current fields by name.
+ * </p>
+ */
+final class FhirBinarySchema {
+
+	static final short END_OF_FIELDS = -1;
+	static final byte TAG_PRIMITIVE = 1;
+	static final byte TAG_OBJECT = 2;
+
+	private final String myTypeName;
+	private final int mySchemaId;
+	private final int myFieldNamesSchemaId;
+	private final Field[] myFields;
+	private final Map<String, Field> myNameToField = new HashMap<>();
+	private final Descriptor myDescriptor;
+	private final Map<Integer, Translation> mySchemaIdToTranslation = new ConcurrentHashMap<>();
+
+	private FhirBinarySchema(String theTypeName, List<Field> theFields) {
+		myTypeName = theTypeName;
+		myFields = theFields.toArray(new Field[0]);
+		for (Field next : myFields) {
+			myNameToField.put(next.getName(), next);
+		}
+		myDescriptor = new Descriptor(this);
+		mySchemaId = myDescriptor.getSchemaId();
+
+		int fieldNamesSchemaId = theTypeName.hashCode();
+		for (Field next : myFields) {
+			fieldNamesSchemaId = 31 * fieldNamesSchemaId + next.getName().hashCode();
+		}
+		myFieldNamesSchemaId = nonZero(fieldNamesSchemaId);
+	}
+
+	/**
+	 * 0 is reserved for data written by the legacy (named field) layout
+	 */
+	private static int nonZero(int theSchemaId) {
+		return theSchemaId != 0 ? theSchemaId : 1;
+	}
+
+	String getTypeName() {
+		return myTypeName;
+	}
+
+	int getSchemaId() {
+		return mySchemaId;
+	}
+
+	/**
+	 * The schema ID used by the first version of this format, which was derived from the
+	 * field names only. Data written with that ID has the same field order as this schema.
+	 */
+	int getFieldNamesSchemaId() {
+		return myFieldNamesSchemaId;
+	}
+
+	Descriptor getDescriptor() {
+		return myDescriptor;
+	}
+
+	/**
+	 * Returns the translation from data written with the given (different) layout to this schema
+	 */
+	Translation translationFrom(int theSchemaId, Descriptor theWritten) {
+		return mySchemaIdToTranslation.computeIfAbsent(theSchemaId, t -> new Translation(theWritten, this));
+	}
+
+	Field[] getFields() {
+		return myFields;
+	}
+
+	Field getField(short theFieldId) {
+		return myFields[theFieldId];
+	}
+
+	static FhirBinarySchema forDefinition(BaseRuntimeElementCompositeDefinition<?> theDefinition) {
+		boolean resource = theDefinition instanceof RuntimeResourceDefinition;
+		List<Field> fields = new ArrayList<>();
+		for (BaseRuntimeChildDefinition next : theDefinition.getChildren()) {
+			fields.add(new Field((short) fields.size(), next, resource));
+		}
+		return new FhirBinarySchema(theDefinition.getName(), fields);
+	}
+
+	static final class Field {
+		private final short myId;
+		private final String myName;
+		private final BaseRuntimeChildDefinition myChild;
+		private final boolean myMultiple;
+		private final boolean myChoice;
+		private final boolean myNamed;
+		private final String[] myTypeNames;
+		private final BaseRuntimeElementDefinition<?>[] myTypeDefinitions;
+		private final Object myInstanceConstructorArguments;
+		private final Map<Class<?>, Byte> myClassToTypeIndex = new ConcurrentHashMap<>();
+
+		private Field(short theId, BaseRuntimeChildDefinition theChild, boolean theResource) {
+			myId = theId;
+			myName = theChild.getElementName();
+			myChild = theChild;
+			myMultiple = theChild.getMax() != 1;
+			myInstanceConstructorArguments = theChild.getInstanceConstructorArguments();
+
+			// Sorted so that the type indexes don't depend on set iteration order
+			myTypeNames = new TreeSet<>(theChild.getValidChildNames()).toArray(new String[0]);
+			myTypeDefinitions = new BaseRuntimeElementDefinition<?>[myTypeNames.length];
+			for (int i = 0; i < myTypeNames.length; i++) {
+				myTypeDefinitions[i] = theChild.getChildByName(myTypeNames[i]);
+			}
+			myChoice = myTypeNames.length > 1;
+
+			// Single primitive children of resources are also written as named fields so they stay SQL-queryable
+			myNamed = theResource && !myMultiple && !myChoice && myTypeDefinitions.length == 1 && myTypeDefinitions[0] instanceof RuntimePrimitiveDatatypeDefinition;
+		}
+
+		short getId() {
+			return myId;
+		}
+
+		String getName() {
+			return myName;
+		}
+
+		BaseRuntimeChildDefinition getChild() {
+			return myChild;
+		}
+
+		boolean isMultiple() {
+			return myMultiple;
+		}
+
+		boolean isChoice() {
+			return myChoice;
+		}
+
+		boolean isNamed() {
+			return myNamed;
+		}
+
+		/**
+		 * Returns the index of the choice type used by the given value, or -1 if the value can't be written as a primitive
+		 */
+		byte typeIndexOf(IBase theValue) {
+			return myClassToTypeIndex.computeIfAbsent(theValue.getClass(), t -> {
+				@SuppressWarnings("unchecked")
+				String name = myChild.getChildNameByDatatype((Class<? extends IBase>) t);
+				for (byte i = 0; i < myTypeNames.length; i++) {
+					if (myTypeNames[i].equals(name) && myTypeDefinitions[i] instanceof RuntimePrimitiveDatatypeDefinition) {
+						return i;
+					}
+				}
+				return (byte) -1;
+			});
+		}
+
+		IBase newPrimitiveInstance(byte theTypeIndex) {
+			return myTypeDefinitions[theTypeIndex].newInstance(myInstanceConstructorArguments);
+		}
+
+		/**
+		 * Returns the index of the given choice type name, or -1 if this field doesn't allow it
+		 */
+		byte indexOfTypeName(String theTypeName) {
+			for (byte i = 0; i < myTypeNames.length; i++) {
+				if (myTypeNames[i].equals(theTypeName)) {
+					return i;
+				}
+			}
+			return (byte) -1;
+		}
+	}
+
+	/**
+	 * The layout of a schema, i.e. everything needed to read data written with it, even once
+	 * the type it was built from has changed. Descriptors are shared between nodes (and kept
+	 * alongside the data) through {@link FhirBinarySerializer#publishSchemas(org.apache.ignite.Ignite)}.
+	 */
+	public static final class Descriptor implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String myTypeName;
+		private final String[] myFieldNames;
+		private final boolean[] myMultiple;
+		private final boolean[] myNamed;
+		private final String[][] myFieldTypeNames;
+
+		private Descriptor(FhirBinarySchema theSchema) {
+			Field[] fields = theSchema.getFields();
+			myTypeName = theSchema.getTypeName();
+			myFieldNames = new String[fields.length];
+			myMultiple = new boolean[fields.length];
+			myNamed = new boolean[fields.length];
+			myFieldTypeNames = new String[fields.length][];
+			for (int i = 0; i < fields.length; i++) {
+				myFieldNames[i] = fields[i].getName();
+				myMultiple[i] = fields[i].isMultiple();
+				myNamed[i] = fields[i].isNamed();
+				myFieldTypeNames[i] = fields[i].myTypeNames;
+			}
+		}
+
+		Descriptor(String theTypeName, String[] theFieldNames, boolean[] theMultiple, boolean[] theNamed, String[][] theFieldTypeNames) {
+			myTypeName = theTypeName;
+			myFieldNames = theFieldNames;
+			myMultiple = theMultiple;
+			myNamed = theNamed;
+			myFieldTypeNames = theFieldTypeNames;
+		}
+
+		int getSchemaId() {
+			int retVal = myTypeName.hashCode();
+			for (int i = 0; i < myFieldNames.length; i++) {
+				retVal = 31 * retVal + myFieldNames[i].hashCode();
+				retVal = 31 * retVal + (myMultiple[i] ? 1 : 0);
+				retVal = 31 * retVal + Arrays.hashCode(myFieldTypeNames[i]);
+			}
+			return nonZero(retVal);
+		}
+
+		String getTypeName() {
+			return myTypeName;
+		}
+
+		int getFieldCount() {
+			return myFieldNames.length;
+		}
+
+		String getFieldName(int theFieldId) {
+			return myFieldNames[theFieldId];
+		}
+
+		boolean isMultiple(int theFieldId) {
+			return myMultiple[theFieldId];
+		}
+
+		boolean isNamed(int theFieldId) {
+			return myNamed[theFieldId];
+		}
+
+		boolean isChoice(int theFieldId) {
+			return myFieldTypeNames[theFieldId].length > 1;
+		}
+
+		@Override
+		public boolean equals(Object theOther) {
+			if (this == theOther) {
+				return true;
+			}
+			if (!(theOther instanceof Descriptor)) {
+				return false;
+			}
+			Descriptor other = (Descriptor) theOther;
+			return myTypeName.equals(other.myTypeName)
+				&& Arrays.equals(myFieldNames, other.myFieldNames)
+				&& Arrays.equals(myMultiple, other.myMultiple)
+				&& Arrays.equals(myNamed, other.myNamed)
+				&& Arrays.deepEquals(myFieldTypeNames, other.myFieldTypeNames);
+		}
+
+		@Override
+		public int hashCode() {
+			return getSchemaId();
+		}
+
+		@Override
+		public String toString() {
+			return myTypeName + Arrays.toString(myFieldNames);
+		}
+	}
+
+	/**
+	 * Maps the fields and choice types of a layout that data was written with onto the
+	 * fields of the current schema. Fields and choice types which no longer exist map
+	 * to {@literal null} and -1, and their values are skipped.
+	 */
+	static final class Translation {
+		private final Descriptor myWritten;
+		private final Field[] myTargets;
+		private final byte[][] myTypeIndexes;
+
+		private Translation(Descriptor theWritten, FhirBinarySchema theCurrent) {
+			myWritten = theWritten;
+			myTargets = new Field[theWritten.getFieldCount()];
+			myTypeIndexes = new byte[theWritten.getFieldCount()][];
+			for (int i = 0; i < myTargets.length; i++) {
+				Field target = theCurrent.myNameToField.get(theWritten.getFieldName(i));
+				String[] writtenTypeNames = theWritten.myFieldTypeNames[i];
+				myTypeIndexes[i] = new byte[writtenTypeNames.length];
+				for (int j = 0; j < writtenTypeNames.length; j++) {
+					myTypeIndexes[i][j] = target != null ? target.indexOfTypeName(writtenTypeNames[j]) : -1;
+				}
+				myTargets[i] = target;
+			}
+		}
+
+		Descriptor getWritten() {
+			return myWritten;
+		}
+
+		/**
+		 * Returns the current field for the given written field ID, or {@literal null} if it no longer exists
+		 */
+		Field getTarget(int theWrittenFieldId) {
+			return myTargets[theWrittenFieldId];
+		}
+
+		/**
+		 * Returns the current choice type index for the given written choice type index, or -1 if it is no longer allowed
+		 */
+		byte getTypeIndex(int theWrittenFieldId, byte theWrittenTypeIndex) {
+			return myTypeIndexes[theWrittenFieldId][theWrittenTypeIndex];
+		}
+	}
+}
@@ -1,141 +1,307 @@
 package ca.uhn.example.base;
 
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.cache.Cache;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
 import org.apache.ignite.binary.BinaryObjectException;
+import org.apache.ignite.binary.BinaryRawReader;
+import org.apache.ignite.binary.BinaryRawWriter;
 import org.apache.ignite.binary.BinaryReader;
 import org.apache.ignite.binary.BinarySerializer;
 import org.apache.ignite.binary.BinaryWriter;
-import org.apache.ignite.internal.binary.BinaryClassDescriptor;
-import org.apache.ignite.internal.binary.BinaryFieldAccessor;
-import org.apache.ignite.internal.binary.BinaryWriterExImpl;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.configuration.CacheConfiguration;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
-import org.hl7.fhir.r4.model.BaseResource;
 
 import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
 import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.model.api.IElement;
 
+/**
+ * Ignite serializer for FHIR model objects.
+ * <p>
+ * Each type is written using a {@link FhirBinarySchema} that is compiled once per
+ * class: children are written into the raw section by integer field ID, and
+ * primitive values are written directly as strings. Single primitive children
+ * of resources are additionally written as named fields so that they can be
+ * used by the SQL query fields configured in {@link ca.uhn.example.config.IgniteAppCfg}.
+ * </p>
+ * <p>
+ * Every object starts with a <code>_schema</code> field holding the ID of the
+ * schema it was written with. Objects written by the previous, fully named
+ * layout don't have it, and are still read with that layout.
+ * </p>
+ * <p>
+ * Objects written with an older schema of their type (e.g. before an upgrade of
+ * the FHIR structures) are read by field name, using the layout that was stored
+ * for that schema by {@link #publishSchemas(Ignite)}. Fields that no longer exist
+ * are skipped.
+ * </p>
+ */
 public class FhirBinarySerializer implements BinarySerializer {
 	public static FhirContext globalFhirContext;
-	
-	void writePrimitiveType(BaseRuntimeChildDefinition def, IBase obj, BinaryWriter writer) {
-		String field = def.getElementName();
-		if(obj instanceof IPrimitiveType && def.getValidChildNames().size() <=1 ) {
-    		IPrimitiveType o = (IPrimitiveType)obj;
-    		if(o.hasValue())
-    			writer.writeString(field,o.getValueAsString());
-    		else 
-    			writer.writeString(field,null);
-    	}
-		else {
-			writer.writeObject(field,obj);
+
+	/**
+	 * Name of the replicated cache holding the layout of every schema that data has been
+	 * written with. It has to live in the same (persistent) data region as the resources.
+	 */
+	public static final String SCHEMA_CACHE_NAME = "FhirBinarySchemas";
+
+	static final String SCHEMA_FIELD = "_schema";
+
+	private static final ClassValue<FhirBinarySchema> ourSchemas = new ClassValue<FhirBinarySchema>() {
+		@SuppressWarnings("unchecked")
+		@Override
+		protected FhirBinarySchema computeValue(Class<?> theType) {
+			BaseRuntimeElementDefinition<?> def;
+			if (IBaseResource.class.isAssignableFrom(theType)) {
+				def = globalFhirContext.getResourceDefinition((Class<? extends IBaseResource>) theType);
+			} else {
+				def = globalFhirContext.getElementDefinition((Class<? extends IBase>) theType);
+			}
+			if (!(def instanceof BaseRuntimeElementCompositeDefinition)) {
+				return null;
+			}
+			FhirBinarySchema retVal = FhirBinarySchema.forDefinition((BaseRuntimeElementCompositeDefinition<?>) def);
+			ourKnownDescriptors.putIfAbsent(retVal.getSchemaId(), retVal.getDescriptor());
+			return retVal;
+		}
+	};
+	private static final Map<Integer, FhirBinarySchema.Descriptor> ourKnownDescriptors = new ConcurrentHashMap<>();
+
+	/**
+	 * Stores the layout of every schema of {@link #globalFhirContext} in the {@link #SCHEMA_CACHE_NAME}
+	 * cache, and loads the layouts stored by other nodes and earlier versions so that data written with
+	 * them can be read. Must be called on startup, before any FHIR object is read.
+	 *
+	 * @throws IllegalStateException If a schema ID of this node is already used for a different layout.
+	 *                               Data written with either of them can't be told apart, so the node
+	 *                               refuses to start rather than misread it.
+	 */
+	public static void publishSchemas(Ignite theIgnite) {
+		CacheConfiguration<Integer, FhirBinarySchema.Descriptor> cfg = new CacheConfiguration<>(SCHEMA_CACHE_NAME);
+		cfg.setCacheMode(CacheMode.REPLICATED);
+		cfg.setAtomicityMode(CacheAtomicityMode.ATOMIC);
+		IgniteCache<Integer, FhirBinarySchema.Descriptor> cache = theIgnite.getOrCreateCache(cfg);
+
+		// Make sure every resource type (and the types it uses) has been scanned
+		for (String next : globalFhirContext.getResourceTypes()) {
+			globalFhirContext.getResourceDefinition(next);
+		}
+		for (BaseRuntimeElementDefinition<?> next : globalFhirContext.getElementDefinitions()) {
+			if (!(next instanceof BaseRuntimeElementCompositeDefinition)) {
+				continue;
+			}
+			FhirBinarySchema schema = ourSchemas.get(next.getImplementingClass());
+			if (schema == null) {
+				continue;
+			}
+			FhirBinarySchema.Descriptor existing = cache.getAndPutIfAbsent(schema.getSchemaId(), schema.getDescriptor());
+			if (existing != null && !existing.equals(schema.getDescriptor())) {
+				throw new IllegalStateException("Schema ID " + schema.getSchemaId() + " of " + schema.getDescriptor()
+					+ " is already used by " + existing);
+			}
+		}
+
+		for (Cache.Entry<Integer, FhirBinarySchema.Descriptor> next : cache) {
+			ourKnownDescriptors.putIfAbsent(next.getKey(), next.getValue());
 		}
 	}
-	
-	 /** {@inheritDoc} */
-    @Override public void writeBinary(Object obj, BinaryWriter writer) throws BinaryObjectException {
-    	if(obj instanceof IPrimitiveType) {
-    		IPrimitiveType o = (IPrimitiveType)obj;
-    		if(o.hasValue())
-    			writer.rawWriter().writeString(o.getValueAsString());
-    		else 
-    			writer.rawWriter().writeString(null);
-    	}
-    	else if(obj instanceof IBaseResource){
-    		IBaseResource resource = (IBaseResource) obj;
-    		
-    		RuntimeResourceDefinition def = globalFhirContext.getResourceDefinition(resource.fhirType());
-    		//IIdType id = resource.getIdElement();    		
-    		//writer.writeString("id", id.getValueAsString());    		  		
-    		for (BaseRuntimeChildDefinition child : def.getChildren()) {
-    			//child.    			
-    			if(child.getMax()!=1) { //List
-    				writer.writeObject(child.getElementName(),child.getAccessor().getValues(resource));
-    			}
-    			else {
-    				Optional<IBase> v = child.getAccessor().getFirstValueOrNull(resource);
-    				if(v.isPresent()) {
-    					writePrimitiveType(child,v.get(),writer);
-    				}
-    				else {
-    					writer.writeObject(child.getElementName(),null);
-    				}
-    			}
-    		}
-            
-    	}
-    	else if(obj instanceof IElement) {
-    		IElement element = (IElement) obj;
-    		BaseRuntimeElementDefinition<?> def = globalFhirContext.getElementDefinition(element.getClass());
-    		if(def==null) {    			
-    			return;
-    		}
-    		for (BaseRuntimeChildDefinition child : def.getChildren()) {
-    			//child.    			
-    			if(child.getMax()!=1) { //List
-    				writer.writeObject(child.getElementName(),child.getAccessor().getValues(element));
-    			}
-    			else {
-    				Optional<IBase> v = child.getAccessor().getFirstValueOrNull(element);
-    				if(v.isPresent()) {
-    					writePrimitiveType(child,v.get(),writer);
-    				}
-    				else {
-    					writer.writeObject(child.getElementName(),null);
-    				}
-    			}
-    		}
-    	}
-    }    
-    
-    public void readPrimitiveType(org.hl7.fhir.r4.model.Base obj, BaseRuntimeChildDefinition def, Object readValue,BinaryReader reader) throws BinaryObjectException {
-    	if(readValue!=null) {
-    		String field = def.getElementName();
-    		if(field.equals("id")) {
-    			obj.setIdBase(readValue.toString());
-    			return;
-    		}
-    		org.hl7.fhir.r4.model.Base child = obj.makeProperty(field.hashCode(), field);
-    		if(child==null) {
-    			child = obj.addChild(field);
-    		}    		
-    		
-    		if(child instanceof IPrimitiveType) {
-        		IPrimitiveType o = (IPrimitiveType)child;
-        		if(readValue instanceof IPrimitiveType) {
-        			o.setValue(((IPrimitiveType) readValue).getValue());
-        		}
-        		else if(readValue instanceof String) {
-        			o.setValueAsString(readValue.toString());
-        		}
-        		else if(readValue instanceof Number) {
-        			o.setValue(readValue);
-        		}
-        		else {
-        			o.setValue(readValue);
-        		}        		
-        	} 
-    		else if(child!=null){
-    			readBinary(child,reader);    			
-    		}
-      	}
-    	
-    }
 
-    /** {@inheritDoc} */
-    @Override public void readBinary(Object obj, BinaryReader reader) throws BinaryObjectException {
-    	if(obj instanceof IPrimitiveType) {
-    		IPrimitiveType o = (IPrimitiveType)obj;
-    		o.setValueAsString(reader.rawReader().readString());
-    	}
-    	else if(obj instanceof IBaseResource){
+	/** {@inheritDoc} */
+	@Override public void writeBinary(Object obj, BinaryWriter writer) throws BinaryObjectException {
+		if(obj instanceof IPrimitiveType) {
+			IPrimitiveType<?> o = (IPrimitiveType<?>)obj;
+			if(o.hasValue())
+				writer.rawWriter().writeString(o.getValueAsString());
+			else
+				writer.rawWriter().writeString(null);
+			return;
+		}
+
+		FhirBinarySchema schema = obj instanceof IBase ? ourSchemas.get(obj.getClass()) : null;
+		if (schema == null) {
+			return;
+		}
+
+		IBase element = (IBase) obj;
+		writer.writeInt(SCHEMA_FIELD, schema.getSchemaId());
+
+		// Named fields have to be written before anything goes into the raw section
+		FhirBinarySchema.Field[] fields = schema.getFields();
+		for (FhirBinarySchema.Field next : fields) {
+			if (next.isNamed()) {
+				List<IBase> values = next.getChild().getAccessor().getValues(element);
+				String value = values.isEmpty() ? null : ((IPrimitiveType<?>) values.get(0)).getValueAsString();
+				writer.writeString(next.getName(), value);
+			}
+		}
+
+		BinaryRawWriter raw = writer.rawWriter();
+		for (FhirBinarySchema.Field next : fields) {
+			if (next.isNamed()) {
+				continue;
+			}
+			List<IBase> values = next.getChild().getAccessor().getValues(element);
+			if (values.isEmpty()) {
+				continue;
+			}
+			raw.writeShort(next.getId());
+			if (next.isMultiple()) {
+				raw.writeInt(values.size());
+			}
+			for (IBase nextValue : values) {
+				writeValue(next, nextValue, raw);
+			}
+		}
+		raw.writeShort(FhirBinarySchema.END_OF_FIELDS);
+	}
+
+	private void writeValue(FhirBinarySchema.Field theField, IBase theValue, BinaryRawWriter theRaw) {
+		byte typeIndex = theValue instanceof IPrimitiveType ? theField.typeIndexOf(theValue) : -1;
+		if (typeIndex >= 0) {
+			theRaw.writeByte(FhirBinarySchema.TAG_PRIMITIVE);
+			if (theField.isChoice()) {
+				theRaw.writeByte(typeIndex);
+			}
+			theRaw.writeString(((IPrimitiveType<?>) theValue).getValueAsString());
+		} else {
+			theRaw.writeByte(FhirBinarySchema.TAG_OBJECT);
+			theRaw.writeObject(theValue);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override public void readBinary(Object obj, BinaryReader reader) throws BinaryObjectException {
+		if(obj instanceof IPrimitiveType) {
+			IPrimitiveType<?> o = (IPrimitiveType<?>)obj;
+			o.setValueAsString(reader.rawReader().readString());
+			return;
+		}
+
+		int schemaId = reader.readInt(SCHEMA_FIELD);
+		if (schemaId == 0) {
+			readLegacyBinary(obj, reader);
+			return;
+		}
+
+		FhirBinarySchema schema = obj instanceof IBase ? ourSchemas.get(obj.getClass()) : null;
+		if (schema == null) {
+			return;
+		}
+		if (schemaId != schema.getSchemaId() && schemaId != schema.getFieldNamesSchemaId()) {
+			FhirBinarySchema.Descriptor written = ourKnownDescriptors.get(schemaId);
+			if (written == null || !written.getTypeName().equals(schema.getTypeName())) {
+				throw new BinaryObjectException("Object of type " + schema.getTypeName() + " was written with unknown schema " + schemaId
+					+ " (current schema is " + schema.getSchemaId() + "), make sure FhirBinarySerializer.publishSchemas() was called on startup");
+			}
+			readTranslatedBinary((IBase) obj, schema.translationFrom(schemaId, written), reader);
+			return;
+		}
+
+		IBase target = (IBase) obj;
+		FhirBinarySchema.Field[] fields = schema.getFields();
+		for (FhirBinarySchema.Field next : fields) {
+			if (next.isNamed()) {
+				String value = reader.readString(next.getName());
+				if (value != null) {
+					setOrAddValue(next, target, newPrimitive(next, (byte) 0, value));
+				}
+			}
+		}
+
+		BinaryRawReader raw = reader.rawReader();
+		for (short fieldId = raw.readShort(); fieldId != FhirBinarySchema.END_OF_FIELDS; fieldId = raw.readShort()) {
+			FhirBinarySchema.Field field = schema.getField(fieldId);
+			int count = field.isMultiple() ? raw.readInt() : 1;
+			for (int i = 0; i < count; i++) {
+				IBase value = readValue(field, raw);
+				if (value != null) {
+					setOrAddValue(field, target, value);
+				}
+			}
+		}
+	}
+
+	private IBase readValue(FhirBinarySchema.Field theField, BinaryRawReader theRaw) {
+		byte tag = theRaw.readByte();
+		if (tag == FhirBinarySchema.TAG_PRIMITIVE) {
+			byte typeIndex = theField.isChoice() ? theRaw.readByte() : 0;
+			return newPrimitive(theField, typeIndex, theRaw.readString());
+		}
+		return (IBase) theRaw.readObject();
+	}
+
+	/**
+	 * Reads an object written with a different layout of its type. Every value is read,
+	 * so that the raw section stays aligned, but values of fields or choice types that
+	 * no longer exist are dropped.
+	 */
+	private void readTranslatedBinary(IBase theTarget, FhirBinarySchema.Translation theTranslation, BinaryReader theReader) {
+		FhirBinarySchema.Descriptor written = theTranslation.getWritten();
+		for (int fieldId = 0; fieldId < written.getFieldCount(); fieldId++) {
+			if (written.isNamed(fieldId)) {
+				String value = theReader.readString(written.getFieldName(fieldId));
+				FhirBinarySchema.Field field = theTranslation.getTarget(fieldId);
+				byte typeIndex = theTranslation.getTypeIndex(fieldId, (byte) 0);
+				if (value != null && field != null && typeIndex >= 0) {
+					setOrAddValue(field, theTarget, newPrimitive(field, typeIndex, value));
+				}
+			}
+		}
+
+		BinaryRawReader raw = theReader.rawReader();
+		for (short fieldId = raw.readShort(); fieldId != FhirBinarySchema.END_OF_FIELDS; fieldId = raw.readShort()) {
+			FhirBinarySchema.Field field = theTranslation.getTarget(fieldId);
+			int count = written.isMultiple(fieldId) ? raw.readInt() : 1;
+			for (int i = 0; i < count; i++) {
+				IBase value;
+				if (raw.readByte() == FhirBinarySchema.TAG_PRIMITIVE) {
+					byte writtenTypeIndex = written.isChoice(fieldId) ? raw.readByte() : 0;
+					String stringValue = raw.readString();
+					byte typeIndex = theTranslation.getTypeIndex(fieldId, writtenTypeIndex);
+					value = field != null && typeIndex >= 0 ? newPrimitive(field, typeIndex, stringValue) : null;
+				} else {
+					Object objectValue = raw.readObject();
+					value = field != null ? (IBase) objectValue : null;
+				}
+				if (value != null) {
+					setOrAddValue(field, theTarget, value);
+				}
+			}
+		}
+	}
+
+	private static IBase newPrimitive(FhirBinarySchema.Field theField, byte theTypeIndex, String theValue) {
+		IBase retVal = theField.newPrimitiveInstance(theTypeIndex);
+		((IPrimitiveType<?>) retVal).setValueAsString(theValue);
+		return retVal;
+	}
+
+	private static void setOrAddValue(FhirBinarySchema.Field theField, IBase theTarget, IBase theValue) {
+		if (theField.isMultiple()) {
+			theField.getChild().getMutator().addValue(theTarget, theValue);
+		} else {
+			theField.getChild().getMutator().setValue(theTarget, theValue);
+		}
+	}
+
+	/**
+	 * Reads objects written before schema IDs were introduced, where every child was written as a named field
+	 */
+	private void readLegacyBinary(Object obj, BinaryReader reader) throws BinaryObjectException {
+    	if(obj instanceof IBaseResource){
     		//obj = reader.rawReader().readObject();
     		IBaseResource resource = (IBaseResource) obj;
     		RuntimeResourceDefinition def = globalFhirContext.getResourceDefinition(resource.fhirType());
@@ -151,7 +317,7 @@ public class FhirBinarySerializer implements BinarySerializer {
     						child.getMutator().setValue(resource, (IBase)value);    						
     					}
     					else {
-    						readPrimitiveType((org.hl7.fhir.r4.model.Base)resource,child,value,reader);
+    						readLegacyPrimitiveType((org.hl7.fhir.r4.model.Base)resource,child,value,reader);
     					}
     				}
     			}
@@ -186,7 +352,7 @@ public class FhirBinarySerializer implements BinarySerializer {
     						child.getMutator().setValue(element, (IBase)value);    						
     					}
     					else{
-    						readPrimitiveType((org.hl7.fhir.r4.model.Base)element,child,value,reader);
+    						readLegacyPrimitiveType((org.hl7.fhir.r4.model.Base)element,child,value,reader);
     					}
     				}
     			}
@@ -208,4 +374,38 @@ public class FhirBinarySerializer implements BinarySerializer {
     		}
     	}
     }
+
+    private void readLegacyPrimitiveType(org.hl7.fhir.r4.model.Base obj, BaseRuntimeChildDefinition def, Object readValue,BinaryReader reader) throws BinaryObjectException {
+    	if(readValue!=null) {
+    		String field = def.getElementName();
+    		if(field.equals("id")) {
+    			obj.setIdBase(readValue.toString());
+    			return;
+    		}
+    		org.hl7.fhir.r4.model.Base child = obj.makeProperty(field.hashCode(), field);
+    		if(child==null) {
+    			child = obj.addChild(field);
+    		}    		
+    		
+    		if(child instanceof IPrimitiveType) {
+        		IPrimitiveType o = (IPrimitiveType)child;
+        		if(readValue instanceof IPrimitiveType) {
+        			o.setValue(((IPrimitiveType) readValue).getValue());
+        		}
+        		else if(readValue instanceof String) {
+        			o.setValueAsString(readValue.toString());
+        		}
+        		else if(readValue instanceof Number) {
+        			o.setValue(readValue);
+        		}
+        		else {
+        			o.setValue(readValue);
+        		}        		
+        	} 
+    		else if(child!=null){
+    			readLegacyBinary(child,reader);    			
+    		}
+      	}
+    	
+    }
 }
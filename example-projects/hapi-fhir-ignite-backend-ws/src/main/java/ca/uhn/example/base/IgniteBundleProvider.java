@@ -0,0 +1,156 @@
+package ca.uhn.example.base;
+
+import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CachePeekMode;
+import org.apache.ignite.cache.query.SqlFieldsQuery;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A bundle provider that loads search results from the Ignite resource cache
+ * one page at a time, so that a search never materializes all of its matching
+ * resources in heap.
+ * <p>
+ * It works in one of two modes:
+ * </p>
+ * <ul>
+ * <li>Over a list of matching resource IDs (e.g. the result of an index lookup).
+ * Only the IDs are held, and each page is fetched with a single <code>getAll</code>.</li>
+ * <li>Over every resource in the cache. Keys are read in key order using keyset
+ * pagination, and the last key of every page served is remembered as a
+ * continuation key so that the next page starts with an indexed range scan
+ * instead of skipping over all previous rows. No cursor is held open between
+ * requests, so abandoned searches don't leak cluster resources.</li>
+ * </ul>
+ */
+public class IgniteBundleProvider<T extends IBaseResource> implements IBundleProvider {
+
+	private final IgniteCache<String, T> myResourceCache;
+	private final List<String> myIds;
+	private final String myTableName;
+	private final RequestDetails myRequestDetails;
+	private final IPrimitiveType<Date> myPublished = InstantDt.withCurrentTime();
+	private final Integer mySize;
+	/**
+	 * Offset of the first result after a page -> the last key of that page
+	 */
+	private final NavigableMap<Integer, String> myContinuationKeys = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Constructor for a result consisting of a known list of resource IDs
+	 */
+	public IgniteBundleProvider(IgniteCache<String, T> theResourceCache, List<String> theIds, RequestDetails theRequestDetails) {
+		myResourceCache = theResourceCache;
+		myIds = theIds;
+		myTableName = null;
+		myRequestDetails = theRequestDetails;
+		mySize = theIds.size();
+	}
+
+	/**
+	 * Constructor for a result consisting of every resource in the cache
+	 *
+	 * @param theTableName The SQL table of the resource cache
+	 */
+	public IgniteBundleProvider(IgniteCache<String, T> theResourceCache, String theTableName, RequestDetails theRequestDetails) {
+		myResourceCache = theResourceCache;
+		myIds = null;
+		myTableName = theTableName;
+		myRequestDetails = theRequestDetails;
+		mySize = theResourceCache.size(CachePeekMode.PRIMARY);
+	}
+
+	@Override
+	public IPrimitiveType<Date> getPublished() {
+		return myPublished;
+	}
+
+	@Nonnull
+	@Override
+	public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+		if (theToIndex <= theFromIndex) {
+			return Collections.emptyList();
+		}
+
+		List<String> keys;
+		if (myIds != null) {
+			if (theFromIndex >= myIds.size()) {
+				return Collections.emptyList();
+			}
+			keys = myIds.subList(theFromIndex, Math.min(theToIndex, myIds.size()));
+		} else {
+			keys = loadKeys(theFromIndex, theToIndex - theFromIndex);
+		}
+
+		Map<String, T> resources = myResourceCache.getAll(new LinkedHashSet<>(keys));
+		List<T> retVal = new ArrayList<>(keys.size());
+		for (String next : keys) {
+			T nextResource = resources.get(next);
+			if (nextResource != null) {
+				retVal.add(nextResource);
+			}
+		}
+
+		return IgniteCacheR4ResourceProvider.fireInterceptorsAndFilterAsNeeded(retVal, myRequestDetails);
+	}
+
+	private List<String> loadKeys(int theOffset, int theCount) {
+		Map.Entry<Integer, String> continuation = myContinuationKeys.floorEntry(theOffset);
+
+		StringBuilder sql = new StringBuilder("SELECT _key FROM ").append(myTableName);
+		List<Object> args = new ArrayList<>();
+		int skip = theOffset;
+		if (continuation != null) {
+			sql.append(" WHERE _key > ?");
+			args.add(continuation.getValue());
+			skip = theOffset - continuation.getKey();
+		}
+		sql.append(" ORDER BY _key LIMIT ? OFFSET ?");
+		args.add(theCount);
+		args.add(skip);
+
+		List<String> retVal = new ArrayList<>(theCount);
+		for (List<?> nextRow : myResourceCache.query(new SqlFieldsQuery(sql.toString()).setArgs(args.toArray()))) {
+			retVal.add((String) nextRow.get(0));
+		}
+
+		if (!retVal.isEmpty()) {
+			myContinuationKeys.put(theOffset + retVal.size(), retVal.get(retVal.size() - 1));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns <code>null</code>, letting the paging provider assign an ID
+	 */
+	@Override
+	public String getUuid() {
+		return null;
+	}
+
+	/**
+	 * Returns <code>null</code>, letting the paging provider and <code>_count</code> decide
+	 */
+	@Override
+	public Integer preferredPageSize() {
+		return null;
+	}
+
+	@Override
+	public Integer size() {
+		return mySize;
+	}
+}
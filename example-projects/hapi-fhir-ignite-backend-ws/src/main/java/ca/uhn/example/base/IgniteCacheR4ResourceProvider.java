@@ -1,6 +1,8 @@
 package ca.uhn.example.base;
 
 import ca.uhn.example.config.IgniteAppCfg;
+import ca.uhn.example.model.ResourceIndexEntry;
+import ca.uhn.example.model.ResourceIndexKey;
 import ca.uhn.example.model.VersionedId;
 
 /*-
@@ -38,12 +40,15 @@ import ca.uhn.fhir.rest.annotation.Create;
 import ca.uhn.fhir.rest.annotation.Delete;
 import ca.uhn.fhir.rest.annotation.History;
 import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.OptionalParam;
+import ca.uhn.fhir.rest.annotation.RawParam;
 import ca.uhn.fhir.rest.annotation.Read;
 import ca.uhn.fhir.rest.annotation.RequiredParam;
 import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.IPreResourceAccessDetails;
 import ca.uhn.fhir.rest.api.server.IPreResourceShowDetails;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
@@ -67,16 +72,22 @@ import org.apache.ignite.IgniteCache;
 import org.apache.ignite.Ignition;
 import org.apache.ignite.cache.query.QueryCursor;
 import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.ignite.cache.query.SqlFieldsQuery;
 import org.apache.ignite.configuration.CacheConfiguration;
+import org.apache.ignite.configuration.NearCacheConfiguration;
 import org.apache.ignite.events.CacheEvent;
 import org.apache.ignite.lang.IgniteBiPredicate;
+import org.apache.ignite.lang.IgniteCallable;
 import org.apache.ignite.lang.IgnitePredicate;
+import org.apache.ignite.resources.IgniteInstanceResource;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.hl7.fhir.r4.model.BaseResource;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.InstantType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,10 +101,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -117,12 +131,25 @@ import static org.apache.ignite.events.EventType.EVT_CACHE_OBJECT_REMOVED;
  * <li>Update non-existing resource (e.g. create with client-supplied ID)</li>
  * <li>Delete</li>
  * <li>Search by resource type with no parameters</li>
+ * <li>Search by token, string, date and reference parameters, using the indexed
+ * Ignite SQL table maintained by {@link IgniteSearchParamIndexer}</li>
+ * <li>Paging through search results, which are loaded one page at a time
+ * by {@link IgniteBundleProvider}</li>
  * </ul>
  *
  * @param <T> The resource type to support
  */
 public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IResourceProvider {
 	private static final Logger ourLog = LoggerFactory.getLogger(IgniteCacheR4ResourceProvider.class);
+	/**
+	 * Maximum number of resource IDs checked for existence by a single <code>getAll</code>
+	 */
+	static final int EXISTENCE_CHECK_CHUNK_SIZE = 1000;
+	/**
+	 * Tag of the history entries recording that a resource was deleted
+	 */
+	static final String TOMBSTONE_TAG_SYSTEM = "http://hapifhir.io/fhir/ignite/history";
+	static final String TOMBSTONE_TAG_CODE = "deleted";
 	private final Class<T> myResourceType;
 	private final FhirContext myFhirContext;
 	private final String myResourceName;
@@ -135,6 +162,12 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 	protected IgniteCache<String,T> resourceMap;
 	// 历史资源数据，可能会自动清除
 	protected IgniteCache<VersionedId,T> versionResourceMap = null;
+	// 搜索参数索引
+	protected IgniteCache<ResourceIndexKey,ResourceIndexEntry> indexMap = null;
+	private final String myIndexTable;
+	private final IgniteSearchParamIndexer mySearchParamIndexer;
+	private final NearCacheConfiguration<String,T> myNearCacheConfiguration;
+	private Ignite myIgnite;
 	// 某个资源instance的版本历史
 	protected Map<String, LinkedList<VersionedId>> myIdToHistory = new ConcurrentHashMap<>();
 	// 资源列表
@@ -155,9 +188,35 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 	 * @param theResourceType The resource type to support
 	 */
 	public IgniteCacheR4ResourceProvider(FhirContext theFhirContext, Class<T> theResourceType,Ignite ignite) {
+		this(theFhirContext, theResourceType, ignite, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theFhirContext       The FHIR context
+	 * @param theResourceType      The resource type to support
+	 * @param theSearchParamIndexer The indexer used to maintain and query the search parameter index, or {@literal null} if only searching by ID is supported
+	 */
+	public IgniteCacheR4ResourceProvider(FhirContext theFhirContext, Class<T> theResourceType, Ignite ignite, IgniteSearchParamIndexer theSearchParamIndexer) {
+		this(theFhirContext, theResourceType, ignite, theSearchParamIndexer, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theFhirContext          The FHIR context
+	 * @param theResourceType         The resource type to support
+	 * @param theSearchParamIndexer    The indexer used to maintain and query the search parameter index, or {@literal null} if only searching by ID is supported
+	 * @param theNearCacheConfiguration The near cache to keep in front of the current-version cache, or {@literal null} for none
+	 */
+	public IgniteCacheR4ResourceProvider(FhirContext theFhirContext, Class<T> theResourceType, Ignite ignite, IgniteSearchParamIndexer theSearchParamIndexer, NearCacheConfiguration<String,T> theNearCacheConfiguration) {
 		myFhirContext = theFhirContext;
 		myResourceType = theResourceType;
-		myResourceName = myFhirContext.getResourceType(theResourceType);		
+		myResourceName = myFhirContext.getResourceType(theResourceType);
+		myIndexTable = IgniteAppCfg.indexTableNameFor(theResourceType);
+		mySearchParamIndexer = theSearchParamIndexer;
+		myNearCacheConfiguration = theNearCacheConfiguration;
 		init(ignite);
 		clear();
 	}
@@ -172,6 +231,9 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 		myFhirContext = theFhirContext;
 		myResourceType = clazz(this);
 		myResourceName = myFhirContext.getResourceType(myResourceType);
+		myIndexTable = IgniteAppCfg.indexTableNameFor(myResourceType);
+		mySearchParamIndexer = null;
+		myNearCacheConfiguration = null;
 		init(ignite);
 		clear();
 	}
@@ -189,13 +251,26 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 	
 
 	private void init(Ignite ignite) {
+		myIgnite = ignite;
 		CacheConfiguration<String,T> cacheCfg = IgniteAppCfg.cacheConfigurationFor(myFhirContext,myResourceType);
-		resourceMap = ignite.getOrCreateCache(cacheCfg);
+		if (myNearCacheConfiguration == null) {
+			resourceMap = ignite.getOrCreateCache(cacheCfg);
+		} else if (ignite.cluster().localNode().isClient()) {
+			// Client nodes only get a near cache when they ask for one explicitly
+			resourceMap = ignite.getOrCreateCache(cacheCfg, myNearCacheConfiguration);
+		} else {
+			cacheCfg.setNearConfiguration(myNearCacheConfiguration);
+			resourceMap = ignite.getOrCreateCache(cacheCfg);
+		}
 		
 		CacheConfiguration<VersionedId, T> historyCacheCfg = IgniteAppCfg.historyCacheConfigurationFor(myFhirContext,myResourceType);
 		if(historyCacheCfg!=null) {
 			this.versionResourceMap = ignite.getOrCreateCache(historyCacheCfg);
 		}
+
+		if (mySearchParamIndexer != null) {
+			this.indexMap = ignite.getOrCreateCache(IgniteAppCfg.indexCacheConfigurationFor(myFhirContext, myResourceType));
+		}
 		
 		myNextId = ignite.atomicSequence(myResourceName, 0, true);
 		
@@ -223,6 +298,9 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 		
 		versionResourceMap.clear();
 		resourceMap.clear();
+		if (indexMap != null) {
+			indexMap.clear();
+		}
 		myIdToHistory.clear();
 		myTypeHistory.clear();
 	}
@@ -277,6 +355,9 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 		}
 		else {
 			boolean rv = resourceMap.remove(theId.getIdPart());
+			if (indexMap != null) {
+				mySearchParamIndexer.removeIndexEntries(indexMap, myIndexTable, theId.getIdPart());
+			}
 		}
 
 		long nextVersion = VersionedId.nextVersion();
@@ -335,23 +416,60 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 
 	
 
+	/**
+	 * All versions of a resource are colocated with its current version (see
+	 * {@link IgniteAppCfg#historyCacheConfigurationFor(FhirContext, Class)}), so the
+	 * history is collected by a local query on the node that owns the resource ID.
+	 */
 	@History
 	public List<IBaseResource> historyInstance(@IdParam IIdType theId, RequestDetails theRequestDetails) {
-		LinkedList<VersionedId> retVal = myIdToHistory.get(theId.getIdPart());
-		if (retVal == null) {
+		if (versionResourceMap == null) {
 			throw new ResourceNotFoundException(theId);
 		}
-		List<T> list = new ArrayList<>(retVal.size());
-		for(VersionedId id: retVal) {
-			T obj = this.versionResourceMap.get(id);
-			if(obj!=null) {
-				list.add(obj);
-			}
+		String idPart = theId.getIdPart();
+		List<T> list = myIgnite.compute().affinityCall(versionResourceMap.getName(), idPart,
+			new LocalHistoryCallable<T>(versionResourceMap.getName(), IgniteAppCfg.historyTableNameFor(myResourceType), idPart));
+		if (list.isEmpty()) {
+			throw new ResourceNotFoundException(theId);
 		}
+		list.replaceAll(IgniteCacheR4ResourceProvider::toHistoryEntry);
 
 		return fireInterceptorsAndFilterAsNeeded(list, theRequestDetails);
 	}
 
+	/**
+	 * Loads all versions of one resource, newest first, from the local partitions of the history cache
+	 */
+	private static class LocalHistoryCallable<T> implements IgniteCallable<List<T>> {
+		private static final long serialVersionUID = 1L;
+
+		@IgniteInstanceResource
+		private transient Ignite myIgnite;
+		private final String myCacheName;
+		private final String myTableName;
+		private final String myIdPart;
+
+		LocalHistoryCallable(String theCacheName, String theTableName, String theIdPart) {
+			myCacheName = theCacheName;
+			myTableName = theTableName;
+			myIdPart = theIdPart;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public List<T> call() {
+			IgniteCache<VersionedId, T> cache = myIgnite.cache(myCacheName);
+			SqlFieldsQuery query = new SqlFieldsQuery("SELECT _val FROM " + myTableName + " WHERE id_part = ? ORDER BY version DESC")
+				.setArgs(myIdPart)
+				.setLocal(true);
+			List<T> retVal = new ArrayList<>();
+			for (List<?> next : cache.query(query)) {
+				retVal.add((T) next.get(0));
+			}
+			return retVal;
+		}
+	}
+
 	@History
 	public List<T> historyType() {
 		List<T> list = new ArrayList<>(myTypeHistory.size());
@@ -371,7 +489,7 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 		T retVal;
 		if (theId.hasVersionIdPart() && versionResourceMap!=null) {			
 			retVal = this.versionResourceMap.get(new VersionedId(theId));
-			if (retVal==null) {
+			if (retVal==null || isTombstone(retVal)) {
 				throw new ResourceGoneException(theId);
 			} 
 
@@ -392,10 +510,9 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 	}
 
 	@Search
-	public List<IBaseResource> searchAll(RequestDetails theRequestDetails) {
+	public IBundleProvider searchAll(RequestDetails theRequestDetails) {
 		mySearchCount.incrementAndGet();
-		List<T> retVal = getAllResources(null);
-		return fireInterceptorsAndFilterAsNeeded(retVal, theRequestDetails);
+		return new IgniteBundleProvider<>(resourceMap, myResourceType.getSimpleName(), theRequestDetails);
 	}
 
 	@Nonnull
@@ -415,34 +532,9 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 	}
 
 	@Search
-	public List<IBaseResource> searchById(
+	public IBundleProvider searchById(
 		@RequiredParam(name = "_id") TokenAndListParam theIds, RequestDetails theRequestDetails) {
-
-		List<T> retVal = new ArrayList<>();
-		boolean matches = false;
-		if (theIds != null && theIds.getValuesAsQueryTokens().size() > 0) {
-			for (TokenOrListParam nextIdAnd : theIds.getValuesAsQueryTokens()) {
-				matches = false;
-				for (TokenParam nextOr : nextIdAnd.getValuesAsQueryTokens()) {
-					String id = nextOr.getValue();
-					T nextResource = this.resourceMap.get(id);
-					if (nextResource!=null) {
-						matches = true;
-						retVal.add(nextResource);
-					}
-				}				
-			}
-		}
-
-		if (!matches) {
-			ourLog.info("search empty result!");
-		}
-
-		
-
-		mySearchCount.incrementAndGet();
-
-		return fireInterceptorsAndFilterAsNeeded(retVal, theRequestDetails);
+		return searchByParams(theIds, null, theRequestDetails);
 	}
 
 	/**
@@ -455,13 +547,37 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 	 * @return
 	 */
 	private IIdType store(@ResourceParam T theResource, String theIdPart, Long versionIdPart, RequestDetails theRequestDetails, TransactionDetails theTransactionDetails) {
-		IIdType id = myFhirContext.getVersion().newIdType();		
+		IIdType id = assignVersion(theResource, theIdPart, versionIdPart);
+		VersionedId vid = new VersionedId(theIdPart,versionIdPart);
+
+		if (this.versionResourceMap!=null) {
+			// Store to ID+version->resource map, deletions are recorded as a tombstone version
+			this.versionResourceMap.put(vid, theResource != null ? theResource : newTombstone(theIdPart, versionIdPart));
+		}
+
+		ourLog.info("Storing resource with ID: {}", id.getValue());
+		if(theResource!=null) {
+			this.resourceMap.put(theIdPart, theResource);
+		}
+		if (theResource != null && indexMap != null) {
+			mySearchParamIndexer.reindex(indexMap, myIndexTable, theIdPart, theResource);
+		}
+
+		afterStore(theResource, theIdPart, vid, id, theRequestDetails, theTransactionDetails);
+
+		// Return the newly assigned ID including the version ID
+		return id;
+	}
+
+	/**
+	 * Sets the ID and version of a resource that is about to be stored
+	 */
+	private IIdType assignVersion(T theResource, String theIdPart, Long versionIdPart) {
+		IIdType id = myFhirContext.getVersion().newIdType();
 		id.setParts(null, myResourceName, theIdPart, versionIdPart.toString());
 		if (theResource != null) {
 			theResource.setId(id);
 		}
-		
-		VersionedId vid = new VersionedId(theIdPart,versionIdPart);
 
 		/*
 		 * This is a bit of magic to make sure that the versionId attribute
@@ -478,18 +594,18 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 				List<IBase> versionIdValues = versionIdDef.getAccessor().getValues(meta);
 				if (versionIdValues.size() > 0) {
 					IPrimitiveType<?> versionId = (IPrimitiveType<?>) versionIdValues.get(0);
-					versionId.setValueAsString(versionIdPart.toString());					
+					versionId.setValueAsString(versionIdPart.toString());
 				}
 			}
-			// Store to ID+version->resource map
-			this.versionResourceMap.put(vid, theResource);
-		}
-
-		ourLog.info("Storing resource with ID: {}", id.getValue());
-		if(theResource!=null) {
-			this.resourceMap.put(theIdPart, theResource);
 		}
+		return id;
+	}
 
+	/**
+	 * Calls the storage hooks and records the history of a resource once it
+	 * has been written to the cache
+	 */
+	private void afterStore(T theResource, String theIdPart, VersionedId vid, IIdType id, RequestDetails theRequestDetails, TransactionDetails theTransactionDetails) {
 		if (theRequestDetails != null && this.versionResourceMap!=null) {
 			IInterceptorBroadcaster interceptorBroadcaster = theRequestDetails.getInterceptorBroadcaster();
 
@@ -527,11 +643,172 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 		// Store to ID history map
 		myIdToHistory.computeIfAbsent(theIdPart, t -> new LinkedList<>());
 		myIdToHistory.get(theIdPart).addFirst(vid);
+	}
 
-		// Return the newly assigned ID including the version ID
+	/**
+	 * Reserves a block of consecutive server-assigned IDs with a single update of the
+	 * cluster-wide sequence, for use by bulk writes
+	 *
+	 * @return The first ID of the block
+	 */
+	long reserveIds(int theCount) {
+		return myNextId.getAndAdd(theCount) + 1;
+	}
+
+	/**
+	 * Assigns a new version to a resource that is part of a bulk write and adds it to
+	 * the pending writes, without touching the caches yet
+	 */
+	IIdType prepareBulkStore(T theResource, String theIdPart, boolean theCreate, BulkWrite<T> theWrite) {
+		Map<ResourceIndexKey, ResourceIndexEntry> indexEntries = null;
+		if (indexMap != null) {
+			indexEntries = mySearchParamIndexer.extractIndexEntries(theIdPart, theResource);
+		}
+		Long versionIdPart = VersionedId.nextVersion();
+		IIdType id = assignVersion(theResource, theIdPart, versionIdPart);
+		VersionedId vid = new VersionedId(theIdPart, versionIdPart);
+		theWrite.myDeletes.remove(theIdPart);
+		theWrite.myCurrent.put(theIdPart, theResource);
+		if (this.versionResourceMap != null) {
+			theWrite.myHistory.put(vid, theResource);
+		}
+		if (indexEntries != null) {
+			theWrite.myIndexEntries.put(theIdPart, indexEntries);
+		}
+		if (theCreate) {
+			theWrite.myCreated.add(theIdPart);
+		}
+		theWrite.myStored.add(id);
 		return id;
 	}
 
+	/**
+	 * Adds the deletion of a resource to the pending writes
+	 */
+	IIdType prepareBulkDelete(String theIdPart, BulkWrite<T> theWrite) {
+		Long versionIdPart = VersionedId.nextVersion();
+		IIdType id = assignVersion(null, theIdPart, versionIdPart);
+		theWrite.myCurrent.remove(theIdPart);
+		theWrite.myIndexEntries.remove(theIdPart);
+		theWrite.myDeletes.add(theIdPart);
+		if (this.versionResourceMap != null) {
+			theWrite.myHistory.put(new VersionedId(theIdPart, versionIdPart), newTombstone(theIdPart, versionIdPart));
+		}
+		theWrite.myStored.add(id);
+		return id;
+	}
+
+	/**
+	 * Writes all pending changes, including the search index rows, with one <code>putAll</code>/<code>removeAll</code>
+	 * per cache, except for updates, which are written one by one with <code>putIfAbsent</code> before falling back to
+	 * <code>putAll</code>. If the calling thread has an Ignite transaction open, all of these writes are part of it.
+	 */
+	void bulkWrite(BulkWrite<T> theWrite) {
+		if (!theWrite.myCurrent.isEmpty()) {
+			/*
+			 * An update of an ID that doesn't exist yet creates the resource. Updates are written
+			 * with putIfAbsent first so that the outcome tells which of them did, without reading
+			 * the previous resource bodies
+			 */
+			Map<String, T> puts = new LinkedHashMap<>();
+			for (Map.Entry<String, T> next : theWrite.myCurrent.entrySet()) {
+				if (!theWrite.myCreated.contains(next.getKey()) && this.resourceMap.putIfAbsent(next.getKey(), next.getValue())) {
+					theWrite.myCreated.add(next.getKey());
+				} else {
+					puts.put(next.getKey(), next.getValue());
+				}
+			}
+			if (!puts.isEmpty()) {
+				this.resourceMap.putAll(puts);
+			}
+		}
+		if (!theWrite.myHistory.isEmpty()) {
+			this.versionResourceMap.putAll(theWrite.myHistory);
+		}
+		if (!theWrite.myDeletes.isEmpty()) {
+			this.resourceMap.removeAll(theWrite.myDeletes);
+		}
+		if (indexMap != null) {
+			Set<String> resourceIds = new LinkedHashSet<>(theWrite.myCurrent.keySet());
+			resourceIds.addAll(theWrite.myDeletes);
+			Map<ResourceIndexKey, ResourceIndexEntry> entries = new LinkedHashMap<>();
+			for (Map<ResourceIndexKey, ResourceIndexEntry> next : theWrite.myIndexEntries.values()) {
+				entries.putAll(next);
+			}
+			mySearchParamIndexer.writeIndexEntries(indexMap, myIndexTable, resourceIds, entries);
+		}
+	}
+
+	/**
+	 * Calls the storage hooks and records the history of everything written by
+	 * {@link #bulkWrite(BulkWrite)}, once the writes are committed
+	 */
+	void afterBulkWrite(BulkWrite<T> theWrite, RequestDetails theRequestDetails, TransactionDetails theTransactionDetails) {
+		for (IIdType next : theWrite.myStored) {
+			String idPart = next.getIdPart();
+			VersionedId vid = new VersionedId(next);
+			if (theWrite.myDeletes.contains(idPart)) {
+				afterStore(null, idPart, vid, next, theRequestDetails, theTransactionDetails);
+				myDeleteCount.incrementAndGet();
+			} else {
+				afterStore(theWrite.myCurrent.get(idPart), idPart, vid, next, theRequestDetails, theTransactionDetails);
+				if (theWrite.myCreated.contains(idPart)) {
+					myCreateCount.incrementAndGet();
+				} else {
+					myUpdateCount.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The pending writes of one resource type within a bulk write
+	 */
+	static class BulkWrite<T> {
+		private final Map<String, T> myCurrent = new LinkedHashMap<>();
+		private final Map<VersionedId, T> myHistory = new LinkedHashMap<>();
+		private final Set<String> myDeletes = new LinkedHashSet<>();
+		private final Set<String> myCreated = new LinkedHashSet<>();
+		private final List<IIdType> myStored = new ArrayList<>();
+		private final Map<String, Map<ResourceIndexKey, ResourceIndexEntry>> myIndexEntries = new LinkedHashMap<>();
+
+		/**
+		 * Returns <code>true</code> if the given resource didn't exist before it was written
+		 */
+		boolean isCreated(String theIdPart) {
+			return myCreated.contains(theIdPart);
+		}
+	}
+
+	/**
+	 * Creates the history entry recording the deletion of a resource: an empty resource
+	 * carrying only the ID, version and deletion time, tagged with {@link #TOMBSTONE_TAG_CODE}
+	 */
+	private T newTombstone(String theIdPart, Long theVersionIdPart) {
+		T retVal = myResourceType.cast(myFhirContext.getResourceDefinition(myResourceType).newInstance());
+		retVal.getMeta().setLastUpdated(new Date());
+		retVal.getMeta().addTag().setSystem(TOMBSTONE_TAG_SYSTEM).setCode(TOMBSTONE_TAG_CODE);
+		assignVersion(retVal, theIdPart, theVersionIdPart);
+		return retVal;
+	}
+
+	static boolean isTombstone(IBaseResource theResource) {
+		return theResource.getMeta().getTag(TOMBSTONE_TAG_SYSTEM, TOMBSTONE_TAG_CODE) != null;
+	}
+
+	/**
+	 * Turns a tombstone read from the history cache into the entry of a deleted version,
+	 * the same way the JPA server marks deleted versions in a history bundle
+	 */
+	private static <T extends BaseResource> T toHistoryEntry(T theResource) {
+		if (isTombstone(theResource)) {
+			theResource.getMeta().getTag().remove(theResource.getMeta().getTag(TOMBSTONE_TAG_SYSTEM, TOMBSTONE_TAG_CODE));
+			ResourceMetadataKeyEnum.DELETED_AT.put(theResource, new InstantType(theResource.getMeta().getLastUpdated()));
+			ResourceMetadataKeyEnum.ENTRY_TRANSACTION_METHOD.put(theResource, Bundle.HTTPVerb.DELETE.toCode());
+		}
+		return theResource;
+	}
+
 	/**
 	 * @param theConditional This is provided only so that subclasses can implement if they want
 	 */
@@ -658,39 +935,78 @@ public class IgniteCacheR4ResourceProvider<T extends BaseResource> implements IR
 	}
 	
 
+	/**
+	 * Search by any combination of token, string, date and reference parameters.
+	 * Each parameter is resolved against the search parameter index, so only the
+	 * matching index rows and resources are read.
+	 */
 	@Search
-	public List<IBaseResource> searchByParams(
-			@ResourceParam T sample, RequestDetails theRequestDetails) {
+	public IBundleProvider searchByParams(
+		@OptionalParam(name = "_id") TokenAndListParam theIds,
+		@RawParam Map<String, List<String>> theParams,
+		RequestDetails theRequestDetails) {
 
-		List<T> retVal = new ArrayList<>();
-		boolean matches = false;
-		if (sample != null && !sample.isEmpty()) {
-			
-			List<T> retValFirst = getAllResources(null);
-			
-			
-			for (T nextResource : retValFirst) {
-				matches = false;
-				for (java.util.Map.Entry<String, String[]> nextOr : theRequestDetails.getParameters().entrySet()) {
-					String field = nextOr.getKey();
-				
-					if (nextResource!=null) {						
-						matches = true;
-						retVal.add(nextResource);
-					}
-				}				
+		mySearchCount.incrementAndGet();
+
+		Set<String> ids = null;
+		if (theIds != null) {
+			for (TokenOrListParam nextIdAnd : theIds.getValuesAsQueryTokens()) {
+				Set<String> orIds = new LinkedHashSet<>();
+				for (TokenParam nextOr : nextIdAnd.getValuesAsQueryTokens()) {
+					orIds.add(nextOr.getValue());
+				}
+				if (ids == null) {
+					ids = orIds;
+				} else {
+					ids.retainAll(orIds);
+				}
 			}
 		}
 
-		if (!matches) {
-			ourLog.info("search empty result!");
+		boolean indexed = theParams != null && !theParams.isEmpty();
+		if (indexed) {
+			if (mySearchParamIndexer == null) {
+				throw new InvalidRequestException("Search parameters are not supported for resource type " + myResourceName);
+			}
+			ids = mySearchParamIndexer.findResourceIds(indexMap, myIndexTable, myResourceName, theParams, ids);
 		}
 
-		
+		if (ids == null) {
+			return new IgniteBundleProvider<>(resourceMap, myResourceType.getSimpleName(), theRequestDetails);
+		}
 
-		mySearchCount.incrementAndGet();
+		List<String> matches = findExistingIds(ids);
+		if (matches.isEmpty()) {
+			ourLog.info("search empty result!");
+		}
+
+		return new IgniteBundleProvider<>(resourceMap, matches, theRequestDetails);
+	}
 
-		return fireInterceptorsAndFilterAsNeeded(retVal, theRequestDetails);
+	/**
+	 * Returns the given IDs which have a current version, in their original order. IDs from
+	 * <code>_id</code> may not exist, and an index row can outlive its resource between the
+	 * index write and the cache write, so every ID is checked. Only the keys are selected, one
+	 * query per chunk, so no resource body is transferred until its page is requested.
+	 */
+	private List<String> findExistingIds(Set<String> theIds) {
+		String tableName = myResourceType.getSimpleName();
+		List<String> retVal = new ArrayList<>(theIds.size());
+		for (List<String> nextChunk : Lists.partition(new ArrayList<>(theIds), EXISTENCE_CHECK_CHUNK_SIZE)) {
+			String placeholders = String.join(",", Collections.nCopies(nextChunk.size(), "?"));
+			SqlFieldsQuery query = new SqlFieldsQuery("SELECT _key FROM " + tableName + " WHERE _key IN (" + placeholders + ")")
+				.setArgs(nextChunk.toArray());
+			Set<String> found = new HashSet<>();
+			for (List<?> next : resourceMap.query(query)) {
+				found.add((String) next.get(0));
+			}
+			for (String next : nextChunk) {
+				if (found.contains(next)) {
+					retVal.add(next);
+				}
+			}
+		}
+		return retVal;
 	}
 
 }
@@ -0,0 +1,352 @@
+package ca.uhn.example.base;
+
+import ca.uhn.example.model.ResourceIndexEntry;
+import ca.uhn.example.model.ResourceIndexKey;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.model.entity.BaseResourceIndexedSearchParam;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamDate;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.PathAndRef;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import ca.uhn.fhir.model.api.IQueryParameterAnd;
+import ca.uhn.fhir.model.api.IQueryParameterOr;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.QualifiedParamList;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.param.ParameterUtil;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.util.StringUtil;
+import com.google.common.collect.Lists;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.query.SqlFieldsQuery;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Extracts token, string, date and reference search parameters from resources
+ * into {@link ResourceIndexEntry} rows, and turns FHIR search parameters into
+ * indexed Ignite SQL predicates over those rows.
+ * <p>
+ * Each AND clause of a search becomes one query against the index table. Once a
+ * clause has narrowed the candidates down to a small set, that set is pushed
+ * into the following clauses so that they only touch the matching rows.
+ * </p>
+ */
+public class IgniteSearchParamIndexer {
+	private static final Logger ourLog = LoggerFactory.getLogger(IgniteSearchParamIndexer.class);
+
+	/**
+	 * Candidate sets at or below this size are pushed down into the next clause as an IN list
+	 */
+	static final int MAX_PUSHDOWN_IDS = 1000;
+
+	private final FhirContext myFhirContext;
+	private final ISearchParamExtractor mySearchParamExtractor;
+	private final ISearchParamRegistry mySearchParamRegistry;
+
+	public IgniteSearchParamIndexer(FhirContext theFhirContext, ISearchParamExtractor theSearchParamExtractor, ISearchParamRegistry theSearchParamRegistry) {
+		myFhirContext = theFhirContext;
+		mySearchParamExtractor = theSearchParamExtractor;
+		mySearchParamRegistry = theSearchParamRegistry;
+	}
+
+	/**
+	 * Extract all indexable search parameter values from the given resource
+	 */
+	public Map<ResourceIndexKey, ResourceIndexEntry> extractIndexEntries(String theResourceId, IBaseResource theResource) {
+		Map<ResourceIndexKey, ResourceIndexEntry> retVal = new HashMap<>();
+
+		for (BaseResourceIndexedSearchParam next : mySearchParamExtractor.extractSearchParamTokens(theResource)) {
+			if (next instanceof ResourceIndexedSearchParamToken) {
+				ResourceIndexedSearchParamToken token = (ResourceIndexedSearchParamToken) next;
+				add(retVal, new ResourceIndexEntry(theResourceId, token.getParamName()).setToken(token.getSystem(), token.getValue()));
+			}
+		}
+
+		for (ResourceIndexedSearchParamString next : mySearchParamExtractor.extractSearchParamStrings(theResource)) {
+			add(retVal, new ResourceIndexEntry(theResourceId, next.getParamName()).setString(next.getValueNormalized(), next.getValueExact()));
+		}
+
+		for (ResourceIndexedSearchParamDate next : mySearchParamExtractor.extractSearchParamDates(theResource)) {
+			add(retVal, new ResourceIndexEntry(theResourceId, next.getParamName()).setDate(toMillis(next.getValueLow()), toMillis(next.getValueHigh())));
+		}
+
+		for (PathAndRef next : mySearchParamExtractor.extractResourceLinks(theResource)) {
+			if (next.getRef() == null) {
+				continue;
+			}
+			IIdType target = next.getRef().getReferenceElement();
+			if (target == null || target.isLocal() || target.isAbsolute() || !target.hasIdPart()) {
+				continue;
+			}
+			add(retVal, new ResourceIndexEntry(theResourceId, next.getSearchParamName()).setToken(target.getResourceType(), target.getIdPart()));
+		}
+
+		return retVal;
+	}
+
+	private void add(Map<ResourceIndexKey, ResourceIndexEntry> theMap, ResourceIndexEntry theEntry) {
+		theMap.put(new ResourceIndexKey(theEntry.getResourceId(), theEntry.getParamName(), theMap.size()), theEntry);
+	}
+
+	/**
+	 * Replace the index rows of the given resource. Passing {@literal null} as the resource only removes the existing rows.
+	 */
+	public void reindex(IgniteCache<ResourceIndexKey, ResourceIndexEntry> theIndexCache, String theIndexTable, String theResourceId, IBaseResource theResource) {
+		Map<ResourceIndexKey, ResourceIndexEntry> entries = theResource != null ? extractIndexEntries(theResourceId, theResource) : Collections.emptyMap();
+		writeIndexEntries(theIndexCache, theIndexTable, Collections.singleton(theResourceId), entries);
+	}
+
+	public void removeIndexEntries(IgniteCache<ResourceIndexKey, ResourceIndexEntry> theIndexCache, String theIndexTable, String theResourceId) {
+		writeIndexEntries(theIndexCache, theIndexTable, Collections.singleton(theResourceId), Collections.emptyMap());
+	}
+
+	/**
+	 * Replace all index rows of the given resources with the given rows. Rows are written with
+	 * key-value operations rather than SQL DML, so that they take part in the Ignite transaction
+	 * of the calling thread (if any) together with the resources themselves.
+	 *
+	 * @param theResourceIds The resources whose rows are replaced
+	 * @param theEntries     The new rows, which may only belong to the given resources
+	 */
+	public void writeIndexEntries(IgniteCache<ResourceIndexKey, ResourceIndexEntry> theIndexCache, String theIndexTable, Collection<String> theResourceIds, Map<ResourceIndexKey, ResourceIndexEntry> theEntries) {
+		Set<ResourceIndexKey> staleKeys = findIndexKeys(theIndexCache, theIndexTable, theResourceIds);
+		staleKeys.removeAll(theEntries.keySet());
+		if (!staleKeys.isEmpty()) {
+			theIndexCache.removeAll(staleKeys);
+		}
+		if (!theEntries.isEmpty()) {
+			theIndexCache.putAll(theEntries);
+		}
+	}
+
+	private Set<ResourceIndexKey> findIndexKeys(IgniteCache<ResourceIndexKey, ResourceIndexEntry> theIndexCache, String theIndexTable, Collection<String> theResourceIds) {
+		Set<ResourceIndexKey> retVal = new HashSet<>();
+		for (List<String> nextChunk : Lists.partition(new ArrayList<>(theResourceIds), MAX_PUSHDOWN_IDS)) {
+			String placeholders = String.join(",", Collections.nCopies(nextChunk.size(), "?"));
+			SqlFieldsQuery query = new SqlFieldsQuery("SELECT _key FROM " + theIndexTable + " WHERE resourceId IN (" + placeholders + ")")
+				.setArgs(nextChunk.toArray());
+			for (List<?> next : theIndexCache.query(query)) {
+				retVal.add((ResourceIndexKey) next.get(0));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Find the IDs of all resources matching every one of the given parameters
+	 *
+	 * @param theParams The raw search parameters, keyed by (possibly qualified) parameter name. Each list entry is one AND clause.
+	 * @param theIds    Candidate IDs from an <code>_id</code> parameter, or {@literal null}
+	 */
+	public Set<String> findResourceIds(IgniteCache<ResourceIndexKey, ResourceIndexEntry> theIndexCache, String theIndexTable, String theResourceName, Map<String, List<String>> theParams, Set<String> theIds) {
+		Set<String> candidates = theIds;
+
+		for (Map.Entry<String, List<String>> nextEntry : theParams.entrySet()) {
+			String qualifiedName = nextEntry.getKey();
+			int colonIdx = qualifiedName.indexOf(':');
+			String paramName = colonIdx == -1 ? qualifiedName : qualifiedName.substring(0, colonIdx);
+			String qualifier = colonIdx == -1 ? null : qualifiedName.substring(colonIdx);
+
+			RuntimeSearchParam searchParam = mySearchParamRegistry.getActiveSearchParam(theResourceName, paramName);
+			if (searchParam == null) {
+				throw new InvalidRequestException("Unknown search parameter \"" + paramName + "\" for resource type \"" + theResourceName + "\"");
+			}
+
+			List<QualifiedParamList> paramLists = new ArrayList<>();
+			for (String nextValue : nextEntry.getValue()) {
+				paramLists.add(QualifiedParamList.splitQueryStringByCommasIgnoreEscape(qualifier, nextValue));
+			}
+			IQueryParameterAnd<?> andParams = ParameterUtil.parseQueryParams(myFhirContext, searchParam, paramName, paramLists);
+
+			for (IQueryParameterOr<?> nextOr : andParams.getValuesAsQueryTokens()) {
+				if (candidates != null && candidates.isEmpty()) {
+					return candidates;
+				}
+				candidates = findResourceIdsForClause(theIndexCache, theIndexTable, paramName, nextOr.getValuesAsQueryTokens(), candidates);
+			}
+		}
+
+		return candidates;
+	}
+
+	private Set<String> findResourceIdsForClause(IgniteCache<ResourceIndexKey, ResourceIndexEntry> theIndexCache, String theIndexTable, String theParamName, List<? extends IQueryParameterType> theOrValues, Set<String> theCandidates) {
+		StringBuilder sql = new StringBuilder();
+		List<Object> args = new ArrayList<>();
+		sql.append("SELECT DISTINCT resourceId FROM ").append(theIndexTable).append(" WHERE paramName = ?");
+		args.add(theParamName);
+
+		sql.append(" AND (");
+		for (int i = 0; i < theOrValues.size(); i++) {
+			if (i > 0) {
+				sql.append(" OR ");
+			}
+			sql.append('(');
+			appendPredicate(sql, args, theParamName, theOrValues.get(i));
+			sql.append(')');
+		}
+		sql.append(')');
+
+		boolean pushDown = theCandidates != null && theCandidates.size() <= MAX_PUSHDOWN_IDS;
+		if (pushDown) {
+			sql.append(" AND resourceId IN (");
+			int i = 0;
+			for (String next : theCandidates) {
+				sql.append(i++ > 0 ? ", ?" : "?");
+				args.add(next);
+			}
+			sql.append(')');
+		}
+
+		ourLog.debug("Index query: {} {}", sql, args);
+		SqlFieldsQuery query = new SqlFieldsQuery(sql.toString()).setArgs(args.toArray());
+
+		Set<String> retVal = new LinkedHashSet<>();
+		for (List<?> nextRow : theIndexCache.query(query)) {
+			String id = (String) nextRow.get(0);
+			if (pushDown || theCandidates == null || theCandidates.contains(id)) {
+				retVal.add(id);
+			}
+		}
+		return retVal;
+	}
+
+	private void appendPredicate(StringBuilder theSql, List<Object> theArgs, String theParamName, IQueryParameterType theParam) {
+		if (theParam instanceof TokenParam) {
+			TokenParam token = (TokenParam) theParam;
+			if (token.getModifier() != null) {
+				throw new InvalidRequestException("Modifier " + token.getModifier().getValue() + " is not supported for parameter \"" + theParamName + "\"");
+			}
+			if (isNotBlank(token.getValue())) {
+				theSql.append("tokenValue = ?");
+				theArgs.add(token.getValue());
+				if (isNotBlank(token.getSystem())) {
+					theSql.append(" AND tokenSystem = ?");
+					theArgs.add(token.getSystem());
+				}
+			} else if (isNotBlank(token.getSystem())) {
+				theSql.append("tokenSystem = ?");
+				theArgs.add(token.getSystem());
+			} else {
+				throw new InvalidRequestException("Empty token value for parameter \"" + theParamName + "\"");
+			}
+
+		} else if (theParam instanceof StringParam) {
+			StringParam string = (StringParam) theParam;
+			if (string.isExact()) {
+				theSql.append("stringExact = ?");
+				theArgs.add(string.getValue());
+			} else if (string.isContains()) {
+				theSql.append("stringNormalized LIKE ? ESCAPE '\\'");
+				theArgs.add("%" + escapeLikePattern(StringUtil.normalizeStringForSearchIndexing(string.getValue())) + "%");
+			} else {
+				theSql.append("stringNormalized LIKE ? ESCAPE '\\'");
+				theArgs.add(escapeLikePattern(StringUtil.normalizeStringForSearchIndexing(string.getValue())) + "%");
+			}
+
+		} else if (theParam instanceof DateParam) {
+			appendDatePredicate(theSql, theArgs, theParamName, (DateParam) theParam);
+
+		} else if (theParam instanceof ReferenceParam) {
+			ReferenceParam reference = (ReferenceParam) theParam;
+			if (isNotBlank(reference.getChain())) {
+				throw new InvalidRequestException("Chained parameters are not supported: \"" + theParamName + "." + reference.getChain() + "\"");
+			}
+			if (isBlank(reference.getIdPart())) {
+				throw new InvalidRequestException("Empty reference value for parameter \"" + theParamName + "\"");
+			}
+			theSql.append("tokenValue = ?");
+			theArgs.add(reference.getIdPart());
+			if (reference.hasResourceType()) {
+				theSql.append(" AND tokenSystem = ?");
+				theArgs.add(reference.getResourceType());
+			}
+
+		} else {
+			throw new InvalidRequestException("Search parameter \"" + theParamName + "\" of type " + theParam.getClass().getSimpleName() + " is not supported by this server");
+		}
+	}
+
+	/**
+	 * Escapes the LIKE wildcards in a search value, so that e.g. <code>a_c</code> doesn't match <code>ABC</code>
+	 */
+	static String escapeLikePattern(String theValue) {
+		return theValue
+			.replace("\\", "\\\\")
+			.replace("%", "\\%")
+			.replace("_", "\\_");
+	}
+
+	private void appendDatePredicate(StringBuilder theSql, List<Object> theArgs, String theParamName, DateParam theDate) {
+		ParamPrefixEnum prefix = theDate.getPrefix() != null ? theDate.getPrefix() : ParamPrefixEnum.EQUAL;
+		switch (prefix) {
+			case STARTS_AFTER: {
+				// The indexed range must start after the end of the range covered by the parameter value
+				Date upper = toExactRange(theDate).getUpperBoundAsInstant();
+				theSql.append("dateLow > ?");
+				theArgs.add(upper.getTime());
+				break;
+			}
+			case ENDS_BEFORE: {
+				// The indexed range must end before the start of the range covered by the parameter value
+				Date lower = toExactRange(theDate).getLowerBoundAsInstant();
+				theSql.append("dateHigh < ?");
+				theArgs.add(lower.getTime());
+				break;
+			}
+			case NOT_EQUAL:
+			case APPROXIMATE:
+				throw new InvalidRequestException("Prefix \"" + prefix.getValue() + "\" is not supported for date parameter \"" + theParamName + "\"");
+			default: {
+				DateRangeParam range = new DateRangeParam(theDate);
+				Date lower = range.getLowerBoundAsInstant();
+				Date upper = range.getUpperBoundAsInstant();
+				boolean contained = prefix == ParamPrefixEnum.EQUAL;
+				theSql.append("dateLow IS NOT NULL");
+				if (lower != null) {
+					theSql.append(contained ? " AND dateLow >= ?" : " AND dateHigh >= ?");
+					theArgs.add(lower.getTime());
+				}
+				if (upper != null) {
+					theSql.append(contained ? " AND dateHigh <= ?" : " AND dateLow <= ?");
+					theArgs.add(upper.getTime());
+				}
+			}
+		}
+	}
+
+	/**
+	 * The range covered by the value of the given parameter, ignoring its prefix
+	 */
+	private static DateRangeParam toExactRange(DateParam theDate) {
+		return new DateRangeParam(new DateParam(ParamPrefixEnum.EQUAL, theDate.getValueAsString()));
+	}
+
+	private static Long toMillis(Date theDate) {
+		return theDate != null ? theDate.getTime() : null;
+	}
+}
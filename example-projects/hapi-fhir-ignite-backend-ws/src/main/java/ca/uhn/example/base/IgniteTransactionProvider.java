@@ -0,0 +1,380 @@
+package ca.uhn.example.base;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.storage.TransactionDetails;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
+import ca.uhn.fhir.util.FhirTerser;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.transactions.TransactionConcurrency;
+import org.apache.ignite.transactions.TransactionIsolation;
+import org.apache.ignite.transactions.TransactionOptimisticException;
+import org.apache.ignite.transactions.TransactionTimeoutException;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.BaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Handles <code>transaction</code> and <code>batch</code> bundles for the Ignite
+ * backed resource providers.
+ * <p>
+ * Instead of storing every entry on its own, the writes of a bundle are grouped
+ * by resource type: server-assigned IDs are reserved in one block per type, and
+ * every cache is written with a single <code>putAll</code>/<code>removeAll</code>.
+ * For a transaction these writes, including the search index rows, run inside one
+ * optimistic, serializable Ignite transaction spanning the current-version, history
+ * and index caches of all types involved, so either the whole bundle is stored or
+ * nothing is.
+ * </p>
+ * <p>
+ * The entries of a batch are independent: an entry that can't be processed gets an
+ * error response of its own and the other entries are still stored. Each resource
+ * type is written in its own transaction, and if that fails its entries are retried
+ * one by one so that only the failing ones are reported.
+ * Conditional operations and <code>GET</code> entries are not supported.
+ * </p>
+ */
+public class IgniteTransactionProvider {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(IgniteTransactionProvider.class);
+
+	private final FhirContext myFhirContext;
+	private final Ignite myIgnite;
+	private final Map<String, IgniteCacheR4ResourceProvider<?>> myResourceProviders = new HashMap<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param theFhirContext        The FHIR context
+	 * @param theIgnite             The Ignite instance holding the caches
+	 * @param theResourceProviders  The providers the bundle entries are dispatched to
+	 */
+	public IgniteTransactionProvider(FhirContext theFhirContext, Ignite theIgnite, List<IgniteCacheR4ResourceProvider<?>> theResourceProviders) {
+		myFhirContext = theFhirContext;
+		myIgnite = theIgnite;
+		for (IgniteCacheR4ResourceProvider<?> next : theResourceProviders) {
+			myResourceProviders.put(myFhirContext.getResourceType(next.getResourceType()), next);
+		}
+	}
+
+	@Transaction
+	public Bundle transaction(@TransactionParam Bundle theBundle, RequestDetails theRequestDetails) {
+		boolean transaction;
+		if (theBundle.getType() == BundleType.TRANSACTION) {
+			transaction = true;
+		} else if (theBundle.getType() == BundleType.BATCH) {
+			transaction = false;
+		} else {
+			throw new InvalidRequestException("Unable to process bundle of type: " + theBundle.getType().toCode());
+		}
+
+		List<EntryTarget> targets = new ArrayList<>(theBundle.getEntry().size());
+		Map<String, Integer> createCounts = new HashMap<>();
+		for (BundleEntryComponent next : theBundle.getEntry()) {
+			EntryTarget target;
+			try {
+				target = toTarget(next);
+			} catch (BaseServerResponseException e) {
+				if (transaction) {
+					throw e;
+				}
+				target = new EntryTarget();
+				target.myFailure = e;
+			}
+			if (target.myFailure == null && target.myMethod == HTTPVerb.POST) {
+				createCounts.merge(target.myResourceName, 1, Integer::sum);
+			}
+			targets.add(target);
+		}
+
+		/*
+		 * Reserve the IDs of all created resources up front, one block per type,
+		 * so that placeholder references can be resolved before anything is written
+		 */
+		Map<String, Long> nextIds = new HashMap<>();
+		for (Map.Entry<String, Integer> next : createCounts.entrySet()) {
+			nextIds.put(next.getKey(), getProvider(next.getKey()).reserveIds(next.getValue()));
+		}
+		Map<String, IdType> placeholderIds = new HashMap<>();
+		for (EntryTarget next : targets) {
+			if (next.myFailure == null && next.myMethod == HTTPVerb.POST) {
+				long id = nextIds.merge(next.myResourceName, 1L, Long::sum) - 1;
+				next.myIdPart = Long.toString(id);
+				if (isNotBlank(next.myFullUrl)) {
+					placeholderIds.put(next.myFullUrl, new IdType(next.myResourceName, next.myIdPart));
+				}
+			}
+		}
+
+		FhirTerser terser = myFhirContext.newTerser();
+		Map<String, TypeWrite<?>> writes = new LinkedHashMap<>();
+		for (EntryTarget next : targets) {
+			if (next.myFailure != null) {
+				continue;
+			}
+			if (next.myResource != null && !placeholderIds.isEmpty()) {
+				for (IBaseReference nextRef : terser.getAllPopulatedChildElementsOfType(next.myResource, IBaseReference.class)) {
+					IdType newId = placeholderIds.get(nextRef.getReferenceElement().getValue());
+					if (newId != null) {
+						nextRef.setReference(newId.getValue());
+					}
+				}
+			}
+			try {
+				writes.computeIfAbsent(next.myResourceName, t -> new TypeWrite<>(getProvider(t))).add(next);
+			} catch (BaseServerResponseException e) {
+				if (transaction) {
+					throw e;
+				}
+				next.myFailure = e;
+			}
+		}
+
+		TransactionDetails transactionDetails = new TransactionDetails();
+		if (transaction) {
+			try (org.apache.ignite.transactions.Transaction tx = startTransaction()) {
+				for (TypeWrite<?> next : writes.values()) {
+					next.write();
+				}
+				tx.commit();
+			} catch (RuntimeException e) {
+				throw toServerException(e);
+			}
+			for (TypeWrite<?> next : writes.values()) {
+				next.afterWrite(theRequestDetails, transactionDetails);
+			}
+		} else {
+			for (TypeWrite<?> next : writes.values()) {
+				writeBatchEntries(next, theRequestDetails, transactionDetails);
+			}
+		}
+		ourLog.info("Stored {} bundle entries across {} resource types", targets.size(), writes.size());
+
+		Bundle retVal = new Bundle();
+		retVal.setType(transaction ? BundleType.TRANSACTIONRESPONSE : BundleType.BATCHRESPONSE);
+		for (EntryTarget target : targets) {
+			Bundle.BundleEntryResponseComponent response = retVal.addEntry().getResponse();
+			if (target.myFailure != null) {
+				response.setStatus(toStatusString(target.myFailure.getStatusCode()));
+				OperationOutcome outcome = new OperationOutcome();
+				outcome.addIssue()
+					.setSeverity(OperationOutcome.IssueSeverity.ERROR)
+					.setCode(OperationOutcome.IssueType.PROCESSING)
+					.setDiagnostics(target.myFailure.getMessage());
+				response.setOutcome(outcome);
+				continue;
+			}
+			switch (target.myMethod) {
+				case POST:
+					response.setStatus("201 Created");
+					break;
+				case PUT:
+					response.setStatus(target.myCreated ? "201 Created" : "200 OK");
+					break;
+				default:
+					response.setStatus("204 No Content");
+					break;
+			}
+			response.setLocation(target.myId.getValue());
+			response.setEtag("W/\"" + target.myId.getVersionIdPart() + "\"");
+		}
+		return retVal;
+	}
+
+	private org.apache.ignite.transactions.Transaction startTransaction() {
+		return myIgnite.transactions().txStart(TransactionConcurrency.OPTIMISTIC, TransactionIsolation.SERIALIZABLE);
+	}
+
+	/**
+	 * Writes the batch entries of one resource type in a single transaction. If that fails,
+	 * every entry is written in a transaction of its own, and the failing ones are recorded
+	 * on their entry instead of failing the whole batch.
+	 */
+	private <T extends BaseResource> void writeBatchEntries(TypeWrite<T> theWrite, RequestDetails theRequestDetails, TransactionDetails theTransactionDetails) {
+		try {
+			try (org.apache.ignite.transactions.Transaction tx = startTransaction()) {
+				theWrite.write();
+				tx.commit();
+			}
+			theWrite.afterWrite(theRequestDetails, theTransactionDetails);
+			return;
+		} catch (RuntimeException e) {
+			ourLog.warn("Failed to store the {} batch entries of type {} together, storing them one by one: {}", theWrite.myTargets.size(), theWrite.myProvider.getResourceType().getSimpleName(), e.toString());
+		}
+
+		for (EntryTarget next : theWrite.myTargets) {
+			TypeWrite<T> single = new TypeWrite<>(theWrite.myProvider);
+			try {
+				single.add(next);
+				try (org.apache.ignite.transactions.Transaction tx = startTransaction()) {
+					single.write();
+					tx.commit();
+				}
+				single.afterWrite(theRequestDetails, theTransactionDetails);
+			} catch (BaseServerResponseException e) {
+				next.myFailure = e;
+			} catch (RuntimeException e) {
+				RuntimeException serverException = toServerException(e);
+				if (serverException instanceof BaseServerResponseException) {
+					next.myFailure = (BaseServerResponseException) serverException;
+				} else {
+					ourLog.error("Failed to store batch entry {}", next.myId, e);
+					next.myFailure = new InternalErrorException(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Turns the failure of an Ignite transaction caused by a concurrent write of the same
+	 * resources into a version conflict, so that the client knows the request can be retried.
+	 * Any other failure is returned as-is.
+	 */
+	static RuntimeException toServerException(RuntimeException theException) {
+		for (Throwable cause = theException; cause != null; cause = cause.getCause()) {
+			ResourceVersionConflictException retVal = null;
+			if (cause instanceof TransactionOptimisticException) {
+				retVal = new ResourceVersionConflictException("The bundle conflicts with a concurrent write of the same resources: " + cause.getMessage());
+			} else if (cause instanceof TransactionTimeoutException) {
+				retVal = new ResourceVersionConflictException("Timed out waiting for a concurrent write of the same resources: " + cause.getMessage());
+			}
+			if (retVal != null) {
+				retVal.initCause(theException);
+				return retVal;
+			}
+		}
+		return theException;
+	}
+
+	private static String toStatusString(int theStatusCode) {
+		return theStatusCode + " " + defaultString(Constants.HTTP_STATUS_NAMES.get(theStatusCode));
+	}
+
+	private EntryTarget toTarget(BundleEntryComponent theEntry) {
+		HTTPVerb method = theEntry.getRequest().getMethod();
+		String url = theEntry.getRequest().getUrl();
+		if (method == null || method == HTTPVerb.NULL) {
+			throw new InvalidRequestException("Bundle entry is missing request.method");
+		}
+		if (theEntry.getRequest().hasIfNoneExist() || theEntry.getRequest().hasIfMatch() || (url != null && url.contains("?"))) {
+			throw new InvalidRequestException("This server doesn't support conditional operations in bundles");
+		}
+
+		EntryTarget retVal = new EntryTarget();
+		retVal.myMethod = method;
+		retVal.myFullUrl = theEntry.getFullUrl();
+		retVal.myResource = theEntry.getResource();
+		switch (method) {
+			case POST:
+				if (retVal.myResource == null) {
+					throw new InvalidRequestException("Bundle entry with method POST has no resource");
+				}
+				retVal.myResourceName = myFhirContext.getResourceType(retVal.myResource);
+				break;
+			case PUT:
+			case DELETE:
+				IdType id = new IdType(url);
+				if (isBlank(id.getResourceType()) || isBlank(id.getIdPart())) {
+					throw new InvalidRequestException("Invalid request.url for method " + method.toCode() + ": " + url);
+				}
+				retVal.myResourceName = id.getResourceType();
+				retVal.myIdPart = id.getIdPart();
+				if (method == HTTPVerb.PUT) {
+					if (retVal.myResource == null) {
+						throw new InvalidRequestException("Bundle entry with method PUT has no resource");
+					}
+					if (!retVal.myResourceName.equals(myFhirContext.getResourceType(retVal.myResource))) {
+						throw new InvalidRequestException("Resource type of request.url doesn't match the resource: " + url);
+					}
+				} else {
+					retVal.myResource = null;
+				}
+				break;
+			default:
+				throw new InvalidRequestException("This server doesn't support method " + method.toCode() + " in bundles");
+		}
+		getProvider(retVal.myResourceName);
+		return retVal;
+	}
+
+	private IgniteCacheR4ResourceProvider<?> getProvider(String theResourceName) {
+		IgniteCacheR4ResourceProvider<?> retVal = myResourceProviders.get(theResourceName);
+		if (retVal == null) {
+			throw new InvalidRequestException("Unknown resource type: " + theResourceName);
+		}
+		return retVal;
+	}
+
+	/**
+	 * The resolved target of one bundle entry
+	 */
+	private static class EntryTarget {
+		private HTTPVerb myMethod;
+		private String myFullUrl;
+		private String myResourceName;
+		private String myIdPart;
+		private Resource myResource;
+		private IIdType myId;
+		private boolean myCreated;
+		private BaseServerResponseException myFailure;
+	}
+
+	/**
+	 * The pending writes of one resource type
+	 */
+	private static class TypeWrite<T extends BaseResource> {
+		private final IgniteCacheR4ResourceProvider<T> myProvider;
+		private final IgniteCacheR4ResourceProvider.BulkWrite<T> myWrite = new IgniteCacheR4ResourceProvider.BulkWrite<>();
+		private final List<EntryTarget> myTargets = new ArrayList<>();
+
+		private TypeWrite(IgniteCacheR4ResourceProvider<T> theProvider) {
+			myProvider = theProvider;
+		}
+
+		private void add(EntryTarget theTarget) {
+			if (theTarget.myMethod == HTTPVerb.DELETE) {
+				theTarget.myId = myProvider.prepareBulkDelete(theTarget.myIdPart, myWrite);
+			} else {
+				T resource = myProvider.getResourceType().cast(theTarget.myResource);
+				theTarget.myId = myProvider.prepareBulkStore(resource, theTarget.myIdPart, theTarget.myMethod == HTTPVerb.POST, myWrite);
+			}
+			myTargets.add(theTarget);
+		}
+
+		private void write() {
+			myProvider.bulkWrite(myWrite);
+			for (EntryTarget next : myTargets) {
+				next.myCreated = myWrite.isCreated(next.myIdPart);
+			}
+		}
+
+		private void afterWrite(RequestDetails theRequestDetails, TransactionDetails theTransactionDetails) {
+			myProvider.afterBulkWrite(myWrite, theRequestDetails, theTransactionDetails);
+		}
+	}
+}
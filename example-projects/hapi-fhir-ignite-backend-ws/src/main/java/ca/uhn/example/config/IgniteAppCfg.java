@@ -2,15 +2,20 @@ package ca.uhn.example.config;
 
 import org.apache.ignite.Ignite;
 import org.apache.ignite.Ignition;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheKeyConfiguration;
 import org.apache.ignite.cache.CacheMode;
 import org.apache.ignite.cache.FullTextQueryIndex;
 import org.apache.ignite.cache.QueryEntity;
 import org.apache.ignite.cache.QueryIndex;
 import org.apache.ignite.cache.QueryIndexType;
+import org.apache.ignite.cache.affinity.rendezvous.RendezvousAffinityFunction;
+import org.apache.ignite.cache.eviction.lru.LruEvictionPolicyFactory;
 import org.apache.ignite.client.IgniteClient;
 import org.apache.ignite.configuration.CacheConfiguration;
 import org.apache.ignite.configuration.ClientConfiguration;
 import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.configuration.NearCacheConfiguration;
 import org.apache.ignite.springdata22.repository.config.EnableIgniteRepositories;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
@@ -21,6 +26,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import ca.uhn.example.base.IgniteSearchParamIndexer;
+import ca.uhn.example.model.ResourceIndexEntry;
+import ca.uhn.example.model.ResourceIndexKey;
 import ca.uhn.example.model.VersionedId;
 import ca.uhn.fhir.context.BaseRuntimeChildDatatypeDefinition;
 import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
@@ -28,6 +36,13 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeChildPrimitiveDatatypeDefinition;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import ca.uhn.fhir.jpa.searchparam.registry.FhirContextSearchParamRegistry;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import ca.uhn.fhir.model.api.annotation.DatatypeDef;
 
 import java.util.ArrayList;
@@ -51,9 +66,29 @@ public class IgniteAppCfg {
 
 	@Value("${ignite.connect.address}")
 	private String address = "127.0.0.1";
+
+	/**
+	 * Resource types that are read often and change rarely, and get a near cache
+	 */
+	@Value("${ignite.near-cache.resource-types:Practitioner,Organization,Location}")
+	private String[] nearCacheResourceTypes = new String[0];
+
+	/**
+	 * Maximum number of entries kept in each near cache, least recently used entries are evicted first
+	 */
+	@Value("${ignite.near-cache.max-size:10000}")
+	private int nearCacheMaxSize = 10000;
+
+	/**
+	 * All resource caches use the same affinity function and partition count, so that
+	 * a resource, its history and its index rows map to the same partition
+	 */
+	public final static int AFFINITY_PARTITIONS = 1024;
 	
 	private final static String HISTORY_SUFFIX = "_History";
 
+	private final static String INDEX_SUFFIX = "_Index";
+
 	@Bean
 	public Ignite igniteInstance() {
 		Ignite ignite = null;
@@ -69,6 +104,13 @@ public class IgniteAppCfg {
 		return ignite;
 	}
 
+	@Bean
+	public IgniteSearchParamIndexer searchParamIndexer(FhirContext theFhirContext) {
+		ISearchParamRegistry searchParamRegistry = new FhirContextSearchParamRegistry(theFhirContext);
+		ISearchParamExtractor searchParamExtractor = new SearchParamExtractorR4(new ModelConfig(), new PartitionSettings(), theFhirContext, new DefaultProfileValidationSupport(theFhirContext), searchParamRegistry);
+		return new IgniteSearchParamIndexer(theFhirContext, searchParamExtractor, searchParamRegistry);
+	}
+
 	@Bean
 	public IgniteClient igniteClient() {
 		ClientConfiguration cfg = new ClientConfiguration();
@@ -88,6 +130,9 @@ public class IgniteAppCfg {
 		// Setting SQL schema for the cache.
 		ccfg2.setSqlSchema(myFhirContext.getVersion().getVersion().name());
 		ccfg2.setCacheMode(CacheMode.PARTITIONED);
+		ccfg2.setAffinity(new RendezvousAffinityFunction(false, AFFINITY_PARTITIONS));
+		// Transaction bundles update the current and history caches atomically
+		ccfg2.setAtomicityMode(CacheAtomicityMode.TRANSACTIONAL);
 		
 		QueryEntity queryEntity = createResourceQueryEntity(resourceType);
 		try {
@@ -145,12 +190,61 @@ public class IgniteAppCfg {
 		ccfg2.setSqlSchema(myFhirContext.getVersion().getVersion().name()+HISTORY_SUFFIX);
 		ccfg2.setCacheMode(CacheMode.PARTITIONED);
 		ccfg2.setBackups(0);
+		ccfg2.setAtomicityMode(CacheAtomicityMode.TRANSACTIONAL);
 		ccfg2.setQueryEntity(createVersionedQueryEntity(resourceType));
 
+		// Keep every version on the node holding the current version of the resource
+		ccfg2.setAffinity(new RendezvousAffinityFunction(false, AFFINITY_PARTITIONS));
+		ccfg2.setKeyConfiguration(new CacheKeyConfiguration(VersionedId.class.getName(), "idPart"));
+
 		
 		return ccfg2;
 	}
 	
+	/**
+	 * Cache holding the search parameter index rows of one resource type. The rows
+	 * are colocated with their resource through the {@link ResourceIndexKey} affinity key,
+	 * and are written in the same transaction as the resource.
+	 */
+	public static <T extends BaseResource> CacheConfiguration<ResourceIndexKey, ResourceIndexEntry> indexCacheConfigurationFor(
+			FhirContext myFhirContext,
+			Class<T> resourceType) {
+		String resourceName = resourceType.getSimpleName();
+		CacheConfiguration<ResourceIndexKey, ResourceIndexEntry> ccfg2 = new CacheConfiguration<>(resourceName+INDEX_SUFFIX);
+
+		// Setting SQL schema for the cache.
+		ccfg2.setSqlSchema(myFhirContext.getVersion().getVersion().name()+INDEX_SUFFIX);
+		ccfg2.setCacheMode(CacheMode.PARTITIONED);
+		ccfg2.setAtomicityMode(CacheAtomicityMode.TRANSACTIONAL);
+		ccfg2.setAffinity(new RendezvousAffinityFunction(false, AFFINITY_PARTITIONS));
+		ccfg2.setKeyConfiguration(new CacheKeyConfiguration(ResourceIndexKey.class.getName(), "resourceId"));
+		ccfg2.setQueryEntities(Collections.singletonList(
+			new QueryEntity(ResourceIndexKey.class, ResourceIndexEntry.class).setTableName(indexTableNameFor(resourceType))));
+
+		return ccfg2;
+	}
+
+	public static String indexTableNameFor(Class<? extends BaseResource> resourceType) {
+		return resourceType.getSimpleName()+INDEX_SUFFIX;
+	}
+
+	public static String historyTableNameFor(Class<? extends BaseResource> resourceType) {
+		return resourceType.getSimpleName()+HISTORY_SUFFIX;
+	}
+
+	/**
+	 * Returns the near cache configuration for the given resource type, or {@literal null}
+	 * if the type isn't listed in <code>ignite.near-cache.resource-types</code>
+	 */
+	public <T extends BaseResource> NearCacheConfiguration<String, T> nearCacheConfigurationFor(Class<T> resourceType) {
+		if (!Arrays.asList(nearCacheResourceTypes).contains(resourceType.getSimpleName())) {
+			return null;
+		}
+		NearCacheConfiguration<String, T> retVal = new NearCacheConfiguration<>();
+		retVal.setNearEvictionPolicyFactory(new LruEvictionPolicyFactory<>(nearCacheMaxSize));
+		return retVal;
+	}
+
 	 /**
      * Create cache type metadata for {@link Organization}.
      *
@@ -181,7 +275,7 @@ public class IgniteAppCfg {
      */
     private static QueryEntity createVersionedQueryEntity(Class<? extends BaseResource> resourceType) {
         return new QueryEntity()
-        	.setTableName(resourceType.getSimpleName()+HISTORY_SUFFIX)
+        	.setTableName(historyTableNameFor(resourceType))
             .setValueType(resourceType.getName())
             .setKeyType(VersionedId.class.getName())
             .addQueryField("version", Long.class.getName(), null)
@@ -190,6 +284,7 @@ public class IgniteAppCfg {
             .addQueryField("status", String.class.getName(), null)            
             .addQueryField("meta", Meta.class.getName(), null)            
             .setKeyFields(new HashSet<>(Arrays.asList("version","idPart")))
+            .setIndexes(Collections.singletonList(new QueryIndex("idPart")))
            ;
     }
     
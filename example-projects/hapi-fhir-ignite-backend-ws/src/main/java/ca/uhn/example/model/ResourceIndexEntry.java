@@ -0,0 +1,111 @@
+package ca.uhn.example.model;
+
+import org.apache.ignite.cache.query.annotations.QuerySqlField;
+
+/**
+ * A single extracted search parameter value for a resource, stored in the
+ * per-resource-type index cache and queried through Ignite SQL.
+ * <p>
+ * Token and reference parameters use {@link #tokenSystem}/{@link #tokenValue}
+ * (for references the system is the target resource type and the value is the
+ * target ID), string parameters use {@link #stringNormalized}/{@link #stringExact}
+ * and date parameters use {@link #dateLow}/{@link #dateHigh} as epoch millis.
+ * </p>
+ */
+public class ResourceIndexEntry {
+
+	public static final String IDX_TOKEN = "IDX_TOKEN";
+	public static final String IDX_STRING = "IDX_STRING";
+	public static final String IDX_DATE = "IDX_DATE";
+
+	@QuerySqlField(index = true)
+	private String resourceId;
+
+	@QuerySqlField(orderedGroups = {
+		@QuerySqlField.Group(name = IDX_TOKEN, order = 0),
+		@QuerySqlField.Group(name = IDX_STRING, order = 0),
+		@QuerySqlField.Group(name = IDX_DATE, order = 0)
+	})
+	private String paramName;
+
+	@QuerySqlField(orderedGroups = {@QuerySqlField.Group(name = IDX_TOKEN, order = 2)})
+	private String tokenSystem;
+
+	@QuerySqlField(orderedGroups = {@QuerySqlField.Group(name = IDX_TOKEN, order = 1)})
+	private String tokenValue;
+
+	@QuerySqlField(orderedGroups = {@QuerySqlField.Group(name = IDX_STRING, order = 1)})
+	private String stringNormalized;
+
+	@QuerySqlField
+	private String stringExact;
+
+	@QuerySqlField(orderedGroups = {@QuerySqlField.Group(name = IDX_DATE, order = 1)})
+	private Long dateLow;
+
+	@QuerySqlField
+	private Long dateHigh;
+
+	public ResourceIndexEntry() {
+	}
+
+	public ResourceIndexEntry(String theResourceId, String theParamName) {
+		this.resourceId = theResourceId;
+		this.paramName = theParamName;
+	}
+
+	public String getResourceId() {
+		return resourceId;
+	}
+
+	public String getParamName() {
+		return paramName;
+	}
+
+	public String getTokenSystem() {
+		return tokenSystem;
+	}
+
+	public ResourceIndexEntry setToken(String theSystem, String theValue) {
+		this.tokenSystem = theSystem;
+		this.tokenValue = theValue;
+		return this;
+	}
+
+	public String getTokenValue() {
+		return tokenValue;
+	}
+
+	public String getStringNormalized() {
+		return stringNormalized;
+	}
+
+	public String getStringExact() {
+		return stringExact;
+	}
+
+	public ResourceIndexEntry setString(String theNormalized, String theExact) {
+		this.stringNormalized = theNormalized;
+		this.stringExact = theExact;
+		return this;
+	}
+
+	public Long getDateLow() {
+		return dateLow;
+	}
+
+	public Long getDateHigh() {
+		return dateHigh;
+	}
+
+	public ResourceIndexEntry setDate(Long theLow, Long theHigh) {
+		this.dateLow = theLow;
+		this.dateHigh = theHigh;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "ResourceIndexEntry [id=" + resourceId + ", param=" + paramName + "]";
+	}
+}
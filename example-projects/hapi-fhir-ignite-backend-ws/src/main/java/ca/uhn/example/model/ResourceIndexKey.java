@@ -0,0 +1,76 @@
+package ca.uhn.example.model;
+
+import org.apache.ignite.cache.affinity.AffinityKeyMapped;
+
+/**
+ * Key of a single search parameter index row. The affinity is mapped to the
+ * resource ID so that index rows always live on the same node as the resource
+ * they point to.
+ */
+public final class ResourceIndexKey {
+
+	@AffinityKeyMapped
+	private String resourceId;
+
+	private String paramName;
+
+	private int ordinal;
+
+	private ResourceIndexKey() {
+	}
+
+	public ResourceIndexKey(String theResourceId, String theParamName, int theOrdinal) {
+		this.resourceId = theResourceId;
+		this.paramName = theParamName;
+		this.ordinal = theOrdinal;
+	}
+
+	public String getResourceId() {
+		return resourceId;
+	}
+
+	public String getParamName() {
+		return paramName;
+	}
+
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((resourceId == null) ? 0 : resourceId.hashCode());
+		result = prime * result + ((paramName == null) ? 0 : paramName.hashCode());
+		result = prime * result + ordinal;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ResourceIndexKey other = (ResourceIndexKey) obj;
+		if (resourceId == null) {
+			if (other.resourceId != null)
+				return false;
+		} else if (!resourceId.equals(other.resourceId))
+			return false;
+		if (paramName == null) {
+			if (other.paramName != null)
+				return false;
+		} else if (!paramName.equals(other.paramName))
+			return false;
+		return ordinal == other.ordinal;
+	}
+
+	@Override
+	public String toString() {
+		return "ResourceIndexKey [id=" + resourceId + ", param=" + paramName + ", ordinal=" + ordinal + "]";
+	}
+}
@@ -10,13 +10,17 @@ import org.springframework.web.cors.CorsConfiguration;
 
 import ca.uhn.example.base.FhirBinarySerializer;
 import ca.uhn.example.base.IgniteCacheR4ResourceProvider;
+import ca.uhn.example.base.IgniteSearchParamIndexer;
+import ca.uhn.example.base.IgniteTransactionProvider;
 import ca.uhn.example.base.MemoryCacheResourceProvider;
+import ca.uhn.example.config.IgniteAppCfg;
 import ca.uhn.example.provider.AccountResourceProvider;
 import ca.uhn.example.provider.OrganizationResourceProvider;
 import ca.uhn.example.provider.PatientResourceProvider;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.narrative.DefaultThymeleafNarrativeGenerator;
 import ca.uhn.fhir.narrative.INarrativeGenerator;
+import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.interceptor.CorsInterceptor;
@@ -32,6 +36,12 @@ public class IgniteRestfulServlet extends RestfulServer {
 	 
 	@Autowired
 	Ignite ignite;
+
+	@Autowired
+	IgniteSearchParamIndexer searchParamIndexer;
+
+	@Autowired
+	IgniteAppCfg igniteAppCfg;
 	
 	/**
 	 * Constructor
@@ -47,6 +57,12 @@ public class IgniteRestfulServlet extends RestfulServer {
 	 */
 	@Override
 	public void initialize() {
+		/*
+		 * Share the binary layouts of this node, and learn the ones stored
+		 * data was written with, before any resource is read
+		 */
+		FhirBinarySerializer.publishSchemas(ignite);
+
 		/*
 		 * Two resource providers are defined. Each one handles a specific
 		 * type of resource.
@@ -56,12 +72,29 @@ public class IgniteRestfulServlet extends RestfulServer {
 		//providers.add(new OrganizationResourceProvider());
 		providers.add(new AccountResourceProvider(this.getFhirContext()));
 		
+		List<IgniteCacheR4ResourceProvider<?>> igniteProviders = new ArrayList<>();
 		for(String resourceName: this.getFhirContext().getResourceTypes()) {
 			Resource resouceType = ResourceFactory.createResource(resourceName);
 			
-			providers.add(new IgniteCacheR4ResourceProvider<>(this.getFhirContext(),resouceType.getClass(),ignite));
+			igniteProviders.add(newIgniteResourceProvider(resouceType.getClass()));
 		}
+		providers.addAll(igniteProviders);
 		setResourceProviders(providers);
+
+		/*
+		 * Transaction and batch bundles are written with one bulk write per
+		 * resource type
+		 */
+		registerProvider(new IgniteTransactionProvider(getFhirContext(), ignite, igniteProviders));
+
+		/*
+		 * Search results are loaded page by page from the cluster, so the paging
+		 * provider only has to keep the (small) bundle providers around
+		 */
+		FifoMemoryPagingProvider pagingProvider = new FifoMemoryPagingProvider(1000);
+		pagingProvider.setDefaultPageSize(20);
+		pagingProvider.setMaximumPageSize(500);
+		setPagingProvider(pagingProvider);
 		
 		/*
 		 * Use a narrative generator. This is a completely optional step, 
@@ -99,4 +132,9 @@ public class IgniteRestfulServlet extends RestfulServer {
 		
 	}
 
+	private <T extends Resource> IgniteCacheR4ResourceProvider<T> newIgniteResourceProvider(Class<T> theResourceType) {
+		return new IgniteCacheR4ResourceProvider<>(this.getFhirContext(), theResourceType, ignite, searchParamIndexer,
+			igniteAppCfg.nearCacheConfigurationFor(theResourceType));
+	}
+
 }
@@ -0,0 +1,133 @@
+package ca.uhn.example.base;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.binary.BinaryObjectException;
+import org.apache.ignite.binary.BinaryRawReader;
+import org.apache.ignite.binary.BinaryReader;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.StringType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FhirBinarySerializerTest {
+
+	private static Ignite ourIgnite;
+
+	@BeforeAll
+	public static void beforeAll() {
+		ourIgnite = IgniteTestSupport.startNode("serializer-test", false);
+		FhirBinarySerializer.publishSchemas(ourIgnite);
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		IgniteTestSupport.stopAll();
+	}
+
+	private static FhirBinarySchema patientSchema() {
+		return FhirBinarySchema.forDefinition(IgniteTestSupport.ourCtx.getResourceDefinition(Patient.class));
+	}
+
+	/**
+	 * An older layout of Patient: "deceased" only allowed a dateTime, and there was a field which has since been removed
+	 */
+	private static FhirBinarySchema.Descriptor oldPatientLayout() {
+		return new FhirBinarySchema.Descriptor("Patient",
+			new String[]{"gender", "removed", "deceased"},
+			new boolean[]{false, true, false},
+			new boolean[]{true, false, false},
+			new String[][]{{"gender"}, {"removed"}, {"deceasedDateTime"}});
+	}
+
+	@Test
+	public void testRoundTrip() {
+		IgniteCache<String, Observation> cache = ourIgnite.getOrCreateCache("serializer-test-observation");
+		Observation observation = new Observation();
+		observation.setStatus(Observation.ObservationStatus.FINAL);
+		observation.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+		observation.setValue(new StringType("positive"));
+		cache.put("O1", observation);
+
+		Observation read = cache.get("O1");
+		assertEquals(Observation.ObservationStatus.FINAL, read.getStatus());
+		assertEquals("1234-5", read.getCode().getCodingFirstRep().getCode());
+		assertEquals("positive", read.getValueStringType().getValue());
+	}
+
+	@Test
+	public void testTranslationMapsFieldsByName() {
+		FhirBinarySchema current = patientSchema();
+		FhirBinarySchema.Descriptor written = oldPatientLayout();
+		FhirBinarySchema.Translation translation = current.translationFrom(written.getSchemaId(), written);
+
+		assertEquals("gender", translation.getTarget(0).getName());
+		assertNull(translation.getTarget(1));
+		assertEquals("deceased", translation.getTarget(2).getName());
+		// deceasedDateTime sorts after deceasedBoolean in the current layout
+		assertEquals(1, translation.getTypeIndex(2, (byte) 0));
+	}
+
+	@Test
+	public void testReadOlderLayout() {
+		FhirBinarySchema.Descriptor written = oldPatientLayout();
+		ourIgnite.cache(FhirBinarySerializer.SCHEMA_CACHE_NAME).put(written.getSchemaId(), written);
+		FhirBinarySerializer.publishSchemas(ourIgnite);
+
+		BinaryReader reader = mock(BinaryReader.class);
+		BinaryRawReader raw = mock(BinaryRawReader.class);
+		when(reader.readInt(FhirBinarySerializer.SCHEMA_FIELD)).thenReturn(written.getSchemaId());
+		when(reader.readString("gender")).thenReturn("female");
+		when(reader.rawReader()).thenReturn(raw);
+		when(raw.readShort()).thenReturn((short) 1, (short) 2, FhirBinarySchema.END_OF_FIELDS);
+		when(raw.readInt()).thenReturn(1);
+		when(raw.readByte()).thenReturn(FhirBinarySchema.TAG_PRIMITIVE);
+		when(raw.readString()).thenReturn("dropped", "2020-01-01");
+
+		Patient patient = new Patient();
+		new FhirBinarySerializer().readBinary(patient, reader);
+
+		assertEquals(Enumerations.AdministrativeGender.FEMALE, patient.getGender());
+		assertTrue(patient.hasDeceasedDateTimeType());
+		assertEquals("2020-01-01", patient.getDeceasedDateTimeType().getValueAsString());
+	}
+
+	@Test
+	public void testReadUnknownLayout() {
+		BinaryReader reader = mock(BinaryReader.class);
+		when(reader.readInt(FhirBinarySerializer.SCHEMA_FIELD)).thenReturn(12345);
+
+		BinaryObjectException e = assertThrows(BinaryObjectException.class, () -> new FhirBinarySerializer().readBinary(new Patient(), reader));
+		assertThat(e.getMessage(), containsString("was written with unknown schema 12345"));
+	}
+
+	@Test
+	public void testPublishRejectsCollidingLayout() {
+		FhirBinarySchema current = patientSchema();
+		IgniteCache<Integer, FhirBinarySchema.Descriptor> schemaCache = ourIgnite.cache(FhirBinarySerializer.SCHEMA_CACHE_NAME);
+		FhirBinarySchema.Descriptor original = schemaCache.get(current.getSchemaId());
+		assertFalse(oldPatientLayout().equals(original));
+
+		schemaCache.put(current.getSchemaId(), oldPatientLayout());
+		try {
+			IllegalStateException e = assertThrows(IllegalStateException.class, () -> FhirBinarySerializer.publishSchemas(ourIgnite));
+			assertThat(e.getMessage(), containsString("is already used by Patient[gender, removed, deceased]"));
+		} finally {
+			schemaCache.put(current.getSchemaId(), original);
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package ca.uhn.example.base;
+
+import ca.uhn.example.config.IgniteAppCfg;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IgniteBundleProviderTest {
+
+	private static Ignite ourIgnite;
+	private static IgniteCache<String, Patient> ourResourceCache;
+
+	@BeforeAll
+	public static void beforeAll() {
+		ourIgnite = IgniteTestSupport.startNode("bundle-provider-test", false);
+		ourResourceCache = ourIgnite.getOrCreateCache(IgniteAppCfg.cacheConfigurationFor(IgniteTestSupport.ourCtx, Patient.class));
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		IgniteTestSupport.stopAll();
+	}
+
+	@BeforeEach
+	public void before() {
+		ourResourceCache.clear();
+		for (int i = 0; i < 25; i++) {
+			String id = String.format("P%02d", i);
+			Patient patient = new Patient();
+			patient.setId("Patient/" + id);
+			patient.addName().setFamily("FAM" + i);
+			ourResourceCache.put(id, patient);
+		}
+	}
+
+	private static List<String> toIds(List<IBaseResource> theResources) {
+		return theResources.stream().map(t -> t.getIdElement().getIdPart()).collect(Collectors.toList());
+	}
+
+	private static List<String> expectedIds(int theFrom, int theTo) {
+		return IntStream.range(theFrom, theTo).mapToObj(t -> String.format("P%02d", t)).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testPageThroughAllResources() {
+		IgniteBundleProvider<Patient> provider = new IgniteBundleProvider<>(ourResourceCache, "Patient", null);
+		assertEquals(25, provider.size().intValue());
+
+		assertThat(toIds(provider.getResources(0, 10)), contains(expectedIds(0, 10).toArray()));
+		assertThat(toIds(provider.getResources(10, 20)), contains(expectedIds(10, 20).toArray()));
+		assertThat(toIds(provider.getResources(20, 30)), contains(expectedIds(20, 25).toArray()));
+		assertThat(provider.getResources(30, 40), empty());
+	}
+
+	@Test
+	public void testPageWithoutContinuationKey() {
+		IgniteBundleProvider<Patient> provider = new IgniteBundleProvider<>(ourResourceCache, "Patient", null);
+
+		// Jumping straight to a later page falls back to an offset
+		assertThat(toIds(provider.getResources(15, 20)), contains(expectedIds(15, 20).toArray()));
+	}
+
+	@Test
+	public void testNextPageContinuesAfterLastKeyServed() {
+		IgniteBundleProvider<Patient> provider = new IgniteBundleProvider<>(ourResourceCache, "Patient", null);
+		assertThat(toIds(provider.getResources(0, 10)), contains(expectedIds(0, 10).toArray()));
+
+		// Removing a resource that was already served doesn't shift the next page, because
+		// the next page starts after the last key of the previous one rather than at an offset
+		ourResourceCache.remove("P03");
+		assertThat(toIds(provider.getResources(10, 20)), contains(expectedIds(10, 20).toArray()));
+
+		// A page with no continuation key of its own starts from the closest earlier one
+		assertThat(toIds(provider.getResources(12, 15)), contains(expectedIds(12, 15).toArray()));
+	}
+
+	@Test
+	public void testPageThroughIds() {
+		List<String> ids = Arrays.asList("P05", "P01", "P99", "P20");
+		IgniteBundleProvider<Patient> provider = new IgniteBundleProvider<>(ourResourceCache, ids, null);
+		assertEquals(4, provider.size().intValue());
+
+		assertThat(toIds(provider.getResources(0, 2)), contains("P05", "P01"));
+		// Resources which have gone since the search ran are left out of the page
+		assertThat(toIds(provider.getResources(2, 4)), contains("P20"));
+		assertThat(provider.getResources(4, 6), empty());
+	}
+
+}
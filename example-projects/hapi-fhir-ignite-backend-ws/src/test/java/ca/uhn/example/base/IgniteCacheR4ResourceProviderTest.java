@@ -0,0 +1,80 @@
+package ca.uhn.example.base;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import org.apache.ignite.Ignite;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IgniteCacheR4ResourceProviderTest {
+
+	private static Ignite ourIgnite;
+	private static IgniteCacheR4ResourceProvider<Patient> ourProvider;
+
+	@BeforeAll
+	public static void beforeAll() {
+		ourIgnite = IgniteTestSupport.startNode("resource-provider-test", false);
+		ourProvider = new IgniteCacheR4ResourceProvider<>(IgniteTestSupport.ourCtx, Patient.class, ourIgnite, IgniteTestSupport.newIndexer());
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		IgniteTestSupport.stopAll();
+	}
+
+	@BeforeEach
+	public void before() {
+		ourProvider.clear();
+		for (String next : Arrays.asList("A", "B", "C")) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + next);
+			patient.addName().setFamily("SMITH");
+			ourProvider.store(patient);
+		}
+	}
+
+	private static List<String> toIds(IBundleProvider theResult) {
+		List<IBaseResource> resources = theResult.getResources(0, theResult.size());
+		return resources.stream().map(t -> t.getIdElement().getIdPart()).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testSearchByIdSkipsMissingIds() {
+		TokenAndListParam ids = new TokenAndListParam()
+			.addAnd(new TokenOrListParam(null, "C", "X", "A"));
+
+		IBundleProvider result = ourProvider.searchByParams(ids, null, null);
+		assertEquals(2, result.size().intValue());
+		assertThat(toIds(result), contains("C", "A"));
+	}
+
+	@Test
+	public void testSearchByParamsSkipsIndexRowsWithoutResource() {
+		// The index row outlives the resource, e.g. between the index commit and the cache write
+		ourProvider.resourceMap.remove("B");
+
+		Map<String, List<String>> params = new HashMap<>();
+		params.put("family", Collections.singletonList("SMITH"));
+		IBundleProvider result = ourProvider.searchByParams(null, params, null);
+		assertEquals(2, result.size().intValue());
+		assertThat(toIds(result), containsInAnyOrder("A", "C"));
+	}
+
+}
@@ -0,0 +1,133 @@
+package ca.uhn.example.base;
+
+import ca.uhn.example.model.ResourceIndexEntry;
+import ca.uhn.example.model.ResourceIndexKey;
+import ca.uhn.example.model.VersionedId;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CachePeekMode;
+import org.apache.ignite.cache.affinity.Affinity;
+import org.apache.ignite.cache.query.ScanQuery;
+import org.apache.ignite.cluster.ClusterNode;
+import org.apache.ignite.configuration.NearCacheConfiguration;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Organization;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.cache.Cache;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against two server nodes, with the provider on a client node that keeps a near cache
+ */
+public class IgniteColocationTest {
+
+	private static final int RESOURCE_COUNT = 20;
+	private static final int VERSION_COUNT = 3;
+	private static Ignite ourServer;
+	private static Ignite ourClient;
+	private static IgniteCacheR4ResourceProvider<Organization> ourProvider;
+
+	@BeforeAll
+	public static void beforeAll() {
+		ourServer = IgniteTestSupport.startNode("colocation-test-server-1", false);
+		IgniteTestSupport.startNode("colocation-test-server-2", false);
+		ourClient = IgniteTestSupport.startNode("colocation-test-client", true);
+		ourProvider = new IgniteCacheR4ResourceProvider<>(IgniteTestSupport.ourCtx, Organization.class, ourClient,
+			IgniteTestSupport.newIndexer(), new NearCacheConfiguration<>());
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		IgniteTestSupport.stopAll();
+	}
+
+	@BeforeEach
+	public void before() {
+		ourProvider.clear();
+		for (int i = 0; i < RESOURCE_COUNT; i++) {
+			for (int version = 0; version < VERSION_COUNT; version++) {
+				Organization organization = new Organization();
+				organization.setId("Organization/O" + i);
+				organization.setName("ORG " + i + " V" + version);
+				ourProvider.store(organization);
+			}
+		}
+	}
+
+	@Test
+	public void testHistoryAndIndexColocatedWithResource() {
+		Affinity<String> resourceAffinity = ourClient.affinity(ourProvider.resourceMap.getName());
+		Affinity<VersionedId> historyAffinity = ourClient.affinity(ourProvider.versionResourceMap.getName());
+		Affinity<ResourceIndexKey> indexAffinity = ourClient.affinity(ourProvider.indexMap.getName());
+
+		Set<ClusterNode> owners = new HashSet<>();
+		int historyCount = 0;
+		for (Cache.Entry<VersionedId, Organization> next : ourProvider.versionResourceMap.query(new ScanQuery<VersionedId, Organization>())) {
+			String idPart = next.getValue().getIdElement().getIdPart();
+			ClusterNode owner = resourceAffinity.mapKeyToNode(idPart);
+			assertEquals(owner, historyAffinity.mapKeyToNode(next.getKey()));
+			assertEquals(resourceAffinity.partition(idPart), historyAffinity.partition(next.getKey()));
+			owners.add(owner);
+			historyCount++;
+		}
+		assertEquals(RESOURCE_COUNT * VERSION_COUNT, historyCount);
+		// Otherwise colocation would hold trivially
+		assertEquals(2, owners.size());
+
+		int indexCount = 0;
+		for (Cache.Entry<ResourceIndexKey, ResourceIndexEntry> next : ourProvider.indexMap.query(new ScanQuery<ResourceIndexKey, ResourceIndexEntry>())) {
+			String idPart = next.getKey().getResourceId();
+			assertEquals(resourceAffinity.mapKeyToNode(idPart), indexAffinity.mapKeyToNode(next.getKey()));
+			indexCount++;
+		}
+		assertTrue(indexCount >= RESOURCE_COUNT);
+	}
+
+	@Test
+	public void testHistoryInstanceFindsAllVersions() {
+		// The history is read by a local query on the node owning the resource, so
+		// versions stored on any other node would be missing
+		for (int i = 0; i < RESOURCE_COUNT; i++) {
+			List<IBaseResource> history = ourProvider.historyInstance(new IdType("Organization/O" + i), null);
+			assertEquals(VERSION_COUNT, history.size());
+			assertEquals("ORG " + i + " V" + (VERSION_COUNT - 1), ((Organization) history.get(0)).getName());
+		}
+	}
+
+	@Test
+	public void testReadServedFromNearCache() {
+		IgniteCache<String, Organization> serverCache = ourServer.cache(ourProvider.resourceMap.getName());
+		Organization organization = new Organization();
+		organization.setId("Organization/NEAR");
+		organization.setName("NEAR");
+		serverCache.put("NEAR", organization);
+
+		// Written by another node, so the client hasn't seen it yet
+		assertNull(ourProvider.resourceMap.localPeek("NEAR", CachePeekMode.NEAR));
+
+		ourProvider.read(new IdType("Organization/NEAR"), null);
+		Organization nearValue = ourProvider.resourceMap.localPeek("NEAR", CachePeekMode.NEAR);
+		assertNotNull(nearValue);
+		assertEquals("NEAR", nearValue.getName());
+
+		// Updates on the server update or invalidate the near copy, so it never serves a stale value
+		organization.setName("NEAR V2");
+		serverCache.put("NEAR", organization);
+		nearValue = ourProvider.resourceMap.localPeek("NEAR", CachePeekMode.NEAR);
+		assertTrue(nearValue == null || "NEAR V2".equals(nearValue.getName()));
+		assertEquals("NEAR V2", ourProvider.read(new IdType("Organization/NEAR"), null).getName());
+	}
+
+}
@@ -0,0 +1,188 @@
+package ca.uhn.example.base;
+
+import ca.uhn.example.config.IgniteAppCfg;
+import ca.uhn.example.model.ResourceIndexEntry;
+import ca.uhn.example.model.ResourceIndexKey;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IgniteSearchParamIndexerTest {
+
+	private static final String INDEX_TABLE = IgniteAppCfg.indexTableNameFor(Patient.class);
+	private static Ignite ourIgnite;
+	private static IgniteCache<ResourceIndexKey, ResourceIndexEntry> ourIndexCache;
+	private static IgniteSearchParamIndexer ourIndexer;
+
+	@BeforeAll
+	public static void beforeAll() {
+		ourIgnite = IgniteTestSupport.startNode("indexer-test", false);
+		ourIndexCache = ourIgnite.getOrCreateCache(IgniteAppCfg.indexCacheConfigurationFor(IgniteTestSupport.ourCtx, Patient.class));
+		ourIndexer = IgniteTestSupport.newIndexer();
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		IgniteTestSupport.stopAll();
+	}
+
+	@BeforeEach
+	public void before() {
+		ourIndexCache.clear();
+		index("P1", "SMITH", "2019-12-31", "Organization/O1");
+		index("P2", "SMITHERS", "2020-01-01", "Organization/O1");
+		index("P3", "JONES", "2020-01-02", "Organization/O2");
+	}
+
+	private void index(String theId, String theFamily, String theBirthDate, String theOrganization) {
+		Patient patient = new Patient();
+		patient.setId("Patient/" + theId);
+		patient.addIdentifier().setSystem("http://ids").setValue("ID-" + theId);
+		patient.addName().setFamily(theFamily);
+		patient.getBirthDateElement().setValueAsString(theBirthDate);
+		patient.setManagingOrganization(new Reference(theOrganization));
+		ourIndexer.reindex(ourIndexCache, INDEX_TABLE, theId, patient);
+	}
+
+	private Set<String> search(String theParamName, String... theValues) {
+		Map<String, List<String>> params = new HashMap<>();
+		params.put(theParamName, Arrays.asList(theValues));
+		return ourIndexer.findResourceIds(ourIndexCache, INDEX_TABLE, "Patient", params, null);
+	}
+
+	@Test
+	public void testExtractIndexEntries() {
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("http://ids").setValue("ID-1");
+		patient.addName().setFamily("SMITH");
+		patient.getBirthDateElement().setValueAsString("2020-01-01");
+		patient.setManagingOrganization(new Reference("Organization/O1"));
+
+		Map<ResourceIndexKey, ResourceIndexEntry> entries = ourIndexer.extractIndexEntries("1", patient);
+		Set<String> paramNames = entries.values().stream().map(ResourceIndexEntry::getParamName).collect(Collectors.toSet());
+		assertThat(paramNames, hasItem("identifier"));
+		assertThat(paramNames, hasItem("family"));
+		assertThat(paramNames, hasItem("birthdate"));
+		assertThat(paramNames, hasItem("organization"));
+
+		ResourceIndexEntry organization = entries.values().stream().filter(t -> t.getParamName().equals("organization")).findFirst().get();
+		assertEquals("Organization", organization.getTokenSystem());
+		assertEquals("O1", organization.getTokenValue());
+	}
+
+	@Test
+	public void testReindexReplacesRows() {
+		index("P1", "BROWN", "2019-12-31", "Organization/O1");
+		assertThat(search("family", "SMITH"), containsInAnyOrder("P2"));
+		assertThat(search("family", "BROWN"), containsInAnyOrder("P1"));
+
+		ourIndexer.reindex(ourIndexCache, INDEX_TABLE, "P1", null);
+		assertThat(search("family", "BROWN"), empty());
+	}
+
+	@Test
+	public void testSearchToken() {
+		assertThat(search("identifier", "http://ids|ID-P2"), containsInAnyOrder("P2"));
+		assertThat(search("identifier", "ID-P1,ID-P3"), containsInAnyOrder("P1", "P3"));
+		assertThat(search("identifier", "http://other|ID-P2"), empty());
+	}
+
+	@Test
+	public void testSearchString() {
+		assertThat(search("family", "smith"), containsInAnyOrder("P1", "P2"));
+		assertThat(search("family:exact", "SMITH"), containsInAnyOrder("P1"));
+		assertThat(search("family:contains", "ithe"), containsInAnyOrder("P2"));
+	}
+
+	@Test
+	public void testSearchStringWildcardsAreLiteral() {
+		index("P4", "A_C", "2020-01-01", "Organization/O1");
+		index("P5", "ABC", "2020-01-01", "Organization/O1");
+
+		assertThat(search("family", "a_c"), containsInAnyOrder("P4"));
+		assertThat(search("family:contains", "_"), containsInAnyOrder("P4"));
+		assertThat(search("family", "%"), empty());
+		assertEquals("A\\_B\\%C\\\\", IgniteSearchParamIndexer.escapeLikePattern("A_B%C\\"));
+	}
+
+	@Test
+	public void testSearchReference() {
+		assertThat(search("organization", "Organization/O1"), containsInAnyOrder("P1", "P2"));
+		assertThat(search("organization", "O2"), containsInAnyOrder("P3"));
+	}
+
+	@Test
+	public void testSearchDateEqualsAndRanges() {
+		assertThat(search("birthdate", "2020-01-01"), containsInAnyOrder("P2"));
+		assertThat(search("birthdate", "eq2020-01-01"), containsInAnyOrder("P2"));
+		assertThat(search("birthdate", "ge2020-01-01"), containsInAnyOrder("P2", "P3"));
+		assertThat(search("birthdate", "le2020-01-01"), containsInAnyOrder("P1", "P2"));
+		assertThat(search("birthdate", "ge2020-01-01", "le2020-01-01"), containsInAnyOrder("P2"));
+	}
+
+	@Test
+	public void testSearchDateStartsAfter() {
+		// Must start after the end of the given day, so the day itself doesn't match
+		assertThat(search("birthdate", "sa2020-01-01"), containsInAnyOrder("P3"));
+		assertThat(search("birthdate", "sa2019-12-30"), containsInAnyOrder("P1", "P2", "P3"));
+		assertThat(search("birthdate", "sa2020-01-02"), empty());
+	}
+
+	@Test
+	public void testSearchDateEndsBefore() {
+		// Must end before the start of the given day, so the day itself doesn't match
+		assertThat(search("birthdate", "eb2020-01-01"), containsInAnyOrder("P1"));
+		assertThat(search("birthdate", "eb2020-01-03"), containsInAnyOrder("P1", "P2", "P3"));
+		assertThat(search("birthdate", "eb2019-12-31"), empty());
+	}
+
+	@Test
+	public void testSearchDateUnsupportedPrefixes() {
+		InvalidRequestException e = assertThrows(InvalidRequestException.class, () -> search("birthdate", "ne2020-01-01"));
+		assertThat(e.getMessage(), containsString("Prefix \"ne\" is not supported for date parameter \"birthdate\""));
+
+		e = assertThrows(InvalidRequestException.class, () -> search("birthdate", "ap2020-01-01"));
+		assertThat(e.getMessage(), containsString("Prefix \"ap\" is not supported for date parameter \"birthdate\""));
+	}
+
+	@Test
+	public void testSearchMultipleClausesWithCandidates() {
+		Map<String, List<String>> params = new HashMap<>();
+		params.put("family", Collections.singletonList("smith"));
+		params.put("organization", Collections.singletonList("Organization/O1"));
+		assertThat(ourIndexer.findResourceIds(ourIndexCache, INDEX_TABLE, "Patient", params, null), containsInAnyOrder("P1", "P2"));
+
+		Set<String> candidates = new LinkedHashSet<>(Arrays.asList("P2", "P3"));
+		assertThat(ourIndexer.findResourceIds(ourIndexCache, INDEX_TABLE, "Patient", params, candidates), containsInAnyOrder("P2"));
+	}
+
+	@Test
+	public void testSearchUnknownParameter() {
+		InvalidRequestException e = assertThrows(InvalidRequestException.class, () -> search("foo", "bar"));
+		assertThat(e.getMessage(), containsString("Unknown search parameter \"foo\""));
+	}
+
+}
@@ -0,0 +1,60 @@
+package ca.uhn.example.base;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import ca.uhn.fhir.jpa.searchparam.registry.FhirContextSearchParamRegistry;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.binary.BinaryBasicNameMapper;
+import org.apache.ignite.binary.BinaryTypeConfiguration;
+import org.apache.ignite.configuration.BinaryConfiguration;
+import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.spi.discovery.tcp.TcpDiscoverySpi;
+import org.apache.ignite.spi.discovery.tcp.ipfinder.vm.TcpDiscoveryVmIpFinder;
+
+import java.util.Collections;
+
+/**
+ * Starts in-process Ignite nodes configured like <code>config/ignite-default.xml</code>,
+ * which only discover the other nodes started in the same JVM
+ */
+class IgniteTestSupport {
+
+	static final FhirContext ourCtx = FhirContext.forR4();
+
+	private static final TcpDiscoveryVmIpFinder ourIpFinder = new TcpDiscoveryVmIpFinder(true);
+
+	static {
+		FhirBinarySerializer.globalFhirContext = ourCtx;
+	}
+
+	static Ignite startNode(String theInstanceName, boolean theClientMode) {
+		BinaryTypeConfiguration fhirTypes = new BinaryTypeConfiguration("org.hl7.fhir.r4.model.*");
+		fhirTypes.setSerializer(new FhirBinarySerializer());
+		BinaryConfiguration binaryConfiguration = new BinaryConfiguration()
+			.setNameMapper(new BinaryBasicNameMapper(false))
+			.setTypeConfigurations(Collections.singletonList(fhirTypes));
+
+		IgniteConfiguration cfg = new IgniteConfiguration()
+			.setIgniteInstanceName(theInstanceName)
+			.setClientMode(theClientMode)
+			.setLocalHost("127.0.0.1")
+			.setBinaryConfiguration(binaryConfiguration)
+			.setDiscoverySpi(new TcpDiscoverySpi().setIpFinder(ourIpFinder));
+		return Ignition.start(cfg);
+	}
+
+	static IgniteSearchParamIndexer newIndexer() {
+		ISearchParamRegistry searchParamRegistry = new FhirContextSearchParamRegistry(ourCtx);
+		SearchParamExtractorR4 searchParamExtractor = new SearchParamExtractorR4(new ModelConfig(), new PartitionSettings(), ourCtx, new DefaultProfileValidationSupport(ourCtx), searchParamRegistry);
+		return new IgniteSearchParamIndexer(ourCtx, searchParamExtractor, searchParamRegistry);
+	}
+
+	static void stopAll() {
+		Ignition.stopAll(true);
+	}
+}
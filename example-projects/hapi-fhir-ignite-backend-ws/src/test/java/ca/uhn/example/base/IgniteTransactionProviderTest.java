@@ -0,0 +1,222 @@
+package ca.uhn.example.base;
+
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.transactions.TransactionOptimisticException;
+import org.apache.ignite.transactions.TransactionTimeoutException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Organization;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.cache.CacheException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IgniteTransactionProviderTest {
+
+	private static Ignite ourIgnite;
+	private static IgniteCacheR4ResourceProvider<Patient> ourPatientProvider;
+	private static IgniteCacheR4ResourceProvider<Organization> ourOrganizationProvider;
+	private static IgniteTransactionProvider ourTransactionProvider;
+
+	@BeforeAll
+	public static void beforeAll() {
+		ourIgnite = IgniteTestSupport.startNode("transaction-provider-test", false);
+		IgniteSearchParamIndexer indexer = IgniteTestSupport.newIndexer();
+		ourPatientProvider = new IgniteCacheR4ResourceProvider<>(IgniteTestSupport.ourCtx, Patient.class, ourIgnite, indexer);
+		ourOrganizationProvider = new IgniteCacheR4ResourceProvider<>(IgniteTestSupport.ourCtx, Organization.class, ourIgnite, indexer);
+		ourTransactionProvider = new IgniteTransactionProvider(IgniteTestSupport.ourCtx, ourIgnite, Arrays.asList(ourPatientProvider, ourOrganizationProvider));
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		IgniteTestSupport.stopAll();
+	}
+
+	@BeforeEach
+	public void before() {
+		ourPatientProvider.clear();
+		ourOrganizationProvider.clear();
+	}
+
+	private static Bundle.BundleEntryComponent addEntry(Bundle theBundle, HTTPVerb theMethod, String theUrl, Resource theResource) {
+		Bundle.BundleEntryComponent retVal = theBundle.addEntry();
+		retVal.setResource(theResource);
+		retVal.getRequest().setMethod(theMethod).setUrl(theUrl);
+		return retVal;
+	}
+
+	private static Patient newPatient(String theFamily) {
+		Patient retVal = new Patient();
+		retVal.addName().setFamily(theFamily);
+		return retVal;
+	}
+
+	private static int searchFamily(String theFamily) {
+		Map<String, List<String>> params = new HashMap<>();
+		params.put("family", Collections.singletonList(theFamily));
+		IBundleProvider result = ourPatientProvider.searchByParams(null, params, null);
+		return result.size();
+	}
+
+	@Test
+	public void testTransactionResolvesPlaceholdersAndIndexes() {
+		Bundle bundle = new Bundle().setType(BundleType.TRANSACTION);
+		addEntry(bundle, HTTPVerb.POST, "Organization", new Organization().setName("ORG"))
+			.setFullUrl("urn:uuid:0001");
+		Patient patient = newPatient("SMITH");
+		patient.getManagingOrganization().setReference("urn:uuid:0001");
+		addEntry(bundle, HTTPVerb.POST, "Patient", patient);
+
+		Bundle response = ourTransactionProvider.transaction(bundle, null);
+		assertEquals(BundleType.TRANSACTIONRESPONSE, response.getType());
+		assertEquals("201 Created", response.getEntry().get(0).getResponse().getStatus());
+		assertEquals("201 Created", response.getEntry().get(1).getResponse().getStatus());
+
+		IdType organizationId = new IdType(response.getEntry().get(0).getResponse().getLocation());
+		IdType patientId = new IdType(response.getEntry().get(1).getResponse().getLocation());
+		Patient stored = ourPatientProvider.read(patientId.toUnqualifiedVersionless(), null);
+		assertEquals(organizationId.toUnqualifiedVersionless().getValue(), stored.getManagingOrganization().getReference());
+
+		// The index rows were written in the same transaction
+		assertEquals(1, searchFamily("SMITH"));
+	}
+
+	@Test
+	public void testTransactionWithInvalidEntryStoresNothing() {
+		Bundle bundle = new Bundle().setType(BundleType.TRANSACTION);
+		addEntry(bundle, HTTPVerb.PUT, "Patient/A", newPatient("SMITH"));
+		addEntry(bundle, HTTPVerb.PUT, "Organization/B", newPatient("JONES"));
+
+		InvalidRequestException e = assertThrows(InvalidRequestException.class, () -> ourTransactionProvider.transaction(bundle, null));
+		assertThat(e.getMessage(), containsString("Resource type of request.url doesn't match the resource"));
+		assertThrows(ResourceNotFoundException.class, () -> ourPatientProvider.read(new IdType("Patient/A"), null));
+		assertEquals(0, searchFamily("SMITH"));
+	}
+
+	@Test
+	public void testBatchReportsOutcomePerEntry() {
+		Bundle bundle = new Bundle().setType(BundleType.BATCH);
+		addEntry(bundle, HTTPVerb.PUT, "Patient/A", newPatient("SMITH"));
+		addEntry(bundle, HTTPVerb.PUT, "Organization/B", newPatient("JONES"));
+		addEntry(bundle, HTTPVerb.GET, "Patient/A", null);
+		addEntry(bundle, HTTPVerb.PUT, "Observation/C", newPatient("BROWN"));
+		addEntry(bundle, HTTPVerb.POST, "Patient", newPatient("WHITE"));
+
+		Bundle response = ourTransactionProvider.transaction(bundle, null);
+		assertEquals(BundleType.BATCHRESPONSE, response.getType());
+		assertEquals(5, response.getEntry().size());
+
+		assertEquals("201 Created", response.getEntry().get(0).getResponse().getStatus());
+		for (int i = 1; i <= 3; i++) {
+			Bundle.BundleEntryResponseComponent failed = response.getEntry().get(i).getResponse();
+			assertThat(failed.getStatus(), startsWith("400"));
+			OperationOutcome outcome = (OperationOutcome) failed.getOutcome();
+			assertNotNull(outcome.getIssueFirstRep().getDiagnostics());
+			assertFalse(failed.hasLocation());
+		}
+		assertEquals("201 Created", response.getEntry().get(4).getResponse().getStatus());
+
+		assertEquals("SMITH", ourPatientProvider.read(new IdType("Patient/A"), null).getNameFirstRep().getFamily());
+		assertEquals(1, searchFamily("WHITE"));
+		assertEquals(0, searchFamily("JONES"));
+	}
+
+	@Test
+	public void testPutReportsCreateOrUpdate() {
+		Bundle create = new Bundle().setType(BundleType.TRANSACTION);
+		addEntry(create, HTTPVerb.PUT, "Patient/A", newPatient("SMITH"));
+		assertEquals("201 Created", ourTransactionProvider.transaction(create, null).getEntryFirstRep().getResponse().getStatus());
+
+		Bundle update = new Bundle().setType(BundleType.TRANSACTION);
+		addEntry(update, HTTPVerb.PUT, "Patient/A", newPatient("JONES"));
+		addEntry(update, HTTPVerb.PUT, "Patient/B", newPatient("BROWN"));
+		Bundle response = ourTransactionProvider.transaction(update, null);
+		assertEquals("200 OK", response.getEntry().get(0).getResponse().getStatus());
+		assertEquals("201 Created", response.getEntry().get(1).getResponse().getStatus());
+		assertEquals("JONES", ourPatientProvider.read(new IdType("Patient/A"), null).getNameFirstRep().getFamily());
+	}
+
+	@Test
+	public void testConcurrentWriteFailureIsVersionConflict() {
+		RuntimeException optimistic = new CacheException(new TransactionOptimisticException("Failed to prepare transaction"));
+		assertThat(IgniteTransactionProvider.toServerException(optimistic), instanceOf(ResourceVersionConflictException.class));
+		RuntimeException timeout = new TransactionTimeoutException("Timed out");
+		assertThat(IgniteTransactionProvider.toServerException(timeout), instanceOf(ResourceVersionConflictException.class));
+		RuntimeException other = new IllegalStateException();
+		assertSame(other, IgniteTransactionProvider.toServerException(other));
+	}
+
+	@Test
+	public void testDeleteWritesTombstoneVersion() {
+		Bundle create = new Bundle().setType(BundleType.TRANSACTION);
+		addEntry(create, HTTPVerb.PUT, "Patient/A", newPatient("SMITH"));
+		IdType createdId = new IdType(ourTransactionProvider.transaction(create, null).getEntryFirstRep().getResponse().getLocation());
+
+		Bundle delete = new Bundle().setType(BundleType.TRANSACTION);
+		addEntry(delete, HTTPVerb.DELETE, "Patient/A", null);
+		Bundle response = ourTransactionProvider.transaction(delete, null);
+		assertEquals("204 No Content", response.getEntryFirstRep().getResponse().getStatus());
+		IdType deletedId = new IdType(response.getEntryFirstRep().getResponse().getLocation());
+
+		assertThrows(ResourceNotFoundException.class, () -> ourPatientProvider.read(new IdType("Patient/A"), null));
+		assertThrows(ResourceGoneException.class, () -> ourPatientProvider.read(deletedId, null));
+		assertEquals("SMITH", ourPatientProvider.read(createdId, null).getNameFirstRep().getFamily());
+		assertEquals(0, searchFamily("SMITH"));
+
+		List<IBaseResource> history = ourPatientProvider.historyInstance(new IdType("Patient/A"), null);
+		assertEquals(2, history.size());
+		Patient tombstone = (Patient) history.get(0);
+		assertEquals(deletedId.getVersionIdPart(), tombstone.getIdElement().getVersionIdPart());
+		assertNotNull(ResourceMetadataKeyEnum.DELETED_AT.get(tombstone));
+		assertEquals(HTTPVerb.DELETE.toCode(), ResourceMetadataKeyEnum.ENTRY_TRANSACTION_METHOD.get(tombstone));
+		assertEquals(0, tombstone.getMeta().getTag().size());
+		Patient previous = (Patient) history.get(1);
+		assertNull(ResourceMetadataKeyEnum.DELETED_AT.get(previous));
+		assertEquals("SMITH", previous.getNameFirstRep().getFamily());
+	}
+
+	@Test
+	public void testProviderDeleteWritesTombstoneVersion() {
+		Patient patient = newPatient("SMITH");
+		patient.setId("Patient/A");
+		ourPatientProvider.store(patient);
+
+		IdType deletedId = (IdType) ourPatientProvider.delete(new IdType("Patient/A"), null).getId();
+
+		assertThrows(ResourceGoneException.class, () -> ourPatientProvider.read(deletedId, null));
+		List<IBaseResource> history = ourPatientProvider.historyInstance(new IdType("Patient/A"), null);
+		assertEquals(2, history.size());
+		assertNotNull(ResourceMetadataKeyEnum.DELETED_AT.get((Patient) history.get(0)));
+	}
+
+}
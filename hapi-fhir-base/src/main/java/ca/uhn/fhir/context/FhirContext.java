@@ -16,7 +16,9 @@ import ca.uhn.fhir.parser.IParserErrorHandler;
 import ca.uhn.fhir.parser.JsonParser;
 import ca.uhn.fhir.parser.LenientErrorHandler;
 import ca.uhn.fhir.parser.RDFParser;
+import ca.uhn.fhir.parser.SmileParser;
 import ca.uhn.fhir.parser.XmlParser;
+import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.api.IVersionSpecificBundleFactory;
 import ca.uhn.fhir.rest.client.api.IBasicClient;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
@@ -740,6 +742,32 @@ public class FhirContext {
 		return new RDFParser(this, myParserErrorHandler, Lang.TURTLE);
 	}
 
+	/**
+	 * Create and return a new Smile (binary JSON) parser. This parser produces binary content, so
+	 * resources should be encoded using {@link IParser#encodeResourceToOutputStream(IBaseResource, java.io.OutputStream)}
+	 * and parsed using {@link IParser#parseResource(Class, java.io.InputStream)}.
+	 * <p>
+	 * This parser requires the <code>com.fasterxml.jackson.dataformat:jackson-dataformat-smile</code>
+	 * library to be on the classpath, and throws a {@link ConfigurationException} if it is not.
+	 * </p>
+	 * <p>
+	 * Thread safety: <b>Parsers are not guaranteed to be thread safe</b>. Create a new parser instance for every thread
+	 * or every message being parsed/encoded.
+	 * </p>
+	 * <p>
+	 * Performance Note: <b>This method is cheap</b> to call, and may be called once for every message being processed
+	 * without incurring any performance penalty
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public IParser newSmileParser() {
+		if (!EncodingEnum.SMILE.isAvailable()) {
+			throw new ConfigurationException("The Smile parser requires jackson-dataformat-smile to be on the classpath");
+		}
+		return new SmileParser(this, myParserErrorHandler);
+	}
+
 	/**
 	 * Instantiates a new client instance. This method requires an interface which is defined specifically for your use
 	 * cases to contain methods for each of the RESTful operations you wish to implement (e.g. "read ImagingStudy",
@@ -415,7 +415,7 @@ public interface IValidationSupport {
 			return this;
 		}
 
-		String getCodeSystemName() {
+		public String getCodeSystemName() {
 			return myCodeSystemName;
 		}
 
@@ -44,7 +44,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -53,11 +55,19 @@ import java.util.stream.Collectors;
 
 public class InterceptorService implements IInterceptorService, IInterceptorBroadcaster {
 	private static final Logger ourLog = LoggerFactory.getLogger(InterceptorService.class);
+	private static final BaseInvoker[] EMPTY_INVOKERS = new BaseInvoker[0];
 	private final List<Object> myInterceptors = new ArrayList<>();
 	private final ListMultimap<Pointcut, BaseInvoker> myGlobalInvokers = ArrayListMultimap.create();
 	private final ListMultimap<Pointcut, BaseInvoker> myAnonymousInvokers = ArrayListMultimap.create();
 	private final Object myRegistryMutex = new Object();
 	private final ThreadLocal<ListMultimap<Pointcut, BaseInvoker>> myThreadlocalInvokers = new ThreadLocal<>();
+	/**
+	 * Sorted global and anonymous invokers, indexed by {@link Pointcut#ordinal()}. This is
+	 * rebuilt (while holding {@link #myRegistryMutex}) every time the registered interceptors
+	 * change, and the arrays are never modified once published, so that calling hooks
+	 * doesn't require any locking.
+	 */
+	private volatile BaseInvoker[][] myInvokerSnapshot = newEmptySnapshot();
 	private String myName;
 	private boolean myThreadlocalInvokersEnabled = true;
 
@@ -117,6 +127,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			if (!isInterceptorAlreadyRegistered(theInterceptor)) {
 				myInterceptors.add(theInterceptor);
 			}
+			rebuildInvokerSnapshot();
 		}
 	}
 
@@ -136,6 +147,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			myAnonymousInvokers.clear();
 			myGlobalInvokers.clear();
 			myInterceptors.clear();
+			rebuildInvokerSnapshot();
 		}
 	}
 
@@ -155,8 +167,11 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	@Override
 	public void unregisterInterceptorsIf(Predicate<Object> theShouldUnregisterFunction) {
-		unregisterInterceptorsIf(theShouldUnregisterFunction, myGlobalInvokers);
-		unregisterInterceptorsIf(theShouldUnregisterFunction, myAnonymousInvokers);
+		synchronized (myRegistryMutex) {
+			unregisterInterceptorsIf(theShouldUnregisterFunction, myGlobalInvokers);
+			unregisterInterceptorsIf(theShouldUnregisterFunction, myAnonymousInvokers);
+			rebuildInvokerSnapshot();
+		}
 	}
 
 	private void unregisterInterceptorsIf(Predicate<Object> theShouldUnregisterFunction, ListMultimap<Pointcut, BaseInvoker> theGlobalInvokers) {
@@ -211,6 +226,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			// Add to the global list
 			myInterceptors.add(theInterceptor);
 			sortByOrderAnnotation(myInterceptors);
+			rebuildInvokerSnapshot();
 
 			return true;
 		}
@@ -231,10 +247,37 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			boolean removed = myInterceptors.removeIf(t -> t == theInterceptor);
 			removed |= myGlobalInvokers.entries().removeIf(t -> t.getValue().getInterceptor() == theInterceptor);
 			removed |= myAnonymousInvokers.entries().removeIf(t -> t.getValue().getInterceptor() == theInterceptor);
+			rebuildInvokerSnapshot();
 			return removed;
 		}
 	}
 
+	/**
+	 * Must be called while holding {@link #myRegistryMutex}
+	 */
+	private void rebuildInvokerSnapshot() {
+		BaseInvoker[][] snapshot = newEmptySnapshot();
+		for (Pointcut nextPointcut : Pointcut.values()) {
+			List<BaseInvoker> globalInvokers = myGlobalInvokers.get(nextPointcut);
+			List<BaseInvoker> anonymousInvokers = myAnonymousInvokers.get(nextPointcut);
+			if (globalInvokers.isEmpty() && anonymousInvokers.isEmpty()) {
+				continue;
+			}
+			List<BaseInvoker> invokers = new ArrayList<>(globalInvokers.size() + anonymousInvokers.size());
+			invokers.addAll(globalInvokers);
+			invokers.addAll(anonymousInvokers);
+			invokers.sort(Comparator.naturalOrder());
+			snapshot[nextPointcut.ordinal()] = invokers.toArray(EMPTY_INVOKERS);
+		}
+		myInvokerSnapshot = snapshot;
+	}
+
+	private static BaseInvoker[][] newEmptySnapshot() {
+		BaseInvoker[][] retVal = new BaseInvoker[Pointcut.values().length][];
+		Arrays.fill(retVal, EMPTY_INVOKERS);
+		return retVal;
+	}
+
 	private void sortByOrderAnnotation(List<Object> theObjects) {
 		IdentityHashMap<Object, Integer> interceptorToOrder = new IdentityHashMap<>();
 		for (Object next : theObjects) {
@@ -260,8 +303,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	@Override
 	public boolean hasHooks(Pointcut thePointcut) {
-		return myGlobalInvokers.containsKey(thePointcut)
-			|| myAnonymousInvokers.containsKey(thePointcut)
+		return myInvokerSnapshot[thePointcut.ordinal()].length > 0
 			|| hasThreadLocalHooks(thePointcut);
 	}
 
@@ -280,14 +322,17 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 	}
 
 	private Object doCallHooks(Pointcut thePointcut, HookParams theParams, Object theRetVal) {
-		List<BaseInvoker> invokers = getInvokersForPointcut(thePointcut);
+		BaseInvoker[] invokers = getInvokersForPointcut(thePointcut);
+		if (invokers.length == 0) {
+			return theRetVal;
+		}
 
 		/*
 		 * Call each hook in order
 		 */
+		Class<?> pointcutReturnType = thePointcut.getReturnType();
 		for (BaseInvoker nextInvoker : invokers) {
 			Object nextOutcome = nextInvoker.invoke(theParams);
-			Class<?> pointcutReturnType = thePointcut.getReturnType();
 			if (pointcutReturnType.equals(boolean.class)) {
 				Boolean nextOutcomeAsBoolean = (Boolean) nextOutcome;
 				if (Boolean.FALSE.equals(nextOutcomeAsBoolean)) {
@@ -308,85 +353,39 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	@VisibleForTesting
 	List<Object> getInterceptorsWithInvokersForPointcut(Pointcut thePointcut) {
-		return getInvokersForPointcut(thePointcut)
-			.stream()
+		return Arrays
+			.stream(getInvokersForPointcut(thePointcut))
 			.map(BaseInvoker::getInterceptor)
 			.collect(Collectors.toList());
 	}
 
 	/**
-	 * Returns an ordered list of invokers for the given pointcut. Note that
-	 * a new and stable list is returned to.. do whatever you want with it.
+	 * Returns an ordered array of invokers for the given pointcut. The returned
+	 * array must not be modified.
 	 */
-	private List<BaseInvoker> getInvokersForPointcut(Pointcut thePointcut) {
-		List<BaseInvoker> invokers;
+	private BaseInvoker[] getInvokersForPointcut(Pointcut thePointcut) {
+		BaseInvoker[] invokers = myInvokerSnapshot[thePointcut.ordinal()];
 
-		synchronized (myRegistryMutex) {
-			List<BaseInvoker> globalInvokers = myGlobalInvokers.get(thePointcut);
-			List<BaseInvoker> anonymousInvokers = myAnonymousInvokers.get(thePointcut);
-			List<BaseInvoker> threadLocalInvokers = null;
-			if (myThreadlocalInvokersEnabled) {
-				ListMultimap<Pointcut, BaseInvoker> pointcutToInvokers = myThreadlocalInvokers.get();
-				if (pointcutToInvokers != null) {
-					threadLocalInvokers = pointcutToInvokers.get(thePointcut);
+		if (myThreadlocalInvokersEnabled) {
+			ListMultimap<Pointcut, BaseInvoker> pointcutToInvokers = myThreadlocalInvokers.get();
+			if (pointcutToInvokers != null) {
+				List<BaseInvoker> threadLocalInvokers;
+				synchronized (pointcutToInvokers) {
+					threadLocalInvokers = new ArrayList<>(pointcutToInvokers.get(thePointcut));
+				}
+				if (!threadLocalInvokers.isEmpty()) {
+					List<BaseInvoker> retVal = new ArrayList<>(invokers.length + threadLocalInvokers.size());
+					retVal.addAll(Arrays.asList(invokers));
+					retVal.addAll(threadLocalInvokers);
+					retVal.sort(Comparator.naturalOrder());
+					return retVal.toArray(EMPTY_INVOKERS);
 				}
 			}
-			invokers = union(globalInvokers, anonymousInvokers, threadLocalInvokers);
 		}
 
 		return invokers;
 	}
 
-	/**
-	 * First argument must be the global invoker list!!
-	 */
-	@SafeVarargs
-	private final List<BaseInvoker> union(List<BaseInvoker>... theInvokersLists) {
-		List<BaseInvoker> haveOne = null;
-		boolean haveMultiple = false;
-		for (List<BaseInvoker> nextInvokerList : theInvokersLists) {
-			if (nextInvokerList == null || nextInvokerList.isEmpty()) {
-				continue;
-			}
-
-			if (haveOne == null) {
-				haveOne = nextInvokerList;
-			} else {
-				haveMultiple = true;
-			}
-		}
-
-		if (haveOne == null) {
-			return Collections.emptyList();
-		}
-
-		List<BaseInvoker> retVal;
-
-		if (haveMultiple == false) {
-
-			// The global list doesn't need to be sorted every time since it's sorted on
-			// insertion each time. Doing so is a waste of cycles..
-			if (haveOne == theInvokersLists[0]) {
-				retVal = haveOne;
-			} else {
-				retVal = new ArrayList<>(haveOne);
-				retVal.sort(Comparator.naturalOrder());
-			}
-
-		} else {
-
-			retVal = Arrays
-				.stream(theInvokersLists)
-				.filter(t -> t != null)
-				.flatMap(t -> t.stream())
-				.sorted()
-				.collect(Collectors.toList());
-
-		}
-
-		return retVal;
-	}
-
 	/**
 	 * Only call this when assertions are enabled, it's expensive
 	 */
@@ -449,6 +448,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 	private static class HookInvoker extends BaseInvoker {
 
 		private final Method myMethod;
+		private final MethodHandle myMethodHandle;
 		private final Class<?>[] myParameterTypes;
 		private final int[] myParameterIndexes;
 		private final Pointcut myPointcut;
@@ -479,6 +479,21 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			}
 
 			myMethod.setAccessible(true);
+
+			/*
+			 * Bind the interceptor instance and spread the arguments array, so that each
+			 * call is a single invokeExact(Object[])Object with no reflective access checks
+			 */
+			try {
+				myMethodHandle = MethodHandles
+					.lookup()
+					.unreflect(myMethod)
+					.bindTo(theInterceptor)
+					.asSpreader(Object[].class, myParameterTypes.length)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+			} catch (IllegalAccessException e) {
+				throw new InternalErrorException("Unable to access hook method " + theHookMethod, e);
+			}
 		}
 
 		@Override
@@ -512,9 +527,8 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 			// Invoke the method
 			try {
-				return myMethod.invoke(getInterceptor(), args);
-			} catch (InvocationTargetException e) {
-				Throwable targetException = e.getTargetException();
+				return (Object) myMethodHandle.invokeExact(args);
+			} catch (Throwable targetException) {
 				if (myPointcut.isShouldLogAndSwallowException(targetException)) {
 					ourLog.error("Exception thrown by interceptor: " + targetException.toString(), targetException);
 					return null;
@@ -525,8 +539,6 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 				} else {
 					throw new InternalErrorException("Failure invoking interceptor for pointcut(s) " + getPointcut(), targetException);
 				}
-			} catch (Exception e) {
-				throw new InternalErrorException(e);
 			}
 
 		}
@@ -0,0 +1,176 @@
+package ca.uhn.fhir.parser;
+
+/*-
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.json.JsonLikeWriter;
+import ca.uhn.fhir.parser.json.jackson.JacksonStructure;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Base64;
+
+/**
+ * This class is the FHIR Smile parser/encoder. Smile is a binary encoding of the JSON data model,
+ * so resources are encoded exactly as they are by the {@link JsonParser}, but field names and
+ * repeated string values are back-referenced instead of being written out every time. This makes
+ * the encoded form smaller and faster to parse than JSON text.
+ * <p>
+ * Because the content is binary, it should be encoded and parsed using streams or byte arrays. Methods
+ * which encode to or parse from a {@link String}, {@link Writer} or {@link Reader} use the Base64
+ * representation of the binary content.
+ * </p>
+ * <p>
+ * This parser requires the <code>com.fasterxml.jackson.dataformat:jackson-dataformat-smile</code>
+ * library to be on the classpath, see {@link EncodingEnum#isAvailable()}.
+ * </p>
+ * <p>
+ * Users should not interact with this class directly, but should use
+ * {@link FhirContext#newSmileParser()} to get an instance.
+ * </p>
+ */
+public class SmileParser extends JsonParser {
+
+	/**
+	 * Do not use this constructor, the recommended way to obtain a new instance of the Smile parser is to invoke
+	 * {@link FhirContext#newSmileParser()}.
+	 *
+	 * @param theParserErrorHandler The error handler to use
+	 */
+	public SmileParser(FhirContext theContext, IParserErrorHandler theParserErrorHandler) {
+		super(theContext, theParserErrorHandler);
+	}
+
+	@Override
+	public EncodingEnum getEncoding() {
+		return EncodingEnum.SMILE;
+	}
+
+	@Override
+	public void encodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Validate.notNull(theOutputStream, "theOutputStream can not be null");
+
+		JsonLikeWriter writer = new JacksonStructure(ObjectMapperHolder.OBJECT_MAPPER).getJsonLikeWriter(theOutputStream);
+		encodeResourceToJsonLikeWriter(theResource, writer);
+		writer.close();
+	}
+
+	/**
+	 * Encodes a resource to a byte array containing the Smile encoded content
+	 */
+	public byte[] encodeResourceToByteArray(IBaseResource theResource) throws DataFormatException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try {
+			encodeResourceToOutputStream(theResource, outputStream);
+		} catch (IOException e) {
+			throw new Error("Encountered IOException during write to byte array - This should not happen!");
+		}
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Writes the Base64 representation of the Smile encoded content
+	 */
+	@Override
+	protected void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter, EncodeContext theEncodeContext) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		JsonLikeWriter writer = new JacksonStructure(ObjectMapperHolder.OBJECT_MAPPER).getJsonLikeWriter(outputStream);
+		doEncodeResourceToJsonLikeWriter(theResource, writer, theEncodeContext);
+		writer.close();
+		theWriter.write(Base64.getEncoder().encodeToString(outputStream.toByteArray()));
+	}
+
+	/**
+	 * Reads the Base64 representation of the Smile encoded content
+	 */
+	@Override
+	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
+		byte[] content;
+		try {
+			content = Base64.getDecoder().decode(StringUtils.deleteWhitespace(IOUtils.toString(theReader)));
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to read content: " + e.getMessage(), e);
+		} catch (IllegalArgumentException e) {
+			throw new DataFormatException("Content is not valid Base64 encoded Smile: " + e.getMessage(), e);
+		}
+
+		JacksonStructure structure = new JacksonStructure(ObjectMapperHolder.OBJECT_MAPPER);
+		structure.load(new ByteArrayInputStream(content));
+		return doParseResource(theResourceType, structure);
+	}
+
+	@Override
+	public IBaseResource parseResource(InputStream theInputStream) throws DataFormatException {
+		return parseResource(null, theInputStream);
+	}
+
+	@Override
+	public <T extends IBaseResource> T parseResource(Class<T> theResourceType, InputStream theInputStream) throws DataFormatException {
+		Validate.notNull(theInputStream, "theInputStream can not be null");
+
+		JacksonStructure structure = new JacksonStructure(ObjectMapperHolder.OBJECT_MAPPER);
+		structure.load(theInputStream);
+		return parseResource(theResourceType, structure);
+	}
+
+	/**
+	 * Parses a resource from a byte array containing Smile encoded content
+	 */
+	public <T extends IBaseResource> T parseResource(Class<T> theResourceType, byte[] theContent) throws DataFormatException {
+		return parseResource(theResourceType, new ByteArrayInputStream(theContent));
+	}
+
+	/**
+	 * Pretty printing has no meaning for a binary encoding, so this setting is ignored
+	 */
+	@Override
+	public IParser setPrettyPrint(boolean thePrettyPrint) {
+		return this;
+	}
+
+	/**
+	 * The mapper is held in a separate class so that it is only created (and the Smile
+	 * library only needs to be present) if this parser is actually used
+	 */
+	private static class ObjectMapperHolder {
+		private static final ObjectMapper OBJECT_MAPPER;
+
+		static {
+			SmileFactory factory = new SmileFactory();
+			factory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+			OBJECT_MAPPER = JacksonStructure.createObjectMapper(factory);
+		}
+	}
+
+}
@@ -26,6 +26,7 @@ import ca.uhn.fhir.parser.json.JsonLikeObject;
 import ca.uhn.fhir.parser.json.JsonLikeStructure;
 import ca.uhn.fhir.parser.json.JsonLikeValue;
 import ca.uhn.fhir.parser.json.JsonLikeWriter;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -37,6 +38,8 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.Writer;
@@ -52,12 +55,30 @@ import java.util.stream.StreamSupport;
 
 public class JacksonStructure implements JsonLikeStructure {
 
-	private static final ObjectMapper OBJECT_MAPPER = createObjectMapper();
+	private static final ObjectMapper OBJECT_MAPPER = createObjectMapper(new JsonFactory());
+	private final ObjectMapper myObjectMapper;
 	private JacksonWriter jacksonWriter;
 	private ROOT_TYPE rootType = null;
 	private JsonNode nativeRoot = null;
 	private JsonNode jsonLikeRoot = null;
 
+	/**
+	 * Constructor for a structure using the standard JSON format
+	 */
+	public JacksonStructure() {
+		this(OBJECT_MAPPER);
+	}
+
+	/**
+	 * Constructor for a structure using the data format of the given mapper, which
+	 * should be created using {@link #createObjectMapper(JsonFactory)}
+	 *
+	 * @since 5.3.0
+	 */
+	public JacksonStructure(ObjectMapper theObjectMapper) {
+		myObjectMapper = theObjectMapper;
+	}
+
 	public void setNativeObject(ObjectNode objectNode) {
 		this.rootType = ROOT_TYPE.OBJECT;
 		this.nativeRoot = objectNode;
@@ -70,7 +91,7 @@ public class JacksonStructure implements JsonLikeStructure {
 
 	@Override
 	public JsonLikeStructure getInstance() {
-		return new JacksonStructure();
+		return new JacksonStructure(myObjectMapper);
 	}
 
 	@Override
@@ -106,9 +127,9 @@ public class JacksonStructure implements JsonLikeStructure {
 			}
 
 			if (nextInt == '{') {
-				setNativeObject((ObjectNode) OBJECT_MAPPER.readTree(pbr));
+				setNativeObject((ObjectNode) myObjectMapper.readTree(pbr));
 			} else {
-				setNativeArray((ArrayNode) OBJECT_MAPPER.readTree(pbr));
+				setNativeArray((ArrayNode) myObjectMapper.readTree(pbr));
 			}
 		} catch (Exception e) {
 			if (e.getMessage().startsWith("Unexpected char 39")) {
@@ -119,10 +140,44 @@ public class JacksonStructure implements JsonLikeStructure {
 		}
 	}
 
+	/**
+	 * Loads content from a stream, which is required for binary data formats
+	 *
+	 * @since 5.3.0
+	 */
+	public void load(InputStream theInputStream) throws DataFormatException {
+		JsonNode root;
+		try {
+			root = myObjectMapper.readTree(theInputStream);
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to parse " + myObjectMapper.getFactory().getFormatName() + " encoded FHIR content: " + e.getMessage(), e);
+		}
+		if (root == null || root.isMissingNode()) {
+			throw new DataFormatException("Did not find any content to parse");
+		}
+		if (!root.isObject()) {
+			throw new DataFormatException("Content must be a valid JSON Object");
+		}
+		setNativeObject((ObjectNode) root);
+	}
+
 	@Override
 	public JsonLikeWriter getJsonLikeWriter(Writer writer) throws IOException {
 		if (null == jacksonWriter) {
-			jacksonWriter = new JacksonWriter(OBJECT_MAPPER.getFactory(), writer);
+			jacksonWriter = new JacksonWriter(myObjectMapper.getFactory(), writer);
+		}
+
+		return jacksonWriter;
+	}
+
+	/**
+	 * Creates a writer for a stream, which is required for binary data formats
+	 *
+	 * @since 5.3.0
+	 */
+	public JsonLikeWriter getJsonLikeWriter(OutputStream theOutputStream) throws IOException {
+		if (null == jacksonWriter) {
+			jacksonWriter = new JacksonWriter(myObjectMapper.getFactory(), theOutputStream);
 		}
 
 		return jacksonWriter;
@@ -377,8 +432,14 @@ public class JacksonStructure implements JsonLikeStructure {
 		}
 	}
 
-	private static ObjectMapper createObjectMapper() {
-		ObjectMapper retVal = new ObjectMapper();
+	/**
+	 * Creates a mapper with the configuration required for parsing FHIR content, using
+	 * the data format of the given factory
+	 *
+	 * @since 5.3.0
+	 */
+	public static ObjectMapper createObjectMapper(JsonFactory theJsonFactory) {
+		ObjectMapper retVal = new ObjectMapper(theJsonFactory);
 		retVal = retVal.setNodeFactory(new JsonNodeFactory(true));
 		retVal = retVal.enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
 		retVal = retVal.enable(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
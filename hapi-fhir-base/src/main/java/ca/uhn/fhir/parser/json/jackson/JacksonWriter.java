@@ -29,6 +29,7 @@ import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.core.util.Separators;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -42,6 +43,15 @@ public class JacksonWriter extends JsonLikeWriter {
 		setWriter(theWriter);
 	}
 
+	/**
+	 * Constructor for writing to a stream, which is required for binary data formats
+	 *
+	 * @since 5.3.0
+	 */
+	public JacksonWriter(JsonFactory theJsonFactory, OutputStream theOutputStream) throws IOException {
+		myJsonGenerator = theJsonFactory.createGenerator(theOutputStream);
+	}
+
 	public JacksonWriter() {
 	}
 
@@ -54,6 +54,10 @@ public class Constants {
 	public static final Set<String> CORS_ALLWED_METHODS;
 	public static final String CT_FHIR_JSON = "application/json+fhir";
 	public static final String CT_RDF_TURTLE = "application/x-turtle";
+	/**
+	 * The MimeType for the Smile binary JSON encoding
+	 */
+	public static final String CT_SMILE = "application/x-jackson-smile";
 	/**
 	 * The FHIR MimeType for JSON encoding in FHIR DSTU3+
 	 */
@@ -84,6 +88,7 @@ public class Constants {
 	public static final String FORMAT_JSON = "json";
 	public static final String FORMAT_XML = "xml";
 	public static final String FORMAT_TURTLE = "text/turtle";
+	public static final String FORMAT_SMILE = "smile";
 
 
 	/**
@@ -207,6 +212,7 @@ public class Constants {
 
 	public static final int STATUS_HTTP_404_NOT_FOUND = 404;
 	public static final int STATUS_HTTP_405_METHOD_NOT_ALLOWED = 405;
+	public static final int STATUS_HTTP_406_NOT_ACCEPTABLE = 406;
 	public static final int STATUS_HTTP_409_CONFLICT = 409;
 	public static final int STATUS_HTTP_410_GONE = 410;
 	public static final int STATUS_HTTP_412_PRECONDITION_FAILED = 412;
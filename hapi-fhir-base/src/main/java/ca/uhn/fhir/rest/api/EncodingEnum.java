@@ -53,6 +53,23 @@ public enum EncodingEnum {
 		}
 	},
 
+	SMILE(Constants.CT_SMILE, Constants.CT_SMILE, Constants.FORMAT_SMILE) {
+		@Override
+		public IParser newParser(FhirContext theContext) {
+			return theContext.newSmileParser();
+		}
+
+		@Override
+		public boolean isBinary() {
+			return true;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return ourSmileAvailable;
+		}
+	},
+
 	;
 
 	/**
@@ -65,21 +82,39 @@ public enum EncodingEnum {
 	 */
 	public static final String RDF_PLAIN_STRING = "rdf";
 
+	/**
+	 * "smile"
+	 */
+	public static final String SMILE_PLAIN_STRING = "smile";
 
 	/**
 	 * "xml"
 	 */
 	public static final String XML_PLAIN_STRING = "xml";
 
+	private static final boolean ourSmileAvailable = isClassAvailable("com.fasterxml.jackson.dataformat.smile.SmileFactory");
 	private static Map<String, EncodingEnum> ourContentTypeToEncoding;
 	private static Map<String, EncodingEnum> ourContentTypeToEncodingLegacy;
 	private static Map<String, EncodingEnum> ourContentTypeToEncodingStrict;
+	private static Map<String, EncodingEnum> ourContentTypeToUnavailableEncoding;
 
 	static {
 		ourContentTypeToEncoding = new HashMap<>();
 		ourContentTypeToEncodingLegacy = new HashMap<>();
+		ourContentTypeToUnavailableEncoding = new HashMap<>();
 
 		for (EncodingEnum next : values()) {
+			/*
+			 * Encodings whose libraries aren't on the classpath aren't negotiated, but
+			 * we keep track of them so that a request for them can be rejected
+			 */
+			if (!next.isAvailable()) {
+				ourContentTypeToUnavailableEncoding.put(next.myResourceContentTypeLegacy, next);
+				ourContentTypeToUnavailableEncoding.put(next.myResourceContentTypeNonLegacy, next);
+				ourContentTypeToUnavailableEncoding.put(next.myFormatContentType, next);
+				continue;
+			}
+
 			ourContentTypeToEncoding.put(next.myResourceContentTypeNonLegacy, next);
 			ourContentTypeToEncoding.put(next.myResourceContentTypeLegacy, next);
 			ourContentTypeToEncodingLegacy.put(next.myResourceContentTypeLegacy, next);
@@ -114,6 +149,12 @@ public enum EncodingEnum {
 		ourContentTypeToEncoding.put(JSON_PLAIN_STRING, JSON);
 		ourContentTypeToEncoding.put(XML_PLAIN_STRING, XML);
 		ourContentTypeToEncoding.put(RDF_PLAIN_STRING, RDF);
+		if (SMILE.isAvailable()) {
+			ourContentTypeToEncoding.put(SMILE_PLAIN_STRING, SMILE);
+		} else {
+			ourContentTypeToUnavailableEncoding.put(SMILE_PLAIN_STRING, SMILE);
+		}
+		ourContentTypeToUnavailableEncoding = Collections.unmodifiableMap(ourContentTypeToUnavailableEncoding);
 
 		ourContentTypeToEncodingLegacy = Collections.unmodifiableMap(ourContentTypeToEncodingLegacy);
 
@@ -152,6 +193,26 @@ public enum EncodingEnum {
 
 	public abstract IParser newParser(final FhirContext theContext);
 
+	/**
+	 * Returns <code>true</code> if this encoding produces binary content, which must be
+	 * read and written using streams instead of readers and writers
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isBinary() {
+		return false;
+	}
+
+	/**
+	 * Returns <code>true</code> if the libraries needed by this encoding are on the classpath. Encodings
+	 * which are not available are not returned by {@link #forContentType(String)} and the related methods.
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isAvailable() {
+		return true;
+	}
+
 	public static EncodingEnum detectEncoding(final String theBody) {
 		EncodingEnum retVal = detectEncodingNoDefault(theBody);
 		retVal = ObjectUtils.defaultIfNull(retVal, EncodingEnum.XML);
@@ -212,6 +273,31 @@ public enum EncodingEnum {
 		}
 	}
 
+	/**
+	 * Returns the encoding for a given content type or <code>_format</code> value if the encoding is
+	 * known but not {@link #isAvailable() available}, or <code>null</code> otherwise. This can be used
+	 * to reject a request for such an encoding instead of silently falling back to another one.
+	 *
+	 * @since 5.3.0
+	 */
+	public static EncodingEnum forUnavailableContentType(final String theContentType) {
+		String contentTypeSplitted = getTypeWithoutCharset(theContentType);
+		if (contentTypeSplitted == null) {
+			return null;
+		} else {
+			return ourContentTypeToUnavailableEncoding.get(contentTypeSplitted);
+		}
+	}
+
+	private static boolean isClassAvailable(String theClassName) {
+		try {
+			Class.forName(theClassName, false, EncodingEnum.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
 	static String getTypeWithoutCharset(final String theContentType) {
 		if (isBlank(theContentType)) {
 			return null;
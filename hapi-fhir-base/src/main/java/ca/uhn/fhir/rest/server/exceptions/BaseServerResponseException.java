@@ -54,6 +54,7 @@ public abstract class BaseServerResponseException extends RuntimeException {
 		registerExceptionType(InternalErrorException.STATUS_CODE, InternalErrorException.class);
 		registerExceptionType(InvalidRequestException.STATUS_CODE, InvalidRequestException.class);
 		registerExceptionType(MethodNotAllowedException.STATUS_CODE, MethodNotAllowedException.class);
+		registerExceptionType(NotAcceptableException.STATUS_CODE, NotAcceptableException.class);
 		registerExceptionType(NotImplementedOperationException.STATUS_CODE, NotImplementedOperationException.class);
 		registerExceptionType(NotModifiedException.STATUS_CODE, NotModifiedException.class);
 		registerExceptionType(ResourceNotFoundException.STATUS_CODE, ResourceNotFoundException.class);
@@ -193,6 +193,34 @@ public class BundleBuilder {
 		return new CreateBuilder(request);
 	}
 
+	/**
+	 * Adds an entry containing a delete (DELETE) request.
+	 * Also sets the Bundle.type value to "transaction" if it is not already set.
+	 *
+	 * @param theResourceType The type of the resource to delete
+	 * @param theIdPart       The ID of the resource to delete
+	 */
+	public void addTransactionDeleteEntry(String theResourceType, String theIdPart) {
+		Validate.notBlank(theResourceType, "theResourceType must not be blank");
+		Validate.notBlank(theIdPart, "theIdPart must not be blank");
+
+		setBundleField("type", "transaction");
+
+		IBase entry = addEntry();
+		IBase request = myEntryRequestDef.newInstance();
+		myEntryRequestChild.getMutator().setValue(entry, request);
+
+		// Bundle.entry.request.url
+		IPrimitiveType<?> url = (IPrimitiveType<?>) myContext.getElementDefinition("uri").newInstance();
+		url.setValueAsString(theResourceType + "/" + theIdPart);
+		myEntryRequestUrlChild.getMutator().setValue(request, url);
+
+		// Bundle.entry.request.method
+		IPrimitiveType<?> method = (IPrimitiveType<?>) myEntryRequestMethodDef.newInstance(myEntryRequestMethodChild.getInstanceConstructorArguments());
+		method.setValueAsString("DELETE");
+		myEntryRequestMethodChild.getMutator().setValue(request, method);
+	}
+
 	/**
 	 * Creates new entry and adds it to the bundle
 	 *
@@ -0,0 +1,231 @@
+package ca.uhn.fhir.benchmarks;
+
+/*-
+ * #%L
+ * HAPI FHIR - JMH Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.hl7.fhir.r4.model.Address;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.ContactPoint;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.ExplanationOfBenefit;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Money;
+import org.hl7.fhir.r4.model.Narrative;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+
+import java.math.BigDecimal;
+
+/**
+ * Builds the resources used by the benchmarks. The content is deterministic and
+ * modelled on what a typical clinical or claims system stores, so that the shape
+ * (depth, repetitions, choice types, extensions) is realistic.
+ */
+public class BenchmarkResources {
+
+	public static final String PATIENT = "Patient";
+	public static final String OBSERVATION = "Observation";
+	public static final String EXPLANATION_OF_BENEFIT = "ExplanationOfBenefit";
+	public static final String BUNDLE = "Bundle";
+
+	/**
+	 * Number of patients in the Bundle built by {@link #newResource(String)}. Each
+	 * patient is followed by 10 observations and one explanation of benefit.
+	 */
+	public static final int BUNDLE_PATIENT_COUNT = 50;
+
+	private static final String LOINC = "http://loinc.org";
+	private static final String UCUM = "http://unitsofmeasure.org";
+
+	/**
+	 * Non-instantiable
+	 */
+	private BenchmarkResources() {
+		// nothing
+	}
+
+	public static Resource newResource(String theResourceType) {
+		switch (theResourceType) {
+			case PATIENT:
+				return newPatient(1);
+			case OBSERVATION:
+				return newObservation(1, 1);
+			case EXPLANATION_OF_BENEFIT:
+				return newExplanationOfBenefit(1, 1);
+			case BUNDLE:
+				return newBundle(BUNDLE_PATIENT_COUNT);
+			default:
+				throw new IllegalArgumentException("Unknown resource type: " + theResourceType);
+		}
+	}
+
+	public static Patient newPatient(int theIndex) {
+		Patient retVal = new Patient();
+		retVal.setId("Patient/" + theIndex);
+		retVal.getMeta().setVersionId("3").setLastUpdated(new DateTimeType("2020-11-03T10:15:30Z").getValue());
+		retVal.getMeta().addProfile("http://hl7.org/fhir/us/core/StructureDefinition/us-core-patient");
+		retVal.getText().setStatus(Narrative.NarrativeStatus.GENERATED).setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\">Patient " + theIndex + "</div>");
+		retVal.addExtension("http://hl7.org/fhir/us/core/StructureDefinition/us-core-birthsex", new CodeType("F"));
+		retVal.addIdentifier(new Identifier().setSystem("http://hospital.example.org/mrn").setValue("MRN" + (100000 + theIndex)).setUse(Identifier.IdentifierUse.USUAL));
+		retVal.addIdentifier(new Identifier().setSystem("http://hl7.org/fhir/sid/us-ssn").setValue("999-" + (10 + theIndex % 90) + "-" + (1000 + theIndex)));
+		retVal.setActive(true);
+		HumanName name = retVal.addName().setUse(HumanName.NameUse.OFFICIAL).setFamily("Smith" + theIndex);
+		name.addGiven("Jane").addGiven("Q").addPrefix("Ms.");
+		name.setPeriod(new Period().setStartElement(new DateTimeType("1990-01-01")));
+		retVal.addName().setUse(HumanName.NameUse.MAIDEN).setFamily("Jones").addGiven("Jane");
+		retVal.addTelecom().setSystem(ContactPoint.ContactPointSystem.PHONE).setValue("555-0100").setUse(ContactPoint.ContactPointUse.HOME);
+		retVal.addTelecom().setSystem(ContactPoint.ContactPointSystem.EMAIL).setValue("jane" + theIndex + "@example.org");
+		retVal.setGender(Enumerations.AdministrativeGender.FEMALE);
+		retVal.setBirthDateElement(new DateType("1975-06-" + (10 + theIndex % 18)));
+		Address address = retVal.addAddress().setUse(Address.AddressUse.HOME).setCity("Toronto").setState("ON").setPostalCode("M5G 1X5").setCountry("CA");
+		address.addLine(theIndex + " University Ave").addLine("Suite 200");
+		retVal.getMaritalStatus().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/v3-MaritalStatus").setCode("M").setDisplay("Married");
+		retVal.addCommunication().setPreferred(true).getLanguage().addCoding().setSystem("urn:ietf:bcp:47").setCode("en-CA");
+		retVal.addGeneralPractitioner(new Reference("Practitioner/" + (theIndex % 10)).setDisplay("Dr. Example"));
+		retVal.setManagingOrganization(new Reference("Organization/1"));
+		return retVal;
+	}
+
+	public static Observation newObservation(int thePatientIndex, int theIndex) {
+		Observation retVal = new Observation();
+		retVal.setId("Observation/" + thePatientIndex + "-" + theIndex);
+		retVal.getMeta().addProfile("http://hl7.org/fhir/StructureDefinition/bp");
+		retVal.setStatus(Observation.ObservationStatus.FINAL);
+		retVal.addCategory().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/observation-category").setCode("vital-signs").setDisplay("Vital Signs");
+		retVal.getCode().addCoding().setSystem(LOINC).setCode("85354-9").setDisplay("Blood pressure panel with all children optional");
+		retVal.getCode().setText("Blood pressure");
+		retVal.setSubject(new Reference("Patient/" + thePatientIndex));
+		retVal.setEncounter(new Reference("Encounter/" + thePatientIndex + "-" + theIndex));
+		String month = String.format("%02d", 1 + theIndex % 12);
+		retVal.setEffective(new DateTimeType("2020-" + month + "-15T09:30:00-05:00"));
+		retVal.setIssuedElement(new InstantType("2020-" + month + "-15T10:00:00-05:00"));
+		retVal.addPerformer(new Reference("Practitioner/" + (theIndex % 10)));
+		retVal.addInterpretation().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/v3-ObservationInterpretation").setCode("N");
+		retVal.getBodySite().addCoding().setSystem("http://snomed.info/sct").setCode("368209003").setDisplay("Right arm");
+
+		Observation.ObservationComponentComponent systolic = retVal.addComponent();
+		systolic.getCode().addCoding().setSystem(LOINC).setCode("8480-6").setDisplay("Systolic blood pressure");
+		systolic.setValue(new Quantity().setValue(110 + theIndex % 30).setUnit("mmHg").setSystem(UCUM).setCode("mm[Hg]"));
+		systolic.addReferenceRange().setLow(new Quantity().setValue(90).setUnit("mmHg")).setHigh(new Quantity().setValue(140).setUnit("mmHg"));
+
+		Observation.ObservationComponentComponent diastolic = retVal.addComponent();
+		diastolic.getCode().addCoding().setSystem(LOINC).setCode("8462-4").setDisplay("Diastolic blood pressure");
+		diastolic.setValue(new Quantity().setValue(70 + theIndex % 20).setUnit("mmHg").setSystem(UCUM).setCode("mm[Hg]"));
+		diastolic.addReferenceRange().setLow(new Quantity().setValue(60).setUnit("mmHg")).setHigh(new Quantity().setValue(90).setUnit("mmHg"));
+
+		retVal.addNote().setText("Measured after 5 minutes of rest");
+		return retVal;
+	}
+
+	public static ExplanationOfBenefit newExplanationOfBenefit(int thePatientIndex, int theIndex) {
+		ExplanationOfBenefit retVal = new ExplanationOfBenefit();
+		retVal.setId("ExplanationOfBenefit/" + thePatientIndex + "-" + theIndex);
+		retVal.addIdentifier().setSystem("http://payer.example.org/claim").setValue("CLM" + thePatientIndex + "-" + theIndex);
+		retVal.setStatus(ExplanationOfBenefit.ExplanationOfBenefitStatus.ACTIVE);
+		retVal.getType().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/claim-type").setCode("institutional");
+		retVal.setUse(ExplanationOfBenefit.Use.CLAIM);
+		retVal.setPatient(new Reference("Patient/" + thePatientIndex));
+		retVal.setBillablePeriod(new Period().setStartElement(new DateTimeType("2020-03-01")).setEndElement(new DateTimeType("2020-03-05")));
+		retVal.setCreatedElement(new DateTimeType("2020-03-10T12:00:00Z"));
+		retVal.setInsurer(new Reference("Organization/2"));
+		retVal.setProvider(new Reference("Organization/1"));
+		retVal.setOutcome(ExplanationOfBenefit.RemittanceOutcome.COMPLETE);
+		retVal.addInsurance().setFocal(true).setCoverage(new Reference("Coverage/" + thePatientIndex));
+
+		for (int i = 1; i <= 3; i++) {
+			CodeableConcept diagnosis = new CodeableConcept();
+			diagnosis.addCoding().setSystem("http://hl7.org/fhir/sid/icd-10-cm").setCode("J18." + i);
+			retVal.addDiagnosis().setSequence(i).setDiagnosis(diagnosis);
+		}
+		retVal.addProcedure().setSequence(1).setDate(new DateTimeType("2020-03-02").getValue()).setProcedure(new CodeableConcept().addCoding(new Coding("http://www.cms.gov/Medicare/Coding/ICD10", "0BJ08ZZ", null)));
+
+		for (int i = 1; i <= 20; i++) {
+			ExplanationOfBenefit.ItemComponent item = retVal.addItem();
+			item.setSequence(i);
+			item.addDiagnosisSequence(1 + i % 3);
+			item.getRevenue().addCoding().setSystem("https://www.nubc.org/CodeSystem/RevenueCodes").setCode("0" + (250 + i));
+			item.getProductOrService().addCoding().setSystem("http://www.ama-assn.org/go/cpt").setCode(Integer.toString(99200 + i));
+			item.setServiced(new DateType("2020-03-0" + (1 + i % 5)));
+			item.setQuantity(new Quantity().setValue(1 + i % 3));
+			item.setNet(money(125.5 * i));
+			addAdjudication(item, "submitted", 125.5 * i);
+			addAdjudication(item, "eligible", 100.0 * i);
+			addAdjudication(item, "benefit", 80.0 * i);
+			addAdjudication(item, "copay", 20.0);
+		}
+
+		retVal.addTotal().setAmount(money(26355.0)).getCategory().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/adjudication").setCode("submitted");
+		retVal.addTotal().setAmount(money(16800.0)).getCategory().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/adjudication").setCode("benefit");
+		retVal.getPayment().setAmount(money(16800.0)).setDateElement(new DateType("2020-03-20"));
+		return retVal;
+	}
+
+	/**
+	 * @param thePatientCount The number of patients, each followed by 10 observations and one explanation of benefit
+	 */
+	public static Bundle newBundle(int thePatientCount) {
+		Bundle retVal = new Bundle();
+		retVal.setType(Bundle.BundleType.SEARCHSET);
+		retVal.setTotal(thePatientCount * 12);
+		retVal.addLink().setRelation("self").setUrl("http://example.org/fhir/Patient?_revinclude=*");
+		for (int i = 1; i <= thePatientCount; i++) {
+			addEntry(retVal, newPatient(i), Bundle.SearchEntryMode.MATCH);
+			for (int j = 1; j <= 10; j++) {
+				addEntry(retVal, newObservation(i, j), Bundle.SearchEntryMode.INCLUDE);
+			}
+			addEntry(retVal, newExplanationOfBenefit(i, 1), Bundle.SearchEntryMode.INCLUDE);
+		}
+		return retVal;
+	}
+
+	private static void addEntry(Bundle theBundle, Resource theResource, Bundle.SearchEntryMode theMode) {
+		theBundle
+			.addEntry()
+			.setFullUrl("http://example.org/fhir/" + theResource.getIdElement().getValue())
+			.setResource(theResource)
+			.getSearch()
+			.setMode(theMode);
+	}
+
+	private static void addAdjudication(ExplanationOfBenefit.ItemComponent theItem, String theCategory, double theAmount) {
+		ExplanationOfBenefit.AdjudicationComponent adjudication = theItem.addAdjudication();
+		adjudication.getCategory().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/adjudication").setCode(theCategory);
+		adjudication.setAmount(money(theAmount));
+		adjudication.getReason().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/adjudication-reason").setCode("ar001");
+		adjudication.getReason().setTextElement(new StringType("Plan applied"));
+	}
+
+	private static Money money(double theAmount) {
+		return new Money().setValue(BigDecimal.valueOf(theAmount)).setCurrency("USD");
+	}
+
+}
@@ -0,0 +1,111 @@
+package ca.uhn.fhir.benchmarks;
+
+/*-
+ * #%L
+ * HAPI FHIR - JMH Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.SmileParser;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing and encoding resources with the JSON, XML and Smile parsers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+	private static final Logger ourLog = LoggerFactory.getLogger(ParserBenchmark.class);
+
+	@Param({BenchmarkResources.PATIENT, BenchmarkResources.OBSERVATION, BenchmarkResources.EXPLANATION_OF_BENEFIT, BenchmarkResources.BUNDLE})
+	public String myResourceType;
+
+	private FhirContext myFhirContext;
+	private Resource myResource;
+	private String myJson;
+	private String myXml;
+	private byte[] mySmile;
+
+	@Setup
+	public void setup() {
+		myFhirContext = FhirContext.forR4();
+		myResource = BenchmarkResources.newResource(myResourceType);
+		myJson = myFhirContext.newJsonParser().encodeResourceToString(myResource);
+		myXml = myFhirContext.newXmlParser().encodeResourceToString(myResource);
+		mySmile = newSmileParser().encodeResourceToByteArray(myResource);
+		ourLog.info("{} payload sizes - JSON: {} bytes, XML: {} bytes, Smile: {} bytes", myResourceType,
+			myJson.getBytes(StandardCharsets.UTF_8).length, myXml.getBytes(StandardCharsets.UTF_8).length, mySmile.length);
+	}
+
+	@Benchmark
+	public IBaseResource parseJson() {
+		return myFhirContext.newJsonParser().parseResource(myJson);
+	}
+
+	@Benchmark
+	public IBaseResource parseXml() {
+		return myFhirContext.newXmlParser().parseResource(myXml);
+	}
+
+	@Benchmark
+	public IBaseResource parseSmile() {
+		return newSmileParser().parseResource(new ByteArrayInputStream(mySmile));
+	}
+
+	@Benchmark
+	public String encodeJson() {
+		return myFhirContext.newJsonParser().encodeResourceToString(myResource);
+	}
+
+	@Benchmark
+	public String encodeXml() {
+		return myFhirContext.newXmlParser().encodeResourceToString(myResource);
+	}
+
+	@Benchmark
+	public byte[] encodeSmile() {
+		return newSmileParser().encodeResourceToByteArray(myResource);
+	}
+
+	private SmileParser newSmileParser() {
+		return (SmileParser) myFhirContext.newSmileParser();
+	}
+
+}
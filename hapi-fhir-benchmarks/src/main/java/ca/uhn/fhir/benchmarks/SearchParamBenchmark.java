@@ -0,0 +1,194 @@
+package ca.uhn.fhir.benchmarks;
+
+/*-
+ * #%L
+ * HAPI FHIR - JMH Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryResourceMatcher;
+import ca.uhn.fhir.jpa.searchparam.registry.FhirContextSearchParamRegistry;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import org.hl7.fhir.r4.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of search parameter index extraction with {@link SearchParamExtractorR4}
+ * and of matching the extracted index against search criteria with
+ * {@link InMemoryResourceMatcher}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchParamBenchmark {
+
+	@Param({BenchmarkResources.PATIENT, BenchmarkResources.OBSERVATION, BenchmarkResources.EXPLANATION_OF_BENEFIT})
+	public String myResourceType;
+
+	private AnnotationConfigApplicationContext myAppCtx;
+	private SearchParamExtractorR4 myExtractor;
+	private InMemoryResourceMatcher myMatcher;
+	private Resource myResource;
+	private ResourceIndexedSearchParams mySearchParams;
+	private String myCriteria;
+
+	@Setup
+	public void setup() {
+		myAppCtx = new AnnotationConfigApplicationContext(BenchmarkConfig.class);
+		myExtractor = myAppCtx.getBean(SearchParamExtractorR4.class);
+		myMatcher = myAppCtx.getBean(InMemoryResourceMatcher.class);
+
+		myResource = BenchmarkResources.newResource(myResourceType);
+		mySearchParams = extractAll(myResource);
+		switch (myResourceType) {
+			case BenchmarkResources.PATIENT:
+				myCriteria = "family=smith&gender=female&birthdate=lt2000-01-01&identifier=http://hospital.example.org/mrn|MRN100001";
+				break;
+			case BenchmarkResources.OBSERVATION:
+				myCriteria = "code=http://loinc.org|85354-9&status=final&date=ge2020-01-01&component-code=http://loinc.org|8480-6";
+				break;
+			default:
+				myCriteria = "status=active&created=ge2020-01-01&identifier=http://payer.example.org/claim|CLM1-1";
+				break;
+		}
+
+		InMemoryMatchResult result = myMatcher.match(myCriteria, myResource, mySearchParams);
+		if (!result.supported() || !result.matched()) {
+			throw new IllegalStateException("Criteria " + myCriteria + " should match in memory: " + result.getUnsupportedReason());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		myAppCtx.close();
+	}
+
+	@Benchmark
+	public void extractStrings(Blackhole theBlackhole) {
+		theBlackhole.consume(myExtractor.extractSearchParamStrings(myResource));
+	}
+
+	@Benchmark
+	public void extractTokens(Blackhole theBlackhole) {
+		theBlackhole.consume(myExtractor.extractSearchParamTokens(myResource));
+	}
+
+	@Benchmark
+	public void extractDates(Blackhole theBlackhole) {
+		theBlackhole.consume(myExtractor.extractSearchParamDates(myResource));
+	}
+
+	@Benchmark
+	public void extractReferences(Blackhole theBlackhole) {
+		theBlackhole.consume(myExtractor.extractResourceLinks(myResource));
+	}
+
+	@Benchmark
+	public ResourceIndexedSearchParams extractAll() {
+		return extractAll(myResource);
+	}
+
+	@Benchmark
+	public InMemoryMatchResult match() {
+		return myMatcher.match(myCriteria, myResource, mySearchParams);
+	}
+
+	private ResourceIndexedSearchParams extractAll(Resource theResource) {
+		ResourceIndexedSearchParams retVal = new ResourceIndexedSearchParams();
+		retVal.myStringParams.addAll(myExtractor.extractSearchParamStrings(theResource));
+		retVal.myNumberParams.addAll(myExtractor.extractSearchParamNumber(theResource));
+		retVal.myQuantityParams.addAll(myExtractor.extractSearchParamQuantity(theResource));
+		retVal.myDateParams.addAll(myExtractor.extractSearchParamDates(theResource));
+		retVal.myUriParams.addAll(myExtractor.extractSearchParamUri(theResource));
+		myExtractor.extractSearchParamTokens(theResource).forEach(t -> {
+			if (t instanceof ResourceIndexedSearchParamToken) {
+				retVal.myTokenParams.add((ResourceIndexedSearchParamToken) t);
+			}
+		});
+		return retVal;
+	}
+
+	@Configuration
+	public static class BenchmarkConfig {
+
+		@Bean
+		public FhirContext fhirContext() {
+			return FhirContext.forR4();
+		}
+
+		@Bean
+		public ModelConfig modelConfig() {
+			return new ModelConfig();
+		}
+
+		@Bean
+		public PartitionSettings partitionSettings() {
+			return new PartitionSettings();
+		}
+
+		@Bean
+		public ISearchParamRegistry searchParamRegistry(FhirContext theFhirContext) {
+			return new FhirContextSearchParamRegistry(theFhirContext);
+		}
+
+		@Bean
+		public SearchParamExtractorR4 searchParamExtractor(FhirContext theFhirContext, ModelConfig theModelConfig, PartitionSettings thePartitionSettings, ISearchParamRegistry theSearchParamRegistry) {
+			return new SearchParamExtractorR4(theModelConfig, thePartitionSettings, theFhirContext, new DefaultProfileValidationSupport(theFhirContext), theSearchParamRegistry);
+		}
+
+		@Bean
+		public MatchUrlService matchUrlService() {
+			return new MatchUrlService();
+		}
+
+		@Bean
+		public InMemoryResourceMatcher inMemoryResourceMatcher() {
+			return new InMemoryResourceMatcher();
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package ca.uhn.fhir.benchmarks;
+
+/*-
+ * #%L
+ * HAPI FHIR - JMH Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.ExplanationOfBenefit;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of path evaluation with {@link FhirTerser}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TerserBenchmark {
+
+	private FhirTerser myTerser;
+	private Patient myPatient;
+	private Observation myObservation;
+	private ExplanationOfBenefit myExplanationOfBenefit;
+	private Bundle myBundle;
+
+	@Setup
+	public void setup() {
+		myTerser = FhirContext.forR4().newTerser();
+		myPatient = BenchmarkResources.newPatient(1);
+		myObservation = BenchmarkResources.newObservation(1, 1);
+		myExplanationOfBenefit = BenchmarkResources.newExplanationOfBenefit(1, 1);
+		myBundle = BenchmarkResources.newBundle(BenchmarkResources.BUNDLE_PATIENT_COUNT);
+	}
+
+	@Benchmark
+	public List<IBase> getValuesPatientGivenName() {
+		return myTerser.getValues(myPatient, "Patient.name.given");
+	}
+
+	@Benchmark
+	public List<IBase> getValuesObservationComponentCode() {
+		return myTerser.getValues(myObservation, "Observation.component.code.coding.code");
+	}
+
+	@Benchmark
+	public List<IBase> getValuesExplanationOfBenefitAdjudicationAmount() {
+		return myTerser.getValues(myExplanationOfBenefit, "ExplanationOfBenefit.item.adjudication.amount.value");
+	}
+
+	@Benchmark
+	public List<IBase> getValuesBundleEntryResource() {
+		return myTerser.getValues(myBundle, "Bundle.entry.resource");
+	}
+
+	@Benchmark
+	public List<IBaseReference> getAllReferencesInExplanationOfBenefit() {
+		return myTerser.getAllPopulatedChildElementsOfType(myExplanationOfBenefit, IBaseReference.class);
+	}
+
+}
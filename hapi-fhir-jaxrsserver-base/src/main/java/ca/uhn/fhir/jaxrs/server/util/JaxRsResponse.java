@@ -14,7 +14,9 @@ import org.hl7.fhir.instance.model.api.IBaseBinary;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.List;
@@ -79,6 +81,25 @@ public class JaxRsResponse extends RestfulResponse<JaxRsRequest> {
 		return retVal;
 	}
 
+	/**
+	 * The response output stream is a simple byte array stream. All output is configured
+	 * by the server.
+	 */
+	@Override
+	public OutputStream getResponseOutputStream(int theStatusCode, String theStatusMessage, String theContentType, boolean theRespondGzip) {
+		return new ByteArrayOutputStream();
+	}
+
+	@Override
+	public Response sendOutputStreamResponse(int theStatusCode, String theContentType, OutputStream theOutputStream) {
+		ResponseBuilder builder = buildResponse(theStatusCode);
+		if (isNotBlank(theContentType)) {
+			builder.header(Constants.HEADER_CONTENT_TYPE, theContentType);
+		}
+		builder.entity(((ByteArrayOutputStream) theOutputStream).toByteArray());
+		return builder.build();
+	}
+
 	@Override
 	public Object sendAttachmentResponse(IBaseBinary bin, int statusCode, String contentType) {
 		ResponseBuilder response = buildResponse(statusCode);
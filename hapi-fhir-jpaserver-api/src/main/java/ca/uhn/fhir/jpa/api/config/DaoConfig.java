@@ -14,6 +14,7 @@ import org.hl7.fhir.r4.model.Bundle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -73,6 +74,30 @@ public class DaoConfig {
 	)));
 	// update setter javadoc if default changes
 	public static final int DEFAULT_MAX_EXPANSION_SIZE = 1000;
+	/**
+	 * Default value for {@link #setSearchResultCacheMaxBytes(long)}
+	 *
+	 * @since 5.3.0
+	 */
+	public static final long DEFAULT_SEARCH_RESULT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+	/**
+	 * Default value for {@link #setReindexBatchSize(int)}
+	 *
+	 * @since 5.3.0
+	 */
+	public static final int DEFAULT_REINDEX_BATCH_SIZE = 50;
+	/**
+	 * Default value for {@link #setBulkExportPipelineResourcesPerFile(int)}
+	 *
+	 * @since 5.3.0
+	 */
+	public static final int DEFAULT_BULK_EXPORT_PIPELINE_RESOURCES_PER_FILE = 50000;
+	/**
+	 * Default value for {@link #setBulkImportSkipLimit(int)}
+	 *
+	 * @since 5.3.0
+	 */
+	public static final int DEFAULT_BULK_IMPORT_SKIP_LIMIT = 1000;
 	/**
 	 * Default value for {@link #setMaximumSearchResultCountInTransaction(Integer)}
 	 *
@@ -202,6 +227,118 @@ public class DaoConfig {
 	 * @since 5.2.0
 	 */
 	private boolean myUseLegacySearchBuilder = false;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean mySearchPartitionsSeparately = false;
+	/**
+	 * @since 5.3.0
+	 */
+	private SearchResultCacheModeEnum mySearchResultCacheMode = SearchResultCacheModeEnum.DATABASE;
+	/**
+	 * @since 5.3.0
+	 */
+	private long mySearchResultCacheMaxBytes = DEFAULT_SEARCH_RESULT_CACHE_MAX_BYTES;
+	/**
+	 * @since 5.3.0
+	 */
+	private String mySearchResultCacheSpillDirectory;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myResourceEncodingDictionaryEnabled = false;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myResourceReencodingEnabled = false;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myReindexBatchSize = DEFAULT_REINDEX_BATCH_SIZE;
+	/**
+	 * @since 5.3.0
+	 */
+	private Integer myReindexMaxResourcesPerSecond;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myIndexWriteBatchingEnabled = false;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myBulkExportPipelineEnabled = false;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myBulkExportPipelineThreadCount;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myBulkExportPipelineResourcesPerFile = DEFAULT_BULK_EXPORT_PIPELINE_RESOURCES_PER_FILE;
+	/**
+	 * @since 5.3.0
+	 */
+	private String myBulkImportLocalDirectory;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myBulkImportThreadCount;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myBulkImportSkipLimit = DEFAULT_BULK_IMPORT_SKIP_LIMIT;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myTransactionConditionalMatchPrefetchEnabled;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myTransactionSearchParamExtractionThreadCount = 1;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myRestHookAsyncDeliveryEnabled;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myRestHookMaxConcurrentDeliveriesPerEndpoint = 4;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myRestHookDeliveryBatchSize = 1;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myRestHookDeliveryMaxAttempts = 5;
+	/**
+	 * @since 5.3.0
+	 */
+	private long myRestHookDeliveryRetryBackoffMillis = DateUtils.MILLIS_PER_SECOND;
+	/**
+	 * @since 5.3.0
+	 */
+	private int myRestHookMaxQueuedDeliveriesPerEndpoint = 10000;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myTermCodeSystemSnapshotsEnabled;
+	/**
+	 * @since 5.3.0
+	 */
+	private String myTermCodeSystemSnapshotDirectory;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myPreExpandedValueSetMembershipCacheEnabled;
+	/**
+	 * @since 5.3.0
+	 */
+	private long myPreExpandedValueSetMembershipCacheMaxConcepts = 5_000_000;
+	/**
+	 * @since 5.3.0
+	 */
+	private boolean myTermDeferredStorageWorkerEnabled;
 
 	/**
 	 * Constructor
@@ -212,6 +349,8 @@ public class DaoConfig {
 		setSubscriptionPurgeInactiveAfterMillis(Long.MAX_VALUE);
 		setMarkResourcesForReindexingUponSearchParameterChange(true);
 		setReindexThreadCount(Runtime.getRuntime().availableProcessors());
+		setBulkExportPipelineThreadCount(Runtime.getRuntime().availableProcessors());
+		setBulkImportThreadCount(Runtime.getRuntime().availableProcessors());
 		setExpungeThreadCount(Runtime.getRuntime().availableProcessors());
 		setBundleTypesAllowedForStorage(DEFAULT_BUNDLE_TYPES_ALLOWED_FOR_STORAGE);
 
@@ -269,6 +408,130 @@ public class DaoConfig {
 		myUseLegacySearchBuilder = theUseLegacySearchBuilder;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), a search that targets more than one partition
+	 * (including a search across all partitions) is split into one query per partition, and their results are merged
+	 * in the order requested by the <code>_sort</code> parameter. This avoids a single large query plan with a
+	 * <code>PARTITION_ID IN (...)</code> predicate.
+	 * <p>
+	 * If the search's transaction has no pending writes, the partition queries run in parallel, each on its own
+	 * read-only database connection, so the connection pool needs to be sized for up to one connection per
+	 * partition for each concurrent search. Otherwise they run one after another in the search's own transaction,
+	 * so that they see its uncommitted rows.
+	 * </p>
+	 * <p>
+	 * This setting has no effect unless partitioning is enabled, and is not used for count, fulltext,
+	 * <code>$lastn</code> or <code>$everything</code> searches.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isSearchPartitionsSeparately() {
+		return mySearchPartitionsSeparately;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), a search that targets more than one partition
+	 * (including a search across all partitions) is split into one query per partition, and their results are merged
+	 * in the order requested by the <code>_sort</code> parameter. This avoids a single large query plan with a
+	 * <code>PARTITION_ID IN (...)</code> predicate.
+	 * <p>
+	 * If the search's transaction has no pending writes, the partition queries run in parallel, each on its own
+	 * read-only database connection, so the connection pool needs to be sized for up to one connection per
+	 * partition for each concurrent search. Otherwise they run one after another in the search's own transaction,
+	 * so that they see its uncommitted rows.
+	 * </p>
+	 * <p>
+	 * This setting has no effect unless partitioning is enabled, and is not used for count, fulltext,
+	 * <code>$lastn</code> or <code>$everything</code> searches.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setSearchPartitionsSeparately(boolean theSearchPartitionsSeparately) {
+		mySearchPartitionsSeparately = theSearchPartitionsSeparately;
+	}
+
+	/**
+	 * Controls where the resource IDs matched by a search are stored so that they can be paged
+	 * over multiple requests. The default is {@link SearchResultCacheModeEnum#DATABASE}.
+	 * <p>
+	 * This setting is read when the server starts, so changing it afterwards has no effect.
+	 * </p>
+	 *
+	 * @see SearchResultCacheModeEnum
+	 * @since 5.3.0
+	 */
+	public SearchResultCacheModeEnum getSearchResultCacheMode() {
+		return mySearchResultCacheMode;
+	}
+
+	/**
+	 * Controls where the resource IDs matched by a search are stored so that they can be paged
+	 * over multiple requests. The default is {@link SearchResultCacheModeEnum#DATABASE}.
+	 * <p>
+	 * This setting is read when the server starts, so changing it afterwards has no effect.
+	 * </p>
+	 *
+	 * @see SearchResultCacheModeEnum
+	 * @since 5.3.0
+	 */
+	public void setSearchResultCacheMode(@Nonnull SearchResultCacheModeEnum theSearchResultCacheMode) {
+		Validate.notNull(theSearchResultCacheMode, "theSearchResultCacheMode must not be null");
+		mySearchResultCacheMode = theSearchResultCacheMode;
+	}
+
+	/**
+	 * When the search result cache mode is {@link SearchResultCacheModeEnum#MEMORY}, this is the maximum
+	 * number of bytes of (off-heap) memory used to hold search results. When this is exceeded, the results of the
+	 * least recently used searches are moved to the spill directory if one is configured, or discarded otherwise.
+	 * Defaults to {@link #DEFAULT_SEARCH_RESULT_CACHE_MAX_BYTES}.
+	 *
+	 * @since 5.3.0
+	 */
+	public long getSearchResultCacheMaxBytes() {
+		return mySearchResultCacheMaxBytes;
+	}
+
+	/**
+	 * When the search result cache mode is {@link SearchResultCacheModeEnum#MEMORY}, this is the maximum
+	 * number of bytes of (off-heap) memory used to hold search results. When this is exceeded, the results of the
+	 * least recently used searches are moved to the spill directory if one is configured, or discarded otherwise.
+	 * Defaults to {@link #DEFAULT_SEARCH_RESULT_CACHE_MAX_BYTES}.
+	 *
+	 * @since 5.3.0
+	 */
+	public void setSearchResultCacheMaxBytes(long theSearchResultCacheMaxBytes) {
+		Validate.isTrue(theSearchResultCacheMaxBytes > 0, "theSearchResultCacheMaxBytes must be positive");
+		mySearchResultCacheMaxBytes = theSearchResultCacheMaxBytes;
+	}
+
+	/**
+	 * When the search result cache mode is {@link SearchResultCacheModeEnum#MEMORY}, this is an optional
+	 * local directory that search results are written to when they are evicted from memory. Each server
+	 * writes to its own subdirectory, which is deleted when the server stops. Other files in this directory
+	 * are left alone. Defaults to <code>null</code>, meaning
+	 * that evicted results are discarded.
+	 *
+	 * @since 5.3.0
+	 */
+	public String getSearchResultCacheSpillDirectory() {
+		return mySearchResultCacheSpillDirectory;
+	}
+
+	/**
+	 * When the search result cache mode is {@link SearchResultCacheModeEnum#MEMORY}, this is an optional
+	 * local directory that search results are written to when they are evicted from memory. Each server
+	 * writes to its own subdirectory, which is deleted when the server stops. Other files in this directory
+	 * are left alone. Defaults to <code>null</code>, meaning
+	 * that evicted results are discarded.
+	 *
+	 * @since 5.3.0
+	 */
+	public void setSearchResultCacheSpillDirectory(String theSearchResultCacheSpillDirectory) {
+		mySearchResultCacheSpillDirectory = theSearchResultCacheSpillDirectory;
+	}
+
 	/**
 	 * If set to <code>true</code> (default is true) when a resource is being persisted,
 	 * the target resource types of references will be validated to ensure that they
@@ -475,267 +738,932 @@ public class DaoConfig {
 	 * Defaults to 100
 	 * </p>
 	 */
-	public void setDeferIndexingForCodesystemsOfSize(int theDeferIndexingForCodesystemsOfSize) {
-		myDeferIndexingForCodesystemsOfSize = theDeferIndexingForCodesystemsOfSize;
+	public void setDeferIndexingForCodesystemsOfSize(int theDeferIndexingForCodesystemsOfSize) {
+		myDeferIndexingForCodesystemsOfSize = theDeferIndexingForCodesystemsOfSize;
+	}
+
+	/**
+	 * Unlike with normal search queries, $everything queries have their _includes loaded by the main search thread and these included results
+	 * are added to the normal search results instead of being added on as extras in a page. This means that they will not appear multiple times
+	 * as the search results are paged over.
+	 * <p>
+	 * In order to recursively load _includes, we process the original results in batches of this size. Adjust with caution, increasing this
+	 * value may improve performance but may also cause memory issues.
+	 * </p>
+	 * <p>
+	 * The default value is 50
+	 * </p>
+	 */
+	public int getEverythingIncludesFetchPageSize() {
+		return myEverythingIncludesFetchPageSize;
+	}
+
+	/**
+	 * Unlike with normal search queries, $everything queries have their _includes loaded by the main search thread and these included results
+	 * are added to the normal search results instead of being added on as extras in a page. This means that they will not appear multiple times
+	 * as the search results are paged over.
+	 * <p>
+	 * In order to recursively load _includes, we process the original results in batches of this size. Adjust with caution, increasing this
+	 * value may improve performance but may also cause memory issues.
+	 * </p>
+	 * <p>
+	 * The default value is 50
+	 * </p>
+	 */
+	public void setEverythingIncludesFetchPageSize(int theEverythingIncludesFetchPageSize) {
+		Validate.inclusiveBetween(1, Integer.MAX_VALUE, theEverythingIncludesFetchPageSize);
+		myEverythingIncludesFetchPageSize = theEverythingIncludesFetchPageSize;
+	}
+
+	/**
+	 * Sets the number of milliseconds that search results for a given client search
+	 * should be preserved before being purged from the database.
+	 * <p>
+	 * Search results are stored in the database so that they can be paged over multiple
+	 * requests. After this
+	 * number of milliseconds, they will be deleted from the database, and any paging links
+	 * (next/prev links in search response bundles) will become invalid. Defaults to 1 hour.
+	 * </p>
+	 * <p>
+	 * To disable this feature entirely, see {@link #setExpireSearchResults(boolean)}
+	 * </p>
+	 *
+	 * @since 1.5
+	 */
+	public long getExpireSearchResultsAfterMillis() {
+		return myExpireSearchResultsAfterMillis;
+	}
+
+	/**
+	 * Sets the number of milliseconds that search results for a given client search
+	 * should be preserved before being purged from the database.
+	 * <p>
+	 * Search results are stored in the database so that they can be paged over multiple
+	 * requests. After this
+	 * number of milliseconds, they will be deleted from the database, and any paging links
+	 * (next/prev links in search response bundles) will become invalid. Defaults to 1 hour.
+	 * </p>
+	 * <p>
+	 * To disable this feature entirely, see {@link #setExpireSearchResults(boolean)}
+	 * </p>
+	 *
+	 * @since 1.5
+	 */
+	public void setExpireSearchResultsAfterMillis(long theExpireSearchResultsAfterMillis) {
+		myExpireSearchResultsAfterMillis = theExpireSearchResultsAfterMillis;
+	}
+
+	/**
+	 * Gets the default maximum number of results to load in a query.
+	 * <p>
+	 * For example, if the database has a million Patient resources in it, and
+	 * the client requests <code>GET /Patient</code>, if this value is set
+	 * to a non-null value (default is <code>null</code>) only this number
+	 * of results will be fetched. Setting this value appropriately
+	 * can be useful to improve performance in some situations.
+	 * </p>
+	 */
+	public Integer getFetchSizeDefaultMaximum() {
+		return myFetchSizeDefaultMaximum;
+	}
+
+	/**
+	 * Gets the default maximum number of results to load in a query.
+	 * <p>
+	 * For example, if the database has a million Patient resources in it, and
+	 * the client requests <code>GET /Patient</code>, if this value is set
+	 * to a non-null value (default is <code>null</code>) only this number
+	 * of results will be fetched. Setting this value appropriately
+	 * can be useful to improve performance in some situations.
+	 * </p>
+	 */
+	public void setFetchSizeDefaultMaximum(Integer theFetchSizeDefaultMaximum) {
+		myFetchSizeDefaultMaximum = theFetchSizeDefaultMaximum;
+	}
+
+	/**
+	 * Gets the maximum number of results to return in a GetTags query (DSTU1 only)
+	 */
+	public int getHardTagListLimit() {
+		return myHardTagListLimit;
+	}
+
+	/**
+	 * Gets the maximum number of results to return in a GetTags query (DSTU1 only)
+	 */
+	public void setHardTagListLimit(int theHardTagListLimit) {
+		myHardTagListLimit = theHardTagListLimit;
+	}
+
+	/**
+	 * If set to {@link IndexEnabledEnum#DISABLED} (default is {@link IndexEnabledEnum#DISABLED})
+	 * the server will not create search indexes for search parameters with no values in resources.
+	 * <p>
+	 * Disabling this feature means that the <code>:missing</code> search modifier will not be
+	 * supported on the server, but also means that storage and indexing (i.e. writes to the
+	 * database) may be much faster on servers which have lots of search parameters and need
+	 * to write quickly.
+	 * </p>
+	 * <p>
+	 * This feature may be enabled on servers where supporting the use of the :missing parameter is
+	 * of higher importance than raw write performance
+	 * </p>
+	 */
+	public IndexEnabledEnum getIndexMissingFields() {
+		return myIndexMissingFieldsEnabled;
+	}
+
+	/**
+	 * If set to {@link IndexEnabledEnum#DISABLED} (default is {@link IndexEnabledEnum#DISABLED})
+	 * the server will not create search indexes for search parameters with no values in resources.
+	 * <p>
+	 * Disabling this feature means that the <code>:missing</code> search modifier will not be
+	 * supported on the server, but also means that storage and indexing (i.e. writes to the
+	 * database) may be much faster on servers which have lots of search parameters and need
+	 * to write quickly.
+	 * </p>
+	 * <p>
+	 * This feature may be enabled on servers where supporting the use of the :missing parameter is
+	 * of higher importance than raw write performance
+	 * </p>
+	 * <p>
+	 * Note that this setting also has an impact on sorting (i.e. using the
+	 * <code>_sort</code> parameter on searches): If the server is configured
+	 * to not index missing field.
+	 * </p>
+	 */
+	public void setIndexMissingFields(IndexEnabledEnum theIndexMissingFields) {
+		Validate.notNull(theIndexMissingFields, "theIndexMissingFields must not be null");
+		myIndexMissingFieldsEnabled = theIndexMissingFields;
+	}
+
+	/**
+	 * See {@link #setMaximumExpansionSize(int)}
+	 */
+	public int getMaximumExpansionSize() {
+		return myMaximumExpansionSize;
+	}
+
+	/**
+	 * Sets the maximum number of codes that will be added to an in-memory valueset expansion before
+	 * the operation will be failed as too costly. Note that this setting applies only to
+	 * in-memory expansions and does not apply to expansions that are being pre-calculated.
+	 * <p>
+	 * The default value for this setting is 1000.
+	 * </p>
+	 */
+	public void setMaximumExpansionSize(int theMaximumExpansionSize) {
+		Validate.isTrue(theMaximumExpansionSize > 0, "theMaximumExpansionSize must be > 0");
+		myMaximumExpansionSize = theMaximumExpansionSize;
+	}
+
+	/**
+	 * Provides the maximum number of results which may be returned by a search (HTTP GET) which
+	 * is executed as a sub-operation within within a FHIR <code>transaction</code> or
+	 * <code>batch</code> operation. For example, if this value is set to <code>100</code> and
+	 * a FHIR transaction is processed with a sub-request for <code>Patient?gender=male</code>,
+	 * the server will throw an error (and the transaction will fail) if there are more than
+	 * 100 resources on the server which match this query.
+	 * <p>
+	 * The default value is <code>null</code>, which means that there is no limit.
+	 * </p>
+	 */
+	public Integer getMaximumSearchResultCountInTransaction() {
+		return myMaximumSearchResultCountInTransaction;
+	}
+
+	/**
+	 * Provides the maximum number of results which may be returned by a search (HTTP GET) which
+	 * is executed as a sub-operation within within a FHIR <code>transaction</code> or
+	 * <code>batch</code> operation. For example, if this value is set to <code>100</code> and
+	 * a FHIR transaction is processed with a sub-request for <code>Patient?gender=male</code>,
+	 * the server will throw an error (and the transaction will fail) if there are more than
+	 * 100 resources on the server which match this query.
+	 * <p>
+	 * The default value is <code>null</code>, which means that there is no limit.
+	 * </p>
+	 */
+	public void setMaximumSearchResultCountInTransaction(Integer theMaximumSearchResultCountInTransaction) {
+		myMaximumSearchResultCountInTransaction = theMaximumSearchResultCountInTransaction;
+	}
+
+	/**
+	 * Specifies the maximum number of resources permitted within a single transaction bundle.
+	 * If a transaction bundle is submitted with more than this number of resources, it will be
+	 * rejected with a PayloadTooLarge exception.
+	 * <p>
+	 * The default value is <code>null</code>, which means that there is no limit.
+	 * </p>
+	 */
+	public Integer getMaximumTransactionBundleSize() {
+		return myMaximumTransactionBundleSize;
+	}
+
+	/**
+	 * Specifies the maximum number of resources permitted within a single transaction bundle.
+	 * If a transaction bundle is submitted with more than this number of resources, it will be
+	 * rejected with a PayloadTooLarge exception.
+	 * <p>
+	 * The default value is <code>null</code>, which means that there is no limit.
+	 * </p>
+	 */
+	public DaoConfig setMaximumTransactionBundleSize(Integer theMaximumTransactionBundleSize) {
+		myMaximumTransactionBundleSize = theMaximumTransactionBundleSize;
+		return this;
+	}
+
+	/**
+	 * This setting controls the number of threads allocated to resource reindexing
+	 * (which is only ever used if SearchParameters change, or a manual reindex is
+	 * triggered due to a HAPI FHIR upgrade or some other reason).
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 */
+	public int getReindexThreadCount() {
+		return myReindexThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads allocated to resource reindexing
+	 * (which is only ever used if SearchParameters change, or a manual reindex is
+	 * triggered due to a HAPI FHIR upgrade or some other reason).
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 */
+	public void setReindexThreadCount(int theReindexThreadCount) {
+		myReindexThreadCount = theReindexThreadCount;
+		myReindexThreadCount = Math.max(myReindexThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * This setting controls the maximum number of resources that are reindexed within a
+	 * single database transaction. Resources in a batch are loaded together along with
+	 * their current indexes. Larger ranges of resources are split into batches of this
+	 * size, which are distributed across the {@link #getReindexThreadCount() reindex threads}.
+	 * <p>
+	 * The default value is {@value #DEFAULT_REINDEX_BATCH_SIZE}. Value for this setting must
+	 * be a positive integer.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public int getReindexBatchSize() {
+		return myReindexBatchSize;
+	}
+
+	/**
+	 * This setting controls the maximum number of resources that are reindexed within a
+	 * single database transaction. Resources in a batch are loaded together along with
+	 * their current indexes. Larger ranges of resources are split into batches of this
+	 * size, which are distributed across the {@link #getReindexThreadCount() reindex threads}.
+	 * <p>
+	 * The default value is {@value #DEFAULT_REINDEX_BATCH_SIZE}. Value for this setting must
+	 * be a positive integer.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setReindexBatchSize(int theReindexBatchSize) {
+		myReindexBatchSize = Math.max(theReindexBatchSize, 1); // Minimum of 1
+	}
+
+	/**
+	 * If set, resource reindexing is throttled so that no more than the given number of
+	 * resources are reindexed per second across all reindex threads. This can be used to limit
+	 * the impact of a large reindex job on live traffic.
+	 * <p>
+	 * The default value is <code>null</code>, meaning that reindexing is not throttled.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public Integer getReindexMaxResourcesPerSecond() {
+		return myReindexMaxResourcesPerSecond;
+	}
+
+	/**
+	 * If set, resource reindexing is throttled so that no more than the given number of
+	 * resources are reindexed per second across all reindex threads. This can be used to limit
+	 * the impact of a large reindex job on live traffic.
+	 * <p>
+	 * The default value is <code>null</code>, meaning that reindexing is not throttled.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setReindexMaxResourcesPerSecond(Integer theReindexMaxResourcesPerSecond) {
+		Validate.isTrue(theReindexMaxResourcesPerSecond == null || theReindexMaxResourcesPerSecond > 0, "theReindexMaxResourcesPerSecond must be null or positive");
+		myReindexMaxResourcesPerSecond = theReindexMaxResourcesPerSecond;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), search parameter index rows which are added or removed
+	 * while processing a FHIR transaction or a reindexing batch are collected across all of the resources
+	 * being processed, and are then written together grouped by index table. Removed rows are deleted
+	 * using multi-row deletes and added rows are inserted using JDBC batches.
+	 * <p>
+	 * This can significantly reduce the number of database round trips when loading large transaction
+	 * bundles, at the cost of holding the pending index rows in memory until the end of the batch.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isIndexWriteBatchingEnabled() {
+		return myIndexWriteBatchingEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), search parameter index rows which are added or removed
+	 * while processing a FHIR transaction or a reindexing batch are collected across all of the resources
+	 * being processed, and are then written together grouped by index table. Removed rows are deleted
+	 * using multi-row deletes and added rows are inserted using JDBC batches.
+	 * <p>
+	 * This can significantly reduce the number of database round trips when loading large transaction
+	 * bundles, at the cost of holding the pending index rows in memory until the end of the batch.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setIndexWriteBatchingEnabled(boolean theIndexWriteBatchingEnabled) {
+		myIndexWriteBatchingEnabled = theIndexWriteBatchingEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), bulk export files are generated by a pipeline in which
+	 * the resource ID scan, the resource fetch and the NDJSON encoding for each resource type run as separate
+	 * stages connected by bounded queues. The encoded output is streamed directly into the configured
+	 * binary storage service instead of being buffered in memory and stored in the <code>Binary</code>
+	 * resource body, so an <code>IBinaryStorageSvc</code> must be configured in order to use this mode.
+	 * <p>
+	 * Note that files larger than the automatic de-externalization limit of the binary storage interceptor
+	 * are not inlined when the <code>Binary</code> is read, and should be fetched using the
+	 * <code>$binary-access-read</code> operation.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isBulkExportPipelineEnabled() {
+		return myBulkExportPipelineEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), bulk export files are generated by a pipeline in which
+	 * the resource ID scan, the resource fetch and the NDJSON encoding for each resource type run as separate
+	 * stages connected by bounded queues. The encoded output is streamed directly into the configured
+	 * binary storage service instead of being buffered in memory and stored in the <code>Binary</code>
+	 * resource body, so an <code>IBinaryStorageSvc</code> must be configured in order to use this mode.
+	 * <p>
+	 * Note that files larger than the automatic de-externalization limit of the binary storage interceptor
+	 * are not inlined when the <code>Binary</code> is read, and should be fetched using the
+	 * <code>$binary-access-read</code> operation.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setBulkExportPipelineEnabled(boolean theBulkExportPipelineEnabled) {
+		myBulkExportPipelineEnabled = theBulkExportPipelineEnabled;
+	}
+
+	/**
+	 * This setting controls the number of threads used by each resource type in the bulk export pipeline
+	 * to fetch and encode resources. Only used if {@link #setBulkExportPipelineEnabled(boolean)} is enabled.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public int getBulkExportPipelineThreadCount() {
+		return myBulkExportPipelineThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads used by each resource type in the bulk export pipeline
+	 * to fetch and encode resources. Only used if {@link #setBulkExportPipelineEnabled(boolean)} is enabled.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setBulkExportPipelineThreadCount(int theBulkExportPipelineThreadCount) {
+		myBulkExportPipelineThreadCount = theBulkExportPipelineThreadCount;
+		myBulkExportPipelineThreadCount = Math.max(myBulkExportPipelineThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * The maximum number of resources written to each file generated by the bulk export pipeline. Only
+	 * used if {@link #setBulkExportPipelineEnabled(boolean)} is enabled.
+	 * <p>
+	 * The default value is {@link #DEFAULT_BULK_EXPORT_PIPELINE_RESOURCES_PER_FILE}.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public int getBulkExportPipelineResourcesPerFile() {
+		return myBulkExportPipelineResourcesPerFile;
+	}
+
+	/**
+	 * The maximum number of resources written to each file generated by the bulk export pipeline. Only
+	 * used if {@link #setBulkExportPipelineEnabled(boolean)} is enabled.
+	 * <p>
+	 * The default value is {@link #DEFAULT_BULK_EXPORT_PIPELINE_RESOURCES_PER_FILE}.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setBulkExportPipelineResourcesPerFile(int theBulkExportPipelineResourcesPerFile) {
+		Validate.isTrue(theBulkExportPipelineResourcesPerFile > 0, "theBulkExportPipelineResourcesPerFile must be positive");
+		myBulkExportPipelineResourcesPerFile = theBulkExportPipelineResourcesPerFile;
+	}
+
+	/**
+	 * If set, the <code>$import</code> operation may read NDJSON input files from the local filesystem
+	 * using <code>file:</code> URLs, but only for files located within this directory (or one of its
+	 * subdirectories). If not set (which is the default), only <code>Binary</code> resources stored on
+	 * this server may be used as import sources.
+	 *
+	 * @since 5.3.0
+	 */
+	public String getBulkImportLocalDirectory() {
+		return myBulkImportLocalDirectory;
+	}
+
+	/**
+	 * If set, the <code>$import</code> operation may read NDJSON input files from the local filesystem
+	 * using <code>file:</code> URLs, but only for files located within this directory (or one of its
+	 * subdirectories). If not set (which is the default), only <code>Binary</code> resources stored on
+	 * this server may be used as import sources.
+	 *
+	 * @since 5.3.0
+	 */
+	public void setBulkImportLocalDirectory(String theBulkImportLocalDirectory) {
+		myBulkImportLocalDirectory = theBulkImportLocalDirectory;
+	}
+
+	/**
+	 * This setting controls the number of threads used by the <code>$import</code> operation to
+	 * extract search parameter values from each chunk of resources before it is stored. Chunks
+	 * themselves are always stored one at a time, in the order they appear in the input files.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer. Changes to this setting
+	 * only take effect when the server is restarted.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public int getBulkImportThreadCount() {
+		return myBulkImportThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads used by the <code>$import</code> operation to
+	 * extract search parameter values from each chunk of resources before it is stored. Chunks
+	 * themselves are always stored one at a time, in the order they appear in the input files.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer. Changes to this setting
+	 * only take effect when the server is restarted.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setBulkImportThreadCount(int theBulkImportThreadCount) {
+		myBulkImportThreadCount = theBulkImportThreadCount;
+		myBulkImportThreadCount = Math.max(myBulkImportThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * This setting controls the number of input lines which the <code>$import</code> operation may
+	 * skip because they can not be parsed or stored. Skipped lines are reported to the client
+	 * polling the job. If more lines than this are skipped the job fails, although any resources
+	 * which have already been stored are kept. Set to <code>0</code> to fail the job on the first
+	 * invalid line.
+	 * <p>
+	 * The default value is {@value #DEFAULT_BULK_IMPORT_SKIP_LIMIT}.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public int getBulkImportSkipLimit() {
+		return myBulkImportSkipLimit;
+	}
+
+	/**
+	 * This setting controls the number of input lines which the <code>$import</code> operation may
+	 * skip because they can not be parsed or stored. Skipped lines are reported to the client
+	 * polling the job. If more lines than this are skipped the job fails, although any resources
+	 * which have already been stored are kept. Set to <code>0</code> to fail the job on the first
+	 * invalid line.
+	 * <p>
+	 * The default value is {@value #DEFAULT_BULK_IMPORT_SKIP_LIMIT}.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setBulkImportSkipLimit(int theBulkImportSkipLimit) {
+		myBulkImportSkipLimit = Math.max(theBulkImportSkipLimit, 0);
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), the conditional create and conditional update
+	 * entries in a FHIR transaction which match on a single <code>identifier</code> (e.g.
+	 * <code>Patient?identifier=http://foo|123</code>) are resolved ahead of time using one
+	 * database query per resource type, instead of one search per entry.
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isTransactionConditionalMatchPrefetchEnabled() {
+		return myTransactionConditionalMatchPrefetchEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), the conditional create and conditional update
+	 * entries in a FHIR transaction which match on a single <code>identifier</code> (e.g.
+	 * <code>Patient?identifier=http://foo|123</code>) are resolved ahead of time using one
+	 * database query per resource type, instead of one search per entry.
+	 *
+	 * @since 5.3.0
+	 */
+	public void setTransactionConditionalMatchPrefetchEnabled(boolean theTransactionConditionalMatchPrefetchEnabled) {
+		myTransactionConditionalMatchPrefetchEnabled = theTransactionConditionalMatchPrefetchEnabled;
+	}
+
+	/**
+	 * This setting controls the number of threads used to extract the search parameter values
+	 * for the resources in a FHIR transaction before they are indexed. The extracted values
+	 * are then used when the resources are indexed, as long as the resource has not been
+	 * modified in the meantime (e.g. by an interceptor).
+	 * <p>
+	 * The default value is <code>1</code>, which means that search parameters are extracted
+	 * by the thread processing the transaction as each resource is indexed.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public int getTransactionSearchParamExtractionThreadCount() {
+		return myTransactionSearchParamExtractionThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads used to extract the search parameter values
+	 * for the resources in a FHIR transaction before they are indexed. The extracted values
+	 * are then used when the resources are indexed, as long as the resource has not been
+	 * modified in the meantime (e.g. by an interceptor).
+	 * <p>
+	 * The default value is <code>1</code>, which means that search parameters are extracted
+	 * by the thread processing the transaction as each resource is indexed.
+	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setTransactionSearchParamExtractionThreadCount(int theTransactionSearchParamExtractionThreadCount) {
+		myTransactionSearchParamExtractionThreadCount = theTransactionSearchParamExtractionThreadCount;
+		myTransactionSearchParamExtractionThreadCount = Math.max(myTransactionSearchParamExtractionThreadCount, 1); // Minimum of 1
 	}
 
 	/**
-	 * Unlike with normal search queries, $everything queries have their _includes loaded by the main search thread and these included results
-	 * are added to the normal search results instead of being added on as extras in a page. This means that they will not appear multiple times
-	 * as the search results are paged over.
+	 * If enabled (default is <code>false</code>), REST-hook subscription payloads are delivered
+	 * using a non-blocking HTTP client instead of being sent by the delivery channel thread.
+	 * The channel thread only prepares the payload and queues it for the endpoint, so a slow
+	 * or unreachable endpoint does not hold up deliveries to other endpoints.
 	 * <p>
-	 * In order to recursively load _includes, we process the original results in batches of this size. Adjust with caution, increasing this
-	 * value may improve performance but may also cause memory issues.
+	 * When this setting is enabled, the {@link ca.uhn.fhir.interceptor.api.Pointcut#SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY}
+	 * pointcut is invoked once the endpoint has accepted the delivery, and the
+	 * {@link ca.uhn.fhir.interceptor.api.Pointcut#SUBSCRIPTION_AFTER_DELIVERY_FAILED} pointcut is
+	 * invoked if it still fails after {@link #getRestHookDeliveryMaxAttempts() the maximum number of attempts}.
 	 * </p>
 	 * <p>
-	 * The default value is 50
+	 * Note that the delivery message is considered to be handled as soon as it has been queued.
+	 * Deliveries which are queued or waiting to be retried are only held in memory, so they are
+	 * lost if the server is stopped or restarted before they have been sent.
 	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public int getEverythingIncludesFetchPageSize() {
-		return myEverythingIncludesFetchPageSize;
+	public boolean isRestHookAsyncDeliveryEnabled() {
+		return myRestHookAsyncDeliveryEnabled;
 	}
 
 	/**
-	 * Unlike with normal search queries, $everything queries have their _includes loaded by the main search thread and these included results
-	 * are added to the normal search results instead of being added on as extras in a page. This means that they will not appear multiple times
-	 * as the search results are paged over.
+	 * If enabled (default is <code>false</code>), REST-hook subscription payloads are delivered
+	 * using a non-blocking HTTP client instead of being sent by the delivery channel thread.
+	 * The channel thread only prepares the payload and queues it for the endpoint, so a slow
+	 * or unreachable endpoint does not hold up deliveries to other endpoints.
 	 * <p>
-	 * In order to recursively load _includes, we process the original results in batches of this size. Adjust with caution, increasing this
-	 * value may improve performance but may also cause memory issues.
+	 * When this setting is enabled, the {@link ca.uhn.fhir.interceptor.api.Pointcut#SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY}
+	 * pointcut is invoked once the endpoint has accepted the delivery, and the
+	 * {@link ca.uhn.fhir.interceptor.api.Pointcut#SUBSCRIPTION_AFTER_DELIVERY_FAILED} pointcut is
+	 * invoked if it still fails after {@link #getRestHookDeliveryMaxAttempts() the maximum number of attempts}.
 	 * </p>
 	 * <p>
-	 * The default value is 50
+	 * Note that the delivery message is considered to be handled as soon as it has been queued.
+	 * Deliveries which are queued or waiting to be retried are only held in memory, so they are
+	 * lost if the server is stopped or restarted before they have been sent.
 	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public void setEverythingIncludesFetchPageSize(int theEverythingIncludesFetchPageSize) {
-		Validate.inclusiveBetween(1, Integer.MAX_VALUE, theEverythingIncludesFetchPageSize);
-		myEverythingIncludesFetchPageSize = theEverythingIncludesFetchPageSize;
+	public void setRestHookAsyncDeliveryEnabled(boolean theRestHookAsyncDeliveryEnabled) {
+		myRestHookAsyncDeliveryEnabled = theRestHookAsyncDeliveryEnabled;
 	}
 
 	/**
-	 * Sets the number of milliseconds that search results for a given client search
-	 * should be preserved before being purged from the database.
-	 * <p>
-	 * Search results are stored in the database so that they can be paged over multiple
-	 * requests. After this
-	 * number of milliseconds, they will be deleted from the database, and any paging links
-	 * (next/prev links in search response bundles) will become invalid. Defaults to 1 hour.
-	 * </p>
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the maximum number of requests which can be in progress at the same time for
+	 * a single endpoint. Deliveries beyond this limit wait in a queue for that endpoint.
 	 * <p>
-	 * To disable this feature entirely, see {@link #setExpireSearchResults(boolean)}
+	 * The default value is <code>4</code>.
 	 * </p>
 	 *
-	 * @since 1.5
+	 * @since 5.3.0
 	 */
-	public long getExpireSearchResultsAfterMillis() {
-		return myExpireSearchResultsAfterMillis;
+	public int getRestHookMaxConcurrentDeliveriesPerEndpoint() {
+		return myRestHookMaxConcurrentDeliveriesPerEndpoint;
 	}
 
 	/**
-	 * Sets the number of milliseconds that search results for a given client search
-	 * should be preserved before being purged from the database.
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the maximum number of requests which can be in progress at the same time for
+	 * a single endpoint. Deliveries beyond this limit wait in a queue for that endpoint.
 	 * <p>
-	 * Search results are stored in the database so that they can be paged over multiple
-	 * requests. After this
-	 * number of milliseconds, they will be deleted from the database, and any paging links
-	 * (next/prev links in search response bundles) will become invalid. Defaults to 1 hour.
+	 * The default value is <code>4</code>.
 	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setRestHookMaxConcurrentDeliveriesPerEndpoint(int theRestHookMaxConcurrentDeliveriesPerEndpoint) {
+		myRestHookMaxConcurrentDeliveriesPerEndpoint = theRestHookMaxConcurrentDeliveriesPerEndpoint;
+		myRestHookMaxConcurrentDeliveriesPerEndpoint = Math.max(myRestHookMaxConcurrentDeliveriesPerEndpoint, 1); // Minimum of 1
+	}
+
+	/**
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the maximum number of queued payloads for a single endpoint which can be
+	 * combined into one FHIR transaction Bundle and delivered with a single request. Payloads are
+	 * only combined when they are already waiting in the queue, so this never delays a delivery.
+	 * Deliveries without a payload, and subscriptions with a payload search criteria, are always
+	 * delivered individually.
 	 * <p>
-	 * To disable this feature entirely, see {@link #setExpireSearchResults(boolean)}
+	 * The default value is <code>1</code>, which means that each payload is delivered with its own request.
 	 * </p>
 	 *
-	 * @since 1.5
+	 * @since 5.3.0
 	 */
-	public void setExpireSearchResultsAfterMillis(long theExpireSearchResultsAfterMillis) {
-		myExpireSearchResultsAfterMillis = theExpireSearchResultsAfterMillis;
+	public int getRestHookDeliveryBatchSize() {
+		return myRestHookDeliveryBatchSize;
 	}
 
 	/**
-	 * Gets the default maximum number of results to load in a query.
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the maximum number of queued payloads for a single endpoint which can be
+	 * combined into one FHIR transaction Bundle and delivered with a single request. Payloads are
+	 * only combined when they are already waiting in the queue, so this never delays a delivery.
+	 * Deliveries without a payload, and subscriptions with a payload search criteria, are always
+	 * delivered individually.
 	 * <p>
-	 * For example, if the database has a million Patient resources in it, and
-	 * the client requests <code>GET /Patient</code>, if this value is set
-	 * to a non-null value (default is <code>null</code>) only this number
-	 * of results will be fetched. Setting this value appropriately
-	 * can be useful to improve performance in some situations.
+	 * The default value is <code>1</code>, which means that each payload is delivered with its own request.
 	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public Integer getFetchSizeDefaultMaximum() {
-		return myFetchSizeDefaultMaximum;
+	public void setRestHookDeliveryBatchSize(int theRestHookDeliveryBatchSize) {
+		myRestHookDeliveryBatchSize = theRestHookDeliveryBatchSize;
+		myRestHookDeliveryBatchSize = Math.max(myRestHookDeliveryBatchSize, 1); // Minimum of 1
 	}
 
 	/**
-	 * Gets the default maximum number of results to load in a query.
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the number of times that a delivery is attempted before it is abandoned.
 	 * <p>
-	 * For example, if the database has a million Patient resources in it, and
-	 * the client requests <code>GET /Patient</code>, if this value is set
-	 * to a non-null value (default is <code>null</code>) only this number
-	 * of results will be fetched. Setting this value appropriately
-	 * can be useful to improve performance in some situations.
+	 * The default value is <code>5</code>.
 	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public void setFetchSizeDefaultMaximum(Integer theFetchSizeDefaultMaximum) {
-		myFetchSizeDefaultMaximum = theFetchSizeDefaultMaximum;
+	public int getRestHookDeliveryMaxAttempts() {
+		return myRestHookDeliveryMaxAttempts;
 	}
 
 	/**
-	 * Gets the maximum number of results to return in a GetTags query (DSTU1 only)
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the number of times that a delivery is attempted before it is abandoned.
+	 * <p>
+	 * The default value is <code>5</code>.
+	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public int getHardTagListLimit() {
-		return myHardTagListLimit;
+	public void setRestHookDeliveryMaxAttempts(int theRestHookDeliveryMaxAttempts) {
+		myRestHookDeliveryMaxAttempts = theRestHookDeliveryMaxAttempts;
+		myRestHookDeliveryMaxAttempts = Math.max(myRestHookDeliveryMaxAttempts, 1); // Minimum of 1
 	}
 
 	/**
-	 * Gets the maximum number of results to return in a GetTags query (DSTU1 only)
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls how long to wait before a failed delivery is retried. The delay is doubled
+	 * after each failed attempt. No thread is held while waiting.
+	 * <p>
+	 * The default value is <code>1000</code> (1 second).
+	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public void setHardTagListLimit(int theHardTagListLimit) {
-		myHardTagListLimit = theHardTagListLimit;
+	public long getRestHookDeliveryRetryBackoffMillis() {
+		return myRestHookDeliveryRetryBackoffMillis;
 	}
 
 	/**
-	 * If set to {@link IndexEnabledEnum#DISABLED} (default is {@link IndexEnabledEnum#DISABLED})
-	 * the server will not create search indexes for search parameters with no values in resources.
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls how long to wait before a failed delivery is retried. The delay is doubled
+	 * after each failed attempt. No thread is held while waiting.
 	 * <p>
-	 * Disabling this feature means that the <code>:missing</code> search modifier will not be
-	 * supported on the server, but also means that storage and indexing (i.e. writes to the
-	 * database) may be much faster on servers which have lots of search parameters and need
-	 * to write quickly.
+	 * The default value is <code>1000</code> (1 second).
 	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setRestHookDeliveryRetryBackoffMillis(long theRestHookDeliveryRetryBackoffMillis) {
+		myRestHookDeliveryRetryBackoffMillis = theRestHookDeliveryRetryBackoffMillis;
+	}
+
+	/**
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the maximum number of deliveries which can be waiting in the queue for a single
+	 * endpoint. Once the queue is full, further deliveries for that endpoint are rejected and the
+	 * delivery message fails, so that it is retried by the subscription delivery channel instead of
+	 * being held in memory. Deliveries which are being retried after a failed attempt count towards
+	 * this limit, but are never rejected.
 	 * <p>
-	 * This feature may be enabled on servers where supporting the use of the :missing parameter is
-	 * of higher importance than raw write performance
+	 * The default value is <code>10000</code>.
 	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public IndexEnabledEnum getIndexMissingFields() {
-		return myIndexMissingFieldsEnabled;
+	public int getRestHookMaxQueuedDeliveriesPerEndpoint() {
+		return myRestHookMaxQueuedDeliveriesPerEndpoint;
 	}
 
 	/**
-	 * If set to {@link IndexEnabledEnum#DISABLED} (default is {@link IndexEnabledEnum#DISABLED})
-	 * the server will not create search indexes for search parameters with no values in resources.
+	 * When {@link #isRestHookAsyncDeliveryEnabled() asynchronous REST-hook delivery} is enabled, this
+	 * setting controls the maximum number of deliveries which can be waiting in the queue for a single
+	 * endpoint. Once the queue is full, further deliveries for that endpoint are rejected and the
+	 * delivery message fails, so that it is retried by the subscription delivery channel instead of
+	 * being held in memory. Deliveries which are being retried after a failed attempt count towards
+	 * this limit, but are never rejected.
 	 * <p>
-	 * Disabling this feature means that the <code>:missing</code> search modifier will not be
-	 * supported on the server, but also means that storage and indexing (i.e. writes to the
-	 * database) may be much faster on servers which have lots of search parameters and need
-	 * to write quickly.
+	 * The default value is <code>10000</code>.
 	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public void setRestHookMaxQueuedDeliveriesPerEndpoint(int theRestHookMaxQueuedDeliveriesPerEndpoint) {
+		myRestHookMaxQueuedDeliveriesPerEndpoint = theRestHookMaxQueuedDeliveriesPerEndpoint;
+		myRestHookMaxQueuedDeliveriesPerEndpoint = Math.max(myRestHookMaxQueuedDeliveriesPerEndpoint, 1); // Minimum of 1
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), each terminology code system version stored in the
+	 * database is compiled into a read-only snapshot file the first time it is used, containing its
+	 * codes, displays and the transitive closure of its hierarchy. Code lookups, code validation,
+	 * subsumption testing and hierarchy (is-a) queries against the code system are then answered
+	 * from a memory-mapped copy of the file instead of from the database and fulltext index.
 	 * <p>
-	 * This feature may be enabled on servers where supporting the use of the :missing parameter is
-	 * of higher importance than raw write performance
+	 * Snapshot files are named according to the contents of the code system version, so several
+	 * servers on the same host which share a {@link #setTermCodeSystemSnapshotDirectory(String) snapshot directory}
+	 * will share the same files, and a new snapshot is built when the code system changes.
 	 * </p>
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isTermCodeSystemSnapshotsEnabled() {
+		return myTermCodeSystemSnapshotsEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), each terminology code system version stored in the
+	 * database is compiled into a read-only snapshot file the first time it is used, containing its
+	 * codes, displays and the transitive closure of its hierarchy. Code lookups, code validation,
+	 * subsumption testing and hierarchy (is-a) queries against the code system are then answered
+	 * from a memory-mapped copy of the file instead of from the database and fulltext index.
 	 * <p>
-	 * Note that this setting also has an impact on sorting (i.e. using the
-	 * <code>_sort</code> parameter on searches): If the server is configured
-	 * to not index missing field.
+	 * Snapshot files are named according to the contents of the code system version, so several
+	 * servers on the same host which share a {@link #setTermCodeSystemSnapshotDirectory(String) snapshot directory}
+	 * will share the same files, and a new snapshot is built when the code system changes.
 	 * </p>
+	 *
+	 * @since 5.3.0
 	 */
-	public void setIndexMissingFields(IndexEnabledEnum theIndexMissingFields) {
-		Validate.notNull(theIndexMissingFields, "theIndexMissingFields must not be null");
-		myIndexMissingFieldsEnabled = theIndexMissingFields;
+	public void setTermCodeSystemSnapshotsEnabled(boolean theTermCodeSystemSnapshotsEnabled) {
+		myTermCodeSystemSnapshotsEnabled = theTermCodeSystemSnapshotsEnabled;
 	}
 
 	/**
-	 * See {@link #setMaximumExpansionSize(int)}
+	 * When {@link #isTermCodeSystemSnapshotsEnabled() code system snapshots} are enabled, this is the
+	 * directory in which the snapshot files are stored. If not set (which is the default), a
+	 * subdirectory of the system temporary directory is used.
+	 *
+	 * @since 5.3.0
 	 */
-	public int getMaximumExpansionSize() {
-		return myMaximumExpansionSize;
+	public String getTermCodeSystemSnapshotDirectory() {
+		return myTermCodeSystemSnapshotDirectory;
 	}
 
 	/**
-	 * Sets the maximum number of codes that will be added to an in-memory valueset expansion before
-	 * the operation will be failed as too costly. Note that this setting applies only to
-	 * in-memory expansions and does not apply to expansions that are being pre-calculated.
-	 * <p>
-	 * The default value for this setting is 1000.
-	 * </p>
+	 * When {@link #isTermCodeSystemSnapshotsEnabled() code system snapshots} are enabled, this is the
+	 * directory in which the snapshot files are stored. If not set (which is the default), a
+	 * subdirectory of the system temporary directory is used.
+	 *
+	 * @since 5.3.0
 	 */
-	public void setMaximumExpansionSize(int theMaximumExpansionSize) {
-		Validate.isTrue(theMaximumExpansionSize > 0, "theMaximumExpansionSize must be > 0");
-		myMaximumExpansionSize = theMaximumExpansionSize;
+	public void setTermCodeSystemSnapshotDirectory(String theTermCodeSystemSnapshotDirectory) {
+		myTermCodeSystemSnapshotDirectory = theTermCodeSystemSnapshotDirectory;
 	}
 
 	/**
-	 * Provides the maximum number of results which may be returned by a search (HTTP GET) which
-	 * is executed as a sub-operation within within a FHIR <code>transaction</code> or
-	 * <code>batch</code> operation. For example, if this value is set to <code>100</code> and
-	 * a FHIR transaction is processed with a sub-request for <code>Patient?gender=male</code>,
-	 * the server will throw an error (and the transaction will fail) if there are more than
-	 * 100 resources on the server which match this query.
-	 * <p>
-	 * The default value is <code>null</code>, which means that there is no limit.
-	 * </p>
+	 * If enabled (default is <code>false</code>), the members of each pre-expanded ValueSet are loaded
+	 * into a compact in-memory structure the first time they are needed. Code validation against a
+	 * pre-expanded ValueSet and <code>:in</code>/<code>:not-in</code> token searches then use this
+	 * structure instead of reading the pre-expansion tables on every invocation.
+	 *
+	 * @since 5.3.0
 	 */
-	public Integer getMaximumSearchResultCountInTransaction() {
-		return myMaximumSearchResultCountInTransaction;
+	public boolean isPreExpandedValueSetMembershipCacheEnabled() {
+		return myPreExpandedValueSetMembershipCacheEnabled;
 	}
 
 	/**
-	 * Provides the maximum number of results which may be returned by a search (HTTP GET) which
-	 * is executed as a sub-operation within within a FHIR <code>transaction</code> or
-	 * <code>batch</code> operation. For example, if this value is set to <code>100</code> and
-	 * a FHIR transaction is processed with a sub-request for <code>Patient?gender=male</code>,
-	 * the server will throw an error (and the transaction will fail) if there are more than
-	 * 100 resources on the server which match this query.
-	 * <p>
-	 * The default value is <code>null</code>, which means that there is no limit.
-	 * </p>
+	 * If enabled (default is <code>false</code>), the members of each pre-expanded ValueSet are loaded
+	 * into a compact in-memory structure the first time they are needed. Code validation against a
+	 * pre-expanded ValueSet and <code>:in</code>/<code>:not-in</code> token searches then use this
+	 * structure instead of reading the pre-expansion tables on every invocation.
+	 *
+	 * @since 5.3.0
 	 */
-	public void setMaximumSearchResultCountInTransaction(Integer theMaximumSearchResultCountInTransaction) {
-		myMaximumSearchResultCountInTransaction = theMaximumSearchResultCountInTransaction;
+	public void setPreExpandedValueSetMembershipCacheEnabled(boolean thePreExpandedValueSetMembershipCacheEnabled) {
+		myPreExpandedValueSetMembershipCacheEnabled = thePreExpandedValueSetMembershipCacheEnabled;
 	}
 
 	/**
-	 * Specifies the maximum number of resources permitted within a single transaction bundle.
-	 * If a transaction bundle is submitted with more than this number of resources, it will be
-	 * rejected with a PayloadTooLarge exception.
-	 * <p>
-	 * The default value is <code>null</code>, which means that there is no limit.
-	 * </p>
+	 * When the {@link #isPreExpandedValueSetMembershipCacheEnabled() pre-expanded ValueSet membership cache}
+	 * is enabled, this is the maximum total number of concepts held in the cache across all ValueSets.
+	 * The least recently used ValueSets are evicted once this limit is reached. Default is 5000000.
+	 *
+	 * @since 5.3.0
 	 */
-	public Integer getMaximumTransactionBundleSize() {
-		return myMaximumTransactionBundleSize;
+	public long getPreExpandedValueSetMembershipCacheMaxConcepts() {
+		return myPreExpandedValueSetMembershipCacheMaxConcepts;
 	}
 
 	/**
-	 * Specifies the maximum number of resources permitted within a single transaction bundle.
-	 * If a transaction bundle is submitted with more than this number of resources, it will be
-	 * rejected with a PayloadTooLarge exception.
-	 * <p>
-	 * The default value is <code>null</code>, which means that there is no limit.
-	 * </p>
+	 * When the {@link #isPreExpandedValueSetMembershipCacheEnabled() pre-expanded ValueSet membership cache}
+	 * is enabled, this is the maximum total number of concepts held in the cache across all ValueSets.
+	 * The least recently used ValueSets are evicted once this limit is reached. Default is 5000000.
+	 *
+	 * @since 5.3.0
 	 */
-	public DaoConfig setMaximumTransactionBundleSize(Integer theMaximumTransactionBundleSize) {
-		myMaximumTransactionBundleSize = theMaximumTransactionBundleSize;
-		return this;
+	public void setPreExpandedValueSetMembershipCacheMaxConcepts(long thePreExpandedValueSetMembershipCacheMaxConcepts) {
+		myPreExpandedValueSetMembershipCacheMaxConcepts = Math.max(thePreExpandedValueSetMembershipCacheMaxConcepts, 1); // Minimum of 1
 	}
 
 	/**
-	 * This setting controls the number of threads allocated to resource reindexing
-	 * (which is only ever used if SearchParameters change, or a manual reindex is
-	 * triggered due to a HAPI FHIR upgrade or some other reason).
-	 * <p>
-	 * The default value is set to the number of available processors
-	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
-	 * for this setting must be a positive integer.
-	 * </p>
+	 * If enabled (default is <code>false</code>), terminology concepts, relationships, ValueSets and ConceptMaps
+	 * which are queued for deferred storage (e.g. while uploading a large code system such as SNOMED CT or LOINC)
+	 * are written by a dedicated background worker as soon as they are queued, and the worker keeps going until
+	 * the queue is empty. If disabled, the queue is only drained in small increments by a scheduled job
+	 * which runs every few seconds.
+	 *
+	 * @since 5.3.0
 	 */
-	public int getReindexThreadCount() {
-		return myReindexThreadCount;
+	public boolean isTermDeferredStorageWorkerEnabled() {
+		return myTermDeferredStorageWorkerEnabled;
 	}
 
 	/**
-	 * This setting controls the number of threads allocated to resource reindexing
-	 * (which is only ever used if SearchParameters change, or a manual reindex is
-	 * triggered due to a HAPI FHIR upgrade or some other reason).
-	 * <p>
-	 * The default value is set to the number of available processors
-	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
-	 * for this setting must be a positive integer.
-	 * </p>
+	 * If enabled (default is <code>false</code>), terminology concepts, relationships, ValueSets and ConceptMaps
+	 * which are queued for deferred storage (e.g. while uploading a large code system such as SNOMED CT or LOINC)
+	 * are written by a dedicated background worker as soon as they are queued, and the worker keeps going until
+	 * the queue is empty. If disabled, the queue is only drained in small increments by a scheduled job
+	 * which runs every few seconds.
+	 *
+	 * @since 5.3.0
 	 */
-	public void setReindexThreadCount(int theReindexThreadCount) {
-		myReindexThreadCount = theReindexThreadCount;
-		myReindexThreadCount = Math.max(myReindexThreadCount, 1); // Minimum of 1
+	public void setTermDeferredStorageWorkerEnabled(boolean theTermDeferredStorageWorkerEnabled) {
+		myTermDeferredStorageWorkerEnabled = theTermDeferredStorageWorkerEnabled;
 	}
 
 	/**
@@ -771,6 +1699,60 @@ public class DaoConfig {
 		myResourceEncoding = theResourceEncoding;
 	}
 
+	/**
+	 * If enabled (default is <code>false</code>) and the {@link #getResourceEncoding() resource encoding}
+	 * is {@link ResourceEncodingEnum#JSONZ}, a Zstandard compression dictionary is trained for each
+	 * resource type from a sample of the resources already stored, and is used to compress new
+	 * versions of resources of that type. Dictionaries are trained by a background job once enough
+	 * resources of a type have been stored, and until then resources are compressed without one.
+	 * Small resources typically compress considerably better with a dictionary than without one.
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isResourceEncodingDictionaryEnabled() {
+		return myResourceEncodingDictionaryEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>) and the {@link #getResourceEncoding() resource encoding}
+	 * is {@link ResourceEncodingEnum#JSONZ}, a Zstandard compression dictionary is trained for each
+	 * resource type from a sample of the resources already stored, and is used to compress new
+	 * versions of resources of that type. Dictionaries are trained by a background job once enough
+	 * resources of a type have been stored, and until then resources are compressed without one.
+	 * Small resources typically compress considerably better with a dictionary than without one.
+	 *
+	 * @since 5.3.0
+	 */
+	public void setResourceEncodingDictionaryEnabled(boolean theResourceEncodingDictionaryEnabled) {
+		myResourceEncodingDictionaryEnabled = theResourceEncodingDictionaryEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), a background job periodically converts stored
+	 * resource versions that use a different encoding than the configured
+	 * {@link #getResourceEncoding() resource encoding}, so that existing history benefits from a
+	 * change in encoding. Resource versions in any encoding remain readable whether or not this
+	 * job is enabled.
+	 *
+	 * @since 5.3.0
+	 */
+	public boolean isResourceReencodingEnabled() {
+		return myResourceReencodingEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), a background job periodically converts stored
+	 * resource versions that use a different encoding than the configured
+	 * {@link #getResourceEncoding() resource encoding}, so that existing history benefits from a
+	 * change in encoding. Resource versions in any encoding remain readable whether or not this
+	 * job is enabled.
+	 *
+	 * @since 5.3.0
+	 */
+	public void setResourceReencodingEnabled(boolean theResourceReencodingEnabled) {
+		myResourceReencodingEnabled = theResourceReencodingEnabled;
+	}
+
 	/**
 	 * If set, an individual resource will not be allowed to have more than the
 	 * given number of tags, profiles, and security labels (the limit is for the combined
@@ -2110,6 +3092,27 @@ public class DaoConfig {
 		}
 	}
 
+	/**
+	 * This enum provides allowable options for {@link #setSearchResultCacheMode(SearchResultCacheModeEnum)}
+	 */
+	public enum SearchResultCacheModeEnum {
+		/**
+		 * Search results are stored in the <code>HFJ_SEARCH_RESULT</code> table, so paging
+		 * works across a cluster and survives a restart.
+		 * <p><b>This is the default setting.</b></p>
+		 */
+		DATABASE,
+
+		/**
+		 * Search results are stored in compressed form in off-heap memory on the server that
+		 * performed the search, bounded by {@link #setSearchResultCacheMaxBytes(long)}. This avoids
+		 * writing a database row for every search result, but paging links only work on the server
+		 * that performed the search (e.g. a single server, or a cluster with sticky sessions),
+		 * and become invalid when the server restarts or the results are evicted.
+		 */
+		MEMORY
+	}
+
 	public enum IndexEnabledEnum {
 		ENABLED,
 		DISABLED
@@ -0,0 +1,126 @@
+package ca.uhn.fhir.jpa.bulk.api;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.jpa.bulk.model.BulkJobStatusEnum;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public interface IBulkDataImportSvc {
+
+	/**
+	 * Submits a new bulk import job
+	 *
+	 * @param theInputUrls The NDJSON files to import. Each URL must be either a local <code>Binary</code>
+	 *                     resource ID (e.g. <code>Binary/123</code>) or a <code>file:</code> URL located within
+	 *                     the directory configured in {@link ca.uhn.fhir.jpa.api.config.DaoConfig#setBulkImportLocalDirectory(String)}
+	 */
+	JobInfo submitJob(List<String> theInputUrls);
+
+	JobInfo getJobInfoOrThrowResourceNotFound(String theJobId);
+
+	class JobInfo {
+		private String myJobId;
+		private BulkJobStatusEnum myStatus;
+		private Date myStatusTime;
+		private String myStatusMessage;
+		private int myResourceCount;
+		private int myErrorCount;
+		private List<String> myErrors = new ArrayList<>();
+
+		public String getJobId() {
+			return myJobId;
+		}
+
+		public JobInfo setJobId(String theJobId) {
+			myJobId = theJobId;
+			return this;
+		}
+
+		public BulkJobStatusEnum getStatus() {
+			return myStatus;
+		}
+
+		public JobInfo setStatus(BulkJobStatusEnum theStatus) {
+			myStatus = theStatus;
+			return this;
+		}
+
+		public Date getStatusTime() {
+			return myStatusTime;
+		}
+
+		public JobInfo setStatusTime(Date theStatusTime) {
+			myStatusTime = theStatusTime;
+			return this;
+		}
+
+		public String getStatusMessage() {
+			return myStatusMessage;
+		}
+
+		public JobInfo setStatusMessage(String theStatusMessage) {
+			myStatusMessage = theStatusMessage;
+			return this;
+		}
+
+		/**
+		 * The number of resources which have been stored so far
+		 */
+		public int getResourceCount() {
+			return myResourceCount;
+		}
+
+		public JobInfo setResourceCount(int theResourceCount) {
+			myResourceCount = theResourceCount;
+			return this;
+		}
+
+		/**
+		 * The number of input lines which have been skipped so far because they could not be parsed or stored
+		 */
+		public int getErrorCount() {
+			return myErrorCount;
+		}
+
+		public JobInfo setErrorCount(int theErrorCount) {
+			myErrorCount = theErrorCount;
+			return this;
+		}
+
+		/**
+		 * Descriptions of the skipped input lines, each including the input file and line number. Only
+		 * the first errors are reported, so this list may be shorter than {@link #getErrorCount()}.
+		 */
+		public List<String> getErrors() {
+			return myErrors;
+		}
+
+		public JobInfo setErrors(List<String> theErrors) {
+			myErrors = theErrors;
+			return this;
+		}
+	}
+
+}
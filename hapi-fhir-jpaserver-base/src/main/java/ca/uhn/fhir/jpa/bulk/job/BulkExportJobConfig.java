@@ -65,6 +65,21 @@ public class BulkExportJobConfig {
 			.build();
 	}
 
+	/**
+	 * Variant of {@link #bulkExportJob()} which generates the files for each resource
+	 * type using a {@link PipelinedBulkExportTasklet}
+	 */
+	@Bean
+	@Lazy
+	public Job bulkExportPipelinedJob() {
+		return myJobBuilderFactory.get("bulkExportPipelinedJob")
+			.validator(bulkJobParameterValidator())
+			.start(createBulkExportEntityStep())
+			.next(pipelinedPartitionStep())
+			.next(closeJobStep())
+			.build();
+	}
+
 	@Bean
 	public Step createBulkExportEntityStep() {
 		return myStepBuilderFactory.get("createBulkExportEntityStep")
@@ -127,6 +142,28 @@ public class BulkExportJobConfig {
 			.build();
 	}
 
+	@Bean
+	public Step pipelinedPartitionStep() {
+		return myStepBuilderFactory.get("pipelinedPartitionStep")
+			.partitioner("bulkExportPipelinedResourceFilesStep", bulkExportResourceTypePartitioner())
+			.step(bulkExportPipelinedResourceFilesStep())
+			.build();
+	}
+
+	@Bean
+	public Step bulkExportPipelinedResourceFilesStep() {
+		return myStepBuilderFactory.get("bulkExportPipelinedResourceFilesStep")
+			.tasklet(pipelinedBulkExportTasklet())
+			.listener(bulkExportGenrateResourceFilesStepListener())
+			.build();
+	}
+
+	@Bean
+	@StepScope
+	public PipelinedBulkExportTasklet pipelinedBulkExportTasklet() {
+		return new PipelinedBulkExportTasklet();
+	}
+
 	@Bean
 	@StepScope
 	public BulkItemReader bulkItemReader(){
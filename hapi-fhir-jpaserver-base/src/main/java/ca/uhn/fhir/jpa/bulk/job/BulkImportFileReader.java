@@ -0,0 +1,203 @@
+package ca.uhn.fhir.jpa.bulk.job;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.batch.log.Logs;
+import ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.BinaryUtil;
+import ca.uhn.fhir.util.HapiExtensions;
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.instance.model.api.IBaseBinary;
+import org.hl7.fhir.instance.model.api.IBaseHasExtensions;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Optional;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Reads the input files of a bulk import job one line (i.e. one NDJSON resource) at a time. Files are
+ * streamed rather than loaded up front, so only the lines which are currently being processed need to
+ * be held in memory. Externalized <code>Binary</code> content is streamed from the binary storage
+ * service into a temporary file, which is deleted once it has been read.
+ * <p>
+ * Files are read in the order they were submitted, and lines are returned in file order, so
+ * resources may refer to resources which appear earlier in the same import.
+ * </p>
+ */
+public class BulkImportFileReader implements ItemStreamReader<BulkImportLine> {
+	private static final Logger ourLog = Logs.getBatchTroubleshootingLog();
+
+	@Autowired
+	private FhirContext myContext;
+	@Autowired
+	private DaoRegistry myDaoRegistry;
+	@Autowired(required = false)
+	private IBinaryStorageSvc myBinaryStorageSvc;
+
+	@Value("#{jobParameters['inputUrls']}")
+	private String myInputUrls;
+
+	private Deque<String> myRemainingInputUrls;
+	private BufferedReader myCurrentReader;
+	private String myCurrentUrl;
+	private int myCurrentLineNumber;
+
+	@Override
+	public void open(ExecutionContext theExecutionContext) throws ItemStreamException {
+		myRemainingInputUrls = new ArrayDeque<>(Arrays.asList(myInputUrls.split("\n")));
+	}
+
+	@Override
+	public BulkImportLine read() throws IOException {
+		while (true) {
+			if (myCurrentReader == null) {
+				String nextUrl = myRemainingInputUrls.poll();
+				if (nextUrl == null) {
+					return null;
+				}
+				ourLog.info("Bulk import is reading input file: {}", nextUrl);
+				InputStream inputStream;
+				try {
+					inputStream = openInputUrl(nextUrl);
+				} catch (BaseServerResponseException e) {
+					// Problems with an input file as a whole are never skipped
+					throw new ItemStreamException("Failed to open bulk import input file " + nextUrl + ": " + e.getMessage(), e);
+				}
+				myCurrentReader = new BufferedReader(new InputStreamReader(inputStream, Constants.CHARSET_UTF8));
+				myCurrentUrl = nextUrl;
+				myCurrentLineNumber = 0;
+			}
+
+			String nextLine = myCurrentReader.readLine();
+			if (nextLine == null) {
+				closeCurrentReader();
+			} else {
+				myCurrentLineNumber++;
+				if (isNotBlank(nextLine)) {
+					return new BulkImportLine(myCurrentUrl, myCurrentLineNumber, nextLine);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void update(ExecutionContext theExecutionContext) throws ItemStreamException {
+		// nothing - This reader is not restartable
+	}
+
+	@Override
+	public void close() throws ItemStreamException {
+		closeCurrentReader();
+	}
+
+	private void closeCurrentReader() {
+		IOUtils.closeQuietly(myCurrentReader);
+		myCurrentReader = null;
+		myCurrentUrl = null;
+	}
+
+	private InputStream openInputUrl(String theInputUrl) throws IOException {
+		if (theInputUrl.startsWith("file:")) {
+			return new FileInputStream(new File(URI.create(theInputUrl)));
+		}
+
+		@SuppressWarnings("unchecked")
+		IFhirResourceDao<IBaseBinary> binaryDao = myDaoRegistry.getResourceDao("Binary");
+		IBaseBinary binary = binaryDao.read(new IdType(theInputUrl));
+
+		IPrimitiveType<byte[]> data = BinaryUtil.getOrCreateData(myContext, binary);
+		byte[] bytes = data.getValue();
+		if (bytes != null) {
+			return new ByteArrayInputStream(bytes);
+		}
+
+		Optional<String> blobId = ((IBaseHasExtensions) data)
+				.getExtension()
+				.stream()
+				.filter(t -> HapiExtensions.EXT_EXTERNALIZED_BINARY_ID.equals(t.getUrl()))
+				.map(t -> ((IPrimitiveType<?>) t.getValue()).getValueAsString())
+				.findFirst();
+		if (blobId.isPresent()) {
+			if (myBinaryStorageSvc == null) {
+				throw new InternalErrorException("Binary " + theInputUrl + " is externalized but no binary storage service is configured");
+			}
+			IIdType binaryId = binary.getIdElement().toUnqualifiedVersionless();
+			return streamBlobToTemporaryFile(binaryId, blobId.get());
+		}
+
+		ourLog.warn("Bulk import input file {} has no content", theInputUrl);
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	/**
+	 * Blobs may be much larger than the available heap, so rather than fetching them as a byte
+	 * array they are copied into a temporary file which is deleted when the returned stream is closed.
+	 */
+	private InputStream streamBlobToTemporaryFile(IIdType theBinaryId, String theBlobId) throws IOException {
+		Path tempFile = Files.createTempFile("hapi-bulk-import-", ".ndjson");
+		try {
+			boolean found;
+			try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+				found = myBinaryStorageSvc.writeBlob(theBinaryId, theBlobId, outputStream);
+			}
+			if (!found) {
+				throw new InternalErrorException("Content for " + theBinaryId.getValue() + " was not found in binary storage (blob " + theBlobId + ")");
+			}
+			return Files.newInputStream(tempFile, StandardOpenOption.DELETE_ON_CLOSE);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempFile);
+			throw e;
+		}
+	}
+
+}
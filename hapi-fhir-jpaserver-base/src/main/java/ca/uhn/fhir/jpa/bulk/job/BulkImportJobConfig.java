@@ -0,0 +1,139 @@
+package ca.uhn.fhir.jpa.bulk.job;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.SkipListener;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.step.skip.LimitCheckingItemSkipPolicy;
+import org.springframework.batch.core.step.skip.SkipPolicy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.DefaultTransactionAttribute;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spring batch Job configuration file. Contains all necessary plumbing to run a
+ * Bulk Import job.
+ */
+@Configuration
+public class BulkImportJobConfig {
+
+	public static final String BULK_IMPORT_JOB_NAME = "bulkImportJob";
+	private static final int CHUNK_SIZE = 100;
+
+	@Autowired
+	private StepBuilderFactory myStepBuilderFactory;
+
+	@Autowired
+	private JobBuilderFactory myJobBuilderFactory;
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+
+	@Bean(name = BULK_IMPORT_JOB_NAME)
+	@Lazy
+	public Job bulkImportJob() {
+		return myJobBuilderFactory.get(BULK_IMPORT_JOB_NAME)
+			.start(bulkImportProcessFilesStep())
+			.build();
+	}
+
+	/**
+	 * Chunks are processed one at a time in file order, so that a resource can always refer to
+	 * a resource which appears earlier in the import. Each chunk is stored by the
+	 * {@link BulkImportResourceWriter} in its own database transaction, which must not be nested
+	 * inside a chunk transaction, so the step itself is not transactional.
+	 * <p>
+	 * Lines which can not be parsed or stored are skipped and reported by the
+	 * {@link BulkImportSkipListener} (when a chunk fails, its resources are retried one at a time
+	 * to find the offending lines). The job fails if more than
+	 * {@link DaoConfig#getBulkImportSkipLimit()} lines are skipped.
+	 * </p>
+	 */
+	@Bean
+	public Step bulkImportProcessFilesStep() {
+		return myStepBuilderFactory.get("bulkImportProcessFilesStep")
+			.<BulkImportLine, IBaseResource>chunk(CHUNK_SIZE)
+			.reader(bulkImportFileReader())
+			.processor(bulkImportParseProcessor())
+			.writer(bulkImportResourceWriter())
+			.faultTolerant()
+			.skipPolicy(bulkImportSkipPolicy())
+			.processorNonTransactional()
+			.listener((SkipListener<BulkImportLine, IBaseResource>) bulkImportSkipListener())
+			.listener((StepExecutionListener) bulkImportSkipListener())
+			.transactionAttribute(new DefaultTransactionAttribute(TransactionDefinition.PROPAGATION_NOT_SUPPORTED))
+			.build();
+	}
+
+	/**
+	 * Invalid content and storage failures for individual resources are skippable, but
+	 * internal errors (and anything which isn't a FHIR error) fail the job
+	 */
+	@Bean
+	@StepScope
+	public SkipPolicy bulkImportSkipPolicy() {
+		Map<Class<? extends Throwable>, Boolean> skippableExceptions = new HashMap<>();
+		skippableExceptions.put(DataFormatException.class, true);
+		skippableExceptions.put(BaseServerResponseException.class, true);
+		skippableExceptions.put(InternalErrorException.class, false);
+		return new LimitCheckingItemSkipPolicy(myDaoConfig.getBulkImportSkipLimit(), skippableExceptions);
+	}
+
+	@Bean
+	@StepScope
+	public BulkImportSkipListener bulkImportSkipListener() {
+		return new BulkImportSkipListener();
+	}
+
+	@Bean
+	@StepScope
+	public BulkImportFileReader bulkImportFileReader() {
+		return new BulkImportFileReader();
+	}
+
+	@Bean
+	public BulkImportParseProcessor bulkImportParseProcessor() {
+		return new BulkImportParseProcessor();
+	}
+
+	@Bean
+	public BulkImportResourceWriter bulkImportResourceWriter() {
+		return new BulkImportResourceWriter();
+	}
+
+}
@@ -0,0 +1,69 @@
+package ca.uhn.fhir.jpa.bulk.job;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * A single line read from a bulk import input file, along with the location it was read
+ * from so that errors can be reported against the offending line.
+ */
+public class BulkImportLine {
+
+	/**
+	 * Resources parsed from a line carry the line as user data under this key
+	 */
+	public static final String USER_DATA_KEY = BulkImportLine.class.getName();
+
+	private final String myInputUrl;
+	private final int myLineNumber;
+	private final String myText;
+
+	public BulkImportLine(String theInputUrl, int theLineNumber, String theText) {
+		myInputUrl = theInputUrl;
+		myLineNumber = theLineNumber;
+		myText = theText;
+	}
+
+	public String getInputUrl() {
+		return myInputUrl;
+	}
+
+	public int getLineNumber() {
+		return myLineNumber;
+	}
+
+	public String getText() {
+		return myText;
+	}
+
+	/**
+	 * Returns a description of the location of this line, e.g. <code>Binary/123 line 45</code>
+	 */
+	public String describe() {
+		return myInputUrl + " line " + myLineNumber;
+	}
+
+	public static BulkImportLine fromResource(IBaseResource theResource) {
+		return (BulkImportLine) theResource.getUserData(USER_DATA_KEY);
+	}
+
+}
@@ -0,0 +1,45 @@
+package ca.uhn.fhir.jpa.bulk.job;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Parses a single NDJSON line into a resource. The line is attached to the resource so that
+ * failures which happen when the resource is stored can be reported against that line.
+ */
+public class BulkImportParseProcessor implements ItemProcessor<BulkImportLine, IBaseResource> {
+
+	@Autowired
+	private FhirContext myContext;
+
+	@Override
+	public IBaseResource process(BulkImportLine theLine) {
+		IBaseResource retVal = myContext.newJsonParser().parseResource(theLine.getText());
+		retVal.setUserData(BulkImportLine.USER_DATA_KEY, theLine);
+		return retVal;
+	}
+
+}
@@ -0,0 +1,249 @@
+package ca.uhn.fhir.jpa.bulk.job;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.model.RequestPartitionId;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.api.dao.IJpaDao;
+import ca.uhn.fhir.jpa.batch.log.Logs;
+import ca.uhn.fhir.jpa.dao.BulkImportDaoSupport;
+import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
+import ca.uhn.fhir.jpa.dao.index.DaoSearchParamSynchronizer;
+import ca.uhn.fhir.jpa.dao.index.IdHelperService;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.partition.IRequestPartitionHelperSvc;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorService;
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import ca.uhn.fhir.rest.api.server.storage.TransactionDetails;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.slf4j.Logger;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Stores each chunk of imported resources in a single database transaction, writing them
+ * through the storage layer rather than through the FHIR create/update operations. Resources
+ * which have an ID are created or replaced using that ID (so that re-running an import is
+ * idempotent), and resources without an ID are created with a server assigned ID.
+ * <p>
+ * Compared with a FHIR transaction this skips building and processing a Bundle, per-resource
+ * interceptor and subscription notifications, and per-resource ID lookups:
+ * </p>
+ * <ul>
+ *    <li>The IDs of all resources in the chunk which already exist are resolved up front in one query per resource type.</li>
+ *    <li>Rows for all new resources are inserted before anything is indexed, so resources in the chunk may
+ *    refer to each other in any order.</li>
+ *    <li>Search parameter values are extracted concurrently using {@link DaoConfig#getBulkImportThreadCount()} threads.</li>
+ *    <li>Index rows for the whole chunk are written together as JDBC batches.</li>
+ * </ul>
+ * <p>
+ * Resources are still written using the same entity update logic as every other write, so versions,
+ * history, forced IDs and search indexes stay consistent with resources stored any other way.
+ * </p>
+ * <p>
+ * The job runs in the background after the <code>$import</code> request has completed, so resources
+ * are stored with <code>null</code> request details. Only the <code>$import</code> operation itself is
+ * subject to authorization (e.g. by <code>AuthorizationInterceptor</code>); the individual resources are
+ * not checked. Partitions are determined the same way as for any other internal write: partition
+ * interceptors are called with <code>null</code> request details, and resource types which are never
+ * partitioned are stored in the default partition.
+ * </p>
+ */
+public class BulkImportResourceWriter implements ItemWriter<IBaseResource> {
+	private static final Logger ourLog = Logs.getBatchTroubleshootingLog();
+
+	@Autowired
+	private FhirContext myContext;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private DaoRegistry myDaoRegistry;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+	@Autowired
+	private IdHelperService myIdHelperService;
+	@Autowired
+	private IResourceTableDao myResourceTableDao;
+	@Autowired
+	private IRequestPartitionHelperSvc myRequestPartitionHelperSvc;
+	@Autowired
+	private SearchParamExtractorService mySearchParamExtractorService;
+	@Autowired
+	private DaoSearchParamSynchronizer myDaoSearchParamSynchronizer;
+
+	private TransactionTemplate myTxTemplate;
+	private ThreadPoolExecutor myExtractionExecutor;
+
+	@PostConstruct
+	public void start() {
+		myTxTemplate = new TransactionTemplate(myTxManager);
+
+		int threadCount = myDaoConfig.getBulkImportThreadCount();
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("bulk-import-sp-extraction-%d")
+			.daemon(true)
+			.build();
+		myExtractionExecutor = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), threadFactory);
+		myExtractionExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void stop() {
+		myExtractionExecutor.shutdownNow();
+	}
+
+	@Override
+	public void write(List<? extends IBaseResource> theResources) {
+		// Keep the original IDs so that the chunk can be retried one resource at a time if it fails
+		Map<IBaseResource, String> originalIds = new IdentityHashMap<>();
+		for (IBaseResource next : theResources) {
+			originalIds.put(next, next.getIdElement().getValue());
+		}
+
+		try {
+			myTxTemplate.execute(t -> {
+				storeResources(theResources);
+				return null;
+			});
+		} catch (RuntimeException e) {
+			originalIds.forEach(IBaseResource::setId);
+			throw e;
+		}
+
+		ourLog.info("Bulk import stored {} resources", theResources.size());
+	}
+
+	private void storeResources(List<? extends IBaseResource> theResources) {
+		TransactionDetails transactionDetails = new TransactionDetails();
+		myDaoSearchParamSynchronizer.startBatch();
+
+		Map<String, ResourceTable> existingEntities = resolveExistingEntities(theResources);
+
+		// Insert the rows for new resources first so that references between resources in the chunk resolve
+		Map<IBaseResource, ResourceTable> entities = new IdentityHashMap<>();
+		Set<IBaseResource> newResources = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (IBaseResource next : theResources) {
+			String resourceType = myContext.getResourceType(next);
+			BulkImportDaoSupport.preProcessResourceForStorage(myDaoRegistry.getResourceDao(resourceType), next);
+
+			ResourceTable entity = null;
+			if (next.getIdElement().hasIdPart()) {
+				entity = existingEntities.get(resourceType + "/" + next.getIdElement().getIdPart());
+			}
+			if (entity == null) {
+				entity = createEntity(next, resourceType, transactionDetails);
+				newResources.add(next);
+			}
+			next.setId(entity.getIdDt().toUnqualifiedVersionless());
+			transactionDetails.addResolvedResourceId(next.getIdElement(), entity.getPersistentId());
+			entities.put(next, entity);
+		}
+
+		if (myDaoConfig.getBulkImportThreadCount() > 1 && theResources.size() > 1) {
+			mySearchParamExtractorService.preExtractSearchIndexParameters(null, transactionDetails, new ArrayList<>(theResources), myExtractionExecutor);
+		}
+
+		for (IBaseResource next : theResources) {
+			ResourceTable entity = entities.get(next);
+			boolean created = newResources.contains(next);
+			getDao(entity.getResourceType()).updateEntity(null, next, entity, null, true, !created, transactionDetails, false, true);
+		}
+
+		myDaoSearchParamSynchronizer.flushBatch();
+	}
+
+	/**
+	 * Returns the existing entities for all resources in the chunk which have a client assigned ID,
+	 * keyed by their unqualified versionless ID (e.g. <code>Patient/123</code>)
+	 */
+	private Map<String, ResourceTable> resolveExistingEntities(List<? extends IBaseResource> theResources) {
+		Map<String, List<IIdType>> resourceTypeToIds = theResources
+			.stream()
+			.filter(t -> t.getIdElement().hasIdPart())
+			.map(t -> t.getIdElement().withResourceType(myContext.getResourceType(t)).toUnqualifiedVersionless())
+			.collect(Collectors.groupingBy(IIdType::getResourceType));
+
+		Map<String, ResourceTable> retVal = new HashMap<>();
+		for (Map.Entry<String, List<IIdType>> next : resourceTypeToIds.entrySet()) {
+			RequestPartitionId partitionId = myRequestPartitionHelperSvc.determineReadPartitionForRequest(null, next.getKey());
+			List<Long> pids = myIdHelperService
+				.resolveResourcePersistentIdsWithCache(partitionId, next.getValue())
+				.stream()
+				.map(ResourcePersistentId::getIdAsLong)
+				.collect(Collectors.toList());
+			for (ResourceTable nextEntity : myResourceTableDao.findAllById(pids)) {
+				retVal.put(nextEntity.getIdDt().toUnqualifiedVersionless().getValue(), nextEntity);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Inserts the row for a new resource, applying the same ID rules as a FHIR create or
+	 * create-by-update. The resource is indexed later.
+	 */
+	private ResourceTable createEntity(IBaseResource theResource, String theResourceType, TransactionDetails theTransactionDetails) {
+		IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(theResourceType);
+
+		ResourceTable entity = new ResourceTable();
+		entity.setResourceType(theResourceType);
+		entity.setPartitionId(myRequestPartitionHelperSvc.determineCreatePartitionForRequest(null, theResource, theResourceType));
+
+		boolean serverAssignedId = BulkImportDaoSupport.assignIdForCreate(dao, entity, theResource);
+		getDao(theResourceType).updateEntity(null, theResource, entity, null, false, false, theTransactionDetails, false, false);
+		// The version is assigned here rather than when the resource is indexed, the same way as for a FHIR transaction
+		entity.setVersion(1);
+
+		if (serverAssignedId) {
+			BulkImportDaoSupport.createForcedIdForServerAssignedIdIfNeeded(dao, entity);
+		}
+
+		return entity;
+	}
+
+	@SuppressWarnings("unchecked")
+	private IJpaDao<IBaseResource> getDao(String theResourceType) {
+		return (IJpaDao<IBaseResource>) myDaoRegistry.getResourceDao(theResourceType);
+	}
+
+}
@@ -0,0 +1,84 @@
+package ca.uhn.fhir.jpa.bulk.job;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.batch.log.Logs;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.SkipListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+
+/**
+ * Records the lines which were skipped by a bulk import because they could not be parsed or
+ * stored. The first {@link #MAX_RECORDED_ERRORS} errors are kept in the step execution context
+ * under {@link #ERRORS_KEY} (one error per line of text) so that they can be reported to the
+ * client polling the job, and all errors are logged.
+ */
+public class BulkImportSkipListener implements SkipListener<BulkImportLine, IBaseResource>, StepExecutionListener {
+	public static final String ERRORS_KEY = "bulkImportErrors";
+	static final int MAX_RECORDED_ERRORS = 100;
+	private static final Logger ourLog = Logs.getBatchTroubleshootingLog();
+
+	private StepExecution myStepExecution;
+
+	@Override
+	public void beforeStep(StepExecution theStepExecution) {
+		myStepExecution = theStepExecution;
+	}
+
+	@Override
+	public ExitStatus afterStep(StepExecution theStepExecution) {
+		return null;
+	}
+
+	@Override
+	public void onSkipInRead(Throwable theThrowable) {
+		recordError("Failed to read input: " + theThrowable.getMessage());
+	}
+
+	@Override
+	public void onSkipInProcess(BulkImportLine theLine, Throwable theThrowable) {
+		recordError(theLine.describe() + ": " + theThrowable.getMessage());
+	}
+
+	@Override
+	public void onSkipInWrite(IBaseResource theResource, Throwable theThrowable) {
+		BulkImportLine line = BulkImportLine.fromResource(theResource);
+		String location = line != null ? line.describe() : theResource.getIdElement().getValue();
+		recordError(location + ": " + theThrowable.getMessage());
+	}
+
+	private void recordError(String theMessage) {
+		String message = theMessage.replace('\n', ' ');
+		ourLog.warn("Bulk import skipped {}", message);
+
+		String errors = myStepExecution.getExecutionContext().getString(ERRORS_KEY, "");
+		if (errors.isEmpty()) {
+			errors = message;
+		} else if (errors.split("\n").length < MAX_RECORDED_ERRORS) {
+			errors = errors + "\n" + message;
+		}
+		myStepExecution.getExecutionContext().putString(ERRORS_KEY, errors);
+	}
+
+}
@@ -88,13 +88,8 @@ public class BulkItemReader implements ItemReader<List<ResourcePersistentId>> {
 		Class<? extends IBaseResource> nextTypeClass = def.getImplementingClass();
 		ISearchBuilder sb = mySearchBuilderFactory.newSearchBuilder(dao, myResourceType, nextTypeClass);
 
-		SearchParameterMap map = createSearchParameterMapFromTypeFilter(jobEntity, def);
+		SearchParameterMap map = createSearchParameterMapFromTypeFilter(myMatchUrlService, jobEntity, def, myResourceType);
 
-		if (jobEntity.getSince() != null) {
-			map.setLastUpdated(new DateRangeParam(jobEntity.getSince(), null));
-		}
-
-		map.setLoadSynchronous(true);
 		IResultIterator myResultIterator = sb.createQuery(map, new SearchRuntimeDetails(null, myJobUUID), null, RequestPartitionId.allPartitions());
 		List<ResourcePersistentId> myReadPids = new ArrayList<>();
 		while (myResultIterator.hasNext()) {
@@ -103,17 +98,23 @@ public class BulkItemReader implements ItemReader<List<ResourcePersistentId>> {
 		myPidIterator = myReadPids.iterator();
 	}
 
-	private SearchParameterMap createSearchParameterMapFromTypeFilter(BulkExportJobEntity theJobEntity, RuntimeResourceDefinition theDef) {
+	static SearchParameterMap createSearchParameterMapFromTypeFilter(MatchUrlService theMatchUrlService, BulkExportJobEntity theJobEntity, RuntimeResourceDefinition theDef, String theResourceType) {
 		SearchParameterMap map = new SearchParameterMap();
 		Map<String, String[]> requestUrl = UrlUtil.parseQueryStrings(theJobEntity.getRequest());
 		String[] typeFilters = requestUrl.get(JpaConstants.PARAM_EXPORT_TYPE_FILTER);
 		if (typeFilters != null) {
-			Optional<String> filter = Arrays.stream(typeFilters).filter(t -> t.startsWith(myResourceType + "?")).findFirst();
+			Optional<String> filter = Arrays.stream(typeFilters).filter(t -> t.startsWith(theResourceType + "?")).findFirst();
 			if (filter.isPresent()) {
 				String matchUrl = filter.get();
-				map = myMatchUrlService.translateMatchUrl(matchUrl, theDef);
+				map = theMatchUrlService.translateMatchUrl(matchUrl, theDef);
 			}
 		}
+
+		if (theJobEntity.getSince() != null) {
+			map.setLastUpdated(new DateRangeParam(theJobEntity.getSince(), null));
+		}
+
+		map.setLoadSynchronous(true);
 		return map;
 	}
 
@@ -0,0 +1,420 @@
+package ca.uhn.fhir.jpa.bulk.job;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.ConfigurationException;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.interceptor.model.RequestPartitionId;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.batch.log.Logs;
+import ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc;
+import ca.uhn.fhir.jpa.binstore.StoredDetails;
+import ca.uhn.fhir.jpa.bulk.svc.BulkExportDaoSvc;
+import ca.uhn.fhir.jpa.dao.IResultIterator;
+import ca.uhn.fhir.jpa.dao.ISearchBuilder;
+import ca.uhn.fhir.jpa.dao.SearchBuilderFactory;
+import ca.uhn.fhir.jpa.dao.data.IBulkExportJobDao;
+import ca.uhn.fhir.jpa.entity.BulkExportCollectionFileEntity;
+import ca.uhn.fhir.jpa.entity.BulkExportJobEntity;
+import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
+import ca.uhn.fhir.jpa.model.util.JpaConstants;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.BinaryUtil;
+import ca.uhn.fhir.util.HapiExtensions;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.hl7.fhir.instance.model.api.IBaseBinary;
+import org.hl7.fhir.instance.model.api.IBaseExtension;
+import org.hl7.fhir.instance.model.api.IBaseHasExtensions;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.slf4j.Logger;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Generates the bulk export files for a single resource type as a pipeline of three stages which are
+ * connected by bounded queues, so that each stage can run at the same time as the others:
+ * <ol>
+ *    <li>The calling thread scans the matching resource PIDs and splits them into chunks</li>
+ *    <li>A pool of worker threads loads the resources for each chunk and encodes them as NDJSON</li>
+ *    <li>A single writer thread streams the encoded chunks into the {@link IBinaryStorageSvc}, starting a new file
+ *    whenever the configured number of resources per file is reached</li>
+ * </ol>
+ * <p>
+ * Each file is recorded as a <code>Binary</code> resource whose data is externalized to the binary storage
+ * service, so the file contents never need to be held in memory.
+ * </p>
+ *
+ * @see DaoConfig#setBulkExportPipelineEnabled(boolean)
+ */
+public class PipelinedBulkExportTasklet implements Tasklet {
+	static final int FETCH_CHUNK_SIZE = 100;
+	private static final Logger ourLog = Logs.getBatchTroubleshootingLog();
+	private static final List<ResourcePersistentId> END_OF_PIDS = new ArrayList<>();
+	private static final EncodedChunk END_OF_CHUNKS = new EncodedChunk(new byte[0], 0);
+
+	@Autowired
+	private FhirContext myContext;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private DaoRegistry myDaoRegistry;
+	@Autowired
+	private SearchBuilderFactory mySearchBuilderFactory;
+	@Autowired
+	private MatchUrlService myMatchUrlService;
+	@Autowired
+	private IBulkExportJobDao myBulkExportJobDao;
+	@Autowired
+	private BulkExportDaoSvc myBulkExportDaoSvc;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+	@Autowired(required = false)
+	private IBinaryStorageSvc myBinaryStorageSvc;
+
+	@Value("#{jobExecutionContext['jobUUID']}")
+	private String myJobUUID;
+	@Value("#{stepExecutionContext['resourceType']}")
+	private String myResourceType;
+	@Value("#{stepExecutionContext['bulkExportCollectionEntityId']}")
+	private Long myBulkExportCollectionEntityId;
+
+	private TransactionTemplate myTxTemplate;
+
+	@PostConstruct
+	public void start() {
+		myTxTemplate = new TransactionTemplate(myTxManager);
+		myTxTemplate.setReadOnly(true);
+	}
+
+	@Override
+	public RepeatStatus execute(StepContribution theContribution, ChunkContext theChunkContext) throws Exception {
+		if (myBinaryStorageSvc == null) {
+			throw new ConfigurationException("The bulk export pipeline requires an " + IBinaryStorageSvc.class.getSimpleName() + " to be configured");
+		}
+
+		Optional<BulkExportJobEntity> jobOpt = myBulkExportJobDao.findByJobId(myJobUUID);
+		if (!jobOpt.isPresent()) {
+			ourLog.warn("Job appears to be deleted");
+			return RepeatStatus.FINISHED;
+		}
+
+		int threadCount = myDaoConfig.getBulkExportPipelineThreadCount();
+		int resourcesPerFile = myDaoConfig.getBulkExportPipelineResourcesPerFile();
+		int chunkSize = Math.min(FETCH_CHUNK_SIZE, resourcesPerFile);
+		BlockingQueue<List<ResourcePersistentId>> pidQueue = new ArrayBlockingQueue<>(threadCount * 2);
+		BlockingQueue<EncodedChunk> encodedQueue = new ArrayBlockingQueue<>(threadCount * 2);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("bulk-export-" + myResourceType + "-%d")
+			.daemon(true)
+			.build();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount + 1, threadFactory);
+		try {
+			List<Future<?>> fetchers = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++) {
+				fetchers.add(executor.submit(() -> runStage(failure, () -> fetchAndEncode(pidQueue, encodedQueue, failure))));
+			}
+			Future<?> writer = executor.submit(() -> runStage(failure, () -> writeFiles(encodedQueue, failure, resourcesPerFile)));
+
+			int count = scanPids(jobOpt.get(), chunkSize, pidQueue, failure);
+			for (int i = 0; i < threadCount; i++) {
+				put(pidQueue, END_OF_PIDS, failure);
+			}
+			for (Future<?> next : fetchers) {
+				awaitStage(next, failure);
+			}
+			put(encodedQueue, END_OF_CHUNKS, failure);
+			awaitStage(writer, failure);
+
+			theContribution.incrementWriteCount(count);
+			ourLog.info("Bulk export pipeline exported {} resources of type {} for job {}", count, myResourceType, myJobUUID);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return RepeatStatus.FINISHED;
+	}
+
+	private int scanPids(BulkExportJobEntity theJobEntity, int theChunkSize, BlockingQueue<List<ResourcePersistentId>> thePidQueue, AtomicReference<Throwable> theFailure) throws IOException {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(myResourceType);
+		ISearchBuilder sb = mySearchBuilderFactory.newSearchBuilder(getDao(), myResourceType, def.getImplementingClass());
+		SearchParameterMap map = BulkItemReader.createSearchParameterMapFromTypeFilter(myMatchUrlService, theJobEntity, def, myResourceType);
+
+		int retVal = 0;
+		try (IResultIterator resultIterator = sb.createQuery(map, new SearchRuntimeDetails(null, myJobUUID), null, RequestPartitionId.allPartitions())) {
+			while (resultIterator.hasNext()) {
+				List<ResourcePersistentId> nextChunk = new ArrayList<>(resultIterator.getNextResultBatch(theChunkSize));
+				retVal += nextChunk.size();
+				put(thePidQueue, nextChunk, theFailure);
+			}
+		}
+		return retVal;
+	}
+
+	private void fetchAndEncode(BlockingQueue<List<ResourcePersistentId>> thePidQueue, BlockingQueue<EncodedChunk> theEncodedQueue, AtomicReference<Throwable> theFailure) throws IOException {
+		IFhirResourceDao<?> dao = getDao();
+		Class<? extends IBaseResource> resourceTypeClass = myContext.getResourceDefinition(myResourceType).getImplementingClass();
+		IParser parser = myContext.newJsonParser().setPrettyPrint(false);
+
+		while (true) {
+			List<ResourcePersistentId> nextChunk = take(thePidQueue, theFailure);
+			if (nextChunk == END_OF_PIDS) {
+				return;
+			}
+
+			List<IBaseResource> resources = new ArrayList<>(nextChunk.size());
+			myTxTemplate.execute(t -> {
+				ISearchBuilder sb = mySearchBuilderFactory.newSearchBuilder(dao, myResourceType, resourceTypeClass);
+				sb.loadResourcesByPid(nextChunk, Collections.emptyList(), resources, false, null);
+				return null;
+			});
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			OutputStreamWriter writer = new OutputStreamWriter(outputStream, Constants.CHARSET_UTF8);
+			for (IBaseResource next : resources) {
+				parser.encodeResourceToWriter(next, writer);
+				writer.append("\n");
+			}
+			writer.flush();
+
+			put(theEncodedQueue, new EncodedChunk(outputStream.toByteArray(), resources.size()), theFailure);
+		}
+	}
+
+	private void writeFiles(BlockingQueue<EncodedChunk> theEncodedQueue, AtomicReference<Throwable> theFailure, int theResourcesPerFile) throws IOException {
+		IFhirResourceDao<IBaseBinary> binaryDao = getBinaryDao();
+
+		EncodedChunk nextChunk = take(theEncodedQueue, theFailure);
+		while (nextChunk != END_OF_CHUNKS) {
+
+			// The binary storage service needs the ID of the owning resource before it can store anything
+			IBaseBinary binary = BinaryUtil.newBinary(myContext);
+			binary.setContentType(Constants.CT_FHIR_NDJSON);
+			IIdType binaryId = binaryDao.create(binary).getId().toUnqualifiedVersionless();
+
+			EncodedChunkInputStream inputStream = new EncodedChunkInputStream(nextChunk, theEncodedQueue, theFailure, theResourcesPerFile);
+			StoredDetails storedDetails = myBinaryStorageSvc.storeBlob(binaryId, null, Constants.CT_FHIR_NDJSON, inputStream);
+
+			binary.setId(binaryId);
+			addExternalizedBinaryExtension(binary, storedDetails.getBlobId());
+			binaryDao.update(binary);
+
+			BulkExportCollectionFileEntity file = new BulkExportCollectionFileEntity();
+			file.setResource(binaryId.getIdPart());
+			myBulkExportDaoSvc.addFileToCollectionWithId(myBulkExportCollectionEntityId, file);
+
+			ourLog.info("Created bulk export file {} containing {} resources ({} bytes) of type {}", binaryId.getValue(), inputStream.getResourceCount(), storedDetails.getBytes(), myResourceType);
+
+			nextChunk = inputStream.getNextChunk();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addExternalizedBinaryExtension(IBaseBinary theBinary, String theBlobId) {
+		IPrimitiveType<byte[]> data = BinaryUtil.getOrCreateData(myContext, theBinary);
+		IBaseExtension<?, ?> ext = ((IBaseHasExtensions) data).addExtension();
+		ext.setUrl(HapiExtensions.EXT_EXTERNALIZED_BINARY_ID);
+		ext.setUserData(JpaConstants.EXTENSION_EXT_SYSTEMDEFINED, Boolean.TRUE);
+		IPrimitiveType<String> blobIdString = (IPrimitiveType<String>) myContext.getElementDefinition("string").newInstance();
+		blobIdString.setValueAsString(theBlobId);
+		ext.setValue(blobIdString);
+	}
+
+	private IFhirResourceDao<?> getDao() {
+		return myDaoRegistry.getResourceDao(myResourceType);
+	}
+
+	@SuppressWarnings("unchecked")
+	private IFhirResourceDao<IBaseBinary> getBinaryDao() {
+		return myDaoRegistry.getResourceDao("Binary");
+	}
+
+	private static void runStage(AtomicReference<Throwable> theFailure, IStage theStage) {
+		try {
+			theStage.run();
+		} catch (Throwable t) {
+			theFailure.compareAndSet(null, t);
+		}
+	}
+
+	private static void awaitStage(Future<?> theFuture, AtomicReference<Throwable> theFailure) throws Exception {
+		theFuture.get();
+		checkForFailure(theFailure);
+	}
+
+	private static <T> void put(BlockingQueue<T> theQueue, T theItem, AtomicReference<Throwable> theFailure) {
+		try {
+			while (!theQueue.offer(theItem, 1, TimeUnit.SECONDS)) {
+				checkForFailure(theFailure);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException(e);
+		}
+	}
+
+	private static <T> T take(BlockingQueue<T> theQueue, AtomicReference<Throwable> theFailure) {
+		try {
+			T retVal = theQueue.poll(1, TimeUnit.SECONDS);
+			while (retVal == null) {
+				checkForFailure(theFailure);
+				retVal = theQueue.poll(1, TimeUnit.SECONDS);
+			}
+			return retVal;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException(e);
+		}
+	}
+
+	private static void checkForFailure(AtomicReference<Throwable> theFailure) {
+		Throwable failure = theFailure.get();
+		if (failure != null) {
+			throw new InternalErrorException("Bulk export pipeline failed: " + failure, failure);
+		}
+	}
+
+	@FunctionalInterface
+	private interface IStage {
+		void run() throws Exception;
+	}
+
+	private static class EncodedChunk {
+		private final byte[] myBytes;
+		private final int myResourceCount;
+
+		EncodedChunk(byte[] theBytes, int theResourceCount) {
+			myBytes = theBytes;
+			myResourceCount = theResourceCount;
+		}
+	}
+
+	/**
+	 * Exposes the encoded chunks arriving on the queue as a single stream, ending the stream
+	 * when the pipeline is finished or when the next chunk would not fit in the current file
+	 */
+	private static class EncodedChunkInputStream extends InputStream {
+		private final BlockingQueue<EncodedChunk> myQueue;
+		private final AtomicReference<Throwable> myFailure;
+		private final int myMaxResourceCount;
+		private EncodedChunk myCurrentChunk;
+		private EncodedChunk myNextChunk;
+		private int myPosition;
+		private int myResourceCount;
+
+		EncodedChunkInputStream(EncodedChunk theFirstChunk, BlockingQueue<EncodedChunk> theQueue, AtomicReference<Throwable> theFailure, int theMaxResourceCount) {
+			myQueue = theQueue;
+			myFailure = theFailure;
+			myMaxResourceCount = theMaxResourceCount;
+			myCurrentChunk = theFirstChunk;
+			myResourceCount = theFirstChunk.myResourceCount;
+		}
+
+		@Override
+		public int read() {
+			byte[] buffer = new byte[1];
+			int count = read(buffer, 0, 1);
+			return count == -1 ? -1 : buffer[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] theBuffer, int theOffset, int theLength) {
+			if (theLength == 0) {
+				return 0;
+			}
+			while (myCurrentChunk != null && myPosition >= myCurrentChunk.myBytes.length) {
+				advance();
+			}
+			if (myCurrentChunk == null) {
+				return -1;
+			}
+
+			int count = Math.min(theLength, myCurrentChunk.myBytes.length - myPosition);
+			System.arraycopy(myCurrentChunk.myBytes, myPosition, theBuffer, theOffset, count);
+			myPosition += count;
+			return count;
+		}
+
+		private void advance() {
+			EncodedChunk next = take(myQueue, myFailure);
+			if (next == END_OF_CHUNKS || myResourceCount + next.myResourceCount > myMaxResourceCount) {
+				myNextChunk = next;
+				myCurrentChunk = null;
+				return;
+			}
+			myCurrentChunk = next;
+			myPosition = 0;
+			myResourceCount += next.myResourceCount;
+		}
+
+		int getResourceCount() {
+			return myResourceCount;
+		}
+
+		/**
+		 * Returns the chunk which starts the next file, or {@link #END_OF_CHUNKS} if there are no more files
+		 */
+		EncodedChunk getNextChunk() {
+			while (myCurrentChunk != null) {
+				if (myPosition < myCurrentChunk.myBytes.length) {
+					throw new InternalErrorException("Binary storage service did not consume the complete bulk export file");
+				}
+				advance();
+			}
+			return myNextChunk;
+		}
+	}
+
+}
@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.bulk.svc;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.api.model.ExpungeOptions;
@@ -100,6 +101,13 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 	@Qualifier("bulkExportJob")
 	private org.springframework.batch.core.Job myBulkExportJob;
 
+	@Autowired
+	@Qualifier("bulkExportPipelinedJob")
+	private org.springframework.batch.core.Job myBulkExportPipelinedJob;
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+
 	private int myRetentionPeriod = (int) (2 * DateUtils.MILLIS_PER_HOUR);
 
 	/**
@@ -200,7 +208,8 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 		ourLog.info("Submitting bulk export job {} to job scheduler", theJobUuid);
 
 		try {
-			myJobSubmitter.runJob(myBulkExportJob, parameters);
+			org.springframework.batch.core.Job job = myDaoConfig.isBulkExportPipelineEnabled() ? myBulkExportPipelinedJob : myBulkExportJob;
+			myJobSubmitter.runJob(job, parameters);
 		} catch (JobParametersInvalidException theE) {
 			ourLog.error("Unable to start job with UUID: {}, the parameters are invalid. {}", theJobUuid, theE.getMessage());
 		}
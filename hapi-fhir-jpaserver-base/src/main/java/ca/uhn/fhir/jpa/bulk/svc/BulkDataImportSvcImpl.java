@@ -0,0 +1,210 @@
+package ca.uhn.fhir.jpa.bulk.svc;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.batch.api.IBatchJobSubmitter;
+import ca.uhn.fhir.jpa.bulk.api.IBulkDataImportSvc;
+import ca.uhn.fhir.jpa.bulk.job.BulkImportJobConfig;
+import ca.uhn.fhir.jpa.bulk.job.BulkImportSkipListener;
+import ca.uhn.fhir.jpa.bulk.model.BulkJobStatusEnum;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+public class BulkDataImportSvcImpl implements IBulkDataImportSvc {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(BulkDataImportSvcImpl.class);
+	private static final String JOB_UUID_PARAMETER = "jobUUID";
+
+	@Autowired
+	private FhirContext myContext;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private IBatchJobSubmitter myJobSubmitter;
+	@Autowired
+	private JobExplorer myJobExplorer;
+	@Autowired
+	private JobRepository myJobRepository;
+	@Autowired
+	@Qualifier(BulkImportJobConfig.BULK_IMPORT_JOB_NAME)
+	private org.springframework.batch.core.Job myBulkImportJob;
+
+	@Override
+	public JobInfo submitJob(List<String> theInputUrls) {
+		if (theInputUrls == null || theInputUrls.isEmpty()) {
+			String msg = myContext.getLocalizer().getMessage(BulkDataImportSvcImpl.class, "noInputUrls");
+			throw new InvalidRequestException(msg);
+		}
+		for (String next : theInputUrls) {
+			validateInputUrl(next);
+		}
+
+		// Only the job UUID identifies the job instance, so that it can be used to find the job later
+		String jobUuid = UUID.randomUUID().toString();
+		JobParameters parameters = new JobParametersBuilder()
+			.addString(JOB_UUID_PARAMETER, jobUuid)
+			.addString("inputUrls", String.join("\n", theInputUrls), false)
+			.toJobParameters();
+
+		ourLog.info("Submitting bulk import job {} for {} input file(s) to job scheduler", jobUuid, theInputUrls.size());
+
+		JobExecution execution;
+		try {
+			execution = myJobSubmitter.runJob(myBulkImportJob, parameters);
+		} catch (JobParametersInvalidException e) {
+			throw new InternalErrorException(e);
+		}
+		return toJobInfo(execution);
+	}
+
+	/**
+	 * Jobs are identified by their random UUID rather than by the Spring Batch execution ID, which
+	 * is sequential and would allow clients to poll the status of other clients' jobs.
+	 */
+	@Override
+	public JobInfo getJobInfoOrThrowResourceNotFound(String theJobId) {
+		JobExecution execution = null;
+		if (isNotBlank(theJobId)) {
+			JobParameters parameters = new JobParametersBuilder()
+				.addString(JOB_UUID_PARAMETER, theJobId)
+				.toJobParameters();
+			execution = myJobRepository.getLastJobExecution(BulkImportJobConfig.BULK_IMPORT_JOB_NAME, parameters);
+		}
+		if (execution == null) {
+			throw new ResourceNotFoundException(theJobId);
+		}
+
+		// Reload the execution so that the step execution contexts (which hold any errors) are included
+		return toJobInfo(myJobExplorer.getJobExecution(execution.getId()));
+	}
+
+	private void validateInputUrl(String theInputUrl) {
+		if (isBlank(theInputUrl)) {
+			String msg = myContext.getLocalizer().getMessage(BulkDataImportSvcImpl.class, "noInputUrls");
+			throw new InvalidRequestException(msg);
+		}
+
+		if (theInputUrl.startsWith("file:")) {
+			if (isLocalFileAllowed(theInputUrl)) {
+				return;
+			}
+		} else {
+			IIdType id = new IdType(theInputUrl);
+			if ("Binary".equals(id.getResourceType()) && id.hasIdPart() && !id.hasBaseUrl()) {
+				return;
+			}
+		}
+
+		String msg = myContext.getLocalizer().getMessage(BulkDataImportSvcImpl.class, "unsupportedInputUrl", theInputUrl);
+		throw new InvalidRequestException(msg);
+	}
+
+	/**
+	 * Local files may only be read if they are located within the configured import directory. Paths
+	 * are compared in canonical form so that neither relative segments nor symbolic links can be used
+	 * to escape that directory.
+	 */
+	private boolean isLocalFileAllowed(String theInputUrl) {
+		String directory = myDaoConfig.getBulkImportLocalDirectory();
+		if (isBlank(directory)) {
+			return false;
+		}
+		try {
+			File file = new File(URI.create(theInputUrl)).getCanonicalFile();
+			String directoryPath = new File(directory).getCanonicalPath() + File.separator;
+			return file.getPath().startsWith(directoryPath) && file.isFile() && file.canRead();
+		} catch (IllegalArgumentException | IOException e) {
+			ourLog.debug("Invalid bulk import file URL: {}", theInputUrl, e);
+			return false;
+		}
+	}
+
+	private JobInfo toJobInfo(JobExecution theExecution) {
+		JobInfo retVal = new JobInfo();
+		retVal.setJobId(theExecution.getJobParameters().getString(JOB_UUID_PARAMETER));
+		retVal.setStatusTime(theExecution.getLastUpdated() != null ? theExecution.getLastUpdated() : theExecution.getCreateTime());
+
+		int resourceCount = 0;
+		int errorCount = 0;
+		List<String> errors = new ArrayList<>();
+		for (StepExecution next : theExecution.getStepExecutions()) {
+			resourceCount += next.getWriteCount();
+			errorCount += next.getSkipCount();
+			String nextErrors = next.getExecutionContext().getString(BulkImportSkipListener.ERRORS_KEY, "");
+			if (isNotBlank(nextErrors)) {
+				errors.addAll(Arrays.asList(nextErrors.split("\n")));
+			}
+		}
+		retVal.setResourceCount(resourceCount);
+		retVal.setErrorCount(errorCount);
+		retVal.setErrors(errors);
+
+		switch (theExecution.getStatus()) {
+			case STARTING:
+				retVal.setStatus(BulkJobStatusEnum.SUBMITTED);
+				break;
+			case STARTED:
+				retVal.setStatus(BulkJobStatusEnum.BUILDING);
+				break;
+			case COMPLETED:
+				retVal.setStatus(BulkJobStatusEnum.COMPLETE);
+				break;
+			default:
+				ExitStatus exitStatus = theExecution.getExitStatus();
+				retVal.setStatus(BulkJobStatusEnum.ERROR);
+				retVal.setStatusMessage(defaultIfBlank(exitStatus.getExitDescription(), exitStatus.getExitCode()));
+				break;
+		}
+
+		return retVal;
+	}
+
+}
@@ -17,8 +17,11 @@ import ca.uhn.fhir.jpa.batch.svc.BatchJobSubmitterImpl;
 import ca.uhn.fhir.jpa.binstore.BinaryAccessProvider;
 import ca.uhn.fhir.jpa.binstore.BinaryStorageInterceptor;
 import ca.uhn.fhir.jpa.bulk.api.IBulkDataExportSvc;
+import ca.uhn.fhir.jpa.bulk.api.IBulkDataImportSvc;
 import ca.uhn.fhir.jpa.bulk.provider.BulkDataExportProvider;
+import ca.uhn.fhir.jpa.bulk.provider.BulkDataImportProvider;
 import ca.uhn.fhir.jpa.bulk.svc.BulkDataExportSvcImpl;
+import ca.uhn.fhir.jpa.bulk.svc.BulkDataImportSvcImpl;
 import ca.uhn.fhir.jpa.cache.IResourceVersionSvc;
 import ca.uhn.fhir.jpa.cache.ResourceVersionSvcDaoImpl;
 import ca.uhn.fhir.jpa.dao.DaoSearchParamProvider;
@@ -28,6 +31,10 @@ import ca.uhn.fhir.jpa.dao.ISearchBuilder;
 import ca.uhn.fhir.jpa.dao.LegacySearchBuilder;
 import ca.uhn.fhir.jpa.dao.MatchResourceUrlService;
 import ca.uhn.fhir.jpa.dao.SearchBuilderFactory;
+import ca.uhn.fhir.jpa.dao.encoding.IResourceEncodingSvc;
+import ca.uhn.fhir.jpa.dao.encoding.IResourceReencodingSvc;
+import ca.uhn.fhir.jpa.dao.encoding.ResourceEncodingSvcImpl;
+import ca.uhn.fhir.jpa.dao.encoding.ResourceReencodingSvcImpl;
 import ca.uhn.fhir.jpa.dao.expunge.DeleteExpungeService;
 import ca.uhn.fhir.jpa.dao.expunge.ExpungeEverythingService;
 import ca.uhn.fhir.jpa.dao.expunge.ExpungeOperation;
@@ -103,12 +110,15 @@ import ca.uhn.fhir.jpa.search.builder.predicate.TokenPredicateBuilder;
 import ca.uhn.fhir.jpa.search.builder.predicate.UriPredicateBuilder;
 import ca.uhn.fhir.jpa.search.builder.sql.GeneratedSql;
 import ca.uhn.fhir.jpa.search.builder.sql.SearchQueryBuilder;
+import ca.uhn.fhir.jpa.search.builder.sql.PartitionedSearchQueryExecutor;
 import ca.uhn.fhir.jpa.search.builder.sql.SearchQueryExecutor;
+import ca.uhn.fhir.jpa.search.builder.sql.SearchSortKey;
 import ca.uhn.fhir.jpa.search.builder.sql.SqlObjectFactory;
 import ca.uhn.fhir.jpa.search.cache.DatabaseSearchCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.cache.DatabaseSearchResultCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.cache.ISearchCacheSvc;
 import ca.uhn.fhir.jpa.search.cache.ISearchResultCacheSvc;
+import ca.uhn.fhir.jpa.search.cache.OffHeapSearchResultCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.reindex.IResourceReindexingSvc;
 import ca.uhn.fhir.jpa.search.reindex.ResourceReindexingSvcImpl;
 import ca.uhn.fhir.jpa.search.warm.CacheWarmingSvcImpl;
@@ -124,6 +134,7 @@ import ca.uhn.fhir.jpa.validation.ValidationSettings;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.interceptor.consent.IConsentContextServices;
 import ca.uhn.fhir.rest.server.interceptor.partition.RequestTenantPartitionInterceptor;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.hibernate.jpa.HibernatePersistenceProvider;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.utilities.graphql.IGraphQLStorageServices;
@@ -151,6 +162,10 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import javax.annotation.Nullable;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /*
  * #%L
@@ -184,6 +199,7 @@ public abstract class BaseConfig {
 	public static final String JPA_VALIDATION_SUPPORT_CHAIN = "myJpaValidationSupportChain";
 	public static final String JPA_VALIDATION_SUPPORT = "myJpaValidationSupport";
 	public static final String TASK_EXECUTOR_NAME = "hapiJpaTaskExecutor";
+	public static final String SEARCH_PARTITION_EXECUTOR_NAME = "hapiJpaSearchPartitionExecutor";
 	public static final String GRAPHQL_PROVIDER_NAME = "myGraphQLProvider";
 	public static final String PERSISTED_JPA_BUNDLE_PROVIDER = "PersistedJpaBundleProvider";
 	public static final String PERSISTED_JPA_BUNDLE_PROVIDER_BY_SEARCH = "PersistedJpaBundleProvider_BySearch";
@@ -306,7 +322,10 @@ public abstract class BaseConfig {
 	}
 
 	@Bean
-	public ISearchResultCacheSvc searchResultCacheSvc() {
+	public ISearchResultCacheSvc searchResultCacheSvc(DaoConfig theDaoConfig) {
+		if (theDaoConfig.getSearchResultCacheMode() == DaoConfig.SearchResultCacheModeEnum.MEMORY) {
+			return new OffHeapSearchResultCacheSvcImpl();
+		}
 		return new DatabaseSearchResultCacheSvcImpl();
 	}
 
@@ -318,6 +337,21 @@ public abstract class BaseConfig {
 		return threadPoolTaskExecutor;
 	}
 
+	/**
+	 * Runs the per-partition queries of a search when separate partition searching is
+	 * enabled in the DaoConfig. Partition queries are never queued: once every thread is
+	 * busy, the searching thread runs the query itself.
+	 */
+	@Bean(name = SEARCH_PARTITION_EXECUTOR_NAME, destroyMethod = "shutdown")
+	public ThreadPoolExecutor searchPartitionExecutor() {
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("search_partition_%d")
+			.daemon(true)
+			.build();
+		int maxThreadCount = Runtime.getRuntime().availableProcessors();
+		return new ThreadPoolExecutor(0, maxThreadCount, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
 	@Bean
 	public TaskScheduler taskScheduler() {
 		ConcurrentTaskScheduler retVal = new ConcurrentTaskScheduler();
@@ -351,6 +385,16 @@ public abstract class BaseConfig {
 		return new ResourceReindexingSvcImpl();
 	}
 
+	@Bean
+	public IResourceEncodingSvc resourceEncodingSvc() {
+		return new ResourceEncodingSvcImpl();
+	}
+
+	@Bean
+	public IResourceReencodingSvc resourceReencodingSvc() {
+		return new ResourceReencodingSvcImpl();
+	}
+
 	@Bean
 	public IStaleSearchDeletingSvc staleSearchDeletingSvc() {
 		return new StaleSearchDeletingSvcImpl();
@@ -456,6 +500,18 @@ public abstract class BaseConfig {
 		return new BulkDataExportProvider();
 	}
 
+	@Bean
+	@Lazy
+	public IBulkDataImportSvc bulkDataImportSvc() {
+		return new BulkDataImportSvcImpl();
+	}
+
+	@Bean
+	@Lazy
+	public BulkDataImportProvider bulkDataImportProvider() {
+		return new BulkDataImportProvider();
+	}
+
 
 	@Bean
 	public PersistedJpaBundleProviderFactory persistedJpaBundleProviderFactory() {
@@ -671,6 +727,12 @@ public abstract class BaseConfig {
 		return new SearchQueryExecutor(theGeneratedSql, theMaxResultsToFetch);
 	}
 
+	@Bean
+	@Scope("prototype")
+	public PartitionedSearchQueryExecutor newPartitionedSearchQueryExecutor(List<GeneratedSql> thePartitionQueries, List<SearchSortKey> theSortKeys, Integer theOffset, Integer theMaxResultsToFetch, Integer theFetchSize) {
+		return new PartitionedSearchQueryExecutor(thePartitionQueries, theSortKeys, theOffset, theMaxResultsToFetch, theFetchSize);
+	}
+
 	@Bean(name = SEARCH_BUILDER)
 	@Scope("prototype")
 	public ISearchBuilder newSearchBuilder(IDao theDao, String theResourceName, Class<? extends IBaseResource> theResourceType, DaoConfig theDaoConfig) {
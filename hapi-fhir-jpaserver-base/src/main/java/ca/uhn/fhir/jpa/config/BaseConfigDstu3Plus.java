@@ -24,9 +24,11 @@ import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
 import ca.uhn.fhir.context.support.IValidationSupport;
 import ca.uhn.fhir.jpa.dao.JpaPersistedResourceValidationSupport;
 import ca.uhn.fhir.jpa.dao.ObservationLastNIndexPersistSvc;
+import ca.uhn.fhir.jpa.term.TermCodeSystemSnapshotSvcImpl;
 import ca.uhn.fhir.jpa.term.TermCodeSystemStorageSvcImpl;
 import ca.uhn.fhir.jpa.term.TermDeferredStorageSvcImpl;
 import ca.uhn.fhir.jpa.term.TermReindexingSvcImpl;
+import ca.uhn.fhir.jpa.term.api.ITermCodeSystemSnapshotSvc;
 import ca.uhn.fhir.jpa.term.api.ITermCodeSystemStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermDeferredStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermReadSvc;
@@ -61,6 +63,11 @@ public abstract class BaseConfigDstu3Plus extends BaseConfig {
 		return new TermReindexingSvcImpl();
 	}
 
+	@Bean
+	public ITermCodeSystemSnapshotSvc termCodeSystemSnapshotSvc() {
+		return new TermCodeSystemSnapshotSvcImpl();
+	}
+
 	@Bean
 	public abstract ITermVersionAdapterSvc terminologyVersionAdapterSvc();
 
@@ -22,6 +22,7 @@ import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceProvenanceDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTagDao;
+import ca.uhn.fhir.jpa.dao.encoding.IResourceEncodingSvc;
 import ca.uhn.fhir.jpa.dao.expunge.ExpungeService;
 import ca.uhn.fhir.jpa.dao.index.DaoSearchParamSynchronizer;
 import ca.uhn.fhir.jpa.dao.index.IdHelperService;
@@ -72,6 +73,7 @@ import ca.uhn.fhir.model.valueset.BundleEntryTransactionMethodEnum;
 import ca.uhn.fhir.parser.DataFormatException;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.parser.LenientErrorHandler;
+import ca.uhn.fhir.parser.SmileParser;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
@@ -126,6 +128,7 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.XMLEvent;
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -224,6 +227,8 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 	@Autowired
 	private DaoSearchParamSynchronizer myDaoSearchParamSynchronizer;
 	@Autowired
+	private IResourceEncodingSvc myResourceEncodingSvc;
+	@Autowired
 	private SearchBuilderFactory mySearchBuilderFactory;
 	private FhirContext myContext;
 	private ApplicationContext myApplicationContext;
@@ -509,6 +514,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 		}
 
 		byte[] bytes;
+		String encoded = null;
 		ResourceEncodingEnum encoding;
 		boolean changed = false;
 
@@ -518,13 +524,29 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 			Set<String> excludeElements = ResourceMetaParams.EXCLUDE_ELEMENTS_IN_ENCODED;
 			theEntity.setFhirVersion(myContext.getVersion().getVersion());
 
-			bytes = encodeResource(theResource, encoding, excludeElements, myContext);
+			if (encoding == ResourceEncodingEnum.SMILE) {
+				bytes = encodeResourceToSmile(theResource, excludeElements, myContext);
+			} else {
+				encoded = encodeResourceToString(theResource, encoding, excludeElements, myContext);
+				bytes = myResourceEncodingSvc.encode(theEntity.getResourceType(), encoded, encoding);
+			}
 
 			if (theUpdateHash) {
+				// The hash covers the uncompressed text, since the compressed form of the same text
+				// can vary (e.g. when a new compression dictionary has been trained)
 				HashFunction sha256 = Hashing.sha256();
-				String hashSha256 = sha256.hashBytes(bytes).toString();
+				String hashSha256;
+				if (encoded != null) {
+					hashSha256 = sha256.hashString(encoded, Charsets.UTF_8).toString();
+				} else {
+					hashSha256 = sha256.hashBytes(bytes).toString();
+				}
 				if (hashSha256.equals(theEntity.getHashSha256()) == false) {
-					changed = true;
+					// Hashes stored by earlier versions covered the GZip compressed body
+					boolean legacyHashMatches = encoding == ResourceEncodingEnum.JSONC && sha256.hashBytes(bytes).toString().equals(theEntity.getHashSha256());
+					if (!legacyHashMatches) {
+						changed = true;
+					}
 				}
 				theEntity.setHashSha256(hashSha256);
 			}
@@ -590,8 +612,14 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 				}
 				if (currentHistoryVersion == null || currentHistoryVersion.getResource() == null) {
 					changed = true;
+				} else if (currentHistoryVersion.getEncoding() == encoding && Arrays.equals(currentHistoryVersion.getResource(), bytes)) {
+					changed = false;
+				} else if (encoded != null && currentHistoryVersion.getEncoding() != ResourceEncodingEnum.SMILE) {
+					// The stored body may have been compressed differently, so compare the text
+					String currentText = myResourceEncodingSvc.decode(currentHistoryVersion.getResource(), currentHistoryVersion.getEncoding());
+					changed = !encoded.equals(currentText);
 				} else {
-					changed = !Arrays.equals(currentHistoryVersion.getResource(), bytes);
+					changed = true;
 				}
 			}
 		}
@@ -849,8 +877,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 		} else if (theEntity instanceof ResourceTable) {
 			ResourceTable resource = (ResourceTable) theEntity;
 			version = theEntity.getVersion();
-			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(theEntity.getId(), version);
-			((ResourceTable) theEntity).setCurrentVersionEntity(history);
+			ResourceHistoryTable history = resource.getCurrentVersionEntity();
+			if (history == null || history.getVersion() != version) {
+				history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(theEntity.getId(), version);
+				resource.setCurrentVersionEntity(history);
+			}
 
 			while (history == null) {
 				if (version > 1L) {
@@ -889,8 +920,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 			return null;
 		}
 
-		// 2. get The text
-		String resourceText = decodeResource(resourceBytes, resourceEncoding);
+		// 2. get The text (Smile content is parsed directly from the bytes)
+		String resourceText = null;
+		if (resourceEncoding != ResourceEncodingEnum.SMILE) {
+			resourceText = myResourceEncodingSvc.decode(resourceBytes, resourceEncoding);
+		}
 
 		// 3. Use the appropriate custom type if one is specified in the context
 		Class<R> resourceType = theResourceType;
@@ -915,10 +949,15 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 		if (resourceEncoding != ResourceEncodingEnum.DEL) {
 
 			LenientErrorHandler errorHandler = new LenientErrorHandler(false).setErrorOnInvalidValue(false);
-			IParser parser = new TolerantJsonParser(getContext(theEntity.getFhirVersion()), errorHandler, theEntity.getId());
 
 			try {
-				retVal = parser.parseResource(resourceType, resourceText);
+				if (resourceEncoding == ResourceEncodingEnum.SMILE) {
+					IParser parser = new SmileParser(getContext(theEntity.getFhirVersion()), errorHandler);
+					retVal = parser.parseResource(resourceType, new ByteArrayInputStream(resourceBytes));
+				} else {
+					IParser parser = new TolerantJsonParser(getContext(theEntity.getFhirVersion()), errorHandler, theEntity.getId());
+					retVal = parser.parseResource(resourceType, resourceText);
+				}
 			} catch (Exception e) {
 				StringBuilder b = new StringBuilder();
 				b.append("Failed to parse database resource[");
@@ -1498,6 +1537,15 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 			case JSONC:
 				resourceText = GZipUtil.decompress(theResourceBytes);
 				break;
+			case JSONZ:
+				resourceText = ZstdUtil.decompress(theResourceBytes, null);
+				break;
+			case JSONL:
+				resourceText = Lz4Util.decompress(theResourceBytes);
+				break;
+			case SMILE:
+				resourceText = SmileUtil.toJson(theResourceBytes);
+				break;
 			case DEL:
 				break;
 		}
@@ -1505,18 +1553,35 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 	}
 
 	public static byte[] encodeResource(IBaseResource theResource, ResourceEncodingEnum theEncoding, Set<String> theExcludeElements, FhirContext theContext) {
-		byte[] bytes;
-		IParser parser = theEncoding.newParser(theContext);
-		parser.setDontEncodeElements(theExcludeElements);
-		String encoded = parser.encodeResourceToString(theResource);
-
+		if (theEncoding == ResourceEncodingEnum.SMILE) {
+			return encodeResourceToSmile(theResource, theExcludeElements, theContext);
+		}
+		String encoded = encodeResourceToString(theResource, theEncoding, theExcludeElements, theContext);
+		return encodeResourceText(encoded, theEncoding);
+	}
 
+	/**
+	 * Converts an already serialized resource body into the stored form for the given encoding. Note that
+	 * {@link ResourceEncodingEnum#JSONZ} bodies are compressed without a dictionary here, see
+	 * {@link IResourceEncodingSvc} for dictionary support.
+	 */
+	public static byte[] encodeResourceText(String theEncoded, ResourceEncodingEnum theEncoding) {
+		byte[] bytes;
 		switch (theEncoding) {
 			case JSON:
-				bytes = encoded.getBytes(Charsets.UTF_8);
+				bytes = theEncoded.getBytes(Charsets.UTF_8);
 				break;
 			case JSONC:
-				bytes = GZipUtil.compress(encoded);
+				bytes = GZipUtil.compress(theEncoded);
+				break;
+			case JSONZ:
+				bytes = ZstdUtil.compress(theEncoded, null);
+				break;
+			case JSONL:
+				bytes = Lz4Util.compress(theEncoded);
+				break;
+			case SMILE:
+				bytes = SmileUtil.fromJson(theEncoded);
 				break;
 			default:
 			case DEL:
@@ -1524,10 +1589,22 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 				break;
 		}
 
-		ourLog.debug("Encoded {} chars of resource body as {} bytes", encoded.length(), bytes.length);
+		ourLog.debug("Encoded {} chars of resource body as {} bytes", theEncoded.length(), bytes.length);
 		return bytes;
 	}
 
+	private static byte[] encodeResourceToSmile(IBaseResource theResource, Set<String> theExcludeElements, FhirContext theContext) {
+		SmileParser parser = (SmileParser) theContext.newSmileParser();
+		parser.setDontEncodeElements(theExcludeElements);
+		return parser.encodeResourceToByteArray(theResource);
+	}
+
+	private static String encodeResourceToString(IBaseResource theResource, ResourceEncodingEnum theEncoding, Set<String> theExcludeElements, FhirContext theContext) {
+		IParser parser = theEncoding.newParser(theContext);
+		parser.setDontEncodeElements(theExcludeElements);
+		return parser.encodeResourceToString(theResource);
+	}
+
 	private static String parseNarrativeTextIntoWords(IBaseResource theResource) {
 
 		StringBuilder b = new StringBuilder();
@@ -133,6 +133,7 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends BaseHapiFhirDao<T> implements IFhirResourceDao<T> {
@@ -243,10 +244,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			}
 		}
 
-		if (myDaoConfig.getResourceServerIdStrategy() == DaoConfig.IdStrategyEnum.UUID) {
-			theResource.setId(UUID.randomUUID().toString());
-			theResource.setUserData(JpaConstants.RESOURCE_ID_SERVER_ASSIGNED, Boolean.TRUE);
-		}
+		assignServerIdIfNeeded(theResource);
 
 		RequestPartitionId requestPartitionId = myRequestPartitionHelperService.determineCreatePartitionForRequest(theRequestDetails, theResource, getResourceName());
 		return doCreateForPostOrPut(theResource, theIfNoneExist, thePerformIndexing, theTransactionDetails, theRequestDetails, requestPartitionId);
@@ -266,7 +264,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		entity.setPartitionId(theRequestPartitionId);
 
 		if (isNotBlank(theIfNoneExist)) {
-			Set<ResourcePersistentId> match = myMatchResourceUrlService.processMatchUrl(theIfNoneExist, myResourceType, theRequest);
+			Set<ResourcePersistentId> match = myMatchResourceUrlService.processMatchUrl(theIfNoneExist, myResourceType, theTransactionDetails, theRequest);
 			if (match.size() > 1) {
 				String msg = getContext().getLocalizer().getMessageSanitized(BaseHapiFhirDao.class, "transactionOperationWithMultipleMatchFailure", "CREATE", theIfNoneExist, match.size());
 				throw new PreconditionFailedException(msg);
@@ -279,32 +277,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			}
 		}
 
-		boolean serverAssignedId;
-		if (isNotBlank(theResource.getIdElement().getIdPart())) {
-			if (theResource.getUserData(JpaConstants.RESOURCE_ID_SERVER_ASSIGNED) == Boolean.TRUE) {
-				createForcedIdIfNeeded(entity, theResource.getIdElement(), true);
-				serverAssignedId = true;
-			} else {
-				switch (myDaoConfig.getResourceClientIdStrategy()) {
-					case NOT_ALLOWED:
-						throw new ResourceNotFoundException(
-							getContext().getLocalizer().getMessageSanitized(BaseHapiFhirResourceDao.class, "failedToCreateWithClientAssignedIdNotAllowed", theResource.getIdElement().getIdPart()));
-					case ALPHANUMERIC:
-						if (theResource.getIdElement().isIdPartValidLong()) {
-							throw new InvalidRequestException(
-								getContext().getLocalizer().getMessageSanitized(BaseHapiFhirResourceDao.class, "failedToCreateWithClientAssignedNumericId", theResource.getIdElement().getIdPart()));
-						}
-						createForcedIdIfNeeded(entity, theResource.getIdElement(), false);
-						break;
-					case ANY:
-						createForcedIdIfNeeded(entity, theResource.getIdElement(), true);
-						break;
-				}
-				serverAssignedId = false;
-			}
-		} else {
-			serverAssignedId = true;
-		}
+		boolean serverAssignedId = assignForcedIdForCreate(entity, theResource);
 
 		// Notify interceptors
 		if (theRequest != null) {
@@ -325,17 +298,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 
 		theResource.setId(entity.getIdDt());
 		if (serverAssignedId) {
-			switch (myDaoConfig.getResourceClientIdStrategy()) {
-				case NOT_ALLOWED:
-				case ALPHANUMERIC:
-					break;
-				case ANY:
-					ForcedId forcedId = createForcedIdIfNeeded(updatedEntity, theResource.getIdElement(), true);
-					if (forcedId != null) {
-						myForcedIdDao.save(forcedId);
-					}
-					break;
-			}
+			createForcedIdForServerAssignedIdIfNeeded(updatedEntity, theResource.getIdElement());
 		}
 
 		/*
@@ -376,6 +339,66 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		return outcome;
 	}
 
+	/**
+	 * Assigns a random UUID to a resource being created if {@link DaoConfig#getResourceServerIdStrategy()}
+	 * is {@link DaoConfig.IdStrategyEnum#UUID UUID}. Otherwise the ID is assigned when the entity is inserted.
+	 */
+	void assignServerIdIfNeeded(IBaseResource theResource) {
+		if (myDaoConfig.getResourceServerIdStrategy() == DaoConfig.IdStrategyEnum.UUID) {
+			theResource.setId(UUID.randomUUID().toString());
+			theResource.setUserData(JpaConstants.RESOURCE_ID_SERVER_ASSIGNED, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Applies {@link DaoConfig#getResourceClientIdStrategy()} to a resource which is about to be created,
+	 * adding a forced ID to the new (not yet inserted) entity where one is needed.
+	 *
+	 * @return Returns <code>true</code> if the resource ID is assigned by the server rather than the client
+	 */
+	boolean assignForcedIdForCreate(ResourceTable theEntity, IBaseResource theResource) {
+		IIdType id = theResource.getIdElement();
+		if (isBlank(id.getIdPart())) {
+			return true;
+		}
+
+		if (theResource.getUserData(JpaConstants.RESOURCE_ID_SERVER_ASSIGNED) == Boolean.TRUE) {
+			createForcedIdIfNeeded(theEntity, id, true);
+			return true;
+		}
+
+		switch (myDaoConfig.getResourceClientIdStrategy()) {
+			case NOT_ALLOWED:
+				throw new ResourceNotFoundException(
+					getContext().getLocalizer().getMessageSanitized(BaseHapiFhirResourceDao.class, "failedToCreateWithClientAssignedIdNotAllowed", id.getIdPart()));
+			case ALPHANUMERIC:
+				if (id.isIdPartValidLong()) {
+					throw new InvalidRequestException(
+						getContext().getLocalizer().getMessageSanitized(BaseHapiFhirResourceDao.class, "failedToCreateWithClientAssignedNumericId", id.getIdPart()));
+				}
+				createForcedIdIfNeeded(theEntity, id, false);
+				break;
+			case ANY:
+				createForcedIdIfNeeded(theEntity, id, true);
+				break;
+		}
+		return false;
+	}
+
+	/**
+	 * Called once a resource with a server assigned ID has been inserted. With the
+	 * {@link DaoConfig.ClientIdStrategyEnum#ANY ANY} client ID strategy the numeric ID is also
+	 * stored as a forced ID, so that a client can't later create a resource with the same ID.
+	 */
+	void createForcedIdForServerAssignedIdIfNeeded(ResourceTable theEntity, IIdType theId) {
+		if (myDaoConfig.getResourceClientIdStrategy() == DaoConfig.ClientIdStrategyEnum.ANY) {
+			ForcedId forcedId = createForcedIdIfNeeded(theEntity, theId, true);
+			if (forcedId != null) {
+				myForcedIdDao.save(forcedId);
+			}
+		}
+	}
+
 	private IInstanceValidatorModule getInstanceValidator() {
 		return myInstanceValidator;
 	}
@@ -1464,7 +1487,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 
 		IIdType resourceId;
 		if (isNotBlank(theMatchUrl)) {
-			Set<ResourcePersistentId> match = myMatchResourceUrlService.processMatchUrl(theMatchUrl, myResourceType, theRequest);
+			Set<ResourcePersistentId> match = myMatchResourceUrlService.processMatchUrl(theMatchUrl, myResourceType, theTransactionDetails, theRequest);
 			if (match.size() > 1) {
 				String msg = getContext().getLocalizer().getMessageSanitized(BaseHapiFhirDao.class, "transactionOperationWithMultipleMatchFailure", "UPDATE", theMatchUrl, match.size());
 				throw new PreconditionFailedException(msg);
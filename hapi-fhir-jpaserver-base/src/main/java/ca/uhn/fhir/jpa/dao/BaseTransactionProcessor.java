@@ -33,11 +33,13 @@ import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
 import ca.uhn.fhir.jpa.api.model.DeleteConflict;
 import ca.uhn.fhir.jpa.api.model.DeleteConflictList;
 import ca.uhn.fhir.jpa.api.model.DeleteMethodOutcome;
+import ca.uhn.fhir.jpa.dao.index.DaoSearchParamSynchronizer;
 import ca.uhn.fhir.jpa.dao.tx.HapiTransactionService;
 import ca.uhn.fhir.jpa.delete.DeleteConflictService;
 import ca.uhn.fhir.jpa.model.cross.IBasePersistedResource;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorService;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
 import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
 import ca.uhn.fhir.parser.DataFormatException;
@@ -70,7 +72,7 @@ import ca.uhn.fhir.util.UrlUtil;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import org.apache.commons.lang3.Validate;
-
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBase;
@@ -91,6 +93,7 @@ import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
@@ -104,6 +107,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static ca.uhn.fhir.util.StringUtil.toUtf8String;
 import static org.apache.commons.lang3.StringUtils.defaultString;
@@ -131,12 +138,47 @@ public abstract class BaseTransactionProcessor {
 	private HapiTransactionService myHapiTransactionService;
 	@Autowired
 	private DaoConfig myDaoConfig;
+	@Autowired
+	private DaoSearchParamSynchronizer myDaoSearchParamSynchronizer;
+	@Autowired
+	private SearchParamExtractorService mySearchParamExtractorService;
+	private ThreadPoolExecutor mySearchParamExtractionExecutor;
 
 	@PostConstruct
 	public void start() {
 
 	}
 
+	@PreDestroy
+	public synchronized void stop() {
+		if (mySearchParamExtractionExecutor != null) {
+			mySearchParamExtractionExecutor.shutdownNow();
+			mySearchParamExtractionExecutor = null;
+		}
+	}
+
+	/**
+	 * The pool is resized rather than replaced if the configured thread count changes,
+	 * so that transactions which are already using it are not affected
+	 */
+	private synchronized ExecutorService getSearchParamExtractionExecutor(int theThreadCount) {
+		if (mySearchParamExtractionExecutor == null) {
+			BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("transaction-sp-extraction-%d")
+				.daemon(true)
+				.build();
+			mySearchParamExtractionExecutor = new ThreadPoolExecutor(theThreadCount, theThreadCount, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), threadFactory);
+			mySearchParamExtractionExecutor.allowCoreThreadTimeOut(true);
+		} else if (mySearchParamExtractionExecutor.getMaximumPoolSize() < theThreadCount) {
+			mySearchParamExtractionExecutor.setMaximumPoolSize(theThreadCount);
+			mySearchParamExtractionExecutor.setCorePoolSize(theThreadCount);
+		} else if (mySearchParamExtractionExecutor.getMaximumPoolSize() > theThreadCount) {
+			mySearchParamExtractionExecutor.setCorePoolSize(theThreadCount);
+			mySearchParamExtractionExecutor.setMaximumPoolSize(theThreadCount);
+		}
+		return mySearchParamExtractionExecutor;
+	}
+
 	public <BUNDLE extends IBaseBundle> BUNDLE transaction(RequestDetails theRequestDetails, BUNDLE theRequest) {
 		if (theRequestDetails != null && myDao != null) {
 			IServerInterceptor.ActionRequestDetails requestDetails = new IServerInterceptor.ActionRequestDetails(theRequestDetails, theRequest, "Bundle", null);
@@ -621,6 +663,12 @@ public abstract class BaseTransactionProcessor {
 			}
 
 
+			if (myDaoConfig.isTransactionConditionalMatchPrefetchEnabled()) {
+				theTransactionStopWatch.startTask("Prefetch conditional match URLs");
+				prefetchConditionalMatchUrls(theTransactionDetails, theEntries);
+				theTransactionStopWatch.endCurrentTask();
+			}
+
 			/*
 			 * Loop through the request and process any entries of type
 			 * PUT, POST or DELETE
@@ -888,13 +936,10 @@ public abstract class BaseTransactionProcessor {
 
 			FhirTerser terser = myContext.newTerser();
 			theTransactionStopWatch.startTask("Index " + theIdToPersistedOutcome.size() + " resources");
-			int i = 0;
+			myDaoSearchParamSynchronizer.startBatch();
+			List<IBaseResource> resourcesToIndex = new ArrayList<>();
 			for (DaoMethodOutcome nextOutcome : theIdToPersistedOutcome.values()) {
 
-				if (i++ % 250 == 0) {
-					ourLog.debug("Have indexed {} entities out of {} in transaction", i, theIdToPersistedOutcome.values().size());
-				}
-
 				IBaseResource nextResource = nextOutcome.getResource();
 				if (nextResource == null) {
 					continue;
@@ -935,6 +980,33 @@ public abstract class BaseTransactionProcessor {
 					}
 				}
 
+				if (updatedEntities.contains(nextOutcome.getEntity()) || !nonUpdatedEntities.contains(nextOutcome.getEntity())) {
+					resourcesToIndex.add(nextResource);
+				}
+			}
+
+			/*
+			 * Extracting the search parameter values is the most CPU intensive part of indexing,
+			 * and it doesn't need the database, so it can be done for all of the resources
+			 * concurrently. Writing the indexes still happens one resource at a time below.
+			 */
+			int extractionThreadCount = myDaoConfig.getTransactionSearchParamExtractionThreadCount();
+			if (extractionThreadCount > 1 && resourcesToIndex.size() > 1) {
+				mySearchParamExtractorService.preExtractSearchIndexParameters(theRequest, theTransactionDetails, resourcesToIndex, getSearchParamExtractionExecutor(extractionThreadCount));
+			}
+
+			int i = 0;
+			for (DaoMethodOutcome nextOutcome : theIdToPersistedOutcome.values()) {
+
+				if (i++ % 250 == 0) {
+					ourLog.debug("Have indexed {} entities out of {} in transaction", i, theIdToPersistedOutcome.values().size());
+				}
+
+				IBaseResource nextResource = nextOutcome.getResource();
+				if (nextResource == null) {
+					continue;
+				}
+
 				IPrimitiveType<Date> deletedInstantOrNull = ResourceMetadataKeyEnum.DELETED_AT.get((IAnyResource) nextResource);
 				Date deletedTimestampOrNull = deletedInstantOrNull != null ? deletedInstantOrNull.getValue() : null;
 
@@ -951,6 +1023,7 @@ public abstract class BaseTransactionProcessor {
 			theTransactionStopWatch.endCurrentTask();
 			theTransactionStopWatch.startTask("Flush writes to database");
 
+			myDaoSearchParamSynchronizer.flushBatch();
 			flushSession(theIdToPersistedOutcome);
 
 			theTransactionStopWatch.endCurrentTask();
@@ -1002,6 +1075,48 @@ public abstract class BaseTransactionProcessor {
 		}
 	}
 
+	/**
+	 * Resolves the conditional create and conditional update URLs in the transaction ahead of time, so
+	 * that they can be looked up in groups instead of one at a time. URLs which refer to a placeholder
+	 * ID can't be resolved yet. Deletes are processed before any other writes and can change which
+	 * resources match, so nothing is resolved ahead of time if the transaction contains any.
+	 */
+	private void prefetchConditionalMatchUrls(TransactionDetails theTransactionDetails, List<IBase> theEntries) {
+		ListMultimap<Class<? extends IBaseResource>, String> matchUrls = ArrayListMultimap.create();
+		for (IBase nextEntry : theEntries) {
+			String verb = myVersionAdapter.getEntryRequestVerb(myContext, nextEntry);
+			if ("DELETE".equals(verb)) {
+				return;
+			}
+
+			IBaseResource resource = myVersionAdapter.getResource(nextEntry);
+			if (resource == null) {
+				continue;
+			}
+
+			String matchUrl = null;
+			if ("POST".equals(verb)) {
+				matchUrl = myVersionAdapter.getEntryRequestIfNoneExist(nextEntry);
+			} else if ("PUT".equals(verb)) {
+				String url = myVersionAdapter.getEntryRequestUrl(nextEntry);
+				if (isNotBlank(url)) {
+					UrlUtil.UrlParts parts = UrlUtil.parseUrl(url);
+					if (isBlank(parts.getResourceId()) && isNotBlank(parts.getParams())) {
+						matchUrl = parts.getResourceType() + '?' + parts.getParams();
+					}
+				}
+			}
+
+			if (isNotBlank(matchUrl) && !matchUrl.contains(URN_PREFIX)) {
+				matchUrls.put(resource.getClass(), matchUrl);
+			}
+		}
+
+		if (!matchUrls.isEmpty()) {
+			myMatchResourceUrlService.prefetchMatchUrls(matchUrls, theTransactionDetails);
+		}
+	}
+
 	protected abstract void flushSession(Map<IIdType, DaoMethodOutcome> theIdToPersistedOutcome);
 
 	private void validateResourcePresent(IBaseResource theResource, Integer theOrder, String theVerb) {
@@ -0,0 +1,84 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.util.SpringObjectCaster;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Gives the bulk import job access to the parts of the FHIR create logic in
+ * {@link BaseHapiFhirResourceDao} which it has to apply itself, because it stores
+ * resources through the entity layer rather than through the create and update
+ * operations. This is not part of the DAO API and shouldn't be used for anything else.
+ */
+public final class BulkImportDaoSupport {
+
+	private BulkImportDaoSupport() {
+		// nothing
+	}
+
+	/**
+	 * Validates a resource and normalizes its references before it is stored
+	 *
+	 * @see BaseStorageDao#preProcessResourceForStorage(IBaseResource)
+	 */
+	public static void preProcessResourceForStorage(IFhirResourceDao<?> theDao, IBaseResource theResource) {
+		toResourceDao(theDao).preProcessResourceForStorage(theResource);
+	}
+
+	/**
+	 * Applies the server and client ID strategies to a resource which is about to be created,
+	 * the same way as a FHIR create or create-by-update does.
+	 *
+	 * @return Returns <code>true</code> if the resource ID is assigned by the server
+	 * @see #createForcedIdForServerAssignedIdIfNeeded(IFhirResourceDao, ResourceTable)
+	 */
+	public static boolean assignIdForCreate(IFhirResourceDao<?> theDao, ResourceTable theEntity, IBaseResource theResource) {
+		BaseHapiFhirResourceDao<?> dao = toResourceDao(theDao);
+		if (!theResource.getIdElement().hasIdPart()) {
+			dao.assignServerIdIfNeeded(theResource);
+		}
+		return dao.assignForcedIdForCreate(theEntity, theResource);
+	}
+
+	/**
+	 * Must be called once a resource with a server assigned ID has been inserted
+	 */
+	public static void createForcedIdForServerAssignedIdIfNeeded(IFhirResourceDao<?> theDao, ResourceTable theEntity) {
+		toResourceDao(theDao).createForcedIdForServerAssignedIdIfNeeded(theEntity, theEntity.getIdDt());
+	}
+
+	/**
+	 * DAO beans are transactional proxies, so this returns the DAO behind the proxy. The
+	 * caller must already have started the transaction.
+	 */
+	private static BaseHapiFhirResourceDao<?> toResourceDao(IFhirResourceDao<?> theDao) {
+		try {
+			return SpringObjectCaster.getTargetObject(theDao, BaseHapiFhirResourceDao.class);
+		} catch (Exception e) {
+			throw new InternalErrorException(e);
+		}
+	}
+
+}
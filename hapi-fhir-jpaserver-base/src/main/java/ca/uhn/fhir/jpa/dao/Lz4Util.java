@@ -0,0 +1,55 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.parser.DataFormatException;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class Lz4Util {
+
+	public static String decompress(byte[] theResource) {
+		try (FramedLZ4CompressorInputStream is = new FramedLZ4CompressorInputStream(new ByteArrayInputStream(theResource))) {
+			return IOUtils.toString(is, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to decompress contents", e);
+		}
+	}
+
+	public static byte[] compress(String theEncoded) {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			try (FramedLZ4CompressorOutputStream los = new FramedLZ4CompressorOutputStream(os)) {
+				IOUtils.write(theEncoded, los, StandardCharsets.UTF_8);
+			}
+			return os.toByteArray();
+		} catch (IOException e) {
+			throw new DataFormatException("Compress contents", e);
+		}
+	}
+
+}
@@ -22,29 +22,57 @@ package ca.uhn.fhir.jpa.dao;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.interceptor.model.RequestPartitionId;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceIndexedSearchParamTokenDao;
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
+import ca.uhn.fhir.jpa.util.QueryChunker;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import ca.uhn.fhir.rest.api.server.storage.TransactionDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.StopWatch;
+import ca.uhn.fhir.util.UrlUtil;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimap;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
 @Service
 public class MatchResourceUrlService {
+	private static final Logger ourLog = LoggerFactory.getLogger(MatchResourceUrlService.class);
+	private static final String PREFETCHED_MATCH_URLS_KEY = MatchResourceUrlService.class.getName() + "_PREFETCHED_MATCH_URLS";
+	private static final String IDENTIFIER_PARAM_NAME = "identifier";
+
 	@Autowired
 	private DaoRegistry myDaoRegistry;
 	@Autowired
@@ -53,6 +81,12 @@ public class MatchResourceUrlService {
 	private MatchUrlService myMatchUrlService;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private ISearchParamRegistry mySearchParamRegistry;
+	@Autowired
+	private PartitionSettings myPartitionSettings;
+	@Autowired
+	private IResourceIndexedSearchParamTokenDao myResourceIndexedSearchParamTokenDao;
 
 	public <R extends IBaseResource> Set<ResourcePersistentId> processMatchUrl(String theMatchUrl, Class<R> theResourceType, RequestDetails theRequest) {
 		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(theResourceType);
@@ -65,6 +99,114 @@ public class MatchResourceUrlService {
 		return search(paramMap, theResourceType, theRequest);
 	}
 
+	/**
+	 * Same as {@link #processMatchUrl(String, Class, RequestDetails)}, but uses the results of
+	 * {@link #prefetchMatchUrls(Multimap, TransactionDetails)} if the match URL was resolved
+	 * ahead of time for this transaction.
+	 */
+	public <R extends IBaseResource> Set<ResourcePersistentId> processMatchUrl(String theMatchUrl, Class<R> theResourceType, TransactionDetails theTransactionDetails, RequestDetails theRequest) {
+		if (theTransactionDetails != null) {
+			Map<String, Set<ResourcePersistentId>> prefetched = theTransactionDetails.getUserData(PREFETCHED_MATCH_URLS_KEY);
+			if (prefetched != null) {
+				Set<ResourcePersistentId> retVal = prefetched.get(toPrefetchKey(theResourceType, theMatchUrl));
+				if (retVal != null) {
+					return new HashSet<>(retVal);
+				}
+			}
+		}
+		return processMatchUrl(theMatchUrl, theResourceType, theRequest);
+	}
+
+	/**
+	 * Resolves a collection of match URLs ahead of time. Match URLs which consist of a single
+	 * <code>identifier</code> parameter with both a system and a value (which is the form used by
+	 * nearly all conditional creates and updates) are resolved using a single query per batch of
+	 * URLs. Any other match URLs are ignored here and are resolved individually when they are used.
+	 * <p>
+	 * The results are stored in the {@link TransactionDetails}, so callers must make sure that
+	 * nothing in the transaction can change which resources match these URLs before they are used.
+	 * </p>
+	 */
+	public void prefetchMatchUrls(Multimap<Class<? extends IBaseResource>, String> theMatchUrls, TransactionDetails theTransactionDetails) {
+		if (myPartitionSettings.isPartitioningEnabled()) {
+			return;
+		}
+
+		ListMultimap<Long, String> hashToKeys = ArrayListMultimap.create();
+		Map<String, Set<ResourcePersistentId>> prefetched = new HashMap<>();
+		for (Map.Entry<Class<? extends IBaseResource>, String> next : theMatchUrls.entries()) {
+			Class<? extends IBaseResource> resourceType = next.getKey();
+			String matchUrl = next.getValue();
+			TokenParam identifier = toSingleIdentifierOrNull(resourceType, matchUrl);
+			if (identifier == null) {
+				continue;
+			}
+
+			String resourceName = myContext.getResourceType(resourceType);
+			long hash = ResourceIndexedSearchParamToken.calculateHashSystemAndValue(myPartitionSettings, (RequestPartitionId) null, resourceName, IDENTIFIER_PARAM_NAME, identifier.getSystem(), identifier.getValue());
+			String key = toPrefetchKey(resourceType, matchUrl);
+			hashToKeys.put(hash, key);
+			prefetched.put(key, new HashSet<>());
+		}
+
+		if (hashToKeys.isEmpty()) {
+			return;
+		}
+
+		new QueryChunker<Long>().chunk(new ArrayList<>(hashToKeys.keySet()), theHashes -> {
+			for (Object[] next : myResourceIndexedSearchParamTokenDao.findResourcePidsByHashSystemAndValue(theHashes)) {
+				ResourcePersistentId pid = new ResourcePersistentId(next[1]);
+				for (String nextKey : hashToKeys.get((Long) next[0])) {
+					prefetched.get(nextKey).add(pid);
+				}
+			}
+		});
+
+		ourLog.debug("Prefetched {} conditional match URLs", prefetched.size());
+		theTransactionDetails.putUserData(PREFETCHED_MATCH_URLS_KEY, prefetched);
+	}
+
+	private TokenParam toSingleIdentifierOrNull(Class<? extends IBaseResource> theResourceType, String theMatchUrl) {
+		String resourceName = myContext.getResourceType(theResourceType);
+		RuntimeSearchParam identifierParam = mySearchParamRegistry.getActiveSearchParam(resourceName, IDENTIFIER_PARAM_NAME);
+		if (identifierParam == null || identifierParam.getParamType() != RestSearchParameterTypeEnum.TOKEN) {
+			return null;
+		}
+
+		int questionMarkIndex = theMatchUrl.indexOf('?');
+		Map<String, String[]> parameters = UrlUtil.parseQueryString(theMatchUrl.substring(questionMarkIndex + 1));
+		String[] values = parameters.get(IDENTIFIER_PARAM_NAME);
+		if (parameters.size() != 1 || values == null || values.length != 1 || values[0].contains(",")) {
+			return null;
+		}
+
+		SearchParameterMap paramMap;
+		try {
+			paramMap = myMatchUrlService.translateMatchUrl(theMatchUrl, myContext.getResourceDefinition(theResourceType));
+		} catch (InvalidRequestException e) {
+			// Leave it to the regular processing to report the problem
+			return null;
+		}
+
+		List<List<IQueryParameterType>> andList = paramMap.get(IDENTIFIER_PARAM_NAME);
+		if (paramMap.size() != 1 || andList == null || andList.size() != 1 || andList.get(0).size() != 1) {
+			return null;
+		}
+		IQueryParameterType orValue = andList.get(0).get(0);
+		if (!(orValue instanceof TokenParam)) {
+			return null;
+		}
+		TokenParam retVal = (TokenParam) orValue;
+		if (retVal.getModifier() != null || isBlank(retVal.getSystem()) || isBlank(retVal.getValue())) {
+			return null;
+		}
+		return retVal;
+	}
+
+	private String toPrefetchKey(Class<? extends IBaseResource> theResourceType, String theMatchUrl) {
+		return myContext.getResourceType(theResourceType) + " " + theMatchUrl;
+	}
+
 	public <R extends IBaseResource> Set<ResourcePersistentId> search(SearchParameterMap theParamMap, Class<R> theResourceType, RequestDetails theRequest) {
 		StopWatch sw = new StopWatch();
 		IFhirResourceDao<R> dao = myDaoRegistry.getResourceDao(theResourceType);
@@ -0,0 +1,83 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.parser.DataFormatException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Converts between JSON text and the Smile binary JSON format without building a resource
+ * model. This is used when a stored resource body needs to be handled as text, e.g. when
+ * re-encoding it to a different {@link ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum}.
+ */
+public class SmileUtil {
+
+	private static final JsonFactory ourJsonFactory = new JsonFactory();
+	private static final SmileFactory ourSmileFactory = new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+
+	public static String toJson(byte[] theResource) {
+		try {
+			StringWriter writer = new StringWriter();
+			try (JsonParser parser = ourSmileFactory.createParser(theResource);
+				  JsonGenerator generator = ourJsonFactory.createGenerator(writer)) {
+				copy(parser, generator);
+			}
+			return writer.toString();
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to convert Smile contents to JSON", e);
+		}
+	}
+
+	public static byte[] fromJson(String theEncoded) {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			try (JsonParser parser = ourJsonFactory.createParser(theEncoded);
+				  JsonGenerator generator = ourSmileFactory.createGenerator(os)) {
+				copy(parser, generator);
+			}
+			return os.toByteArray();
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to convert JSON contents to Smile", e);
+		}
+	}
+
+	private static void copy(JsonParser theParser, JsonGenerator theGenerator) throws IOException {
+		JsonToken token;
+		while ((token = theParser.nextToken()) != null) {
+			if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+				// Decimals must keep their exact representation (e.g. trailing zeros)
+				theGenerator.writeNumber(theParser.getDecimalValue());
+			} else {
+				theGenerator.copyCurrentEvent(theParser);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.parser.DataFormatException;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+
+public class ZstdUtil {
+
+	/**
+	 * Zstandard's own default level, which favours compression speed
+	 */
+	public static final int COMPRESSION_LEVEL = 3;
+
+	/**
+	 * Returns the ID of the dictionary that was used to compress the given frame, or
+	 * <code>0</code> if the frame was compressed without a dictionary
+	 */
+	public static long getDictionaryId(byte[] theCompressed) {
+		return Zstd.getDictIdFromFrame(theCompressed);
+	}
+
+	public static String decompress(byte[] theCompressed, @Nullable ZstdDictDecompress theDictionary) {
+		try {
+			long contentSize = Zstd.getFrameContentSize(theCompressed);
+			if (contentSize < 0 || contentSize > Integer.MAX_VALUE) {
+				throw new DataFormatException("Failed to decompress contents, invalid content size: " + contentSize);
+			}
+			byte[] decompressed;
+			if (theDictionary != null) {
+				decompressed = Zstd.decompress(theCompressed, theDictionary, (int) contentSize);
+			} else {
+				decompressed = Zstd.decompress(theCompressed, (int) contentSize);
+			}
+			return new String(decompressed, StandardCharsets.UTF_8);
+		} catch (ZstdException e) {
+			throw new DataFormatException("Failed to decompress contents", e);
+		}
+	}
+
+	public static byte[] compress(String theEncoded, @Nullable ZstdDictCompress theDictionary) {
+		byte[] bytes = theEncoded.getBytes(StandardCharsets.UTF_8);
+		try {
+			if (theDictionary != null) {
+				return Zstd.compress(bytes, theDictionary);
+			}
+			return Zstd.compress(bytes, COMPRESSION_LEVEL);
+		} catch (ZstdException e) {
+			throw new DataFormatException("Compress contents", e);
+		}
+	}
+
+}
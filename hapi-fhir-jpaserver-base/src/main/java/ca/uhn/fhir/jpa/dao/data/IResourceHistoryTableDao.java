@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.dao.data;
 
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
 import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
@@ -8,6 +9,8 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+
 /*
  * #%L
  * HAPI FHIR JPA Server
@@ -57,6 +60,12 @@ public interface IResourceHistoryTableDao extends JpaRepository<ResourceHistoryT
 		"WHERE v.myResourceVersion != t.myVersion")
 	Slice<Long> findIdsOfPreviousVersionsOfResources(Pageable thePage);
 
+	@Query("SELECT t FROM ResourceHistoryTable t WHERE t.myResourceType = :restype AND t.myEncoding != :dontWantEncoding ORDER BY t.myUpdated DESC")
+	Slice<ResourceHistoryTable> findNewestForResourceType(Pageable thePage, @Param("restype") String theResourceType, @Param("dontWantEncoding") ResourceEncodingEnum theDontWantEncoding);
+
+	@Query("SELECT t.myId FROM ResourceHistoryTable t WHERE t.myEncoding NOT IN (:dontWantEncodings)")
+	Slice<Long> findIdsWithEncodingNotIn(Pageable thePage, @Param("dontWantEncodings") Collection<ResourceEncodingEnum> theDontWantEncodings);
+
 	@Modifying
 	@Query("UPDATE ResourceHistoryTable r SET r.myResourceVersion = :newVersion WHERE r.myResourceId = :id AND r.myResourceVersion = :oldVersion")
 	void updateVersion(@Param("id") long theId, @Param("oldVersion") long theOldVersion, @Param("newVersion") long theNewVersion);
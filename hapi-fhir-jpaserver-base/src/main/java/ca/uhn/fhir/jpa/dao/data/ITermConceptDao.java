@@ -9,6 +9,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -46,6 +47,15 @@ public interface ITermConceptDao extends JpaRepository<TermConcept, Long> {
 	@Query("SELECT c FROM TermConcept c WHERE c.myCodeSystem = :code_system")
 	List<TermConcept> findByCodeSystemVersion(@Param("code_system") TermCodeSystemVersion theCodeSystem);
 
+	@Query("SELECT t.myId, t.myCode, t.myDisplay FROM TermConcept t WHERE t.myCodeSystem.myId = :cs_pid")
+	List<Object[]> findIdCodeAndDisplayByCodeSystemVersion(@Param("cs_pid") Long thePid);
+
+	@Query("SELECT t.myId FROM TermConcept t WHERE t.myId IN (:pids)")
+	List<Long> findExistingIds(@Param("pids") Collection<Long> thePids);
+
+	@Query("SELECT COUNT(t), MAX(t.myId), MAX(t.myUpdated) FROM TermConcept t WHERE t.myCodeSystem.myId = :cs_pid")
+	List<Object[]> findCountMaxIdAndMaxUpdatedByCodeSystemVersion(@Param("cs_pid") Long thePid);
+
 	@Query("SELECT t FROM TermConcept t WHERE t.myIndexStatus = null")
 	Page<TermConcept> findResourcesRequiringReindexing(Pageable thePageRequest);
 
@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.util.Collection;
+import java.util.List;
 
 /*
  * #%L
@@ -37,6 +38,12 @@ public interface ITermConceptParentChildLinkDao extends JpaRepository<TermConcep
 	@Query("SELECT t.myParentPid FROM TermConceptParentChildLink t WHERE t.myChildPid = :child_pid")
 	Collection<Long> findAllWithChild(@Param("child_pid") Long theConceptPid);
 
+	@Query("SELECT t.myParentPid, t.myChildPid FROM TermConceptParentChildLink t WHERE t.myCodeSystem.myId = :cs_pid")
+	List<Object[]> findParentAndChildPidsByCodeSystemVersion(@Param("cs_pid") Long thePid);
+
+	@Query("SELECT COUNT(t), MAX(t.myPid) FROM TermConceptParentChildLink t WHERE t.myCodeSystem.myId = :cs_pid")
+	List<Object[]> findCountAndMaxIdByCodeSystemVersion(@Param("cs_pid") Long thePid);
+
 	@Query("SELECT t.myPid FROM TermConceptParentChildLink t WHERE t.myCodeSystem.myId = :cs_pid")
 	Slice<Long> findIdsByCodeSystemVersion(Pageable thePage, @Param("cs_pid") Long thePid);
 
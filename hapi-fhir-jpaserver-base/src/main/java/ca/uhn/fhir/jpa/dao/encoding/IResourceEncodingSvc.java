@@ -0,0 +1,62 @@
+package ca.uhn.fhir.jpa.dao.encoding;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+
+/**
+ * Converts serialized resource bodies to and from the form stored in the
+ * <code>RES_TEXT</code> column of {@link ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable}.
+ * <p>
+ * Resource versions can always be decoded regardless of the currently configured
+ * {@link ca.uhn.fhir.jpa.api.config.DaoConfig#getResourceEncoding() resource encoding}.
+ * </p>
+ */
+public interface IResourceEncodingSvc {
+
+	/**
+	 * @param theResourceType The resource type, used to select a compression dictionary
+	 * @param theEncoded      The serialized resource body
+	 * @param theEncoding     The encoding to use
+	 */
+	byte[] encode(String theResourceType, String theEncoded, ResourceEncodingEnum theEncoding);
+
+	/**
+	 * @return Returns the serialized resource body, or <code>null</code> for {@link ResourceEncodingEnum#DEL}
+	 */
+	String decode(byte[] theBytes, ResourceEncodingEnum theEncoding);
+
+	/**
+	 * Trains a new compression dictionary for the given resource type from a sample of the
+	 * most recently stored versions of that type. Versions stored after this call will be
+	 * compressed using the new dictionary.
+	 *
+	 * @return Returns <code>true</code> if a dictionary was created, or <code>false</code> if not
+	 * enough resources of the given type have been stored yet
+	 */
+	boolean trainDictionary(String theResourceType);
+
+	/**
+	 * @return Returns <code>true</code> if a compression dictionary exists for the given resource type
+	 */
+	boolean hasDictionary(String theResourceType);
+
+}
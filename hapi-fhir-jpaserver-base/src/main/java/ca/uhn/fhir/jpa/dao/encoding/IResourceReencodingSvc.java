@@ -0,0 +1,43 @@
+package ca.uhn.fhir.jpa.dao.encoding;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Background maintenance of stored resource bodies: trains compression dictionaries and
+ * converts resource versions stored using a different encoding than the one currently
+ * configured in {@link ca.uhn.fhir.jpa.api.config.DaoConfig#getResourceEncoding()}.
+ */
+public interface IResourceReencodingSvc {
+
+	/**
+	 * Called automatically by the scheduler
+	 */
+	void scheduleReencodingPass();
+
+	/**
+	 * Trains any missing dictionaries (if enabled) and converts up to one pass worth of
+	 * resource versions to the configured encoding (if enabled)
+	 *
+	 * @return Returns the number of resource versions that were converted
+	 */
+	int runReencodingPass();
+
+}
@@ -0,0 +1,178 @@
+package ca.uhn.fhir.jpa.dao.encoding;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.ZstdUtil;
+import ca.uhn.fhir.jpa.dao.data.IResourceEncodingDictionaryDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
+import ca.uhn.fhir.jpa.entity.ResourceEncodingDictionaryEntity;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+public class ResourceEncodingSvcImpl implements IResourceEncodingSvc {
+
+	@VisibleForTesting
+	static final int MIN_SAMPLE_COUNT = 100;
+	private static final Logger ourLog = LoggerFactory.getLogger(ResourceEncodingSvcImpl.class);
+	private static final int MAX_SAMPLE_COUNT = 2000;
+	private static final int MAX_SAMPLE_BYTES = 10 * 1024 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	/**
+	 * Absent dictionaries are cached too, so this expiry also bounds how long it takes
+	 * for a dictionary trained on another server in the cluster to be picked up
+	 */
+	private final Cache<String, Optional<ZstdDictCompress>> myResourceTypeToCompressionDictionary = Caffeine
+		.newBuilder()
+		.expireAfterWrite(DateUtils.MILLIS_PER_MINUTE, TimeUnit.MILLISECONDS)
+		.build();
+	private final Cache<Long, ZstdDictDecompress> myIdToDecompressionDictionary = Caffeine
+		.newBuilder()
+		.maximumSize(1000)
+		.build();
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private IResourceEncodingDictionaryDao myDictionaryDao;
+	@Autowired
+	private IResourceHistoryTableDao myResourceHistoryTableDao;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+
+	@Override
+	public byte[] encode(String theResourceType, String theEncoded, ResourceEncodingEnum theEncoding) {
+		if (theEncoding == ResourceEncodingEnum.JSONZ && myDaoConfig.isResourceEncodingDictionaryEnabled()) {
+			ZstdDictCompress dictionary = getCompressionDictionary(theResourceType).orElse(null);
+			return ZstdUtil.compress(theEncoded, dictionary);
+		}
+		return BaseHapiFhirDao.encodeResourceText(theEncoded, theEncoding);
+	}
+
+	@Override
+	public String decode(byte[] theBytes, ResourceEncodingEnum theEncoding) {
+		if (theEncoding == ResourceEncodingEnum.JSONZ) {
+			long dictionaryId = ZstdUtil.getDictionaryId(theBytes);
+			ZstdDictDecompress dictionary = null;
+			if (dictionaryId != 0) {
+				dictionary = myIdToDecompressionDictionary.get(dictionaryId, this::loadDecompressionDictionary);
+			}
+			return ZstdUtil.decompress(theBytes, dictionary);
+		}
+		return BaseHapiFhirDao.decodeResource(theBytes, theEncoding);
+	}
+
+	@Override
+	public boolean hasDictionary(String theResourceType) {
+		return getCompressionDictionary(theResourceType).isPresent();
+	}
+
+	@Override
+	public boolean trainDictionary(String theResourceType) {
+		ZstdDictTrainer trainer = new ZstdDictTrainer(MAX_SAMPLE_BYTES, DICTIONARY_SIZE);
+
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		txTemplate.setReadOnly(true);
+		Integer sampleCount = txTemplate.execute(t -> {
+			PageRequest page = PageRequest.of(0, MAX_SAMPLE_COUNT);
+			int count = 0;
+			for (ResourceHistoryTable next : myResourceHistoryTableDao.findNewestForResourceType(page, theResourceType, ResourceEncodingEnum.DEL)) {
+				String encoded = decode(next.getResource(), next.getEncoding());
+				if (!trainer.addSample(encoded.getBytes(StandardCharsets.UTF_8))) {
+					break;
+				}
+				count++;
+			}
+			return count;
+		});
+
+		if (sampleCount == null || sampleCount < MIN_SAMPLE_COUNT) {
+			ourLog.debug("Only {} samples available for resource type {}, not training a dictionary", sampleCount, theResourceType);
+			return false;
+		}
+
+		byte[] dictionary;
+		try {
+			dictionary = trainer.trainSamples();
+		} catch (ZstdException e) {
+			ourLog.warn("Failed to train a dictionary for resource type {}: {}", theResourceType, e.toString());
+			return false;
+		}
+
+		long dictionaryId = Zstd.getDictIdFromDict(dictionary);
+		if (dictionaryId == 0 || myDictionaryDao.existsById(dictionaryId)) {
+			ourLog.warn("Trained dictionary for resource type {} has unusable ID {}, discarding it", theResourceType, dictionaryId);
+			return false;
+		}
+
+		ResourceEncodingDictionaryEntity entity = new ResourceEncodingDictionaryEntity();
+		entity.setId(dictionaryId);
+		entity.setResourceType(theResourceType);
+		entity.setCreated(new Date());
+		entity.setDictionary(dictionary);
+		new TransactionTemplate(myTxManager).execute(t -> myDictionaryDao.save(entity));
+
+		myResourceTypeToCompressionDictionary.invalidate(theResourceType);
+		ourLog.info("Trained resource encoding dictionary {} of {} bytes for resource type {} from {} samples", dictionaryId, dictionary.length, theResourceType, sampleCount);
+		return true;
+	}
+
+	private Optional<ZstdDictCompress> getCompressionDictionary(String theResourceType) {
+		return myResourceTypeToCompressionDictionary.get(theResourceType, t -> {
+			List<ResourceEncodingDictionaryEntity> dictionaries = myDictionaryDao.findNewestForResourceType(PageRequest.of(0, 1), t);
+			return dictionaries
+				.stream()
+				.findFirst()
+				.map(d -> new ZstdDictCompress(d.getDictionary(), ZstdUtil.COMPRESSION_LEVEL));
+		});
+	}
+
+	private ZstdDictDecompress loadDecompressionDictionary(Long theDictionaryId) {
+		return myDictionaryDao
+			.findById(theDictionaryId)
+			.map(t -> new ZstdDictDecompress(t.getDictionary()))
+			.orElseThrow(() -> new InternalErrorException("Unknown resource encoding dictionary: " + theDictionaryId));
+	}
+
+}
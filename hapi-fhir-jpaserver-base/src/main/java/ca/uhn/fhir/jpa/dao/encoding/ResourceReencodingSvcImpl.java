@@ -0,0 +1,155 @@
+package ca.uhn.fhir.jpa.dao.encoding;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.model.sched.HapiJob;
+import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
+import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import ca.uhn.fhir.util.StopWatch;
+import org.apache.commons.lang3.time.DateUtils;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trains resource encoding dictionaries and converts stored resource versions to the
+ * configured encoding in the background
+ */
+//
+// NOTE: This is not a @Service because we manually instantiate
+// it in BaseConfig. This is so that we can override the definition
+// in Smile.
+//
+public class ResourceReencodingSvcImpl implements IResourceReencodingSvc {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(ResourceReencodingSvcImpl.class);
+	private static final int BATCH_SIZE = 500;
+	private static final int PASS_SIZE = 50000;
+	private static final long TRAINING_RETRY_MILLIS = DateUtils.MILLIS_PER_HOUR;
+	private final Map<String, Long> myResourceTypeToLastTrainingAttempt = new HashMap<>();
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private DaoRegistry myDaoRegistry;
+	@Autowired
+	private IResourceEncodingSvc myResourceEncodingSvc;
+	@Autowired
+	private IResourceHistoryTableDao myResourceHistoryTableDao;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+	@Autowired
+	private ISchedulerService mySchedulerService;
+
+	@PostConstruct
+	public void scheduleJob() {
+		ScheduledJobDefinition jobDetail = new ScheduledJobDefinition();
+		jobDetail.setId(getClass().getName());
+		jobDetail.setJobClass(Job.class);
+		mySchedulerService.scheduleClusteredJob(DateUtils.MILLIS_PER_MINUTE, jobDetail);
+	}
+
+	@Override
+	public synchronized void scheduleReencodingPass() {
+		if (!myDaoConfig.isSchedulingDisabled()) {
+			runReencodingPass();
+		}
+	}
+
+	@Override
+	public synchronized int runReencodingPass() {
+		ResourceEncodingEnum encoding = myDaoConfig.getResourceEncoding();
+		if (encoding == ResourceEncodingEnum.JSONZ && myDaoConfig.isResourceEncodingDictionaryEnabled()) {
+			trainMissingDictionaries();
+		}
+
+		if (!myDaoConfig.isResourceReencodingEnabled() || encoding == ResourceEncodingEnum.DEL) {
+			return 0;
+		}
+
+		StopWatch sw = new StopWatch();
+		List<ResourceEncodingEnum> skipEncodings = Arrays.asList(encoding, ResourceEncodingEnum.DEL);
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		int count = 0;
+		while (count < PASS_SIZE) {
+			Integer batchCount = txTemplate.execute(t -> {
+				Slice<Long> ids = myResourceHistoryTableDao.findIdsWithEncodingNotIn(PageRequest.of(0, BATCH_SIZE), skipEncodings);
+				for (ResourceHistoryTable next : myResourceHistoryTableDao.findAllById(ids.getContent())) {
+					String encoded = myResourceEncodingSvc.decode(next.getResource(), next.getEncoding());
+					next.setResource(myResourceEncodingSvc.encode(next.getResourceType(), encoded, encoding));
+					next.setEncoding(encoding);
+				}
+				return ids.getNumberOfElements();
+			});
+			if (batchCount == null || batchCount == 0) {
+				break;
+			}
+			count += batchCount;
+		}
+
+		if (count > 0) {
+			ourLog.info("Converted {} resource versions to encoding {} in {} ({}/sec)", count, encoding, sw, sw.formatThroughput(count, TimeUnit.SECONDS));
+		}
+		return count;
+	}
+
+	private void trainMissingDictionaries() {
+		long now = System.currentTimeMillis();
+		for (String nextResourceType : myDaoRegistry.getRegisteredDaoTypes()) {
+			Long lastAttempt = myResourceTypeToLastTrainingAttempt.get(nextResourceType);
+			if (lastAttempt != null && now - lastAttempt < TRAINING_RETRY_MILLIS) {
+				continue;
+			}
+			if (myResourceEncodingSvc.hasDictionary(nextResourceType)) {
+				continue;
+			}
+			myResourceTypeToLastTrainingAttempt.put(nextResourceType, now);
+			myResourceEncodingSvc.trainDictionary(nextResourceType);
+		}
+	}
+
+	public static class Job implements HapiJob {
+		@Autowired
+		private IResourceReencodingSvc myTarget;
+
+		@Override
+		public void execute(JobExecutionContext theContext) {
+			myTarget.scheduleReencodingPass();
+		}
+	}
+
+}
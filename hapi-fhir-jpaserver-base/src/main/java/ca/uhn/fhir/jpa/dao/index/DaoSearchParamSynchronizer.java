@@ -27,8 +27,14 @@ import ca.uhn.fhir.jpa.model.entity.ModelConfig;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.jpa.util.AddRemoveCount;
+import ca.uhn.fhir.jpa.util.QueryChunker;
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -37,9 +43,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Service
 public class DaoSearchParamSynchronizer {
+	private static final Logger ourLog = LoggerFactory.getLogger(DaoSearchParamSynchronizer.class);
 	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
 	protected EntityManager myEntityManager;
 	@Autowired
@@ -84,18 +93,122 @@ public class DaoSearchParamSynchronizer {
 		List<T> paramsToAdd = subtract(newParams, theExistingParams);
 		tryToReuseIndexEntities(paramsToRemove, paramsToAdd);
 
+		PendingIndexWrites pendingWrites = getPendingWrites();
 		for (T next : paramsToRemove) {
-			myEntityManager.remove(next);
+			if (pendingWrites != null) {
+				pendingWrites.addToRemoves(next);
+			} else {
+				myEntityManager.remove(next);
+			}
 			theEntity.getParamsQuantity().remove(next);
 		}
 		for (T next : paramsToAdd) {
-			myEntityManager.merge(next);
+			if (pendingWrites != null && next.getId() == null) {
+				pendingWrites.addToAdds(next);
+			} else {
+				myEntityManager.merge(next);
+			}
 		}
 
-		theAddRemoveCount.addToAddCount(paramsToRemove.size());
+		theAddRemoveCount.addToAddCount(paramsToAdd.size());
 		theAddRemoveCount.addToRemoveCount(paramsToRemove.size());
 	}
 
+	/**
+	 * If {@link DaoConfig#isIndexWriteBatchingEnabled() index write batching} is enabled, index
+	 * rows added or removed by subsequent calls to {@link #synchronizeSearchParamsToDatabase(ResourceIndexedSearchParams, ResourceTable, ResourceIndexedSearchParams)}
+	 * within the current database transaction are held back and written when {@link #flushBatch()}
+	 * is called (or when the transaction commits, whichever comes first).
+	 * <p>
+	 * This method has no effect if batching is disabled, if no transaction is active, or if
+	 * a batch has already been started in the current transaction.
+	 * </p>
+	 */
+	public void startBatch() {
+		if (!myDaoConfig.isIndexWriteBatchingEnabled() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		if (TransactionSynchronizationManager.hasResource(this)) {
+			return;
+		}
+
+		TransactionSynchronizationManager.bindResource(this, new PendingIndexWrites());
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void beforeCommit(boolean theReadOnly) {
+				flushBatch();
+			}
+
+			@Override
+			public void afterCompletion(int theStatus) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(DaoSearchParamSynchronizer.this);
+			}
+		});
+	}
+
+	/**
+	 * Writes any index rows collected since {@link #startBatch()} was called. Rows are grouped
+	 * by index table: all removed rows for a table are deleted using multi-row deletes, and all
+	 * added rows for a table are persisted together so that they are sent as JDBC batch inserts.
+	 * <p>
+	 * This method has no effect if no batch is active.
+	 * </p>
+	 */
+	public void flushBatch() {
+		PendingIndexWrites pendingWrites = getPendingWrites();
+		if (pendingWrites == null || pendingWrites.isEmpty()) {
+			return;
+		}
+
+		int removeCount = 0;
+		for (Map.Entry<Class<? extends BaseResourceIndex>, List<BaseResourceIndex>> nextEntry : pendingWrites.getRemoves().entrySet()) {
+			removeCount += deleteAll(nextEntry.getKey(), nextEntry.getValue());
+		}
+
+		int addCount = 0;
+		for (List<BaseResourceIndex> nextAdds : pendingWrites.getAdds().values()) {
+			for (BaseResourceIndex next : nextAdds) {
+				myEntityManager.persist(next);
+			}
+			addCount += nextAdds.size();
+		}
+		myEntityManager.flush();
+
+		ourLog.debug("Flushed batch of {} index row inserts and {} index row deletes", addCount, removeCount);
+		pendingWrites.clear();
+	}
+
+	private int deleteAll(Class<? extends BaseResourceIndex> theType, List<BaseResourceIndex> theIndexes) {
+		/*
+		 * The rows are deleted using a bulk statement, so the entities need to be removed from
+		 * the persistence context first or Hibernate may later try to write them back
+		 */
+		for (BaseResourceIndex next : theIndexes) {
+			myEntityManager.detach(next);
+		}
+
+		String entityName = myEntityManager.getMetamodel().entity(theType).getName();
+		String sql = "DELETE FROM " + entityName + " i WHERE i.myId IN (:ids)";
+		List<Long> ids = theIndexes.stream().map(BaseResourceIndex::getId).collect(Collectors.toList());
+		int[] retVal = new int[1];
+		new QueryChunker<Long>().chunk(ids, t -> retVal[0] += myEntityManager.createQuery(sql).setParameter("ids", t).executeUpdate());
+		return retVal[0];
+	}
+
+	private PendingIndexWrites getPendingWrites() {
+		return (PendingIndexWrites) TransactionSynchronizationManager.getResource(this);
+	}
+
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+	@VisibleForTesting
+	void setEntityManagerForUnitTest(EntityManager theEntityManager) {
+		myEntityManager = theEntityManager;
+	}
+
 	/**
 	 * The logic here is that often times when we update a resource we are dropping
 	 * one index row and adding another. This method tries to reuse rows that would otherwise
@@ -0,0 +1,72 @@
+package ca.uhn.fhir.jpa.dao.index;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.entity.BaseResourceIndex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds search parameter index rows that have been added or removed but not yet
+ * written to the database, keyed by index entity type (and therefore by index table).
+ */
+class PendingIndexWrites {
+
+	private final Map<Class<? extends BaseResourceIndex>, List<BaseResourceIndex>> myAdds = new LinkedHashMap<>();
+	private final Map<Class<? extends BaseResourceIndex>, List<BaseResourceIndex>> myRemoves = new LinkedHashMap<>();
+
+	void addToAdds(BaseResourceIndex theIndex) {
+		myAdds.computeIfAbsent(theIndex.getClass(), t -> new ArrayList<>()).add(theIndex);
+	}
+
+	void addToRemoves(BaseResourceIndex theIndex) {
+		// A row which was added earlier in the same batch has never been written, so just forget it
+		if (theIndex.getId() == null) {
+			List<BaseResourceIndex> adds = myAdds.get(theIndex.getClass());
+			if (adds != null) {
+				adds.removeIf(t -> t == theIndex);
+			}
+			return;
+		}
+		myRemoves.computeIfAbsent(theIndex.getClass(), t -> new ArrayList<>()).add(theIndex);
+	}
+
+	Map<Class<? extends BaseResourceIndex>, List<BaseResourceIndex>> getAdds() {
+		return myAdds;
+	}
+
+	Map<Class<? extends BaseResourceIndex>, List<BaseResourceIndex>> getRemoves() {
+		return myRemoves;
+	}
+
+	boolean isEmpty() {
+		return myAdds.isEmpty() && myRemoves.isEmpty();
+	}
+
+	void clear() {
+		myAdds.clear();
+		myRemoves.clear();
+	}
+
+}
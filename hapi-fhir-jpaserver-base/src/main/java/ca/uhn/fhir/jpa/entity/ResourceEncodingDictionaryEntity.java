@@ -0,0 +1,94 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * A Zstandard compression dictionary trained from the stored resources of a single
+ * resource type, used by the {@link ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum#JSONZ}
+ * resource encoding.
+ */
+@Entity
+@Table(name = "HFJ_RES_ENC_DICT", indexes = {
+	@Index(name = "IDX_RES_ENC_DICT_TYPE", columnList = "RES_TYPE,CREATED_TIME")
+})
+public class ResourceEncodingDictionaryEntity {
+
+	/**
+	 * Note that unlike most PID columns in HAPI FHIR JPA, this one isn't auto assigned. It
+	 * is the dictionary ID that Zstandard writes into the header of every frame compressed
+	 * with this dictionary, which is how the dictionary is found again when decompressing.
+	 */
+	@Id
+	@Column(name = "DICT_ID", nullable = false)
+	private Long myId;
+	@Column(name = "RES_TYPE", length = ResourceTable.RESTYPE_LEN, nullable = false)
+	private String myResourceType;
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "CREATED_TIME", nullable = false)
+	private Date myCreated;
+	@Lob
+	@Column(name = "DICT_BYTES", length = Integer.MAX_VALUE - 1, nullable = false, updatable = false)
+	private byte[] myDictionary;
+
+	public Long getId() {
+		return myId;
+	}
+
+	public void setId(Long theId) {
+		myId = theId;
+	}
+
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	public void setResourceType(String theResourceType) {
+		myResourceType = theResourceType;
+	}
+
+	public Date getCreated() {
+		return myCreated;
+	}
+
+	public void setCreated(Date theCreated) {
+		myCreated = theCreated;
+	}
+
+	public byte[] getDictionary() {
+		return myDictionary;
+	}
+
+	public void setDictionary(byte[] theDictionary) {
+		myDictionary = theDictionary;
+	}
+}
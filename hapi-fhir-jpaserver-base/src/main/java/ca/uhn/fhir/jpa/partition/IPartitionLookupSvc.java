@@ -24,6 +24,7 @@ import ca.uhn.fhir.jpa.entity.PartitionEntity;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 
 import javax.annotation.Nullable;
+import java.util.List;
 
 public interface IPartitionLookupSvc {
 
@@ -43,6 +44,12 @@ public interface IPartitionLookupSvc {
 	 */
 	PartitionEntity getPartitionById(Integer theId) throws ResourceNotFoundException;
 
+	/**
+	 * Returns all partitions other than the default partition. The list is cached, so a partition
+	 * created on another server may take up to a minute to appear.
+	 */
+	List<PartitionEntity> listPartitions();
+
 	void clearCaches();
 
 	PartitionEntity createPartition(PartitionEntity thePartition);
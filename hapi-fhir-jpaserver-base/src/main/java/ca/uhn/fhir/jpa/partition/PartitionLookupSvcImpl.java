@@ -40,6 +40,8 @@ import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
 import javax.transaction.Transactional;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
@@ -50,6 +52,7 @@ public class PartitionLookupSvcImpl implements IPartitionLookupSvc {
 
 	private static final Pattern PARTITION_NAME_VALID_PATTERN = Pattern.compile("[a-zA-Z0-9_-]+");
 	private static final Logger ourLog = LoggerFactory.getLogger(PartitionLookupSvcImpl.class);
+	private static final String ALL_PARTITIONS_KEY = "ALL";
 
 	@Autowired
 	private PlatformTransactionManager myTxManager;
@@ -58,6 +61,7 @@ public class PartitionLookupSvcImpl implements IPartitionLookupSvc {
 
 	private LoadingCache<String, PartitionEntity> myNameToPartitionCache;
 	private LoadingCache<Integer, PartitionEntity> myIdToPartitionCache;
+	private LoadingCache<String, List<PartitionEntity>> myAllPartitionsCache;
 	private TransactionTemplate myTxTemplate;
 	@Autowired
 	private FhirContext myFhirCtx;
@@ -73,6 +77,10 @@ public class PartitionLookupSvcImpl implements IPartitionLookupSvc {
 			.newBuilder()
 			.expireAfterWrite(1, TimeUnit.MINUTES)
 			.build(new IdToPartitionCacheLoader());
+		myAllPartitionsCache = Caffeine
+			.newBuilder()
+			.expireAfterWrite(1, TimeUnit.MINUTES)
+			.build(new AllPartitionsCacheLoader());
 		myTxTemplate = new TransactionTemplate(myTxManager);
 	}
 
@@ -91,10 +99,16 @@ public class PartitionLookupSvcImpl implements IPartitionLookupSvc {
 		return myIdToPartitionCache.get(thePartitionId);
 	}
 
+	@Override
+	public List<PartitionEntity> listPartitions() {
+		return myAllPartitionsCache.get(ALL_PARTITIONS_KEY);
+	}
+
 	@Override
 	public void clearCaches() {
 		myNameToPartitionCache.invalidateAll();
 		myIdToPartitionCache.invalidateAll();
+		myAllPartitionsCache.invalidateAll();
 	}
 
 	@Override
@@ -106,6 +120,7 @@ public class PartitionLookupSvcImpl implements IPartitionLookupSvc {
 		ourLog.info("Creating new partition with ID {} and Name {}", thePartition.getId(), thePartition.getName());
 
 		myPartitionDao.save(thePartition);
+		clearCaches();
 		return thePartition;
 	}
 
@@ -199,6 +214,14 @@ public class PartitionLookupSvcImpl implements IPartitionLookupSvc {
 		}
 	}
 
+	private class AllPartitionsCacheLoader implements @NonNull CacheLoader<String, List<PartitionEntity>> {
+		@Nullable
+		@Override
+		public List<PartitionEntity> load(@NonNull String theKey) {
+			return myTxTemplate.execute(t -> Collections.unmodifiableList(myPartitionDao.findAll()));
+		}
+	}
+
 	public static void validatePartitionIdSupplied(FhirContext theFhirContext, Integer thePartitionId) {
 		if (thePartitionId == null) {
 			String msg = theFhirContext.getLocalizer().getMessageSanitized(PartitionLookupSvcImpl.class, "noIdSupplied");
@@ -46,6 +46,7 @@ import ca.uhn.fhir.jpa.search.cache.SearchCacheStatusEnum;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.util.InterceptorUtil;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
+import ca.uhn.fhir.jpa.util.ResourcePidList;
 import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.rest.api.CacheControlDirective;
@@ -442,7 +443,9 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		final Instant createdCutoff = Instant.now().minus(myDaoConfig.getReuseCachedSearchResultsForMillis(), ChronoUnit.MILLIS);
 
 		Optional<Search> candidate = mySearchCacheSvc.findCandidatesForReuse(theResourceType, theQueryString, createdCutoff, theRequestPartitionId);
-		return candidate.orElse(null);
+		return candidate
+			.filter(t -> mySearchResultCacheSvc.isResultsAvailable(t))
+			.orElse(null);
 	}
 
 	private IBundleProvider executeQuery(String theResourceType, SearchParameterMap theParams, RequestDetails theRequestDetails, String theSearchUuid, ISearchBuilder theSb, Integer theLoadSynchronousUpTo, RequestPartitionId theRequestPartitionId) {
@@ -677,7 +680,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		private final SearchParameterMap myParams;
 		private final IDao myCallingDao;
 		private final String myResourceType;
-		private final ArrayList<ResourcePersistentId> mySyncedPids = new ArrayList<>();
+		private final ResourcePidList mySyncedPids = new ResourcePidList();
 		private final CountDownLatch myInitialCollectionLatch = new CountDownLatch(1);
 		private final CountDownLatch myCompletionLatch;
 		private final ArrayList<ResourcePersistentId> myUnsyncedPids = new ArrayList<>();
@@ -789,7 +792,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 			ourLog.debug("Proceeding, as we have {} results", mySyncedPids.size());
 
-			ArrayList<ResourcePersistentId> retVal = new ArrayList<>();
+			List<ResourcePersistentId> retVal;
 			synchronized (mySyncedPids) {
 				verifySearchHasntFailedOrThrowInternalErrorException(mySearch);
 
@@ -797,9 +800,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 				if (mySyncedPids.size() < toIndex) {
 					toIndex = mySyncedPids.size();
 				}
-				for (int i = theFromIndex; i < toIndex; i++) {
-					retVal.add(mySyncedPids.get(i));
-				}
+				retVal = mySyncedPids.toPersistentIdList(theFromIndex, Math.max(theFromIndex, toIndex));
 			}
 
 			ourLog.trace("Done syncing results - Wanted {}-{} and returning {} of {}", theFromIndex, theToIndex, retVal.size(), mySyncedPids.size());
@@ -856,7 +857,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 					// Actually store the results in the query cache storage
 					myCountSavedTotal += unsyncedPids.size();
 					myCountSavedThisPass += unsyncedPids.size();
-					mySearchResultCacheSvc.storeResults(mySearch, mySyncedPids, unsyncedPids);
+					mySearchResultCacheSvc.storeResults(mySearch, mySyncedPids.asPersistentIdList(), unsyncedPids);
 
 					synchronized (mySyncedPids) {
 						int numSyncedThisPass = unsyncedPids.size();
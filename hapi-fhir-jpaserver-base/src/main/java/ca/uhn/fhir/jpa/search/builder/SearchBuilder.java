@@ -39,6 +39,7 @@ import ca.uhn.fhir.jpa.dao.ISearchBuilder;
 import ca.uhn.fhir.jpa.dao.data.IResourceSearchViewDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTagDao;
 import ca.uhn.fhir.jpa.dao.index.IdHelperService;
+import ca.uhn.fhir.jpa.entity.PartitionEntity;
 import ca.uhn.fhir.jpa.entity.ResourceSearchView;
 import ca.uhn.fhir.jpa.interceptor.JpaPreResourceAccessDetails;
 import ca.uhn.fhir.jpa.model.config.PartitionSettings;
@@ -46,9 +47,13 @@ import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.entity.ResourceTag;
 import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
+import ca.uhn.fhir.jpa.partition.IPartitionLookupSvc;
 import ca.uhn.fhir.jpa.search.builder.sql.GeneratedSql;
+import ca.uhn.fhir.jpa.search.builder.sql.ISearchQueryExecutor;
+import ca.uhn.fhir.jpa.search.builder.sql.PartitionedSearchQueryExecutor;
 import ca.uhn.fhir.jpa.search.builder.sql.SearchQueryBuilder;
 import ca.uhn.fhir.jpa.search.builder.sql.SearchQueryExecutor;
+import ca.uhn.fhir.jpa.search.builder.sql.SearchSortKey;
 import ca.uhn.fhir.jpa.search.builder.sql.SqlObjectFactory;
 import ca.uhn.fhir.jpa.search.lastn.IElasticsearchSvc;
 import ca.uhn.fhir.jpa.searchparam.JpaRuntimeSearchParam;
@@ -60,6 +65,8 @@ import ca.uhn.fhir.jpa.util.BaseIterator;
 import ca.uhn.fhir.jpa.util.CurrentThreadCaptureQueriesListener;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
 import ca.uhn.fhir.jpa.util.QueryChunker;
+import ca.uhn.fhir.jpa.util.ResourcePidList;
+import ca.uhn.fhir.jpa.util.ResourcePidSet;
 import ca.uhn.fhir.jpa.util.SqlQueryList;
 import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.model.api.IResource;
@@ -164,7 +171,7 @@ public class SearchBuilder implements ISearchBuilder {
 	private String mySearchUuid;
 	private int myFetchSize;
 	private Integer myMaxResultsToFetch;
-	private Set<ResourcePersistentId> myPidSet;
+	private ResourcePidSet myPidSet;
 	private RequestPartitionId myRequestPartitionId;
 	@Autowired
 	private PartitionSettings myPartitionSettings;
@@ -174,6 +181,8 @@ public class SearchBuilder implements ISearchBuilder {
 	private SqlObjectFactory mySqlBuilderFactory;
 	@Autowired
 	private HibernatePropertiesProvider myDialectProvider;
+	@Autowired
+	private IPartitionLookupSvc myPartitionLookupSvc;
 
 	/**
 	 * Constructor
@@ -189,7 +198,7 @@ public class SearchBuilder implements ISearchBuilder {
 		myMaxResultsToFetch = theMaxResultsToFetch;
 	}
 
-	private void searchForIdsWithAndOr(SearchQueryBuilder theSearchSqlBuilder, QueryStack theQueryStack, @Nonnull SearchParameterMap theParams, RequestDetails theRequest) {
+	private void searchForIdsWithAndOr(SearchQueryBuilder theSearchSqlBuilder, QueryStack theQueryStack, @Nonnull SearchParameterMap theParams, RequestDetails theRequest, RequestPartitionId theRequestPartitionId) {
 		myParams = theParams;
 
 		// Remove any empty parameters
@@ -202,7 +211,7 @@ public class SearchBuilder implements ISearchBuilder {
 
 		// Attempt to lookup via composite unique key.
 		if (isCompositeUniqueSpCandidate()) {
-			attemptCompositeUniqueSpProcessing(theQueryStack, theParams, theRequest);
+			attemptCompositeUniqueSpProcessing(theQueryStack, theParams, theRequest, theRequestPartitionId);
 		}
 
 		// Handle each parameter
@@ -213,7 +222,7 @@ public class SearchBuilder implements ISearchBuilder {
 				continue;
 			}
 			List<List<IQueryParameterType>> andOrParams = myParams.get(nextParamName);
-			Condition predicate = theQueryStack.searchForIdsWithAndOr(null, myResourceName, nextParamName, andOrParams, theRequest, myRequestPartitionId);
+			Condition predicate = theQueryStack.searchForIdsWithAndOr(null, myResourceName, nextParamName, andOrParams, theRequest, theRequestPartitionId);
 			if (predicate != null) {
 				theSearchSqlBuilder.addPredicate(predicate);
 			}
@@ -238,8 +247,8 @@ public class SearchBuilder implements ISearchBuilder {
 
 		init(theParams, theSearchUuid, theRequestPartitionId);
 
-		ArrayList<SearchQueryExecutor> queries = createQuery(myParams, null, null, null, true, theRequest, null);
-		try (SearchQueryExecutor queryExecutor = queries.get(0)) {
+		ArrayList<ISearchQueryExecutor> queries = createQuery(myParams, null, null, null, true, theRequest, null);
+		try (ISearchQueryExecutor queryExecutor = queries.get(0)) {
 			return Lists.newArrayList(queryExecutor.next()).iterator();
 		}
 	}
@@ -249,7 +258,8 @@ public class SearchBuilder implements ISearchBuilder {
 	 */
 	@Override
 	public void setPreviouslyAddedResourcePids(@Nonnull List<ResourcePersistentId> thePidSet) {
-		myPidSet = new HashSet<>(thePidSet);
+		myPidSet = new ResourcePidSet();
+		myPidSet.addAll(thePidSet);
 	}
 
 	@SuppressWarnings("ConstantConditions")
@@ -261,7 +271,7 @@ public class SearchBuilder implements ISearchBuilder {
 		init(theParams, theSearchRuntimeDetails.getSearchUuid(), theRequestPartitionId);
 
 		if (myPidSet == null) {
-			myPidSet = new HashSet<>();
+			myPidSet = new ResourcePidSet();
 		}
 
 		return new QueryIterator(theSearchRuntimeDetails, theRequest);
@@ -274,7 +284,7 @@ public class SearchBuilder implements ISearchBuilder {
 		myRequestPartitionId = theRequestPartitionId;
 	}
 
-	private ArrayList<SearchQueryExecutor> createQuery(SearchParameterMap theParams, SortSpec sort, Integer theOffset, Integer theMaximumResults, boolean theCount, RequestDetails theRequest,
+	private ArrayList<ISearchQueryExecutor> createQuery(SearchParameterMap theParams, SortSpec sort, Integer theOffset, Integer theMaximumResults, boolean theCount, RequestDetails theRequest,
 																		SearchRuntimeDetails theSearchRuntimeDetails) {
 
 		List<ResourcePersistentId> pids = new ArrayList<>();
@@ -324,29 +334,109 @@ public class SearchBuilder implements ISearchBuilder {
 
 		}
 
-		ArrayList<SearchQueryExecutor> queries = new ArrayList<>();
+		ArrayList<ISearchQueryExecutor> queries = new ArrayList<>();
 
 		if (!pids.isEmpty()) {
 			new QueryChunker<Long>().chunk(ResourcePersistentId.toLongList(pids), t -> doCreateChunkedQueries(theParams, t, theOffset, sort, theCount, theRequest, queries));
 		} else {
-			Optional<SearchQueryExecutor> query = createChunkedQuery(theParams, sort, theOffset, theMaximumResults, theCount, theRequest, null);
+			List<Integer> partitionIds = getPartitionIdsToSearchSeparately(theCount);
+			Optional<? extends ISearchQueryExecutor> query;
+			if (partitionIds != null) {
+				query = createPartitionedQuery(theParams, sort, theOffset, theRequest, partitionIds);
+			} else {
+				query = createChunkedQuery(theParams, sort, theOffset, theMaximumResults, theCount, theRequest, null, myRequestPartitionId);
+			}
 			query.ifPresent(t -> queries.add(t));
 		}
 
 		return queries;
 	}
 
-	private void doCreateChunkedQueries(SearchParameterMap theParams, List<Long> thePids, Integer theOffset, SortSpec sort, boolean theCount, RequestDetails theRequest, ArrayList<SearchQueryExecutor> theQueries) {
+	private void doCreateChunkedQueries(SearchParameterMap theParams, List<Long> thePids, Integer theOffset, SortSpec sort, boolean theCount, RequestDetails theRequest, ArrayList<ISearchQueryExecutor> theQueries) {
 		if (thePids.size() < getMaximumPageSize()) {
 			normalizeIdListForLastNInClause(thePids);
 		}
-		Optional<SearchQueryExecutor> query = createChunkedQuery(theParams, sort, theOffset, thePids.size(), theCount, theRequest, thePids);
+		Optional<SearchQueryExecutor> query = createChunkedQuery(theParams, sort, theOffset, thePids.size(), theCount, theRequest, thePids, myRequestPartitionId);
 		query.ifPresent(t -> theQueries.add(t));
 	}
 
-	private Optional<SearchQueryExecutor> createChunkedQuery(SearchParameterMap theParams, SortSpec sort, Integer theOffset, Integer theMaximumResults, boolean theCount, RequestDetails theRequest, List<Long> thePidList) {
+	private Optional<SearchQueryExecutor> createChunkedQuery(SearchParameterMap theParams, SortSpec sort, Integer theOffset, Integer theMaximumResults, boolean theCount, RequestDetails theRequest, List<Long> thePidList, RequestPartitionId theRequestPartitionId) {
+		SearchQueryBuilder sqlBuilder = createChunkedSqlBuilder(theParams, sort, theOffset, theMaximumResults, theCount, theRequest, thePidList, theRequestPartitionId);
+
+		/*
+		 * Now perform the search
+		 */
+		GeneratedSql generatedSql = sqlBuilder.generate(theOffset, myMaxResultsToFetch);
+		if (generatedSql.isMatchNothing()) {
+			return Optional.empty();
+		}
+
+		SearchQueryExecutor executor = mySqlBuilderFactory.newSearchQueryExecutor(generatedSql, myMaxResultsToFetch);
+		return Optional.of(executor);
+	}
+
+	/**
+	 * Returns the partitions to search with one query each, or <code>null</code> if the search should
+	 * be performed as a single query
+	 */
+	private List<Integer> getPartitionIdsToSearchSeparately(boolean theCount) {
+		if (theCount || !myDaoConfig.isSearchPartitionsSeparately() || !myPartitionSettings.isPartitioningEnabled() || myParams.getEverythingMode() != null) {
+			return null;
+		}
+
+		// Composite unique index lookups consume the parameters they match, so they can only be planned once
+		if (isCompositeUniqueSpCandidate() && !mySearchParamRegistry.getActiveUniqueSearchParams(myResourceName, myParams.keySet()).isEmpty()) {
+			return null;
+		}
+
+		List<Integer> retVal;
+		if (myRequestPartitionId.isAllPartitions()) {
+			retVal = new ArrayList<>();
+			retVal.add(null);
+			for (PartitionEntity next : myPartitionLookupSvc.listPartitions()) {
+				retVal.add(next.getId());
+			}
+		} else if (myRequestPartitionId.hasPartitionIds()) {
+			retVal = myRequestPartitionId.getPartitionIds();
+		} else {
+			return null;
+		}
+
+		return retVal.size() > 1 ? retVal : null;
+	}
+
+	/**
+	 * Creates one query per partition, and an executor that streams them in the current transaction
+	 * and merges their results in sort order
+	 */
+	private Optional<PartitionedSearchQueryExecutor> createPartitionedQuery(SearchParameterMap theParams, SortSpec theSort, Integer theOffset, RequestDetails theRequest, List<Integer> thePartitionIds) {
+		// The offset is applied to the merged results, so every partition needs to supply enough rows to cover it
+		Integer maxResultsPerPartition = myMaxResultsToFetch;
+		if (maxResultsPerPartition != null && theOffset != null) {
+			maxResultsPerPartition += theOffset;
+		}
+
+		List<GeneratedSql> partitionQueries = new ArrayList<>(thePartitionIds.size());
+		List<SearchSortKey> sortKeys = Collections.emptyList();
+		for (Integer nextPartitionId : thePartitionIds) {
+			RequestPartitionId requestPartitionId = RequestPartitionId.fromPartitionId(nextPartitionId);
+			SearchQueryBuilder sqlBuilder = createChunkedSqlBuilder(theParams, theSort, null, null, false, theRequest, null, requestPartitionId);
+			sortKeys = sqlBuilder.selectSortKeys();
+			GeneratedSql generatedSql = sqlBuilder.generate(null, maxResultsPerPartition);
+			if (!generatedSql.isMatchNothing()) {
+				partitionQueries.add(generatedSql);
+			}
+		}
+		if (partitionQueries.isEmpty()) {
+			return Optional.empty();
+		}
+
+		return Optional.of(mySqlBuilderFactory.newPartitionedSearchQueryExecutor(partitionQueries, sortKeys, theOffset, myMaxResultsToFetch, myFetchSize));
+	}
+
+	private SearchQueryBuilder createChunkedSqlBuilder(SearchParameterMap theParams, SortSpec sort, Integer theOffset, Integer theMaximumResults, boolean theCount, RequestDetails theRequest, List<Long> thePidList, RequestPartitionId theRequestPartitionId) {
 		String sqlBuilderResourceName = myParams.getEverythingMode() == null ? myResourceName : null;
-		SearchQueryBuilder sqlBuilder = new SearchQueryBuilder(myContext, myDaoConfig.getModelConfig(), myPartitionSettings, myRequestPartitionId, sqlBuilderResourceName, mySqlBuilderFactory, myDialectProvider, theCount);
+		SearchQueryBuilder sqlBuilder = new SearchQueryBuilder(myContext, myDaoConfig.getModelConfig(), myPartitionSettings, theRequestPartitionId, sqlBuilderResourceName, mySqlBuilderFactory, myDialectProvider, theCount);
 		QueryStack queryStack3 = new QueryStack(theParams, myDaoConfig, myDaoConfig.getModelConfig(), myContext, sqlBuilder, mySearchParamRegistry, myPartitionSettings);
 
 		JdbcTemplate jdbcTemplate = new JdbcTemplate(myEntityManagerFactory.getDataSource());
@@ -359,7 +449,7 @@ public class SearchBuilder implements ISearchBuilder {
 			Long targetPid = null;
 			if (myParams.get(IAnyResource.SP_RES_ID) != null) {
 				StringParam idParam = (StringParam) myParams.get(IAnyResource.SP_RES_ID).get(0).get(0);
-				ResourcePersistentId pid = myIdHelperService.resolveResourcePersistentIds(myRequestPartitionId, myResourceName, idParam.getValue());
+				ResourcePersistentId pid = myIdHelperService.resolveResourcePersistentIds(theRequestPartitionId, myResourceName, idParam.getValue());
 				if (myAlsoIncludePids == null) {
 					myAlsoIncludePids = new ArrayList<>(1);
 				}
@@ -371,7 +461,7 @@ public class SearchBuilder implements ISearchBuilder {
 				// is basically a reverse-include search. For type/Everything (as opposed to instance/Everything)
 				// the one problem with this approach is that it doesn't catch Patients that have absolutely
 				// nothing linked to them. So we do one additional query to make sure we catch those too.
-				SearchQueryBuilder fetchPidsSqlBuilder = new SearchQueryBuilder(myContext, myDaoConfig.getModelConfig(), myPartitionSettings, myRequestPartitionId, myResourceName, mySqlBuilderFactory, myDialectProvider, theCount);
+				SearchQueryBuilder fetchPidsSqlBuilder = new SearchQueryBuilder(myContext, myDaoConfig.getModelConfig(), myPartitionSettings, theRequestPartitionId, myResourceName, mySqlBuilderFactory, myDialectProvider, theCount);
 				GeneratedSql allTargetsSql = fetchPidsSqlBuilder.generate(theOffset, myMaxResultsToFetch);
 				String sql = allTargetsSql.getSql();
 				Object[] args = allTargetsSql.getBindVariables().toArray(new Object[0]);
@@ -392,21 +482,21 @@ public class SearchBuilder implements ISearchBuilder {
 			 * status / partition IDs built into queries.
 			 */
 			if (theParams.containsKey(Constants.PARAM_FILTER)) {
-				Condition partitionIdPredicate = sqlBuilder.getOrCreateResourceTablePredicateBuilder().createPartitionIdPredicate(myRequestPartitionId);
+				Condition partitionIdPredicate = sqlBuilder.getOrCreateResourceTablePredicateBuilder().createPartitionIdPredicate(theRequestPartitionId);
 				if (partitionIdPredicate != null) {
 					sqlBuilder.addPredicate(partitionIdPredicate);
 				}
 			}
 
 			// Normal search
-			searchForIdsWithAndOr(sqlBuilder, queryStack3, myParams, theRequest);
+			searchForIdsWithAndOr(sqlBuilder, queryStack3, myParams, theRequest, theRequestPartitionId);
 
 		}
 
 		// If we haven't added any predicates yet, we're doing a search for all resources. Make sure we add the
 		// partition ID predicate in that case.
 		if (!sqlBuilder.haveAtLeastOnePredicate()) {
-			Condition partitionIdPredicate = sqlBuilder.getOrCreateResourceTablePredicateBuilder().createPartitionIdPredicate(myRequestPartitionId);
+			Condition partitionIdPredicate = sqlBuilder.getOrCreateResourceTablePredicateBuilder().createPartitionIdPredicate(theRequestPartitionId);
 			if (partitionIdPredicate != null) {
 				sqlBuilder.addPredicate(partitionIdPredicate);
 			}
@@ -436,17 +526,7 @@ public class SearchBuilder implements ISearchBuilder {
 			createSort(queryStack3, sort);
 		}
 
-
-		/*
-		 * Now perform the search
-		 */
-		GeneratedSql generatedSql = sqlBuilder.generate(theOffset, myMaxResultsToFetch);
-		if (generatedSql.isMatchNothing()) {
-			return Optional.empty();
-		}
-		
-		SearchQueryExecutor executor = mySqlBuilderFactory.newSearchQueryExecutor(generatedSql, myMaxResultsToFetch);
-		return Optional.of(executor);
+		return sqlBuilder;
 	}
 
 	private List<Long> normalizeIdListForLastNInClause(List<Long> lastnResourceIds) {
@@ -711,9 +791,10 @@ public class SearchBuilder implements ISearchBuilder {
 		String searchFieldName = theReverseMode ? "myTargetResourcePid" : "mySourceResourcePid";
 		String findFieldName = theReverseMode ? "mySourceResourcePid" : "myTargetResourcePid";
 
-		List<ResourcePersistentId> nextRoundMatches = new ArrayList<>(theMatches);
-		HashSet<ResourcePersistentId> allAdded = new HashSet<>();
-		HashSet<ResourcePersistentId> original = new HashSet<>(theMatches);
+		ResourcePidList nextRoundMatches = ResourcePidList.fromPersistentIds(theMatches);
+		ResourcePidSet allAdded = new ResourcePidSet();
+		ResourcePidSet original = new ResourcePidSet();
+		original.addAll(theMatches);
 		ArrayList<Include> includes = new ArrayList<>(theRevIncludes);
 
 		int roundCounts = 0;
@@ -723,7 +804,7 @@ public class SearchBuilder implements ISearchBuilder {
 		do {
 			roundCounts++;
 
-			HashSet<ResourcePersistentId> pidsToInclude = new HashSet<>();
+			ResourcePidSet pidsToInclude = new ResourcePidSet();
 
 			for (Iterator<Include> iter = includes.iterator(); iter.hasNext(); ) {
 				Include nextInclude = iter.next();
@@ -735,10 +816,10 @@ public class SearchBuilder implements ISearchBuilder {
 				if (matchAll) {
 					String sql;
 					sql = "SELECT r." + findFieldName + " FROM ResourceLink r WHERE r." + searchFieldName + " IN (:target_pids) ";
-					List<Collection<ResourcePersistentId>> partitions = partition(nextRoundMatches, getMaximumPageSize());
-					for (Collection<ResourcePersistentId> nextPartition : partitions) {
+					List<List<Long>> partitions = partition(nextRoundMatches, getMaximumPageSize());
+					for (List<Long> nextPartition : partitions) {
 						TypedQuery<Long> q = theEntityManager.createQuery(sql, Long.class);
-						q.setParameter("target_pids", ResourcePersistentId.toLongList(nextPartition));
+						q.setParameter("target_pids", nextPartition);
 						List<Long> results = q.getResultList();
 						for (Long resourceLink : results) {
 							if (resourceLink == null) {
@@ -746,11 +827,7 @@ public class SearchBuilder implements ISearchBuilder {
 								// other servers
 								continue;
 							}
-							if (theReverseMode) {
-								pidsToInclude.add(new ResourcePersistentId(resourceLink));
-							} else {
-								pidsToInclude.add(new ResourcePersistentId(resourceLink));
-							}
+							pidsToInclude.add(resourceLink);
 						}
 					}
 				} else {
@@ -793,11 +870,11 @@ public class SearchBuilder implements ISearchBuilder {
 							sql = "SELECT r." + findFieldName + " FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids)";
 						}
 
-						List<Collection<ResourcePersistentId>> partitions = partition(nextRoundMatches, getMaximumPageSize());
-						for (Collection<ResourcePersistentId> nextPartition : partitions) {
+						List<List<Long>> partitions = partition(nextRoundMatches, getMaximumPageSize());
+						for (List<Long> nextPartition : partitions) {
 							TypedQuery<Long> q = theEntityManager.createQuery(sql, Long.class);
 							q.setParameter("src_path", nextPath);
-							q.setParameter("target_pids", ResourcePersistentId.toLongList(nextPartition));
+							q.setParameter("target_pids", nextPartition);
 							if (targetResourceType != null) {
 								q.setParameter("target_resource_type", targetResourceType);
 							} else if (haveTargetTypesDefinedByParam) {
@@ -806,7 +883,7 @@ public class SearchBuilder implements ISearchBuilder {
 							List<Long> results = q.getResultList();
 							for (Long resourceLink : results) {
 								if (resourceLink != null) {
-									pidsToInclude.add(new ResourcePersistentId(resourceLink));
+									pidsToInclude.add(resourceLink);
 								}
 							}
 						}
@@ -816,30 +893,35 @@ public class SearchBuilder implements ISearchBuilder {
 
 			if (theReverseMode) {
 				if (theLastUpdated != null && (theLastUpdated.getLowerBoundAsInstant() != null || theLastUpdated.getUpperBoundAsInstant() != null)) {
-					pidsToInclude = new HashSet<>(filterResourceIdsByLastUpdated(theEntityManager, theLastUpdated, pidsToInclude));
+					pidsToInclude = filterResourceIdsByLastUpdated(theEntityManager, theLastUpdated, pidsToInclude);
 				}
 			}
 
 			nextRoundMatches.clear();
-			for (ResourcePersistentId next : pidsToInclude) {
+			pidsToInclude.forEach(next -> {
 				if (original.contains(next) == false && allAdded.contains(next) == false) {
-					theMatches.add(next);
+					theMatches.add(new ResourcePersistentId(next));
 					nextRoundMatches.add(next);
 				}
-			}
+			});
 
 			addedSomeThisRound = allAdded.addAll(pidsToInclude);
 		} while (includes.size() > 0 && nextRoundMatches.size() > 0 && addedSomeThisRound);
 
-		allAdded.removeAll(original);
+		ResourcePidList addedNotOriginal = new ResourcePidList(allAdded.size());
+		allAdded.forEach(next -> {
+			if (original.contains(next) == false) {
+				addedNotOriginal.add(next);
+			}
+		});
 
-		ourLog.info("Loaded {} {} in {} rounds and {} ms for search {}", allAdded.size(), theReverseMode ? "_revincludes" : "_includes", roundCounts, w.getMillisAndRestart(), theSearchIdOrDescription);
+		ourLog.info("Loaded {} {} in {} rounds and {} ms for search {}", addedNotOriginal.size(), theReverseMode ? "_revincludes" : "_includes", roundCounts, w.getMillisAndRestart(), theSearchIdOrDescription);
 
 		// Interceptor call: STORAGE_PREACCESS_RESOURCES
 		// This can be used to remove results from the search result details before
 		// the user has a chance to know that they were in the results
-		if (allAdded.size() > 0) {
-			List<ResourcePersistentId> includedPidList = new ArrayList<>(allAdded);
+		List<ResourcePersistentId> includedPidList = addedNotOriginal.toPersistentIdList(0, addedNotOriginal.size());
+		if (includedPidList.size() > 0) {
 			JpaPreResourceAccessDetails accessDetails = new JpaPreResourceAccessDetails(includedPidList, () -> this);
 			HookParams params = new HookParams()
 				.add(IPreResourceAccessDetails.class, accessDetails)
@@ -856,37 +938,21 @@ public class SearchBuilder implements ISearchBuilder {
 				}
 			}
 
-			allAdded = new HashSet<>(includedPidList);
 		}
 
-		return allAdded;
+		return new HashSet<>(includedPidList);
 	}
 
-	private List<Collection<ResourcePersistentId>> partition(Collection<ResourcePersistentId> theNextRoundMatches, int theMaxLoad) {
-		if (theNextRoundMatches.size() <= theMaxLoad) {
-			return Collections.singletonList(theNextRoundMatches);
-		} else {
-
-			List<Collection<ResourcePersistentId>> retVal = new ArrayList<>();
-			Collection<ResourcePersistentId> current = null;
-			for (ResourcePersistentId next : theNextRoundMatches) {
-				if (current == null) {
-					current = new ArrayList<>(theMaxLoad);
-					retVal.add(current);
-				}
-
-				current.add(next);
-
-				if (current.size() >= theMaxLoad) {
-					current = null;
-				}
-			}
-
-			return retVal;
+	private List<List<Long>> partition(ResourcePidList theNextRoundMatches, int theMaxLoad) {
+		List<List<Long>> retVal = new ArrayList<>();
+		for (int from = 0; from < theNextRoundMatches.size(); from += theMaxLoad) {
+			int to = Math.min(from + theMaxLoad, theNextRoundMatches.size());
+			retVal.add(theNextRoundMatches.toLongList(from, to));
 		}
+		return retVal;
 	}
 
-	private void attemptCompositeUniqueSpProcessing(QueryStack theQueryStack3, @Nonnull SearchParameterMap theParams, RequestDetails theRequest) {
+	private void attemptCompositeUniqueSpProcessing(QueryStack theQueryStack3, @Nonnull SearchParameterMap theParams, RequestDetails theRequest, RequestPartitionId theRequestPartitionId) {
 		// Since we're going to remove elements below
 		theParams.values().forEach(nextAndList -> ensureSubListsAreWritable(nextAndList));
 
@@ -949,7 +1015,7 @@ public class SearchBuilder implements ISearchBuilder {
 					.add(StorageProcessingMessage.class, msg);
 				JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequest, Pointcut.JPA_PERFTRACE_INFO, params);
 
-				theQueryStack3.addPredicateCompositeUnique(indexString, myRequestPartitionId);
+				theQueryStack3.addPredicateCompositeUnique(indexString, theRequestPartitionId);
 
 				// Remove any empty parameters remaining after this
 				theParams.clean();
@@ -1000,8 +1066,8 @@ public class SearchBuilder implements ISearchBuilder {
 		private Iterator<ResourcePersistentId> myCurrentIterator;
 		private ResourcePersistentId myNext;
 
-		IncludesIterator(Set<ResourcePersistentId> thePidSet, RequestDetails theRequest) {
-			myCurrentPids = new HashSet<>(thePidSet);
+		IncludesIterator(ResourcePidSet thePidSet, RequestDetails theRequest) {
+			myCurrentPids = thePidSet.toPersistentIdSet();
 			myCurrentIterator = null;
 			myRequest = theRequest;
 		}
@@ -1051,13 +1117,13 @@ public class SearchBuilder implements ISearchBuilder {
 		private IncludesIterator myIncludesIterator;
 		private ResourcePersistentId myNext;
 		private Iterator<ResourcePersistentId> myPreResultsIterator;
-		private SearchQueryExecutor myResultsIterator;
+		private ISearchQueryExecutor myResultsIterator;
 		private boolean myStillNeedToFetchIncludes;
 		private int mySkipCount = 0;
 		private int myNonSkipCount = 0;
 		private final Integer myOffset;
 
-		private ArrayList<SearchQueryExecutor> myQueryList = new ArrayList<>();
+		private ArrayList<ISearchQueryExecutor> myQueryList = new ArrayList<>();
 
 		private QueryIterator(SearchRuntimeDetails theSearchRuntimeDetails, RequestDetails theRequest) {
 			mySearchRuntimeDetails = theSearchRuntimeDetails;
@@ -1125,9 +1191,8 @@ public class SearchBuilder implements ISearchBuilder {
 							}
 
 							if (nextLong != null) {
-								ResourcePersistentId next = new ResourcePersistentId(nextLong);
-								if (myPidSet.add(next)) {
-									myNext = next;
+								if (myPidSet.add(nextLong)) {
+									myNext = new ResourcePersistentId(nextLong);
 									myNonSkipCount++;
 									break;
 								} else {
@@ -1312,9 +1377,9 @@ public class SearchBuilder implements ISearchBuilder {
 		return lastUpdatedPredicates;
 	}
 
-	private static List<ResourcePersistentId> filterResourceIdsByLastUpdated(EntityManager theEntityManager, final DateRangeParam theLastUpdated, Collection<ResourcePersistentId> thePids) {
+	private static ResourcePidSet filterResourceIdsByLastUpdated(EntityManager theEntityManager, final DateRangeParam theLastUpdated, ResourcePidSet thePids) {
 		if (thePids.isEmpty()) {
-			return Collections.emptyList();
+			return thePids;
 		}
 		CriteriaBuilder builder = theEntityManager.getCriteriaBuilder();
 		CriteriaQuery<Long> cq = builder.createQuery(Long.class);
@@ -1322,12 +1387,17 @@ public class SearchBuilder implements ISearchBuilder {
 		cq.select(from.get("myId").as(Long.class));
 
 		List<Predicate> lastUpdatedPredicates = createLastUpdatedPredicates(theLastUpdated, builder, from);
-		lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(ResourcePersistentId.toLongList(thePids)));
+		ResourcePidList pids = thePids.toPidList();
+		lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(pids.toLongList(0, pids.size())));
 
 		cq.where(SearchBuilder.toPredicateArray(lastUpdatedPredicates));
 		TypedQuery<Long> query = theEntityManager.createQuery(cq);
 
-		return ResourcePersistentId.fromLongList(query.getResultList());
+		ResourcePidSet retVal = new ResourcePidSet();
+		for (Long next : query.getResultList()) {
+			retVal.add(next);
+		}
+		return retVal;
 	}
 
 	public static Predicate[] toPredicateArray(List<Predicate> thePredicates) {
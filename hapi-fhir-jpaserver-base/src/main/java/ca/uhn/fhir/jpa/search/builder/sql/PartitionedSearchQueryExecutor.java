@@ -0,0 +1,361 @@
+package ca.uhn.fhir.jpa.search.builder.sql;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.config.BaseConfig;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.IoUtil;
+import org.apache.commons.lang3.Validate;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceContextType;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Executes one search query per partition, and merges the results as though they had
+ * been returned by a single query across all of the partitions.
+ * <p>
+ * Every partition query selects the resource ID followed by the columns of its
+ * <code>ORDER BY</code> clause (see {@link SearchQueryBuilder#selectSortKeys()}), so the
+ * sorted partition results can be combined with a k-way merge. The partition queries
+ * must not apply an offset themselves: the offset is applied to the merged results
+ * instead, so every partition query needs to fetch <code>offset + maximum</code> rows.
+ * </p>
+ * <p>
+ * If the current transaction has no pending writes, the first partition query runs on the
+ * connection of the current transaction and the others run in parallel on the partition
+ * executor, each in its own read-only transaction with its own connection. Their rows are
+ * fetched in full (up to <code>offset + maximum</code> rows each) before merging.
+ * </p>
+ * <p>
+ * Otherwise, for example when the search runs inside a transaction bundle that has already
+ * written resources, every partition query runs serially on the connection of the current
+ * Spring managed transaction like {@link SearchQueryExecutor}, so that they see the rows
+ * written earlier in that transaction. Each partition query is then a forward-only cursor
+ * that is read one fetch at a time while merging.
+ * </p>
+ * <p>
+ * Sort key values are compared using their natural Java ordering, which matches the
+ * database ordering for numbers and dates. For strings, the normalized values used for
+ * sorting are compared by character, which may differ from a database collation in
+ * edge cases. This can affect the order of the merged results, but never which
+ * results are returned.
+ * </p>
+ */
+public class PartitionedSearchQueryExecutor implements ISearchQueryExecutor {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(PartitionedSearchQueryExecutor.class);
+	private static final Object[] EMPTY_OBJECT_ARRAY = new Object[0];
+	private final List<GeneratedSql> myPartitionQueries;
+	private final List<SearchSortKey> mySortKeys;
+	private final int mySkip;
+	private final Integer myMaxResultsToFetch;
+	private final Integer myFetchSize;
+	private final List<PartitionCursor> myCursors = new ArrayList<>();
+
+	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
+	private EntityManager myEntityManager;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+	@Autowired
+	@Qualifier(BaseConfig.SEARCH_PARTITION_EXECUTOR_NAME)
+	private ExecutorService myPartitionExecutor;
+	private List<Future<List<Object[]>>> myFutures = Collections.emptyList();
+	private Iterator<Long> myResults;
+
+	/**
+	 * Constructor
+	 *
+	 * @param thePartitionQueries  The query for each partition, which must all select the same sort keys
+	 * @param theSortKeys          The sort keys selected by every query
+	 * @param theOffset            The number of merged rows to skip, if any
+	 * @param theMaxResultsToFetch The maximum number of merged rows to return, if any
+	 * @param theFetchSize         The JDBC fetch size of each partition query, if any
+	 */
+	public PartitionedSearchQueryExecutor(@Nonnull List<GeneratedSql> thePartitionQueries, @Nonnull List<SearchSortKey> theSortKeys, @Nullable Integer theOffset, @Nullable Integer theMaxResultsToFetch, @Nullable Integer theFetchSize) {
+		Validate.notEmpty(thePartitionQueries, "thePartitionQueries must not be empty");
+		myPartitionQueries = thePartitionQueries;
+		mySortKeys = theSortKeys;
+		mySkip = theOffset != null ? theOffset : 0;
+		myMaxResultsToFetch = theMaxResultsToFetch;
+		myFetchSize = theFetchSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		executeIfNeeded();
+		return myResults.hasNext();
+	}
+
+	@Override
+	public Long next() {
+		executeIfNeeded();
+		return myResults.next();
+	}
+
+	@Override
+	public void close() {
+		for (Future<List<Object[]>> next : myFutures) {
+			next.cancel(true);
+		}
+		myFutures = Collections.emptyList();
+		for (PartitionCursor next : myCursors) {
+			IoUtil.closeQuietly(next);
+		}
+		myCursors.clear();
+		myResults = Collections.emptyIterator();
+	}
+
+	private void executeIfNeeded() {
+		if (myResults != null) {
+			return;
+		}
+
+		/*
+		 * Note that we use the spring managed connection, and the expectation is that a transaction that
+		 * is managed by Spring has been started before this method is called.
+		 */
+		assert TransactionSynchronizationManager.isSynchronizationActive();
+
+		try {
+			List<Iterator<Object[]>> partitionRows;
+			if (myPartitionQueries.size() > 1 && !hasPendingWrites()) {
+				partitionRows = executeInParallel();
+			} else {
+				partitionRows = new ArrayList<>(myPartitionQueries.size());
+				for (GeneratedSql next : myPartitionQueries) {
+					PartitionCursor cursor = openCursor(next);
+					myCursors.add(cursor);
+					partitionRows.add(cursor);
+				}
+			}
+			myResults = merge(partitionRows, mySortKeys, mySkip, myMaxResultsToFetch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new InternalErrorException(e);
+		} catch (Exception e) {
+			ourLog.error("Failed to create or execute partition SQL query", e);
+			close();
+			throw new InternalErrorException(e);
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the current transaction may have written rows that a
+	 * separate connection could not see yet
+	 */
+	private boolean hasPendingWrites() {
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return false;
+		}
+		SessionImplementor session = myEntityManager.unwrap(SessionImplementor.class);
+		return session.getPersistenceContext().getNumberOfManagedEntities() > 0 || session.getActionQueue().hasAnyQueuedActions();
+	}
+
+	private List<Iterator<Object[]>> executeInParallel() throws InterruptedException, ExecutionException {
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		txTemplate.setReadOnly(true);
+
+		myFutures = new ArrayList<>(myPartitionQueries.size() - 1);
+		for (GeneratedSql next : myPartitionQueries.subList(1, myPartitionQueries.size())) {
+			myFutures.add(myPartitionExecutor.submit(() -> txTemplate.execute(t -> {
+				try (PartitionCursor cursor = openCursor(next)) {
+					List<Object[]> rows = new ArrayList<>();
+					cursor.forEachRemaining(rows::add);
+					return rows;
+				}
+			})));
+		}
+
+		List<Iterator<Object[]>> retVal = new ArrayList<>(myPartitionQueries.size());
+		PartitionCursor firstCursor = openCursor(myPartitionQueries.get(0));
+		myCursors.add(firstCursor);
+		retVal.add(firstCursor);
+		for (Future<List<Object[]>> next : myFutures) {
+			retVal.add(next.get().iterator());
+		}
+		myFutures = Collections.emptyList();
+		return retVal;
+	}
+
+	/**
+	 * Opens a cursor over the given partition query on the connection of the current transaction
+	 */
+	private PartitionCursor openCursor(GeneratedSql theGeneratedSql) {
+		org.hibernate.query.Query<?> hibernateQuery = (org.hibernate.query.Query<?>) myEntityManager.createNativeQuery(theGeneratedSql.getSql());
+		Object[] args = theGeneratedSql.getBindVariables().toArray(EMPTY_OBJECT_ARRAY);
+		for (int i = 1; i <= args.length; i++) {
+			hibernateQuery.setParameter(i, args[i - 1]);
+		}
+		if (myFetchSize != null) {
+			hibernateQuery.setFetchSize(myFetchSize);
+		}
+
+		ourLog.trace("About to execute partition SQL: {}", theGeneratedSql.getSql());
+		return new PartitionCursor(hibernateQuery.scroll(ScrollMode.FORWARD_ONLY));
+	}
+
+	/**
+	 * Merges rows that are each sorted by the given sort keys into one sorted sequence of resource IDs. Rows
+	 * with equal sort keys are returned in partition order. The rows are consumed lazily, one row of each
+	 * partition ahead of the merged results.
+	 */
+	static Iterator<Long> merge(List<? extends Iterator<Object[]>> thePartitionRows, List<SearchSortKey> theSortKeys, int theSkip, @Nullable Integer theMaxResults) {
+		Comparator<MergeHead> comparator = (theLeft, theRight) -> {
+			for (int i = 0; i < theSortKeys.size(); i++) {
+				int retVal = theSortKeys.get(i).compare(theLeft.myHead[i + 1], theRight.myHead[i + 1]);
+				if (retVal != 0) {
+					return retVal;
+				}
+			}
+			return Integer.compare(theLeft.myIndex, theRight.myIndex);
+		};
+
+		PriorityQueue<MergeHead> queue = new PriorityQueue<>(Math.max(1, thePartitionRows.size()), comparator);
+		for (int i = 0; i < thePartitionRows.size(); i++) {
+			MergeHead head = new MergeHead(i, thePartitionRows.get(i));
+			if (head.advance()) {
+				queue.add(head);
+			}
+		}
+
+		for (int i = 0; i < theSkip && !queue.isEmpty(); i++) {
+			poll(queue);
+		}
+
+		return new Iterator<Long>() {
+			private int myCount;
+
+			@Override
+			public boolean hasNext() {
+				return !queue.isEmpty() && (theMaxResults == null || myCount < theMaxResults);
+			}
+
+			@Override
+			public Long next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				myCount++;
+				return ((Number) poll(queue)[0]).longValue();
+			}
+		};
+	}
+
+	private static Object[] poll(PriorityQueue<MergeHead> theQueue) {
+		MergeHead head = theQueue.poll();
+		assert head != null;
+		Object[] retVal = head.myHead;
+		if (head.advance()) {
+			theQueue.add(head);
+		}
+		return retVal;
+	}
+
+	private static class MergeHead {
+		private final int myIndex;
+		private final Iterator<Object[]> myRows;
+		private Object[] myHead;
+
+		private MergeHead(int theIndex, Iterator<Object[]> theRows) {
+			myIndex = theIndex;
+			myRows = theRows;
+		}
+
+		private boolean advance() {
+			if (myRows.hasNext()) {
+				myHead = myRows.next();
+				return true;
+			}
+			myHead = null;
+			return false;
+		}
+	}
+
+	/**
+	 * The open cursor of one partition query
+	 */
+	private static class PartitionCursor implements Iterator<Object[]>, Closeable {
+		private ScrollableResults myScroll;
+		private Object[] myNext;
+
+		private PartitionCursor(ScrollableResults theScroll) {
+			myScroll = theScroll;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (myNext == null && myScroll != null) {
+				if (myScroll.next()) {
+					myNext = myScroll.get();
+				} else {
+					close();
+				}
+			}
+			return myNext != null;
+		}
+
+		@Override
+		public Object[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Object[] retVal = myNext;
+			myNext = null;
+			return retVal;
+		}
+
+		@Override
+		public void close() {
+			if (myScroll != null) {
+				myScroll.close();
+				myScroll = null;
+			}
+		}
+	}
+
+}
@@ -69,6 +69,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -91,6 +92,7 @@ public class SearchQueryBuilder {
 	private final SqlObjectFactory mySqlBuilderFactory;
 	private final boolean myCountQuery;
 	private final Dialect myDialect;
+	private final List<SearchSortKey> mySortKeys = new ArrayList<>();
 	private boolean myMatchNothing;
 	private ResourceTablePredicateBuilder myResourceTableRoot;
 	private boolean myHaveAtLeastOnePredicate;
@@ -593,6 +595,7 @@ public class SearchQueryBuilder {
 		   */
 			sortColumnNameBuilder.append(sortColumnName).append(direction);
 			mySelect.addCustomOrderings(sortColumnNameBuilder.toString());
+			mySortKeys.add(new SearchSortKey(theTheColumnValueNormalized, theTheAscending, theTheAscending));
 		} else {
 			addSort(theTheColumnValueNormalized, theTheAscending, theNullOrder);
 		}
@@ -615,6 +618,7 @@ public class SearchQueryBuilder {
 				direction = theTheAscending ? " ASC" : " DESC";
 			}
 			mySelect.addCustomOrderings(sortColumnName + direction);
+			mySortKeys.add(new SearchSortKey(theTheColumnValueNormalized, theTheAscending, theNullOrder == OrderObject.NullOrder.FIRST));
 		} else {
 			addSort(theTheColumnValueNormalized, theTheAscending, theNullOrder);
 		}
@@ -639,6 +643,7 @@ public class SearchQueryBuilder {
  		   */
 			sortColumnNameBuilder.append(sortColumnName).append(direction);
 			mySelect.addCustomOrderings(sortColumnNameBuilder.toString());
+			mySortKeys.add(new SearchSortKey(theTheColumnValueNormalized, theTheAscending, theTheAscending));
 		} else {
 			addSort(theTheColumnValueNormalized, theTheAscending, theNullOrder);
 		}
@@ -649,6 +654,22 @@ public class SearchQueryBuilder {
 		OrderObject orderObject = new OrderObject(direction, theTheColumnValueNormalized);
 		orderObject.setNullOrder(theNullOrder);
 		mySelect.addCustomOrderings(orderObject);
+		mySortKeys.add(new SearchSortKey(theTheColumnValueNormalized, theTheAscending, theNullOrder == OrderObject.NullOrder.FIRST));
+	}
+
+	/**
+	 * Adds the columns of the <code>ORDER BY</code> clause to the selected columns, after the resource ID. This
+	 * allows rows from several separately executed queries to be merged in sort order.
+	 *
+	 * @return The sort keys, in the order their columns were added
+	 */
+	public List<SearchSortKey> selectSortKeys() {
+		Validate.isTrue(!myCountQuery, "Can not select sort keys in a count query");
+		getOrCreateFirstPredicateBuilder();
+		for (SearchSortKey next : mySortKeys) {
+			mySelect.addColumns(next.getColumn());
+		}
+		return Collections.unmodifiableList(mySortKeys);
 	}
 
 }
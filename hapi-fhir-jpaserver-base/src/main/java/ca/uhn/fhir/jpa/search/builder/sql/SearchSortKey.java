@@ -0,0 +1,84 @@
+package ca.uhn.fhir.jpa.search.builder.sql;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.healthmarketscience.sqlbuilder.dbspec.basic.DbColumn;
+
+import java.math.BigDecimal;
+
+/**
+ * One column of the <code>ORDER BY</code> clause of a search query, along with the
+ * ordering the database applies to it. This is used to merge the results of several
+ * queries that were each sorted by the database.
+ */
+public class SearchSortKey {
+
+	private final DbColumn myColumn;
+	private final boolean myAscending;
+	private final boolean myNullsFirst;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theColumn     The sorted column
+	 * @param theAscending  Is the column sorted in ascending order?
+	 * @param theNullsFirst Does the database return <code>NULL</code> values before any other value?
+	 */
+	public SearchSortKey(DbColumn theColumn, boolean theAscending, boolean theNullsFirst) {
+		myColumn = theColumn;
+		myAscending = theAscending;
+		myNullsFirst = theNullsFirst;
+	}
+
+	public DbColumn getColumn() {
+		return myColumn;
+	}
+
+	public boolean isAscending() {
+		return myAscending;
+	}
+
+	public boolean isNullsFirst() {
+		return myNullsFirst;
+	}
+
+	/**
+	 * Compares two values of this column in the order the database returns them
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public int compare(Object theLeft, Object theRight) {
+		if (theLeft == null || theRight == null) {
+			if (theLeft == theRight) {
+				return 0;
+			}
+			return (theLeft == null) == myNullsFirst ? -1 : 1;
+		}
+
+		int retVal;
+		if (theLeft instanceof Number && theRight instanceof Number) {
+			retVal = new BigDecimal(theLeft.toString()).compareTo(new BigDecimal(theRight.toString()));
+		} else {
+			retVal = ((Comparable) theLeft).compareTo(theRight);
+		}
+		return myAscending ? retVal : -retVal;
+	}
+
+}
@@ -39,6 +39,8 @@ import ca.uhn.fhir.jpa.search.builder.predicate.UriPredicateBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 
+import java.util.List;
+
 public class SqlObjectFactory {
 
 	@Autowired
@@ -107,4 +109,8 @@ public class SqlObjectFactory {
 	public SearchQueryExecutor newSearchQueryExecutor(GeneratedSql theGeneratedSql, Integer theMaxResultsToFetch) {
 		return myApplicationContext.getBean(SearchQueryExecutor.class, theGeneratedSql, theMaxResultsToFetch);
 	}
+
+	public PartitionedSearchQueryExecutor newPartitionedSearchQueryExecutor(List<GeneratedSql> thePartitionQueries, List<SearchSortKey> theSortKeys, Integer theOffset, Integer theMaxResultsToFetch, Integer theFetchSize) {
+		return myApplicationContext.getBean(PartitionedSearchQueryExecutor.class, thePartitionQueries, theSortKeys, theOffset, theMaxResultsToFetch, theFetchSize);
+	}
 }
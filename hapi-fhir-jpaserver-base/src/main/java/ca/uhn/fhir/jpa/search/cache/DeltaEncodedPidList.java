@@ -0,0 +1,181 @@
+package ca.uhn.fhir.jpa.search.cache;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An append-only list of resource PIDs held in a direct (off-heap) buffer.
+ * <p>
+ * Each PID is stored as the difference from the previous PID, zig-zag and
+ * variable-length encoded, so PIDs that are close to each other (which is
+ * typical for search results) use one or two bytes instead of eight. The offset
+ * of every {@value #CHECKPOINT_INTERVAL}th entry is recorded on the heap, so
+ * reading a page only decodes from the nearest checkpoint.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+class DeltaEncodedPidList {
+
+	static final int CHECKPOINT_INTERVAL = 128;
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int MAX_ENCODED_LENGTH = 10;
+
+	private ByteBuffer myBuffer;
+	private int mySize;
+	private long myLast;
+	private int[] myCheckpointOffsets = new int[8];
+	private long[] myCheckpointValues = new long[8];
+
+	DeltaEncodedPidList() {
+		myBuffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Creates a list from the bytes previously returned by {@link #toByteArray()}
+	 */
+	static DeltaEncodedPidList fromByteArray(byte[] theBytes) {
+		DeltaEncodedPidList retVal = new DeltaEncodedPidList();
+		retVal.myBuffer = ByteBuffer.allocateDirect(Math.max(theBytes.length, INITIAL_CAPACITY));
+		retVal.myBuffer.put(theBytes);
+
+		// Rebuild the size and checkpoints
+		int offset = 0;
+		long value = 0;
+		while (offset < theBytes.length) {
+			retVal.addCheckpointIfNeeded(offset, value);
+			long raw = 0;
+			int shift = 0;
+			byte next;
+			do {
+				next = theBytes[offset++];
+				raw |= (long) (next & 0x7F) << shift;
+				shift += 7;
+			} while (next < 0);
+			value += (raw >>> 1) ^ -(raw & 1);
+			retVal.mySize++;
+		}
+		retVal.myLast = value;
+		return retVal;
+	}
+
+	void addAll(Collection<ResourcePersistentId> thePids) {
+		for (ResourcePersistentId next : thePids) {
+			add(next.getIdAsLong());
+		}
+	}
+
+	void add(long thePid) {
+		if (myBuffer.remaining() < MAX_ENCODED_LENGTH) {
+			ByteBuffer newBuffer = ByteBuffer.allocateDirect(myBuffer.capacity() * 2);
+			myBuffer.flip();
+			newBuffer.put(myBuffer);
+			myBuffer = newBuffer;
+		}
+
+		addCheckpointIfNeeded(myBuffer.position(), myLast);
+
+		long delta = thePid - myLast;
+		long zigZag = (delta << 1) ^ (delta >> 63);
+		while ((zigZag & ~0x7FL) != 0) {
+			myBuffer.put((byte) ((zigZag & 0x7F) | 0x80));
+			zigZag >>>= 7;
+		}
+		myBuffer.put((byte) zigZag);
+
+		myLast = thePid;
+		mySize++;
+	}
+
+	private void addCheckpointIfNeeded(int theOffset, long thePreviousValue) {
+		if (mySize % CHECKPOINT_INTERVAL == 0) {
+			int index = mySize / CHECKPOINT_INTERVAL;
+			if (index == myCheckpointOffsets.length) {
+				myCheckpointOffsets = Arrays.copyOf(myCheckpointOffsets, index * 2);
+				myCheckpointValues = Arrays.copyOf(myCheckpointValues, index * 2);
+			}
+			myCheckpointOffsets[index] = theOffset;
+			myCheckpointValues[index] = thePreviousValue;
+		}
+	}
+
+	/**
+	 * @param theFrom The starting index (inclusive)
+	 * @param theTo   The ending index (exclusive)
+	 */
+	List<ResourcePersistentId> get(int theFrom, int theTo) {
+		int from = Math.max(0, theFrom);
+		int to = Math.min(theTo, mySize);
+		if (to <= from) {
+			return new ArrayList<>(0);
+		}
+
+		int checkpoint = from / CHECKPOINT_INTERVAL;
+		int offset = myCheckpointOffsets[checkpoint];
+		long value = myCheckpointValues[checkpoint];
+
+		List<ResourcePersistentId> retVal = new ArrayList<>(to - from);
+		for (int index = checkpoint * CHECKPOINT_INTERVAL; index < to; index++) {
+			long raw = 0;
+			int shift = 0;
+			byte next;
+			do {
+				next = myBuffer.get(offset++);
+				raw |= (long) (next & 0x7F) << shift;
+				shift += 7;
+			} while (next < 0);
+			value += (raw >>> 1) ^ -(raw & 1);
+
+			if (index >= from) {
+				retVal.add(new ResourcePersistentId(value));
+			}
+		}
+		return retVal;
+	}
+
+	int size() {
+		return mySize;
+	}
+
+	/**
+	 * Returns the number of bytes of memory held by this list
+	 */
+	long getMemorySize() {
+		return myBuffer.capacity() + (myCheckpointOffsets.length * (long) (Integer.BYTES + Long.BYTES));
+	}
+
+	byte[] toByteArray() {
+		byte[] retVal = new byte[myBuffer.position()];
+		ByteBuffer view = myBuffer.duplicate();
+		view.flip();
+		view.get(retVal);
+		return retVal;
+	}
+
+}
@@ -56,4 +56,15 @@ public interface ISearchResultCacheSvc {
 	@Nullable
 	List<ResourcePersistentId> fetchAllResultPids(Search theSearch);
 
+	/**
+	 * Returns <code>false</code> if the results of the given search are known to no longer be
+	 * available from this cache (e.g. because they have been evicted), meaning that the search
+	 * should not be reused. The default implementation always returns <code>true</code>.
+	 *
+	 * @param theSearch The search object
+	 */
+	default boolean isResultsAvailable(Search theSearch) {
+		return true;
+	}
+
 }
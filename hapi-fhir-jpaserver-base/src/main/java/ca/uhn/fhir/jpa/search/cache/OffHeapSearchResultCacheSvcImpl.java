@@ -0,0 +1,266 @@
+package ca.uhn.fhir.jpa.search.cache;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Search result cache which holds the result PIDs of each search in compressed form in
+ * off-heap memory instead of in the <code>HFJ_SEARCH_RESULT</code> table. The total size is
+ * bounded by {@link DaoConfig#getSearchResultCacheMaxBytes()}; the least recently used searches
+ * are moved to {@link DaoConfig#getSearchResultCacheSpillDirectory() the spill directory}
+ * (or discarded if none is configured) when it is exceeded.
+ * <p>
+ * Spilled results are written to a subdirectory of the spill directory which belongs to this
+ * instance (<code>hapi-search-spill-[uuid]</code>), and only that subdirectory is removed on
+ * shutdown. Nothing else in the spill directory is ever touched.
+ * </p>
+ * <p>
+ * Only the results are held here, the {@link Search} itself is still stored by the
+ * {@link ISearchCacheSvc}. Results are local to this server, so this implementation is
+ * only suitable for a single server or a cluster using sticky sessions.
+ * </p>
+ *
+ * @see DaoConfig#setSearchResultCacheMode(DaoConfig.SearchResultCacheModeEnum)
+ */
+public class OffHeapSearchResultCacheSvcImpl implements ISearchResultCacheSvc {
+	private static final Logger ourLog = LoggerFactory.getLogger(OffHeapSearchResultCacheSvcImpl.class);
+
+	private final LinkedHashMap<String, Entry> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<String, Long> mySpilled = new LinkedHashMap<>();
+	private final String mySpillSubdirectoryName = "hapi-search-spill-" + UUID.randomUUID();
+	@Autowired
+	private DaoConfig myDaoConfig;
+	private long myMemorySize;
+
+	@PreDestroy
+	public synchronized void stop() {
+		myEntries.clear();
+		mySpilled.clear();
+		myMemorySize = 0;
+		deleteSpillDirectory();
+	}
+
+	@Override
+	public synchronized void storeResults(Search theSearch, List<ResourcePersistentId> thePreviouslyStoredResourcePids, List<ResourcePersistentId> theNewResourcePids) {
+		expireOldEntries();
+
+		Entry entry = getEntry(theSearch.getUuid());
+		if (entry == null) {
+			entry = new Entry(new DeltaEncodedPidList());
+			entry.myPids.addAll(thePreviouslyStoredResourcePids);
+			myEntries.put(theSearch.getUuid(), entry);
+		} else {
+			myMemorySize -= entry.myMemorySize;
+		}
+
+		entry.myPids.addAll(theNewResourcePids);
+		entry.myLastUpdated = System.currentTimeMillis();
+		entry.myMemorySize = entry.myPids.getMemorySize();
+		myMemorySize += entry.myMemorySize;
+		ourLog.trace("Stored {} results with {} previous for search {}", theNewResourcePids.size(), thePreviouslyStoredResourcePids.size(), theSearch.getUuid());
+
+		evictIfNeeded();
+	}
+
+	@Override
+	public synchronized List<ResourcePersistentId> fetchResultPids(Search theSearch, int theFrom, int theTo) {
+		Entry entry = getEntry(theSearch.getUuid());
+		if (entry == null) {
+			return null;
+		}
+		List<ResourcePersistentId> retVal = entry.myPids.get(theFrom, theTo);
+		ourLog.debug("fetchResultPids for range {}-{} returned {} pids", theFrom, theTo, retVal.size());
+		return retVal;
+	}
+
+	@Override
+	public synchronized List<ResourcePersistentId> fetchAllResultPids(Search theSearch) {
+		Entry entry = getEntry(theSearch.getUuid());
+		if (entry == null) {
+			return null;
+		}
+		List<ResourcePersistentId> retVal = entry.myPids.get(0, entry.myPids.size());
+		ourLog.trace("fetchAllResultPids returned {} pids", retVal.size());
+		return retVal;
+	}
+
+	@Override
+	public synchronized boolean isResultsAvailable(Search theSearch) {
+		if (theSearch.getNumFound() <= 0) {
+			return true;
+		}
+		return myEntries.containsKey(theSearch.getUuid()) || mySpilled.containsKey(theSearch.getUuid());
+	}
+
+	@VisibleForTesting
+	synchronized long getMemorySize() {
+		return myMemorySize;
+	}
+
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+	/**
+	 * Returns the entry for the given search, loading it back into memory if it has been spilled
+	 */
+	private Entry getEntry(String theSearchUuid) {
+		Entry retVal = myEntries.get(theSearchUuid);
+		if (retVal == null && mySpilled.containsKey(theSearchUuid)) {
+			retVal = unspill(theSearchUuid);
+		}
+		return retVal;
+	}
+
+	private void evictIfNeeded() {
+		long maxBytes = myDaoConfig.getSearchResultCacheMaxBytes();
+		Iterator<Map.Entry<String, Entry>> iter = myEntries.entrySet().iterator();
+		// Always keep the most recently used entry, even if it is larger than the limit on its own
+		while (myMemorySize > maxBytes && myEntries.size() > 1) {
+			Map.Entry<String, Entry> next = iter.next();
+			iter.remove();
+			myMemorySize -= next.getValue().myMemorySize;
+			spill(next.getKey(), next.getValue());
+		}
+	}
+
+	private void expireOldEntries() {
+		long cutoff = System.currentTimeMillis() - myDaoConfig.getExpireSearchResultsAfterMillis();
+
+		for (Iterator<Entry> iter = myEntries.values().iterator(); iter.hasNext(); ) {
+			Entry next = iter.next();
+			if (next.myLastUpdated < cutoff) {
+				iter.remove();
+				myMemorySize -= next.myMemorySize;
+			}
+		}
+
+		for (Iterator<Map.Entry<String, Long>> iter = mySpilled.entrySet().iterator(); iter.hasNext(); ) {
+			Map.Entry<String, Long> next = iter.next();
+			if (next.getValue() < cutoff) {
+				iter.remove();
+				FileUtils.deleteQuietly(getSpillFile(next.getKey()));
+			}
+		}
+	}
+
+	private void spill(String theSearchUuid, Entry theEntry) {
+		String spillDirectory = myDaoConfig.getSearchResultCacheSpillDirectory();
+		if (isBlank(spillDirectory)) {
+			ourLog.debug("Discarding results of search {} from search result cache", theSearchUuid);
+			return;
+		}
+
+		try {
+			File file = getSpillFile(theSearchUuid);
+			FileUtils.forceMkdirParent(file);
+			Files.write(file.toPath(), theEntry.myPids.toByteArray());
+		} catch (IOException e) {
+			ourLog.warn("Failed to write results of search {} to spill directory: {}", theSearchUuid, e.toString());
+			return;
+		}
+
+		ourLog.debug("Moved results of search {} to spill directory", theSearchUuid);
+		mySpilled.put(theSearchUuid, theEntry.myLastUpdated);
+	}
+
+	private Entry unspill(String theSearchUuid) {
+		long lastUpdated = mySpilled.remove(theSearchUuid);
+		File file = getSpillFile(theSearchUuid);
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to read results of search " + theSearchUuid + " from spill directory: " + e, e);
+		} finally {
+			FileUtils.deleteQuietly(file);
+		}
+
+		Entry retVal = new Entry(DeltaEncodedPidList.fromByteArray(bytes));
+		retVal.myLastUpdated = lastUpdated;
+		retVal.myMemorySize = retVal.myPids.getMemorySize();
+		myEntries.put(theSearchUuid, retVal);
+		myMemorySize += retVal.myMemorySize;
+		evictIfNeeded();
+		return retVal;
+	}
+
+	private File getSpillFile(String theSearchUuid) {
+		return new File(getSpillDirectory(), theSearchUuid);
+	}
+
+	/**
+	 * Returns the directory this instance spills results to, or <code>null</code> if no spill directory is configured
+	 */
+	@VisibleForTesting
+	File getSpillDirectory() {
+		String spillDirectory = myDaoConfig.getSearchResultCacheSpillDirectory();
+		if (isBlank(spillDirectory)) {
+			return null;
+		}
+		return new File(spillDirectory, mySpillSubdirectoryName);
+	}
+
+	private void deleteSpillDirectory() {
+		File directory = getSpillDirectory();
+		if (directory != null && directory.isDirectory()) {
+			ourLog.info("Deleting search result spill directory: {}", directory.getAbsolutePath());
+			try {
+				FileUtils.deleteDirectory(directory);
+			} catch (IOException e) {
+				ourLog.warn("Failed to delete search result spill directory: {}", e.toString());
+			}
+		}
+	}
+
+	private static class Entry {
+		private final DeltaEncodedPidList myPids;
+		private long myLastUpdated;
+		private long myMemorySize;
+
+		private Entry(DeltaEncodedPidList thePids) {
+			myPids = thePids;
+		}
+	}
+
+}
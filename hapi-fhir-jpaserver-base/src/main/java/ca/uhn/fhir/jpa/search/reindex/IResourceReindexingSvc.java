@@ -20,6 +20,8 @@ package ca.uhn.fhir.jpa.search.reindex;
  * #L%
  */
 
+import java.util.List;
+
 public interface IResourceReindexingSvc {
 
 	/**
@@ -55,4 +57,12 @@ public interface IResourceReindexingSvc {
 	void cancelAndPurgeAllJobs();
 
 	int countReindexJobs();
+
+	/**
+	 * Returns the progress of the reindex jobs that have been run by this server
+	 * and have not yet completed
+	 *
+	 * @since 5.3.0
+	 */
+	List<ReindexJobProgress> getJobProgress();
 }
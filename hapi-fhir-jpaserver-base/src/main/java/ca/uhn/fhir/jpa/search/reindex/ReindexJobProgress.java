@@ -0,0 +1,122 @@
+package ca.uhn.fhir.jpa.search.reindex;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of a single reindex job on this server, since the job was first
+ * run by this server
+ */
+public class ReindexJobProgress {
+
+	private final Long myJobId;
+	private final String myJobResourceType;
+	private final Date myStarted = new Date();
+	private final Map<String, LongAdder> myIndexedCountsByResourceType = new ConcurrentHashMap<>();
+	private final LongAdder myFailedCount = new LongAdder();
+	private volatile Date myIndexedUntil;
+
+	ReindexJobProgress(Long theJobId, String theJobResourceType) {
+		myJobId = theJobId;
+		myJobResourceType = theJobResourceType;
+	}
+
+	public Long getJobId() {
+		return myJobId;
+	}
+
+	/**
+	 * Returns the resource type being reindexed by this job, or <code>null</code> if the job
+	 * is reindexing all resource types
+	 */
+	public String getJobResourceType() {
+		return myJobResourceType;
+	}
+
+	public Date getStarted() {
+		return myStarted;
+	}
+
+	/**
+	 * Returns the last updated timestamp that all resources in this job have been reindexed until
+	 */
+	public Date getIndexedUntil() {
+		return myIndexedUntil;
+	}
+
+	void setIndexedUntil(Date theIndexedUntil) {
+		myIndexedUntil = theIndexedUntil;
+	}
+
+	/**
+	 * Returns the number of resources successfully reindexed, by resource type
+	 */
+	public Map<String, Long> getIndexedCountsByResourceType() {
+		Map<String, Long> retVal = new TreeMap<>();
+		myIndexedCountsByResourceType.forEach((k, v) -> retVal.put(k, v.sum()));
+		return Collections.unmodifiableMap(retVal);
+	}
+
+	public long getIndexedCount() {
+		return myIndexedCountsByResourceType.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+
+	public long getFailedCount() {
+		return myFailedCount.sum();
+	}
+
+	/**
+	 * Returns the average number of resources reindexed per second since the job was started
+	 */
+	public double getResourcesPerSecond() {
+		long elapsedMillis = Math.max(System.currentTimeMillis() - myStarted.getTime(), 1);
+		return getIndexedCount() * 1000.0 / elapsedMillis;
+	}
+
+	void addIndexed(String theResourceType, int theCount) {
+		myIndexedCountsByResourceType.computeIfAbsent(theResourceType, t -> new LongAdder()).add(theCount);
+	}
+
+	void addFailed() {
+		myFailedCount.increment();
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+			.append("jobId", myJobId)
+			.append("resourceType", myJobResourceType)
+			.append("indexed", getIndexedCountsByResourceType())
+			.append("failed", getFailedCount())
+			.append("perSecond", String.format("%.1f", getResourcesPerSecond()))
+			.append("indexedUntil", myIndexedUntil)
+			.toString();
+	}
+}
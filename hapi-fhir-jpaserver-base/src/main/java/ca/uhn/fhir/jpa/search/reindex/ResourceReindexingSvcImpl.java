@@ -30,8 +30,10 @@ import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceReindexJobDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
+import ca.uhn.fhir.jpa.dao.index.DaoSearchParamSynchronizer;
 import ca.uhn.fhir.jpa.entity.ResourceReindexJobEntity;
 import ca.uhn.fhir.jpa.model.entity.ForcedId;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.sched.HapiJob;
 import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
@@ -43,8 +45,8 @@ import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
 import ca.uhn.fhir.util.StopWatch;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.InstantType;
@@ -65,18 +67,21 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceContextType;
 import javax.persistence.Query;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -95,8 +100,9 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 	@Autowired
 	private PlatformTransactionManager myTxManager;
 	private TransactionTemplate myTxTemplate;
-	private ThreadFactory myReindexingThreadFactory = new BasicThreadFactory.Builder().namingPattern("ResourceReindex-%d").build();
-	private ThreadPoolExecutor myTaskExecutor;
+	private ForkJoinPool myTaskExecutor;
+	private final Map<Long, ReindexJobProgress> myJobProgress = new ConcurrentHashMap<>();
+	private volatile RateLimiter myRateLimiter;
 	@Autowired
 	private IResourceTableDao myResourceTableDao;
 	@Autowired
@@ -113,6 +119,8 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 	private ISearchParamRegistry mySearchParamRegistry;
 	@Autowired
 	private ISchedulerService mySchedulerService;
+	@Autowired
+	private DaoSearchParamSynchronizer myDaoSearchParamSynchronizer;
 
 	@VisibleForTesting
 	void setReindexJobDaoForUnitTest(IResourceReindexJobDao theReindexJobDao) {
@@ -154,6 +162,16 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 		mySchedulerService = theSchedulerService;
 	}
 
+	@VisibleForTesting
+	void setEntityManagerForUnitTest(EntityManager theEntityManager) {
+		myEntityManager = theEntityManager;
+	}
+
+	@VisibleForTesting
+	void setDaoSearchParamSynchronizerForUnitTest(DaoSearchParamSynchronizer theDaoSearchParamSynchronizer) {
+		myDaoSearchParamSynchronizer = theDaoSearchParamSynchronizer;
+	}
+
 	@PostConstruct
 	public void start() {
 		myTxTemplate = new TransactionTemplate(myTxManager);
@@ -162,41 +180,17 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 	}
 
 	public void initExecutor() {
-		// Create the threadpool executor used for reindex jobs
+		// Create the work-stealing pool used for reindex jobs. Ranges of resources are split into
+		// batches within this pool, so idle threads take over work from threads with slow batches.
 		int reindexThreadCount = myDaoConfig.getReindexThreadCount();
-		RejectedExecutionHandler rejectHandler = new BlockPolicy();
-		myTaskExecutor = new ThreadPoolExecutor(0, reindexThreadCount,
-			0L, TimeUnit.MILLISECONDS,
-			new LinkedBlockingQueue<>(100),
-			myReindexingThreadFactory,
-			rejectHandler
-		);
-	}
-	/**
-	 * A handler for rejected tasks that will have the caller block until space is available.
-	 * This was stolen from old hibernate search(5.X.X), as it has been removed in HS6. We can probably come up with a better solution though.
-	 */
-	public static class BlockPolicy implements RejectedExecutionHandler {
-
-		/**
-		 * Puts the Runnable to the blocking queue, effectively blocking the delegating thread until space is available.
-		 *
-		 * @param r the runnable task requested to be executed
-		 * @param e the executor attempting to execute this task
-		 */
-		@Override
-		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
-			try {
-				e.getQueue().put( r );
-			}
-			catch (InterruptedException e1) {
-				ourLog.error("Interrupted Execption for task: {}",r, e1 );
-				Thread.currentThread().interrupt();
-			}
-		}
+		ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("ResourceReindex-" + thread.getPoolIndex());
+			return thread;
+		};
+		myTaskExecutor = new ForkJoinPool(reindexThreadCount, threadFactory, null, false);
 	}
 
-
 	public void scheduleJob() {
 		ScheduledJobDefinition jobDetail = new ScheduledJobDefinition();
 		jobDetail.setId(getClass().getName());
@@ -295,6 +289,7 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 
 		myTaskExecutor.shutdown();
 		initExecutor();
+		myJobProgress.clear();
 
 		expungeJobsMarkedAsDeleted();
 		} finally {
@@ -330,6 +325,11 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 		return getResourceReindexJobEntities().size();
 	}
 
+	@Override
+	public List<ReindexJobProgress> getJobProgress() {
+		return new ArrayList<>(myJobProgress.values());
+	}
+
 	private Collection<ResourceReindexJobEntity> getResourceReindexJobEntities() {
 		Collection<ResourceReindexJobEntity> jobs = myTxTemplate.execute(t -> myReindexJobDao.findAll(PageRequest.of(0, 10), false));
 		assert jobs != null;
@@ -342,6 +342,11 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			myReindexJobDao.markAsDeletedById(theJob.getId());
 			return null;
 		});
+
+		ReindexJobProgress progress = myJobProgress.remove(theJob.getId());
+		if (progress != null) {
+			ourLog.info("Finished reindexing job ID[{}]: {}", theJob.getId(), progress);
+		}
 	}
 
 	@VisibleForTesting
@@ -394,32 +399,20 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			return 0;
 		}
 
-		// Submit each resource requiring reindexing
-		List<Future<Date>> futures = range
-			.stream()
-			.map(t -> myTaskExecutor.submit(new ResourceReindexingTask(t, counter)))
-			.collect(Collectors.toList());
-
-		Date latestDate = null;
-		for (Future<Date> next : futures) {
-			Date nextDate;
-			try {
-				nextDate = next.get();
-			} catch (Exception e) {
-				ourLog.error("Failure reindexing", e);
-				Date suspendedUntil = DateUtils.addMinutes(new Date(), 1);
-				myTxTemplate.execute(t -> {
-					myReindexJobDao.setSuspendedUntil(suspendedUntil);
-					return null;
-				});
-				return counter.get();
-			}
-
-			if (nextDate != null) {
-				if (latestDate == null || latestDate.getTime() < nextDate.getTime()) {
-					latestDate = new Date(nextDate.getTime());
-				}
-			}
+		// Reindex the range, split into batches across the reindex threads
+		ReindexJobProgress progress = myJobProgress.computeIfAbsent(theJob.getId(), t -> new ReindexJobProgress(theJob.getId(), theJob.getResourceType()));
+		updateRateLimiter();
+		Date latestDate;
+		try {
+			latestDate = myTaskExecutor.invoke(new ReindexRangeTask(range.getContent(), myDaoConfig.getReindexBatchSize(), counter, progress));
+		} catch (Exception e) {
+			ourLog.error("Failure reindexing", e);
+			Date suspendedUntil = DateUtils.addMinutes(new Date(), 1);
+			myTxTemplate.execute(t -> {
+				myReindexJobDao.setSuspendedUntil(suspendedUntil);
+				return null;
+			});
+			return counter.get();
 		}
 
 		Validate.notNull(latestDate);
@@ -445,10 +438,143 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			return null;
 		});
 
+		progress.setIndexedUntil(newLow);
+
 		ourLog.info("Completed pass of reindex JOB[{}] - Indexed {} resources in {} ({} / sec) - Have indexed until: {}", theJob.getId(), count, sw.toString(), sw.formatThroughput(count, TimeUnit.SECONDS), new InstantType(newLow));
+		ourLog.info("Progress of reindex JOB[{}]: {}", theJob.getId(), progress);
 		return counter.get();
 	}
 
+	private void updateRateLimiter() {
+		Integer maxResourcesPerSecond = myDaoConfig.getReindexMaxResourcesPerSecond();
+		if (maxResourcesPerSecond == null) {
+			myRateLimiter = null;
+		} else if (myRateLimiter == null) {
+			myRateLimiter = RateLimiter.create(maxResourcesPerSecond);
+		} else if (myRateLimiter.getRate() != maxResourcesPerSecond) {
+			myRateLimiter.setRate(maxResourcesPerSecond);
+		}
+	}
+
+	/**
+	 * Reindexes the given resources in a single transaction, after loading the resources,
+	 * their current versions and their current indexes using one query per table instead
+	 * of one query per resource.
+	 *
+	 * @return Returns the latest updated date of the given resources
+	 */
+	private Date reindexBatchInTransaction(List<Long> thePids, Map<String, Integer> theCountsByResourceType) {
+		preFetchResources(thePids);
+		myDaoSearchParamSynchronizer.startBatch();
+
+		Date retVal = null;
+		for (Long next : thePids) {
+			ResourceTable resourceTable = myResourceTableDao.findById(next).orElseThrow(IllegalStateException::new);
+			retVal = latest(retVal, resourceTable.getUpdatedDate());
+			reindexResource(resourceTable);
+			theCountsByResourceType.merge(resourceTable.getResourceType(), 1, Integer::sum);
+		}
+
+		myDaoSearchParamSynchronizer.flushBatch();
+		return retVal;
+	}
+
+	private void preFetchResources(List<Long> thePids) {
+		List<ResourceTable> entities = myEntityManager
+			.createQuery("SELECT r FROM ResourceTable r WHERE r.myId IN (:ids)", ResourceTable.class)
+			.setParameter("ids", thePids)
+			.getResultList();
+		if (entities.isEmpty()) {
+			return;
+		}
+
+		Map<Long, ResourceTable> idToEntity = entities
+			.stream()
+			.collect(Collectors.toMap(ResourceTable::getId, t -> t));
+		List<ResourceHistoryTable> currentVersions = myEntityManager
+			.createQuery("SELECT h FROM ResourceHistoryTable h LEFT OUTER JOIN FETCH h.myProvenance WHERE h.myResourceId IN (:ids) AND h.myResourceVersion = (SELECT r.myVersion FROM ResourceTable r WHERE r.myId = h.myResourceId)", ResourceHistoryTable.class)
+			.setParameter("ids", thePids)
+			.getResultList();
+		for (ResourceHistoryTable next : currentVersions) {
+			ResourceTable entity = idToEntity.get(next.getResourceId());
+			if (entity != null) {
+				entity.setCurrentVersionEntity(next);
+			}
+		}
+
+		preFetchCollection(entities, "myParamsString", ResourceTable::isParamsStringPopulated);
+		preFetchCollection(entities, "myParamsToken", ResourceTable::isParamsTokenPopulated);
+		preFetchCollection(entities, "myParamsDate", ResourceTable::isParamsDatePopulated);
+		preFetchCollection(entities, "myParamsNumber", ResourceTable::isParamsNumberPopulated);
+		preFetchCollection(entities, "myParamsQuantity", ResourceTable::isParamsQuantityPopulated);
+		preFetchCollection(entities, "myParamsUri", ResourceTable::isParamsUriPopulated);
+		preFetchCollection(entities, "myParamsCoords", ResourceTable::isParamsCoordsPopulated);
+		preFetchCollection(entities, "myParamsCompositeStringUnique", ResourceTable::isParamsCompositeStringUniquePresent);
+		preFetchCollection(entities, "myResourceLinks", ResourceTable::isHasLinks);
+		preFetchCollection(entities, "myTags", ResourceTable::isHasTags);
+	}
+
+	private void preFetchCollection(List<ResourceTable> theEntities, String theCollection, Predicate<ResourceTable> theHasValues) {
+		List<Long> ids = theEntities
+			.stream()
+			.filter(theHasValues)
+			.map(ResourceTable::getId)
+			.collect(Collectors.toList());
+		if (!ids.isEmpty()) {
+			myEntityManager
+				.createQuery("SELECT DISTINCT r FROM ResourceTable r LEFT OUTER JOIN FETCH r." + theCollection + " WHERE r.myId IN (:ids)", ResourceTable.class)
+				.setParameter("ids", ids)
+				.getResultList();
+		}
+	}
+
+	private void reindexResource(ResourceTable theResourceTable) {
+		/*
+		 * This part is because from HAPI 1.5 - 1.6 we changed the format of forced ID to be "type/id" instead of just "id"
+		 */
+		ForcedId forcedId = theResourceTable.getForcedId();
+		if (forcedId != null) {
+			if (isBlank(forcedId.getResourceType())) {
+				ourLog.info("Updating resource {} forcedId type to {}", forcedId.getForcedId(), theResourceTable.getResourceType());
+				forcedId.setResourceType(theResourceTable.getResourceType());
+				myForcedIdDao.save(forcedId);
+			}
+		}
+
+		IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(theResourceTable.getResourceType());
+		long expectedVersion = theResourceTable.getVersion();
+		IBaseResource resource = dao.read(theResourceTable.getIdDt().toVersionless(), null, true);
+		if (resource == null) {
+			throw new InternalErrorException("Could not find resource version " + theResourceTable.getIdDt().toUnqualified().getValue() + " in database");
+		}
+
+		Long actualVersion = resource.getIdElement().getVersionIdPartAsLong();
+		if (actualVersion < expectedVersion) {
+			ourLog.warn("Resource {} version {} does not exist, renumbering version {}", resource.getIdElement().toUnqualifiedVersionless().getValue(), resource.getIdElement().getVersionIdPart(), expectedVersion);
+			myResourceHistoryTableDao.updateVersion(theResourceTable.getId(), actualVersion, expectedVersion);
+		}
+
+		doReindex(theResourceTable, resource);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends IBaseResource> void doReindex(ResourceTable theResourceTable, T theResource) {
+		RuntimeResourceDefinition resourceDefinition = myContext.getResourceDefinition(theResource.getClass());
+		Class<T> resourceClass = (Class<T>) resourceDefinition.getImplementingClass();
+		final IFhirResourceDao<T> dao = myDaoRegistry.getResourceDao(resourceClass);
+		dao.reindex(theResource, theResourceTable);
+	}
+
+	private static Date latest(Date theDate1, Date theDate2) {
+		if (theDate1 == null) {
+			return theDate2;
+		}
+		if (theDate2 == null || theDate1.getTime() >= theDate2.getTime()) {
+			return theDate1;
+		}
+		return theDate2;
+	}
+
 	private void expungeJobsMarkedAsDeleted() {
 		myTxTemplate.execute(t -> {
 			Collection<ResourceReindexJobEntity> toDelete = myReindexJobDao.findAll(PageRequest.of(0, 10), true);
@@ -512,25 +638,77 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 		});
 	}
 
-	private class ResourceReindexingTask implements Callable<Date> {
-		private final Long myNextId;
+	/**
+	 * Reindexes a range of resources, splitting it in half until it is no bigger than
+	 * the batch size. Halves which are waiting to be processed can be taken over by idle
+	 * threads in the pool, so a range containing slow resources doesn't hold up the
+	 * rest of the pass.
+	 */
+	private class ReindexRangeTask extends RecursiveTask<Date> {
+		private final List<Long> myPids;
+		private final int myBatchSize;
 		private final AtomicInteger myCounter;
-		private Date myUpdated;
+		private final ReindexJobProgress myProgress;
 
-		ResourceReindexingTask(Long theNextId, AtomicInteger theCounter) {
-			myNextId = theNextId;
+		ReindexRangeTask(List<Long> thePids, int theBatchSize, AtomicInteger theCounter, ReindexJobProgress theProgress) {
+			myPids = thePids;
+			myBatchSize = theBatchSize;
 			myCounter = theCounter;
+			myProgress = theProgress;
 		}
 
+		@Override
+		protected Date compute() {
+			if (myPids.size() > myBatchSize) {
+				int middle = myPids.size() / 2;
+				ReindexRangeTask first = new ReindexRangeTask(myPids.subList(0, middle), myBatchSize, myCounter, myProgress);
+				ReindexRangeTask second = new ReindexRangeTask(myPids.subList(middle, myPids.size()), myBatchSize, myCounter, myProgress);
+				first.fork();
+				Date secondDate = second.compute();
+				return latest(first.join(), secondDate);
+			}
+			return reindexBatch();
+		}
 
-		@SuppressWarnings("unchecked")
-		private <T extends IBaseResource> void doReindex(ResourceTable theResourceTable, T theResource) {
-			RuntimeResourceDefinition resourceDefinition = myContext.getResourceDefinition(theResource.getClass());
-			Class<T> resourceClass = (Class<T>) resourceDefinition.getImplementingClass();
-			final IFhirResourceDao<T> dao = myDaoRegistry.getResourceDao(resourceClass);
-			dao.reindex(theResource, theResourceTable);
+		private Date reindexBatch() {
+			RateLimiter rateLimiter = myRateLimiter;
+			if (rateLimiter != null) {
+				rateLimiter.acquire(myPids.size());
+			}
 
-			myCounter.incrementAndGet();
+			Map<String, Integer> countsByResourceType = new HashMap<>();
+			try {
+				Date retVal = myTxTemplate.execute(t -> reindexBatchInTransaction(myPids, countsByResourceType));
+				countsByResourceType.forEach((type, count) -> {
+					myProgress.addIndexed(type, count);
+					myCounter.addAndGet(count);
+				});
+				return retVal;
+			} catch (Exception e) {
+				/*
+				 * If anything in the batch failed, the whole batch was rolled back. Reindex each
+				 * resource separately so that only the failing resources are marked as failed.
+				 */
+				ourLog.info("Failed to reindex batch of {} resources, reindexing them individually: {}", myPids.size(), e.toString());
+				Date retVal = null;
+				for (Long next : myPids) {
+					retVal = latest(retVal, new ResourceReindexingTask(next, myCounter, myProgress).call());
+				}
+				return retVal;
+			}
+		}
+	}
+
+	private class ResourceReindexingTask implements Callable<Date> {
+		private final Long myNextId;
+		private final AtomicInteger myCounter;
+		private final ReindexJobProgress myProgress;
+		private Date myUpdated;
+
+		ResourceReindexingTask(Long theNextId, AtomicInteger theCounter, ReindexJobProgress theProgress) {
+			myNextId = theNextId;
+			myCounter = theCounter;
+			myProgress = theProgress;
 		}
 
 		@Override
@@ -542,33 +720,9 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 					myUpdated = resourceTable.getUpdatedDate();
 
 					try {
-						/*
-						 * This part is because from HAPI 1.5 - 1.6 we changed the format of forced ID to be "type/id" instead of just "id"
-						 */
-						ForcedId forcedId = resourceTable.getForcedId();
-						if (forcedId != null) {
-							if (isBlank(forcedId.getResourceType())) {
-								ourLog.info("Updating resource {} forcedId type to {}", forcedId.getForcedId(), resourceTable.getResourceType());
-								forcedId.setResourceType(resourceTable.getResourceType());
-								myForcedIdDao.save(forcedId);
-							}
-						}
-
-						IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(resourceTable.getResourceType());
-						long expectedVersion = resourceTable.getVersion();
-						IBaseResource resource = dao.read(resourceTable.getIdDt().toVersionless(), null, true);
-						if (resource == null) {
-							throw new InternalErrorException("Could not find resource version " + resourceTable.getIdDt().toUnqualified().getValue() + " in database");
-						}
-
-						Long actualVersion = resource.getIdElement().getVersionIdPartAsLong();
-						if (actualVersion < expectedVersion) {
-							ourLog.warn("Resource {} version {} does not exist, renumbering version {}", resource.getIdElement().toUnqualifiedVersionless().getValue(), resource.getIdElement().getVersionIdPart(), expectedVersion);
-							myResourceHistoryTableDao.updateVersion(resourceTable.getId(), actualVersion, expectedVersion);
-						}
-
-						doReindex(resourceTable, resource);
-
+						reindexResource(resourceTable);
+						myProgress.addIndexed(resourceTable.getResourceType(), 1);
+						myCounter.incrementAndGet();
 						return null;
 
 					} catch (Exception e) {
@@ -592,6 +746,7 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 
 			if (reindexFailure != null) {
 				ourLog.info("Setting resource PID[{}] status to ERRORED", myNextId);
+				myProgress.addFailed();
 				markResourceAsIndexingFailed(myNextId);
 			}
 
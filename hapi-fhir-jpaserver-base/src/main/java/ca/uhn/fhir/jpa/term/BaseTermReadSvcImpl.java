@@ -69,6 +69,7 @@ import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
 import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
 import ca.uhn.fhir.jpa.model.util.JpaConstants;
 import ca.uhn.fhir.jpa.search.builder.SearchBuilder;
+import ca.uhn.fhir.jpa.term.api.ITermCodeSystemSnapshotSvc;
 import ca.uhn.fhir.jpa.term.api.ITermCodeSystemStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermDeferredStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermLoaderSvc;
@@ -100,6 +101,7 @@ import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.RegexpQuery;
+import org.hibernate.Hibernate;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.search.backend.elasticsearch.ElasticsearchExtension;
@@ -176,6 +178,7 @@ import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -232,6 +235,7 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 	private DaoConfig myDaoConfig;
 	private Cache<TranslationQuery, List<TermConceptMapGroupElementTarget>> myTranslationCache;
 	private Cache<TranslationQuery, List<TermConceptMapGroupElement>> myTranslationWithReverseCache;
+	private Cache<Long, TermValueSetMembership> myValueSetMembershipCache;
 	private TransactionTemplate myTxTemplate;
 	@Autowired
 	private PlatformTransactionManager myTransactionManager;
@@ -247,6 +251,8 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 	private ITermDeferredStorageSvc myDeferredStorageSvc;
 	@Autowired(required = false)
 	private ITermCodeSystemStorageSvc myConceptStorageSvc;
+	@Autowired(required = false)
+	private ITermCodeSystemSnapshotSvc myCodeSystemSnapshotSvc;
 	@Autowired
 	private ApplicationContext myApplicationContext;
 	private volatile IValidationSupport myJpaValidationSupport;
@@ -346,6 +352,10 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		myTranslationCache.invalidateAll();
 		myTranslationWithReverseCache.invalidateAll();
 		myCodeSystemCurrentVersionCache.invalidateAll();
+		myValueSetMembershipCache.invalidateAll();
+		if (myCodeSystemSnapshotSvc != null) {
+			myCodeSystemSnapshotSvc.invalidateSnapshots();
+		}
 	}
 
 	public void deleteConceptMap(ResourceTable theResourceTable) {
@@ -393,6 +403,7 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 			myValueSetConceptDesignationDao.deleteByTermValueSetId(existingTermValueSet.getId());
 			myValueSetConceptDao.deleteByTermValueSetId(existingTermValueSet.getId());
 			myValueSetDao.deleteById(existingTermValueSet.getId());
+			myValueSetMembershipCache.invalidate(existingTermValueSet.getId());
 			ourLog.info("Done deleting existing TermValueSet[{}] and its children.", existingTermValueSet.getId());
 		}
 	}
@@ -410,7 +421,23 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		String expansionFilter = null;
 		// TODO: DM 2019-09-10 - This is problematic because an incorrect URL that matches ValueSet.id will not be found in the terminology tables but will yield a ValueSet here. Depending on the ValueSet, the expansion may time-out.
 
-		ValueSet expanded = expandValueSet(theExpansionOptions, theValueSetCanonicalUrl, expansionFilter);
+		ValueSet valueSet = fetchCanonicalValueSetFromCompleteContext(theValueSetCanonicalUrl);
+		if (valueSet == null) {
+			throw new ResourceNotFoundException("Unknown ValueSet: " + UrlUtil.escapeUrlParam(theValueSetCanonicalUrl));
+		}
+
+		// If the whole pre-expansion fits in the membership cache, there is no need to page through the pre-expansion tables
+		if (myDaoConfig.isPreExpandedValueSetMembershipCacheEnabled()) {
+			TermValueSetMembership membership = findTermValueSet(valueSet)
+				.map(this::getValueSetMembership)
+				.orElse(null);
+			ValueSetExpansionOptions expansionOptions = provideExpansionOptions(theExpansionOptions);
+			if (membership != null && expansionOptions.getOffset() == 0 && membership.size() <= Math.min(expansionOptions.getCount(), myDaoConfig.getMaximumExpansionSize())) {
+				return membership.toConceptList();
+			}
+		}
+
+		ValueSet expanded = expandValueSet(theExpansionOptions, valueSet, expansionFilter);
 
 		ArrayList<FhirVersionIndependentConcept> retVal = new ArrayList<>();
 		for (ValueSet.ValueSetExpansionContainsComponent nextContains : expanded.getExpansion().getContains()) {
@@ -482,21 +509,7 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 	}
 
 	private void expandValueSetIntoAccumulator(ValueSet theValueSetToExpand, ValueSetExpansionOptions theExpansionOptions, IValueSetConceptAccumulator theAccumulator, ExpansionFilter theFilter, boolean theAdd) {
-		Optional<TermValueSet> optionalTermValueSet;
-		if (theValueSetToExpand.hasUrl()) {
-			if (theValueSetToExpand.hasVersion()) {
-				optionalTermValueSet = myValueSetDao.findTermValueSetByUrlAndVersion(theValueSetToExpand.getUrl(), theValueSetToExpand.getVersion());
-			} else {
-				List<TermValueSet> termValueSets = myValueSetDao.findTermValueSetByUrl(PageRequest.of(0, 1), theValueSetToExpand.getUrl());
-				if (termValueSets.size() > 0) {
-					optionalTermValueSet = Optional.of(termValueSets.get(0));
-				} else {
-					optionalTermValueSet = Optional.empty();
-				}
-			}
-		} else {
-			optionalTermValueSet = Optional.empty();
-		}
+		Optional<TermValueSet> optionalTermValueSet = findTermValueSet(theValueSetToExpand);
 
 		/*
 		 * ValueSet doesn't exist in pre-expansion database, so perform in-memory expansion
@@ -525,6 +538,19 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 	}
 
 
+	private Optional<TermValueSet> findTermValueSet(ValueSet theValueSet) {
+		if (theValueSet.hasUrl()) {
+			if (theValueSet.hasVersion()) {
+				return myValueSetDao.findTermValueSetByUrlAndVersion(theValueSet.getUrl(), theValueSet.getVersion());
+			}
+			List<TermValueSet> termValueSets = myValueSetDao.findTermValueSetByUrl(PageRequest.of(0, 1), theValueSet.getUrl());
+			if (termValueSets.size() > 0) {
+				return Optional.of(termValueSets.get(0));
+			}
+		}
+		return Optional.empty();
+	}
+
 	private void expandConcepts(IValueSetConceptAccumulator theAccumulator, TermValueSet theTermValueSet, ExpansionFilter theFilter, boolean theAdd) {
 		Integer offset = theAccumulator.getSkipCountRemaining();
 		offset = ObjectUtils.defaultIfNull(offset, 0);
@@ -1458,22 +1484,29 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 
 		ValidateUtil.isNotNullOrThrowUnprocessableEntity(theValueSet.hasId(), "ValueSet.id is required");
 		ResourcePersistentId valueSetResourcePid = myConceptStorageSvc.getValueSetResourcePid(theValueSet.getIdElement());
+		TermValueSetMembership membership = getValueSetMembership(valueSetResourcePid);
 
-		List<TermValueSetConcept> concepts = new ArrayList<>();
+		List<FhirVersionIndependentConcept> concepts = new ArrayList<>();
 		if (isNotBlank(theCode)) {
 			if (theValidationOptions.isInferSystem()) {
-				concepts.addAll(myValueSetConceptDao.findByValueSetResourcePidAndCode(valueSetResourcePid.getIdAsLong(), theCode));
+				if (membership != null) {
+					concepts.addAll(membership.findCode(null, null, theCode));
+				} else {
+					for (TermValueSetConcept next : myValueSetConceptDao.findByValueSetResourcePidAndCode(valueSetResourcePid.getIdAsLong(), theCode)) {
+						concepts.add(toConcept(next));
+					}
+				}
 			} else if (isNotBlank(theSystem)) {
-				concepts.addAll(findByValueSetResourcePidSystemAndCode(valueSetResourcePid, theSystem, theCode));
+				concepts.addAll(findByValueSetResourcePidSystemAndCode(membership, valueSetResourcePid, theSystem, theCode));
 			}
 		} else if (theCoding != null) {
 			if (theCoding.hasSystem() && theCoding.hasCode()) {
-				concepts.addAll(findByValueSetResourcePidSystemAndCode(valueSetResourcePid, theCoding.getSystem(), theCoding.getCode()));
+				concepts.addAll(findByValueSetResourcePidSystemAndCode(membership, valueSetResourcePid, theCoding.getSystem(), theCoding.getCode()));
 			}
 		} else if (theCodeableConcept != null) {
 			for (Coding coding : theCodeableConcept.getCoding()) {
 				if (coding.hasSystem() && coding.hasCode()) {
-					concepts.addAll(findByValueSetResourcePidSystemAndCode(valueSetResourcePid, coding.getSystem(), coding.getCode()));
+					concepts.addAll(findByValueSetResourcePidSystemAndCode(membership, valueSetResourcePid, coding.getSystem(), coding.getCode()));
 					if (!concepts.isEmpty()) {
 						break;
 					}
@@ -1484,7 +1517,7 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		}
 
 		if (theValidationOptions.isValidateDisplay() && concepts.size() > 0) {
-			for (TermValueSetConcept concept : concepts) {
+			for (FhirVersionIndependentConcept concept : concepts) {
 				if (isBlank(theDisplay) || isBlank(concept.getDisplay()) || theDisplay.equals(concept.getDisplay())) {
 					return new IValidationSupport.CodeValidationResult()
 						.setCode(concept.getCode())
@@ -1515,21 +1548,69 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 			.setMessage("Unknown code {" + theSystem + "}" + theCode + theAppend);
 	}
 
-	private List<TermValueSetConcept> findByValueSetResourcePidSystemAndCode(ResourcePersistentId theResourcePid, String theSystem, String theCode) {
-		List<TermValueSetConcept> retVal = new ArrayList<>();
-		Optional<TermValueSetConcept> optionalTermValueSetConcept;
+	private List<FhirVersionIndependentConcept> findByValueSetResourcePidSystemAndCode(@Nullable TermValueSetMembership theMembership, ResourcePersistentId theResourcePid, String theSystem, String theCode) {
+		String systemUrl = theSystem;
+		String systemVersion = null;
 		int versionIndex = theSystem.indexOf("|");
 		if (versionIndex >= 0) {
-			String systemUrl = theSystem.substring(0, versionIndex);
-			String systemVersion = theSystem.substring(versionIndex + 1);
+			systemUrl = theSystem.substring(0, versionIndex);
+			systemVersion = theSystem.substring(versionIndex + 1);
+		}
+
+		if (theMembership != null) {
+			return theMembership.findCode(systemUrl, systemVersion, theCode);
+		}
+
+		List<FhirVersionIndependentConcept> retVal = new ArrayList<>();
+		Optional<TermValueSetConcept> optionalTermValueSetConcept;
+		if (systemVersion != null) {
 			optionalTermValueSetConcept = myValueSetConceptDao.findByValueSetResourcePidSystemAndCodeWithVersion(theResourcePid.getIdAsLong(), systemUrl, systemVersion, theCode);
 		} else {
-			optionalTermValueSetConcept = myValueSetConceptDao.findByValueSetResourcePidSystemAndCode(theResourcePid.getIdAsLong(), theSystem, theCode);
+			optionalTermValueSetConcept = myValueSetConceptDao.findByValueSetResourcePidSystemAndCode(theResourcePid.getIdAsLong(), systemUrl, theCode);
 		}
-		optionalTermValueSetConcept.ifPresent(retVal::add);
+		optionalTermValueSetConcept.ifPresent(t -> retVal.add(toConcept(t)));
 		return retVal;
 	}
 
+	private static FhirVersionIndependentConcept toConcept(TermValueSetConcept theConcept) {
+		return new FhirVersionIndependentConcept(theConcept.getSystem(), theConcept.getCode(), theConcept.getDisplay(), theConcept.getSystemVersion());
+	}
+
+	/**
+	 * Returns the members of the given ValueSet if the pre-expanded ValueSet membership cache is
+	 * enabled and the ValueSet has been pre-expanded, or <code>null</code> otherwise, in which case
+	 * the database should be used
+	 */
+	@Nullable
+	private TermValueSetMembership getValueSetMembership(ResourcePersistentId theValueSetResourcePid) {
+		if (!myDaoConfig.isPreExpandedValueSetMembershipCacheEnabled()) {
+			return null;
+		}
+		Optional<TermValueSet> termValueSet = myValueSetDao.findByResourcePid(theValueSetResourcePid.getIdAsLong());
+		return termValueSet.map(this::getValueSetMembership).orElse(null);
+	}
+
+	@Nullable
+	private TermValueSetMembership getValueSetMembership(TermValueSet theTermValueSet) {
+		if (!myDaoConfig.isPreExpandedValueSetMembershipCacheEnabled() || theTermValueSet.getExpansionStatus() != TermValueSetPreExpansionStatusEnum.EXPANDED) {
+			return null;
+		}
+
+		long maxConcepts = myDaoConfig.getPreExpandedValueSetMembershipCacheMaxConcepts();
+		Long totalConcepts = theTermValueSet.getTotalConcepts();
+		if (totalConcepts == null || totalConcepts > maxConcepts) {
+			return null;
+		}
+
+		myValueSetMembershipCache.policy().eviction().ifPresent(t -> t.setMaximum(maxConcepts));
+		return myValueSetMembershipCache.get(theTermValueSet.getId(), t -> {
+			StopWatch sw = new StopWatch();
+			TermValueSetMembership retVal = TermValueSetMembership.fromRows(myValueSetConceptDao.findSystemVersionCodeAndDisplayByTermValueSetId(t));
+			ourLog.debug("Loaded {} members of TermValueSet[{}] in {}", retVal.size(), t, sw);
+			return retVal;
+		});
+	}
+
 	private void fetchChildren(TermConcept theConcept, Set<TermConcept> theSetToPopulate) {
 		for (TermConceptParentChildLink nextChildLink : theConcept.getChildren()) {
 			TermConcept nextChild = nextChildLink.getChild();
@@ -1595,7 +1676,8 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 				if (version != null) {
 					csv = myCodeSystemVersionDao.findByCodeSystemPidAndVersion(cs.getPid(), version);
 				} else if (cs.getCurrentVersion() != null) {
-					csv = cs.getCurrentVersion();
+					// Unproxy, since the cached version is used outside of this transaction
+					csv = (TermCodeSystemVersion) Hibernate.unproxy(cs.getCurrentVersion());
 				}
 			}
 			if (csv != null) {
@@ -1660,6 +1742,11 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		}
 		TermCodeSystemVersion csv = cs.getCurrentVersion();
 
+		TermCodeSystemSnapshot snapshot = getCodeSystemSnapshot(csv);
+		if (snapshot != null) {
+			return toVersionIndependentConcepts(theSystem, snapshot, snapshot.indexOf(theCode), snapshot::getAncestors);
+		}
+
 		Set<TermConcept> codes = findCodesAbove(cs.getResource().getId(), csv.getPid(), theCode);
 		return toVersionIndependentConcepts(theSystem, codes);
 	}
@@ -1692,6 +1779,11 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		}
 		TermCodeSystemVersion csv = cs.getCurrentVersion();
 
+		TermCodeSystemSnapshot snapshot = getCodeSystemSnapshot(csv);
+		if (snapshot != null) {
+			return toVersionIndependentConcepts(theSystem, snapshot, snapshot.indexOf(theCode), snapshot::getDescendants);
+		}
+
 		Set<TermConcept> codes = findCodesBelow(cs.getResource().getId(), csv.getPid(), theCode);
 		return toVersionIndependentConcepts(theSystem, codes);
 	}
@@ -1700,15 +1792,45 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		return myCodeSystemDao.findByCodeSystemUri(theSystem);
 	}
 
+	/**
+	 * Returns a snapshot of the current version of the given code system, or <code>null</code>
+	 * if snapshots are disabled or not available, in which case the database should be used
+	 */
+	@Nullable
+	private TermCodeSystemSnapshot getCodeSystemSnapshot(String theCodeSystemIdentifier) {
+		if (myCodeSystemSnapshotSvc == null || !myDaoConfig.isTermCodeSystemSnapshotsEnabled()) {
+			return null;
+		}
+		return getCodeSystemSnapshot(getCurrentCodeSystemVersion(theCodeSystemIdentifier));
+	}
+
+	@Nullable
+	private TermCodeSystemSnapshot getCodeSystemSnapshot(@Nullable TermCodeSystemVersion theCodeSystemVersion) {
+		if (myCodeSystemSnapshotSvc == null || theCodeSystemVersion == null) {
+			return null;
+		}
+		return myCodeSystemSnapshotSvc.getSnapshot(theCodeSystemVersion.getPid());
+	}
+
 	@PostConstruct
 	public void start() {
 		RuleBasedTransactionAttribute rules = new RuleBasedTransactionAttribute();
 		rules.getRollbackRules().add(new NoRollbackRuleAttribute(ExpansionTooCostlyException.class));
 		myTxTemplate = new TransactionTemplate(myTransactionManager, rules);
 		buildTranslationCaches();
+		buildValueSetMembershipCache();
 		scheduleJob();
 	}
 
+	private void buildValueSetMembershipCache() {
+		myValueSetMembershipCache =
+			Caffeine.newBuilder()
+				.maximumWeight(myDaoConfig.getPreExpandedValueSetMembershipCacheMaxConcepts())
+				.weigher((Long theKey, TermValueSetMembership theValue) -> theValue.size())
+				.expireAfterAccess(10, TimeUnit.MINUTES)
+				.build();
+	}
+
 	private void buildTranslationCaches() {
 		Long timeout = myDaoConfig.getTranslationCachesExpireAfterWriteInMinutes();
 
@@ -1928,6 +2050,7 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 					myValueSetDao.saveAndFlush(valueSetToExpand);
 					return null;
 				});
+				myValueSetMembershipCache.invalidate(valueSetToExpand.getId());
 
 				ourLog.info("Pre-expanded ValueSet[{}] with URL[{}] - Saved {} concepts in {}", valueSet.getId(), valueSet.getUrl(), accumulator.getConceptsSaved(), sw.toString());
 
@@ -2102,6 +2225,12 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		} else {
 			codeASystemIdentifier = conceptA.getSystem();
 		}
+
+		TermCodeSystemSnapshot snapshot = getCodeSystemSnapshot(codeASystemIdentifier);
+		if (snapshot != null) {
+			return subsumes(snapshot, conceptA, conceptB);
+		}
+
 		TermConcept codeA = findCode(codeASystemIdentifier, conceptA.getCode())
 			.orElseThrow(() -> new InvalidRequestException("Unknown code: " + conceptA));
 
@@ -2128,6 +2257,27 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 		return new IFhirResourceDaoCodeSystem.SubsumesResult(subsumes);
 	}
 
+	private IFhirResourceDaoCodeSystem.SubsumesResult subsumes(TermCodeSystemSnapshot theSnapshot, FhirVersionIndependentConcept theConceptA, FhirVersionIndependentConcept theConceptB) {
+		int indexA = theSnapshot.indexOf(theConceptA.getCode());
+		if (indexA == -1) {
+			throw new InvalidRequestException("Unknown code: " + theConceptA);
+		}
+		int indexB = theSnapshot.indexOf(theConceptB.getCode());
+		if (indexB == -1) {
+			throw new InvalidRequestException("Unknown code: " + theConceptB);
+		}
+
+		ConceptSubsumptionOutcome subsumes;
+		if (theSnapshot.isAncestor(indexA, indexB)) {
+			subsumes = ConceptSubsumptionOutcome.SUBSUMES;
+		} else if (theSnapshot.isAncestor(indexB, indexA)) {
+			subsumes = ConceptSubsumptionOutcome.SUBSUMEDBY;
+		} else {
+			subsumes = ConceptSubsumptionOutcome.NOTSUBSUMED;
+		}
+		return new IFhirResourceDaoCodeSystem.SubsumesResult(subsumes);
+	}
+
 	protected abstract ValueSet toCanonicalValueSet(IBaseResource theValueSet);
 
 	protected IValidationSupport.LookupCodeResult lookupCode(String theSystem, String theCode) {
@@ -2191,6 +2341,19 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 	}
 
 
+	private ArrayList<FhirVersionIndependentConcept> toVersionIndependentConcepts(String theSystem, TermCodeSystemSnapshot theSnapshot, int theIndex, IntFunction<int[]> theRelatedIndexes) {
+		if (theIndex == -1) {
+			return new ArrayList<>();
+		}
+		int[] relatedIndexes = theRelatedIndexes.apply(theIndex);
+		ArrayList<FhirVersionIndependentConcept> retVal = new ArrayList<>(relatedIndexes.length + 1);
+		retVal.add(new FhirVersionIndependentConcept(theSystem, theSnapshot.getCode(theIndex)));
+		for (int next : relatedIndexes) {
+			retVal.add(new FhirVersionIndependentConcept(theSystem, theSnapshot.getCode(next)));
+		}
+		return retVal;
+	}
+
 	private ArrayList<FhirVersionIndependentConcept> toVersionIndependentConcepts(String theSystem, Set<TermConcept> codes) {
 		ArrayList<FhirVersionIndependentConcept> retVal = new ArrayList<>(codes.size());
 		for (TermConcept next : codes) {
@@ -2469,9 +2632,16 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 			return validateCodeInValueSet(theValidationSupportContext, theOptions, theValueSetUrl, theCodeSystem, theCode, theDisplay);
 		}
 
-		TransactionTemplate txTemplate = new TransactionTemplate(myTransactionManager);
-		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
-		Optional<FhirVersionIndependentConcept> codeOpt = txTemplate.execute(t -> findCode(theCodeSystem, theCode).map(c -> new FhirVersionIndependentConcept(theCodeSystem, c.getCode())));
+		Optional<FhirVersionIndependentConcept> codeOpt;
+		TermCodeSystemSnapshot snapshot = getCodeSystemSnapshot(theCodeSystem);
+		if (snapshot != null) {
+			int index = snapshot.indexOf(theCode);
+			codeOpt = index != -1 ? Optional.of(new FhirVersionIndependentConcept(theCodeSystem, snapshot.getCode(index))) : Optional.empty();
+		} else {
+			TransactionTemplate txTemplate = new TransactionTemplate(myTransactionManager);
+			txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+			codeOpt = txTemplate.execute(t -> findCode(theCodeSystem, theCode).map(c -> new FhirVersionIndependentConcept(theCodeSystem, c.getCode())));
+		}
 
 		if (codeOpt != null && codeOpt.isPresent()) {
 			FhirVersionIndependentConcept code = codeOpt.get();
@@ -2732,6 +2902,22 @@ public abstract class BaseTermReadSvcImpl implements ITermReadSvc {
 	@SuppressWarnings("unchecked")
 	private CodeValidationResult codeSystemValidateCode(String theCodeSystemUrl, String theCodeSystemVersion, String theCode, String theDisplay) {
 
+		// Without a version, the most recently updated matching concept of any version is used, so the snapshot can't help
+		if (isNotBlank(theCodeSystemUrl) && isNotBlank(theCodeSystemVersion) && isNotBlank(theCode)) {
+			TermCodeSystemSnapshot snapshot = getCodeSystemSnapshot(theCodeSystemUrl + "|" + theCodeSystemVersion);
+			if (snapshot != null) {
+				int index = snapshot.indexOf(theCode);
+				if (index != -1 && (isBlank(theDisplay) || theDisplay.equals(snapshot.getDisplay(index)))) {
+					return new CodeValidationResult().setCode(snapshot.getCode(index)).setDisplay(snapshot.getDisplay(index));
+				}
+				if (isBlank(theDisplay)) {
+					return createFailureCodeValidationResult(theCodeSystemUrl, theCode);
+				} else {
+					return createFailureCodeValidationResult(theCodeSystemUrl, theCode, " - Concept Display : " + theDisplay);
+				}
+			}
+		}
+
 		CriteriaBuilder criteriaBuilder = myEntityManager.getCriteriaBuilder();
 		CriteriaQuery<TermConcept> query = criteriaBuilder.createQuery(TermConcept.class);
 		Root<TermConcept> root = query.from(TermConcept.class);
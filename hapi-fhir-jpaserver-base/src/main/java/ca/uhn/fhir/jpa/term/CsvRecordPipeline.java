@@ -0,0 +1,144 @@
+package ca.uhn.fhir.jpa.term;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads CSV records on a background thread and hands them to the calling thread in batches. This
+ * means that decompressing and parsing a large terminology distribution file overlaps with the
+ * processing of the records that have already been parsed, while the records are still processed
+ * one at a time and in file order by the caller.
+ * <p>
+ * At most {@link #QUEUE_CAPACITY} batches are held in memory at any given time, so a slow
+ * consumer causes the reader to wait rather than buffering the whole file.
+ * </p>
+ */
+class CsvRecordPipeline {
+
+	static final int BATCH_SIZE = 1000;
+	static final int QUEUE_CAPACITY = 8;
+	private static final List<CSVRecord> END_OF_RECORDS = Collections.emptyList();
+
+	private CsvRecordPipeline() {
+		// nothing
+	}
+
+	/**
+	 * Passes every record produced by the given iterator to the given handler, on the calling thread.
+	 * Anything thrown while reading the records (including errors) is rethrown on the calling thread.
+	 */
+	static void forEach(String theThreadName, Iterator<CSVRecord> theRecords, IRecordHandler theHandler) {
+		BlockingQueue<List<CSVRecord>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread reader = new Thread(() -> {
+			try {
+				List<CSVRecord> batch = new ArrayList<>(BATCH_SIZE);
+				while (!cancelled.get() && theRecords.hasNext()) {
+					batch.add(theRecords.next());
+					if (batch.size() >= BATCH_SIZE) {
+						put(queue, batch, cancelled);
+						batch = new ArrayList<>(BATCH_SIZE);
+					}
+				}
+				if (!batch.isEmpty()) {
+					put(queue, batch, cancelled);
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			} finally {
+				putEndOfRecords(queue, cancelled);
+			}
+		}, theThreadName);
+		reader.setDaemon(true);
+		reader.start();
+
+		try {
+			while (true) {
+				List<CSVRecord> batch = queue.take();
+				if (batch == END_OF_RECORDS) {
+					break;
+				}
+				for (CSVRecord next : batch) {
+					theHandler.accept(next);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException(e);
+		} finally {
+			cancelled.set(true);
+			queue.clear();
+		}
+
+		Throwable readerFailure = failure.get();
+		if (readerFailure instanceof RuntimeException) {
+			throw (RuntimeException) readerFailure;
+		}
+		if (readerFailure instanceof Error) {
+			throw (Error) readerFailure;
+		}
+		if (readerFailure != null) {
+			throw new InternalErrorException(readerFailure);
+		}
+	}
+
+	private static void put(BlockingQueue<List<CSVRecord>> theQueue, List<CSVRecord> theBatch, AtomicBoolean theCancelled) throws InterruptedException {
+		while (!theCancelled.get()) {
+			if (theQueue.offer(theBatch, 100, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The caller waits for the end marker, so it is queued even if the reader thread is interrupted
+	 */
+	private static void putEndOfRecords(BlockingQueue<List<CSVRecord>> theQueue, AtomicBoolean theCancelled) {
+		boolean interrupted = false;
+		while (!theCancelled.get()) {
+			try {
+				if (theQueue.offer(END_OF_RECORDS, 100, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,369 @@
+package ca.uhn.fhir.jpa.term;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.Validate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An immutable, memory-mapped snapshot of a single terminology code system version. A snapshot
+ * holds the codes of the code system version sorted in natural order, the display for each code,
+ * and the transitive closure of the hierarchy (both the ancestors and the descendants of each code).
+ * <p>
+ * Concepts are identified within a snapshot by their index in the sorted code list. Lookups do not
+ * allocate beyond the returned values, and a snapshot may be shared freely between threads.
+ * </p>
+ * <p>
+ * File layout (big-endian):
+ * </p>
+ * <pre>
+ * header:   magic (int), format version (int), code system version PID (long), concept count N (int),
+ *           ancestor entry count A (int), descendant entry count D (int), code bytes (int), display bytes (int)
+ * int[N+1]  code offsets (into code bytes)
+ * int[N+1]  display offsets (into display bytes)
+ * int[N+1]  ancestor offsets (into ancestor entries)
+ * int[N+1]  descendant offsets (into descendant entries)
+ * int[A]    ancestor entries, sorted for each concept
+ * int[D]    descendant entries, sorted for each concept
+ * byte[]    code bytes (UTF-8)
+ * byte[]    display bytes (UTF-8)
+ * </pre>
+ */
+public class TermCodeSystemSnapshot {
+
+	static final int MAGIC = 0x48545353;
+	static final int FORMAT_VERSION = 1;
+	private static final int HEADER_LENGTH = 36;
+
+	private final ByteBuffer myBuffer;
+	private final long myCodeSystemVersionPid;
+	private final int myConceptCount;
+	private final int myCodeOffsetsPos;
+	private final int myDisplayOffsetsPos;
+	private final int myAncestorOffsetsPos;
+	private final int myDescendantOffsetsPos;
+	private final int myAncestorsPos;
+	private final int myDescendantsPos;
+	private final int myCodeBytesPos;
+	private final int myDisplayBytesPos;
+
+	private TermCodeSystemSnapshot(ByteBuffer theBuffer) {
+		myBuffer = theBuffer;
+		Validate.isTrue(theBuffer.capacity() >= HEADER_LENGTH, "Snapshot is truncated");
+		Validate.isTrue(theBuffer.getInt(0) == MAGIC, "Not a code system snapshot");
+		Validate.isTrue(theBuffer.getInt(4) == FORMAT_VERSION, "Unsupported snapshot format version: %s", theBuffer.getInt(4));
+		myCodeSystemVersionPid = theBuffer.getLong(8);
+		myConceptCount = theBuffer.getInt(16);
+		int ancestorCount = theBuffer.getInt(20);
+		int descendantCount = theBuffer.getInt(24);
+		int codeByteCount = theBuffer.getInt(28);
+		int displayByteCount = theBuffer.getInt(32);
+
+		int offsetsLength = (myConceptCount + 1) * 4;
+		myCodeOffsetsPos = HEADER_LENGTH;
+		myDisplayOffsetsPos = myCodeOffsetsPos + offsetsLength;
+		myAncestorOffsetsPos = myDisplayOffsetsPos + offsetsLength;
+		myDescendantOffsetsPos = myAncestorOffsetsPos + offsetsLength;
+		myAncestorsPos = myDescendantOffsetsPos + offsetsLength;
+		myDescendantsPos = myAncestorsPos + ancestorCount * 4;
+		myCodeBytesPos = myDescendantsPos + descendantCount * 4;
+		myDisplayBytesPos = myCodeBytesPos + codeByteCount;
+		Validate.isTrue(theBuffer.capacity() == myDisplayBytesPos + displayByteCount, "Snapshot is truncated");
+	}
+
+	public long getCodeSystemVersionPid() {
+		return myCodeSystemVersionPid;
+	}
+
+	public int getConceptCount() {
+		return myConceptCount;
+	}
+
+	/**
+	 * Returns the index of the given code, or <code>-1</code> if the code is not in the code system version
+	 */
+	public int indexOf(String theCode) {
+		if (theCode == null) {
+			return -1;
+		}
+		int low = 0;
+		int high = myConceptCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int compare = getCode(mid).compareTo(theCode);
+			if (compare < 0) {
+				low = mid + 1;
+			} else if (compare > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	@Nonnull
+	public String getCode(int theIndex) {
+		return getString(myCodeOffsetsPos, myCodeBytesPos, theIndex);
+	}
+
+	@Nullable
+	public String getDisplay(int theIndex) {
+		String retVal = getString(myDisplayOffsetsPos, myDisplayBytesPos, theIndex);
+		return retVal.isEmpty() ? null : retVal;
+	}
+
+	/**
+	 * Returns the indexes of all of the ancestors of the given concept (not including the concept itself), in ascending order
+	 */
+	public int[] getAncestors(int theIndex) {
+		return getInts(myAncestorOffsetsPos, myAncestorsPos, theIndex);
+	}
+
+	/**
+	 * Returns the indexes of all of the descendants of the given concept (not including the concept itself), in ascending order
+	 */
+	public int[] getDescendants(int theIndex) {
+		return getInts(myDescendantOffsetsPos, myDescendantsPos, theIndex);
+	}
+
+	/**
+	 * Returns <code>true</code> if the concept at <code>theAncestor</code> is a (direct or indirect) parent of the concept
+	 * at <code>theDescendant</code>
+	 */
+	public boolean isAncestor(int theAncestor, int theDescendant) {
+		int low = myBuffer.getInt(myAncestorOffsetsPos + theDescendant * 4);
+		int high = myBuffer.getInt(myAncestorOffsetsPos + (theDescendant + 1) * 4) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int value = myBuffer.getInt(myAncestorsPos + mid * 4);
+			if (value < theAncestor) {
+				low = mid + 1;
+			} else if (value > theAncestor) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String getString(int theOffsetsPos, int theBytesPos, int theIndex) {
+		int start = myBuffer.getInt(theOffsetsPos + theIndex * 4);
+		int end = myBuffer.getInt(theOffsetsPos + (theIndex + 1) * 4);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer buffer = myBuffer.duplicate();
+		buffer.position(theBytesPos + start);
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int[] getInts(int theOffsetsPos, int theValuesPos, int theIndex) {
+		int start = myBuffer.getInt(theOffsetsPos + theIndex * 4);
+		int end = myBuffer.getInt(theOffsetsPos + (theIndex + 1) * 4);
+		int[] retVal = new int[end - start];
+		for (int i = 0; i < retVal.length; i++) {
+			retVal[i] = myBuffer.getInt(theValuesPos + (start + i) * 4);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Maps an existing snapshot file into memory
+	 */
+	public static TermCodeSystemSnapshot open(File theFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(theFile, "r"); FileChannel channel = file.getChannel()) {
+			Validate.isTrue(channel.size() <= Integer.MAX_VALUE, "Snapshot file is too large: %s", theFile);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new TermCodeSystemSnapshot(buffer);
+		}
+	}
+
+	/**
+	 * Writes a snapshot file
+	 *
+	 * @param theCodes           The codes, in any order
+	 * @param theDisplays        The display for each code (entries may be <code>null</code>)
+	 * @param theParentIndexes   The indexes (into <code>theCodes</code>) of the direct parents of each code
+	 */
+	public static void write(File theFile, long theCodeSystemVersionPid, String[] theCodes, String[] theDisplays, int[][] theParentIndexes) throws IOException {
+		int conceptCount = theCodes.length;
+
+		// Sort the concepts by code, and renumber the parents accordingly
+		Integer[] sortedToInput = new Integer[conceptCount];
+		for (int i = 0; i < conceptCount; i++) {
+			sortedToInput[i] = i;
+		}
+		Arrays.sort(sortedToInput, (o1, o2) -> theCodes[o1].compareTo(theCodes[o2]));
+		int[] inputToSorted = new int[conceptCount];
+		for (int i = 0; i < conceptCount; i++) {
+			inputToSorted[sortedToInput[i]] = i;
+		}
+		int[][] parents = new int[conceptCount][];
+		for (int i = 0; i < conceptCount; i++) {
+			int[] inputParents = theParentIndexes[sortedToInput[i]];
+			parents[i] = new int[inputParents.length];
+			for (int j = 0; j < inputParents.length; j++) {
+				parents[i][j] = inputToSorted[inputParents[j]];
+			}
+		}
+
+		int[][] ancestors = computeAncestors(parents);
+		int[] descendantCounts = new int[conceptCount];
+		long ancestorCount = 0;
+		for (int[] next : ancestors) {
+			ancestorCount += next.length;
+			for (int nextAncestor : next) {
+				descendantCounts[nextAncestor]++;
+			}
+		}
+
+		byte[][] codeBytes = new byte[conceptCount][];
+		byte[][] displayBytes = new byte[conceptCount][];
+		long codeByteCount = 0;
+		long displayByteCount = 0;
+		for (int i = 0; i < conceptCount; i++) {
+			codeBytes[i] = theCodes[sortedToInput[i]].getBytes(StandardCharsets.UTF_8);
+			String display = theDisplays[sortedToInput[i]];
+			displayBytes[i] = display != null ? display.getBytes(StandardCharsets.UTF_8) : new byte[0];
+			codeByteCount += codeBytes[i].length;
+			displayByteCount += displayBytes[i].length;
+		}
+
+		long fileLength = HEADER_LENGTH + 4L * 4 * (conceptCount + 1) + 4L * 2 * ancestorCount + codeByteCount + displayByteCount;
+		Validate.isTrue(fileLength <= Integer.MAX_VALUE, "Code system version %s is too large for a snapshot", theCodeSystemVersionPid);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(theFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(theCodeSystemVersionPid);
+			out.writeInt(conceptCount);
+			out.writeInt((int) ancestorCount);
+			out.writeInt((int) ancestorCount);
+			out.writeInt((int) codeByteCount);
+			out.writeInt((int) displayByteCount);
+
+			writeByteOffsets(out, codeBytes);
+			writeByteOffsets(out, displayBytes);
+
+			int offset = 0;
+			for (int[] next : ancestors) {
+				out.writeInt(offset);
+				offset += next.length;
+			}
+			out.writeInt(offset);
+
+			offset = 0;
+			for (int next : descendantCounts) {
+				out.writeInt(offset);
+				offset += next;
+			}
+			out.writeInt(offset);
+
+			for (int[] next : ancestors) {
+				for (int nextAncestor : next) {
+					out.writeInt(nextAncestor);
+				}
+			}
+
+			// Invert the ancestors. Concepts are visited in ascending order so each list ends up sorted.
+			int[][] descendants = new int[conceptCount][];
+			for (int i = 0; i < conceptCount; i++) {
+				descendants[i] = new int[descendantCounts[i]];
+			}
+			int[] fill = new int[conceptCount];
+			for (int i = 0; i < conceptCount; i++) {
+				for (int nextAncestor : ancestors[i]) {
+					descendants[nextAncestor][fill[nextAncestor]++] = i;
+				}
+			}
+			for (int[] next : descendants) {
+				for (int nextDescendant : next) {
+					out.writeInt(nextDescendant);
+				}
+			}
+
+			for (byte[] next : codeBytes) {
+				out.write(next);
+			}
+			for (byte[] next : displayBytes) {
+				out.write(next);
+			}
+		}
+	}
+
+	private static void writeByteOffsets(DataOutputStream theOut, byte[][] theValues) throws IOException {
+		int offset = 0;
+		for (byte[] next : theValues) {
+			theOut.writeInt(offset);
+			offset += next.length;
+		}
+		theOut.writeInt(offset);
+	}
+
+	/**
+	 * Computes the sorted transitive closure of the parents of each concept. Cycles are tolerated.
+	 */
+	private static int[][] computeAncestors(int[][] theParents) {
+		int conceptCount = theParents.length;
+		int[][] retVal = new int[conceptCount][];
+		int[] visitedStamp = new int[conceptCount];
+		int[] queue = new int[conceptCount];
+		for (int i = 0; i < conceptCount; i++) {
+			int stamp = i + 1;
+			visitedStamp[i] = stamp;
+			int head = 0;
+			int tail = 0;
+			for (int nextParent : theParents[i]) {
+				if (visitedStamp[nextParent] != stamp) {
+					visitedStamp[nextParent] = stamp;
+					queue[tail++] = nextParent;
+				}
+			}
+			while (head < tail) {
+				int next = queue[head++];
+				for (int nextParent : theParents[next]) {
+					if (visitedStamp[nextParent] != stamp) {
+						visitedStamp[nextParent] = stamp;
+						queue[tail++] = nextParent;
+					}
+				}
+			}
+			retVal[i] = Arrays.copyOf(queue, tail);
+			Arrays.sort(retVal[i]);
+		}
+		return retVal;
+	}
+
+}
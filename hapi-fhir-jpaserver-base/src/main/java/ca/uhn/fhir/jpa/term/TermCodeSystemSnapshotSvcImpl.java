@@ -0,0 +1,311 @@
+package ca.uhn.fhir.jpa.term;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.ITermConceptDao;
+import ca.uhn.fhir.jpa.dao.data.ITermConceptParentChildLinkDao;
+import ca.uhn.fhir.jpa.term.api.ITermCodeSystemSnapshotSvc;
+import ca.uhn.fhir.jpa.term.api.ITermDeferredStorageSvc;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.StopWatch;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+public class TermCodeSystemSnapshotSvcImpl implements ITermCodeSystemSnapshotSvc {
+	private static final Logger ourLog = LoggerFactory.getLogger(TermCodeSystemSnapshotSvcImpl.class);
+	private static final String FILE_PREFIX = "csv-";
+	private static final String FILE_SUFFIX = ".snapshot";
+
+	/*
+	 * Snapshots are re-checked against the database periodically, the same way as the
+	 * current code system version is in BaseTermReadSvcImpl
+	 */
+	private final Cache<Long, Optional<TermCodeSystemSnapshot>> mySnapshots = Caffeine.newBuilder().expireAfterWrite(1, TimeUnit.MINUTES).build();
+	private final Set<Long> myPendingBuilds = ConcurrentHashMap.newKeySet();
+	/*
+	 * Incremented whenever snapshots are invalidated, so that a build which started before the
+	 * invalidation doesn't cache a snapshot of the code system as it was before the change
+	 */
+	private final AtomicLong myInvalidationCount = new AtomicLong();
+	private ExecutorService myBuildExecutor;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private ITermConceptDao myConceptDao;
+	@Autowired
+	private ITermConceptParentChildLinkDao myConceptParentChildLinkDao;
+	@Autowired
+	private ITermDeferredStorageSvc myDeferredStorageSvc;
+	@Autowired
+	private PlatformTransactionManager myTransactionManager;
+
+	@Nullable
+	@Override
+	public TermCodeSystemSnapshot getSnapshot(Long theCodeSystemVersionPid) {
+		if (!myDaoConfig.isTermCodeSystemSnapshotsEnabled()) {
+			return null;
+		}
+
+		// Concepts which haven't been stored yet would be missing from the snapshot
+		if (!myDeferredStorageSvc.isStorageQueueEmpty()) {
+			return null;
+		}
+
+		Optional<TermCodeSystemSnapshot> retVal = mySnapshots.getIfPresent(theCodeSystemVersionPid);
+		if (retVal == null) {
+			// Building a snapshot can take a while for a large code system, so don't make the caller wait for it
+			requestBuild(theCodeSystemVersionPid);
+			return null;
+		}
+		return retVal.orElse(null);
+	}
+
+	@Override
+	public void invalidateSnapshot(Long theCodeSystemVersionPid) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			doInvalidateSnapshot(theCodeSystemVersionPid);
+			return;
+		}
+
+		// A snapshot built before the current transaction commits would still contain the old contents
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCompletion(int theStatus) {
+				doInvalidateSnapshot(theCodeSystemVersionPid);
+			}
+		});
+	}
+
+	@Override
+	public void invalidateSnapshots() {
+		myInvalidationCount.incrementAndGet();
+		mySnapshots.invalidateAll();
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		if (myBuildExecutor != null) {
+			myBuildExecutor.shutdownNow();
+			myBuildExecutor = null;
+		}
+	}
+
+	private void doInvalidateSnapshot(Long theCodeSystemVersionPid) {
+		myInvalidationCount.incrementAndGet();
+		mySnapshots.invalidate(theCodeSystemVersionPid);
+	}
+
+	private void requestBuild(Long theCodeSystemVersionPid) {
+		if (!myPendingBuilds.add(theCodeSystemVersionPid)) {
+			return;
+		}
+
+		long invalidationCount = myInvalidationCount.get();
+		try {
+			getBuildExecutor().submit(() -> {
+				try {
+					Optional<TermCodeSystemSnapshot> snapshot = loadSnapshot(theCodeSystemVersionPid);
+					if (myInvalidationCount.get() == invalidationCount) {
+						mySnapshots.put(theCodeSystemVersionPid, snapshot);
+					}
+				} finally {
+					myPendingBuilds.remove(theCodeSystemVersionPid);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			myPendingBuilds.remove(theCodeSystemVersionPid);
+			ourLog.debug("Not building snapshot of code system version {}, service is stopping", theCodeSystemVersionPid);
+		}
+	}
+
+	private synchronized ExecutorService getBuildExecutor() {
+		if (myBuildExecutor == null) {
+			BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("term-snapshot-build-%d")
+				.daemon(true)
+				.build();
+			myBuildExecutor = Executors.newSingleThreadExecutor(threadFactory);
+		}
+		return myBuildExecutor;
+	}
+
+	private Optional<TermCodeSystemSnapshot> loadSnapshot(Long theCodeSystemVersionPid) {
+		TransactionTemplate txTemplate = new TransactionTemplate(myTransactionManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+		txTemplate.setReadOnly(true);
+
+		try {
+			File file = txTemplate.execute(t -> {
+				String fileName = FILE_PREFIX + theCodeSystemVersionPid + "-" + createContentKey(theCodeSystemVersionPid) + FILE_SUFFIX;
+
+				File directory = getSnapshotDirectory();
+				File snapshotFile = new File(directory, fileName);
+				if (!snapshotFile.exists()) {
+					buildSnapshot(theCodeSystemVersionPid, directory, snapshotFile);
+				}
+				return snapshotFile;
+			});
+
+			return Optional.of(TermCodeSystemSnapshot.open(file));
+		} catch (IOException | RuntimeException e) {
+			ourLog.warn("Unable to provide a snapshot of code system version {}, falling back to the database: {}", theCodeSystemVersionPid, e.toString());
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Creates a key identifying the contents of a code system version, so that a changed code system
+	 * gets a new snapshot file and other servers sharing the directory can reuse a snapshot built here.
+	 * <p>
+	 * Concept and link PIDs come from sequences and are never reused, so any added concept or link raises
+	 * the highest PID and any removed one lowers the count, even if other rows are added or removed in the
+	 * same change. Concepts whose code or display changed get a new updated timestamp.
+	 * </p>
+	 */
+	private String createContentKey(Long theCodeSystemVersionPid) {
+		Object[] concepts = myConceptDao.findCountMaxIdAndMaxUpdatedByCodeSystemVersion(theCodeSystemVersionPid).get(0);
+		Object[] links = myConceptParentChildLinkDao.findCountAndMaxIdByCodeSystemVersion(theCodeSystemVersionPid).get(0);
+		Date lastUpdated = (Date) concepts[2];
+		return concepts[0] + "-" + defaultIfNull(concepts[1], 0) + "-" + (lastUpdated != null ? lastUpdated.getTime() : 0) + "-" + links[0] + "-" + defaultIfNull(links[1], 0);
+	}
+
+	private void buildSnapshot(Long theCodeSystemVersionPid, File theDirectory, File theSnapshotFile) {
+		StopWatch sw = new StopWatch();
+
+		List<Object[]> concepts = myConceptDao.findIdCodeAndDisplayByCodeSystemVersion(theCodeSystemVersionPid);
+		int conceptCount = concepts.size();
+		String[] codes = new String[conceptCount];
+		String[] displays = new String[conceptCount];
+		Map<Long, Integer> pidToIndex = new HashMap<>(conceptCount * 2);
+		for (int i = 0; i < conceptCount; i++) {
+			Object[] next = concepts.get(i);
+			pidToIndex.put((Long) next[0], i);
+			codes[i] = (String) next[1];
+			displays[i] = (String) next[2];
+		}
+
+		List<Object[]> links = myConceptParentChildLinkDao.findParentAndChildPidsByCodeSystemVersion(theCodeSystemVersionPid);
+		int[] parentCounts = new int[conceptCount];
+		int[][] linkIndexes = new int[links.size()][];
+		for (int i = 0; i < links.size(); i++) {
+			Integer parentIndex = pidToIndex.get((Long) links.get(i)[0]);
+			Integer childIndex = pidToIndex.get((Long) links.get(i)[1]);
+			if (parentIndex != null && childIndex != null) {
+				linkIndexes[i] = new int[]{parentIndex, childIndex};
+				parentCounts[childIndex]++;
+			}
+		}
+		int[][] parents = new int[conceptCount][];
+		for (int i = 0; i < conceptCount; i++) {
+			parents[i] = new int[parentCounts[i]];
+			parentCounts[i] = 0;
+		}
+		for (int[] next : linkIndexes) {
+			if (next != null) {
+				parents[next[1]][parentCounts[next[1]]++] = next[0];
+			}
+		}
+
+		File tempFile = null;
+		try {
+			// Write to a temporary file first so that no other process ever sees a partial snapshot
+			tempFile = File.createTempFile(FILE_PREFIX + theCodeSystemVersionPid + "-", ".tmp", theDirectory);
+			TermCodeSystemSnapshot.write(tempFile, theCodeSystemVersionPid, codes, displays, parents);
+			try {
+				Files.move(tempFile.toPath(), theSnapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), theSnapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+			throw new InternalErrorException("Failed to write code system snapshot " + theSnapshotFile + ": " + e, e);
+		}
+
+		ourLog.info("Built snapshot of code system version {} with {} concepts and {} links in {}", theCodeSystemVersionPid, conceptCount, links.size(), sw);
+
+		deleteOutdatedSnapshots(theCodeSystemVersionPid, theDirectory, theSnapshotFile);
+	}
+
+	/**
+	 * Removes older snapshots of the same code system version. Any process which still has one of them
+	 * mapped keeps its mapping until it notices that the code system has changed.
+	 */
+	private void deleteOutdatedSnapshots(Long theCodeSystemVersionPid, File theDirectory, File theSnapshotFile) {
+		String prefix = FILE_PREFIX + theCodeSystemVersionPid + "-";
+		File[] files = theDirectory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(FILE_SUFFIX));
+		if (files != null) {
+			for (File next : files) {
+				if (!next.getName().equals(theSnapshotFile.getName()) && next.delete()) {
+					ourLog.info("Deleted outdated code system snapshot {}", next);
+				}
+			}
+		}
+	}
+
+	private File getSnapshotDirectory() {
+		File retVal;
+		if (isNotBlank(myDaoConfig.getTermCodeSystemSnapshotDirectory())) {
+			retVal = new File(myDaoConfig.getTermCodeSystemSnapshotDirectory());
+		} else {
+			retVal = new File(System.getProperty("java.io.tmpdir"), "hapi-fhir-term-snapshots");
+		}
+		if (!retVal.isDirectory() && !retVal.mkdirs() && !retVal.isDirectory()) {
+			throw new InternalErrorException("Unable to create code system snapshot directory: " + retVal);
+		}
+		return retVal;
+	}
+
+}
@@ -40,6 +40,7 @@ import ca.uhn.fhir.jpa.entity.TermConceptDesignation;
 import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink;
 import ca.uhn.fhir.jpa.entity.TermConceptProperty;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.term.api.ITermCodeSystemSnapshotSvc;
 import ca.uhn.fhir.jpa.term.api.ITermCodeSystemStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermDeferredStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermReadSvc;
@@ -117,6 +118,8 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 	@Autowired
 	private ITermDeferredStorageSvc myDeferredStorageSvc;
 	@Autowired
+	private ITermCodeSystemSnapshotSvc myCodeSystemSnapshotSvc;
+	@Autowired
 	private FhirContext myContext;
 	@Autowired
 	private ITermReadSvc myTerminologySvc;
@@ -169,6 +172,8 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 			addConceptInHierarchy(csv, parentCodes, nextRootConcept, retVal, codeToConcept, 0);
 		}
 
+		myCodeSystemSnapshotSvc.invalidateSnapshot(csv.getPid());
+
 		return retVal;
 	}
 
@@ -213,6 +218,10 @@ public class TermCodeSystemStorageSvcImpl implements ITermCodeSystemStorageSvc {
 			deleteEverythingRelatedToConcept(code, removeCounter);
 		}
 
+		if (cs.getCurrentVersion() != null) {
+			myCodeSystemSnapshotSvc.invalidateSnapshot(cs.getCurrentVersion().getPid());
+		}
+
 		return new UploadStatistics(removeCounter.get(), target);
 	}
 
@@ -20,6 +20,7 @@ package ca.uhn.fhir.jpa.term;
  * #L%
  */
 
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
 import ca.uhn.fhir.jpa.dao.data.ITermCodeSystemDao;
 import ca.uhn.fhir.jpa.dao.data.ITermCodeSystemVersionDao;
 import ca.uhn.fhir.jpa.dao.data.ITermConceptDao;
@@ -34,12 +35,15 @@ import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.sched.HapiJob;
 import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
 import ca.uhn.fhir.jpa.model.sched.ScheduledJobDefinition;
+import ca.uhn.fhir.jpa.term.api.ITermCodeSystemSnapshotSvc;
 import ca.uhn.fhir.jpa.term.api.ITermCodeSystemStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermDeferredStorageSvc;
 import ca.uhn.fhir.jpa.term.api.ITermVersionAdapterSvc;
 import ca.uhn.fhir.util.StopWatch;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.hl7.fhir.r4.model.ConceptMap;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.quartz.JobExecutionContext;
@@ -52,21 +56,32 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 
 	private static final Logger ourLog = LoggerFactory.getLogger(TermDeferredStorageSvcImpl.class);
+	private static final int CONCEPT_EXISTENCE_CHECK_CHUNK_SIZE = 500;
 	final private List<TermCodeSystem> myDeferredCodeSystemsDeletions = Collections.synchronizedList(new ArrayList<>());
 	final private List<TermCodeSystemVersion> myDeferredCodeSystemVersionsDeletions = Collections.synchronizedList(new ArrayList<>());
 	final private List<TermConcept> myDeferredConcepts = Collections.synchronizedList(new ArrayList<>());
@@ -94,29 +109,41 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 	private ITermVersionAdapterSvc myTerminologyVersionAdapterSvc;
 	@Autowired
 	private ITermCodeSystemStorageSvc myCodeSystemStorageSvc;
+	@Autowired
+	private ITermCodeSystemSnapshotSvc myCodeSystemSnapshotSvc;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	private final AtomicBoolean myWorkerScheduled = new AtomicBoolean(false);
+	private final AtomicLong myConceptsSaved = new AtomicLong();
+	private final AtomicLong myConceptLinksSaved = new AtomicLong();
+	private ExecutorService myWorkerExecutor;
 
 	@Override
 	public void addConceptToStorageQueue(TermConcept theConcept) {
 		Validate.notNull(theConcept);
 		myDeferredConcepts.add(theConcept);
+		requestWorkerAfterCommit();
 	}
 
 	@Override
 	public void addConceptLinkToStorageQueue(TermConceptParentChildLink theConceptLink) {
 		Validate.notNull(theConceptLink);
 		myConceptLinksToSaveLater.add(theConceptLink);
+		requestWorkerAfterCommit();
 	}
 
 	@Override
 	public void addConceptMapsToStorageQueue(List<ConceptMap> theConceptMaps) {
 		Validate.notNull(theConceptMaps);
 		myDeferredConceptMaps.addAll(theConceptMaps);
+		requestWorkerAfterCommit();
 	}
 
 	@Override
 	public void addValueSetsToStorageQueue(List<ValueSet> theValueSets) {
 		Validate.notNull(theValueSets);
 		myDeferredValueSets.addAll(theValueSets);
+		requestWorkerAfterCommit();
 	}
 
 	@Override
@@ -145,6 +172,9 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 	@Override
 	public void setProcessDeferred(boolean theProcessDeferred) {
 		myProcessDeferred = theProcessDeferred;
+		if (theProcessDeferred) {
+			requestWorkerAfterCommit();
+		}
 	}
 
 	private void processDeferredConceptMaps() {
@@ -161,48 +191,57 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 		int codeCount = 0, relCount = 0;
 		StopWatch stopwatch = new StopWatch();
 
-		int count = Math.min(1000, myDeferredConcepts.size());
-		ourLog.debug("Saving {} deferred concepts...", count);
-		while (codeCount < count && myDeferredConcepts.size() > 0) {
-			TermConcept next = myDeferredConcepts.remove(0);
-			if (myCodeSystemVersionDao.findById(next.getCodeSystemVersion().getPid()).isPresent()) {
+		List<TermConcept> concepts = removeFirst(myDeferredConcepts, 1000);
+		ourLog.debug("Saving {} deferred concepts...", concepts.size());
+		Map<Long, Boolean> codeSystemVersionExists = new HashMap<>();
+		Set<Long> changedCodeSystemVersionPids = new HashSet<>();
+		for (TermConcept next : concepts) {
+			Long codeSystemVersionPid = next.getCodeSystemVersion().getPid();
+			if (codeSystemVersionExists.computeIfAbsent(codeSystemVersionPid, t -> myCodeSystemVersionDao.findById(t).isPresent())) {
 				try {
 					codeCount += myCodeSystemStorageSvc.saveConcept(next);
+					changedCodeSystemVersionPids.add(codeSystemVersionPid);
 				} catch (Exception theE) {
 					ourLog.error("Exception thrown when attempting to save TermConcept {} in Code System {}",
 						next.getCode(), next.getCodeSystemVersion().getCodeSystemDisplayName(), theE);
 				}
 			} else {
 				ourLog.warn("Unable to save deferred TermConcept {} because Code System {} version PID {} is no longer valid. Code system may have since been replaced.",
-					next.getCode(), next.getCodeSystemVersion().getCodeSystemDisplayName(), next.getCodeSystemVersion().getPid());
+					next.getCode(), next.getCodeSystemVersion().getCodeSystemDisplayName(), codeSystemVersionPid);
 			}
 		}
 
 		if (codeCount > 0) {
+			myConceptsSaved.addAndGet(codeCount);
 			ourLog.info("Saved {} deferred concepts ({} codes remain and {} relationships remain) in {}ms ({} codes/sec)",
 				codeCount, myDeferredConcepts.size(), myConceptLinksToSaveLater.size(), stopwatch.getMillis(), stopwatch.formatThroughput(codeCount, TimeUnit.SECONDS));
 		}
 
-		if (codeCount == 0) {
-			count = Math.min(1000, myConceptLinksToSaveLater.size());
-			ourLog.info("Saving {} deferred concept relationships...", count);
-			while (relCount < count && myConceptLinksToSaveLater.size() > 0) {
-				TermConceptParentChildLink next = myConceptLinksToSaveLater.remove(0);
+		if (concepts.isEmpty()) {
+			List<TermConceptParentChildLink> links = removeFirst(myConceptLinksToSaveLater, 1000);
+			ourLog.info("Saving {} deferred concept relationships...", links.size());
+			Set<Long> existingConceptIds = findExistingConceptIds(links);
+			for (TermConceptParentChildLink next : links) {
 				assert next.getChild() != null;
 				assert next.getParent() != null;
 
-				if ((next.getChild().getId() == null || !myConceptDao.findById(next.getChild().getId()).isPresent())
-					|| (next.getParent().getId() == null || !myConceptDao.findById(next.getParent().getId()).isPresent())) {
+				if (!existingConceptIds.contains(next.getChild().getId()) || !existingConceptIds.contains(next.getParent().getId())) {
 					ourLog.warn("Not inserting link from child {} to parent {} because it appears to have been deleted", next.getParent().getCode(), next.getChild().getCode());
 					continue;
 				}
 
 				saveConceptLink(next);
+				changedCodeSystemVersionPids.add(next.getCodeSystem().getPid());
 				relCount++;
 			}
 		}
 
+		for (Long next : changedCodeSystemVersionPids) {
+			myCodeSystemSnapshotSvc.invalidateSnapshot(next);
+		}
+
 		if (relCount > 0) {
+			myConceptLinksSaved.addAndGet(relCount);
 			ourLog.info("Saved {} deferred relationships ({} remain) in {}ms ({} entries/sec)",
 				relCount, myConceptLinksToSaveLater.size(), stopwatch.getMillis(), stopwatch.formatThroughput(relCount, TimeUnit.SECONDS));
 		}
@@ -212,6 +251,42 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 		}
 	}
 
+	/**
+	 * Checks which of the concepts referred to by the given links exist, using a handful of
+	 * queries instead of two lookups per link
+	 */
+	private Set<Long> findExistingConceptIds(List<TermConceptParentChildLink> theLinks) {
+		Set<Long> conceptIds = new HashSet<>();
+		for (TermConceptParentChildLink next : theLinks) {
+			if (next.getChild().getId() != null) {
+				conceptIds.add(next.getChild().getId());
+			}
+			if (next.getParent().getId() != null) {
+				conceptIds.add(next.getParent().getId());
+			}
+		}
+
+		Set<Long> retVal = new HashSet<>();
+		for (List<Long> nextChunk : Lists.partition(new ArrayList<>(conceptIds), CONCEPT_EXISTENCE_CHECK_CHUNK_SIZE)) {
+			retVal.addAll(myConceptDao.findExistingIds(nextChunk));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Removes and returns up to the given number of items from the head of a queue. This is done
+	 * as a single bulk removal since removing items from the head of a large list one at a time
+	 * is very slow.
+	 */
+	private static <T> List<T> removeFirst(List<T> theQueue, int theCount) {
+		synchronized (theQueue) {
+			List<T> head = theQueue.subList(0, Math.min(theCount, theQueue.size()));
+			List<T> retVal = new ArrayList<>(head);
+			head.clear();
+			return retVal;
+		}
+	}
+
 	private void processDeferredValueSets() {
 		int count = Math.min(myDeferredValueSets.size(), 200);
 		for (ValueSet nextValueSet : new ArrayList<>(myDeferredValueSets.subList(0, count))) {
@@ -331,6 +406,7 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 	private void processDeferredCodeSystemVersionDeletions(long theCodeSystemVersionPid) {
 		assert !TransactionSynchronizationManager.isActualTransactionActive();
 		ourLog.info(" * Deleting CodeSystemVersion[id={}]", theCodeSystemVersionPid);
+		myCodeSystemSnapshotSvc.invalidateSnapshot(theCodeSystemVersionPid);
 
 		PageRequest page1000 = PageRequest.of(0, 1000);
 
@@ -455,6 +531,107 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 		return !myDeferredConceptMaps.isEmpty();
 	}
 
+	/**
+	 * Starts the background worker (if it is enabled) once the current transaction commits, or
+	 * immediately if there is no current transaction. Queued items can refer to rows written by the
+	 * current transaction, so they must not be processed before it commits.
+	 */
+	private void requestWorkerAfterCommit() {
+		if (!isWorkerEnabled()) {
+			return;
+		}
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			requestWorker();
+			return;
+		}
+
+		// Only register a single synchronization per transaction, no matter how many items it queues
+		if (TransactionSynchronizationManager.hasResource(this)) {
+			return;
+		}
+		TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCompletion(int theStatus) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(TermDeferredStorageSvcImpl.this);
+				if (theStatus == STATUS_COMMITTED) {
+					requestWorker();
+				}
+			}
+		});
+	}
+
+	private void requestWorker() {
+		if (myWorkerScheduled.compareAndSet(false, true)) {
+			getWorkerExecutor().submit(this::drainQueueInWorker);
+		}
+	}
+
+	private void drainQueueInWorker() {
+		StopWatch sw = new StopWatch();
+		long conceptsBefore = myConceptsSaved.get();
+		long linksBefore = myConceptLinksSaved.get();
+		try {
+			while (isWorkerEnabled() && !isProcessDeferredPaused() && !isStorageQueueEmpty()) {
+				saveDeferred();
+			}
+		} catch (Exception e) {
+			ourLog.error("Failure while processing deferred terminology storage: " + e.getMessage(), e);
+		} finally {
+			myWorkerScheduled.set(false);
+		}
+
+		long concepts = myConceptsSaved.get() - conceptsBefore;
+		long links = myConceptLinksSaved.get() - linksBefore;
+		if (concepts + links > 0) {
+			ourLog.info("Deferred terminology storage worker saved {} concepts ({}/sec) and {} relationships ({}/sec) in {}",
+				concepts, sw.formatThroughput(concepts, TimeUnit.SECONDS), links, sw.formatThroughput(links, TimeUnit.SECONDS), sw);
+		}
+
+		// Items may have been queued after the last check but before the worker flag was cleared
+		if (isWorkerEnabled() && !isProcessDeferredPaused() && !isStorageQueueEmpty()) {
+			requestWorker();
+		}
+	}
+
+	private boolean isWorkerEnabled() {
+		return myDaoConfig != null && myDaoConfig.isTermDeferredStorageWorkerEnabled();
+	}
+
+	private synchronized ExecutorService getWorkerExecutor() {
+		if (myWorkerExecutor == null) {
+			BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("term-deferred-storage-%d")
+				.daemon(true)
+				.build();
+			myWorkerExecutor = Executors.newSingleThreadExecutor(threadFactory);
+		}
+		return myWorkerExecutor;
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		if (myWorkerExecutor != null) {
+			myWorkerExecutor.shutdownNow();
+			myWorkerExecutor = null;
+		}
+	}
+
+	/**
+	 * @return The total number of deferred concepts which have been saved since startup
+	 */
+	public long getConceptsSaved() {
+		return myConceptsSaved.get();
+	}
+
+	/**
+	 * @return The total number of deferred concept relationships which have been saved since startup
+	 */
+	public long getConceptLinksSaved() {
+		return myConceptLinksSaved.get();
+	}
+
 	@PostConstruct
 	public void scheduleJob() {
 		// TODO KHS what does this mean?
@@ -476,6 +653,11 @@ public class TermDeferredStorageSvcImpl implements ITermDeferredStorageSvc {
 		myCodeSystemStorageSvc = theCodeSystemStorageSvc;
 	}
 
+	@VisibleForTesting
+	void setCodeSystemSnapshotSvcForUnitTest(ITermCodeSystemSnapshotSvc theCodeSystemSnapshotSvc) {
+		myCodeSystemSnapshotSvc = theCodeSystemSnapshotSvc;
+	}
+
 	@VisibleForTesting
 	void setConceptDaoForUnitTest(ITermConceptDao theConceptDao) {
 		myConceptDao = theConceptDao;
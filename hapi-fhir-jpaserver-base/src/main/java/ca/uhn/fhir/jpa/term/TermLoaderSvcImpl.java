@@ -645,20 +645,18 @@ public class TermLoaderSvcImpl implements ITermLoaderSvc {
 					Iterator<CSVRecord> iter = parsed.iterator();
 					ourLog.debug("Header map: {}", parsed.getHeaderMap());
 
-					int count = 0;
-					int nextLoggedCount = 0;
-					while (iter.hasNext()) {
-						CSVRecord nextRecord = iter.next();
+					// Records are parsed on a background thread while the handler processes them on this one
+					Counter counter = new Counter();
+					CsvRecordPipeline.forEach("hapi-fhir-term-loader-" + nextFilename, iter, nextRecord -> {
 						if (nextRecord.isConsistent() == false) {
-							continue;
+							return;
 						}
 						theHandler.accept(nextRecord);
-						count++;
-						if (count >= nextLoggedCount) {
+						long count = counter.getThenAdd() + 1;
+						if (count % LOG_INCREMENT == 1) {
 							ourLog.info(" * Processed {} records in {}", count, nextFilename);
-							nextLoggedCount += LOG_INCREMENT;
 						}
-					}
+					});
 
 				} catch (IOException e) {
 					throw new InternalErrorException(e);
@@ -0,0 +1,185 @@
+package ca.uhn.fhir.jpa.term;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.util.FhirVersionIndependentConcept;
+import org.apache.commons.lang3.Validate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable, compact in-memory copy of the members of a single pre-expanded ValueSet. For each
+ * code system the codes are held in a sorted array (alongside parallel arrays of displays and code
+ * system versions) so that a membership check is a binary search and does not touch the database.
+ * <p>
+ * Instances may be shared freely between threads.
+ * </p>
+ */
+public class TermValueSetMembership {
+
+	private static final Comparator<Object[]> CODE_COMPARATOR = Comparator.comparing(t -> (String) t[2]);
+
+	private final Map<String, SystemMembers> mySystems;
+	private final int myConceptCount;
+
+	private TermValueSetMembership(Map<String, SystemMembers> theSystems, int theConceptCount) {
+		mySystems = theSystems;
+		myConceptCount = theConceptCount;
+	}
+
+	/**
+	 * @return The total number of concepts in the ValueSet
+	 */
+	public int size() {
+		return myConceptCount;
+	}
+
+	/**
+	 * Finds every member of the ValueSet with the given code.
+	 *
+	 * @param theSystem        The code system URL, or <code>null</code> to search every code system in the ValueSet
+	 * @param theSystemVersion The code system version, or <code>null</code> to match any version
+	 * @param theCode          The code
+	 */
+	@Nonnull
+	public List<FhirVersionIndependentConcept> findCode(@Nullable String theSystem, @Nullable String theSystemVersion, @Nonnull String theCode) {
+		if (theSystem != null) {
+			SystemMembers members = mySystems.get(theSystem);
+			if (members == null) {
+				return Collections.emptyList();
+			}
+			List<FhirVersionIndependentConcept> retVal = new ArrayList<>(1);
+			members.findCode(theSystemVersion, theCode, retVal);
+			return retVal;
+		}
+
+		List<FhirVersionIndependentConcept> retVal = new ArrayList<>(1);
+		for (SystemMembers next : mySystems.values()) {
+			next.findCode(theSystemVersion, theCode, retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return Every member of the ValueSet, sorted by code system and then by code
+	 */
+	@Nonnull
+	public List<FhirVersionIndependentConcept> toConceptList() {
+		List<FhirVersionIndependentConcept> retVal = new ArrayList<>(myConceptCount);
+		mySystems
+			.values()
+			.stream()
+			.sorted(Comparator.comparing(t -> t.mySystem, Comparator.nullsFirst(Comparator.naturalOrder())))
+			.forEach(t -> {
+				for (int i = 0; i < t.myCodes.length; i++) {
+					retVal.add(t.toConcept(i));
+				}
+			});
+		return retVal;
+	}
+
+	/**
+	 * Builds a membership instance from pre-expansion rows.
+	 *
+	 * @param theRows Rows in the form <code>[system, system version, code, display]</code>
+	 */
+	@Nonnull
+	public static TermValueSetMembership fromRows(@Nonnull Collection<Object[]> theRows) {
+		Map<String, List<Object[]>> rowsBySystem = new HashMap<>();
+		for (Object[] next : theRows) {
+			Validate.isTrue(next.length == 4, "Expected 4 columns but found %d", next.length);
+			rowsBySystem.computeIfAbsent((String) next[0], t -> new ArrayList<>()).add(next);
+		}
+
+		// Versions repeat across the whole ValueSet so we only keep one copy of each
+		Map<String, String> versions = new HashMap<>();
+		Map<String, SystemMembers> systems = new HashMap<>();
+		for (Map.Entry<String, List<Object[]>> nextEntry : rowsBySystem.entrySet()) {
+			List<Object[]> rows = nextEntry.getValue();
+			rows.sort(CODE_COMPARATOR);
+
+			String[] codes = new String[rows.size()];
+			String[] displays = new String[rows.size()];
+			String[] systemVersions = new String[rows.size()];
+			for (int i = 0; i < rows.size(); i++) {
+				Object[] row = rows.get(i);
+				if (row[1] != null) {
+					systemVersions[i] = versions.computeIfAbsent((String) row[1], t -> t);
+				}
+				codes[i] = (String) row[2];
+				displays[i] = (String) row[3];
+			}
+
+			systems.put(nextEntry.getKey(), new SystemMembers(nextEntry.getKey(), codes, displays, systemVersions));
+		}
+
+		return new TermValueSetMembership(systems, theRows.size());
+	}
+
+	private static class SystemMembers {
+
+		private final String mySystem;
+		private final String[] myCodes;
+		private final String[] myDisplays;
+		private final String[] myVersions;
+
+		private SystemMembers(String theSystem, String[] theCodes, String[] theDisplays, String[] theVersions) {
+			mySystem = theSystem;
+			myCodes = theCodes;
+			myDisplays = theDisplays;
+			myVersions = theVersions;
+		}
+
+		private void findCode(@Nullable String theSystemVersion, String theCode, List<FhirVersionIndependentConcept> theMatches) {
+			int index = Arrays.binarySearch(myCodes, theCode);
+			if (index < 0) {
+				return;
+			}
+
+			// The same code may be present more than once if the ValueSet includes several versions of this code system
+			int first = index;
+			while (first > 0 && myCodes[first - 1].equals(theCode)) {
+				first--;
+			}
+			for (int i = first; i < myCodes.length && myCodes[i].equals(theCode); i++) {
+				if (theSystemVersion == null || Objects.equals(theSystemVersion, myVersions[i])) {
+					theMatches.add(toConcept(i));
+				}
+			}
+		}
+
+		private FhirVersionIndependentConcept toConcept(int theIndex) {
+			return new FhirVersionIndependentConcept(mySystem, myCodes[theIndex], myDisplays[theIndex], myVersions[theIndex]);
+		}
+
+	}
+
+}
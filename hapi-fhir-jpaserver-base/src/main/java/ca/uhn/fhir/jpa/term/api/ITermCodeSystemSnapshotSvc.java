@@ -0,0 +1,55 @@
+package ca.uhn.fhir.jpa.term.api;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.term.TermCodeSystemSnapshot;
+
+import javax.annotation.Nullable;
+
+/**
+ * Provides read-only, memory-mapped snapshots of the code system versions stored in the
+ * terminology tables. See {@link ca.uhn.fhir.jpa.api.config.DaoConfig#setTermCodeSystemSnapshotsEnabled(boolean)}.
+ */
+public interface ITermCodeSystemSnapshotSvc {
+
+	/**
+	 * Returns a snapshot of the code system version with the given PID. If no snapshot is ready yet,
+	 * one is built in the background and this method returns <code>null</code> in the meantime.
+	 *
+	 * @return Returns <code>null</code> if snapshots are disabled, or if a snapshot can not currently
+	 * be provided (e.g. because it is still being built, or because concepts are still waiting to be
+	 * stored), in which case the caller should fall back to querying the database
+	 */
+	@Nullable
+	TermCodeSystemSnapshot getSnapshot(Long theCodeSystemVersionPid);
+
+	/**
+	 * Must be called when the concepts or hierarchy of a code system version change. If a transaction
+	 * is active, the snapshot is discarded once it completes.
+	 */
+	void invalidateSnapshot(Long theCodeSystemVersionPid);
+
+	/**
+	 * Discards all snapshots held in memory, forcing them to be checked against the database on next use
+	 */
+	void invalidateSnapshots();
+
+}
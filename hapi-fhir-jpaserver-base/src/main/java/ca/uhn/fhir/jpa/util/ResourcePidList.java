@@ -0,0 +1,180 @@
+package ca.uhn.fhir.jpa.util;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A growable list of resource PIDs backed by a primitive <code>long[]</code>. This
+ * is used in place of <code>List&lt;ResourcePersistentId&gt;</code> for lists that
+ * can hold the full result set of a search, since those would otherwise need three
+ * objects (list node, wrapper and boxed long) per PID.
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public class ResourcePidList {
+
+	private static final long[] EMPTY = new long[0];
+	private long[] myPids;
+	private int mySize;
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePidList() {
+		myPids = EMPTY;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theInitialCapacity The number of PIDs to allocate space for
+	 */
+	public ResourcePidList(int theInitialCapacity) {
+		myPids = new long[theInitialCapacity];
+	}
+
+	public void add(long thePid) {
+		if (mySize == myPids.length) {
+			myPids = Arrays.copyOf(myPids, Math.max(16, mySize + (mySize >> 1)));
+		}
+		myPids[mySize++] = thePid;
+	}
+
+	public void add(ResourcePersistentId thePid) {
+		add(thePid.getIdAsLong());
+	}
+
+	public void addAll(Collection<ResourcePersistentId> thePids) {
+		ensureCapacity(mySize + thePids.size());
+		for (ResourcePersistentId next : thePids) {
+			myPids[mySize++] = next.getIdAsLong();
+		}
+	}
+
+	public void addAll(ResourcePidList thePids) {
+		ensureCapacity(mySize + thePids.mySize);
+		System.arraycopy(thePids.myPids, 0, myPids, mySize, thePids.mySize);
+		mySize += thePids.mySize;
+	}
+
+	private void ensureCapacity(int theCapacity) {
+		if (theCapacity > myPids.length) {
+			myPids = Arrays.copyOf(myPids, Math.max(theCapacity, mySize + (mySize >> 1)));
+		}
+	}
+
+	public long get(int theIndex) {
+		if (theIndex >= mySize) {
+			throw new IndexOutOfBoundsException("Index " + theIndex + " is out of bounds for size " + mySize);
+		}
+		return myPids[theIndex];
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	public boolean isEmpty() {
+		return mySize == 0;
+	}
+
+	public void clear() {
+		mySize = 0;
+	}
+
+	/**
+	 * Returns a copy of a range of this list
+	 *
+	 * @param theFromIndex The starting index (inclusive)
+	 * @param theToIndex   The ending index (exclusive)
+	 */
+	public List<ResourcePersistentId> toPersistentIdList(int theFromIndex, int theToIndex) {
+		ArrayList<ResourcePersistentId> retVal = new ArrayList<>(theToIndex - theFromIndex);
+		for (int i = theFromIndex; i < theToIndex; i++) {
+			retVal.add(new ResourcePersistentId(get(i)));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns a copy of a range of this list as boxed values, e.g. for use as a query parameter
+	 *
+	 * @param theFromIndex The starting index (inclusive)
+	 * @param theToIndex   The ending index (exclusive)
+	 */
+	public List<Long> toLongList(int theFromIndex, int theToIndex) {
+		ArrayList<Long> retVal = new ArrayList<>(theToIndex - theFromIndex);
+		for (int i = theFromIndex; i < theToIndex; i++) {
+			retVal.add(get(i));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns a read-only view of this list. Wrapper objects are only created for
+	 * the elements that are actually accessed, so this is cheap to create even for
+	 * a large list.
+	 */
+	public List<ResourcePersistentId> asPersistentIdList() {
+		return new PersistentIdView();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < mySize; i++) {
+			if (i > 0) {
+				b.append(", ");
+			}
+			b.append(myPids[i]);
+		}
+		return b.append("]").toString();
+	}
+
+	public static ResourcePidList fromPersistentIds(Collection<ResourcePersistentId> thePids) {
+		ResourcePidList retVal = new ResourcePidList(thePids.size());
+		retVal.addAll(thePids);
+		return retVal;
+	}
+
+	private class PersistentIdView extends AbstractList<ResourcePersistentId> implements RandomAccess {
+
+		@Override
+		public ResourcePersistentId get(int theIndex) {
+			return new ResourcePersistentId(ResourcePidList.this.get(theIndex));
+		}
+
+		@Override
+		public int size() {
+			return mySize;
+		}
+	}
+
+}
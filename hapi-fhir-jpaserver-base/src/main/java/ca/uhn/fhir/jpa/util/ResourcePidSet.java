@@ -0,0 +1,320 @@
+package ca.uhn.fhir.jpa.util;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.function.LongConsumer;
+
+/**
+ * A set of resource PIDs stored as primitive <code>long</code> values. This is used
+ * in place of <code>Set&lt;ResourcePersistentId&gt;</code> for sets that can hold the
+ * full result set of a search.
+ * <p>
+ * Small or sparse sets use an open-addressing hash table. Since PIDs are allocated
+ * from a sequence, a large set usually covers a fairly dense range of values, so once
+ * a set has grown past {@link #BITMAP_MIN_SIZE} entries and a bitmap covering the range
+ * between its lowest and highest value would be no larger than the hash table, it switches
+ * to using a bitmap (and back again if it later becomes too sparse).
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public class ResourcePidSet {
+
+	static final int BITMAP_MIN_SIZE = 1024;
+	private static final long FREE = Long.MIN_VALUE;
+	private static final int MIN_CAPACITY = 16;
+
+	private int mySize;
+	private long myMin = Long.MAX_VALUE;
+	private long myMax = Long.MIN_VALUE;
+
+	// Hash mode
+	private long[] myTable;
+	private boolean myContainsFreeValue;
+
+	// Bitmap mode
+	private long[] myWords;
+	private long myFirstWord;
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePidSet() {
+		myTable = newTable(MIN_CAPACITY);
+	}
+
+	public boolean add(long thePid) {
+		boolean retVal;
+		if (myWords != null) {
+			retVal = addToBitmap(thePid);
+		} else {
+			retVal = addToTable(thePid);
+		}
+		if (retVal) {
+			mySize++;
+			myMin = Math.min(myMin, thePid);
+			myMax = Math.max(myMax, thePid);
+		}
+		return retVal;
+	}
+
+	public boolean add(ResourcePersistentId thePid) {
+		return add(thePid.getIdAsLong());
+	}
+
+	/**
+	 * @return Returns <code>true</code> if any of the given PIDs were not already in this set
+	 */
+	public boolean addAll(Collection<ResourcePersistentId> thePids) {
+		boolean retVal = false;
+		for (ResourcePersistentId next : thePids) {
+			retVal |= add(next.getIdAsLong());
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return Returns <code>true</code> if any of the given PIDs were not already in this set
+	 */
+	public boolean addAll(ResourcePidList thePids) {
+		boolean retVal = false;
+		for (int i = 0; i < thePids.size(); i++) {
+			retVal |= add(thePids.get(i));
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return Returns <code>true</code> if any of the given PIDs were not already in this set
+	 */
+	public boolean addAll(ResourcePidSet thePids) {
+		int sizeBefore = mySize;
+		thePids.forEach(this::add);
+		return mySize != sizeBefore;
+	}
+
+	public boolean contains(long thePid) {
+		if (thePid < myMin || thePid > myMax) {
+			return false;
+		}
+		if (myWords != null) {
+			long word = Math.floorDiv(thePid, 64L) - myFirstWord;
+			return (myWords[(int) word] & (1L << thePid)) != 0;
+		}
+		if (thePid == FREE) {
+			return myContainsFreeValue;
+		}
+		return myTable[indexOf(myTable, thePid)] == thePid;
+	}
+
+	public boolean contains(ResourcePersistentId thePid) {
+		return contains(thePid.getIdAsLong());
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	public boolean isEmpty() {
+		return mySize == 0;
+	}
+
+	/**
+	 * Invokes the given consumer for every PID in this set. The order is undefined.
+	 */
+	public void forEach(LongConsumer theConsumer) {
+		if (myWords != null) {
+			for (int i = 0; i < myWords.length; i++) {
+				long word = myWords[i];
+				while (word != 0) {
+					int bit = Long.numberOfTrailingZeros(word);
+					theConsumer.accept(((myFirstWord + i) << 6) + bit);
+					word &= word - 1;
+				}
+			}
+		} else {
+			if (myContainsFreeValue) {
+				theConsumer.accept(FREE);
+			}
+			for (long next : myTable) {
+				if (next != FREE) {
+					theConsumer.accept(next);
+				}
+			}
+		}
+	}
+
+	public ResourcePidList toPidList() {
+		ResourcePidList retVal = new ResourcePidList(mySize);
+		forEach(retVal::add);
+		return retVal;
+	}
+
+	public HashSet<ResourcePersistentId> toPersistentIdSet() {
+		HashSet<ResourcePersistentId> retVal = new HashSet<>(mySize * 2);
+		forEach(t -> retVal.add(new ResourcePersistentId(t)));
+		return retVal;
+	}
+
+	@VisibleForTesting
+	boolean isBitmap() {
+		return myWords != null;
+	}
+
+	private boolean addToTable(long thePid) {
+		if (thePid == FREE) {
+			boolean retVal = !myContainsFreeValue;
+			myContainsFreeValue = true;
+			return retVal;
+		}
+
+		int index = indexOf(myTable, thePid);
+		if (myTable[index] == thePid) {
+			return false;
+		}
+		myTable[index] = thePid;
+
+		// Keep the load factor at or below 0.5
+		if ((mySize + 1) * 2 > myTable.length) {
+			int newCapacity = myTable.length * 2;
+			long min = Math.min(myMin, thePid);
+			long max = Math.max(myMax, thePid);
+			if (mySize + 1 >= BITMAP_MIN_SIZE && spanInWords(min, max) <= newCapacity) {
+				toBitmap(min, max);
+			} else {
+				rehash(newCapacity);
+			}
+		}
+		return true;
+	}
+
+	private boolean addToBitmap(long thePid) {
+		long word = Math.floorDiv(thePid, 64L);
+		long lastWord = myFirstWord + myWords.length - 1;
+		if (word < myFirstWord || word > lastWord) {
+			long newFirstWord = Math.min(word, myFirstWord);
+			long newLastWord = Math.max(word, lastWord);
+			long span = newLastWord - newFirstWord + 1;
+			if (span > tableCapacityFor(mySize + 1)) {
+				toTable();
+				return addToTable(thePid);
+			}
+
+			// PIDs are mostly increasing, so leave some room at the end
+			if (word > lastWord) {
+				newLastWord = Math.min(newLastWord + (span >> 1), newFirstWord + tableCapacityFor(mySize + 1) - 1);
+			}
+			long[] newWords = new long[(int) (newLastWord - newFirstWord + 1)];
+			System.arraycopy(myWords, 0, newWords, (int) (myFirstWord - newFirstWord), myWords.length);
+			myWords = newWords;
+			myFirstWord = newFirstWord;
+		}
+
+		int index = (int) (word - myFirstWord);
+		long mask = 1L << thePid;
+		if ((myWords[index] & mask) != 0) {
+			return false;
+		}
+		myWords[index] |= mask;
+		return true;
+	}
+
+	private void toBitmap(long theMin, long theMax) {
+		long[] table = myTable;
+		boolean containsFreeValue = myContainsFreeValue;
+		myFirstWord = Math.floorDiv(theMin, 64L);
+		myWords = new long[(int) spanInWords(theMin, theMax)];
+		myTable = null;
+		myContainsFreeValue = false;
+
+		if (containsFreeValue) {
+			addToBitmap(FREE);
+		}
+		for (long next : table) {
+			if (next != FREE) {
+				addToBitmap(next);
+			}
+		}
+	}
+
+	private void toTable() {
+		long[] words = myWords;
+		long firstWord = myFirstWord;
+		myWords = null;
+		myTable = newTable(tableCapacityFor(mySize + 1));
+
+		for (int i = 0; i < words.length; i++) {
+			long word = words[i];
+			while (word != 0) {
+				int bit = Long.numberOfTrailingZeros(word);
+				addToTable(((firstWord + i) << 6) + bit);
+				word &= word - 1;
+			}
+		}
+	}
+
+	private void rehash(int theNewCapacity) {
+		long[] oldTable = myTable;
+		myTable = newTable(theNewCapacity);
+		for (long next : oldTable) {
+			if (next != FREE) {
+				myTable[indexOf(myTable, next)] = next;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the slot holding the given value, or of the free slot where it would be added
+	 */
+	private static int indexOf(long[] theTable, long thePid) {
+		int mask = theTable.length - 1;
+		int index = (int) ((thePid * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		while (theTable[index] != FREE && theTable[index] != thePid) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private static long[] newTable(int theCapacity) {
+		long[] retVal = new long[theCapacity];
+		Arrays.fill(retVal, FREE);
+		return retVal;
+	}
+
+	/**
+	 * Returns the capacity of a hash table holding the given number of values
+	 */
+	private static int tableCapacityFor(int theSize) {
+		return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, theSize * 2 - 1)) << 1);
+	}
+
+	private static long spanInWords(long theMin, long theMax) {
+		return Math.floorDiv(theMax, 64L) - Math.floorDiv(theMin, 64L) + 1;
+	}
+
+}
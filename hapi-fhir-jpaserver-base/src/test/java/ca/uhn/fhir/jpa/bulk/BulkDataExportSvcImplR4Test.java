@@ -2,7 +2,9 @@ package ca.uhn.fhir.jpa.bulk;
 
 import ca.uhn.fhir.interceptor.api.IAnonymousInterceptor;
 import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
 import ca.uhn.fhir.jpa.batch.api.IBatchJobSubmitter;
+import ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc;
 import ca.uhn.fhir.jpa.bulk.api.IBulkDataExportSvc;
 import ca.uhn.fhir.jpa.bulk.job.BulkExportJobParametersBuilder;
 import ca.uhn.fhir.jpa.bulk.model.BulkJobStatusEnum;
@@ -15,6 +17,7 @@ import ca.uhn.fhir.jpa.entity.BulkExportCollectionFileEntity;
 import ca.uhn.fhir.jpa.entity.BulkExportJobEntity;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.util.HapiExtensions;
 import ca.uhn.fhir.util.UrlUtil;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
@@ -26,6 +29,7 @@ import org.hl7.fhir.r4.model.Enumerations;
 import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,6 +81,16 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 	@Autowired
 	@Qualifier("bulkExportJob")
 	private Job myBulkJob;
+	@Autowired
+	private IBinaryStorageSvc myBinaryStorageSvc;
+
+	@AfterEach
+	public void after() {
+		DaoConfig defaults = new DaoConfig();
+		myDaoConfig.setBulkExportPipelineEnabled(defaults.isBulkExportPipelineEnabled());
+		myDaoConfig.setBulkExportPipelineThreadCount(defaults.getBulkExportPipelineThreadCount());
+		myDaoConfig.setBulkExportPipelineResourcesPerFile(defaults.getBulkExportPipelineResourcesPerFile());
+	}
 
 	@Test
 	public void testPurgeExpiredJobs() {
@@ -341,6 +355,59 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 		}
 	}
 
+	@Test
+	public void testGenerateBulkExport_Pipelined() throws Exception {
+		myDaoConfig.setBulkExportPipelineEnabled(true);
+		myDaoConfig.setBulkExportPipelineThreadCount(2);
+		myDaoConfig.setBulkExportPipelineResourcesPerFile(4);
+
+		// Create some resources to load
+		createResources();
+
+		// Create a bulk job
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient", "Observation"), null, null);
+		assertNotNull(jobDetails.getJobId());
+
+		// Run a scheduled pass to build the export
+		myBulkDataExportSvc.buildExportFiles();
+
+		awaitAllBulkJobCompletions("bulkExportPipelinedJob");
+
+		// Fetch the job again
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobInfoOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+
+		// 10 resources of each type at up to 4 resources per file
+		assertEquals(6, status.getFiles().size());
+
+		// The file contents are stored in the binary storage service rather than the Binary resource
+		Set<String> patientLines = new HashSet<>();
+		Set<String> observationLines = new HashSet<>();
+		for (IBulkDataExportSvc.FileEntry next : status.getFiles()) {
+			Binary nextBinary = myBinaryDao.read(next.getResourceId());
+			assertEquals(Constants.CT_FHIR_NDJSON, nextBinary.getContentType());
+			String blobId = nextBinary.getDataElement().getExtensionByUrl(HapiExtensions.EXT_EXTERNALIZED_BINARY_ID).getValueAsPrimitive().getValueAsString();
+
+			String nextContents = new String(myBinaryStorageSvc.fetchBlob(next.getResourceId(), blobId), Constants.CHARSET_UTF8);
+			ourLog.info("Next contents for type {}:\n{}", next.getResourceType(), nextContents);
+			List<String> lines = Arrays.asList(nextContents.split("\n"));
+			assertThat(lines.size(), Matchers.lessThanOrEqualTo(4));
+
+			if ("Patient".equals(next.getResourceType())) {
+				patientLines.addAll(lines);
+			} else if ("Observation".equals(next.getResourceType())) {
+				observationLines.addAll(lines);
+			} else {
+				fail(next.getResourceType());
+			}
+		}
+
+		assertEquals(10, patientLines.size());
+		assertEquals(10, observationLines.size());
+		assertThat(patientLines.toString(), containsString("\"value\":\"PAT0\""));
+		assertThat(observationLines.toString(), containsString("\"subject\":{\"reference\":\"Patient/PAT0\"}}"));
+	}
+
 	@Test
 	public void testGenerateBulkExport_WithHas() {
 
@@ -463,7 +530,11 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 	}
 
 	public void awaitAllBulkJobCompletions() {
-		List<JobInstance> bulkExport = myJobExplorer.findJobInstancesByJobName("bulkExportJob", 0, 100);
+		awaitAllBulkJobCompletions("bulkExportJob");
+	}
+
+	public void awaitAllBulkJobCompletions(String theJobName) {
+		List<JobInstance> bulkExport = myJobExplorer.findJobInstancesByJobName(theJobName, 0, 100);
 		if (bulkExport.isEmpty()) {
 			fail("There are no bulk export jobs running!");
 		}
@@ -0,0 +1,222 @@
+package ca.uhn.fhir.jpa.bulk;
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.bulk.api.IBulkDataImportSvc;
+import ca.uhn.fhir.jpa.bulk.model.BulkJobStatusEnum;
+import ca.uhn.fhir.jpa.dao.r4.BaseJpaR4Test;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.oneOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BulkDataImportSvcImplR4Test extends BaseJpaR4Test {
+
+	@Autowired
+	private IBulkDataImportSvc myBulkDataImportSvc;
+	@TempDir
+	Path myTempDir;
+
+	@AfterEach
+	public void after() {
+		myDaoConfig.setBulkImportLocalDirectory(new DaoConfig().getBulkImportLocalDirectory());
+		myDaoConfig.setBulkImportSkipLimit(new DaoConfig().getBulkImportSkipLimit());
+	}
+
+	@Test
+	public void testImportLocalFile() throws IOException {
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < 250; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/P" + i);
+			patient.addName().setFamily("FAM" + i);
+			ndjson.append(myFhirCtx.newJsonParser().encodeResourceToString(patient)).append("\n");
+		}
+		File file = myTempDir.resolve("Patient.ndjson").toFile();
+		Files.write(file.toPath(), ndjson.toString().getBytes(StandardCharsets.UTF_8));
+		myDaoConfig.setBulkImportLocalDirectory(myTempDir.toString());
+
+		IBulkDataImportSvc.JobInfo jobInfo = myBulkDataImportSvc.submitJob(Collections.singletonList(file.toURI().toString()));
+		assertThat(jobInfo.getJobId(), matchesPattern("[0-9a-f-]{36}"));
+		jobInfo = awaitJobCompletion(jobInfo.getJobId());
+
+		assertEquals(BulkJobStatusEnum.COMPLETE, jobInfo.getStatus(), jobInfo.getStatusMessage());
+		assertEquals(250, jobInfo.getResourceCount());
+		assertEquals(0, jobInfo.getErrorCount());
+		assertEquals(250, myPatientDao.search(SearchParameterMap.newSynchronous()).size().intValue());
+		assertEquals(1, myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("FAM123").setExact(true))).size().intValue());
+
+		// Importing the same file again doesn't change anything
+		jobInfo = myBulkDataImportSvc.submitJob(Collections.singletonList(file.toURI().toString()));
+		jobInfo = awaitJobCompletion(jobInfo.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, jobInfo.getStatus(), jobInfo.getStatusMessage());
+		assertEquals(250, myPatientDao.search(SearchParameterMap.newSynchronous()).size().intValue());
+		assertEquals("1", myPatientDao.read(new IdType("Patient/P123")).getIdElement().getVersionIdPart());
+
+		// Importing changed resources updates the existing resources
+		Files.write(file.toPath(), ndjson.toString().replace("FAM", "NEWFAM").getBytes(StandardCharsets.UTF_8));
+		jobInfo = myBulkDataImportSvc.submitJob(Collections.singletonList(file.toURI().toString()));
+		jobInfo = awaitJobCompletion(jobInfo.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, jobInfo.getStatus(), jobInfo.getStatusMessage());
+		assertEquals(250, myPatientDao.search(SearchParameterMap.newSynchronous()).size().intValue());
+		assertEquals("2", myPatientDao.read(new IdType("Patient/P123")).getIdElement().getVersionIdPart());
+		assertEquals(1, myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("NEWFAM123").setExact(true))).size().intValue());
+	}
+
+	@Test
+	public void testImportReferencesAcrossChunksAndFiles() throws IOException {
+		// Observations refer to patients both earlier in the same file (across chunk boundaries) and in an earlier file
+		StringBuilder patients = new StringBuilder();
+		StringBuilder observations = new StringBuilder();
+		for (int i = 0; i < 150; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/P" + i);
+			patient.addName().setFamily("FAM" + i);
+			patients.append(myFhirCtx.newJsonParser().encodeResourceToString(patient)).append("\n");
+
+			Observation observation = new Observation();
+			observation.setId("Observation/O" + i);
+			observation.setStatus(Observation.ObservationStatus.FINAL);
+			observation.setSubject(new Reference("Patient/P" + i));
+			observation.addPerformer(new Reference("Patient/P" + (149 - i)));
+			observations.append(myFhirCtx.newJsonParser().encodeResourceToString(observation)).append("\n");
+		}
+		File patientFile = myTempDir.resolve("Patient.ndjson").toFile();
+		Files.write(patientFile.toPath(), patients.toString().getBytes(StandardCharsets.UTF_8));
+		File mixedFile = myTempDir.resolve("Mixed.ndjson").toFile();
+		Files.write(mixedFile.toPath(), (patients.toString() + observations).getBytes(StandardCharsets.UTF_8));
+		myDaoConfig.setBulkImportLocalDirectory(myTempDir.toString());
+
+		IBulkDataImportSvc.JobInfo jobInfo = myBulkDataImportSvc.submitJob(Arrays.asList(patientFile.toURI().toString(), mixedFile.toURI().toString()));
+		jobInfo = awaitJobCompletion(jobInfo.getJobId());
+
+		assertEquals(BulkJobStatusEnum.COMPLETE, jobInfo.getStatus(), jobInfo.getStatusMessage());
+		assertEquals(0, jobInfo.getErrorCount(), jobInfo.getErrors().toString());
+		assertEquals(450, jobInfo.getResourceCount());
+		assertEquals(1, myObservationDao.search(SearchParameterMap.newSynchronous(Observation.SP_SUBJECT, new ReferenceParam("Patient/P10"))).size().intValue());
+		assertEquals(1, myObservationDao.search(SearchParameterMap.newSynchronous(Observation.SP_PERFORMER, new ReferenceParam("Patient/P10"))).size().intValue());
+	}
+
+	@Test
+	public void testImportBinary() {
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			Observation observation = new Observation();
+			observation.setStatus(Observation.ObservationStatus.FINAL);
+			observation.getCode().setText("OBS" + i);
+			ndjson.append(myFhirCtx.newJsonParser().encodeResourceToString(observation)).append("\n\n");
+		}
+		Binary binary = new Binary();
+		binary.setContentType(Constants.CT_FHIR_NDJSON);
+		binary.setContent(ndjson.toString().getBytes(StandardCharsets.UTF_8));
+		String binaryId = myBinaryDao.create(binary).getId().toUnqualifiedVersionless().getValue();
+
+		IBulkDataImportSvc.JobInfo jobInfo = myBulkDataImportSvc.submitJob(Collections.singletonList(binaryId));
+		jobInfo = awaitJobCompletion(jobInfo.getJobId());
+
+		assertEquals(BulkJobStatusEnum.COMPLETE, jobInfo.getStatus(), jobInfo.getStatusMessage());
+		assertEquals(10, jobInfo.getResourceCount());
+		assertEquals(10, myObservationDao.search(SearchParameterMap.newSynchronous()).size().intValue());
+	}
+
+	@Test
+	public void testImportSkipsInvalidLines() throws IOException {
+		Patient validPatient = new Patient();
+		validPatient.setId("Patient/VALID");
+		Observation danglingReference = new Observation();
+		danglingReference.setId("Observation/DANGLING");
+		danglingReference.setStatus(Observation.ObservationStatus.FINAL);
+		danglingReference.setSubject(new Reference("Patient/MISSING"));
+
+		String ndjson = "{\"resourceType\":\"Patient\",\"foo\":\n" +
+			myFhirCtx.newJsonParser().encodeResourceToString(validPatient) + "\n" +
+			"\n" +
+			myFhirCtx.newJsonParser().encodeResourceToString(danglingReference) + "\n";
+		File file = myTempDir.resolve("Invalid.ndjson").toFile();
+		Files.write(file.toPath(), ndjson.getBytes(StandardCharsets.UTF_8));
+		myDaoConfig.setBulkImportLocalDirectory(myTempDir.toString());
+
+		IBulkDataImportSvc.JobInfo jobInfo = myBulkDataImportSvc.submitJob(Collections.singletonList(file.toURI().toString()));
+		jobInfo = awaitJobCompletion(jobInfo.getJobId());
+
+		assertEquals(BulkJobStatusEnum.COMPLETE, jobInfo.getStatus(), jobInfo.getStatusMessage());
+		assertEquals(1, jobInfo.getResourceCount());
+		assertEquals(2, jobInfo.getErrorCount());
+		assertEquals(2, jobInfo.getErrors().size(), jobInfo.getErrors().toString());
+		assertThat(jobInfo.getErrors().get(0), containsString("Invalid.ndjson line 1: "));
+		assertThat(jobInfo.getErrors().get(1), containsString("Invalid.ndjson line 4: "));
+		assertThat(jobInfo.getErrors().get(1), containsString("Patient/MISSING"));
+		assertEquals("VALID", myPatientDao.read(new IdType("Patient/VALID")).getIdElement().getIdPart());
+	}
+
+	@Test
+	public void testImportFailsWhenSkipLimitExceeded() throws IOException {
+		File file = myTempDir.resolve("Invalid.ndjson").toFile();
+		Files.write(file.toPath(), "{\"resourceType\":\"Patient\",\"foo\":".getBytes(StandardCharsets.UTF_8));
+		myDaoConfig.setBulkImportLocalDirectory(myTempDir.toString());
+		myDaoConfig.setBulkImportSkipLimit(0);
+
+		IBulkDataImportSvc.JobInfo jobInfo = myBulkDataImportSvc.submitJob(Collections.singletonList(file.toURI().toString()));
+		jobInfo = awaitJobCompletion(jobInfo.getJobId());
+
+		assertEquals(BulkJobStatusEnum.ERROR, jobInfo.getStatus());
+	}
+
+	@Test
+	public void testSubmitRejectsFilesOutsideImportDirectory() throws IOException {
+		File file = myTempDir.resolve("Patient.ndjson").toFile();
+		Files.write(file.toPath(), new byte[0]);
+		String url = file.toURI().toString();
+
+		// Local files are disabled by default
+		InvalidRequestException e = assertThrows(InvalidRequestException.class, () -> myBulkDataImportSvc.submitJob(Collections.singletonList(url)));
+		assertThat(e.getMessage(), containsString("Unsupported bulk import input URL"));
+
+		myDaoConfig.setBulkImportLocalDirectory(myTempDir.resolve("subdir").toString());
+		assertThrows(InvalidRequestException.class, () -> myBulkDataImportSvc.submitJob(Collections.singletonList(url)));
+
+		assertThrows(InvalidRequestException.class, () -> myBulkDataImportSvc.submitJob(Collections.singletonList("http://example.com/Patient.ndjson")));
+		assertThrows(InvalidRequestException.class, () -> myBulkDataImportSvc.submitJob(Collections.emptyList()));
+	}
+
+	@Test
+	public void testGetUnknownJob() {
+		assertThrows(ResourceNotFoundException.class, () -> myBulkDataImportSvc.getJobInfoOrThrowResourceNotFound("999999"));
+		assertThrows(ResourceNotFoundException.class, () -> myBulkDataImportSvc.getJobInfoOrThrowResourceNotFound("foo"));
+		assertThrows(ResourceNotFoundException.class, () -> myBulkDataImportSvc.getJobInfoOrThrowResourceNotFound(""));
+	}
+
+	private IBulkDataImportSvc.JobInfo awaitJobCompletion(String theJobId) {
+		await().atMost(60, TimeUnit.SECONDS).until(() -> myBulkDataImportSvc.getJobInfoOrThrowResourceNotFound(theJobId).getStatus(), not(oneOf(BulkJobStatusEnum.SUBMITTED, BulkJobStatusEnum.BUILDING)));
+		return myBulkDataImportSvc.getJobInfoOrThrowResourceNotFound(theJobId);
+	}
+
+}
@@ -5,17 +5,22 @@ import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.interceptor.executor.InterceptorService;
 import ca.uhn.fhir.jpa.api.config.DaoConfig;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import ca.uhn.fhir.jpa.dao.index.DaoSearchParamSynchronizer;
 import ca.uhn.fhir.jpa.dao.r4.TransactionProcessorVersionAdapterR4;
 import ca.uhn.fhir.jpa.dao.tx.HapiTransactionService;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorService;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import com.google.common.collect.Multimap;
 import org.hibernate.Session;
 import org.hibernate.internal.SessionImpl;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.MedicationKnowledge;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Bean;
@@ -28,10 +33,14 @@ import org.springframework.transaction.support.TransactionCallback;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
@@ -40,6 +49,8 @@ public class TransactionProcessorTest {
 
 	@Autowired
 	private TransactionProcessor myTransactionProcessor;
+	@Autowired
+	private DaoConfig myDaoConfig;
 	@MockBean
 	private EntityManagerFactory myEntityManagerFactory;
 	@MockBean(answer = Answers.RETURNS_DEEP_STUBS)
@@ -50,6 +61,10 @@ public class TransactionProcessorTest {
 	private MatchResourceUrlService myMatchResourceUrlService;
 	@MockBean
 	private HapiTransactionService myHapiTransactionService;
+	@MockBean
+	private DaoSearchParamSynchronizer myDaoSearchParamSynchronizer;
+	@MockBean
+	private SearchParamExtractorService mySearchParamExtractorService;
 	@MockBean(answer = Answers.RETURNS_DEEP_STUBS)
 	private SessionImpl mySession;
 
@@ -88,6 +103,41 @@ public class TransactionProcessorTest {
 		}
 	}
 
+	@Test
+	public void testConditionalMatchUrlsPrefetchedTogether() {
+		myDaoConfig.setTransactionConditionalMatchPrefetchEnabled(true);
+		try {
+			Bundle input = new Bundle();
+			input.setType(Bundle.BundleType.TRANSACTION);
+			for (int i = 0; i < 3; i++) {
+				MedicationKnowledge medKnowledge = new MedicationKnowledge();
+				input
+					.addEntry()
+					.setResource(medKnowledge)
+					.getRequest()
+					.setMethod(Bundle.HTTPVerb.POST)
+					.setUrl("/MedicationKnowledge")
+					.setIfNoneExist("MedicationKnowledge?identifier=http://foo|" + i);
+			}
+
+			try {
+				myTransactionProcessor.transaction(null, input);
+				fail();
+			} catch (InvalidRequestException e) {
+				// The resource type isn't supported, but the match URLs are prefetched before that is checked
+			}
+
+			ArgumentCaptor<Multimap<Class<? extends IBaseResource>, String>> captor = ArgumentCaptor.forClass(Multimap.class);
+			verify(myMatchResourceUrlService, times(1)).prefetchMatchUrls(captor.capture(), any());
+			assertThat(captor.getValue().get(MedicationKnowledge.class), contains(
+				"MedicationKnowledge?identifier=http://foo|0",
+				"MedicationKnowledge?identifier=http://foo|1",
+				"MedicationKnowledge?identifier=http://foo|2"));
+		} finally {
+			myDaoConfig.setTransactionConditionalMatchPrefetchEnabled(new DaoConfig().isTransactionConditionalMatchPrefetchEnabled());
+		}
+	}
+
 
 	@Configuration
 	public static class MyConfig {
@@ -0,0 +1,162 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.dao.ZstdUtil;
+import ca.uhn.fhir.jpa.dao.encoding.IResourceEncodingSvc;
+import ca.uhn.fhir.jpa.dao.encoding.IResourceReencodingSvc;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import com.google.common.hash.Hashing;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FhirResourceDaoR4EncodingTest extends BaseJpaR4Test {
+
+	@Autowired
+	private IResourceEncodingSvc myResourceEncodingSvc;
+	@Autowired
+	private IResourceReencodingSvc myResourceReencodingSvc;
+
+	@AfterEach
+	public void after() {
+		DaoConfig defaults = new DaoConfig();
+		myDaoConfig.setResourceEncoding(defaults.getResourceEncoding());
+		myDaoConfig.setResourceEncodingDictionaryEnabled(defaults.isResourceEncodingDictionaryEnabled());
+		myDaoConfig.setResourceReencodingEnabled(defaults.isResourceReencodingEnabled());
+	}
+
+	@ParameterizedTest
+	@EnumSource(value = ResourceEncodingEnum.class, names = {"JSON", "JSONC", "JSONZ", "JSONL", "SMILE"})
+	public void testCreateAndReadInEncoding(ResourceEncodingEnum theEncoding) {
+		myDaoConfig.setResourceEncoding(theEncoding);
+
+		IIdType id = myPatientDao.create(newPatient(0), mySrd).getId().toUnqualifiedVersionless();
+
+		runInTransaction(() -> {
+			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(id.getIdPartAsLong(), 1);
+			assertEquals(theEncoding, history.getEncoding());
+		});
+		Patient patient = myPatientDao.read(id, mySrd);
+		assertEquals("Family0", patient.getNameFirstRep().getFamily());
+	}
+
+	@ParameterizedTest
+	@EnumSource(value = ResourceEncodingEnum.class, names = {"JSON", "JSONC", "JSONZ", "JSONL"})
+	public void testHashCoversUncompressedText(ResourceEncodingEnum theEncoding) {
+		myDaoConfig.setResourceEncoding(theEncoding);
+
+		IIdType id = myPatientDao.create(newPatient(0), mySrd).getId().toUnqualifiedVersionless();
+
+		runInTransaction(() -> {
+			ResourceTable entity = myResourceTableDao.findById(id.getIdPartAsLong()).orElseThrow(IllegalStateException::new);
+			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(id.getIdPartAsLong(), 1);
+			String text = myResourceEncodingSvc.decode(history.getResource(), history.getEncoding());
+			assertEquals(Hashing.sha256().hashString(text, StandardCharsets.UTF_8).toString(), entity.getHashSha256());
+		});
+	}
+
+	@Test
+	public void testUpdateWithNoChangesAfterEncodingChange() {
+		IIdType id = myPatientDao.create(newPatient(0), mySrd).getId().toUnqualifiedVersionless();
+
+		// The stored body is compressed differently, but the content is the same
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSONZ);
+		Patient patient = newPatient(0);
+		patient.setId(id);
+		assertEquals("1", myPatientDao.update(patient, mySrd).getId().getVersionIdPart());
+
+		patient = newPatient(1);
+		patient.setId(id);
+		assertEquals("2", myPatientDao.update(patient, mySrd).getId().getVersionIdPart());
+	}
+
+	@Test
+	public void testUpdateWithNoChangesAndLegacyHash() {
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSONC);
+		IIdType id = myPatientDao.create(newPatient(0), mySrd).getId().toUnqualifiedVersionless();
+
+		// Earlier versions hashed the GZip compressed body
+		runInTransaction(() -> {
+			ResourceTable entity = myResourceTableDao.findById(id.getIdPartAsLong()).orElseThrow(IllegalStateException::new);
+			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(id.getIdPartAsLong(), 1);
+			entity.setHashSha256(Hashing.sha256().hashBytes(history.getResource()).toString());
+			myResourceTableDao.save(entity);
+		});
+
+		Patient patient = newPatient(0);
+		patient.setId(id);
+		assertEquals("1", myPatientDao.update(patient, mySrd).getId().getVersionIdPart());
+	}
+
+	@Test
+	public void testTrainDictionaryAndReencode() {
+		List<IIdType> ids = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			ids.add(myPatientDao.create(newPatient(i), mySrd).getId().toUnqualifiedVersionless());
+		}
+
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSONZ);
+		myDaoConfig.setResourceEncodingDictionaryEnabled(true);
+		myDaoConfig.setResourceReencodingEnabled(true);
+
+		assertThat(myResourceReencodingSvc.runReencodingPass(), greaterThanOrEqualTo(ids.size()));
+		assertTrue(myResourceEncodingSvc.hasDictionary("Patient"));
+		assertEquals(0, myResourceReencodingSvc.runReencodingPass());
+
+		// Re-encoding doesn't change the content, so an update with the same content isn't a new version
+		Patient unchanged = newPatient(1);
+		unchanged.setId(ids.get(1));
+		assertEquals("1", myPatientDao.update(unchanged, mySrd).getId().getVersionIdPart());
+
+		runInTransaction(() -> {
+			for (IIdType next : ids) {
+				ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(next.getIdPartAsLong(), 1);
+				assertEquals(ResourceEncodingEnum.JSONZ, history.getEncoding());
+				assertNotEquals(0L, ZstdUtil.getDictionaryId(history.getResource()));
+			}
+		});
+
+		for (int i = 0; i < ids.size(); i++) {
+			Patient patient = myPatientDao.read(ids.get(i), mySrd);
+			assertEquals("Family" + i, patient.getNameFirstRep().getFamily());
+		}
+
+		// New versions are compressed using the dictionary too
+		Patient patient = newPatient(999);
+		patient.setId(ids.get(0));
+		myPatientDao.update(patient, mySrd);
+		runInTransaction(() -> {
+			ResourceHistoryTable history = myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(ids.get(0).getIdPartAsLong(), 2);
+			assertEquals(ResourceEncodingEnum.JSONZ, history.getEncoding());
+			assertNotEquals(0L, ZstdUtil.getDictionaryId(history.getResource()));
+		});
+		assertEquals("Family999", myPatientDao.read(ids.get(0), mySrd).getNameFirstRep().getFamily());
+	}
+
+	private Patient newPatient(int theIndex) {
+		Patient retVal = new Patient();
+		retVal.setActive(true);
+		retVal.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + theIndex);
+		retVal.addName().setFamily("Family" + theIndex).addGiven("Given" + theIndex);
+		retVal.addTelecom().setValue("555-" + theIndex);
+		retVal.getText().setDivAsString("<div>Patient " + theIndex + "</div>");
+		return retVal;
+	}
+
+}
@@ -0,0 +1,95 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FhirResourceDaoR4IndexWriteBatchingTest extends BaseJpaR4Test {
+
+	@BeforeEach
+	public void before() {
+		myDaoConfig.setIndexWriteBatchingEnabled(true);
+	}
+
+	@AfterEach
+	public void after() {
+		myDaoConfig.setIndexWriteBatchingEnabled(new DaoConfig().isIndexWriteBatchingEnabled());
+	}
+
+	@Test
+	public void testTransactionCreateAndUpdate() {
+		mySystemDao.transaction(mySrd, createBundle("Family"));
+
+		assertThat(searchPatients("Family3"), contains("Patient/P3"));
+		assertThat(searchObservations("Patient/P3"), contains("Observation/O3"));
+		assertEquals(10, myObservationDao.search(SearchParameterMap.newSynchronous(Observation.SP_CODE, new TokenParam("http://foo", "code"))).size().intValue());
+		long stringRowCount = runInTransaction(() -> myResourceIndexedSearchParamStringDao.count());
+
+		// Update every resource so that index rows are both reused and removed
+		mySystemDao.transaction(mySrd, createBundle("Other"));
+
+		assertThat(searchPatients("Family3"), empty());
+		assertThat(searchPatients("Other3"), contains("Patient/P3"));
+		assertThat(searchObservations("Patient/P3"), contains("Observation/O3"));
+		assertEquals(stringRowCount, runInTransaction(() -> myResourceIndexedSearchParamStringDao.count()).longValue());
+	}
+
+	@Test
+	public void testReindexRestoresIndexes() {
+		mySystemDao.transaction(mySrd, createBundle("Family"));
+		long stringRowCount = runInTransaction(() -> myResourceIndexedSearchParamStringDao.count());
+
+		runInTransaction(() -> myResourceIndexedSearchParamStringDao.deleteAll());
+		assertThat(searchPatients("Family3"), empty());
+
+		myResourceReindexingSvc.markAllResourcesForReindexing();
+		myResourceReindexingSvc.forceReindexingPass();
+
+		assertThat(searchPatients("Family3"), contains("Patient/P3"));
+		assertEquals(stringRowCount, runInTransaction(() -> myResourceIndexedSearchParamStringDao.count()).longValue());
+	}
+
+	private List<String> searchPatients(String theFamily) {
+		return toUnqualifiedVersionlessIdValues(myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam(theFamily).setExact(true))));
+	}
+
+	private List<String> searchObservations(String theSubject) {
+		return toUnqualifiedVersionlessIdValues(myObservationDao.search(SearchParameterMap.newSynchronous(Observation.SP_SUBJECT, new ReferenceParam(theSubject))));
+	}
+
+	private Bundle createBundle(String theFamilyPrefix) {
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < 10; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/P" + i);
+			patient.addName().setFamily(theFamilyPrefix + i);
+			bundle.addEntry().setResource(patient).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/P" + i);
+
+			Observation observation = new Observation();
+			observation.setId("Observation/O" + i);
+			observation.setStatus(Observation.ObservationStatus.FINAL);
+			observation.getCode().addCoding().setSystem("http://foo").setCode("code");
+			observation.setSubject(new Reference("Patient/P" + i));
+			bundle.addEntry().setResource(observation).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Observation/O" + i);
+		}
+		return bundle;
+	}
+
+}
@@ -0,0 +1,191 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.SearchParameter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FhirSystemDaoR4TransactionPrefetchTest extends BaseJpaR4Test {
+
+	@BeforeEach
+	public void before() {
+		myDaoConfig.setTransactionConditionalMatchPrefetchEnabled(true);
+		myDaoConfig.setTransactionSearchParamExtractionThreadCount(4);
+	}
+
+	@AfterEach
+	public void after() {
+		DaoConfig defaults = new DaoConfig();
+		myDaoConfig.setTransactionConditionalMatchPrefetchEnabled(defaults.isTransactionConditionalMatchPrefetchEnabled());
+		myDaoConfig.setTransactionSearchParamExtractionThreadCount(defaults.getTransactionSearchParamExtractionThreadCount());
+	}
+
+	@Test
+	public void testConditionalCreateAndUpdateMatchExisting() {
+		Patient existing0 = new Patient();
+		existing0.addIdentifier().setSystem("http://ids").setValue("0");
+		IIdType id0 = myPatientDao.create(existing0, mySrd).getId().toUnqualifiedVersionless();
+		Patient existing1 = new Patient();
+		existing1.addIdentifier().setSystem("http://ids").setValue("1");
+		IIdType id1 = myPatientDao.create(existing1, mySrd).getId().toUnqualifiedVersionless();
+
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.TRANSACTION);
+
+		Patient create0 = new Patient();
+		create0.addIdentifier().setSystem("http://ids").setValue("0");
+		create0.addName().setFamily("CREATE0");
+		bundle.addEntry().setResource(create0).setFullUrl("urn:uuid:0").getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient").setIfNoneExist("Patient?identifier=http://ids|0");
+
+		Patient update1 = new Patient();
+		update1.addIdentifier().setSystem("http://ids").setValue("1");
+		update1.addName().setFamily("UPDATE1");
+		bundle.addEntry().setResource(update1).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient?identifier=http://ids|1");
+
+		Patient create2 = new Patient();
+		create2.addIdentifier().setSystem("http://ids").setValue("2");
+		create2.addName().setFamily("CREATE2");
+		bundle.addEntry().setResource(create2).setFullUrl("urn:uuid:2").getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient").setIfNoneExist("Patient?identifier=http://ids|2");
+
+		Observation obs = new Observation();
+		obs.setSubject(new Reference("urn:uuid:0"));
+		bundle.addEntry().setResource(obs).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Observation");
+
+		Bundle response = mySystemDao.transaction(mySrd, bundle);
+
+		assertEquals("200 OK", response.getEntry().get(0).getResponse().getStatus());
+		assertEquals(id0.getIdPart(), new IdType(response.getEntry().get(0).getResponse().getLocation()).getIdPart());
+		assertEquals("200 OK", response.getEntry().get(1).getResponse().getStatus());
+		assertEquals(id1.getIdPart(), new IdType(response.getEntry().get(1).getResponse().getLocation()).getIdPart());
+		assertEquals("201 Created", response.getEntry().get(2).getResponse().getStatus());
+
+		// The conditional create matched, so the placeholder points at the existing resource
+		List<String> observationIds = toUnqualifiedVersionlessIdValues(myObservationDao.search(SearchParameterMap.newSynchronous(Observation.SP_SUBJECT, new ReferenceParam(id0.getValue()))));
+		assertThat(observationIds, hasSize(1));
+
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("UPDATE1")))), contains(id1.getValue()));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("CREATE2")))), hasSize(1));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("CREATE0")))), hasSize(0));
+	}
+
+	@Test
+	public void testTransactionWithPlaceholdersIsIndexed() {
+		mySystemDao.transaction(mySrd, createPlaceholderBundle());
+
+		List<String> patientIds = toUnqualifiedVersionlessIdValues(myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("FAMILY7").setExact(true))));
+		assertThat(patientIds, hasSize(1));
+		assertThat(toUnqualifiedVersionlessIdValues(myObservationDao.search(SearchParameterMap.newSynchronous(Observation.SP_SUBJECT, new ReferenceParam(patientIds.get(0))))), hasSize(1));
+
+		// Running the same transaction again matches every patient instead of creating new ones
+		mySystemDao.transaction(mySrd, createPlaceholderBundle());
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("FAMILY7").setExact(true)))), contains(patientIds.get(0)));
+		assertThat(toUnqualifiedVersionlessIdValues(myObservationDao.search(SearchParameterMap.newSynchronous(Observation.SP_SUBJECT, new ReferenceParam(patientIds.get(0))))), hasSize(2));
+	}
+
+	@Test
+	public void testConditionalMatchesPrefetchedInOneQuery() {
+		myCaptureQueriesListener.clear();
+		mySystemDao.transaction(mySrd, createPlaceholderBundle());
+
+		List<String> matchQueries = myCaptureQueriesListener
+			.getSelectQueriesForCurrentThread()
+			.stream()
+			.map(t -> t.getSql(true, false).toUpperCase())
+			.filter(t -> t.contains("HASH_SYS_AND_VALUE"))
+			.collect(Collectors.toList());
+
+		// All 20 identifier matches are resolved by one query rather than by one search each
+		List<String> prefetchQueries = matchQueries.stream().filter(t -> t.contains("HASH_SYS_AND_VALUE IN (")).collect(Collectors.toList());
+		assertEquals(1, prefetchQueries.size(), matchQueries.toString());
+
+		// Once everything is written each URL is searched again to make sure it still has only one match
+		List<String> searchQueries = matchQueries.stream().filter(t -> t.contains("HASH_SYS_AND_VALUE = ")).collect(Collectors.toList());
+		assertEquals(20, searchQueries.size(), matchQueries.toString());
+		assertEquals(21, matchQueries.size(), matchQueries.toString());
+	}
+
+	@Test
+	public void testPreExtractedSearchParamsReused() {
+		// A number parameter on a HumanName produces an extraction warning, which tells us
+		// where and how many times the parameters were extracted
+		SearchParameter searchParameter = new SearchParameter();
+		searchParameter.addBase("Patient");
+		searchParameter.setCode("name-as-number");
+		searchParameter.setType(Enumerations.SearchParamType.NUMBER);
+		searchParameter.setExpression("Patient.name");
+		searchParameter.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		mySearchParameterDao.create(searchParameter, mySrd);
+		mySearchParamRegistry.forceRefresh();
+
+		List<String> warningThreadNames = Collections.synchronizedList(new ArrayList<>());
+		Object interceptor = new Object() {
+			@Hook(Pointcut.JPA_PERFTRACE_WARNING)
+			public void warning(StorageProcessingMessage theMessage) {
+				if (theMessage.getMessage().contains("name-as-number")) {
+					warningThreadNames.add(Thread.currentThread().getName());
+				}
+			}
+		};
+		myInterceptorRegistry.registerInterceptor(interceptor);
+		try {
+			Bundle bundle = new Bundle();
+			bundle.setType(Bundle.BundleType.TRANSACTION);
+			for (int i = 0; i < 10; i++) {
+				Patient patient = new Patient();
+				patient.addName().setFamily("FAMILY" + i);
+				bundle.addEntry().setResource(patient).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient");
+			}
+			mySystemDao.transaction(mySrd, bundle);
+		} finally {
+			myInterceptorRegistry.unregisterInterceptor(interceptor);
+		}
+
+		// Extracted once per resource on the worker pool, and not again when the resources were indexed
+		assertThat(warningThreadNames, hasSize(10));
+		assertThat(warningThreadNames, everyItem(startsWith("transaction-sp-extraction-")));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(SearchParameterMap.newSynchronous(Patient.SP_FAMILY, new StringParam("FAMILY7").setExact(true)))), hasSize(1));
+	}
+
+	private Bundle createPlaceholderBundle() {
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < 20; i++) {
+			Patient patient = new Patient();
+			patient.addIdentifier().setSystem("http://ids").setValue("P" + i);
+			patient.addName().setFamily("FAMILY" + i);
+			bundle.addEntry().setResource(patient).setFullUrl("urn:uuid:p" + i).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient").setIfNoneExist("Patient?identifier=http://ids|P" + i);
+
+			Observation observation = new Observation();
+			observation.setSubject(new Reference("urn:uuid:p" + i));
+			bundle.addEntry().setResource(observation).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Observation");
+		}
+		return bundle;
+	}
+
+}
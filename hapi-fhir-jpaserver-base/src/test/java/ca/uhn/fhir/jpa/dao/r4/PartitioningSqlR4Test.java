@@ -21,6 +21,8 @@ import ca.uhn.fhir.jpa.model.util.JpaConstants;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.util.SqlQuery;
 import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.SortOrderEnum;
+import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateAndListParam;
 import ca.uhn.fhir.rest.param.DateOrListParam;
@@ -58,6 +60,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static ca.uhn.fhir.jpa.util.TestUtil.sleepAtLeast;
@@ -65,6 +68,8 @@ import static org.apache.commons.lang3.StringUtils.countMatches;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.matchesPattern;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -2026,6 +2031,116 @@ public class PartitioningSqlR4Test extends BasePartitioningR4Test {
 		}
 	}
 
+	@Test
+	public void testSearch_StringParam_SearchMultiplePartitionsSeparately_Sorted() {
+		myDaoConfig.setSearchPartitionsSeparately(true);
+		try {
+			IIdType patientId1 = createPatient(withPartition(1), withFamily("FAMILY"), withBirthdate("2020-01-03"));
+			IIdType patientId2 = createPatient(withPartition(2), withFamily("FAMILY"), withBirthdate("2020-01-01"));
+			IIdType patientIdNull = createPatient(withPartition(null), withFamily("FAMILY"), withBirthdate("2020-01-02"));
+			IIdType patientId1b = createPatient(withPartition(1), withFamily("FAMILY"), withBirthdate("2020-01-04"));
+			createPatient(withPartition(3), withFamily("FAMILY"), withBirthdate("2020-01-05"));
+			createPatient(withPartition(2), withFamily("BLAH"), withBirthdate("2020-01-06"));
+
+			SearchParameterMap map = new SearchParameterMap();
+			map.add(Patient.SP_FAMILY, new StringParam("FAMILY"));
+			map.setSort(new SortSpec(Patient.SP_BIRTHDATE, SortOrderEnum.DESC));
+			map.setLoadSynchronous(true);
+
+			addReadPartition(1, 2, null);
+
+			myCaptureQueriesListener.clear();
+			IBundleProvider results = myPatientDao.search(map, mySrd);
+			List<IIdType> ids = toUnqualifiedVersionlessIds(results);
+			assertThat(ids.toString(), ids, contains(patientId1b, patientId1, patientIdNull, patientId2));
+
+			// One query per partition
+			List<SqlQuery> searchQueries = myCaptureQueriesListener
+				.getSelectQueries()
+				.stream()
+				.filter(t -> t.getSql(true, false).contains("HFJ_SPIDX_STRING"))
+				.collect(Collectors.toList());
+			List<String> searchSql = searchQueries.stream().map(t -> t.getSql(true, false)).collect(Collectors.toList());
+			assertEquals(3, searchSql.size(), searchSql.toString());
+			assertThat(searchSql.toString(), containsString("PARTITION_ID IS NULL"));
+			assertThat(searchSql.toString(), containsString("PARTITION_ID IN ('1')"));
+			assertThat(searchSql.toString(), containsString("PARTITION_ID IN ('2')"));
+
+			// Nothing has been written in the search's transaction, so the partition queries run in parallel
+			Set<String> threadNames = searchQueries.stream().map(SqlQuery::getThreadName).collect(Collectors.toSet());
+			assertThat(threadNames.toString(), threadNames.size(), greaterThanOrEqualTo(2));
+			assertThat(threadNames.toString(), threadNames, hasItem(startsWith("search_partition_")));
+		} finally {
+			myDaoConfig.setSearchPartitionsSeparately(new DaoConfig().isSearchPartitionsSeparately());
+		}
+	}
+
+	@Test
+	public void testSearch_StringParam_SearchMultiplePartitionsSeparately_SeesUncommittedRows() {
+		myDaoConfig.setSearchPartitionsSeparately(true);
+		try {
+			runInTransaction(() -> {
+				IIdType patientId1 = createPatient(withPartition(1), withFamily("FAMILY"), withBirthdate("2020-01-01"));
+				IIdType patientId2 = createPatient(withPartition(2), withFamily("FAMILY"), withBirthdate("2020-01-02"));
+
+				SearchParameterMap map = new SearchParameterMap();
+				map.add(Patient.SP_FAMILY, new StringParam("FAMILY"));
+				map.setSort(new SortSpec(Patient.SP_BIRTHDATE));
+				map.setLoadSynchronous(true);
+
+				// The partition queries run on the transaction's connection, so they see rows it hasn't committed yet
+				addReadPartition(1, 2);
+				myCaptureQueriesListener.clear();
+				IBundleProvider results = myPatientDao.search(map, mySrd);
+				assertThat(toUnqualifiedVersionlessIds(results), contains(patientId1, patientId2));
+
+				List<SqlQuery> searchQueries = myCaptureQueriesListener
+					.getSelectQueries()
+					.stream()
+					.filter(t -> t.getSql(true, false).contains("HFJ_SPIDX_STRING"))
+					.collect(Collectors.toList());
+				assertEquals(2, searchQueries.size());
+				for (SqlQuery next : searchQueries) {
+					assertEquals(Thread.currentThread().getName(), next.getThreadName());
+				}
+			});
+		} finally {
+			myDaoConfig.setSearchPartitionsSeparately(new DaoConfig().isSearchPartitionsSeparately());
+		}
+	}
+
+	@Test
+	public void testSearch_StringParam_SearchAllPartitionsSeparately_PartitionListCached() {
+		myDaoConfig.setSearchPartitionsSeparately(true);
+		try {
+			IIdType patientId1 = createPatient(withPartition(1), withFamily("FAMILY"));
+			IIdType patientIdNull = createPatient(withPartition(null), withFamily("FAMILY"));
+
+			for (int i = 0; i < 3; i++) {
+				SearchParameterMap map = new SearchParameterMap();
+				map.add(Patient.SP_FAMILY, new StringParam("FAMILY"));
+				map.setLoadSynchronous(true);
+
+				addReadAllPartitions();
+				myCaptureQueriesListener.clear();
+				IBundleProvider results = myPatientDao.search(map, mySrd);
+				assertThat(toUnqualifiedVersionlessIds(results), Matchers.containsInAnyOrder(patientId1, patientIdNull));
+
+				if (i > 0) {
+					List<String> partitionSql = myCaptureQueriesListener
+						.getSelectQueries()
+						.stream()
+						.map(t -> t.getSql(true, false))
+						.filter(t -> t.contains("HFJ_PARTITION "))
+						.collect(Collectors.toList());
+					assertEquals(0, partitionSql.size(), partitionSql.toString());
+				}
+			}
+		} finally {
+			myDaoConfig.setSearchPartitionsSeparately(new DaoConfig().isSearchPartitionsSeparately());
+		}
+	}
+
 	@Test
 	public void testSearch_StringParam_SearchMultiplePartitions_IncludePartitionInHashes() {
 		myPartitionSettings.setIncludePartitionInSearchHashes(true);
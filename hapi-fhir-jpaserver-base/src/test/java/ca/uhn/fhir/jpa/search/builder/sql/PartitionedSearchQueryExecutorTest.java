@@ -0,0 +1,102 @@
+package ca.uhn.fhir.jpa.search.builder.sql;
+
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class PartitionedSearchQueryExecutorTest {
+
+	@Test
+	public void testMergeWithoutSort() {
+		List<Iterator<Object[]>> rows = Lists.newArrayList(
+			partition(row(3L), row(1L)),
+			partition(),
+			partition(row(2L))
+		);
+
+		List<Long> merged = toList(PartitionedSearchQueryExecutor.merge(rows, Collections.emptyList(), 0, null));
+		assertThat(merged, contains(3L, 1L, 2L));
+	}
+
+	@Test
+	public void testMergeAscendingNullsLast() {
+		List<SearchSortKey> sortKeys = Lists.newArrayList(new SearchSortKey(null, true, false));
+		List<Iterator<Object[]>> rows = Lists.newArrayList(
+			partition(row(1L, "A"), row(2L, "C"), row(3L, null)),
+			partition(row(4L, "B"), row(5L, "C"), row(6L, "D"))
+		);
+
+		List<Long> merged = toList(PartitionedSearchQueryExecutor.merge(rows, sortKeys, 0, null));
+		assertThat(merged, contains(1L, 4L, 2L, 5L, 6L, 3L));
+	}
+
+	@Test
+	public void testMergeDescendingMultipleKeys() {
+		List<SearchSortKey> sortKeys = Lists.newArrayList(new SearchSortKey(null, false, true), new SearchSortKey(null, false, true));
+		List<Iterator<Object[]>> rows = Lists.newArrayList(
+			partition(row(1L, null, 1L), row(2L, new BigDecimal("2.5"), 7L), row(3L, new BigDecimal("2.5"), 1L)),
+			partition(row(4L, 3L, 1L), row(5L, 2.5d, 5L))
+		);
+
+		List<Long> merged = toList(PartitionedSearchQueryExecutor.merge(rows, sortKeys, 0, null));
+		assertThat(merged, contains(1L, 4L, 2L, 5L, 3L));
+	}
+
+	@Test
+	public void testMergeWithOffsetAndMaximum() {
+		List<SearchSortKey> sortKeys = Lists.newArrayList(new SearchSortKey(null, true, false));
+		List<Iterator<Object[]>> rows = Lists.newArrayList(
+			partition(row(1L, 1), row(3L, 3), row(5L, 5)),
+			partition(row(2L, 2), row(4L, 4), row(6L, 6))
+		);
+
+		List<Long> merged = toList(PartitionedSearchQueryExecutor.merge(rows, sortKeys, 2, 3));
+		assertThat(merged, contains(3L, 4L, 5L));
+	}
+
+	@Test
+	public void testMergeReadsPartitionsLazily() {
+		List<SearchSortKey> sortKeys = Lists.newArrayList(new SearchSortKey(null, true, false));
+		AtomicInteger consumed = new AtomicInteger();
+		List<Iterator<Object[]>> rows = new ArrayList<>();
+		for (int partition = 0; partition < 3; partition++) {
+			int offset = partition;
+			rows.add(IntStream.range(0, 1000)
+				.mapToObj(t -> row((long) (t * 3 + offset), t * 3 + offset))
+				.peek(t -> consumed.incrementAndGet())
+				.iterator());
+		}
+
+		Iterator<Long> merged = PartitionedSearchQueryExecutor.merge(rows, sortKeys, 2, 2);
+		assertThat(toList(merged), contains(2L, 3L));
+		// Only the rows merged so far plus the current row of each partition have been read
+		assertThat(consumed.get(), lessThanOrEqualTo(4 + 3));
+	}
+
+	private static Iterator<Object[]> partition(Object[]... theRows) {
+		return Arrays.asList(theRows).iterator();
+	}
+
+	private static Object[] row(Object... theValues) {
+		return theValues;
+	}
+
+	private static List<Long> toList(Iterator<Long> theIterator) {
+		List<Long> retVal = new ArrayList<>();
+		theIterator.forEachRemaining(retVal::add);
+		return retVal;
+	}
+
+}
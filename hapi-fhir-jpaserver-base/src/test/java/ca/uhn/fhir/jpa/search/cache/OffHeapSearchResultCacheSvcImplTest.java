@@ -0,0 +1,151 @@
+package ca.uhn.fhir.jpa.search.cache;
+
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapSearchResultCacheSvcImplTest {
+
+	private final DaoConfig myDaoConfig = new DaoConfig();
+	private OffHeapSearchResultCacheSvcImpl mySvc;
+
+	@BeforeEach
+	public void before() {
+		mySvc = new OffHeapSearchResultCacheSvcImpl();
+		mySvc.setDaoConfigForUnitTest(myDaoConfig);
+	}
+
+	@AfterEach
+	public void after() {
+		mySvc.stop();
+	}
+
+	@Test
+	public void testEncodeAndDecode() {
+		List<ResourcePersistentId> pids = pids(1000, 7, 3, 5_000_000_000L, 2, 2, 999, 0);
+		DeltaEncodedPidList list = new DeltaEncodedPidList();
+		list.addAll(pids);
+
+		assertEquals(pids.size(), list.size());
+		assertEquals(pids, list.get(0, list.size()));
+		assertEquals(pids.subList(2, 5), list.get(2, 5));
+		assertEquals(pids.subList(6, 8), list.get(6, 100));
+
+		DeltaEncodedPidList copy = DeltaEncodedPidList.fromByteArray(list.toByteArray());
+		assertEquals(pids.size(), copy.size());
+		assertEquals(pids, copy.get(0, copy.size()));
+	}
+
+	@Test
+	public void testFetchAcrossCheckpoints() {
+		List<ResourcePersistentId> pids = new ArrayList<>();
+		for (long i = 0; i < DeltaEncodedPidList.CHECKPOINT_INTERVAL * 10; i++) {
+			pids.add(new ResourcePersistentId(i * 3));
+		}
+		Search search = newSearch();
+		mySvc.storeResults(search, Collections.emptyList(), pids.subList(0, 500));
+		mySvc.storeResults(search, pids.subList(0, 500), pids.subList(500, pids.size()));
+
+		assertEquals(pids.subList(250, 270), mySvc.fetchResultPids(search, 250, 270));
+		assertEquals(pids.subList(1200, pids.size()), mySvc.fetchResultPids(search, 1200, 2000));
+		assertEquals(pids, mySvc.fetchAllResultPids(search));
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		myDaoConfig.setSearchResultCacheMaxBytes(1000);
+
+		Search search1 = newSearch();
+		mySvc.storeResults(search1, Collections.emptyList(), pids(1, 2, 3));
+		Search search2 = newSearch();
+		mySvc.storeResults(search2, Collections.emptyList(), pids(4, 5, 6));
+		mySvc.fetchResultPids(search1, 0, 1);
+		Search search3 = newSearch();
+		mySvc.storeResults(search3, Collections.emptyList(), pids(7, 8, 9));
+
+		assertThat(mySvc.getMemorySize(), lessThanOrEqualTo(1000L));
+		assertEquals(pids(1, 2, 3), mySvc.fetchAllResultPids(search1));
+		assertNull(mySvc.fetchAllResultPids(search2));
+		assertFalse(mySvc.isResultsAvailable(search2));
+		assertTrue(mySvc.isResultsAvailable(search3));
+		assertEquals(pids(7, 8, 9), mySvc.fetchAllResultPids(search3));
+	}
+
+	@Test
+	public void testSpillToDirectory(@TempDir File theDirectory) {
+		myDaoConfig.setSearchResultCacheMaxBytes(500);
+		myDaoConfig.setSearchResultCacheSpillDirectory(theDirectory.getAbsolutePath());
+
+		Search search1 = newSearch();
+		mySvc.storeResults(search1, Collections.emptyList(), pids(1, 2, 3));
+		Search search2 = newSearch();
+		mySvc.storeResults(search2, Collections.emptyList(), pids(4, 5, 6));
+
+		File spillDirectory = mySvc.getSpillDirectory();
+		assertEquals(theDirectory, spillDirectory.getParentFile());
+		assertTrue(new File(spillDirectory, search1.getUuid()).exists());
+		assertTrue(mySvc.isResultsAvailable(search1));
+
+		assertEquals(pids(2, 3), mySvc.fetchResultPids(search1, 1, 3));
+		assertFalse(new File(spillDirectory, search1.getUuid()).exists());
+		assertTrue(new File(spillDirectory, search2.getUuid()).exists());
+		assertEquals(pids(4, 5, 6), mySvc.fetchAllResultPids(search2));
+	}
+
+	@Test
+	public void testStopOnlyDeletesOwnSpillFiles(@TempDir File theDirectory) throws IOException {
+		myDaoConfig.setSearchResultCacheMaxBytes(500);
+		myDaoConfig.setSearchResultCacheSpillDirectory(theDirectory.getAbsolutePath());
+		File unrelated = new File(theDirectory, "unrelated.txt");
+		FileUtils.writeStringToFile(unrelated, "keep me", StandardCharsets.UTF_8);
+
+		// Restarting (a new instance is what a restarted server gets) must not touch the file either
+		mySvc.stop();
+		mySvc = new OffHeapSearchResultCacheSvcImpl();
+		mySvc.setDaoConfigForUnitTest(myDaoConfig);
+		mySvc.storeResults(newSearch(), Collections.emptyList(), pids(1, 2, 3));
+		mySvc.storeResults(newSearch(), Collections.emptyList(), pids(4, 5, 6));
+		assertTrue(mySvc.getSpillDirectory().isDirectory());
+
+		mySvc.stop();
+		assertFalse(mySvc.getSpillDirectory().exists());
+		assertTrue(unrelated.exists());
+		assertEquals("keep me", FileUtils.readFileToString(unrelated, StandardCharsets.UTF_8));
+	}
+
+	private Search newSearch() {
+		Search retVal = new Search();
+		retVal.setUuid(UUID.randomUUID().toString());
+		retVal.setNumFound(1);
+		return retVal;
+	}
+
+	private static List<ResourcePersistentId> pids(long... thePids) {
+		List<ResourcePersistentId> retVal = new ArrayList<>();
+		for (long next : thePids) {
+			retVal.add(new ResourcePersistentId(next));
+		}
+		return retVal;
+	}
+
+}
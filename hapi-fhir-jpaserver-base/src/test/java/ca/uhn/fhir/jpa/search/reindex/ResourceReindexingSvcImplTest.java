@@ -10,6 +10,7 @@ import ca.uhn.fhir.jpa.dao.BaseJpaTest;
 import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceReindexJobDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
+import ca.uhn.fhir.jpa.dao.index.DaoSearchParamSynchronizer;
 import ca.uhn.fhir.jpa.entity.ResourceReindexJobEntity;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
@@ -29,6 +30,8 @@ import org.springframework.data.domain.SliceImpl;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -44,6 +47,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -88,6 +92,12 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 	private TransactionStatus myTxStatus;
 	@Mock
 	private ISchedulerService mySchedulerService;
+	@Mock
+	private EntityManager myEntityManager;
+	@Mock
+	private TypedQuery<Object> myPreFetchQuery;
+	@Mock
+	private DaoSearchParamSynchronizer myDaoSearchParamSynchronizer;
 
 	@Override
 	protected FhirContext getContext() {
@@ -114,9 +124,14 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 		mySvc.setTxManagerForUnitTest(myTxManager);
 		mySvc.setSearchParamRegistryForUnitTest(mySearchParamRegistry);
 		mySvc.setSchedulerServiceForUnitTest(mySchedulerService);
+		mySvc.setEntityManagerForUnitTest(myEntityManager);
+		mySvc.setDaoSearchParamSynchronizerForUnitTest(myDaoSearchParamSynchronizer);
 		mySvc.start();
 
 		when(myTxManager.getTransaction(any())).thenReturn(myTxStatus);
+		when(myEntityManager.createQuery(anyString(), any(Class.class))).thenReturn(myPreFetchQuery);
+		when(myPreFetchQuery.setParameter(anyString(), any())).thenReturn(myPreFetchQuery);
+		when(myPreFetchQuery.getResultList()).thenReturn(Collections.emptyList());
 	}
 
 	@Test
@@ -219,6 +234,32 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 		verify(mySearchParamRegistry, times(1)).forceRefresh();
 	}
 
+	@Test
+	public void testReindexPassInBatchesTracksProgress() {
+		myDaoConfig.setReindexBatchSize(1);
+		myDaoConfig.setReindexMaxResourcesPerSecond(1000);
+		mockNothingToExpunge();
+		mockSingleReindexingJob(null);
+		mockFourResourcesNeedReindexing();
+		mockFetchFourResources();
+
+		int count = mySvc.forceReindexingPass();
+		assertEquals(4, count);
+		verify(myResourceDao, times(4)).reindex(any(), any());
+
+		// Each batch is reindexed in its own transaction
+		verify(myEntityManager, times(4)).createQuery(anyString(), eq(ResourceTable.class));
+
+		List<ReindexJobProgress> progress = mySvc.getJobProgress();
+		assertEquals(1, progress.size());
+		assertEquals(123L, progress.get(0).getJobId().longValue());
+		assertEquals(4L, progress.get(0).getIndexedCount());
+		assertEquals(2L, progress.get(0).getIndexedCountsByResourceType().get("Patient").longValue());
+		assertEquals(2L, progress.get(0).getIndexedCountsByResourceType().get("Observation").longValue());
+		assertEquals(0L, progress.get(0).getFailedCount());
+		assertEquals(40 * DateUtils.MILLIS_PER_DAY, progress.get(0).getIndexedUntil().getTime());
+	}
+
 	@Test
 	public void testReindexPassPatients() {
 		mockNothingToExpunge();
@@ -304,6 +345,7 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 		assertEquals(0, count);
 
 		verify(myResourceTableDao, times(1)).updateIndexStatus(eq(0L), eq(BaseHapiFhirDao.INDEX_STATUS_INDEXING_FAILED));
+		assertEquals(1L, mySvc.getJobProgress().get(0).getFailedCount());
 	}
 
 	@Test
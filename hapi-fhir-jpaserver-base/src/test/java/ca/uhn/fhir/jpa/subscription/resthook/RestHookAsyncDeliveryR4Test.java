@@ -0,0 +1,161 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+import ca.uhn.fhir.interceptor.api.IAnonymousInterceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.subscription.BaseSubscriptionsR4Test;
+import ca.uhn.fhir.jpa.subscription.match.deliver.resthook.AsyncRestHookDeliverySvc;
+import ca.uhn.fhir.jpa.subscription.match.deliver.resthook.RestHookDelivery;
+import ca.uhn.fhir.jpa.subscription.model.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.model.ResourceDeliveryMessage;
+import ca.uhn.fhir.rest.api.Constants;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Subscription;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.net.ServerSocket;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RestHookAsyncDeliveryR4Test extends BaseSubscriptionsR4Test {
+
+	@Autowired
+	private AsyncRestHookDeliverySvc myAsyncRestHookDeliverySvc;
+
+	@BeforeEach
+	public void enableAsyncDelivery() {
+		myDaoConfig.setRestHookAsyncDeliveryEnabled(true);
+	}
+
+	@AfterEach
+	public void disableAsyncDelivery() {
+		DaoConfig defaults = new DaoConfig();
+		myDaoConfig.setRestHookAsyncDeliveryEnabled(defaults.isRestHookAsyncDeliveryEnabled());
+		myDaoConfig.setRestHookMaxConcurrentDeliveriesPerEndpoint(defaults.getRestHookMaxConcurrentDeliveriesPerEndpoint());
+		myDaoConfig.setRestHookDeliveryBatchSize(defaults.getRestHookDeliveryBatchSize());
+		myDaoConfig.setRestHookDeliveryMaxAttempts(defaults.getRestHookDeliveryMaxAttempts());
+		myDaoConfig.setRestHookDeliveryRetryBackoffMillis(defaults.getRestHookDeliveryRetryBackoffMillis());
+		myDaoConfig.setRestHookMaxQueuedDeliveriesPerEndpoint(defaults.getRestHookMaxQueuedDeliveriesPerEndpoint());
+	}
+
+	@Test
+	public void testDeliverUpdate() throws Exception {
+		createSubscription("Observation?", "application/fhir+json");
+		waitForActivatedSubscriptionCount(1);
+
+		AtomicInteger afterDeliveryCount = new AtomicInteger();
+		IAnonymousInterceptor interceptor = (thePointcut, theArgs) -> afterDeliveryCount.incrementAndGet();
+		myInterceptorRegistry.registerAnonymousInterceptor(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY, interceptor);
+		try {
+			Observation obs = sendObservation("1000000050", "SNOMED-CT");
+
+			waitForSize(1, ourUpdatedObservations);
+			assertEquals(Constants.CT_FHIR_JSON_NEW, ourContentTypes.get(0));
+			assertEquals(obs.getIdElement().getIdPart(), ourUpdatedObservations.get(0).getIdElement().getIdPart());
+			await().until(() -> myAsyncRestHookDeliverySvc.getOutstandingDeliveryCount(), equalTo(0));
+			await().until(afterDeliveryCount::get, equalTo(1));
+
+			// The endpoint's queue is discarded once it is idle
+			await().until(() -> myAsyncRestHookDeliverySvc.getEndpointQueueCount(), equalTo(0));
+		} finally {
+			myInterceptorRegistry.unregisterInterceptor(interceptor);
+		}
+	}
+
+	@Test
+	public void testQueuedDeliveriesAreBatched() throws Exception {
+		myDaoConfig.setRestHookMaxConcurrentDeliveriesPerEndpoint(1);
+		myDaoConfig.setRestHookDeliveryBatchSize(10);
+
+		createSubscription("Observation?", "application/fhir+json");
+		waitForActivatedSubscriptionCount(1);
+
+		for (int i = 0; i < 20; i++) {
+			sendObservation("1000000050", "SNOMED-CT");
+		}
+
+		// Every observation is delivered exactly once, either on its own or as part of a transaction
+		await().until(() -> {
+			int delivered = ourUpdatedObservations.size();
+			for (Bundle next : ourTransactions) {
+				delivered += next.getEntry().size();
+			}
+			return delivered;
+		}, equalTo(20));
+		await().until(() -> myAsyncRestHookDeliverySvc.getOutstandingDeliveryCount(), equalTo(0));
+		for (Bundle next : ourTransactions) {
+			for (Bundle.BundleEntryComponent nextEntry : next.getEntry()) {
+				assertEquals(Bundle.HTTPVerb.PUT, nextEntry.getRequest().getMethod());
+			}
+		}
+	}
+
+	@Test
+	public void testUnreachableEndpointIsRetriedAndAbandoned() throws Exception {
+		myDaoConfig.setRestHookDeliveryMaxAttempts(3);
+		myDaoConfig.setRestHookDeliveryRetryBackoffMillis(10);
+
+		// Find a port that nothing is listening on
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		Subscription subscription = newSubscription("Observation?", "application/fhir+json");
+		subscription.getChannel().setEndpoint("http://localhost:" + port + "/fhir");
+		mySubscriptionIds.add(myClient.create().resource(subscription).execute().getId());
+		waitForActivatedSubscriptionCount(1);
+
+		AtomicInteger failedCount = new AtomicInteger();
+		IAnonymousInterceptor interceptor = (thePointcut, theArgs) -> failedCount.incrementAndGet();
+		myInterceptorRegistry.registerAnonymousInterceptor(Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED, interceptor);
+		try {
+			sendObservation("1000000050", "SNOMED-CT");
+
+			await().until(failedCount::get, equalTo(1));
+			await().until(() -> myAsyncRestHookDeliverySvc.getOutstandingDeliveryCount(), equalTo(0));
+			assertEquals(0, ourUpdatedObservations.size());
+			await().until(() -> myAsyncRestHookDeliverySvc.getEndpointQueueCount(), equalTo(0));
+		} finally {
+			myInterceptorRegistry.unregisterInterceptor(interceptor);
+		}
+	}
+
+	@Test
+	public void testFullQueueRejectsDeliveries() throws Exception {
+		myDaoConfig.setRestHookMaxConcurrentDeliveriesPerEndpoint(1);
+		myDaoConfig.setRestHookMaxQueuedDeliveriesPerEndpoint(1);
+		myDaoConfig.setRestHookDeliveryMaxAttempts(1);
+
+		// Connections are accepted by the OS but never answered, so the first delivery stays in progress
+		try (ServerSocket socket = new ServerSocket(0)) {
+			CanonicalSubscription subscription = new CanonicalSubscription();
+			subscription.setIdElement(new IdType("Subscription/123"));
+			subscription.setEndpointUrl("http://localhost:" + socket.getLocalPort() + "/fhir");
+			ResourceDeliveryMessage message = new ResourceDeliveryMessage();
+			message.setSubscription(subscription);
+
+			myAsyncRestHookDeliverySvc.submit(RestHookDelivery.forNotification(message));
+			myAsyncRestHookDeliverySvc.submit(RestHookDelivery.forNotification(message));
+			RejectedExecutionException e = assertThrows(RejectedExecutionException.class, () -> myAsyncRestHookDeliverySvc.submit(RestHookDelivery.forNotification(message)));
+			assertThat(e.getMessage(), containsString("is full (1 deliveries)"));
+			assertEquals(2, myAsyncRestHookDeliverySvc.getOutstandingDeliveryCount());
+		}
+
+		// Closing the socket fails both accepted deliveries
+		await().until(() -> myAsyncRestHookDeliverySvc.getOutstandingDeliveryCount(), equalTo(0));
+	}
+
+}
@@ -0,0 +1,114 @@
+package ca.uhn.fhir.jpa.term;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CsvRecordPipelineTest {
+
+	@Test
+	public void testRecordsAreProcessedInOrder() throws IOException {
+		StringBuilder input = new StringBuilder("CODE\n");
+		int count = CsvRecordPipeline.BATCH_SIZE * (CsvRecordPipeline.QUEUE_CAPACITY + 2) + 7;
+		for (int i = 0; i < count; i++) {
+			input.append("code").append(i).append('\n');
+		}
+		CSVParser parser = new CSVParser(new StringReader(input.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+
+		List<String> codes = new ArrayList<>();
+		CsvRecordPipeline.forEach("test", parser.iterator(), t -> codes.add(t.get("CODE")));
+
+		assertEquals(count, codes.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals("code" + i, codes.get(i));
+		}
+	}
+
+	@Test
+	public void testReaderFailureIsRethrown() {
+		Iterator<CSVRecord> iterator = new Iterator<CSVRecord>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public CSVRecord next() {
+				throw new IllegalStateException("Bad file");
+			}
+		};
+
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> CsvRecordPipeline.forEach("test", iterator, t -> {
+		}));
+		assertEquals("Bad file", e.getMessage());
+	}
+
+	@Test
+	public void testReaderErrorIsRethrown() {
+		Iterator<CSVRecord> iterator = new Iterator<CSVRecord>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public CSVRecord next() {
+				throw new StackOverflowError("Deep file");
+			}
+		};
+
+		StackOverflowError e = assertThrows(StackOverflowError.class, () -> CsvRecordPipeline.forEach("test", iterator, t -> {
+		}));
+		assertEquals("Deep file", e.getMessage());
+	}
+
+	@Test
+	public void testReaderInterruptedStillEnds() throws IOException {
+		CSVParser parser = new CSVParser(new StringReader("CODE\ncode0\ncode1\n"), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+		Iterator<CSVRecord> records = parser.iterator();
+		Iterator<CSVRecord> iterator = new Iterator<CSVRecord>() {
+			@Override
+			public boolean hasNext() {
+				return records.hasNext();
+			}
+
+			@Override
+			public CSVRecord next() {
+				// Leaves the reader thread interrupted when it queues the records
+				Thread.currentThread().interrupt();
+				return records.next();
+			}
+		};
+
+		// The batch can't be queued, which is reported rather than silently dropping the records
+		InternalErrorException e = assertThrows(InternalErrorException.class, () -> CsvRecordPipeline.forEach("test", iterator, t -> {
+		}));
+		assertEquals(InterruptedException.class, e.getCause().getClass());
+	}
+
+	@Test
+	public void testHandlerFailureStopsReader() throws IOException {
+		StringBuilder input = new StringBuilder("CODE\n");
+		for (int i = 0; i < CsvRecordPipeline.BATCH_SIZE * (CsvRecordPipeline.QUEUE_CAPACITY + 2); i++) {
+			input.append("code").append(i).append('\n');
+		}
+		CSVParser parser = new CSVParser(new StringReader(input.toString()), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> CsvRecordPipeline.forEach("test", parser.iterator(), t -> {
+			throw new IllegalArgumentException("Bad record");
+		}));
+		assertEquals("Bad record", e.getMessage());
+	}
+
+}
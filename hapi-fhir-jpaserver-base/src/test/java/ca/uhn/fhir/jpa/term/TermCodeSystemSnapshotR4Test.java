@@ -0,0 +1,213 @@
+package ca.uhn.fhir.jpa.term;
+
+import ca.uhn.fhir.context.support.ConceptValidationOptions;
+import ca.uhn.fhir.context.support.ValidationSupportContext;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.entity.TermCodeSystemVersion;
+import ca.uhn.fhir.jpa.entity.TermConcept;
+import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink;
+import ca.uhn.fhir.jpa.term.api.ITermCodeSystemSnapshotSvc;
+import ca.uhn.fhir.jpa.term.custom.CustomTerminologySet;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.UriType;
+import org.hl7.fhir.r4.model.codesystems.ConceptSubsumptionOutcome;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TermCodeSystemSnapshotR4Test extends BaseTermR4Test {
+
+	@TempDir
+	File myTempDir;
+	@Autowired
+	private ITermCodeSystemSnapshotSvc myTermCodeSystemSnapshotSvc;
+
+	@BeforeEach
+	public void enableSnapshots() {
+		myDaoConfig.setTermCodeSystemSnapshotsEnabled(true);
+		myDaoConfig.setTermCodeSystemSnapshotDirectory(myTempDir.getAbsolutePath());
+		myTermCodeSystemSnapshotSvc.invalidateSnapshots();
+	}
+
+	@AfterEach
+	public void disableSnapshots() {
+		DaoConfig defaults = new DaoConfig();
+		myDaoConfig.setTermCodeSystemSnapshotsEnabled(defaults.isTermCodeSystemSnapshotsEnabled());
+		myDaoConfig.setTermCodeSystemSnapshotDirectory(defaults.getTermCodeSystemSnapshotDirectory());
+		myTermCodeSystemSnapshotSvc.invalidateSnapshots();
+	}
+
+	@Test
+	public void testSnapshotBuiltInBackground() {
+		createCodeSystem();
+		myTermCodeSystemSnapshotSvc.invalidateSnapshots();
+
+		// The first lookup falls back to the database while the snapshot is built
+		assertNull(myTermCodeSystemSnapshotSvc.getSnapshot(getCodeSystemVersionPid()));
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMES, subsumes("ParentA", "childAAA"));
+
+		TermCodeSystemSnapshot snapshot = awaitSnapshot();
+		assertTrue(snapshot.indexOf("childAAA") >= 0);
+	}
+
+	@Test
+	public void testFindCodesBelowAndAbove() {
+		createCodeSystem();
+		awaitSnapshot();
+
+		assertThat(toCodes(myTermSvc.findCodesBelow(CS_URL, "ParentA")), containsInAnyOrder("ParentA", "childAA", "childAAA", "childAAB", "childAB"));
+		assertThat(toCodes(myTermSvc.findCodesBelow(CS_URL, "childAA")), containsInAnyOrder("childAA", "childAAA", "childAAB"));
+		assertThat(toCodes(myTermSvc.findCodesAbove(CS_URL, "childAAA")), containsInAnyOrder("childAAA", "childAA", "ParentA"));
+		assertEquals(0, myTermSvc.findCodesBelow(CS_URL, "FOO").size());
+
+		assertThat(myTempDir.listFiles(), arrayWithSize(1));
+	}
+
+	@Test
+	public void testSubsumes() {
+		createCodeSystem();
+		awaitSnapshot();
+
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMES, subsumes("ParentA", "childAAA"));
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMEDBY, subsumes("childAAA", "ParentA"));
+		assertEquals(ConceptSubsumptionOutcome.NOTSUBSUMED, subsumes("ParentB", "childAA"));
+		assertEquals(ConceptSubsumptionOutcome.NOTSUBSUMED, subsumes("childAAA", "childAAB"));
+
+		InvalidRequestException e = assertThrows(InvalidRequestException.class, () -> subsumes("ParentA", "FOO"));
+		assertTrue(e.getMessage().startsWith("Unknown code"), e.getMessage());
+	}
+
+	@Test
+	public void testValidateCode() {
+		createCodeSystem();
+		awaitSnapshot();
+
+		assertTrue(myTermSvc.validateCode(new ValidationSupportContext(myValidationSupport), new ConceptValidationOptions(), CS_URL, "childAAB", null, null).isOk());
+		assertFalse(myTermSvc.validateCode(new ValidationSupportContext(myValidationSupport), new ConceptValidationOptions(), CS_URL, "ZZZZZZZ", null, null).isOk());
+
+		assertTrue(myTermSvc.codeSystemValidateCode(null, CS_URL, "SYSTEM VERSION", "childAAB", null, null, null).isOk());
+		assertFalse(myTermSvc.codeSystemValidateCode(null, CS_URL, "SYSTEM VERSION", "ZZZZZZZ", null, null, null).isOk());
+	}
+
+	@Test
+	public void testSnapshotReplacedWhenCodeSystemChanges() {
+		createCodeSystem();
+		awaitSnapshot();
+		assertEquals(ConceptSubsumptionOutcome.NOTSUBSUMED, subsumes("ParentB", "childAA"));
+		String firstSnapshot = myTempDir.listFiles()[0].getName();
+
+		CustomTerminologySet delta = new CustomTerminologySet();
+		delta.addRootConcept("ParentB", "Parent B").addChild(TermConceptParentChildLink.RelationshipTypeEnum.ISA).setCode("childBA").setDisplay("Child BA");
+		myTermCodeSystemStorageSvc.applyDeltaCodeSystemsAdd(CS_URL, delta);
+
+		// Storing the delta discards the old snapshot, so the new code is never missing
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMES, subsumes("ParentB", "childBA"));
+		await().until(() -> {
+			TermCodeSystemSnapshot snapshot = myTermCodeSystemSnapshotSvc.getSnapshot(getCodeSystemVersionPid());
+			return snapshot != null && snapshot.indexOf("childBA") >= 0;
+		});
+
+		assertEquals(ConceptSubsumptionOutcome.SUBSUMES, subsumes("ParentB", "childBA"));
+		File[] files = myTempDir.listFiles();
+		assertThat(files, arrayWithSize(1));
+		assertFalse(files[0].getName().equals(firstSnapshot));
+	}
+
+	@Test
+	public void testSnapshotNotReusedWhenLinksReplacedElsewhere() {
+		createCodeSystem();
+		awaitSnapshot();
+		String firstSnapshot = myTempDir.listFiles()[0].getName();
+
+		// Move childAB from ParentA to ParentB, leaving the number of concepts and links unchanged
+		runInTransaction(() -> {
+			TermCodeSystemVersion version = myTermCodeSystemDao.findByCodeSystemUri(CS_URL).getCurrentVersion();
+			TermConcept parentB = myTermConceptDao.findByCodeSystemAndCode(version, "ParentB").orElseThrow(IllegalStateException::new);
+			TermConcept childAB = myTermConceptDao.findByCodeSystemAndCode(version, "childAB").orElseThrow(IllegalStateException::new);
+			TermConceptParentChildLink link = myTermConceptParentChildLinkDao
+				.findAll()
+				.stream()
+				.filter(t -> t.getChild().getId().equals(childAB.getId()))
+				.findFirst()
+				.orElseThrow(IllegalStateException::new);
+			myTermConceptParentChildLinkDao.delete(link);
+			myTermConceptParentChildLinkDao.save(new TermConceptParentChildLink()
+				.setCodeSystem(version)
+				.setParent(parentB)
+				.setChild(childAB)
+				.setRelationshipType(TermConceptParentChildLink.RelationshipTypeEnum.ISA));
+		});
+
+		// A server which wasn't notified of the change must not reuse the snapshot built before it
+		myTermCodeSystemSnapshotSvc.invalidateSnapshots();
+		TermCodeSystemSnapshot snapshot = awaitSnapshot();
+		assertTrue(snapshot.isAncestor(snapshot.indexOf("ParentB"), snapshot.indexOf("childAB")));
+		assertFalse(snapshot.isAncestor(snapshot.indexOf("ParentA"), snapshot.indexOf("childAB")));
+		File[] files = myTempDir.listFiles();
+		assertThat(files, arrayWithSize(1));
+		assertFalse(files[0].getName().equals(firstSnapshot));
+	}
+
+	@Test
+	public void testSnapshotFile() throws IOException {
+		File file = new File(myTempDir, "test.snapshot");
+		String[] codes = {"D", "B", "A", "C", "E"};
+		String[] displays = {"Display D", null, "Display A", "Display C", ""};
+		// A is the root, B and C are children of A, D is a child of both B and C, and E is a child of D and of itself
+		int[][] parents = {{1, 3}, {2}, {}, {2}, {0, 4}};
+		TermCodeSystemSnapshot.write(file, 123L, codes, displays, parents);
+
+		TermCodeSystemSnapshot snapshot = TermCodeSystemSnapshot.open(file);
+		assertEquals(123L, snapshot.getCodeSystemVersionPid());
+		assertEquals(5, snapshot.getConceptCount());
+		for (int i = 0; i < codes.length; i++) {
+			assertEquals(i, snapshot.indexOf(String.valueOf((char) ('A' + i))));
+		}
+		assertEquals(-1, snapshot.indexOf("F"));
+		assertEquals(-1, snapshot.indexOf(""));
+		assertEquals("Display A", snapshot.getDisplay(0));
+		assertNull(snapshot.getDisplay(1));
+		assertNull(snapshot.getDisplay(4));
+
+		assertArrayEquals(new int[]{}, snapshot.getAncestors(0));
+		assertArrayEquals(new int[]{0, 1, 2}, snapshot.getAncestors(3));
+		assertArrayEquals(new int[]{0, 1, 2, 3}, snapshot.getAncestors(4));
+		assertArrayEquals(new int[]{1, 2, 3, 4}, snapshot.getDescendants(0));
+		assertArrayEquals(new int[]{4}, snapshot.getDescendants(3));
+		assertTrue(snapshot.isAncestor(0, 3));
+		assertFalse(snapshot.isAncestor(3, 0));
+		assertFalse(snapshot.isAncestor(1, 2));
+	}
+
+	private TermCodeSystemSnapshot awaitSnapshot() {
+		Long codeSystemVersionPid = getCodeSystemVersionPid();
+		return await().until(() -> myTermCodeSystemSnapshotSvc.getSnapshot(codeSystemVersionPid), Objects::nonNull);
+	}
+
+	private Long getCodeSystemVersionPid() {
+		return runInTransaction(() -> myTermCodeSystemDao.findByCodeSystemUri(CS_URL).getCurrentVersion().getPid());
+	}
+
+	private ConceptSubsumptionOutcome subsumes(String theCodeA, String theCodeB) {
+		return myTermSvc.subsumes(new CodeType(theCodeA), new CodeType(theCodeB), new UriType(CS_URL), null, null).getOutcome();
+	}
+
+}
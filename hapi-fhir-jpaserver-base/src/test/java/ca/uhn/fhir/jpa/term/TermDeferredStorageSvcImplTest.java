@@ -5,6 +5,7 @@ import ca.uhn.fhir.jpa.dao.data.ITermConceptDao;
 import ca.uhn.fhir.jpa.entity.TermCodeSystemVersion;
 import ca.uhn.fhir.jpa.entity.TermConcept;
 import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink;
+import ca.uhn.fhir.jpa.term.api.ITermCodeSystemSnapshotSvc;
 import ca.uhn.fhir.jpa.term.api.ITermCodeSystemStorageSvc;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -15,6 +16,7 @@ import org.springframework.transaction.PlatformTransactionManager;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -29,6 +31,8 @@ public class TermDeferredStorageSvcImplTest {
 	@Mock
 	private ITermCodeSystemStorageSvc myTermConceptStorageSvc;
 	@Mock
+	private ITermCodeSystemSnapshotSvc myCodeSystemSnapshotSvc;
+	@Mock
 	private ITermConceptDao myConceptDao;
 	@Mock
 	private ITermCodeSystemVersionDao myTermCodeSystemVersionDao;
@@ -53,6 +57,7 @@ public class TermDeferredStorageSvcImplTest {
 		TermDeferredStorageSvcImpl svc = new TermDeferredStorageSvcImpl();
 		svc.setTransactionManagerForUnitTest(myTxManager);
 		svc.setCodeSystemStorageSvcForUnitTest(myTermConceptStorageSvc);
+		svc.setCodeSystemSnapshotSvcForUnitTest(myCodeSystemSnapshotSvc);
 
 		when(myTermCodeSystemVersionDao.findById(anyLong())).thenReturn(Optional.of(myTermCodeSystemVersion));
 		svc.setCodeSystemVersionDaoForUnitTest(myTermCodeSystemVersionDao);
@@ -61,6 +66,7 @@ public class TermDeferredStorageSvcImplTest {
 		svc.saveDeferred();
 		verify(myTermConceptStorageSvc, times(1)).saveConcept(same(concept));
 		verifyNoMoreInteractions(myTermConceptStorageSvc);
+		verify(myCodeSystemSnapshotSvc, times(1)).invalidateSnapshot(eq(1L));
 
 	}
 
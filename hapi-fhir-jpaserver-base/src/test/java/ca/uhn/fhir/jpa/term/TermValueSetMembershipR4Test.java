@@ -0,0 +1,140 @@
+package ca.uhn.fhir.jpa.term;
+
+import ca.uhn.fhir.context.support.ConceptValidationOptions;
+import ca.uhn.fhir.context.support.IValidationSupport;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.TokenParamModifier;
+import ca.uhn.fhir.util.FhirVersionIndependentConcept;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.codesystems.HttpVerb;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TermValueSetMembershipR4Test extends BaseTermR4Test {
+
+	private static final String VS_URL = "http://www.healthintersections.com.au/fhir/ValueSet/extensional-case-2";
+
+	@BeforeEach
+	public void enableMembershipCache() {
+		myDaoConfig.setPreExpandValueSets(true);
+		myDaoConfig.setPreExpandedValueSetMembershipCacheEnabled(true);
+	}
+
+	@AfterEach
+	public void disableMembershipCache() {
+		DaoConfig defaults = new DaoConfig();
+		myDaoConfig.setPreExpandedValueSetMembershipCacheEnabled(defaults.isPreExpandedValueSetMembershipCacheEnabled());
+		myDaoConfig.setPreExpandedValueSetMembershipCacheMaxConcepts(defaults.getPreExpandedValueSetMembershipCacheMaxConcepts());
+	}
+
+	@Test
+	public void testValidateCodeIsInPreExpandedValueSet() throws Exception {
+		loadAndPersistCodeSystemAndValueSetWithDesignations(HttpVerb.POST);
+		myTermSvc.preExpandDeferredValueSetsToTerminologyTables();
+		ValueSet valueSet = myValueSetDao.read(myExtensionalVsId);
+
+		ConceptValidationOptions optsNoGuess = new ConceptValidationOptions();
+		ConceptValidationOptions optsGuess = new ConceptValidationOptions().setInferSystem(true);
+
+		IValidationSupport.CodeValidationResult result = myTermSvc.validateCodeIsInPreExpandedValueSet(optsNoGuess, valueSet, "http://acme.org", "11378-7", null, null, null);
+		assertTrue(result.isOk());
+		assertEquals("Systolic blood pressure at First encounter", result.getDisplay());
+
+		// Remove the pre-expansion rows so that any further lookups must come from the cache
+		runInTransaction(() -> {
+			myTermValueSetConceptDesignationDao.deleteAll();
+			myTermValueSetConceptDao.deleteAll();
+		});
+
+		result = myTermSvc.validateCodeIsInPreExpandedValueSet(optsNoGuess, valueSet, null, "BOGUS", null, null, null);
+		assertFalse(result.isOk());
+
+		result = myTermSvc.validateCodeIsInPreExpandedValueSet(optsNoGuess, valueSet, null, "11378-7", null, null, null);
+		assertFalse(result.isOk());
+
+		result = myTermSvc.validateCodeIsInPreExpandedValueSet(optsGuess, valueSet, null, "11378-7", "Systolic blood pressure at First encounter", null, null);
+		assertTrue(result.isOk());
+		assertEquals("Systolic blood pressure at First encounter", result.getDisplay());
+
+		result = myTermSvc.validateCodeIsInPreExpandedValueSet(optsGuess.setValidateDisplay(true), valueSet, null, "11378-7", "Wrong display", null, null);
+		assertFalse(result.isOk());
+
+		Coding coding = new Coding("http://acme.org", "11378-7", null);
+		result = myTermSvc.validateCodeIsInPreExpandedValueSet(optsNoGuess, valueSet, null, null, null, coding, null);
+		assertTrue(result.isOk());
+
+		coding = new Coding("http://acme.org|1.0", "11378-7", null);
+		result = myTermSvc.validateCodeIsInPreExpandedValueSet(optsNoGuess, valueSet, null, null, null, coding, null);
+		assertFalse(result.isOk());
+
+		// Deleting the ValueSet evicts its members
+		myValueSetDao.delete(myExtensionalVsId, mySrd);
+		assertFalse(myTermSvc.isValueSetPreExpandedForCodeValidation(valueSet));
+	}
+
+	@Test
+	public void testSearchWithInModifier() throws Exception {
+		loadAndPersistCodeSystemAndValueSetWithDesignations(HttpVerb.POST);
+		myTermSvc.preExpandDeferredValueSetsToTerminologyTables();
+
+		Observation obs = new Observation();
+		obs.getCode().addCoding().setSystem("http://acme.org").setCode("11378-7");
+		IIdType inId = myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+		obs = new Observation();
+		obs.getCode().addCoding().setSystem("http://acme.org").setCode("BOGUS");
+		myObservationDao.create(obs, mySrd);
+
+		SearchParameterMap params = SearchParameterMap.newSynchronous(Observation.SP_CODE, new TokenParam(null, VS_URL).setModifier(TokenParamModifier.IN));
+		assertThat(toUnqualifiedVersionlessIdValues(myObservationDao.search(params)), contains(inId.getValue()));
+
+		// The members are served from the cache once loaded
+		runInTransaction(() -> {
+			myTermValueSetConceptDesignationDao.deleteAll();
+			myTermValueSetConceptDao.deleteAll();
+		});
+		params = SearchParameterMap.newSynchronous(Observation.SP_CODE, new TokenParam(null, VS_URL).setModifier(TokenParamModifier.IN));
+		assertThat(toUnqualifiedVersionlessIdValues(myObservationDao.search(params)), contains(inId.getValue()));
+	}
+
+	@Test
+	public void testFindCode() {
+		TermValueSetMembership membership = TermValueSetMembership.fromRows(Arrays.asList(
+			new Object[]{"http://foo", "1", "B", "B1"},
+			new Object[]{"http://foo", "2", "B", "B2"},
+			new Object[]{"http://foo", "1", "A", "A1"},
+			new Object[]{"http://bar", null, "B", "BAR"}
+		));
+		assertEquals(4, membership.size());
+
+		assertThat(toDisplays(membership.findCode("http://foo", null, "B")), containsInAnyOrder("B1", "B2"));
+		assertThat(toDisplays(membership.findCode("http://foo", "2", "B")), contains("B2"));
+		assertThat(toDisplays(membership.findCode("http://foo", "3", "B")), empty());
+		assertThat(toDisplays(membership.findCode(null, null, "B")), containsInAnyOrder("B1", "B2", "BAR"));
+		assertThat(toDisplays(membership.findCode("http://bar", null, "A")), empty());
+		assertThat(toDisplays(membership.findCode("http://baz", null, "A")), empty());
+		assertThat(toDisplays(membership.toConceptList()), contains("BAR", "A1", "B1", "B2"));
+	}
+
+	private static List<String> toDisplays(List<FhirVersionIndependentConcept> theConcepts) {
+		return theConcepts.stream().map(FhirVersionIndependentConcept::getDisplay).collect(Collectors.toList());
+	}
+
+}
@@ -1,13 +1,21 @@
 package ca.uhn.fhir.jpa.term;
 
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
 import ca.uhn.fhir.jpa.dao.r4.BaseJpaR4Test;
 import ca.uhn.fhir.jpa.entity.TermCodeSystem;
 import ca.uhn.fhir.jpa.entity.TermCodeSystemVersion;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.AopTestUtils;
 
 import java.io.IOException;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -26,6 +34,33 @@ public class TerminologyLoaderSvcLoincJpaTest extends BaseJpaR4Test {
 		myFiles = new ZipCollectionBuilder();
 	}
 
+	@AfterEach
+	public void after() {
+		DaoConfig defaults = new DaoConfig();
+		myDaoConfig.setTermDeferredStorageWorkerEnabled(defaults.isTermDeferredStorageWorkerEnabled());
+		myDaoConfig.setDeferIndexingForCodesystemsOfSize(defaults.getDeferIndexingForCodesystemsOfSize());
+	}
+
+	@Test
+	public void testLoadLoincWithDeferredStorageWorker() throws IOException {
+		myDaoConfig.setTermDeferredStorageWorkerEnabled(true);
+		myDaoConfig.setDeferIndexingForCodesystemsOfSize(0);
+		TermDeferredStorageSvcImpl deferredStorageSvc = AopTestUtils.getTargetObject(myTerminologyDeferredStorageSvc);
+		long conceptsSavedBefore = deferredStorageSvc.getConceptsSaved();
+
+		TerminologyLoaderSvcLoincTest.addLoincMandatoryFilesWithPropertiesFileToZip(myFiles, "v267_loincupload.properties");
+		mySvc.loadLoinc(myFiles.getFiles(), mySrd);
+
+		// The worker drains the queue without anyone calling saveDeferred()
+		await().until(() -> runInTransaction(() -> myTermConceptMapDao.count()), equalTo(12L));
+		await().until(() -> myTerminologyDeferredStorageSvc.isStorageQueueEmpty());
+		runInTransaction(() -> {
+			assertEquals(2, myTermCodeSystemVersionDao.count());
+			assertEquals(24, myTermValueSetDao.count());
+		});
+		assertThat(deferredStorageSvc.getConceptsSaved(), greaterThan(conceptsSavedBefore));
+	}
+
 	@Test
 	public void testLoadLoincMultipleVersions() throws IOException {
 
@@ -0,0 +1,112 @@
+package ca.uhn.fhir.jpa.util;
+
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResourcePidListTest {
+
+	@Test
+	public void testAddAndGet() {
+		ResourcePidList list = new ResourcePidList();
+		assertTrue(list.isEmpty());
+		list.add(5);
+		list.add(new ResourcePersistentId(7L));
+		list.add(5);
+		list.add(Long.MIN_VALUE);
+
+		assertFalse(list.isEmpty());
+		assertEquals(4, list.size());
+		assertEquals(5, list.get(0));
+		assertEquals(7, list.get(1));
+		assertEquals(5, list.get(2));
+		assertEquals(Long.MIN_VALUE, list.get(3));
+		assertEquals("[5, 7, 5, " + Long.MIN_VALUE + "]", list.toString());
+	}
+
+	@Test
+	public void testGrowsBeyondInitialCapacity() {
+		ResourcePidList list = new ResourcePidList(2);
+		for (long i = 0; i < 1000; i++) {
+			list.add(i * 10);
+		}
+
+		assertEquals(1000, list.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i * 10L, list.get(i));
+		}
+	}
+
+	@Test
+	public void testGetOutOfBounds() {
+		ResourcePidList list = new ResourcePidList(10);
+		list.add(1);
+
+		// Capacity beyond the size isn't readable
+		IndexOutOfBoundsException e = assertThrows(IndexOutOfBoundsException.class, () -> list.get(1));
+		assertEquals("Index 1 is out of bounds for size 1", e.getMessage());
+
+		list.clear();
+		assertTrue(list.isEmpty());
+		assertThrows(IndexOutOfBoundsException.class, () -> list.get(0));
+	}
+
+	@Test
+	public void testAddAll() {
+		ResourcePidList list = ResourcePidList.fromPersistentIds(ResourcePersistentId.fromLongList(Arrays.asList(1L, 2L, 3L)));
+
+		ResourcePidList other = new ResourcePidList();
+		other.add(4);
+		other.add(5);
+		list.addAll(other);
+		list.addAll(ResourcePersistentId.fromLongList(Arrays.asList(6L, 7L)));
+		list.addAll(list);
+
+		assertEquals(14, list.size());
+		assertThat(list.toLongList(0, list.size()), contains(1L, 2L, 3L, 4L, 5L, 6L, 7L, 1L, 2L, 3L, 4L, 5L, 6L, 7L));
+		// The source list isn't affected
+		assertEquals(2, other.size());
+	}
+
+	@Test
+	public void testRanges() {
+		ResourcePidList list = new ResourcePidList();
+		for (long i = 0; i < 10; i++) {
+			list.add(i);
+		}
+
+		assertThat(list.toLongList(2, 5), contains(2L, 3L, 4L));
+		assertThat(list.toPersistentIdList(7, 10), contains(new ResourcePersistentId(7L), new ResourcePersistentId(8L), new ResourcePersistentId(9L)));
+		assertTrue(list.toLongList(4, 4).isEmpty());
+		assertThrows(IndexOutOfBoundsException.class, () -> list.toLongList(8, 11));
+	}
+
+	@Test
+	public void testPersistentIdView() {
+		ResourcePidList list = new ResourcePidList();
+		list.add(10);
+		list.add(20);
+
+		List<ResourcePersistentId> view = list.asPersistentIdList();
+		assertEquals(2, view.size());
+		assertEquals(new ResourcePersistentId(20L), view.get(1));
+
+		// The view reflects later changes to the list
+		list.add(30);
+		List<ResourcePersistentId> copy = new ArrayList<>(view);
+		assertThat(copy, contains(new ResourcePersistentId(10L), new ResourcePersistentId(20L), new ResourcePersistentId(30L)));
+
+		assertThrows(UnsupportedOperationException.class, () -> view.add(new ResourcePersistentId(40L)));
+	}
+
+}
@@ -0,0 +1,97 @@
+package ca.uhn.fhir.jpa.util;
+
+import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResourcePidSetTest {
+
+	@Test
+	public void testAddAndContains() {
+		ResourcePidSet set = new ResourcePidSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(5));
+		assertTrue(set.add(new ResourcePersistentId(7L)));
+		assertFalse(set.add(5));
+		assertTrue(set.add(Long.MIN_VALUE));
+		assertTrue(set.add(-3));
+
+		assertEquals(4, set.size());
+		assertTrue(set.contains(5));
+		assertTrue(set.contains(new ResourcePersistentId(7L)));
+		assertTrue(set.contains(Long.MIN_VALUE));
+		assertTrue(set.contains(-3));
+		assertFalse(set.contains(6));
+		assertFalse(set.isBitmap());
+	}
+
+	@Test
+	public void testDenseSetUsesBitmap() {
+		ResourcePidSet set = new ResourcePidSet();
+		Set<Long> expected = new HashSet<>();
+		for (long i = 1000; i < 1000 + ResourcePidSet.BITMAP_MIN_SIZE * 4; i += 3) {
+			set.add(i);
+			expected.add(i);
+		}
+
+		assertTrue(set.isBitmap());
+		assertSame(expected, set);
+
+		// Values below the current range
+		set.add(1);
+		expected.add(1L);
+		assertTrue(set.isBitmap());
+		assertSame(expected, set);
+	}
+
+	@Test
+	public void testSparseValueSwitchesBackToHashTable() {
+		ResourcePidSet set = new ResourcePidSet();
+		Set<Long> expected = new HashSet<>();
+		for (long i = 0; i < ResourcePidSet.BITMAP_MIN_SIZE * 2; i++) {
+			set.add(i);
+			expected.add(i);
+		}
+		assertTrue(set.isBitmap());
+
+		set.add(Long.MAX_VALUE);
+		expected.add(Long.MAX_VALUE);
+		assertFalse(set.isBitmap());
+		assertSame(expected, set);
+	}
+
+	@Test
+	public void testRandomValues() {
+		Random random = new Random(123L);
+		ResourcePidSet set = new ResourcePidSet();
+		Set<Long> expected = new HashSet<>();
+		for (int i = 0; i < 20000; i++) {
+			long next = i % 2 == 0 ? random.nextInt(30000) : random.nextLong();
+			assertEquals(expected.add(next), set.add(next));
+		}
+		assertSame(expected, set);
+
+		ResourcePidSet copy = new ResourcePidSet();
+		assertTrue(copy.addAll(set));
+		assertFalse(copy.addAll(set.toPidList()));
+		assertSame(expected, copy);
+	}
+
+	private static void assertSame(Set<Long> theExpected, ResourcePidSet theActual) {
+		assertEquals(theExpected.size(), theActual.size());
+		for (Long next : theExpected) {
+			assertTrue(theActual.contains(next), "Missing " + next);
+		}
+		Set<Long> actual = new HashSet<>();
+		theActual.forEach(actual::add);
+		assertEquals(theExpected, actual);
+	}
+
+}
@@ -83,6 +83,14 @@ public class HapiFhirJpaMigrationTasks extends BaseMigrationTasks<VersionEnum> {
 			.onTable("TRM_VALUESET_CONCEPT")
 			.addIndex("20210104.2", "IDX_VS_CONCEPT_CSCD").unique(true).withColumns("VALUESET_PID", "SYSTEM_URL", "CODEVAL");
 
+		// Resource encoding dictionaries
+		Builder.BuilderAddTableByColumns encDict = version.addTableByColumns("20210115.1", "HFJ_RES_ENC_DICT", "DICT_ID");
+		encDict.addColumn("DICT_ID").nonNullable().type(ColumnTypeEnum.LONG);
+		encDict.addColumn("RES_TYPE").nonNullable().type(ColumnTypeEnum.STRING, 40);
+		encDict.addColumn("CREATED_TIME").nonNullable().type(ColumnTypeEnum.DATE_TIMESTAMP);
+		encDict.addColumn("DICT_BYTES").nonNullable().type(ColumnTypeEnum.BLOB);
+		encDict.addIndex("20210115.2", "IDX_RES_ENC_DICT_TYPE").unique(false).withColumns("RES_TYPE", "CREATED_TIME");
+
 	}
 
 	protected void init520() {
@@ -44,6 +44,29 @@ public enum ResourceEncodingEnum {
 	 */
 	JSONC,
 
+	/**
+	 * Json compressed using Zstandard, optionally using a dictionary trained for
+	 * the resource type. The dictionary ID (if any) is stored in the Zstandard
+	 * frame header.
+	 *
+	 * @since 5.3.0
+	 */
+	JSONZ,
+
+	/**
+	 * Json compressed using the LZ4 frame format
+	 *
+	 * @since 5.3.0
+	 */
+	JSONL,
+
+	/**
+	 * Smile (binary JSON), encoded and parsed directly by the Smile parser
+	 *
+	 * @since 5.3.0
+	 */
+	SMILE,
+
 	/**
 	 * Resource was deleted - No contents expected
 	 */
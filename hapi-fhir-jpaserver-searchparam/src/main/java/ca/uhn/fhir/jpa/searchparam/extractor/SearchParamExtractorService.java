@@ -44,10 +44,10 @@ import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
 import ca.uhn.fhir.parser.DataFormatException;
-import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.api.server.storage.ResourcePersistentId;
 import ca.uhn.fhir.rest.api.server.storage.TransactionDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import com.google.common.annotations.VisibleForTesting;
@@ -61,13 +61,19 @@ import javax.annotation.Nonnull;
 import javax.validation.constraints.NotNull;
 import java.util.Collection;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 public class SearchParamExtractorService {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchParamExtractorService.class);
+	private static final String PRE_EXTRACTED_SEARCH_PARAMS_KEY = SearchParamExtractorService.class.getName() + "_PRE_EXTRACTED_SEARCH_PARAMS";
 
 	@Autowired
 	private ISearchParamExtractor mySearchParamExtractor;
@@ -91,10 +97,25 @@ public class SearchParamExtractorService {
 	 * a given resource type, it extracts the associated indexes and populates {@literal theParams}.
 	 */
 	public void extractFromResource(RequestPartitionId theRequestPartitionId, RequestDetails theRequestDetails, ResourceIndexedSearchParams theParams, ResourceTable theEntity, IBaseResource theResource, TransactionDetails theTransactionDetails, boolean theFailOnInvalidReference) {
-		IBaseResource resource = normalizeResource(theResource);
+		String encoded = encodeForNormalization(theResource);
+		PreExtractedSearchParams preExtracted = removePreExtractedSearchParams(theTransactionDetails, theResource);
 
-		// All search parameter types except Reference
-		extractSearchIndexParameters(theRequestDetails, theParams, resource, theEntity);
+		IBaseResource resource;
+		if (preExtracted != null && preExtracted.getEncoded().equals(encoded)) {
+
+			// All search parameter types except Reference were extracted ahead of time
+			resource = preExtracted.getNormalizedResource();
+			addAll(theParams, preExtracted.getParams());
+			populateResourceTables(theParams, theEntity);
+
+		} else {
+
+			resource = parseForNormalization(encoded);
+
+			// All search parameter types except Reference
+			extractSearchIndexParameters(theRequestDetails, theParams, resource, theEntity);
+
+		}
 
 		// Reference search parameters
 		extractResourceLinks(theRequestPartitionId, theParams, theEntity, resource, theTransactionDetails, theFailOnInvalidReference, theRequestDetails);
@@ -102,7 +123,64 @@ public class SearchParamExtractorService {
 		theParams.setUpdatedTime(theTransactionDetails.getTransactionDate());
 	}
 
+	/**
+	 * Extracts the values for all search parameter types except Reference for a collection of resources
+	 * using the given executor. These values can be extracted without accessing the database, so this
+	 * can be done for several resources concurrently.
+	 * <p>
+	 * The extracted values are stored in the {@link TransactionDetails} and used by
+	 * {@link #extractFromResource(RequestPartitionId, RequestDetails, ResourceIndexedSearchParams, ResourceTable, IBaseResource, TransactionDetails, boolean)}
+	 * when each resource is indexed later in the same transaction. If a resource has been modified
+	 * in the meantime, its values are extracted again at that point instead.
+	 * </p>
+	 */
+	public void preExtractSearchIndexParameters(RequestDetails theRequestDetails, TransactionDetails theTransactionDetails, Collection<IBaseResource> theResources, ExecutorService theExecutorService) {
+		Map<IBaseResource, Future<PreExtractedSearchParams>> futures = new IdentityHashMap<>();
+		for (IBaseResource next : theResources) {
+			futures.put(next, theExecutorService.submit(() -> preExtractSearchIndexParameters(theRequestDetails, next)));
+		}
+
+		Map<IBaseResource, PreExtractedSearchParams> preExtracted = theTransactionDetails.getOrCreateUserData(PRE_EXTRACTED_SEARCH_PARAMS_KEY, IdentityHashMap::new);
+		for (Map.Entry<IBaseResource, Future<PreExtractedSearchParams>> next : futures.entrySet()) {
+			try {
+				preExtracted.put(next.getKey(), next.getValue().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InternalErrorException(e);
+			} catch (ExecutionException e) {
+				// The same failure will be raised when the resource is indexed
+				ourLog.debug("Failed to pre-extract search parameters for resource {}", next.getKey().getIdElement().getValue(), e.getCause());
+			}
+		}
+	}
+
+	private PreExtractedSearchParams preExtractSearchIndexParameters(RequestDetails theRequestDetails, IBaseResource theResource) {
+		String encoded = encodeForNormalization(theResource);
+		IBaseResource resource = parseForNormalization(encoded);
+		ResourceIndexedSearchParams params = new ResourceIndexedSearchParams();
+		extractSearchIndexParameters(theRequestDetails, params, resource);
+		return new PreExtractedSearchParams(encoded, resource, params);
+	}
+
+	private PreExtractedSearchParams removePreExtractedSearchParams(TransactionDetails theTransactionDetails, IBaseResource theResource) {
+		if (theTransactionDetails == null) {
+			return null;
+		}
+		Map<IBaseResource, PreExtractedSearchParams> preExtracted = theTransactionDetails.getUserData(PRE_EXTRACTED_SEARCH_PARAMS_KEY);
+		if (preExtracted == null) {
+			return null;
+		}
+		return preExtracted.remove(theResource);
+	}
+
 	private void extractSearchIndexParameters(RequestDetails theRequestDetails, ResourceIndexedSearchParams theParams, IBaseResource theResource, ResourceTable theEntity) {
+		extractSearchIndexParameters(theRequestDetails, theParams, theResource);
+
+		// Do this after, because we add to strings during both string and token processing
+		populateResourceTables(theParams, theEntity);
+	}
+
+	private void extractSearchIndexParameters(RequestDetails theRequestDetails, ResourceIndexedSearchParams theParams, IBaseResource theResource) {
 
 		// Strings
 		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamString> strings = extractSearchParamStrings(theResource);
@@ -148,7 +226,9 @@ public class SearchParamExtractorService {
 			}
 		}
 
-		// Do this after, because we add to strings during both string and token processing
+	}
+
+	private void populateResourceTables(ResourceIndexedSearchParams theParams, ResourceTable theEntity) {
 		populateResourceTable(theParams.myNumberParams, theEntity);
 		populateResourceTable(theParams.myQuantityParams, theEntity);
 		populateResourceTable(theParams.myDateParams, theEntity);
@@ -156,7 +236,16 @@ public class SearchParamExtractorService {
 		populateResourceTable(theParams.myTokenParams, theEntity);
 		populateResourceTable(theParams.myStringParams, theEntity);
 		populateResourceTable(theParams.myCoordsParams, theEntity);
+	}
 
+	private static void addAll(ResourceIndexedSearchParams theTarget, ResourceIndexedSearchParams theSource) {
+		theTarget.myStringParams.addAll(theSource.myStringParams);
+		theTarget.myTokenParams.addAll(theSource.myTokenParams);
+		theTarget.myNumberParams.addAll(theSource.myNumberParams);
+		theTarget.myQuantityParams.addAll(theSource.myQuantityParams);
+		theTarget.myDateParams.addAll(theSource.myDateParams);
+		theTarget.myUriParams.addAll(theSource.myUriParams);
+		theTarget.myCoordsParams.addAll(theSource.myCoordsParams);
 	}
 
 	/**
@@ -168,10 +257,12 @@ public class SearchParamExtractorService {
 	 * As a result, we to a serialize-and-parse to normalize the object. This really only affects people who
 	 * are calling the JPA DAOs directly, but there are a few of those...
 	 */
-	private IBaseResource normalizeResource(IBaseResource theResource) {
-		IParser parser = myContext.newJsonParser().setPrettyPrint(false);
-		theResource = parser.parseResource(parser.encodeResourceToString(theResource));
-		return theResource;
+	private String encodeForNormalization(IBaseResource theResource) {
+		return myContext.newJsonParser().setPrettyPrint(false).encodeResourceToString(theResource);
+	}
+
+	private IBaseResource parseForNormalization(String theEncoded) {
+		return myContext.newJsonParser().parseResource(theEncoded);
 	}
 
 	private void extractResourceLinks(RequestPartitionId theRequestPartitionId, ResourceIndexedSearchParams theParams, ResourceTable theEntity, IBaseResource theResource, TransactionDetails theTransactionDetails, boolean theFailOnInvalidReference, RequestDetails theRequest) {
@@ -403,5 +494,28 @@ public class SearchParamExtractorService {
 	public List<String> extractParamValuesAsStrings(RuntimeSearchParam theActiveSearchParam, IBaseResource theResource) {
 		return mySearchParamExtractor.extractParamValuesAsStrings(theActiveSearchParam, theResource);
 	}
-}
+	private static class PreExtractedSearchParams {
+		private final String myEncoded;
+		private final IBaseResource myNormalizedResource;
+		private final ResourceIndexedSearchParams myParams;
+
+		PreExtractedSearchParams(String theEncoded, IBaseResource theNormalizedResource, ResourceIndexedSearchParams theParams) {
+			myEncoded = theEncoded;
+			myNormalizedResource = theNormalizedResource;
+			myParams = theParams;
+		}
+
+		String getEncoded() {
+			return myEncoded;
+		}
+
+		IBaseResource getNormalizedResource() {
+			return myNormalizedResource;
+		}
 
+		ResourceIndexedSearchParams getParams() {
+			return myParams;
+		}
+	}
+
+}
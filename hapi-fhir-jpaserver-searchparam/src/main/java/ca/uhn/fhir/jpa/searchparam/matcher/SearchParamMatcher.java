@@ -22,6 +22,7 @@ package ca.uhn.fhir.jpa.searchparam.matcher;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
@@ -37,12 +38,37 @@ public class SearchParamMatcher {
 	private IndexedSearchParamExtractor myIndexedSearchParamExtractor;
 	@Autowired
 	private InMemoryResourceMatcher myInMemoryResourceMatcher;
+	@Autowired
+	private MatchUrlService myMatchUrlService;
 
 	public InMemoryMatchResult match(String theCriteria, IBaseResource theResource, RequestDetails theRequest) {
 		ResourceIndexedSearchParams resourceIndexedSearchParams = myIndexedSearchParamExtractor.extractIndexedSearchParams(theResource, theRequest);
 		return myInMemoryResourceMatcher.match(theCriteria, theResource, resourceIndexedSearchParams);
 	}
 
+	/**
+	 * Matches a resource whose search parameters have already been extracted
+	 * (e.g. by {@link #extractIndexedSearchParams(IBaseResource, RequestDetails)})
+	 */
+	public InMemoryMatchResult matchIndexed(String theCriteria, IBaseResource theResource, ResourceIndexedSearchParams theResourceIndexedSearchParams) {
+		return myInMemoryResourceMatcher.match(theCriteria, theResource, theResourceIndexedSearchParams);
+	}
+
+	/**
+	 * Parses criteria in the form accepted by {@link #match(String, IBaseResource, RequestDetails)}
+	 *
+	 * @throws UnsupportedOperationException If the criteria can't be parsed
+	 */
+	public SearchParameterMap translateCriteria(String theCriteria, RuntimeResourceDefinition theResourceDefinition) {
+		SearchParameterMap retVal = myMatchUrlService.translateMatchUrl(theCriteria, theResourceDefinition);
+		retVal.clean();
+		return retVal;
+	}
+
+	public ResourceIndexedSearchParams extractIndexedSearchParams(IBaseResource theResource, RequestDetails theRequest) {
+		return myIndexedSearchParamExtractor.extractIndexedSearchParams(theResource, theRequest);
+	}
+
 	public InMemoryMatchResult match(SearchParameterMap theSearchParameterMap, IBaseResource theResource) {
 		if (theSearchParameterMap.isEmpty()) {
 			return InMemoryMatchResult.successfulMatch();
@@ -0,0 +1,363 @@
+package ca.uhn.fhir.jpa.searchparam.provider;
+
+/*-
+ * #%L
+ * HAPI FHIR Search Parameters
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamDate;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.model.entity.ResourceLink;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.util.StringUtil;
+import org.hl7.fhir.instance.model.api.IAnyResource;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Inverted indexes over the extracted search parameters of the resources held by a
+ * {@link SearchableHashMapResourceProvider}, used to narrow down the resources a
+ * search has to be evaluated against.
+ * <p>
+ * Tokens are indexed by <code>system|code</code>, by code and by system, references by
+ * target ID, strings by normalized value (so that prefix searches become range scans)
+ * and dates by both ends of their range in sorted maps. The indexes only ever produce
+ * <b>candidates</b>: every candidate is still checked by the in-memory matcher, so a
+ * parameter that can't be answered from the indexes simply isn't used for narrowing.
+ * </p>
+ * <p>
+ * This class is not thread safe, callers are expected to synchronize access.
+ * </p>
+ */
+class InMemorySearchParamIndex {
+
+	/**
+	 * Dates at day precision or coarser are matched on their ordinal (yyyyMMdd) value, which
+	 * can differ from the instant by the timezone offset, so date ranges are widened by this much
+	 */
+	private static final long DATE_SLOP_MILLIS = TimeUnit.DAYS.toMillis(2);
+	private static final Set<ParamPrefixEnum> INDEXED_DATE_PREFIXES = EnumSet.of(ParamPrefixEnum.EQUAL, ParamPrefixEnum.GREATERTHAN, ParamPrefixEnum.GREATERTHAN_OR_EQUALS, ParamPrefixEnum.LESSTHAN, ParamPrefixEnum.LESSTHAN_OR_EQUALS);
+
+	private final Map<String, ResourceIndexedSearchParams> myIdToParams = new HashMap<>();
+	private final Map<String, Long> myIdToSequence = new HashMap<>();
+	private final Map<String, Map<String, Set<String>>> myTokenSystemAndValueIndex = new HashMap<>();
+	private final Map<String, Map<String, Set<String>>> myTokenValueIndex = new HashMap<>();
+	private final Map<String, Map<String, Set<String>>> myTokenSystemIndex = new HashMap<>();
+	private final Map<String, NavigableMap<String, Set<String>>> myStringIndex = new HashMap<>();
+	private final Map<String, NavigableMap<Long, Set<String>>> myDateLowIndex = new HashMap<>();
+	private final Map<String, NavigableMap<Long, Set<String>>> myDateHighIndex = new HashMap<>();
+	private final Map<String, Set<String>> myReferenceTargetIndex = new HashMap<>();
+	private long myNextSequence;
+
+	/**
+	 * Replaces the indexed parameters of a resource
+	 *
+	 * @param theParams The extracted parameters, or <code>null</code> if the resource was deleted
+	 */
+	void index(String theId, @Nullable ResourceIndexedSearchParams theParams) {
+		ResourceIndexedSearchParams existing = myIdToParams.remove(theId);
+		if (existing != null) {
+			update(theId, existing, false);
+		}
+		if (theParams != null) {
+			myIdToParams.put(theId, theParams);
+			myIdToSequence.computeIfAbsent(theId, t -> myNextSequence++);
+			update(theId, theParams, true);
+		} else {
+			// A resource that is re-created after being deleted is ordered as if it was new
+			myIdToSequence.remove(theId);
+		}
+	}
+
+	void clear() {
+		myIdToParams.clear();
+		myIdToSequence.clear();
+		myTokenSystemAndValueIndex.clear();
+		myTokenValueIndex.clear();
+		myTokenSystemIndex.clear();
+		myStringIndex.clear();
+		myDateLowIndex.clear();
+		myDateHighIndex.clear();
+		myReferenceTargetIndex.clear();
+		myNextSequence = 0;
+	}
+
+	@Nullable
+	ResourceIndexedSearchParams getIndexedParams(String theId) {
+		return myIdToParams.get(theId);
+	}
+
+	/**
+	 * Returns the IDs of the resources that may match the given parameters, in the
+	 * order the resources were first stored (or re-created after a delete), or <code>null</code> if none of the
+	 * parameters can be answered from the indexes.
+	 * <p>
+	 * Each parameter is resolved to a candidate set on its own, and the sets are then
+	 * intersected starting with the smallest (i.e. the most selective) one, stopping
+	 * as soon as the intersection is empty.
+	 * </p>
+	 */
+	@Nullable
+	List<String> findCandidates(SearchParameterMap theParams) {
+		List<Set<String>> candidateSets = new ArrayList<>();
+		for (Map.Entry<String, List<List<IQueryParameterType>>> next : theParams.entrySet()) {
+			Set<String> candidates = findCandidates(next.getKey(), next.getValue());
+			if (candidates == null) {
+				continue;
+			}
+			if (candidates.isEmpty()) {
+				return Collections.emptyList();
+			}
+			candidateSets.add(candidates);
+		}
+		if (candidateSets.isEmpty()) {
+			return null;
+		}
+
+		candidateSets.sort(Comparator.comparingInt(Set::size));
+		Set<String> intersection = new HashSet<>(candidateSets.get(0));
+		for (int i = 1; i < candidateSets.size() && !intersection.isEmpty(); i++) {
+			intersection.retainAll(candidateSets.get(i));
+		}
+
+		List<String> retVal = new ArrayList<>(intersection);
+		retVal.sort(Comparator.comparing(myIdToSequence::get));
+		return retVal;
+	}
+
+	/**
+	 * Returns the candidates for one parameter, or <code>null</code> if it can't be
+	 * answered from the indexes. Like the in-memory matcher, a resource is a candidate
+	 * if it matches any of the values given for the parameter.
+	 */
+	@Nullable
+	private Set<String> findCandidates(String theParamName, List<List<IQueryParameterType>> theAndOrParams) {
+		String paramName = theParamName.toLowerCase();
+		Set<String> retVal = new HashSet<>();
+		for (List<IQueryParameterType> nextAnd : theAndOrParams) {
+			for (IQueryParameterType nextOr : nextAnd) {
+				Collection<String> candidates;
+				if (IAnyResource.SP_RES_ID.equals(theParamName)) {
+					candidates = findIdCandidates(nextOr);
+				} else if (nextOr.getQueryParameterQualifier() != null) {
+					candidates = null;
+				} else if (nextOr instanceof TokenParam) {
+					candidates = findTokenCandidates(paramName, (TokenParam) nextOr);
+				} else if (nextOr instanceof StringParam) {
+					candidates = findStringCandidates(paramName, (StringParam) nextOr);
+				} else if (nextOr instanceof DateParam) {
+					candidates = findDateCandidates(paramName, (DateParam) nextOr);
+				} else if (nextOr instanceof ReferenceParam) {
+					candidates = findReferenceCandidates((ReferenceParam) nextOr);
+				} else {
+					candidates = null;
+				}
+
+				if (candidates == null) {
+					return null;
+				}
+				retVal.addAll(candidates);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * The <code>_id</code> parameter may be parsed as a string, token or reference
+	 * parameter, and its value may be a plain ID or a relative reference
+	 * (e.g. <code>Patient/123</code>). Anything else falls back to a full scan.
+	 */
+	@Nullable
+	private Collection<String> findIdCandidates(IQueryParameterType theParam) {
+		if (theParam.getQueryParameterQualifier() != null) {
+			return null;
+		}
+
+		String idPart;
+		if (theParam instanceof StringParam) {
+			idPart = new IdDt(((StringParam) theParam).getValue()).getIdPart();
+		} else if (theParam instanceof TokenParam) {
+			idPart = new IdDt(((TokenParam) theParam).getValue()).getIdPart();
+		} else if (theParam instanceof ReferenceParam) {
+			ReferenceParam reference = (ReferenceParam) theParam;
+			if (isNotBlank(reference.getChain()) || isNotBlank(reference.getBaseUrl())) {
+				return null;
+			}
+			idPart = reference.getIdPart();
+		} else {
+			return null;
+		}
+
+		if (isBlank(idPart)) {
+			return null;
+		}
+		return myIdToParams.containsKey(idPart) ? Collections.singleton(idPart) : Collections.emptySet();
+	}
+
+	@Nullable
+	private Collection<String> findTokenCandidates(String theParamName, TokenParam theParam) {
+		String system = defaultString(theParam.getSystem()).toLowerCase();
+		String value = defaultString(theParam.getValue()).toLowerCase();
+		if (system.isEmpty()) {
+			if (value.isEmpty()) {
+				return null;
+			}
+			return get(myTokenValueIndex, theParamName, value);
+		}
+		if (value.isEmpty()) {
+			return get(myTokenSystemIndex, theParamName, system);
+		}
+		return get(myTokenSystemAndValueIndex, theParamName, system + "|" + value);
+	}
+
+	@Nullable
+	private Collection<String> findStringCandidates(String theParamName, StringParam theParam) {
+		String prefix = StringUtil.normalizeStringForSearchIndexing(defaultString(theParam.getValue()));
+		if (prefix.isEmpty()) {
+			return null;
+		}
+		NavigableMap<String, Set<String>> index = myStringIndex.get(theParamName);
+		if (index == null) {
+			return Collections.emptySet();
+		}
+		return union(index.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values());
+	}
+
+	@Nullable
+	private Collection<String> findDateCandidates(String theParamName, DateParam theParam) {
+		if (theParam.getValue() == null || (theParam.getPrefix() != null && !INDEXED_DATE_PREFIXES.contains(theParam.getPrefix()))) {
+			return null;
+		}
+
+		DateRangeParam range = new DateRangeParam(theParam);
+		Date lowerBound = range.getLowerBoundAsInstant();
+		Date upperBound = range.getUpperBoundAsInstant();
+
+		Set<String> retVal = null;
+		if (lowerBound != null) {
+			// Anything ending before the lower bound can't match
+			NavigableMap<Long, Set<String>> index = myDateHighIndex.getOrDefault(theParamName, Collections.emptyNavigableMap());
+			retVal = union(index.tailMap(lowerBound.getTime() - DATE_SLOP_MILLIS, true).values());
+		}
+		if (upperBound != null) {
+			// Anything starting after the upper bound can't match
+			NavigableMap<Long, Set<String>> index = myDateLowIndex.getOrDefault(theParamName, Collections.emptyNavigableMap());
+			Set<String> candidates = union(index.headMap(upperBound.getTime() + DATE_SLOP_MILLIS, true).values());
+			if (retVal == null) {
+				retVal = candidates;
+			} else {
+				retVal.retainAll(candidates);
+			}
+		}
+		return retVal;
+	}
+
+	@Nullable
+	private Collection<String> findReferenceCandidates(ReferenceParam theParam) {
+		if (isNotBlank(theParam.getChain()) || isNotBlank(theParam.getBaseUrl()) || isBlank(theParam.getIdPart())) {
+			return null;
+		}
+		// Indexed regardless of the parameter, so this is only narrowed by the target ID
+		return myReferenceTargetIndex.getOrDefault(theParam.getIdPart(), Collections.emptySet());
+	}
+
+	private void update(String theId, ResourceIndexedSearchParams theParams, boolean theAdd) {
+		for (ResourceIndexedSearchParamToken next : theParams.myTokenParams) {
+			String paramName = next.getParamName().toLowerCase();
+			String system = defaultString(next.getSystem()).toLowerCase();
+			String value = defaultString(next.getValue()).toLowerCase();
+			update(myTokenValueIndex.computeIfAbsent(paramName, t -> new HashMap<>()), value, theId, theAdd);
+			update(myTokenSystemIndex.computeIfAbsent(paramName, t -> new HashMap<>()), system, theId, theAdd);
+			update(myTokenSystemAndValueIndex.computeIfAbsent(paramName, t -> new HashMap<>()), system + "|" + value, theId, theAdd);
+		}
+		for (ResourceIndexedSearchParamString next : theParams.myStringParams) {
+			String paramName = next.getParamName().toLowerCase();
+			update(myStringIndex.computeIfAbsent(paramName, t -> new TreeMap<>()), defaultString(next.getValueNormalized()), theId, theAdd);
+		}
+		for (ResourceIndexedSearchParamDate next : theParams.myDateParams) {
+			String paramName = next.getParamName().toLowerCase();
+			long low = next.getValueLow() != null ? next.getValueLow().getTime() : Long.MIN_VALUE;
+			long high = next.getValueHigh() != null ? next.getValueHigh().getTime() : Long.MAX_VALUE;
+			update(myDateLowIndex.computeIfAbsent(paramName, t -> new TreeMap<>()), low, theId, theAdd);
+			update(myDateHighIndex.computeIfAbsent(paramName, t -> new TreeMap<>()), high, theId, theAdd);
+		}
+		for (ResourceLink next : theParams.myLinks) {
+			if (isNotBlank(next.getTargetResourceId())) {
+				update(myReferenceTargetIndex, next.getTargetResourceId(), theId, theAdd);
+			}
+		}
+	}
+
+	private static <K> void update(Map<K, Set<String>> theIndex, K theKey, String theId, boolean theAdd) {
+		if (theAdd) {
+			theIndex.computeIfAbsent(theKey, t -> new HashSet<>()).add(theId);
+		} else {
+			Set<String> ids = theIndex.get(theKey);
+			if (ids != null) {
+				ids.remove(theId);
+				if (ids.isEmpty()) {
+					theIndex.remove(theKey);
+				}
+			}
+		}
+	}
+
+	private static Set<String> get(Map<String, Map<String, Set<String>>> theIndex, String theParamName, String theKey) {
+		Map<String, Set<String>> index = theIndex.get(theParamName);
+		if (index == null) {
+			return Collections.emptySet();
+		}
+		return index.getOrDefault(theKey, Collections.emptySet());
+	}
+
+	private static Set<String> union(Collection<Set<String>> theSets) {
+		Set<String> retVal = new HashSet<>();
+		for (Set<String> next : theSets) {
+			retVal.addAll(next);
+		}
+		return retVal;
+	}
+}
@@ -21,7 +21,9 @@ package ca.uhn.fhir.jpa.searchparam.provider;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
 import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
@@ -29,12 +31,25 @@ import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.provider.HashMapResourceProvider;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Function;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
 
+/**
+ * A {@link HashMapResourceProvider} that can be searched with arbitrary criteria.
+ * <p>
+ * The search parameters of every stored resource are extracted once, when it is
+ * stored, and kept in inverted indexes (see {@link InMemorySearchParamIndex}). A search
+ * first uses these indexes to find the resources that can possibly match, intersecting
+ * the most selective parameter first, and then only runs the in-memory matcher against
+ * those candidates, reusing the already extracted parameters.
+ * </p>
+ */
 public class SearchableHashMapResourceProvider<T extends IBaseResource> extends HashMapResourceProvider<T> {
 	private final SearchParamMatcher mySearchParamMatcher;
+	private final InMemorySearchParamIndex mySearchParamIndex = new InMemorySearchParamIndex();
 
 	/**
 	 * Constructor
@@ -47,22 +62,47 @@ public class SearchableHashMapResourceProvider<T extends IBaseResource> extends
 		mySearchParamMatcher = theSearchParamMatcher;
 	}
 
-	public List<IBaseResource> searchByCriteria(String theCriteria, RequestDetails theRequest) {
-		return searchBy(resource -> mySearchParamMatcher.match(theCriteria, resource, theRequest), theRequest);
-
+	public synchronized List<IBaseResource> searchByCriteria(String theCriteria, RequestDetails theRequest) {
+		RuntimeResourceDefinition resourceDefinition = getFhirContext().getResourceDefinition(getResourceType());
+		SearchParameterMap searchParams;
+		try {
+			searchParams = mySearchParamMatcher.translateCriteria(theCriteria, resourceDefinition);
+		} catch (UnsupportedOperationException e) {
+			// Let the matcher report the problem
+			searchParams = null;
+		}
+		return searchBy(searchParams, (resource, indexedParams) -> mySearchParamMatcher.matchIndexed(theCriteria, resource, indexedParams), theRequest);
 	}
 
-	public List<IBaseResource> searchByParams(SearchParameterMap theSearchParams, RequestDetails theRequest) {
-		return searchBy(resource -> mySearchParamMatcher.match(theSearchParams.toNormalizedQueryString(getFhirContext()), resource, theRequest), theRequest);
+	public synchronized List<IBaseResource> searchByParams(SearchParameterMap theSearchParams, RequestDetails theRequest) {
+		String criteria = theSearchParams.toNormalizedQueryString(getFhirContext());
+		return searchBy(theSearchParams, (resource, indexedParams) -> mySearchParamMatcher.matchIndexed(criteria, resource, indexedParams), theRequest);
 	}
 
-	private List<IBaseResource> searchBy(Function<IBaseResource, InMemoryMatchResult> theMatcher, RequestDetails theRequest) {
+	private List<IBaseResource> searchBy(@Nullable SearchParameterMap theSearchParams, BiFunction<IBaseResource, ResourceIndexedSearchParams, InMemoryMatchResult> theMatcher, RequestDetails theRequest) {
 		mySearchCount.incrementAndGet();
-		List<T> allEResources = getAllResources();
+
+		List<String> candidateIds = theSearchParams != null ? mySearchParamIndex.findCandidates(theSearchParams) : null;
+		List<T> candidates;
+		if (candidateIds == null) {
+			candidates = getAllResources();
+		} else {
+			candidates = new ArrayList<>(candidateIds.size());
+			for (String next : candidateIds) {
+				TreeMap<Long, T> versions = myIdToVersionToResourceMap.get(next);
+				if (versions != null && !versions.isEmpty() && versions.lastEntry().getValue() != null) {
+					candidates.add(versions.lastEntry().getValue());
+				}
+			}
+		}
 
 		List<T> matches = new ArrayList<>();
-		for (T resource : allEResources) {
-			InMemoryMatchResult result = theMatcher.apply(resource);
+		for (T resource : candidates) {
+			ResourceIndexedSearchParams indexedParams = mySearchParamIndex.getIndexedParams(resource.getIdElement().getIdPart());
+			if (indexedParams == null) {
+				indexedParams = mySearchParamMatcher.extractIndexedSearchParams(resource, theRequest);
+			}
+			InMemoryMatchResult result = theMatcher.apply(resource, indexedParams);
 			if (!result.supported()) {
 				throw new InvalidRequestException("Search not supported by in-memory matcher: "+result.getUnsupportedReason());
 			}
@@ -72,4 +112,22 @@ public class SearchableHashMapResourceProvider<T extends IBaseResource> extends
 		}
 		return fireInterceptorsAndFilterAsNeeded(matches, theRequest);
 	}
+
+	@Override
+	protected void onCurrentVersionStored(String theIdPart, @Nullable T theResource) {
+		ResourceIndexedSearchParams indexedParams = null;
+		if (theResource != null) {
+			indexedParams = mySearchParamMatcher.extractIndexedSearchParams(theResource, null);
+		}
+		mySearchParamIndex.index(theIdPart, indexedParams);
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		// This is also called by the superclass constructor, before the index exists
+		if (mySearchParamIndex != null) {
+			mySearchParamIndex.clear();
+		}
+	}
 }
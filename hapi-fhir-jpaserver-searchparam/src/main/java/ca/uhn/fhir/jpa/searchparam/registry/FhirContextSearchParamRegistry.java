@@ -0,0 +1,115 @@
+package ca.uhn.fhir.jpa.searchparam.registry;
+
+/*-
+ * #%L
+ * HAPI FHIR Search Parameters
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.context.phonetic.IPhoneticEncoder;
+import ca.uhn.fhir.jpa.cache.ResourceChangeResult;
+import ca.uhn.fhir.jpa.searchparam.JpaRuntimeSearchParam;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A search parameter registry that only knows about the built-in search
+ * parameters of the {@link FhirContext}. This is useful for code which indexes or
+ * matches resources without a database of SearchParameter resources, so there is
+ * nothing to refresh and no unique (composite) search parameters.
+ */
+public class FhirContextSearchParamRegistry implements ISearchParamRegistry {
+
+	private final FhirContext myFhirContext;
+	private final ReadOnlySearchParamCache myActiveSearchParams;
+	private final Map<String, Map<String, RuntimeSearchParam>> myResourceNameToParams = new ConcurrentHashMap<>();
+
+	public FhirContextSearchParamRegistry(FhirContext theFhirContext) {
+		myFhirContext = theFhirContext;
+		myActiveSearchParams = ReadOnlySearchParamCache.fromFhirContext(theFhirContext);
+	}
+
+	@Override
+	public void forceRefresh() {
+		// nothing
+	}
+
+	@Override
+	public RuntimeSearchParam getActiveSearchParam(String theResourceName, String theParamName) {
+		return getActiveSearchParams(theResourceName).get(theParamName);
+	}
+
+	@Override
+	public ResourceChangeResult refreshCacheIfNecessary() {
+		return new ResourceChangeResult();
+	}
+
+	@Override
+	public ReadOnlySearchParamCache getActiveSearchParams() {
+		return myActiveSearchParams;
+	}
+
+	@Override
+	public Map<String, RuntimeSearchParam> getActiveSearchParams(String theResourceName) {
+		return myResourceNameToParams.computeIfAbsent(theResourceName, t -> {
+			Map<String, RuntimeSearchParam> retVal = new HashMap<>();
+			for (RuntimeSearchParam next : myFhirContext.getResourceDefinition(t).getSearchParams()) {
+				retVal.put(next.getName(), next);
+			}
+			return Collections.unmodifiableMap(retVal);
+		});
+	}
+
+	@Override
+	public List<JpaRuntimeSearchParam> getActiveUniqueSearchParams(String theResourceName, Set<String> theParamNames) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public List<JpaRuntimeSearchParam> getActiveUniqueSearchParams(String theResourceName) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void requestRefresh() {
+		// nothing
+	}
+
+	@Override
+	public RuntimeSearchParam getSearchParamByName(RuntimeResourceDefinition theResourceDef, String theParamName) {
+		return getActiveSearchParam(theResourceDef.getName(), theParamName);
+	}
+
+	@Override
+	public Collection<RuntimeSearchParam> getSearchParamsByResourceType(RuntimeResourceDefinition theResourceDef) {
+		return getActiveSearchParams(theResourceDef.getName()).values();
+	}
+
+	@Override
+	public void setPhoneticEncoder(IPhoneticEncoder thePhoneticEncoder) {
+		// nothing
+	}
+}
@@ -0,0 +1,135 @@
+package ca.uhn.fhir.jpa.searchparam.provider;
+
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamDate;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.model.entity.ResourceLink;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.NumberParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.TokenParamModifier;
+import ca.uhn.fhir.util.StringUtil;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class InMemorySearchParamIndexTest {
+
+	private final PartitionSettings myPartitionSettings = new PartitionSettings();
+	private final ModelConfig myModelConfig = new ModelConfig();
+	private InMemorySearchParamIndex myIndex;
+
+	@BeforeEach
+	public void before() {
+		myIndex = new InMemorySearchParamIndex();
+		myIndex.index("1", newParams("http://loinc.org", "1234-5", "Smith", "2020-01-10", "Patient/A"));
+		myIndex.index("2", newParams("http://loinc.org", "1234-5", "Smithers", "2020-06-10", "Patient/B"));
+		myIndex.index("3", newParams("http://loinc.org", "9999-9", "Jones", "2020-01-10", "Patient/A"));
+	}
+
+	@Test
+	public void testToken() {
+		assertThat(myIndex.findCandidates(map("code", new TokenParam("http://loinc.org", "1234-5"))), contains("1", "2"));
+		assertThat(myIndex.findCandidates(map("code", new TokenParam(null, "9999-9"))), contains("3"));
+		assertThat(myIndex.findCandidates(map("code", new TokenParam("http://loinc.org", null))), contains("1", "2", "3"));
+		assertThat(myIndex.findCandidates(map("code", new TokenParam("http://other", "1234-5"))), empty());
+	}
+
+	@Test
+	public void testStringPrefix() {
+		assertThat(myIndex.findCandidates(map("name", new StringParam("smith"))), contains("1", "2"));
+		assertThat(myIndex.findCandidates(map("name", new StringParam("SMITHE"))), contains("2"));
+		assertNull(myIndex.findCandidates(map("name", new StringParam("mit").setContains(true))));
+	}
+
+	@Test
+	public void testDate() {
+		assertThat(myIndex.findCandidates(map("date", new DateParam(ParamPrefixEnum.GREATERTHAN_OR_EQUALS, "2020-05-01"))), contains("2"));
+		assertThat(myIndex.findCandidates(map("date", new DateParam(ParamPrefixEnum.LESSTHAN, "2020-05-01"))), contains("1", "3"));
+		assertNull(myIndex.findCandidates(map("date", new DateParam(ParamPrefixEnum.NOT_EQUAL, "2020-05-01"))));
+	}
+
+	@Test
+	public void testReference() {
+		assertThat(myIndex.findCandidates(map("subject", new ReferenceParam("Patient/A"))), contains("1", "3"));
+		assertNull(myIndex.findCandidates(map("subject", new ReferenceParam("name", "Smith"))));
+	}
+
+	@Test
+	public void testIntersectAcrossParameters() {
+		SearchParameterMap params = map("code", new TokenParam("http://loinc.org", "1234-5"));
+		params.add("subject", new ReferenceParam("Patient/A"));
+		params.add("value", new NumberParam(5));
+		assertThat(myIndex.findCandidates(params), contains("1"));
+
+		assertNull(myIndex.findCandidates(map("value", new NumberParam(5))));
+	}
+
+	@Test
+	public void testReindexAndDelete() {
+		myIndex.index("1", newParams("http://loinc.org", "9999-9", "Smith", "2020-01-10", "Patient/A"));
+		assertThat(myIndex.findCandidates(map("code", new TokenParam(null, "9999-9"))), contains("1", "3"));
+		assertThat(myIndex.findCandidates(map("code", new TokenParam(null, "1234-5"))), contains("2"));
+
+		myIndex.index("3", null);
+		assertThat(myIndex.findCandidates(map("code", new TokenParam(null, "9999-9"))), contains("1"));
+		assertThat(myIndex.findCandidates(map("_id", new StringParam("3"))), empty());
+	}
+
+	@Test
+	public void testDeleteAndRecreate() {
+		myIndex.index("1", null);
+		assertThat(myIndex.findCandidates(map("code", new TokenParam("http://loinc.org", null))), contains("2", "3"));
+
+		// The deleted resource no longer holds its place, so it is ordered as a new resource
+		myIndex.index("1", newParams("http://loinc.org", "1234-5", "Smith", "2020-01-10", "Patient/A"));
+		assertThat(myIndex.findCandidates(map("code", new TokenParam("http://loinc.org", null))), contains("2", "3", "1"));
+	}
+
+	@Test
+	public void testId() {
+		assertThat(myIndex.findCandidates(map("_id", new StringParam("2"))), contains("2"));
+		assertThat(myIndex.findCandidates(map("_id", new StringParam("Observation/2"))), contains("2"));
+		assertThat(myIndex.findCandidates(map("_id", new TokenParam(null, "2"))), contains("2"));
+		assertThat(myIndex.findCandidates(map("_id", new TokenParam(null, "Observation/3"))), contains("3"));
+		assertThat(myIndex.findCandidates(map("_id", new ReferenceParam("Observation/1"))), contains("1"));
+		assertThat(myIndex.findCandidates(map("_id", new TokenParam(null, "4"))), empty());
+		assertNull(myIndex.findCandidates(map("_id", new TokenParam(null, "2").setModifier(TokenParamModifier.NOT))));
+		assertNull(myIndex.findCandidates(map("_id", new ReferenceParam("name", "Smith"))));
+	}
+
+	private SearchParameterMap map(String theParamName, IQueryParameterType theParam) {
+		return SearchParameterMap.newSynchronous(theParamName, theParam);
+	}
+
+	private ResourceIndexedSearchParams newParams(String theSystem, String theCode, String theName, String theDate, String theSubject) {
+		ResourceTable entity = new ResourceTable();
+		entity.setResourceType("Observation");
+		ResourceIndexedSearchParams retVal = new ResourceIndexedSearchParams(entity);
+		retVal.myTokenParams.add(new ResourceIndexedSearchParamToken(myPartitionSettings, "Observation", "code", theSystem, theCode));
+		retVal.myStringParams.add(new ResourceIndexedSearchParamString(myPartitionSettings, myModelConfig, "Observation", "name", StringUtil.normalizeStringForSearchIndexing(theName), theName));
+		DateTimeType date = new DateTimeType(theDate);
+		Date low = date.getValue();
+		Date high = new DateTimeType(theDate + "T23:59:59Z").getValue();
+		retVal.myDateParams.add(new ResourceIndexedSearchParamDate(myPartitionSettings, "Observation", "date", low, theDate, high, theDate, theDate));
+		String[] subject = theSubject.split("/");
+		retVal.myLinks.add(ResourceLink.forLocalReference("Observation.subject", entity, subject[0], null, subject[1], new Date()));
+		return retVal;
+	}
+}
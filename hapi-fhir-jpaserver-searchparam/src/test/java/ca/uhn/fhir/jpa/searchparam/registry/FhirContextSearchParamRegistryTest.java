@@ -0,0 +1,45 @@
+package ca.uhn.fhir.jpa.searchparam.registry;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FhirContextSearchParamRegistryTest {
+
+	private static final FhirContext ourFhirContext = FhirContext.forR4();
+
+	@Test
+	public void testBuiltInSearchParams() {
+		FhirContextSearchParamRegistry registry = new FhirContextSearchParamRegistry(ourFhirContext);
+
+		RuntimeSearchParam family = registry.getActiveSearchParam("Patient", "family");
+		assertEquals(RestSearchParameterTypeEnum.STRING, family.getParamType());
+		assertNull(registry.getActiveSearchParam("Patient", "foo"));
+		assertSame(family, registry.getSearchParamByName(ourFhirContext.getResourceDefinition("Patient"), "family"));
+
+		Map<String, RuntimeSearchParam> params = registry.getActiveSearchParams("Patient");
+		assertEquals(ourFhirContext.getResourceDefinition("Patient").getSearchParams().size(), params.size());
+		assertSame(params, registry.getActiveSearchParams("Patient"));
+		assertTrue(registry.getActiveSearchParams().getValidSearchParameterNamesIncludingMeta("Patient").contains("family"));
+	}
+
+	@Test
+	public void testNoUniqueSearchParams() {
+		FhirContextSearchParamRegistry registry = new FhirContextSearchParamRegistry(ourFhirContext);
+
+		assertThat(registry.getActiveUniqueSearchParams("Patient"), empty());
+		assertThat(registry.getActiveUniqueSearchParams("Patient", Collections.singleton("family")), empty());
+	}
+
+}
@@ -26,6 +26,7 @@ import ca.uhn.fhir.jpa.subscription.channel.subscription.SubscriptionDeliveryHan
 import ca.uhn.fhir.jpa.subscription.match.deliver.email.IEmailSender;
 import ca.uhn.fhir.jpa.subscription.match.deliver.email.SubscriptionDeliveringEmailSubscriber;
 import ca.uhn.fhir.jpa.subscription.match.deliver.message.SubscriptionDeliveringMessageSubscriber;
+import ca.uhn.fhir.jpa.subscription.match.deliver.resthook.AsyncRestHookDeliverySvc;
 import ca.uhn.fhir.jpa.subscription.match.deliver.resthook.SubscriptionDeliveringRestHookSubscriber;
 import ca.uhn.fhir.jpa.subscription.match.matcher.matching.CompositeInMemoryDaoSubscriptionMatcher;
 import ca.uhn.fhir.jpa.subscription.match.matcher.matching.DaoSubscriptionMatcher;
@@ -101,6 +102,11 @@ public class SubscriptionProcessorConfig {
 		return new SubscriptionDeliveringRestHookSubscriber();
 	}
 
+	@Bean
+	public AsyncRestHookDeliverySvc asyncRestHookDeliverySvc() {
+		return new AsyncRestHookDeliverySvc();
+	}
+
 	@Bean
 	@Scope("prototype")
 	public SubscriptionDeliveringMessageSubscriber subscriptionDeliveringMessageSubscriber() {
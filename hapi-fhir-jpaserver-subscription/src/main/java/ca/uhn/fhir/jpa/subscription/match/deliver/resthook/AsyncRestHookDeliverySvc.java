@@ -0,0 +1,492 @@
+package ca.uhn.fhir.jpa.subscription.match.deliver.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.config.DaoConfig;
+import ca.uhn.fhir.jpa.subscription.model.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.model.ResourceDeliveryMessage;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.util.BundleBuilder;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.time.DateUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Sends REST-hook deliveries using a non-blocking HTTP client, so that the delivery channel
+ * threads are never held while waiting for an endpoint to respond.
+ * <p>
+ * Each endpoint has its own queue, which is discarded again once it is empty and no request for the
+ * endpoint is in progress, and no more than
+ * {@link DaoConfig#getRestHookMaxConcurrentDeliveriesPerEndpoint()} requests are in progress
+ * for an endpoint at any time, so a slow endpoint only delays its own deliveries. Deliveries
+ * which are waiting in the queue when a request slot becomes available are combined into a
+ * single transaction Bundle (up to {@link DaoConfig#getRestHookDeliveryBatchSize()}). Failed
+ * deliveries are retried with exponential backoff using a scheduled task rather than a
+ * waiting thread.
+ * </p>
+ * <p>
+ * No more than {@link DaoConfig#getRestHookMaxQueuedDeliveriesPerEndpoint()} deliveries wait in the
+ * queue for an endpoint. Beyond that, {@link #submit(RestHookDelivery)} rejects the delivery, so the
+ * delivery message fails and the subscription delivery channel retries it later.
+ * </p>
+ * <p>
+ * Queued deliveries and deliveries waiting to be retried are only held in memory. The delivery
+ * message has already been acknowledged by then, so they are lost if the server is stopped or
+ * restarted before they have been sent.
+ * </p>
+ */
+public class AsyncRestHookDeliverySvc {
+	private static final Logger ourLog = LoggerFactory.getLogger(AsyncRestHookDeliverySvc.class);
+	private static final long MAX_RETRY_BACKOFF_MILLIS = 5 * DateUtils.MILLIS_PER_MINUTE;
+	/*
+	 * The number of concurrent requests per endpoint is limited by the endpoint queues, so
+	 * these limits only need to be high enough to never be reached first
+	 */
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 100;
+	private static final int MAX_CONNECTIONS_TOTAL = 10000;
+
+	private final Map<String, EndpointQueue> myEndpointQueues = new ConcurrentHashMap<>();
+	private final AtomicInteger myOutstandingDeliveryCount = new AtomicInteger(0);
+	@Autowired
+	private FhirContext myFhirContext;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	private ScheduledExecutorService myExecutor;
+	private CloseableHttpAsyncClient myHttpClient;
+
+	@PostConstruct
+	public void start() {
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("resthook-delivery-%d")
+			.daemon(true)
+			.build();
+		myExecutor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory);
+	}
+
+	@PreDestroy
+	public void stop() throws IOException {
+		myExecutor.shutdownNow();
+		synchronized (this) {
+			if (myHttpClient != null) {
+				myHttpClient.close();
+				myHttpClient = null;
+			}
+		}
+	}
+
+	public boolean isEnabled() {
+		return myDaoConfig.isRestHookAsyncDeliveryEnabled();
+	}
+
+	/**
+	 * Queues a delivery for its subscription's endpoint. This method does not block.
+	 *
+	 * @throws RejectedExecutionException If the queue for the endpoint is full
+	 */
+	public void submit(RestHookDelivery theDelivery) {
+		String endpointUrl = theDelivery.getMessage().getSubscription().getEndpointUrl();
+		// The queue may be discarded between looking it up and adding to it, in which case a new one is created
+		while (!myEndpointQueues.computeIfAbsent(endpointUrl, EndpointQueue::new).add(theDelivery)) {
+			ourLog.trace("Rest-hook delivery queue for {} was discarded, retrying", endpointUrl);
+		}
+	}
+
+	private void addForRetry(String theEndpointUrl, List<RestHookDelivery> theDeliveries) {
+		while (!myEndpointQueues.computeIfAbsent(theEndpointUrl, EndpointQueue::new).addForRetry(theDeliveries)) {
+			ourLog.trace("Rest-hook delivery queue for {} was discarded, retrying", theEndpointUrl);
+		}
+	}
+
+	/**
+	 * Returns the number of deliveries which have been submitted, but which have not yet
+	 * succeeded or been abandoned
+	 */
+	public int getOutstandingDeliveryCount() {
+		return myOutstandingDeliveryCount.get();
+	}
+
+	/**
+	 * Returns the number of endpoints which currently have a delivery queue
+	 */
+	@VisibleForTesting
+	public int getEndpointQueueCount() {
+		return myEndpointQueues.size();
+	}
+
+	private synchronized CloseableHttpAsyncClient getHttpClient() {
+		if (myHttpClient == null) {
+			IRestfulClientFactory clientFactory = myFhirContext.getRestfulClientFactory();
+			RequestConfig requestConfig = RequestConfig
+				.custom()
+				.setConnectTimeout(clientFactory.getConnectTimeout())
+				.setSocketTimeout(clientFactory.getSocketTimeout())
+				.setConnectionRequestTimeout(clientFactory.getConnectionRequestTimeout())
+				.build();
+			BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("resthook-delivery-io-%d")
+				.daemon(true)
+				.build();
+			myHttpClient = HttpAsyncClients
+				.custom()
+				.setDefaultRequestConfig(requestConfig)
+				.setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+				.setMaxConnTotal(MAX_CONNECTIONS_TOTAL)
+				.setThreadFactory(threadFactory)
+				.build();
+			myHttpClient.start();
+		}
+		return myHttpClient;
+	}
+
+	private void send(EndpointQueue theQueue, List<RestHookDelivery> theBatch) {
+		HttpRequestBase request;
+		try {
+			request = createRequest(theQueue.getEndpointUrl(), theBatch);
+		} catch (Exception e) {
+			ourLog.error("Failed to create rest-hook request for {}", theQueue.getEndpointUrl(), e);
+			handleFailure(theQueue, theBatch, e, false);
+			// We are being called from EndpointQueue#dispatch, which will carry on with the next batch
+			theQueue.releaseSlot();
+			return;
+		}
+
+		ourLog.info("Delivering {} rest-hook payload(s) to {}", theBatch.size(), request.getURI());
+		try {
+			getHttpClient().execute(request, newCallback(theQueue, theBatch, request));
+		} catch (RuntimeException e) {
+			// The callback won't be invoked, e.g. because the client is being shut down
+			ourLog.error("Failed to send rest-hook request to {}", theQueue.getEndpointUrl(), e);
+			handleFailure(theQueue, theBatch, e, true);
+			theQueue.releaseSlot();
+		}
+	}
+
+	private FutureCallback<HttpResponse> newCallback(EndpointQueue theQueue, List<RestHookDelivery> theBatch, HttpRequestBase theRequest) {
+		return new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse theResponse) {
+				// The callbacks are invoked on the I/O dispatch threads, which must not be held up
+				executeOrLog(() -> handleResponse(theQueue, theBatch, theResponse));
+			}
+
+			@Override
+			public void failed(Exception theException) {
+				executeOrLog(() -> {
+					try {
+						handleFailure(theQueue, theBatch, theException, true);
+					} finally {
+						theQueue.deliveryFinished();
+					}
+				});
+			}
+
+			@Override
+			public void cancelled() {
+				failed(new IOException("Request to " + theRequest.getURI() + " was cancelled"));
+			}
+		};
+	}
+
+	private void executeOrLog(Runnable theRunnable) {
+		try {
+			myExecutor.execute(theRunnable);
+		} catch (RejectedExecutionException e) {
+			ourLog.warn("Rest-hook delivery service is shutting down, discarding delivery result");
+		}
+	}
+
+	private HttpRequestBase createRequest(String theEndpointUrl, List<RestHookDelivery> theBatch) throws IOException {
+		RestHookDelivery first = theBatch.get(0);
+		String baseUrl = StringUtils.removeEnd(theEndpointUrl, "/");
+
+		HttpRequestBase request;
+		IBaseResource body;
+		if (theBatch.size() > 1) {
+			BundleBuilder bundleBuilder = new BundleBuilder(myFhirContext);
+			for (RestHookDelivery next : theBatch) {
+				next.addToTransaction(bundleBuilder);
+			}
+			request = new HttpPost(baseUrl);
+			body = bundleBuilder.getBundle();
+		} else {
+			String url = isBlank(first.getRequestPath()) ? baseUrl : baseUrl + "/" + first.getRequestPath();
+			switch (first.getRequestType()) {
+				case PUT:
+					request = new HttpPut(url);
+					break;
+				case DELETE:
+					request = new HttpDelete(url);
+					break;
+				default:
+					request = new HttpPost(url);
+					break;
+			}
+			body = first.getResource();
+		}
+
+		EncodingEnum encoding = first.getEncoding();
+		if (encoding != null) {
+			request.addHeader(Constants.HEADER_ACCEPT, encoding.getResourceContentTypeNonLegacy());
+			if (body != null) {
+				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				encoding.newParser(myFhirContext).encodeResourceToOutputStream(body, outputStream);
+				ContentType contentType;
+				if (encoding.isBinary()) {
+					contentType = ContentType.create(encoding.getResourceContentTypeNonLegacy());
+				} else {
+					contentType = ContentType.create(encoding.getResourceContentTypeNonLegacy(), StandardCharsets.UTF_8);
+				}
+				((HttpEntityEnclosingRequestBase) request).setEntity(new ByteArrayEntity(outputStream.toByteArray(), contentType));
+			}
+		}
+
+		// Additional headers specified in the subscription
+		List<String> headers = first.getMessage().getSubscription().getHeaders();
+		for (String next : headers) {
+			int sep = next != null ? next.indexOf(':') : -1;
+			if (sep > 0) {
+				String name = next.substring(0, sep).trim();
+				if (isNotBlank(name)) {
+					request.addHeader(name, next.substring(sep + 1).trim());
+				}
+			}
+		}
+
+		return request;
+	}
+
+	private void handleResponse(EndpointQueue theQueue, List<RestHookDelivery> theBatch, HttpResponse theResponse) {
+		try {
+			EntityUtils.consumeQuietly(theResponse.getEntity());
+
+			int status = theResponse.getStatusLine().getStatusCode();
+			if (status >= 200 && status < 300) {
+				for (RestHookDelivery next : theBatch) {
+					handleSuccess(next);
+				}
+			} else {
+				String message = "Endpoint " + theQueue.getEndpointUrl() + " responded with HTTP " + status + " " + theResponse.getStatusLine().getReasonPhrase();
+				boolean retryable = status >= 500 || status == 408 || status == 429;
+				handleFailure(theQueue, theBatch, BaseServerResponseException.newInstance(status, message), retryable);
+			}
+		} finally {
+			theQueue.deliveryFinished();
+		}
+	}
+
+	private void handleSuccess(RestHookDelivery theDelivery) {
+		try {
+			// Interceptor call: SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY
+			HookParams params = new HookParams()
+				.add(CanonicalSubscription.class, theDelivery.getMessage().getSubscription())
+				.add(ResourceDeliveryMessage.class, theDelivery.getMessage());
+			myInterceptorBroadcaster.callHooks(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY, params);
+		} catch (Exception e) {
+			ourLog.error("Failure invoking interceptors after rest-hook delivery", e);
+		} finally {
+			myOutstandingDeliveryCount.decrementAndGet();
+		}
+	}
+
+	private void handleFailure(EndpointQueue theQueue, List<RestHookDelivery> theBatch, Exception theException, boolean theRetryable) {
+		int maxAttempts = myDaoConfig.getRestHookDeliveryMaxAttempts();
+		List<RestHookDelivery> retries = new ArrayList<>();
+		for (RestHookDelivery next : theBatch) {
+			int attempts = next.incrementAttempts();
+			if (theRetryable && attempts < maxAttempts) {
+				retries.add(next);
+			} else {
+				abandon(next, theException);
+			}
+		}
+
+		if (!retries.isEmpty()) {
+			long delay = getRetryDelayMillis(retries.get(0).getAttempts());
+			ourLog.warn("Failed to deliver {} rest-hook payload(s) to {}, will retry in {}ms: {}", retries.size(), theQueue.getEndpointUrl(), delay, theException.toString());
+			try {
+				myExecutor.schedule(() -> addForRetry(theQueue.getEndpointUrl(), retries), delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				ourLog.warn("Rest-hook delivery service is shutting down, not retrying {} payload(s)", retries.size());
+			}
+		}
+	}
+
+	private void abandon(RestHookDelivery theDelivery, Exception theException) {
+		ResourceDeliveryMessage message = theDelivery.getMessage();
+		try {
+			ourLog.error("Failure delivering rest-hook payload for subscription {} after {} attempt(s)", message.getSubscriptionId(myFhirContext), theDelivery.getAttempts(), theException);
+
+			// Interceptor call: SUBSCRIPTION_AFTER_DELIVERY_FAILED
+			HookParams hookParams = new HookParams()
+				.add(ResourceDeliveryMessage.class, message)
+				.add(Exception.class, theException);
+			myInterceptorBroadcaster.callHooks(Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED, hookParams);
+		} catch (Exception e) {
+			ourLog.error("Failure invoking interceptors after failed rest-hook delivery", e);
+		} finally {
+			myOutstandingDeliveryCount.decrementAndGet();
+		}
+	}
+
+	private long getRetryDelayMillis(int theAttempts) {
+		long retVal = Math.max(myDaoConfig.getRestHookDeliveryRetryBackoffMillis(), 0);
+		for (int i = 1; i < theAttempts && retVal < MAX_RETRY_BACKOFF_MILLIS; i++) {
+			retVal = retVal * 2;
+		}
+		return Math.min(retVal, MAX_RETRY_BACKOFF_MILLIS);
+	}
+
+	private class EndpointQueue {
+		private final String myEndpointUrl;
+		private final Deque<RestHookDelivery> myQueue = new ArrayDeque<>();
+		private int myInProgressCount;
+		private boolean myDiscarded;
+
+		EndpointQueue(String theEndpointUrl) {
+			myEndpointUrl = theEndpointUrl;
+		}
+
+		String getEndpointUrl() {
+			return myEndpointUrl;
+		}
+
+		/**
+		 * @return Returns <code>false</code> if this queue has been discarded, in which case the delivery was not added
+		 */
+		boolean add(RestHookDelivery theDelivery) {
+			int maxQueued = myDaoConfig.getRestHookMaxQueuedDeliveriesPerEndpoint();
+			synchronized (this) {
+				if (myDiscarded) {
+					return false;
+				}
+				if (myQueue.size() >= maxQueued) {
+					throw new RejectedExecutionException("Rest-hook delivery queue for " + myEndpointUrl + " is full (" + maxQueued + " deliveries)");
+				}
+				myQueue.addLast(theDelivery);
+				myOutstandingDeliveryCount.incrementAndGet();
+			}
+			dispatch();
+			return true;
+		}
+
+		/**
+		 * Retries go to the front of the queue so that deliveries stay in roughly the order they were submitted.
+		 * They have already been accepted, so they are never rejected even if the queue is full.
+		 *
+		 * @return Returns <code>false</code> if this queue has been discarded, in which case the deliveries were not added
+		 */
+		boolean addForRetry(List<RestHookDelivery> theDeliveries) {
+			synchronized (this) {
+				if (myDiscarded) {
+					return false;
+				}
+				for (int i = theDeliveries.size() - 1; i >= 0; i--) {
+					myQueue.addFirst(theDeliveries.get(i));
+				}
+			}
+			dispatch();
+			return true;
+		}
+
+		synchronized void releaseSlot() {
+			myInProgressCount--;
+		}
+
+		void deliveryFinished() {
+			releaseSlot();
+			dispatch();
+		}
+
+		private void dispatch() {
+			int maxInProgress = myDaoConfig.getRestHookMaxConcurrentDeliveriesPerEndpoint();
+			int batchSize = myDaoConfig.getRestHookDeliveryBatchSize();
+			while (true) {
+				List<RestHookDelivery> batch = new ArrayList<>();
+				synchronized (this) {
+					if (myInProgressCount == 0 && myQueue.isEmpty() && !myDiscarded) {
+						// Nothing left to do for this endpoint, so don't keep its queue around
+						myDiscarded = true;
+						myEndpointQueues.remove(myEndpointUrl, this);
+					}
+					if (myInProgressCount >= maxInProgress || myQueue.isEmpty()) {
+						return;
+					}
+					batch.add(myQueue.pollFirst());
+					while (batch.size() < batchSize && !myQueue.isEmpty() && batch.get(0).isBatchableWith(myQueue.peekFirst())) {
+						batch.add(myQueue.pollFirst());
+					}
+					myInProgressCount++;
+				}
+				send(this, batch);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,163 @@
+package ca.uhn.fhir.jpa.subscription.match.deliver.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import ca.uhn.fhir.jpa.subscription.model.ResourceDeliveryMessage;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.util.BundleBuilder;
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import java.util.Objects;
+
+/**
+ * A single REST-hook delivery which has been prepared by the delivery channel thread and
+ * is waiting to be sent by the {@link AsyncRestHookDeliverySvc}
+ */
+public class RestHookDelivery {
+
+	private final ResourceDeliveryMessage myMessage;
+	private final RequestTypeEnum myRequestType;
+	private final EncodingEnum myEncoding;
+	private final IBaseResource myResource;
+	private final IIdType myResourceId;
+	private final boolean myBatchable;
+	private int myAttempts;
+
+	private RestHookDelivery(ResourceDeliveryMessage theMessage, RequestTypeEnum theRequestType, EncodingEnum theEncoding, IBaseResource theResource, IIdType theResourceId, boolean theBatchable) {
+		myMessage = theMessage;
+		myRequestType = theRequestType;
+		myEncoding = theEncoding;
+		myResource = theResource;
+		myResourceId = theResourceId;
+		myBatchable = theBatchable;
+	}
+
+	public ResourceDeliveryMessage getMessage() {
+		return myMessage;
+	}
+
+	public RequestTypeEnum getRequestType() {
+		return myRequestType;
+	}
+
+	/**
+	 * Returns the encoding of the request body, or <code>null</code> if this delivery has no body
+	 */
+	public EncodingEnum getEncoding() {
+		return myEncoding;
+	}
+
+	/**
+	 * Returns the request body, or <code>null</code> if this delivery has no body
+	 */
+	public IBaseResource getResource() {
+		return myResource;
+	}
+
+	/**
+	 * Returns the path of the request relative to the endpoint URL, e.g. <code>Patient/123</code>,
+	 * or an empty string if the request is sent to the endpoint URL itself
+	 */
+	public String getRequestPath() {
+		if (myResourceId == null) {
+			return "";
+		}
+		return myResourceId.getResourceType() + "/" + myResourceId.getIdPart();
+	}
+
+	/**
+	 * Returns the ID of the resource at the endpoint which this delivery updates or deletes, or <code>null</code>
+	 */
+	IIdType getResourceId() {
+		return myResourceId;
+	}
+
+	/**
+	 * Is this an empty POST notification, with no payload?
+	 */
+	boolean isNotification() {
+		return myResource == null && myResourceId == null;
+	}
+
+	int getAttempts() {
+		return myAttempts;
+	}
+
+	int incrementAttempts() {
+		return ++myAttempts;
+	}
+
+	/**
+	 * Can this delivery be sent together with the given one in a single transaction Bundle?
+	 */
+	boolean isBatchableWith(RestHookDelivery theOther) {
+		return myBatchable
+			&& theOther.myBatchable
+			&& myEncoding == theOther.myEncoding
+			&& Objects.equals(myMessage.getSubscription().getHeaders(), theOther.myMessage.getSubscription().getHeaders());
+	}
+
+	void addToTransaction(BundleBuilder theBundleBuilder) {
+		Validate.isTrue(myBatchable, "Delivery can not be batched");
+		if (myRequestType == RequestTypeEnum.DELETE) {
+			theBundleBuilder.addTransactionDeleteEntry(myResourceId.getResourceType(), myResourceId.getIdPart());
+		} else {
+			theBundleBuilder.addTransactionUpdateEntry(myResource);
+		}
+	}
+
+	/**
+	 * Creates a delivery which updates (PUT) the resource at the endpoint
+	 */
+	public static RestHookDelivery forUpdate(ResourceDeliveryMessage theMessage, EncodingEnum theEncoding, IBaseResource theResource) {
+		Validate.notNull(theResource, "theResource must not be null");
+		return new RestHookDelivery(theMessage, RequestTypeEnum.PUT, theEncoding, theResource, theResource.getIdElement(), true);
+	}
+
+	/**
+	 * Creates a delivery which deletes the resource at the endpoint
+	 */
+	public static RestHookDelivery forDelete(ResourceDeliveryMessage theMessage, EncodingEnum theEncoding, IIdType theResourceId) {
+		Validate.notNull(theResourceId, "theResourceId must not be null");
+		return new RestHookDelivery(theMessage, RequestTypeEnum.DELETE, theEncoding, null, theResourceId, true);
+	}
+
+	/**
+	 * Creates a delivery which POSTs a transaction Bundle to the endpoint
+	 */
+	public static RestHookDelivery forTransaction(ResourceDeliveryMessage theMessage, EncodingEnum theEncoding, IBaseBundle theBundle) {
+		Validate.notNull(theBundle, "theBundle must not be null");
+		return new RestHookDelivery(theMessage, RequestTypeEnum.POST, theEncoding, theBundle, null, false);
+	}
+
+	/**
+	 * Creates a delivery which POSTs an empty notification to the endpoint
+	 */
+	public static RestHookDelivery forNotification(ResourceDeliveryMessage theMessage) {
+		return new RestHookDelivery(theMessage, RequestTypeEnum.POST, null, null, null, false);
+	}
+
+}
@@ -46,6 +46,7 @@ import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.util.BundleBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringSubstitutor;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.slf4j.Logger;
@@ -62,6 +63,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 @Scope("prototype")
@@ -74,6 +76,9 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 	@Autowired
 	private MatchUrlService myMatchUrlService;
 
+	@Autowired
+	private AsyncRestHookDeliverySvc myAsyncRestHookDeliverySvc;
+
 	/**
 	 * Constructor
 	 */
@@ -89,58 +94,80 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 	}
 
 	protected void doDelivery(ResourceDeliveryMessage theMsg, CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IGenericClient theClient, IBaseResource thePayloadResource) {
-		IClientExecutable<?, ?> operation;
-
-		if (isNotBlank(theSubscription.getPayloadSearchCriteria())) {
-			operation = createDeliveryRequestTransaction(theSubscription, theClient, thePayloadResource);
-		} else if (thePayloadType != null) {
-			operation = createDeliveryRequestNormal(theMsg, theClient, thePayloadResource);
-		} else {
+		RestHookDelivery delivery = createDelivery(theMsg, theSubscription, thePayloadType, thePayloadResource);
+		if (delivery == null) {
+			return;
+		}
+		if (delivery.isNotification()) {
 			sendNotification(theMsg);
-			operation = null;
+			return;
 		}
 
-		if (operation != null) {
+		IClientExecutable<?, ?> operation = createOperation(theClient, delivery);
+		if (thePayloadType != null) {
+			operation.encoded(thePayloadType);
+		}
 
-			if (thePayloadType != null) {
-				operation.encoded(thePayloadType);
-			}
+		String payloadId = thePayloadResource != null ? thePayloadResource.getIdElement().toUnqualified().getValue() : delivery.getRequestPath();
+		ourLog.info("Delivering {} rest-hook payload {} for {}", theMsg.getOperationType(), payloadId, theSubscription.getIdElement(myFhirContext).toUnqualifiedVersionless().getValue());
 
-			String payloadId = thePayloadResource.getIdElement().toUnqualified().getValue();
-			ourLog.info("Delivering {} rest-hook payload {} for {}", theMsg.getOperationType(), payloadId, theSubscription.getIdElement(myFhirContext).toUnqualifiedVersionless().getValue());
+		try {
+			operation.execute();
+		} catch (ResourceNotFoundException e) {
+			ourLog.error("Cannot reach {} ", theMsg.getSubscription().getEndpointUrl());
+			ourLog.error("Exception: ", e);
+			throw e;
+		}
+	}
 
-			try {
-				operation.execute();
-			} catch (ResourceNotFoundException e) {
-				ourLog.error("Cannot reach {} ", theMsg.getSubscription().getEndpointUrl());
-				ourLog.error("Exception: ", e);
-				throw e;
+	/**
+	 * Decides what to send to the endpoint for a message. This is used both for synchronous delivery
+	 * and by {@link #queueDelivery(ResourceDeliveryMessage, CanonicalSubscription, EncodingEnum)}.
+	 *
+	 * @return Returns <code>null</code> if nothing should be sent
+	 */
+	@Nullable
+	private RestHookDelivery createDelivery(ResourceDeliveryMessage theMsg, CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IBaseResource thePayloadResource) {
+		EncodingEnum encoding = defaultIfNull(thePayloadType, EncodingEnum.JSON);
+
+		if (isNotBlank(theSubscription.getPayloadSearchCriteria())) {
+			if (thePayloadResource == null) {
+				return null;
 			}
+			return RestHookDelivery.forTransaction(theMsg, encoding, createDeliveryTransactionBundle(theSubscription, thePayloadResource));
+		}
 
+		if (thePayloadType == null) {
+			return RestHookDelivery.forNotification(theMsg);
 		}
-	}
 
-	@Nullable
-	private IClientExecutable<?, ?> createDeliveryRequestNormal(ResourceDeliveryMessage theMsg, IGenericClient theClient, IBaseResource thePayloadResource) {
-		IClientExecutable<?, ?> operation;
 		switch (theMsg.getOperationType()) {
 			case CREATE:
 			case UPDATE:
-				operation = theClient.update().resource(thePayloadResource);
-				break;
+				if (thePayloadResource == null) {
+					return null;
+				}
+				return RestHookDelivery.forUpdate(theMsg, encoding, thePayloadResource);
 			case DELETE:
-				operation = theClient.delete().resourceById(theMsg.getPayloadId(myFhirContext));
-				break;
+				return RestHookDelivery.forDelete(theMsg, encoding, theMsg.getPayloadId(myFhirContext));
 			default:
 				ourLog.warn("Ignoring delivery message of type: {}", theMsg.getOperationType());
-				operation = null;
-				break;
+				return null;
+		}
+	}
+
+	private IClientExecutable<?, ?> createOperation(IGenericClient theClient, RestHookDelivery theDelivery) {
+		switch (theDelivery.getRequestType()) {
+			case PUT:
+				return theClient.update().resource(theDelivery.getResource());
+			case DELETE:
+				return theClient.delete().resourceById(theDelivery.getResourceId());
+			default:
+				return theClient.transaction().withBundle((IBaseBundle) theDelivery.getResource());
 		}
-		return operation;
 	}
 
-	private IClientExecutable<?, ?> createDeliveryRequestTransaction(CanonicalSubscription theSubscription, IGenericClient theClient, IBaseResource thePayloadResource) {
-		IClientExecutable<?, ?> operation;
+	private IBaseBundle createDeliveryTransactionBundle(CanonicalSubscription theSubscription, IBaseResource thePayloadResource) {
 		String resType = theSubscription.getPayloadSearchCriteria().substring(0, theSubscription.getPayloadSearchCriteria().indexOf('?'));
 		IFhirResourceDao<?> dao = myDaoRegistry.getResourceDao(resType);
 		RuntimeResourceDefinition resourceDefinition = myFhirContext.getResourceDefinition(resType);
@@ -159,8 +186,22 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 			builder.addTransactionUpdateEntry(next);
 		}
 
-		operation = theClient.transaction().withBundle(builder.getBundle());
-		return operation;
+		return builder.getBundle();
+	}
+
+	/**
+	 * Prepares the delivery and hands it to the {@link AsyncRestHookDeliverySvc}, which sends it
+	 * without blocking this thread
+	 */
+	protected void queueDelivery(ResourceDeliveryMessage theMsg, CanonicalSubscription theSubscription, EncodingEnum thePayloadType) {
+		IBaseResource payloadResource = getAndMassagePayload(theMsg, theSubscription);
+		RestHookDelivery delivery = createDelivery(theMsg, theSubscription, thePayloadType, payloadResource);
+		if (delivery == null) {
+			return;
+		}
+
+		ourLog.debug("Queueing {} rest-hook delivery for {}", theMsg.getOperationType(), theSubscription.getIdElement(myFhirContext).toUnqualifiedVersionless().getValue());
+		myAsyncRestHookDeliverySvc.submit(delivery);
 	}
 
 	public IBaseResource getResource(IIdType payloadId) throws ResourceGoneException {
@@ -218,6 +259,12 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 			payloadType = EncodingEnum.forContentType(payloadString);
 		}
 
+		if (isNotBlank(endpointUrl) && myAsyncRestHookDeliverySvc != null && myAsyncRestHookDeliverySvc.isEnabled()) {
+			// SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY is invoked by the delivery service once the endpoint has accepted the delivery
+			queueDelivery(theMessage, subscription, payloadType);
+			return;
+		}
+
 		// Create the client request
 		myFhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
 		IGenericClient client = null;
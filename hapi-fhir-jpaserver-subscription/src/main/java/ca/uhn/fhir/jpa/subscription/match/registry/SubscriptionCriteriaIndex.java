@@ -0,0 +1,254 @@
+package ca.uhn.fhir.jpa.subscription.match.registry;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.util.UrlUtil;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Index of active subscription criteria, used to find the subscriptions which could possibly
+ * match a modified resource without testing every subscription for the resource type.
+ * <p>
+ * Each subscription is indexed on one of its criteria which tests a token or reference search
+ * parameter for equality (e.g. <code>Observation?code=http://loinc.org|1234-5</code> is indexed
+ * under <code>code</code> = <code>1234-5</code>). A resource can only match the subscription if
+ * it has that value for that search parameter, so only the search parameters which are used by the
+ * index need to be extracted from a modified resource to find the candidates. Subscriptions with
+ * no criteria of this kind are always candidates for their resource type.
+ * </p>
+ * <p>
+ * Token values are indexed by lowercased code only, and reference values by ID only, so the candidates are
+ * a superset of the matching subscriptions. They still need to be tested with the subscription matcher.
+ * </p>
+ */
+class SubscriptionCriteriaIndex {
+	private static final Logger ourLog = LoggerFactory.getLogger(SubscriptionCriteriaIndex.class);
+
+	private final Map<String, ResourceTypeIndex> myResourceTypeIndexes = new ConcurrentHashMap<>();
+	private final Map<String, IndexEntry> mySubscriptionIdToEntry = new HashMap<>();
+
+	/**
+	 * Adds a subscription to the index, replacing any existing entry for the same subscription
+	 */
+	synchronized void add(ActiveSubscription theActiveSubscription, ISearchParamRegistry theSearchParamRegistry) {
+		remove(theActiveSubscription.getId());
+
+		String criteria = theActiveSubscription.getCriteriaString();
+		if (isBlank(criteria)) {
+			return;
+		}
+
+		IndexEntry entry = createEntry(theActiveSubscription.getId(), criteria, theSearchParamRegistry);
+		ResourceTypeIndex resourceTypeIndex = myResourceTypeIndexes.computeIfAbsent(entry.myResourceType, t -> new ResourceTypeIndex());
+		if (entry.myParamName == null) {
+			resourceTypeIndex.myUnindexedSubscriptionIds.add(entry.mySubscriptionId);
+		} else {
+			Map<String, Set<String>> valueToSubscriptionIds = resourceTypeIndex.myParamNameToValueToSubscriptionIds.computeIfAbsent(entry.myParamName, t -> new ConcurrentHashMap<>());
+			for (String nextValue : entry.myValues) {
+				valueToSubscriptionIds.computeIfAbsent(nextValue, t -> ConcurrentHashMap.newKeySet()).add(entry.mySubscriptionId);
+			}
+		}
+		mySubscriptionIdToEntry.put(entry.mySubscriptionId, entry);
+
+		ourLog.debug("Indexed subscription {} with criteria {} under {} {}", entry.mySubscriptionId, criteria, entry.myParamName, entry.myValues);
+	}
+
+	synchronized void remove(String theSubscriptionId) {
+		IndexEntry entry = mySubscriptionIdToEntry.remove(theSubscriptionId);
+		if (entry == null) {
+			return;
+		}
+
+		ResourceTypeIndex resourceTypeIndex = myResourceTypeIndexes.get(entry.myResourceType);
+		if (entry.myParamName == null) {
+			resourceTypeIndex.myUnindexedSubscriptionIds.remove(theSubscriptionId);
+		} else {
+			Map<String, Set<String>> valueToSubscriptionIds = resourceTypeIndex.myParamNameToValueToSubscriptionIds.get(entry.myParamName);
+			for (String nextValue : entry.myValues) {
+				Set<String> subscriptionIds = valueToSubscriptionIds.get(nextValue);
+				subscriptionIds.remove(theSubscriptionId);
+				if (subscriptionIds.isEmpty()) {
+					valueToSubscriptionIds.remove(nextValue);
+				}
+			}
+			if (valueToSubscriptionIds.isEmpty()) {
+				resourceTypeIndex.myParamNameToValueToSubscriptionIds.remove(entry.myParamName);
+			}
+		}
+	}
+
+	/**
+	 * Returns the IDs of the subscriptions which could match the given resource
+	 *
+	 * @param theResource The resource, or <code>null</code> if it is not available, in which case all of the
+	 *                    subscriptions for the resource type are returned
+	 */
+	Set<String> getCandidateSubscriptionIds(FhirContext theFhirContext, String theResourceType, @Nullable IBaseResource theResource, ISearchParamRegistry theSearchParamRegistry, ISearchParamExtractor theSearchParamExtractor) {
+		ResourceTypeIndex resourceTypeIndex = myResourceTypeIndexes.get(theResourceType);
+		if (resourceTypeIndex == null) {
+			return Collections.emptySet();
+		}
+
+		Set<String> retVal = new HashSet<>(resourceTypeIndex.myUnindexedSubscriptionIds);
+		for (Map.Entry<String, Map<String, Set<String>>> nextParamEntry : resourceTypeIndex.myParamNameToValueToSubscriptionIds.entrySet()) {
+			Map<String, Set<String>> valueToSubscriptionIds = nextParamEntry.getValue();
+
+			RuntimeSearchParam searchParam = theSearchParamRegistry.getActiveSearchParam(theResourceType, nextParamEntry.getKey());
+			if (theResource == null || searchParam == null || !isIndexableType(searchParam)) {
+				// We can't tell which values the resource has, so all of them are candidates
+				valueToSubscriptionIds.values().forEach(retVal::addAll);
+				continue;
+			}
+
+			List<String> resourceValues = theSearchParamExtractor.extractParamValuesAsStrings(searchParam, theResource);
+			for (String nextResourceValue : resourceValues) {
+				String key = toResourceValueKey(theFhirContext, searchParam, nextResourceValue);
+				Set<String> subscriptionIds = key != null ? valueToSubscriptionIds.get(key) : null;
+				if (subscriptionIds != null) {
+					retVal.addAll(subscriptionIds);
+				}
+			}
+		}
+		return retVal;
+	}
+
+	synchronized int size() {
+		return mySubscriptionIdToEntry.size();
+	}
+
+	private static IndexEntry createEntry(String theSubscriptionId, String theCriteria, ISearchParamRegistry theSearchParamRegistry) {
+		int questionMarkIndex = theCriteria.indexOf('?');
+		String resourceType = questionMarkIndex != -1 ? theCriteria.substring(0, questionMarkIndex) : theCriteria;
+		IndexEntry retVal = new IndexEntry(theSubscriptionId, resourceType);
+		if (questionMarkIndex == -1) {
+			return retVal;
+		}
+
+		// Use the criteria which has the fewest values, since that will produce the fewest candidates
+		Map<String, String[]> params = UrlUtil.parseQueryString(theCriteria.substring(questionMarkIndex + 1));
+		for (Map.Entry<String, String[]> nextEntry : params.entrySet()) {
+			Set<String> values = toCriteriaValueKeys(resourceType, nextEntry.getKey(), nextEntry.getValue(), theSearchParamRegistry);
+			if (values != null && (retVal.myValues == null || values.size() < retVal.myValues.size())) {
+				retVal.myParamName = nextEntry.getKey();
+				retVal.myValues = values;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the index keys for a criteria parameter, or <code>null</code> if it can't be indexed
+	 */
+	private static Set<String> toCriteriaValueKeys(String theResourceType, String theParamName, String[] theValues, ISearchParamRegistry theSearchParamRegistry) {
+		// Only plain equality tests on a single parameter (no modifiers, chains, or ANDed values)
+		if (theParamName.startsWith("_") || theParamName.contains(":") || theParamName.contains(".") || theValues.length != 1) {
+			return null;
+		}
+		// Escaped commas and pipes would need to be unescaped the same way as the matcher does
+		String value = theValues[0];
+		if (isBlank(value) || value.contains("\\")) {
+			return null;
+		}
+
+		RuntimeSearchParam searchParam = theSearchParamRegistry.getActiveSearchParam(theResourceType, theParamName);
+		if (searchParam == null || !isIndexableType(searchParam)) {
+			return null;
+		}
+
+		Set<String> retVal = new HashSet<>();
+		for (String nextValue : value.split(",")) {
+			String key;
+			if (searchParam.getParamType() == RestSearchParameterTypeEnum.TOKEN) {
+				int pipeIndex = nextValue.indexOf('|');
+				key = toTokenKey(pipeIndex != -1 ? nextValue.substring(pipeIndex + 1) : nextValue);
+			} else {
+				key = new IdDt(nextValue).getIdPart();
+			}
+			if (isBlank(key)) {
+				return null;
+			}
+			retVal.add(key);
+		}
+		return retVal;
+	}
+
+	private static String toResourceValueKey(FhirContext theFhirContext, RuntimeSearchParam theSearchParam, String theValue) {
+		if (isBlank(theValue)) {
+			return null;
+		}
+		if (theSearchParam.getParamType() == RestSearchParameterTypeEnum.TOKEN) {
+			TokenParam tokenParam = new TokenParam();
+			tokenParam.setValueAsQueryToken(theFhirContext, theSearchParam.getName(), null, theValue);
+			return toTokenKey(tokenParam.getValue());
+		}
+		return new IdDt(theValue).getIdPart();
+	}
+
+	/**
+	 * Token codes are matched case-insensitively, so they are indexed in lowercase
+	 */
+	private static String toTokenKey(String theCode) {
+		return theCode != null ? theCode.toLowerCase(Locale.ROOT) : null;
+	}
+
+	private static boolean isIndexableType(RuntimeSearchParam theSearchParam) {
+		return theSearchParam.getParamType() == RestSearchParameterTypeEnum.TOKEN || theSearchParam.getParamType() == RestSearchParameterTypeEnum.REFERENCE;
+	}
+
+	private static class ResourceTypeIndex {
+		private final Set<String> myUnindexedSubscriptionIds = ConcurrentHashMap.newKeySet();
+		private final Map<String, Map<String, Set<String>>> myParamNameToValueToSubscriptionIds = new ConcurrentHashMap<>();
+	}
+
+	private static class IndexEntry {
+		private final String mySubscriptionId;
+		private final String myResourceType;
+		private String myParamName;
+		private Set<String> myValues;
+
+		IndexEntry(String theSubscriptionId, String theResourceType) {
+			mySubscriptionId = theSubscriptionId;
+			myResourceType = theResourceType;
+		}
+	}
+
+}
@@ -20,9 +20,12 @@ package ca.uhn.fhir.jpa.subscription.match.registry;
  * #L%
  */
 
+import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
 import ca.uhn.fhir.jpa.subscription.channel.subscription.ISubscriptionDeliveryChannelNamer;
 import ca.uhn.fhir.jpa.subscription.channel.subscription.SubscriptionChannelRegistry;
 import ca.uhn.fhir.jpa.subscription.model.CanonicalSubscription;
@@ -34,11 +37,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.Nullable;
 import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Cache of active subscriptions.  When a new subscription is added to the cache, a new Spring Channel is created
@@ -49,6 +55,7 @@ import java.util.Optional;
 public class SubscriptionRegistry {
 	private static final Logger ourLog = LoggerFactory.getLogger(SubscriptionRegistry.class);
 	private final ActiveSubscriptionCache myActiveSubscriptionCache = new ActiveSubscriptionCache();
+	private final SubscriptionCriteriaIndex mySubscriptionCriteriaIndex = new SubscriptionCriteriaIndex();
 	@Autowired
 	private SubscriptionCanonicalizer mySubscriptionCanonicalizer;
 	@Autowired
@@ -57,6 +64,12 @@ public class SubscriptionRegistry {
 	private SubscriptionChannelRegistry mySubscriptionChannelRegistry;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private FhirContext myFhirContext;
+	@Autowired
+	private ISearchParamRegistry mySearchParamRegistry;
+	@Autowired
+	private ISearchParamExtractor mySearchParamExtractor;
 
 	/**
 	 * Constructor
@@ -73,6 +86,30 @@ public class SubscriptionRegistry {
 		return myActiveSubscriptionCache.getAll();
 	}
 
+	/**
+	 * Returns the active subscriptions which could match a resource of the given type. This is a
+	 * superset of the subscriptions which actually match, so each of them still needs to be
+	 * tested against the resource.
+	 *
+	 * @param theResourceType The resource type, or <code>null</code> if it is not known, in which case all active subscriptions are returned
+	 * @param theResource     The resource, or <code>null</code> if it is not available, in which case all active subscriptions for the type are returned
+	 */
+	public Collection<ActiveSubscription> getCandidateSubscriptions(@Nullable String theResourceType, @Nullable IBaseResource theResource) {
+		if (theResourceType == null) {
+			return getAll();
+		}
+
+		Set<String> candidateIds = mySubscriptionCriteriaIndex.getCandidateSubscriptionIds(myFhirContext, theResourceType, theResource, mySearchParamRegistry, mySearchParamExtractor);
+		List<ActiveSubscription> retVal = new ArrayList<>(candidateIds.size());
+		for (String nextId : candidateIds) {
+			ActiveSubscription activeSubscription = myActiveSubscriptionCache.get(nextId);
+			if (activeSubscription != null) {
+				retVal.add(activeSubscription);
+			}
+		}
+		return retVal;
+	}
+
 	private Optional<CanonicalSubscription> hasSubscription(IIdType theId) {
 		Validate.notNull(theId);
 		Validate.notBlank(theId.getIdPart());
@@ -93,6 +130,7 @@ public class SubscriptionRegistry {
 		ActiveSubscription activeSubscription = new ActiveSubscription(canonicalized, channelName);
 		mySubscriptionChannelRegistry.add(activeSubscription);
 		myActiveSubscriptionCache.put(subscriptionId, activeSubscription);
+		mySubscriptionCriteriaIndex.add(activeSubscription, mySearchParamRegistry);
 
 		ourLog.info("Registered active subscription Subscription/{} - Have {} registered", subscriptionId, myActiveSubscriptionCache.size());
 
@@ -107,6 +145,7 @@ public class SubscriptionRegistry {
 		Validate.notNull(theSubscriptionId);
 
 		ActiveSubscription activeSubscription = myActiveSubscriptionCache.remove(theSubscriptionId);
+		mySubscriptionCriteriaIndex.remove(theSubscriptionId);
 		if (activeSubscription != null) {
 			mySubscriptionChannelRegistry.remove(activeSubscription);
 			ourLog.info("Unregistered active subscription {} - Have {} registered", theSubscriptionId, myActiveSubscriptionCache.size());
@@ -167,6 +206,7 @@ public class SubscriptionRegistry {
 		Validate.notNull(activeSubscription);
 		CanonicalSubscription canonicalized = mySubscriptionCanonicalizer.canonicalize(theSubscription);
 		activeSubscription.setSubscription(canonicalized);
+		mySubscriptionCriteriaIndex.add(activeSubscription, mySearchParamRegistry);
 
 		// Interceptor call: SUBSCRIPTION_AFTER_ACTIVE_SUBSCRIPTION_REGISTERED
 		HookParams params = new HookParams()
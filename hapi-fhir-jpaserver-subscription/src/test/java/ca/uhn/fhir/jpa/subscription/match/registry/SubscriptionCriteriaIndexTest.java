@@ -0,0 +1,108 @@
+package ca.uhn.fhir.jpa.subscription.match.registry;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import ca.uhn.fhir.jpa.subscription.model.CanonicalSubscription;
+import ca.uhn.fhir.model.primitive.IdDt;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SubscriptionCriteriaIndexTest {
+	private static final FhirContext ourCtx = FhirContext.forR4();
+
+	private SubscriptionCriteriaIndex mySvc;
+	private ISearchParamRegistry mySearchParamRegistry;
+	private ISearchParamExtractor mySearchParamExtractor;
+
+	@BeforeEach
+	public void before() {
+		mySvc = new SubscriptionCriteriaIndex();
+		mySearchParamRegistry = mock(ISearchParamRegistry.class);
+		when(mySearchParamRegistry.getActiveSearchParam(anyString(), anyString())).thenAnswer(t -> ourCtx.getResourceDefinition(t.getArgument(0, String.class)).getSearchParam(t.getArgument(1, String.class)));
+		mySearchParamExtractor = new SearchParamExtractorR4(new ModelConfig(), new PartitionSettings(), ourCtx, new DefaultProfileValidationSupport(ourCtx), mySearchParamRegistry);
+	}
+
+	@Test
+	public void testTokenCriteria() {
+		add("code", "Observation?code=http://loinc.org|1234-5");
+		add("codes", "Observation?code=http://loinc.org|AAA,BBB&status=final,amended,preliminary");
+		add("system", "Observation?code=http://loinc.org|");
+		add("patient", "Patient?gender=male");
+
+		assertThat(candidates(newObservation("http://loinc.org", "1234-5")), containsInAnyOrder("code", "system"));
+		assertThat(candidates(newObservation("http://foo", "aaa")), containsInAnyOrder("codes", "system"));
+		assertThat(candidates(newObservation("http://foo", "9999-9")), containsInAnyOrder("system"));
+	}
+
+	@Test
+	public void testReferenceCriteria() {
+		add("subject", "Observation?subject=Patient/123");
+		add("chained", "Observation?subject.name=smith");
+
+		Observation obs = newObservation("http://loinc.org", "1234-5");
+		obs.setSubject(new Reference("Patient/123"));
+		assertThat(candidates(obs), containsInAnyOrder("subject", "chained"));
+
+		obs.setSubject(new Reference("Patient/456"));
+		assertThat(candidates(obs), containsInAnyOrder("chained"));
+	}
+
+	@Test
+	public void testUnknownResourceIncludesAllForType() {
+		add("code", "Observation?code=http://loinc.org|1234-5");
+		add("all", "Observation?");
+		add("patient", "Patient?gender=male");
+
+		assertThat(mySvc.getCandidateSubscriptionIds(ourCtx, "Observation", null, mySearchParamRegistry, mySearchParamExtractor), containsInAnyOrder("code", "all"));
+		assertThat(mySvc.getCandidateSubscriptionIds(ourCtx, "Encounter", null, mySearchParamRegistry, mySearchParamExtractor), empty());
+	}
+
+	@Test
+	public void testUpdateAndRemove() {
+		add("code", "Observation?code=http://loinc.org|1234-5");
+		add("code", "Observation?code=http://loinc.org|5555-5");
+		assertEquals(1, mySvc.size());
+		assertThat(candidates(newObservation("http://loinc.org", "1234-5")), empty());
+		assertThat(candidates(newObservation("http://loinc.org", "5555-5")), containsInAnyOrder("code"));
+
+		mySvc.remove("code");
+		assertEquals(0, mySvc.size());
+		assertThat(candidates(newObservation("http://loinc.org", "5555-5")), empty());
+	}
+
+	private void add(String theId, String theCriteria) {
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdDt("Subscription/" + theId));
+		subscription.setCriteriaString(theCriteria);
+		mySvc.add(new ActiveSubscription(subscription, null), mySearchParamRegistry);
+	}
+
+	private Set<String> candidates(Observation theObservation) {
+		return mySvc.getCandidateSubscriptionIds(ourCtx, "Observation", theObservation, mySearchParamRegistry, mySearchParamExtractor);
+	}
+
+	private Observation newObservation(String theSystem, String theCode) {
+		Observation obs = new Observation();
+		obs.setId("Observation/1");
+		obs.getCode().addCoding().setSystem(theSystem).setCode(theCode);
+		return obs;
+	}
+
+}
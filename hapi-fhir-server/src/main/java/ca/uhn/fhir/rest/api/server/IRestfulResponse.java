@@ -28,6 +28,7 @@ import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Date;
 import java.util.List;
@@ -48,6 +49,18 @@ public interface IRestfulResponse {
 
 	Object sendWriterResponse(int status, String contentType, String charset, Writer writer) throws IOException;
 
+	/**
+	 * Like {@link #getResponseWriter(int, String, String, String, boolean)}, but for response bodies
+	 * in a binary encoding such as Smile
+	 */
+	OutputStream getResponseOutputStream(int theStatusCode, String theStatusMessage, String theContentType, boolean theRespondGzip) throws IOException;
+
+	/**
+	 * Like {@link #sendWriterResponse(int, String, String, Writer)}, but for a stream returned by
+	 * {@link #getResponseOutputStream(int, String, String, boolean)}
+	 */
+	Object sendOutputStreamResponse(int theStatusCode, String theContentType, OutputStream theOutputStream) throws IOException;
+
 	void addHeader(String headerKey, String headerValue);
 
 	Object sendAttachmentResponse(IBaseBinary bin, int stausCode, String contentType) throws IOException;
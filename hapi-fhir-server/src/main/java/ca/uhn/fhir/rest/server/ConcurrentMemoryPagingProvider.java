@@ -0,0 +1,161 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Server Framework
+ * %%
+ * Copyright (C) 2014 - 2021 Smile CDR, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.Validate;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * An in-memory paging provider which can be used by plain {@link RestfulServer} deployments as a
+ * concurrent alternative to {@link FifoMemoryPagingProvider}. Result lists are held in a
+ * <a href="https://github.com/ben-manes/caffeine">Caffeine</a> cache, so storing and retrieving
+ * result lists does not serialize concurrent paging requests on a single lock.
+ * <p>
+ * Rather than being bounded by a number of result lists, the cache is bounded by a total weight,
+ * where the weight of each result list is an estimate of its size (by default, the number of
+ * resources it reports via {@link IBundleProvider#size()}). When the weight is exceeded, result
+ * lists are evicted using the W-TinyLFU policy, which favours result lists that are being actively
+ * paged through. Result lists which have not been accessed for the configured time-to-live are
+ * expired regardless of the available weight.
+ * </p>
+ * <p>
+ * Note that this class requires the <code>com.github.ben-manes.caffeine:caffeine</code> library
+ * to be present on the classpath.
+ * </p>
+ */
+public class ConcurrentMemoryPagingProvider extends BasePagingProvider implements IPagingProvider {
+
+	/**
+	 * The weight which is assigned by the default weigher to result lists that do not know their size
+	 */
+	public static final int DEFAULT_UNKNOWN_SIZE_WEIGHT = 100;
+
+	private final Cache<String, IBundleProvider> myBundleProviders;
+
+	/**
+	 * Constructor which weighs each result list by the number of resources it contains
+	 *
+	 * @param theMaximumWeight    The maximum total weight (i.e. approximately the maximum total number of resources) of all result lists held at any given time
+	 * @param theTimeToLiveMillis The number of milliseconds after the last access of a result list before it expires
+	 */
+	public ConcurrentMemoryPagingProvider(long theMaximumWeight, long theTimeToLiveMillis) {
+		this(theMaximumWeight, theTimeToLiveMillis, ConcurrentMemoryPagingProvider::estimateWeight);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theMaximumWeight    The maximum total weight of all result lists held at any given time
+	 * @param theTimeToLiveMillis The number of milliseconds after the last access of a result list before it expires
+	 * @param theWeigher          Estimates the weight of a result list. Must return a non-negative value.
+	 */
+	public ConcurrentMemoryPagingProvider(long theMaximumWeight, long theTimeToLiveMillis, ToIntFunction<IBundleProvider> theWeigher) {
+		this(theMaximumWeight, theTimeToLiveMillis, theWeigher, Ticker.systemTicker());
+	}
+
+	@VisibleForTesting
+	ConcurrentMemoryPagingProvider(long theMaximumWeight, long theTimeToLiveMillis, ToIntFunction<IBundleProvider> theWeigher, Ticker theTicker) {
+		Validate.isTrue(theMaximumWeight > 0, "theMaximumWeight must be greater than 0");
+		Validate.isTrue(theTimeToLiveMillis > 0, "theTimeToLiveMillis must be greater than 0");
+		Validate.notNull(theWeigher, "theWeigher must not be null");
+
+		myBundleProviders = Caffeine
+			.newBuilder()
+			.maximumWeight(theMaximumWeight)
+			.weigher((String theKey, IBundleProvider theValue) -> theWeigher.applyAsInt(theValue))
+			.expireAfterAccess(theTimeToLiveMillis, TimeUnit.MILLISECONDS)
+			.ticker(theTicker)
+			.recordStats()
+			.build();
+	}
+
+	@Override
+	public IBundleProvider retrieveResultList(RequestDetails theRequest, String theId) {
+		return myBundleProviders.getIfPresent(theId);
+	}
+
+	@Override
+	public String storeResultList(RequestDetails theRequestDetails, IBundleProvider theList) {
+		String key = UUID.randomUUID().toString();
+		myBundleProviders.put(key, theList);
+		return key;
+	}
+
+	/**
+	 * @return The approximate number of result lists currently held
+	 */
+	public long getResultListCount() {
+		return myBundleProviders.estimatedSize();
+	}
+
+	/**
+	 * @return The number of times a stored result list was successfully retrieved
+	 */
+	public long getHitCount() {
+		return myBundleProviders.stats().hitCount();
+	}
+
+	/**
+	 * @return The number of times a result list was requested but was not found (e.g. because it had been evicted or had expired)
+	 */
+	public long getMissCount() {
+		return myBundleProviders.stats().missCount();
+	}
+
+	/**
+	 * @return The number of result lists which have been evicted because of the weight limit or because they expired
+	 */
+	public long getEvictionCount() {
+		return myBundleProviders.stats().evictionCount();
+	}
+
+	/**
+	 * @return The total weight of the result lists which have been evicted
+	 */
+	public long getEvictionWeight() {
+		return myBundleProviders.stats().evictionWeight();
+	}
+
+	/**
+	 * Performs any pending maintenance (such as evicting expired result lists) immediately
+	 */
+	public void cleanUp() {
+		myBundleProviders.cleanUp();
+	}
+
+	private static int estimateWeight(IBundleProvider theBundleProvider) {
+		Integer size = theBundleProvider.size();
+		if (size == null) {
+			return DEFAULT_UNKNOWN_SIZE_WEIGHT;
+		}
+		return Math.max(size, 1);
+	}
+
+}
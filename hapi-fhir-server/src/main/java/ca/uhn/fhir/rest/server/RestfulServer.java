@@ -1226,6 +1226,8 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	}
 
 	protected void validateRequest(ServletRequestDetails theRequestDetails) {
+		RestfulServerUtils.validateResponseEncodingIsAvailable(theRequestDetails);
+
 		String[] elements = theRequestDetails.getParameters().get(Constants.PARAM_ELEMENTS);
 		if (elements != null) {
 			for (String next : elements) {
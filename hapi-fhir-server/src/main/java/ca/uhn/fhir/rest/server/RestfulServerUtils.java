@@ -43,6 +43,7 @@ import ca.uhn.fhir.rest.api.server.IRestfulServer;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.NotAcceptableException;
 import ca.uhn.fhir.rest.server.method.ElementsParameter;
 import ca.uhn.fhir.rest.server.method.SummaryEnumParameter;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
@@ -63,6 +64,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -590,6 +592,51 @@ public class RestfulServerUtils {
 		return retVal;
 	}
 
+	/**
+	 * Rejects a request whose <code>_format</code> parameter or <code>Accept</code> header only asks for
+	 * encodings which are known but not {@link EncodingEnum#isAvailable() available}, e.g. Smile when the
+	 * Smile library isn't on the classpath. Otherwise such requests would silently get the default encoding.
+	 *
+	 * @throws NotAcceptableException If no acceptable encoding was requested
+	 */
+	public static void validateResponseEncodingIsAvailable(RequestDetails theReq) {
+		String[] format = theReq.getParameters().get(Constants.PARAM_FORMAT);
+		if (format != null) {
+			validateEncodingsAreAvailable(Arrays.asList(format));
+		}
+
+		List<String> acceptValues = theReq.getHeaders(Constants.HEADER_ACCEPT);
+		if (acceptValues != null) {
+			List<String> acceptTypes = new ArrayList<>();
+			for (String nextAcceptHeaderValue : acceptValues) {
+				for (String nextPart : nextAcceptHeaderValue.split(",")) {
+					int scIdx = nextPart.indexOf(';');
+					if (scIdx != -1) {
+						nextPart = nextPart.substring(0, scIdx);
+					}
+					if (isNotBlank(nextPart)) {
+						acceptTypes.add(nextPart.trim());
+					}
+				}
+			}
+			validateEncodingsAreAvailable(acceptTypes);
+		}
+	}
+
+	private static void validateEncodingsAreAvailable(List<String> theRequestedTypes) {
+		EncodingEnum unavailable = null;
+		for (String next : theRequestedTypes) {
+			EncodingEnum nextUnavailable = EncodingEnum.forUnavailableContentType(next);
+			if (nextUnavailable == null) {
+				return;
+			}
+			unavailable = nextUnavailable;
+		}
+		if (unavailable != null) {
+			throw new NotAcceptableException("The " + unavailable.getFormatContentType() + " encoding is not available on this server");
+		}
+	}
+
 	/**
 	 * Determine whether a response should be given in JSON or XML format based on the incoming HttpServletRequest's
 	 * <code>"_format"</code> parameter and <code>"Accept:"</code> HTTP header.
@@ -717,6 +764,9 @@ public class RestfulServerUtils {
 			case RDF:
 				parser = context.newRDFParser();
 				break;
+			case SMILE:
+				parser = context.newSmileParser();
+				break;
 			case XML:
 			default:
 				parser = context.newXmlParser();
@@ -970,6 +1020,19 @@ public class RestfulServerUtils {
 		} else {
 			contentType = responseEncoding.getResourceContentType();
 		}
+
+		/*
+		 * Binary encodings can't be written to a character stream, so they are
+		 * streamed to the response as bytes
+		 */
+		if (theResource != null && !encodingDomainResourceAsText && responseEncoding.getEncoding().isBinary()) {
+			OutputStream outputStream = response.getResponseOutputStream(theStatusCode, theStatusMessage, contentType, respondGzip);
+			FhirVersionEnum forVersion = theResource.getStructureFhirVersionEnum();
+			IParser parser = getNewParser(theServer.getFhirContext(), forVersion, theRequestDetails);
+			parser.encodeResourceToOutputStream(theResource, outputStream);
+			return response.sendOutputStreamResponse(theStatusCode, contentType, outputStream);
+		}
+
 		String charset = Constants.CHARSET_NAME_UTF8;
 
 		Writer writer = response.getResponseWriter(theStatusCode, theStatusMessage, contentType, charset, respondGzip);
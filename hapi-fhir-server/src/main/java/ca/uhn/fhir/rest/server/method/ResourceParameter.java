@@ -181,7 +181,14 @@ public class ResourceParameter implements IParameter {
 		parser.setServerBaseUrl(theRequest.getFhirServerBase());
 		T retVal;
 		try {
-			if (theResourceType != null) {
+			if (encoding.isBinary()) {
+				ByteArrayInputStream requestStream = new ByteArrayInputStream(theRequest.loadRequestContents());
+				if (theResourceType != null) {
+					retVal = parser.parseResource(theResourceType, requestStream);
+				} else {
+					retVal = (T) parser.parseResource(requestStream);
+				}
+			} else if (theResourceType != null) {
 				retVal = parser.parseResource(theResourceType, requestReader);
 			} else {
 				retVal = (T) parser.parseResource(requestReader);
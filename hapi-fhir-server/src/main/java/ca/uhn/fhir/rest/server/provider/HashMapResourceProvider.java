@@ -63,6 +63,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -379,6 +380,7 @@ public class HashMapResourceProvider<T extends IBaseResource> implements IResour
 		// Store to ID->version->resource map
 		TreeMap<Long, T> versionToResource = getVersionToResource(theIdPart);
 		versionToResource.put(theVersionIdPart, theResource);
+		onCurrentVersionStored(theIdPart, theResource);
 
 		if (theRequestDetails != null) {
 			IInterceptorBroadcaster interceptorBroadcaster = theRequestDetails.getInterceptorBroadcaster();
@@ -422,6 +424,19 @@ public class HashMapResourceProvider<T extends IBaseResource> implements IResour
 		return id;
 	}
 
+	/**
+	 * Called whenever a new current version of a resource has been stored. Subclasses
+	 * may override this to keep their own structures (e.g. search indexes) in sync
+	 * with the stored data. The default implementation does nothing.
+	 *
+	 * @param theIdPart   The ID of the resource
+	 * @param theResource The new current version, or <code>null</code> if the resource was deleted
+	 * @since 5.3.0
+	 */
+	protected void onCurrentVersionStored(String theIdPart, @Nullable T theResource) {
+		// nothing
+	}
+
 	/**
 	 * @param theConditional This is provided only so that subclasses can implement if they want
 	 */
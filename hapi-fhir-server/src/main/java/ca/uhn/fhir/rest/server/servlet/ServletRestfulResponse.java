@@ -76,6 +76,20 @@ public class ServletRestfulResponse extends RestfulResponse<ServletRequestDetail
 		return theHttpResponse.getWriter();
 	}
 
+	@Override
+	public OutputStream getResponseOutputStream(int theStatusCode, String theStatusMessage, String theContentType, boolean theRespondGzip) throws IOException {
+		addHeaders();
+		HttpServletResponse theHttpResponse = getRequestDetails().getServletResponse();
+		theHttpResponse.setCharacterEncoding(null);
+		theHttpResponse.setStatus(theStatusCode);
+		theHttpResponse.setContentType(theContentType);
+		if (theRespondGzip) {
+			theHttpResponse.addHeader(Constants.HEADER_CONTENT_ENCODING, Constants.ENCODING_GZIP);
+			return new GZIPOutputStream(theHttpResponse.getOutputStream());
+		}
+		return theHttpResponse.getOutputStream();
+	}
+
 	private void addHeaders() {
 		HttpServletResponse theHttpResponse = getRequestDetails().getServletResponse();
 		getRequestDetails().getServer().addHeadersToResponse(theHttpResponse);
@@ -99,6 +113,11 @@ public class ServletRestfulResponse extends RestfulResponse<ServletRequestDetail
 		return theWriter;
 	}
 
+	@Override
+	public final OutputStream sendOutputStreamResponse(int theStatusCode, String theContentType, OutputStream theOutputStream) {
+		return theOutputStream;
+	}
+
 	@Override
 	public Object returnResponse(ParseAction<?> outcome, int operationStatus, boolean allowPrefer, MethodOutcome response, String resourceName) throws IOException {
 		addHeaders();
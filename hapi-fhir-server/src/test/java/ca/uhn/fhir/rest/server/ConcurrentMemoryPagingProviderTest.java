@@ -0,0 +1,81 @@
+package ca.uhn.fhir.rest.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ConcurrentMemoryPagingProviderTest {
+
+	@Test
+	public void testStoreAndRetrieve() {
+		ConcurrentMemoryPagingProvider svc = new ConcurrentMemoryPagingProvider(1000, TimeUnit.MINUTES.toMillis(10));
+
+		SimpleBundleProvider provider = new SimpleBundleProvider(10);
+		String id = svc.storeResultList(null, provider);
+
+		assertSame(provider, svc.retrieveResultList(null, id));
+		assertNull(svc.retrieveResultList(null, "FOO"));
+		assertEquals(1, svc.getHitCount());
+		assertEquals(1, svc.getMissCount());
+		assertEquals(1, svc.getResultListCount());
+	}
+
+	@Test
+	public void testEvictWhenMaximumWeightExceeded() {
+		ConcurrentMemoryPagingProvider svc = new ConcurrentMemoryPagingProvider(100, TimeUnit.MINUTES.toMillis(10));
+
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			ids.add(svc.storeResultList(null, new SimpleBundleProvider(20)));
+		}
+		svc.cleanUp();
+
+		// Each result list weighs 20, so no more than 5 fit
+		assertThat(svc.getResultListCount(), lessThanOrEqualTo(5L));
+		assertThat(svc.getEvictionCount(), greaterThanOrEqualTo(5L));
+		assertThat(svc.getEvictionWeight(), greaterThanOrEqualTo(100L));
+
+		int found = 0;
+		for (String next : ids) {
+			if (svc.retrieveResultList(null, next) != null) {
+				found++;
+			}
+		}
+		assertThat(found, lessThanOrEqualTo(5));
+	}
+
+	@Test
+	public void testExpireAfterTimeToLive() {
+		AtomicLong time = new AtomicLong();
+		ConcurrentMemoryPagingProvider svc = new ConcurrentMemoryPagingProvider(1000, 1000, t -> 1, time::get);
+
+		String id = svc.storeResultList(null, new SimpleBundleProvider(10));
+		time.addAndGet(TimeUnit.MILLISECONDS.toNanos(900));
+		assertEquals(10, svc.retrieveResultList(null, id).size().intValue());
+
+		// Accessing the result list resets its time-to-live
+		time.addAndGet(TimeUnit.MILLISECONDS.toNanos(900));
+		assertEquals(10, svc.retrieveResultList(null, id).size().intValue());
+
+		time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+		assertNull(svc.retrieveResultList(null, id));
+	}
+
+	@Test
+	public void testInvalidConfiguration() {
+		assertThrows(IllegalArgumentException.class, () -> new ConcurrentMemoryPagingProvider(0, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new ConcurrentMemoryPagingProvider(1000, 0));
+	}
+
+}
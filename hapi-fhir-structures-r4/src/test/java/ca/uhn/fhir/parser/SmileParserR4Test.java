@@ -0,0 +1,134 @@
+package ca.uhn.fhir.parser;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.util.TestUtil;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DecimalType;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SmileParserR4Test {
+	private static final Logger ourLog = LoggerFactory.getLogger(SmileParserR4Test.class);
+	private static FhirContext ourCtx = FhirContext.forR4();
+
+	@Test
+	public void testEncodeAndParse() throws IOException {
+		Patient p = new Patient();
+		p.setId("Patient/123/_history/2");
+		p.getMeta().addProfile("http://foo");
+		p.addName().setFamily("Smith").addGiven("John").addGiven("Q");
+		p.addIdentifier().setSystem("http://system").setValue("value");
+		p.addExtension(new Extension("http://ext", new DecimalType(new BigDecimal("1.50"))));
+		p.getText().setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\">Hello</div>");
+
+		IParser parser = ourCtx.newSmileParser();
+		assertEquals(EncodingEnum.SMILE, parser.getEncoding());
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		parser.encodeResourceToOutputStream(p, outputStream);
+		byte[] encoded = outputStream.toByteArray();
+
+		Patient parsed = parser.parseResource(Patient.class, new ByteArrayInputStream(encoded));
+		assertEquals(ourCtx.newJsonParser().encodeResourceToString(p), ourCtx.newJsonParser().encodeResourceToString(parsed));
+		assertEquals("1.50", ((DecimalType) parsed.getExtensionByUrl("http://ext").getValue()).getValueAsString());
+	}
+
+	@Test
+	public void testEncodeAndParseBundle() {
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.SEARCHSET);
+		for (int i = 0; i < 100; i++) {
+			Observation obs = new Observation();
+			obs.setId("Observation/" + i);
+			obs.setStatus(Observation.ObservationStatus.FINAL);
+			obs.getCode().addCoding().setSystem("http://loinc.org").setCode("29463-7").setDisplay("Body Weight");
+			obs.setSubject(new Reference("Patient/123"));
+			obs.setValue(new Quantity().setValue(new BigDecimal("70." + i)).setSystem("http://unitsofmeasure.org").setCode("kg").setUnit("kg"));
+			bundle.addEntry().setFullUrl("http://example.com/fhir/Observation/" + i).setResource(obs);
+		}
+
+		SmileParser parser = (SmileParser) ourCtx.newSmileParser();
+		byte[] encoded = parser.encodeResourceToByteArray(bundle);
+		byte[] json = ourCtx.newJsonParser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8);
+		ourLog.info("Smile size: {} - JSON size: {}", encoded.length, json.length);
+		assertThat(encoded.length, lessThan(json.length));
+
+		Bundle parsed = parser.parseResource(Bundle.class, encoded);
+		assertEquals(100, parsed.getEntry().size());
+		assertEquals("Observation/5", parsed.getEntry().get(5).getResource().getIdElement().toUnqualifiedVersionless().getValue());
+		assertEquals(ourCtx.newJsonParser().encodeResourceToString(bundle), ourCtx.newJsonParser().encodeResourceToString(parsed));
+	}
+
+	@Test
+	public void testCharacterStreamsUseBase64() throws IOException {
+		SmileParser parser = (SmileParser) ourCtx.newSmileParser();
+		Patient p = new Patient();
+		p.setActive(true);
+		p.addName().setFamily("Smith");
+
+		String encoded = parser.encodeResourceToString(p);
+		assertEquals(Base64.getEncoder().encodeToString(parser.encodeResourceToByteArray(p)), encoded);
+
+		StringWriter writer = new StringWriter();
+		parser.encodeResourceToWriter(p, writer);
+		assertEquals(encoded, writer.toString());
+
+		Patient parsed = parser.parseResource(Patient.class, encoded);
+		assertEquals("Smith", parsed.getNameFirstRep().getFamily());
+		parsed = (Patient) parser.parseResource(new StringReader(encoded));
+		assertTrue(parsed.getActive());
+	}
+
+	@Test
+	public void testParseInvalidBase64() {
+		IParser parser = ourCtx.newSmileParser();
+		DataFormatException e = assertThrows(DataFormatException.class, () -> parser.parseResource("{\"resourceType\":\"Patient\"}"));
+		assertTrue(e.getMessage().contains("not valid Base64"), e.getMessage());
+	}
+
+	@Test
+	public void testAvailable() {
+		// The Smile library is on the test classpath
+		assertTrue(EncodingEnum.SMILE.isAvailable());
+		assertEquals(EncodingEnum.SMILE, EncodingEnum.forContentType("application/x-jackson-smile"));
+		assertEquals(EncodingEnum.SMILE, EncodingEnum.forContentType("smile"));
+		assertNull(EncodingEnum.forUnavailableContentType("smile"));
+	}
+
+	@Test
+	public void testParseInvalidContent() {
+		IParser parser = ourCtx.newSmileParser();
+		DataFormatException e = assertThrows(DataFormatException.class, () -> parser.parseResource(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+		assertTrue(e.getMessage().contains("Failed to parse"), e.getMessage());
+	}
+
+	@AfterAll
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
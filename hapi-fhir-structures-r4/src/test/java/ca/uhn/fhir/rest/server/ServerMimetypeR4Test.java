@@ -19,6 +19,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -28,6 +29,7 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.CapabilityStatement;
 import org.hl7.fhir.r4.model.CodeType;
 import org.hl7.fhir.r4.model.DateType;
@@ -39,12 +41,15 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
@@ -156,6 +161,27 @@ public class ServerMimetypeR4Test {
 		assertEquals(expectedResponseContent, responseContent);
 	}
 
+	@Test
+	public void testCreateWithSmile() throws Exception {
+		Patient p = new Patient();
+		p.addName().setFamily("FAMILY");
+		ByteArrayOutputStream enc = new ByteArrayOutputStream();
+		ourCtx.newSmileParser().encodeResourceToOutputStream(p, enc);
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new ByteArrayEntity(enc.toByteArray(), ContentType.parse(Constants.CT_SMILE)));
+		httpPost.addHeader(Constants.HEADER_ACCEPT, Constants.CT_SMILE);
+		try (CloseableHttpResponse status = ourClient.execute(httpPost)) {
+			byte[] responseContent = IOUtils.toByteArray(status.getEntity().getContent());
+
+			assertEquals(201, status.getStatusLine().getStatusCode());
+			assertEquals(Constants.CT_SMILE, status.getFirstHeader("content-type").getValue().replaceAll(";.*", ""));
+			Patient response = ourCtx.newSmileParser().parseResource(Patient.class, new ByteArrayInputStream(responseContent));
+			assertEquals("FAMILY", response.getNameFirstRep().getFamily());
+			assertEquals("1", response.getMeta().getVersionId());
+		}
+	}
+
 	@Test
 	public void testCreateWithXmlLegacyNoAcceptHeaderReturnsOperationOutcome() throws Exception {
 		Patient p = new Patient();
@@ -346,6 +372,36 @@ public class ServerMimetypeR4Test {
 		assertEquals(Constants.CT_FHIR_JSON_NEW, status.getFirstHeader("content-type").getValue().replaceAll(";.*", ""));
 	}
 
+	@Test
+	public void testSearchWithFormatSmile() throws Exception {
+
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient?_format=smile");
+		try (CloseableHttpResponse status = ourClient.execute(httpGet)) {
+			byte[] responseContent = IOUtils.toByteArray(status.getEntity().getContent());
+
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			assertEquals(Constants.CT_SMILE, status.getFirstHeader("content-type").getValue().replaceAll(";.*", ""));
+			Bundle bundle = ourCtx.newSmileParser().parseResource(Bundle.class, new ByteArrayInputStream(responseContent));
+			assertEquals(2, bundle.getEntry().size());
+			assertEquals("The Family", ((Patient) bundle.getEntry().get(1).getResource()).getNameFirstRep().getFamily());
+		}
+	}
+
+	@Test
+	public void testSearchWithFormatSmileGzipped() throws Exception {
+
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient?_format=smile");
+		httpGet.addHeader(Constants.HEADER_ACCEPT_ENCODING, Constants.ENCODING_GZIP);
+		try (CloseableHttpClient client = HttpClientBuilder.create().disableContentCompression().build();
+			  CloseableHttpResponse status = client.execute(httpGet)) {
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			assertEquals(Constants.CT_SMILE, status.getFirstHeader("content-type").getValue().replaceAll(";.*", ""));
+			assertEquals(Constants.ENCODING_GZIP, status.getFirstHeader(Constants.HEADER_CONTENT_ENCODING).getValue());
+			Bundle bundle = ourCtx.newSmileParser().parseResource(Bundle.class, new GZIPInputStream(status.getEntity().getContent()));
+			assertEquals(2, bundle.getEntry().size());
+		}
+	}
+
 	@Test
 	public void testSearchWithFormatXmlLegacy() throws Exception {
 
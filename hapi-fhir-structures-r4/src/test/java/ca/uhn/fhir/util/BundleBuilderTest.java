@@ -53,6 +53,21 @@ public class BundleBuilderTest {
 		assertEquals(Bundle.HTTPVerb.PUT, bundle.getEntry().get(0).getRequest().getMethod());
 	}
 
+	@Test
+	public void testAddEntryDelete() {
+		BundleBuilder builder = new BundleBuilder(myFhirContext);
+		builder.addTransactionDeleteEntry("Patient", "123");
+
+		Bundle bundle = (Bundle) builder.getBundle();
+		ourLog.info("Bundle:\n{}", myFhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(bundle));
+
+		assertEquals(Bundle.BundleType.TRANSACTION, bundle.getType());
+		assertEquals(1, bundle.getEntry().size());
+		assertEquals(null, bundle.getEntry().get(0).getResource());
+		assertEquals("Patient/123", bundle.getEntry().get(0).getRequest().getUrl());
+		assertEquals(Bundle.HTTPVerb.DELETE, bundle.getEntry().get(0).getRequest().getMethod());
+	}
+
 	@Test
 	public void testNewPrimitive() {
 		BundleBuilder builder = new BundleBuilder(myFhirContext);
@@ -6,6 +6,8 @@ import ca.uhn.fhir.context.support.IValidationSupport;
 import ca.uhn.fhir.context.support.ValidationSupportContext;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.DateUtils;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -14,64 +16,112 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
-import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
-import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+/**
+ * This validation support module caches the results of calls to the wrapped module.
+ * <p>
+ * Results are held in an in-heap "near" cache. Terminology results (code validation and
+ * code lookups) can additionally be written to an {@link ISharedValidationCache} which is
+ * shared with other validators, so that a result computed by one node in a cluster is
+ * reused by the others rather than being computed again. The contents of the terminology
+ * caches can also be exported to a snapshot and imported by a newly started validator
+ * (see {@link #exportSnapshot(OutputStream)} and {@link #importSnapshot(InputStream)}).
+ * </p>
+ */
 @SuppressWarnings("unchecked")
 public class CachingValidationSupport extends BaseValidationSupportWrapper implements IValidationSupport {
 
+	static final String VALIDATE_CODE_CACHE = "validateCode";
+	static final String LOOKUP_CODE_CACHE = "lookupCode";
 	private static final Logger ourLog = LoggerFactory.getLogger(CachingValidationSupport.class);
-	private final Cache<String, Object> myCache;
-	private final Cache<String, Object> myValidateCodeCache;
-	private final Cache<String, Object> myLookupCodeCache;
-
+	private static final int SNAPSHOT_VERSION = 1;
+	private final Cache<CacheKey, Object> myCache;
+	private final Cache<CacheKey, Object> myValidateCodeCache;
+	private final Cache<CacheKey, Object> myLookupCodeCache;
+	private final CacheSettings mySettings;
+	private final ISharedValidationCache mySharedCache;
 
+	/**
+	 * Constructor which uses the default {@link CacheSettings} and no shared cache tier
+	 */
 	public CachingValidationSupport(IValidationSupport theWrap) {
+		this(theWrap, new CacheSettings());
+	}
+
+	/**
+	 * Constructor which uses no shared cache tier
+	 */
+	public CachingValidationSupport(IValidationSupport theWrap, CacheSettings theSettings) {
+		this(theWrap, theSettings, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theWrap        The validation support module to cache the results of
+	 * @param theSettings    The near cache sizes and timeouts
+	 * @param theSharedCache The shared cache tier for terminology results, or <code>null</code> if none should be used
+	 * @since 5.3.0
+	 */
+	public CachingValidationSupport(IValidationSupport theWrap, CacheSettings theSettings, @Nullable ISharedValidationCache theSharedCache) {
 		super(theWrap.getFhirContext(), theWrap);
+		Validate.notNull(theSettings, "theSettings must not be null");
+		mySettings = theSettings;
+		mySharedCache = theSharedCache;
 		myValidateCodeCache = Caffeine
 			.newBuilder()
-			.expireAfterWrite(10, TimeUnit.MINUTES)
-			.maximumSize(5000)
+			.expireAfterWrite(theSettings.getValidateCodeTimeoutMillis(), TimeUnit.MILLISECONDS)
+			.maximumSize(theSettings.getValidateCodeMaxSize())
 			.build();
 		myLookupCodeCache = Caffeine
 			.newBuilder()
-			.expireAfterWrite(10, TimeUnit.MINUTES)
-			.maximumSize(5000)
+			.expireAfterWrite(theSettings.getLookupCodeTimeoutMillis(), TimeUnit.MILLISECONDS)
+			.maximumSize(theSettings.getLookupCodeMaxSize())
 			.build();
 		myCache = Caffeine
 			.newBuilder()
-			.expireAfterWrite(10, TimeUnit.MINUTES)
-			.maximumSize(5000)
+			.expireAfterWrite(theSettings.getMiscTimeoutMillis(), TimeUnit.MILLISECONDS)
+			.maximumSize(theSettings.getMiscMaxSize())
 			.build();
 	}
 
 	@Override
 	public List<IBaseResource> fetchAllConformanceResources() {
-		String key = "fetchAllConformanceResources";
+		CacheKey key = new CacheKey("fetchAllConformanceResources");
 		return loadFromCache(myCache, key, t -> super.fetchAllConformanceResources());
 	}
 
 	@Override
 	public <T extends IBaseResource> List<T> fetchAllStructureDefinitions() {
-		String key = "fetchAllStructureDefinitions";
+		CacheKey key = new CacheKey("fetchAllStructureDefinitions");
 		return loadFromCache(myCache, key, t -> super.fetchAllStructureDefinitions());
 	}
 
 	@Override
 	public <T extends IBaseResource> T fetchResource(Class<T> theClass, String theUri) {
-		return loadFromCache(myCache, "fetchResource " + theClass.getName() + " " + theUri,
-			t -> super.fetchResource(theClass, theUri));
+		CacheKey key = new CacheKey("fetchResource", theClass.getName(), theUri);
+		return loadFromCache(myCache, key, t -> super.fetchResource(theClass, theUri));
 	}
 
 	@Override
 	public boolean isCodeSystemSupported(ValidationSupportContext theValidationSupportContext, String theSystem) {
-		String key = "isCodeSystemSupported " + theSystem;
+		CacheKey key = new CacheKey("isCodeSystemSupported", theSystem);
 		Boolean retVal = loadFromCache(myCache, key, t -> super.isCodeSystemSupported(theValidationSupportContext, theSystem));
 		assert retVal != null;
 		return retVal;
@@ -79,22 +129,41 @@ public class CachingValidationSupport extends BaseValidationSupportWrapper imple
 
 	@Override
 	public CodeValidationResult validateCode(ValidationSupportContext theValidationSupportContext, ConceptValidationOptions theOptions, String theCodeSystem, String theCode, String theDisplay, String theValueSetUrl) {
-		String key = "validateCode " + theCodeSystem + " " + theCode + " " + defaultIfBlank(theValueSetUrl, "NO_VS");
-		return loadFromCache(myValidateCodeCache, key, t -> super.validateCode(theValidationSupportContext, theOptions, theCodeSystem, theCode, theDisplay, theValueSetUrl));
+		CacheKey key = new CacheKey("validateCode", theCodeSystem, theCode, theValueSetUrl);
+		return loadFromCache(myValidateCodeCache, VALIDATE_CODE_CACHE, mySettings.getValidateCodeTimeoutMillis(), key, t -> super.validateCode(theValidationSupportContext, theOptions, theCodeSystem, theCode, theDisplay, theValueSetUrl));
 	}
 
 	@Override
 	public LookupCodeResult lookupCode(ValidationSupportContext theValidationSupportContext, String theSystem, String theCode) {
-		String key = "lookupCode " + theSystem + " " + theCode;
-		return loadFromCache(myLookupCodeCache, key, t -> super.lookupCode(theValidationSupportContext, theSystem, theCode));
+		CacheKey key = new CacheKey("lookupCode", theSystem, theCode);
+		return loadFromCache(myLookupCodeCache, LOOKUP_CODE_CACHE, mySettings.getLookupCodeTimeoutMillis(), key, t -> super.lookupCode(theValidationSupportContext, theSystem, theCode));
+	}
+
+	@Nullable
+	private <T> T loadFromCache(Cache<CacheKey, Object> theCache, CacheKey theKey, Function<CacheKey, T> theLoader) {
+		return loadFromCache(theCache, null, 0, theKey, theLoader);
 	}
 
 	@SuppressWarnings("OptionalAssignedToNull")
 	@Nullable
-	private <T> T loadFromCache(Cache theCache, String theKey, Function<String, T> theLoader) {
+	private <T> T loadFromCache(Cache<CacheKey, Object> theCache, @Nullable String theSharedCacheName, long theSharedTimeToLiveMillis, CacheKey theKey, Function<CacheKey, T> theLoader) {
 		ourLog.trace("Fetching from cache: {}", theKey);
 
-		Function<String, Optional<T>> loaderWrapper = key -> Optional.ofNullable(theLoader.apply(theKey));
+		Function<CacheKey, Optional<T>> loaderWrapper = key -> {
+			if (theSharedCacheName != null && mySharedCache != null) {
+				Optional<T> shared = loadFromSharedCache(theSharedCacheName, key);
+				if (shared != null) {
+					return shared;
+				}
+			}
+
+			T value = theLoader.apply(key);
+
+			if (theSharedCacheName != null && mySharedCache != null) {
+				storeInSharedCache(theSharedCacheName, theSharedTimeToLiveMillis, key, value);
+			}
+			return Optional.ofNullable(value);
+		};
 		Optional<T> result = (Optional<T>) theCache.get(theKey, loaderWrapper);
 		assert result != null;
 
@@ -102,23 +171,315 @@ public class CachingValidationSupport extends BaseValidationSupportWrapper imple
 
 	}
 
+	/**
+	 * @return Returns <code>null</code> if the shared cache has no value for the given key
+	 */
+	@SuppressWarnings("OptionalAssignedToNull")
+	private <T> Optional<T> loadFromSharedCache(String theCacheName, CacheKey theKey) {
+		try {
+			byte[] bytes = mySharedCache.get(theCacheName, theKey.toSharedKey());
+			if (bytes == null) {
+				return null;
+			}
+			ourLog.trace("Loaded from shared cache: {}", theKey);
+			return Optional.ofNullable((T) ValidationCacheCodec.decodeValue(bytes));
+		} catch (Exception e) {
+			ourLog.warn("Failed to read {} from shared validation cache: {}", theKey, e.toString());
+			return null;
+		}
+	}
+
+	private void storeInSharedCache(String theCacheName, long theTimeToLiveMillis, CacheKey theKey, Object theValue) {
+		if (!ValidationCacheCodec.isEncodable(theValue)) {
+			return;
+		}
+		try {
+			mySharedCache.put(theCacheName, theKey.toSharedKey(), ValidationCacheCodec.encodeValue(theValue), theTimeToLiveMillis);
+		} catch (Exception e) {
+			ourLog.warn("Failed to write {} to shared validation cache: {}", theKey, e.toString());
+		}
+	}
+
 	@Override
 	public IValidationSupport.CodeValidationResult validateCodeInValueSet(ValidationSupportContext theValidationSupportContext, ConceptValidationOptions theValidationOptions, String theCodeSystem, String theCode, String theDisplay, @Nonnull IBaseResource theValueSet) {
 
 		BaseRuntimeChildDefinition urlChild = myCtx.getResourceDefinition(theValueSet).getChildByName("url");
 		Optional<String> valueSetUrl = urlChild.getAccessor().getValues(theValueSet).stream().map(t -> ((IPrimitiveType<?>) t).getValueAsString()).filter(t->isNotBlank(t)).findFirst();
 		if (valueSetUrl.isPresent()) {
-			String key = "validateCodeInValueSet " + theValidationOptions.toString() + " " + defaultString(theCodeSystem, "(null)") + " " + defaultString(theCode, "(null)") + " " + defaultString(theDisplay, "(null)") + " " + valueSetUrl.get();
-			return loadFromCache(myValidateCodeCache, key, t-> super.validateCodeInValueSet(theValidationSupportContext, theValidationOptions, theCodeSystem, theCode, theDisplay, theValueSet));
+			CacheKey key = new CacheKey("validateCodeInValueSet", Boolean.toString(theValidationOptions.isValidateDisplay()), Boolean.toString(theValidationOptions.isInferSystem()), theCodeSystem, theCode, theDisplay, valueSetUrl.get());
+			return loadFromCache(myValidateCodeCache, VALIDATE_CODE_CACHE, mySettings.getValidateCodeTimeoutMillis(), key, t-> super.validateCodeInValueSet(theValidationSupportContext, theValidationOptions, theCodeSystem, theCode, theDisplay, theValueSet));
 		}
 
 		return super.validateCodeInValueSet(theValidationSupportContext, theValidationOptions, theCodeSystem, theCode, theDisplay, theValueSet);
 	}
 
+	/**
+	 * Invalidates the near caches of this validator. The shared cache tier is left alone, since
+	 * it is also used by other validators; see {@link #invalidateSharedCache()}.
+	 */
 	@Override
 	public void invalidateCaches() {
 		myLookupCodeCache.invalidateAll();
 		myCache.invalidateAll();
 		myValidateCodeCache.invalidateAll();
 	}
+
+	/**
+	 * Removes all entries from the shared cache tier, if one is configured. This affects every
+	 * validator using the same shared cache. The near caches of other validators are not
+	 * affected, so this should normally be combined with calling {@link #invalidateCaches()}
+	 * on each of them.
+	 *
+	 * @since 5.3.0
+	 */
+	public void invalidateSharedCache() {
+		if (mySharedCache != null) {
+			mySharedCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Writes the current contents of the code validation and code lookup caches to
+	 * the given stream, in a format which can be read by {@link #importSnapshot(InputStream)}.
+	 * The stream is not closed.
+	 *
+	 * @return Returns the number of entries written
+	 * @since 5.3.0
+	 */
+	public int exportSnapshot(OutputStream theOutputStream) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(theOutputStream));
+		output.writeInt(SNAPSHOT_VERSION);
+		int count = exportSnapshot(output, VALIDATE_CODE_CACHE, myValidateCodeCache);
+		count += exportSnapshot(output, LOOKUP_CODE_CACHE, myLookupCodeCache);
+		output.writeBoolean(false);
+		output.flush();
+		ourLog.info("Exported {} validation cache entries", count);
+		return count;
+	}
+
+	private int exportSnapshot(DataOutputStream theOutput, String theCacheName, Cache<CacheKey, Object> theCache) throws IOException {
+		int count = 0;
+		for (Map.Entry<CacheKey, Object> next : theCache.asMap().entrySet()) {
+			Object value = ((Optional<?>) next.getValue()).orElse(null);
+			if (!ValidationCacheCodec.isEncodable(value)) {
+				continue;
+			}
+			theOutput.writeBoolean(true);
+			ValidationCacheCodec.writeString(theOutput, theCacheName);
+			ValidationCacheCodec.writeKey(theOutput, next.getKey());
+			ValidationCacheCodec.writeBytes(theOutput, ValidationCacheCodec.encodeValue(value));
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Loads the entries from a snapshot previously written by {@link #exportSnapshot(OutputStream)}
+	 * into the near caches. Entries are subject to the normal cache timeouts, counting from
+	 * the time they are imported. The stream is not closed.
+	 *
+	 * @return Returns the number of entries loaded
+	 * @since 5.3.0
+	 */
+	public int importSnapshot(InputStream theInputStream) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(theInputStream));
+		int version = input.readInt();
+		if (version != SNAPSHOT_VERSION) {
+			throw new IOException("Unsupported validation cache snapshot version: " + version);
+		}
+
+		int count = 0;
+		while (input.readBoolean()) {
+			String cacheName = ValidationCacheCodec.readString(input);
+			CacheKey key = ValidationCacheCodec.readKey(input);
+			Object value = ValidationCacheCodec.decodeValue(ValidationCacheCodec.readBytes(input));
+			if (VALIDATE_CODE_CACHE.equals(cacheName)) {
+				myValidateCodeCache.put(key, Optional.ofNullable(value));
+			} else if (LOOKUP_CODE_CACHE.equals(cacheName)) {
+				myLookupCodeCache.put(key, Optional.ofNullable(value));
+			} else {
+				throw new IOException("Unknown cache in validation cache snapshot: " + cacheName);
+			}
+			count++;
+		}
+		ourLog.info("Imported {} validation cache entries", count);
+		return count;
+	}
+
+	/**
+	 * Structured cache key: an operation name plus the (possibly <code>null</code>)
+	 * parameters it was invoked with
+	 */
+	static final class CacheKey {
+		private final String myOperation;
+		private final List<String> myParts;
+		private final int myHashCode;
+
+		CacheKey(String theOperation, String... theParts) {
+			myOperation = theOperation;
+			myParts = Collections.unmodifiableList(Arrays.asList(theParts));
+			myHashCode = 31 * theOperation.hashCode() + myParts.hashCode();
+		}
+
+		String getOperation() {
+			return myOperation;
+		}
+
+		List<String> getParts() {
+			return myParts;
+		}
+
+		/**
+		 * Returns an unambiguous string form of this key, suitable for use in
+		 * an {@link ISharedValidationCache}. Each part is prefixed by its length so
+		 * that values containing separator characters can not collide.
+		 */
+		String toSharedKey() {
+			StringBuilder b = new StringBuilder(myOperation);
+			for (String next : myParts) {
+				b.append('|');
+				if (next == null) {
+					b.append("-1:");
+				} else {
+					b.append(next.length()).append(':').append(next);
+				}
+			}
+			return b.toString();
+		}
+
+		@Override
+		public boolean equals(Object theO) {
+			if (this == theO) {
+				return true;
+			}
+			if (!(theO instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey that = (CacheKey) theO;
+			return myHashCode == that.myHashCode && myOperation.equals(that.myOperation) && myParts.equals(that.myParts);
+		}
+
+		@Override
+		public int hashCode() {
+			return myHashCode;
+		}
+
+		@Override
+		public String toString() {
+			return myOperation + myParts;
+		}
+	}
+
+	/**
+	 * Maximum sizes and timeouts for the near caches held by {@link CachingValidationSupport}.
+	 * The timeouts for the code validation and code lookup caches are also used as the time to
+	 * live for entries written to the shared cache tier.
+	 *
+	 * @since 5.3.0
+	 */
+	public static class CacheSettings {
+
+		private long myValidateCodeMaxSize = 5000;
+		private long myValidateCodeTimeoutMillis = 10 * DateUtils.MILLIS_PER_MINUTE;
+		private long myLookupCodeMaxSize = 5000;
+		private long myLookupCodeTimeoutMillis = 10 * DateUtils.MILLIS_PER_MINUTE;
+		private long myMiscMaxSize = 5000;
+		private long myMiscTimeoutMillis = 10 * DateUtils.MILLIS_PER_MINUTE;
+
+		/**
+		 * The maximum number of code validation results to cache (default is 5000)
+		 */
+		public long getValidateCodeMaxSize() {
+			return myValidateCodeMaxSize;
+		}
+
+		/**
+		 * The maximum number of code validation results to cache (default is 5000)
+		 */
+		public CacheSettings setValidateCodeMaxSize(long theValidateCodeMaxSize) {
+			Validate.isTrue(theValidateCodeMaxSize >= 0, "theValidateCodeMaxSize must not be negative");
+			myValidateCodeMaxSize = theValidateCodeMaxSize;
+			return this;
+		}
+
+		/**
+		 * The number of milliseconds to cache code validation results for (default is 10 minutes)
+		 */
+		public long getValidateCodeTimeoutMillis() {
+			return myValidateCodeTimeoutMillis;
+		}
+
+		/**
+		 * The number of milliseconds to cache code validation results for (default is 10 minutes)
+		 */
+		public CacheSettings setValidateCodeTimeoutMillis(long theValidateCodeTimeoutMillis) {
+			Validate.isTrue(theValidateCodeTimeoutMillis > 0, "theValidateCodeTimeoutMillis must be positive");
+			myValidateCodeTimeoutMillis = theValidateCodeTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * The maximum number of code lookup results to cache (default is 5000)
+		 */
+		public long getLookupCodeMaxSize() {
+			return myLookupCodeMaxSize;
+		}
+
+		/**
+		 * The maximum number of code lookup results to cache (default is 5000)
+		 */
+		public CacheSettings setLookupCodeMaxSize(long theLookupCodeMaxSize) {
+			Validate.isTrue(theLookupCodeMaxSize >= 0, "theLookupCodeMaxSize must not be negative");
+			myLookupCodeMaxSize = theLookupCodeMaxSize;
+			return this;
+		}
+
+		/**
+		 * The number of milliseconds to cache code lookup results for (default is 10 minutes)
+		 */
+		public long getLookupCodeTimeoutMillis() {
+			return myLookupCodeTimeoutMillis;
+		}
+
+		/**
+		 * The number of milliseconds to cache code lookup results for (default is 10 minutes)
+		 */
+		public CacheSettings setLookupCodeTimeoutMillis(long theLookupCodeTimeoutMillis) {
+			Validate.isTrue(theLookupCodeTimeoutMillis > 0, "theLookupCodeTimeoutMillis must be positive");
+			myLookupCodeTimeoutMillis = theLookupCodeTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * The maximum number of other results (conformance resources, supported code systems) to cache (default is 5000)
+		 */
+		public long getMiscMaxSize() {
+			return myMiscMaxSize;
+		}
+
+		/**
+		 * The maximum number of other results (conformance resources, supported code systems) to cache (default is 5000)
+		 */
+		public CacheSettings setMiscMaxSize(long theMiscMaxSize) {
+			Validate.isTrue(theMiscMaxSize >= 0, "theMiscMaxSize must not be negative");
+			myMiscMaxSize = theMiscMaxSize;
+			return this;
+		}
+
+		/**
+		 * The number of milliseconds to cache other results (conformance resources, supported code systems) for (default is 10 minutes)
+		 */
+		public long getMiscTimeoutMillis() {
+			return myMiscTimeoutMillis;
+		}
+
+		/**
+		 * The number of milliseconds to cache other results (conformance resources, supported code systems) for (default is 10 minutes)
+		 */
+		public CacheSettings setMiscTimeoutMillis(long theMiscTimeoutMillis) {
+			Validate.isTrue(theMiscTimeoutMillis > 0, "theMiscTimeoutMillis must be positive");
+			myMiscTimeoutMillis = theMiscTimeoutMillis;
+			return this;
+		}
+	}
 }
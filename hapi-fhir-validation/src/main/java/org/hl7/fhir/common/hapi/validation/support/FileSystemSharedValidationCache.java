@@ -0,0 +1,337 @@
+package org.hl7.fhir.common.hapi.validation.support;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link ISharedValidationCache} which stores each entry as a small file in a local
+ * directory. Several validators (in the same JVM, in several processes on the same host,
+ * or on several hosts mounting the same volume) can share a directory, and entries survive
+ * restarts so that a validator starts with a warm cache.
+ * <p>
+ * Entries are written to a temporary file and then moved into place, so readers never see
+ * a partially written entry. Expired entries are removed when they are next read, and by a
+ * sweep which runs in the background at most once per {@link #setSweepIntervalMillis(long) sweep interval}
+ * (triggered by writes). The sweep also removes the entries closest to expiry from any cache
+ * holding more than {@link #setMaxEntriesPerCache(int) the maximum number of entries}.
+ * </p>
+ * <p>
+ * An entry is only ever deleted if it is still the entry which was found to be expired or
+ * surplus, so a value which another validator has just written in its place is kept.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class FileSystemSharedValidationCache implements ISharedValidationCache {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(FileSystemSharedValidationCache.class);
+	private static final String ENTRY_SUFFIX = ".entry";
+	private static final String TEMP_SUFFIX = ".part";
+	private static final String CLAIMED_SUFFIX = ".del";
+	private final File myDirectory;
+	private final AtomicLong myNextSweep = new AtomicLong();
+	private final AtomicBoolean mySweepInProgress = new AtomicBoolean(false);
+	private volatile int myMaxEntriesPerCache = 100000;
+	private volatile long mySweepIntervalMillis = 10 * DateUtils.MILLIS_PER_MINUTE;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theDirectory The directory to store entries in. Will be created if it does not exist.
+	 */
+	public FileSystemSharedValidationCache(File theDirectory) {
+		Validate.notNull(theDirectory, "theDirectory must not be null");
+		try {
+			FileUtils.forceMkdir(theDirectory);
+		} catch (IOException e) {
+			throw new InternalErrorException("Unable to create validation cache directory " + theDirectory, e);
+		}
+		myDirectory = theDirectory;
+		myNextSweep.set(System.currentTimeMillis() + mySweepIntervalMillis);
+	}
+
+	/**
+	 * The maximum number of entries to keep for each cache name (default is 100000). The limit is
+	 * enforced by the periodic sweep, so a cache can briefly hold more entries than this.
+	 */
+	public int getMaxEntriesPerCache() {
+		return myMaxEntriesPerCache;
+	}
+
+	/**
+	 * The maximum number of entries to keep for each cache name (default is 100000). The limit is
+	 * enforced by the periodic sweep, so a cache can briefly hold more entries than this.
+	 */
+	public FileSystemSharedValidationCache setMaxEntriesPerCache(int theMaxEntriesPerCache) {
+		Validate.isTrue(theMaxEntriesPerCache > 0, "theMaxEntriesPerCache must be positive");
+		myMaxEntriesPerCache = theMaxEntriesPerCache;
+		return this;
+	}
+
+	/**
+	 * The minimum number of milliseconds between two sweeps for expired and surplus entries (default is 10 minutes)
+	 */
+	public long getSweepIntervalMillis() {
+		return mySweepIntervalMillis;
+	}
+
+	/**
+	 * The minimum number of milliseconds between two sweeps for expired and surplus entries (default is 10 minutes)
+	 */
+	public FileSystemSharedValidationCache setSweepIntervalMillis(long theSweepIntervalMillis) {
+		Validate.isTrue(theSweepIntervalMillis > 0, "theSweepIntervalMillis must be positive");
+		mySweepIntervalMillis = theSweepIntervalMillis;
+		myNextSweep.set(System.currentTimeMillis() + theSweepIntervalMillis);
+		return this;
+	}
+
+	@Nullable
+	@Override
+	public byte[] get(String theCacheName, String theKey) {
+		File file = getEntryFile(theCacheName, theKey);
+		byte[] keyBytes = theKey.getBytes(StandardCharsets.UTF_8);
+		long expiry;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+			expiry = input.readLong();
+			if (expiry >= System.currentTimeMillis()) {
+				// Guard against hash collisions by storing the full key alongside the value
+				byte[] storedKey = new byte[input.readInt()];
+				input.readFully(storedKey);
+				if (!Arrays.equals(keyBytes, storedKey)) {
+					return null;
+				}
+
+				byte[] value = new byte[input.readInt()];
+				input.readFully(value);
+				return value;
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to read validation cache entry " + file, e);
+		}
+
+		deleteIfUnchanged(file.toPath(), expiry);
+		return null;
+	}
+
+	@Override
+	public void put(String theCacheName, String theKey, byte[] theValue, long theTimeToLiveMillis) {
+		File file = getEntryFile(theCacheName, theKey);
+		byte[] keyBytes = theKey.getBytes(StandardCharsets.UTF_8);
+		Path tempFile = null;
+		try {
+			FileUtils.forceMkdir(file.getParentFile());
+			tempFile = Files.createTempFile(file.getParentFile().toPath(), "tmp", TEMP_SUFFIX);
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				output.writeLong(System.currentTimeMillis() + theTimeToLiveMillis);
+				output.writeInt(keyBytes.length);
+				output.write(keyBytes);
+				output.writeInt(theValue.length);
+				output.write(theValue);
+			}
+
+			try {
+				Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			tempFile = null;
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to write validation cache entry " + file, e);
+		} finally {
+			if (tempFile != null) {
+				FileUtils.deleteQuietly(tempFile.toFile());
+			}
+		}
+
+		requestSweepIfDue();
+	}
+
+	@Override
+	public void invalidateAll() {
+		File[] cacheDirectories = myDirectory.listFiles(File::isDirectory);
+		if (cacheDirectories == null) {
+			return;
+		}
+		int count = 0;
+		for (File nextCacheDirectory : cacheDirectories) {
+			File[] entries = nextCacheDirectory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+			if (entries != null) {
+				for (File nextEntry : entries) {
+					if (nextEntry.delete()) {
+						count++;
+					}
+				}
+			}
+		}
+		ourLog.info("Removed {} entries from validation cache directory {}", count, myDirectory);
+	}
+
+	/**
+	 * Removes expired entries, and the entries closest to expiry from any cache which holds more
+	 * than {@link #getMaxEntriesPerCache()} entries. This is called automatically in the background
+	 * once per {@link #getSweepIntervalMillis() sweep interval}, but may also be called directly.
+	 *
+	 * @return Returns the number of entries removed
+	 */
+	public int sweep() {
+		File[] cacheDirectories = myDirectory.listFiles(File::isDirectory);
+		if (cacheDirectories == null) {
+			return 0;
+		}
+
+		int count = 0;
+		long now = System.currentTimeMillis();
+		for (File nextCacheDirectory : cacheDirectories) {
+			File[] files = nextCacheDirectory.listFiles();
+			if (files == null) {
+				continue;
+			}
+
+			List<SweepCandidate> liveEntries = new ArrayList<>();
+			for (File nextFile : files) {
+				String name = nextFile.getName();
+				if (name.endsWith(ENTRY_SUFFIX)) {
+					Long expiry = readExpiry(nextFile.toPath());
+					if (expiry == null) {
+						continue;
+					}
+					if (expiry < now) {
+						if (deleteIfUnchanged(nextFile.toPath(), expiry)) {
+							count++;
+						}
+					} else {
+						liveEntries.add(new SweepCandidate(nextFile.toPath(), expiry));
+					}
+				} else if ((name.endsWith(TEMP_SUFFIX) || name.endsWith(CLAIMED_SUFFIX)) && nextFile.lastModified() < now - mySweepIntervalMillis) {
+					// Left behind by a validator which stopped while writing or deleting an entry
+					FileUtils.deleteQuietly(nextFile);
+				}
+			}
+
+			int surplus = liveEntries.size() - myMaxEntriesPerCache;
+			if (surplus > 0) {
+				liveEntries.sort(Comparator.comparingLong(t -> t.myExpiry));
+				for (int i = 0; i < surplus; i++) {
+					if (deleteIfUnchanged(liveEntries.get(i).myFile, liveEntries.get(i).myExpiry)) {
+						count++;
+					}
+				}
+			}
+		}
+
+		ourLog.debug("Swept {} entries from validation cache directory {}", count, myDirectory);
+		return count;
+	}
+
+	private void requestSweepIfDue() {
+		long nextSweep = myNextSweep.get();
+		if (System.currentTimeMillis() < nextSweep || !myNextSweep.compareAndSet(nextSweep, System.currentTimeMillis() + mySweepIntervalMillis)) {
+			return;
+		}
+		if (!mySweepInProgress.compareAndSet(false, true)) {
+			return;
+		}
+
+		// Sweeping a large directory can take a while, so don't make the caller wait for it
+		CompletableFuture.runAsync(() -> {
+			try {
+				sweep();
+			} catch (Exception e) {
+				ourLog.warn("Failed to sweep validation cache directory {}: {}", myDirectory, e.toString());
+			} finally {
+				mySweepInProgress.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Deletes an entry, but only if it still has the given expiry, i.e. it has not been replaced
+	 * by another validator since it was read. The entry is first claimed by atomically renaming it
+	 * so that a replacement written concurrently can never be the file that gets deleted.
+	 *
+	 * @return Returns <code>true</code> if the entry was deleted
+	 */
+	boolean deleteIfUnchanged(Path theFile, long theExpectedExpiry) {
+		Path claimed = theFile.resolveSibling(theFile.getFileName() + "." + UUID.randomUUID() + CLAIMED_SUFFIX);
+		try {
+			Files.move(theFile, claimed, StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			return false;
+		} catch (IOException e) {
+			ourLog.debug("Unable to claim validation cache entry {} for deletion: {}", theFile, e.toString());
+			return false;
+		}
+
+		Long expiry = readExpiry(claimed);
+		if (expiry != null && expiry == theExpectedExpiry) {
+			FileUtils.deleteQuietly(claimed.toFile());
+			return true;
+		}
+
+		// The entry was replaced after it was read, so put the replacement back unless it has been replaced again
+		try {
+			Files.move(claimed, theFile);
+		} catch (FileAlreadyExistsException e) {
+			FileUtils.deleteQuietly(claimed.toFile());
+		} catch (IOException e) {
+			ourLog.debug("Unable to restore validation cache entry {}: {}", theFile, e.toString());
+			FileUtils.deleteQuietly(claimed.toFile());
+		}
+		return false;
+	}
+
+	@Nullable
+	private static Long readExpiry(Path theFile) {
+		try (DataInputStream input = new DataInputStream(Files.newInputStream(theFile))) {
+			return input.readLong();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private File getEntryFile(String theCacheName, String theKey) {
+		File cacheDirectory = new File(myDirectory, theCacheName);
+		return new File(cacheDirectory, DigestUtils.sha256Hex(theKey) + ENTRY_SUFFIX);
+	}
+
+	private static class SweepCandidate {
+		private final Path myFile;
+		private final long myExpiry;
+
+		private SweepCandidate(Path theFile, long theExpiry) {
+			myFile = theFile;
+			myExpiry = theExpiry;
+		}
+	}
+
+}
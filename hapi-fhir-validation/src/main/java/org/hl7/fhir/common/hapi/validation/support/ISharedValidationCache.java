@@ -0,0 +1,46 @@
+package org.hl7.fhir.common.hapi.validation.support;
+
+import javax.annotation.Nullable;
+
+/**
+ * A second cache tier for {@link CachingValidationSupport}, intended to be shared between
+ * several validators (e.g. all of the nodes in a cluster) so that a terminology result
+ * computed by one of them does not need to be computed again by the others.
+ * <p>
+ * Keys and values are opaque to implementations: keys are unambiguous strings and values
+ * are encoded byte arrays. Implementations must be thread safe. Failures thrown by an
+ * implementation are logged by {@link CachingValidationSupport} and otherwise treated as a
+ * cache miss, so a shared tier that is unavailable never causes validation to fail.
+ * </p>
+ *
+ * @see FileSystemSharedValidationCache
+ * @since 5.3.0
+ */
+public interface ISharedValidationCache {
+
+	/**
+	 * Returns the value stored for the given key, or <code>null</code> if no value is stored
+	 * or the stored value has expired
+	 *
+	 * @param theCacheName The name of the cache the key belongs to
+	 * @param theKey       The key
+	 */
+	@Nullable
+	byte[] get(String theCacheName, String theKey);
+
+	/**
+	 * Stores a value, replacing any value already stored for the given key
+	 *
+	 * @param theCacheName        The name of the cache the key belongs to
+	 * @param theKey              The key
+	 * @param theValue            The encoded value
+	 * @param theTimeToLiveMillis The number of milliseconds after which the value should no longer be returned
+	 */
+	void put(String theCacheName, String theKey, byte[] theValue, long theTimeToLiveMillis);
+
+	/**
+	 * Removes all stored values
+	 */
+	void invalidateAll();
+
+}
@@ -0,0 +1,247 @@
+package org.hl7.fhir.common.hapi.validation.support;
+
+import ca.uhn.fhir.context.support.IValidationSupport;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the cache keys and terminology results held by
+ * {@link CachingValidationSupport}, used by the shared cache tier and by cache snapshots.
+ */
+final class ValidationCacheCodec {
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_CODE_VALIDATION_RESULT = 1;
+	private static final byte TYPE_LOOKUP_CODE_RESULT = 2;
+	private static final byte PROPERTY_STRING = 1;
+	private static final byte PROPERTY_CODING = 2;
+
+	private ValidationCacheCodec() {
+		// nothing
+	}
+
+	/**
+	 * Returns <code>true</code> if the given value can be encoded by {@link #encodeValue(Object)}
+	 */
+	static boolean isEncodable(@Nullable Object theValue) {
+		if (theValue == null) {
+			return true;
+		}
+		if (theValue instanceof IValidationSupport.CodeValidationResult) {
+			return isEncodable(((IValidationSupport.CodeValidationResult) theValue).getProperties());
+		}
+		if (theValue instanceof IValidationSupport.LookupCodeResult) {
+			return isEncodable(((IValidationSupport.LookupCodeResult) theValue).getProperties());
+		}
+		return false;
+	}
+
+	private static boolean isEncodable(@Nullable List<IValidationSupport.BaseConceptProperty> theProperties) {
+		if (theProperties != null) {
+			for (IValidationSupport.BaseConceptProperty next : theProperties) {
+				if (!(next instanceof IValidationSupport.StringConceptProperty) && !(next instanceof IValidationSupport.CodingConceptProperty)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	static byte[] encodeValue(@Nullable Object theValue) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			if (theValue == null) {
+				output.writeByte(TYPE_NULL);
+			} else if (theValue instanceof IValidationSupport.CodeValidationResult) {
+				IValidationSupport.CodeValidationResult result = (IValidationSupport.CodeValidationResult) theValue;
+				output.writeByte(TYPE_CODE_VALIDATION_RESULT);
+				writeString(output, result.getCode());
+				writeString(output, result.getDisplay());
+				writeString(output, result.getMessage());
+				writeString(output, result.getSeverity() != null ? result.getSeverity().name() : null);
+				writeString(output, result.getCodeSystemName());
+				writeString(output, result.getCodeSystemVersion());
+				writeProperties(output, result.getProperties());
+			} else if (theValue instanceof IValidationSupport.LookupCodeResult) {
+				IValidationSupport.LookupCodeResult result = (IValidationSupport.LookupCodeResult) theValue;
+				output.writeByte(TYPE_LOOKUP_CODE_RESULT);
+				output.writeBoolean(result.isFound());
+				output.writeBoolean(result.isCodeIsAbstract());
+				writeString(output, result.getSearchedForSystem());
+				writeString(output, result.getSearchedForCode());
+				writeString(output, result.getCodeDisplay());
+				writeString(output, result.getCodeSystemDisplayName());
+				writeString(output, result.getCodeSystemVersion());
+				writeProperties(output, result.getProperties());
+				output.writeInt(result.getDesignations().size());
+				for (IValidationSupport.ConceptDesignation next : result.getDesignations()) {
+					writeString(output, next.getLanguage());
+					writeString(output, next.getUseSystem());
+					writeString(output, next.getUseCode());
+					writeString(output, next.getUseDisplay());
+					writeString(output, next.getValue());
+				}
+			} else {
+				throw new IllegalArgumentException("Can not encode value of type " + theValue.getClass().getName());
+			}
+			output.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// Can't happen when writing to a byte array
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Nullable
+	static Object decodeValue(byte[] theBytes) throws IOException {
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(theBytes));
+		byte type = input.readByte();
+		switch (type) {
+			case TYPE_NULL:
+				return null;
+			case TYPE_CODE_VALIDATION_RESULT: {
+				IValidationSupport.CodeValidationResult result = new IValidationSupport.CodeValidationResult();
+				result.setCode(readString(input));
+				result.setDisplay(readString(input));
+				result.setMessage(readString(input));
+				String severity = readString(input);
+				if (severity != null) {
+					result.setSeverity(IValidationSupport.IssueSeverity.valueOf(severity));
+				}
+				result.setCodeSystemName(readString(input));
+				result.setCodeSystemVersion(readString(input));
+				result.setProperties(readProperties(input));
+				return result;
+			}
+			case TYPE_LOOKUP_CODE_RESULT: {
+				IValidationSupport.LookupCodeResult result = new IValidationSupport.LookupCodeResult();
+				result.setFound(input.readBoolean());
+				result.setCodeIsAbstract(input.readBoolean());
+				result.setSearchedForSystem(readString(input));
+				result.setSearchedForCode(readString(input));
+				result.setCodeDisplay(readString(input));
+				result.setCodeSystemDisplayName(readString(input));
+				result.setCodeSystemVersion(readString(input));
+				result.setProperties(readProperties(input));
+				int designationCount = input.readInt();
+				for (int i = 0; i < designationCount; i++) {
+					result.getDesignations().add(new IValidationSupport.ConceptDesignation()
+						.setLanguage(readString(input))
+						.setUseSystem(readString(input))
+						.setUseCode(readString(input))
+						.setUseDisplay(readString(input))
+						.setValue(readString(input)));
+				}
+				return result;
+			}
+			default:
+				throw new IOException("Unknown cached value type: " + type);
+		}
+	}
+
+	static void writeKey(DataOutput theOutput, CachingValidationSupport.CacheKey theKey) throws IOException {
+		writeString(theOutput, theKey.getOperation());
+		List<String> parts = theKey.getParts();
+		theOutput.writeInt(parts.size());
+		for (String next : parts) {
+			writeString(theOutput, next);
+		}
+	}
+
+	static CachingValidationSupport.CacheKey readKey(DataInput theInput) throws IOException {
+		String operation = readString(theInput);
+		String[] parts = new String[theInput.readInt()];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = readString(theInput);
+		}
+		return new CachingValidationSupport.CacheKey(operation, parts);
+	}
+
+	static void writeBytes(DataOutput theOutput, byte[] theBytes) throws IOException {
+		theOutput.writeInt(theBytes.length);
+		theOutput.write(theBytes);
+	}
+
+	static byte[] readBytes(DataInput theInput) throws IOException {
+		byte[] retVal = new byte[theInput.readInt()];
+		theInput.readFully(retVal);
+		return retVal;
+	}
+
+	static void writeString(DataOutput theOutput, @Nullable String theString) throws IOException {
+		if (theString == null) {
+			theOutput.writeInt(-1);
+		} else {
+			writeBytes(theOutput, theString.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Nullable
+	static String readString(DataInput theInput) throws IOException {
+		int length = theInput.readInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		theInput.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeProperties(DataOutput theOutput, @Nullable List<IValidationSupport.BaseConceptProperty> theProperties) throws IOException {
+		if (theProperties == null) {
+			theOutput.writeInt(-1);
+			return;
+		}
+		theOutput.writeInt(theProperties.size());
+		for (IValidationSupport.BaseConceptProperty next : theProperties) {
+			if (next instanceof IValidationSupport.StringConceptProperty) {
+				theOutput.writeByte(PROPERTY_STRING);
+				writeString(theOutput, next.getPropertyName());
+				writeString(theOutput, ((IValidationSupport.StringConceptProperty) next).getValue());
+			} else {
+				IValidationSupport.CodingConceptProperty property = (IValidationSupport.CodingConceptProperty) next;
+				theOutput.writeByte(PROPERTY_CODING);
+				writeString(theOutput, property.getPropertyName());
+				writeString(theOutput, property.getCodeSystem());
+				writeString(theOutput, property.getCode());
+				writeString(theOutput, property.getDisplay());
+			}
+		}
+	}
+
+	@Nullable
+	private static List<IValidationSupport.BaseConceptProperty> readProperties(DataInput theInput) throws IOException {
+		int count = theInput.readInt();
+		if (count == -1) {
+			return null;
+		}
+		List<IValidationSupport.BaseConceptProperty> retVal = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte type = theInput.readByte();
+			String name = readString(theInput);
+			if (type == PROPERTY_STRING) {
+				retVal.add(new IValidationSupport.StringConceptProperty(name, readString(theInput)));
+			} else if (type == PROPERTY_CODING) {
+				String system = readString(theInput);
+				String code = readString(theInput);
+				String display = readString(theInput);
+				retVal.add(new IValidationSupport.CodingConceptProperty(name, system, code, display));
+			} else {
+				throw new IOException("Unknown cached property type: " + type);
+			}
+		}
+		return retVal;
+	}
+
+}
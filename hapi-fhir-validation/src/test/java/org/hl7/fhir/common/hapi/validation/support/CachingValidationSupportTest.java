@@ -0,0 +1,211 @@
+package org.hl7.fhir.common.hapi.validation.support;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.ConceptValidationOptions;
+import ca.uhn.fhir.context.support.IValidationSupport;
+import ca.uhn.fhir.context.support.ValidationSupportContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CachingValidationSupportTest {
+
+	private static final FhirContext ourCtx = FhirContext.forR4();
+	private final AtomicInteger myValidateCodeCount = new AtomicInteger();
+	private final AtomicInteger myLookupCodeCount = new AtomicInteger();
+	private IValidationSupport myWrap;
+	@TempDir
+	File myTempDir;
+
+	@BeforeEach
+	public void before() {
+		myWrap = new BaseValidationSupport(ourCtx) {
+			@Override
+			public CodeValidationResult validateCode(ValidationSupportContext theValidationSupportContext, ConceptValidationOptions theOptions, String theCodeSystem, String theCode, String theDisplay, String theValueSetUrl) {
+				myValidateCodeCount.incrementAndGet();
+				if ("bad".equals(theCode)) {
+					return null;
+				}
+				return new CodeValidationResult()
+					.setCode(theCode)
+					.setDisplay("Display for " + theCode)
+					.setCodeSystemVersion("1.0")
+					.setSeverity(IssueSeverity.WARNING)
+					.setMessage("Message for " + theCodeSystem);
+			}
+
+			@Override
+			public LookupCodeResult lookupCode(ValidationSupportContext theValidationSupportContext, String theSystem, String theCode) {
+				myLookupCodeCount.incrementAndGet();
+				LookupCodeResult retVal = new LookupCodeResult()
+					.setSearchedForSystem(theSystem)
+					.setSearchedForCode(theCode)
+					.setFound(true);
+				retVal.setCodeDisplay("Display for " + theCode);
+				retVal.getProperties().add(new StringConceptProperty("prop", "value"));
+				retVal.getProperties().add(new CodingConceptProperty("coding", "http://system", "code", "display"));
+				retVal.getDesignations().add(new ConceptDesignation().setLanguage("fr").setValue("Affichage"));
+				return retVal;
+			}
+		};
+	}
+
+	@Test
+	public void testSharedCacheWarmsOtherValidators() {
+		FileSystemSharedValidationCache sharedCache = new FileSystemSharedValidationCache(myTempDir);
+		CachingValidationSupport first = new CachingValidationSupport(myWrap, new CachingValidationSupport.CacheSettings(), sharedCache);
+		CachingValidationSupport second = new CachingValidationSupport(myWrap, new CachingValidationSupport.CacheSettings(), sharedCache);
+
+		IValidationSupport.CodeValidationResult outcome = validateCode(first, "http://system", "code");
+		assertEquals(1, myValidateCodeCount.get());
+		assertNull(validateCode(first, "http://system", "bad"));
+		assertEquals(2, myValidateCodeCount.get());
+		first.lookupCode(newContext(first), "http://system", "code");
+		assertEquals(1, myLookupCodeCount.get());
+
+		// The second validator finds everything in the shared cache
+		IValidationSupport.CodeValidationResult sharedOutcome = validateCode(second, "http://system", "code");
+		assertNull(validateCode(second, "http://system", "bad"));
+		IValidationSupport.LookupCodeResult lookupOutcome = second.lookupCode(newContext(second), "http://system", "code");
+		assertEquals(2, myValidateCodeCount.get());
+		assertEquals(1, myLookupCodeCount.get());
+
+		assertEquals(outcome.getCode(), sharedOutcome.getCode());
+		assertEquals(outcome.getDisplay(), sharedOutcome.getDisplay());
+		assertEquals(outcome.getCodeSystemVersion(), sharedOutcome.getCodeSystemVersion());
+		assertEquals(outcome.getMessage(), sharedOutcome.getMessage());
+		assertEquals(IValidationSupport.IssueSeverity.WARNING, sharedOutcome.getSeverity());
+		assertTrue(lookupOutcome.isFound());
+		assertEquals("Display for code", lookupOutcome.getCodeDisplay());
+		assertEquals("value", ((IValidationSupport.StringConceptProperty) lookupOutcome.getProperties().get(0)).getValue());
+		assertEquals("display", ((IValidationSupport.CodingConceptProperty) lookupOutcome.getProperties().get(1)).getDisplay());
+		assertEquals("Affichage", lookupOutcome.getDesignations().get(0).getValue());
+
+		// Invalidating the near cache of one validator leaves the shared tier alone
+		first.invalidateCaches();
+		validateCode(first, "http://system", "code");
+		assertEquals(2, myValidateCodeCount.get());
+
+		// The shared tier is only cleared explicitly
+		first.invalidateSharedCache();
+		first.invalidateCaches();
+		validateCode(first, "http://system", "code");
+		assertEquals(3, myValidateCodeCount.get());
+	}
+
+	@Test
+	public void testSnapshotExportAndImport() throws Exception {
+		CachingValidationSupport first = new CachingValidationSupport(myWrap);
+		validateCode(first, "http://system", "code");
+		validateCode(first, "http://system", "bad");
+		first.lookupCode(newContext(first), "http://system", "code");
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		assertEquals(3, first.exportSnapshot(snapshot));
+
+		CachingValidationSupport second = new CachingValidationSupport(myWrap);
+		assertEquals(3, second.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray())));
+
+		assertEquals("Display for code", validateCode(second, "http://system", "code").getDisplay());
+		assertNull(validateCode(second, "http://system", "bad"));
+		assertEquals("Display for code", second.lookupCode(newContext(second), "http://system", "code").getCodeDisplay());
+		assertEquals(2, myValidateCodeCount.get());
+		assertEquals(1, myLookupCodeCount.get());
+	}
+
+	@Test
+	public void testKeysDoNotCollide() {
+		CachingValidationSupport svc = new CachingValidationSupport(myWrap);
+
+		// These would produce the same key if the parameters were simply joined with spaces
+		validateCode(svc, "http://system a", "b");
+		validateCode(svc, "http://system", "a b");
+		assertEquals(2, myValidateCodeCount.get());
+
+		assertFalse(new CachingValidationSupport.CacheKey("op", "a|1:b").toSharedKey().equals(new CachingValidationSupport.CacheKey("op", "a", "b").toSharedKey()));
+		assertFalse(new CachingValidationSupport.CacheKey("op", (String) null).toSharedKey().equals(new CachingValidationSupport.CacheKey("op", "").toSharedKey()));
+	}
+
+	@Test
+	public void testFileSystemSharedCacheExpiry() throws Exception {
+		FileSystemSharedValidationCache sharedCache = new FileSystemSharedValidationCache(myTempDir);
+		sharedCache.put("cache", "key", new byte[]{1, 2, 3}, 60000);
+		sharedCache.put("cache", "expiring", new byte[]{4}, 1);
+		Thread.sleep(10);
+
+		assertArrayEquals(new byte[]{1, 2, 3}, sharedCache.get("cache", "key"));
+		assertNull(sharedCache.get("cache", "expiring"));
+		assertNull(sharedCache.get("cache", "missing"));
+
+		sharedCache.invalidateAll();
+		assertNull(sharedCache.get("cache", "key"));
+	}
+
+	@Test
+	public void testFileSystemSharedCacheSweep() throws Exception {
+		FileSystemSharedValidationCache sharedCache = new FileSystemSharedValidationCache(myTempDir).setMaxEntriesPerCache(2);
+		sharedCache.put("cache", "expiring", new byte[]{1}, 1);
+		sharedCache.put("cache", "soonest", new byte[]{2}, 60000);
+		sharedCache.put("cache", "later", new byte[]{3}, 120000);
+		sharedCache.put("cache", "latest", new byte[]{4}, 180000);
+		sharedCache.put("other", "key", new byte[]{5}, 60000);
+		Thread.sleep(10);
+
+		// The expired entry and the entry closest to expiry are removed
+		assertEquals(2, sharedCache.sweep());
+		assertNull(sharedCache.get("cache", "soonest"));
+		assertArrayEquals(new byte[]{3}, sharedCache.get("cache", "later"));
+		assertArrayEquals(new byte[]{4}, sharedCache.get("cache", "latest"));
+		assertArrayEquals(new byte[]{5}, sharedCache.get("other", "key"));
+		assertEquals(2, new File(myTempDir, "cache").listFiles().length);
+	}
+
+	@Test
+	public void testFileSystemSharedCacheKeepsReplacedEntry() throws Exception {
+		FileSystemSharedValidationCache first = new FileSystemSharedValidationCache(myTempDir);
+		FileSystemSharedValidationCache second = new FileSystemSharedValidationCache(myTempDir);
+		first.put("cache", "key", new byte[]{1}, 1);
+		Path entry = new File(myTempDir, "cache").listFiles()[0].toPath();
+		long expiredAt;
+		try (DataInputStream input = new DataInputStream(Files.newInputStream(entry))) {
+			expiredAt = input.readLong();
+		}
+		Thread.sleep(10);
+
+		// Another validator replaces the entry after the first one found it to be expired
+		second.put("cache", "key", new byte[]{2}, 60000);
+		assertFalse(first.deleteIfUnchanged(entry, expiredAt));
+		assertArrayEquals(new byte[]{2}, first.get("cache", "key"));
+		assertEquals(1, new File(myTempDir, "cache").listFiles().length);
+
+		// Once the entry is unchanged it can be removed
+		try (DataInputStream input = new DataInputStream(Files.newInputStream(entry))) {
+			assertTrue(first.deleteIfUnchanged(entry, input.readLong()));
+		}
+		assertNull(second.get("cache", "key"));
+		assertEquals(0, new File(myTempDir, "cache").listFiles().length);
+	}
+
+	private IValidationSupport.CodeValidationResult validateCode(CachingValidationSupport theSvc, String theSystem, String theCode) {
+		return theSvc.validateCode(newContext(theSvc), new ConceptValidationOptions(), theSystem, theCode, null, null);
+	}
+
+	private ValidationSupportContext newContext(CachingValidationSupport theSvc) {
+		return new ValidationSupportContext(theSvc);
+	}
+
+}